@@ -30,7 +30,6 @@ package de.fraunhofer.fokus.lsf.core;
 import java.util.Vector;
 
 import de.fraunhofer.fokus.lsf.core.base.GatewayData;
-import de.fraunhofer.fokus.upnp.util.ByteArrayHelper;
 import de.fraunhofer.fokus.upnp.util.Portable;
 
 /**
@@ -47,32 +46,11 @@ public class BinaryMessageHelper
   /** Searches the device ID in a message. */
   public static long getDeviceIDFromMessage(byte[] messageData)
   {
-    try
-    {
-      int offset = 0;
-      int loops = 0;
-
-      while (offset < messageData.length && loops < MAX_LOOP_COUNT)
-      {
-        byte unitType = messageData[offset++];
-        if (unitType == BinaryUPnPConstants.UnitTypeEndOfPacket)
-        {
-          break;
-        }
-        if (unitType == BinaryUPnPConstants.UnitTypePadding)
-        {
-          continue;
-        }
-        int length = BinaryUPnPConstants.decodeUnitLength(messageData[offset++] & 0xFF);
-        if (unitType == BinaryUPnPConstants.UnitTypeDeviceID)
-        {
-          return ByteArrayHelper.byteArrayToInt64(messageData, offset, length);
-        }
-        offset += length;
-        loops++;
-      }
-    } catch (Exception e)
+    BinaryMessageReader messageReader = BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_MESSAGE);
+    messageReader.reset(messageData);
+    if (messageReader.find(BinaryUPnPConstants.UnitTypeDeviceID))
     {
+      return messageReader.getNumber();
     }
     return 0;
   }
@@ -84,7 +62,8 @@ public class BinaryMessageHelper
    * @param messageData
    *          The message
    * @param tupelList
-   *          Contains all parsed tupels which are neither access nor response entities
+   *          Contains all parsed tupels which are neither access nor response entities, may be null if these tupels
+   *          are not needed
    * @param accessEntityList
    *          List with parsed access entities
    * @param responseEntityList
@@ -97,8 +76,8 @@ public class BinaryMessageHelper
   {
     try
     {
-      int offset = 0;
-      int loops = 0;
+      BinaryMessageReader messageReader = BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_MESSAGE);
+      messageReader.reset(messageData);
 
       byte[] accessForwarderAddress = null;
       long accessID = 0;
@@ -115,18 +94,9 @@ public class BinaryMessageHelper
 
       boolean handled = false;
 
-      while (offset < messageData.length && loops < MAX_LOOP_COUNT)
+      while (messageReader.next())
       {
-        byte unitType = messageData[offset++];
-        if (unitType == BinaryUPnPConstants.UnitTypeEndOfPacket)
-        {
-          break;
-        }
-        if (unitType == BinaryUPnPConstants.UnitTypePadding)
-        {
-          continue;
-        }
-        int length = BinaryUPnPConstants.decodeUnitLength(messageData[offset++] & 0xFF);
+        byte unitType = messageReader.getUnitType();
         handled = false;
         // handle packet units
 
@@ -135,8 +105,7 @@ public class BinaryMessageHelper
           // marks a new access entity
           if (unitType == BinaryUPnPConstants.UnitTypeAccessForwarderAddress)
           {
-            accessForwarderAddress = new byte[length];
-            Portable.arraycopy(messageData, offset, accessForwarderAddress, 0, length);
+            accessForwarderAddress = messageReader.getValue();
 
             accessID = 0;
             accessForwarderID = 0xFF;
@@ -148,36 +117,33 @@ public class BinaryMessageHelper
           }
           if (unitType == BinaryUPnPConstants.UnitTypeAccessID)
           {
-            accessID = ByteArrayHelper.byteArrayToInt64(messageData, offset, length);
+            accessID = messageReader.getNumber();
             handled = true;
           }
           if (unitType == BinaryUPnPConstants.UnitTypeAccessForwarderDescriptionPort)
           {
-            accessDescriptionPort = new byte[length];
-            Portable.arraycopy(messageData, offset, accessDescriptionPort, 0, length);
+            accessDescriptionPort = messageReader.getValue();
             handled = true;
           }
           if (unitType == BinaryUPnPConstants.UnitTypeAccessForwarderControlPort)
           {
-            accessControlPort = new byte[length];
-            Portable.arraycopy(messageData, offset, accessControlPort, 0, length);
+            accessControlPort = messageReader.getValue();
             handled = true;
           }
           if (unitType == BinaryUPnPConstants.UnitTypeAccessForwarderEventPort)
           {
-            accessEventPort = new byte[length];
-            Portable.arraycopy(messageData, offset, accessEventPort, 0, length);
+            accessEventPort = messageReader.getValue();
             handled = true;
           }
           if (unitType == BinaryUPnPConstants.UnitTypeAccessForwarderPhyType)
           {
-            accessForwarderPhyType = messageData[offset] & 0xFF;
+            accessForwarderPhyType = messageReader.getUInt8();
             handled = true;
           }
           // marks the end of one access entity
           if (unitType == BinaryUPnPConstants.UnitTypeAccessForwarderID)
           {
-            accessForwarderID = messageData[offset] & 0xFF;
+            accessForwarderID = messageReader.getUInt8();
             if (accessForwarderAddress != null)
             {
               GatewayData gatewayData = new GatewayData(accessForwarderAddress, accessForwarderID);
@@ -211,8 +177,7 @@ public class BinaryMessageHelper
           // marks a new response entity
           if (unitType == BinaryUPnPConstants.UnitTypeResponseForwarderAddress)
           {
-            responseForwarderAddress = new byte[length];
-            Portable.arraycopy(messageData, offset, responseForwarderAddress, 0, length);
+            responseForwarderAddress = messageReader.getValue();
 
             responseID = 0;
             responseForwarderID = 0xFF;
@@ -221,19 +186,18 @@ public class BinaryMessageHelper
           }
           if (unitType == BinaryUPnPConstants.UnitTypeResponseID)
           {
-            responseID = ByteArrayHelper.byteArrayToInt64(messageData, offset, length);
+            responseID = messageReader.getNumber();
             handled = true;
           }
           if (unitType == BinaryUPnPConstants.UnitTypeResponseForwarderPort)
           {
-            responseForwarderPort = new byte[length];
-            Portable.arraycopy(messageData, offset, responseForwarderPort, 0, length);
+            responseForwarderPort = messageReader.getValue();
             handled = true;
           }
           // marks the end of one response entity
           if (unitType == BinaryUPnPConstants.UnitTypeResponseForwarderID)
           {
-            responseForwarderID = messageData[offset] & 0xFF;
+            responseForwarderID = messageReader.getUInt8();
             if (responseForwarderAddress != null)
             {
               GatewayData gatewayData = new GatewayData(responseForwarderAddress, responseForwarderID);
@@ -250,19 +214,18 @@ public class BinaryMessageHelper
             handled = true;
           }
         }
-        if (!handled)
+        if (!handled && tupelList != null)
         {
           // copy the complete tupel, including unitType and unitLength
-          byte[] completeTupelData = new byte[length + 2];
-          completeTupelData[0] = unitType;
-          completeTupelData[1] = (byte)BinaryUPnPConstants.encodeUnitLength(length);
-          Portable.arraycopy(messageData, offset, completeTupelData, 2, length);
+          byte[] completeTupelData = new byte[messageReader.getValueLength() + 2];
+          Portable.arraycopy(messageData,
+            messageReader.getUnitOffset(),
+            completeTupelData,
+            0,
+            completeTupelData.length);
 
-          MessageTupel messageTupel = new MessageTupel(completeTupelData);
-          tupelList.add(messageTupel);
+          tupelList.add(new MessageTupel(completeTupelData));
         }
-        offset += length;
-        loops++;
       }
     } catch (Exception e)
     {
@@ -280,54 +243,28 @@ public class BinaryMessageHelper
    */
   public static byte[] toByteArray(Vector tupelList, Vector accessEntityList, Vector responseEntityList)
   {
-    int length = 0;
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
     for (int i = 0; i < tupelList.size(); i++)
     {
-      length += ((MessageTupel)tupelList.elementAt(i)).getTupelLength();
-    }
-    if (responseEntityList != null)
-    {
-      // response entities first
-      for (int i = 0; i < responseEntityList.size(); i++)
-      {
-        length += ((GatewayData)responseEntityList.elementAt(i)).toByteArrayForResponse().length;
-      }
-    }
-    if (accessEntityList != null)
-    {
-      for (int i = 0; i < accessEntityList.size(); i++)
-      {
-        length += ((GatewayData)accessEntityList.elementAt(i)).toByteArrayForAccess().length;
-      }
-    }
-    byte[] result = new byte[length + 1];
-    int offset = 0;
-    for (int i = 0; i < tupelList.size(); i++)
-    {
-      length = ((MessageTupel)tupelList.elementAt(i)).getTupelLength();
-      Portable.arraycopy(((MessageTupel)tupelList.elementAt(i)).getTupelContent(), 0, result, offset, length);
-      offset += length;
+      writer.writeRaw(((MessageTupel)tupelList.elementAt(i)).getTupelContent());
     }
     // response entities first
     if (responseEntityList != null)
     {
       for (int i = 0; i < responseEntityList.size(); i++)
       {
-        byte[] data = ((GatewayData)responseEntityList.elementAt(i)).toByteArrayForResponse();
-        Portable.arraycopy(data, 0, result, offset, data.length);
-        offset += data.length;
+        ((GatewayData)responseEntityList.elementAt(i)).writeForResponse(writer);
       }
     }
     if (accessEntityList != null)
     {
       for (int i = 0; i < accessEntityList.size(); i++)
       {
-        byte[] data = ((GatewayData)accessEntityList.elementAt(i)).toByteArrayForAccess();
-        Portable.arraycopy(data, 0, result, offset, data.length);
-        offset += data.length;
+        ((GatewayData)accessEntityList.elementAt(i)).writeForAccess(writer);
       }
     }
-    result[result.length - 1] = BinaryUPnPConstants.UnitTypeEndOfPacket;
-    return result;
+    writer.writeEndOfPacket();
+
+    return writer.toByteArray();
   }
 }
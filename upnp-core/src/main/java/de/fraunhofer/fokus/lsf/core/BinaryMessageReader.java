@@ -0,0 +1,384 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.lsf.core;
+
+import java.nio.ByteBuffer;
+
+import de.fraunhofer.fokus.upnp.util.Portable;
+import de.fraunhofer.fokus.upnp.util.StringHelper;
+
+/**
+ * This class is a reusable cursor over the units (Type, Length, Value) of a LSF message. It reads directly from the
+ * message array and does not allocate objects while iterating, so one instance can be reused for all messages
+ * received by a thread. Instances are not thread-safe, use getThreadReader() to retrieve the instances of the current
+ * thread.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class BinaryMessageReader
+{
+
+  /** Nesting level for complete messages */
+  public static final int     LEVEL_MESSAGE  = 0;
+
+  /** Nesting level for service containers */
+  public static final int     LEVEL_SERVICE  = 1;
+
+  /** Nesting level for action containers */
+  public static final int     LEVEL_ACTION   = 2;
+
+  /** Nesting level for argument containers */
+  public static final int     LEVEL_ARGUMENT = 3;
+
+  /** Number of supported nesting levels */
+  public static final int     LEVEL_COUNT    = 4;
+
+  /** Empty message */
+  private static final byte[] EMPTY_MESSAGE  = new byte[0];
+
+  /** Readers of each thread, one for each nesting level */
+  private static ThreadLocal  threadReaders  = new ThreadLocal();
+
+  /** Array containing the message */
+  private byte[]              data;
+
+  /** Offset of the first unit */
+  private int                 start;
+
+  /** Offset after the last byte of the message */
+  private int                 limit;
+
+  /** Offset of the next unit */
+  private int                 nextOffset;
+
+  /** Number of read units */
+  private int                 loops;
+
+  /** Type of the current unit */
+  private byte                unitType;
+
+  /** Offset of the value of the current unit */
+  private int                 valueOffset;
+
+  /** Decoded length of the current unit */
+  private int                 valueLength;
+
+  /**
+   * Creates a new instance of BinaryMessageReader without a message.
+   * 
+   */
+  public BinaryMessageReader()
+  {
+    reset(EMPTY_MESSAGE);
+  }
+
+  /**
+   * Creates a new instance of BinaryMessageReader.
+   * 
+   * @param messageData
+   *          The message
+   */
+  public BinaryMessageReader(byte[] messageData)
+  {
+    reset(messageData);
+  }
+
+  /**
+   * Retrieves the reader of the current thread for a nesting level. Parsers use LEVEL_MESSAGE for the message and
+   * the higher levels for containers found in the message, so nested parsers do not overwrite the state of their
+   * callers.
+   * 
+   * @param level
+   *          The nesting level
+   * 
+   * @return The reader for the level
+   */
+  public static BinaryMessageReader getThreadReader(int level)
+  {
+    BinaryMessageReader[] readers = (BinaryMessageReader[])threadReaders.get();
+    if (readers == null)
+    {
+      readers = new BinaryMessageReader[LEVEL_COUNT];
+      for (int i = 0; i < readers.length; i++)
+      {
+        readers[i] = new BinaryMessageReader();
+      }
+      threadReaders.set(readers);
+    }
+    return readers[level];
+  }
+
+  /**
+   * Starts reading a new message.
+   * 
+   * @param messageData
+   *          The message
+   */
+  public void reset(byte[] messageData)
+  {
+    reset(messageData, 0, messageData.length);
+  }
+
+  /**
+   * Starts reading a new message from a part of an array, e.g., the value of a container unit.
+   * 
+   * @param messageData
+   *          The array containing the message
+   * @param offset
+   *          Start of the message in the array
+   * @param length
+   *          Length of the message
+   */
+  public void reset(byte[] messageData, int offset, int length)
+  {
+    data = messageData;
+    start = offset;
+    limit = offset + length;
+    rewind();
+  }
+
+  /**
+   * Starts reading a new message from a buffer.
+   * 
+   * @param buffer
+   *          The buffer, must be backed by an array
+   * @param offset
+   *          Start of the message in the buffer
+   * @param length
+   *          Length of the message
+   */
+  public void reset(ByteBuffer buffer, int offset, int length)
+  {
+    reset(buffer.array(), buffer.arrayOffset() + offset, length);
+  }
+
+  /**
+   * Starts reading the value of the current unit of another reader, e.g., the content of a container.
+   * 
+   * @param reader
+   *          The reader positioned at the container
+   */
+  public void reset(BinaryMessageReader reader)
+  {
+    reset(reader.data, reader.valueOffset, reader.valueLength);
+  }
+
+  /** Restarts reading at the first unit of the current message. */
+  public void rewind()
+  {
+    nextOffset = start;
+    loops = 0;
+    unitType = BinaryUPnPConstants.UnitTypeEndOfPacket;
+    valueOffset = start;
+    valueLength = 0;
+  }
+
+  /**
+   * Moves to the next unit of the message. Padding units are skipped.
+   * 
+   * @return True if a unit was found, false if the end of the packet or an invalid unit was reached
+   */
+  public boolean next()
+  {
+    while (nextOffset < limit && loops < BinaryMessageHelper.MAX_LOOP_COUNT)
+    {
+      byte currentType = data[nextOffset];
+      if (currentType == BinaryUPnPConstants.UnitTypeEndOfPacket)
+      {
+        break;
+      }
+      if (currentType == BinaryUPnPConstants.UnitTypePadding)
+      {
+        nextOffset++;
+        continue;
+      }
+      if (nextOffset + 1 >= limit)
+      {
+        break;
+      }
+      int length = BinaryUPnPConstants.decodeUnitLength(data[nextOffset + 1] & 0xFF);
+      if (nextOffset + 2 + length > limit)
+      {
+        break;
+      }
+      unitType = currentType;
+      valueOffset = nextOffset + 2;
+      valueLength = length;
+      nextOffset = valueOffset + length;
+      loops++;
+      return true;
+    }
+    unitType = BinaryUPnPConstants.UnitTypeEndOfPacket;
+    valueLength = 0;
+    nextOffset = limit;
+    return false;
+  }
+
+  /**
+   * Continues reading with the units inside the value of the current unit, e.g., for containers. The outer units
+   * following the container are read afterwards.
+   */
+  public void enterUnit()
+  {
+    nextOffset = valueOffset;
+  }
+
+  /**
+   * Searches the next unit with a certain type.
+   * 
+   * @param type
+   *          The unit type
+   * 
+   * @return True if the unit was found
+   */
+  public boolean find(byte type)
+  {
+    while (next())
+    {
+      if (unitType == type)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Retrieves the type of the current unit. */
+  public byte getUnitType()
+  {
+    return unitType;
+  }
+
+  /** Retrieves the decoded length of the value of the current unit. */
+  public int getValueLength()
+  {
+    return valueLength;
+  }
+
+  /** Retrieves the offset of the value of the current unit in the buffer. */
+  public int getValueOffset()
+  {
+    return valueOffset;
+  }
+
+  /** Retrieves the offset of the current unit, including type and length. */
+  public int getUnitOffset()
+  {
+    return valueOffset - 2;
+  }
+
+  /** Retrieves the array containing the current message. */
+  public byte[] getData()
+  {
+    return data;
+  }
+
+  /** Retrieves the first byte of the value as unsigned value. */
+  public int getUInt8()
+  {
+    return data[valueOffset] & 0xFF;
+  }
+
+  /** Retrieves the first two bytes of the value as unsigned big endian value. */
+  public int getUInt16()
+  {
+    return (data[valueOffset] & 0xFF) << 8 | data[valueOffset + 1] & 0xFF;
+  }
+
+  /** Retrieves the first byte of the value. */
+  public byte getByte()
+  {
+    return data[valueOffset];
+  }
+
+  /** Retrieves the value as big endian number with up to 8 bytes. */
+  public long getNumber()
+  {
+    long result = 0;
+    int length = Math.min(8, valueLength);
+    for (int i = 0; i < length; i++)
+    {
+      result = result << 8 | data[valueOffset + i] & 0xFF;
+    }
+    return result;
+  }
+
+  /**
+   * Copies the value of the current unit.
+   * 
+   * @param destination
+   *          The destination array
+   * @param offset
+   *          Offset in the destination array
+   */
+  public void getValue(byte[] destination, int offset)
+  {
+    Portable.arraycopy(data, valueOffset, destination, offset, valueLength);
+  }
+
+  /** Retrieves a copy of the value of the current unit. */
+  public byte[] getValue()
+  {
+    byte[] result = new byte[valueLength];
+    getValue(result, 0);
+
+    return result;
+  }
+
+  /** Retrieves the value of the current unit as string. */
+  public String getString()
+  {
+    return StringHelper.byteArrayToString(data, valueOffset, valueLength);
+  }
+
+  /**
+   * Compares the value of the current unit with a byte array.
+   * 
+   * @param compared
+   *          The compared data
+   * 
+   * @return True if length and content are equal
+   */
+  public boolean isValueEqual(byte[] compared)
+  {
+    if (compared.length != valueLength)
+    {
+      return false;
+    }
+    for (int i = 0; i < valueLength; i++)
+    {
+      if (data[valueOffset + i] != compared[i])
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
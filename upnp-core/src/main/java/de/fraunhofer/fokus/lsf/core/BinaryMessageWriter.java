@@ -0,0 +1,300 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.lsf.core;
+
+import de.fraunhofer.fokus.upnp.util.Portable;
+
+/**
+ * This class writes LSF message units (Type, Length, Value) into a reusable buffer. Values are written directly, so
+ * building a message does not create intermediate streams or arrays. The buffer grows if needed. Instances are not
+ * thread-safe, use getThreadWriter() to retrieve the instance of the current thread.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class BinaryMessageWriter
+{
+
+  /** Default size for new buffers */
+  public static final int    DEFAULT_BUFFER_SIZE = 1024;
+
+  /** Maximum length of a unit value */
+  public static final int    MAX_VALUE_LENGTH    = 1016;
+
+  /** Writers of each thread */
+  private static ThreadLocal threadWriter        = new ThreadLocal();
+
+  /** Target buffer */
+  private byte[]             buffer;
+
+  /** Number of written bytes */
+  private int                position;
+
+  /**
+   * Creates a new instance of BinaryMessageWriter with a new buffer.
+   * 
+   */
+  public BinaryMessageWriter()
+  {
+    this(new byte[DEFAULT_BUFFER_SIZE]);
+  }
+
+  /**
+   * Creates a new instance of BinaryMessageWriter.
+   * 
+   * @param buffer
+   *          The initial target buffer
+   */
+  public BinaryMessageWriter(byte[] buffer)
+  {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Retrieves the writer of the current thread. The writer is reset.
+   * 
+   * @return The writer
+   */
+  public static BinaryMessageWriter getThreadWriter()
+  {
+    BinaryMessageWriter writer = (BinaryMessageWriter)threadWriter.get();
+    if (writer == null)
+    {
+      writer = new BinaryMessageWriter();
+      threadWriter.set(writer);
+    }
+    writer.reset();
+
+    return writer;
+  }
+
+  /** Discards the current message and starts a new one. */
+  public void reset()
+  {
+    position = 0;
+  }
+
+  /** Grows the buffer to hold additional bytes. */
+  private void ensureCapacity(int additionalLength)
+  {
+    if (position + additionalLength > buffer.length)
+    {
+      byte[] newBuffer = new byte[Math.max(buffer.length * 2, position + additionalLength)];
+      Portable.arraycopy(buffer, 0, newBuffer, 0, position);
+      buffer = newBuffer;
+    }
+  }
+
+  /** Writes a single byte. */
+  private void put(int value)
+  {
+    buffer[position++] = (byte)value;
+  }
+
+  /** Writes a unit without value, e.g., a message type. */
+  public BinaryMessageWriter writeUnit(byte unitType)
+  {
+    ensureCapacity(2);
+    put(unitType);
+    put(0);
+
+    return this;
+  }
+
+  /** Writes a unit with a one byte value. */
+  public BinaryMessageWriter writeUInt8Unit(byte unitType, int value)
+  {
+    ensureCapacity(3);
+    put(unitType);
+    put(1);
+    put(value);
+
+    return this;
+  }
+
+  /** Writes a unit with a two byte value. */
+  public BinaryMessageWriter writeUInt16Unit(byte unitType, int value)
+  {
+    ensureCapacity(4);
+    put(unitType);
+    put(2);
+    put(value >> 8);
+    put(value);
+
+    return this;
+  }
+
+  /** Writes a unit with a four byte value. */
+  public BinaryMessageWriter writeUInt32Unit(byte unitType, long value)
+  {
+    return writeNumberUnit(unitType, value, 4);
+  }
+
+  /** Writes a unit with a big endian number with the given number of bytes. */
+  public BinaryMessageWriter writeNumberUnit(byte unitType, long value, int length)
+  {
+    ensureCapacity(2 + length);
+    put(unitType);
+    put(length);
+    for (int i = length - 1; i >= 0; i--)
+    {
+      put((int)(value >> i * 8));
+    }
+    return this;
+  }
+
+  /**
+   * Writes a unit with an arbitrary value. Values with 128 or more bytes are padded as needed.
+   * 
+   * @throws IllegalArgumentException
+   *           if the value is longer than MAX_VALUE_LENGTH
+   */
+  public BinaryMessageWriter writeUnit(byte unitType, byte[] value, int offset, int length)
+  {
+    int encodedLength = encodeLength(length);
+    int paddedLength = BinaryUPnPConstants.decodeUnitLength(encodedLength);
+    ensureCapacity(2 + paddedLength);
+    put(unitType);
+    put(encodedLength);
+    Portable.arraycopy(value, offset, buffer, position, length);
+    position += length;
+    writePadding(paddedLength - length);
+
+    return this;
+  }
+
+  /** Writes a unit with an arbitrary value. */
+  public BinaryMessageWriter writeUnit(byte unitType, byte[] value)
+  {
+    return writeUnit(unitType, value, 0, value.length);
+  }
+
+  /**
+   * Starts a container unit. The units written afterwards form the value of the container until endUnit() is called.
+   * 
+   * @param unitType
+   *          The container type
+   * 
+   * @return The offset of the container, needed for endUnit()
+   */
+  public int beginUnit(byte unitType)
+  {
+    int unitOffset = position;
+    writeUnit(unitType);
+
+    return unitOffset;
+  }
+
+  /**
+   * Finishes a container unit by setting its length. Containers with 128 or more bytes are padded as needed.
+   * 
+   * @param unitOffset
+   *          The offset returned by beginUnit()
+   * 
+   * @throws IllegalArgumentException
+   *           if the container is longer than MAX_VALUE_LENGTH
+   */
+  public BinaryMessageWriter endUnit(int unitOffset)
+  {
+    int length = position - unitOffset - 2;
+    int encodedLength = encodeLength(length);
+    int paddingLength = BinaryUPnPConstants.decodeUnitLength(encodedLength) - length;
+    ensureCapacity(paddingLength);
+    writePadding(paddingLength);
+    buffer[unitOffset + 1] = (byte)encodedLength;
+
+    return this;
+  }
+
+  /** Encodes a value length and rejects values that cannot be encoded. */
+  private static int encodeLength(int length)
+  {
+    if (length > MAX_VALUE_LENGTH)
+    {
+      throw new IllegalArgumentException("Unit value with " + length + " bytes exceeds " + MAX_VALUE_LENGTH +
+        " bytes");
+    }
+    return BinaryUPnPConstants.encodeUnitLength(length);
+  }
+
+  /** Writes padding bytes. */
+  private void writePadding(int count)
+  {
+    for (int i = 0; i < count; i++)
+    {
+      put(BinaryUPnPConstants.UnitTypePadding);
+    }
+  }
+
+  /** Writes already encoded units. */
+  public BinaryMessageWriter writeRaw(byte[] data, int offset, int length)
+  {
+    ensureCapacity(length);
+    Portable.arraycopy(data, offset, buffer, position, length);
+    position += length;
+
+    return this;
+  }
+
+  /** Writes already encoded units. */
+  public BinaryMessageWriter writeRaw(byte[] data)
+  {
+    return writeRaw(data, 0, data.length);
+  }
+
+  /** Writes the end of packet unit. */
+  public BinaryMessageWriter writeEndOfPacket()
+  {
+    ensureCapacity(1);
+    put(BinaryUPnPConstants.UnitTypeEndOfPacket);
+
+    return this;
+  }
+
+  /** Retrieves the number of written bytes. */
+  public int getLength()
+  {
+    return position;
+  }
+
+  /** Retrieves the buffer. Only the first getLength() bytes are valid. */
+  public byte[] getArray()
+  {
+    return buffer;
+  }
+
+  /** Retrieves a copy of the written message. */
+  public byte[] toByteArray()
+  {
+    byte[] result = new byte[position];
+    Portable.arraycopy(buffer, 0, result, 0, position);
+
+    return result;
+  }
+
+}
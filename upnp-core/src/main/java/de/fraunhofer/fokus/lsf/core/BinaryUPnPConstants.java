@@ -48,10 +48,19 @@ public class BinaryUPnPConstants
 
   public static boolean      USE_ACTIVE_PINGS                           = false;
 
+  /** Flag to render sent and received messages for debug output */
+  public static boolean      DEBUG_MESSAGES                             = false;
+
   public static long         PING_INTERVAL                              = 10000;
 
   public static int          INVOCATION_RETRIES                         = 2;
 
+  /** Lower bound for adaptive retransmission timeouts in ms */
+  public static int          MIN_RETRANSMISSION_TIMEOUT                 = 200;
+
+  /** Flag to add request IDs to outgoing requests */
+  public static boolean      USE_REQUEST_IDS                            = true;
+
   /** Time to live for multicast packets */
   public static int          TTL                                        = 10;
 
@@ -218,6 +227,9 @@ public class BinaryUPnPConstants
 
   public static final byte   UnitTypeSetDeviceApplicationResult         = 117;
 
+  /** Optional request correlation ID, echoed by devices and ignored by older ones */
+  public static final byte   UnitTypeRequestID                          = 120;
+
   public static final byte   UnitTypePing                               = (byte)200;
 
   public static final byte   UnitTypePingReply                          = (byte)201;
@@ -652,6 +664,8 @@ public class BinaryUPnPConstants
         return "SetDeviceApplication";
       case UnitTypeSetDeviceApplicationResult:
         return "SetDeviceApplicationResult";
+      case UnitTypeRequestID:
+        return "RequestID";
       case UnitTypeDeviceType:
         return "DeviceType";
       case UnitTypeDeviceManufacturer:
@@ -27,8 +27,7 @@
 */
 package de.fraunhofer.fokus.lsf.core.base;
 
-import java.io.ByteArrayOutputStream;
-
+import de.fraunhofer.fokus.lsf.core.BinaryMessageWriter;
 import de.fraunhofer.fokus.lsf.core.BinaryUPnPConstants;
 import de.fraunhofer.fokus.upnp.util.Portable;
 import de.fraunhofer.fokus.upnp.util.StringHelper;
@@ -252,58 +251,39 @@ public class BinaryArgument
   /** Returns the byte array for this argument suitable for an action. */
   public byte[] toByteArrayForAction()
   {
-    try
-    {
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-      byte[] valueData = argumentValue.toByteArray();
-
-      // add prefix
-      byte[] prefix =
-        new byte[] {
-            BinaryUPnPConstants.UnitTypeArgumentContainer, (byte)(5 + valueData.length),
-            BinaryUPnPConstants.UnitTypeArgumentID, 1, (byte)(argumentID & 0xFF),
-            BinaryUPnPConstants.UnitTypeArgumentValue, (byte)valueData.length,
-        };
-      byteArrayOutputStream.write(prefix);
-      byteArrayOutputStream.write(valueData);
-
-      return byteArrayOutputStream.toByteArray();
-    } catch (Exception e)
-    {
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    writeForAction(writer);
 
-    }
-    return null;
+    return writer.toByteArray();
+  }
+
+  /** Writes the argument container for an action. */
+  public void writeForAction(BinaryMessageWriter writer)
+  {
+    int containerOffset = writer.beginUnit(BinaryUPnPConstants.UnitTypeArgumentContainer);
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeArgumentID, argumentID);
+    writer.writeUnit(BinaryUPnPConstants.UnitTypeArgumentValue, argumentValue.toByteArray());
+    writer.endUnit(containerOffset);
   }
 
   /** Returns the byte array for this argument suitable for the device description. */
   public byte[] toByteArrayForDescription()
   {
-    try
-    {
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
-      byte[] argumentNameData = StringHelper.stringToByteArray(argumentName);
-
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeArgumentDescriptionContainer);
-      byteArrayOutputStream.write(11 + argumentNameData.length);
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeArgumentID);
-      byteArrayOutputStream.write(1);
-      byteArrayOutputStream.write(argumentID);
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeArgumentName);
-      byteArrayOutputStream.write(argumentNameData.length);
-      byteArrayOutputStream.write(argumentNameData);
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeArgumentDirection);
-      byteArrayOutputStream.write(1);
-      byteArrayOutputStream.write(isInArgument() ? BinaryUPnPConstants.ArgumentDirectionIn
-        : BinaryUPnPConstants.ArgumentDirectionOut);
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeValueType);
-      byteArrayOutputStream.write(1);
-      byteArrayOutputStream.write(argumentValue.getValueType());
-
-      return byteArrayOutputStream.toByteArray();
-    } catch (Exception e)
-    {
-    }
-    return null;
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    writeForDescription(writer);
+
+    return writer.toByteArray();
+  }
+
+  /** Writes the argument description container for the device description. */
+  public void writeForDescription(BinaryMessageWriter writer)
+  {
+    int containerOffset = writer.beginUnit(BinaryUPnPConstants.UnitTypeArgumentDescriptionContainer);
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeArgumentID, argumentID);
+    writer.writeUnit(BinaryUPnPConstants.UnitTypeArgumentName, StringHelper.stringToByteArray(argumentName));
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeArgumentDirection, isInArgument()
+      ? BinaryUPnPConstants.ArgumentDirectionIn : BinaryUPnPConstants.ArgumentDirectionOut);
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeValueType, argumentValue.getValueType());
+    writer.endUnit(containerOffset);
   }
 }
@@ -27,11 +27,11 @@
 */
 package de.fraunhofer.fokus.lsf.core.base;
 
-import java.io.ByteArrayOutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 
+import de.fraunhofer.fokus.lsf.core.BinaryMessageWriter;
 import de.fraunhofer.fokus.lsf.core.BinaryUPnPConstants;
 import de.fraunhofer.fokus.upnp.util.ByteArrayHelper;
 import de.fraunhofer.fokus.upnp.util.Portable;
@@ -355,132 +355,95 @@ public class GatewayData
   /** Returns the byte array for a response gateway entity. */
   public byte[] toByteArrayForResponse()
   {
-    try
-    {
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
-      // add forwarderAddress
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeResponseForwarderAddress);
-      byteArrayOutputStream.write(forwarderAddress.length);
-      byteArrayOutputStream.write(forwarderAddress);
-      // optional responsePort
-      if (responsePort != null)
-      {
-        byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeResponseForwarderPort);
-        byteArrayOutputStream.write(responsePort.length);
-        byteArrayOutputStream.write(responsePort);
-      }
-      // forwarder phy type
-      //      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeResponseForwarderPhyType);
-      //      byteArrayOutputStream.write(1);
-      //      byteArrayOutputStream.write(forwarderPhyType);
-      if (id != -1)
-      {
-        byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeResponseID);
-        byteArrayOutputStream.write(4);
-        byteArrayOutputStream.write(ByteArrayHelper.int32ToByteArray((int)id));
-      }
-      // forwarder ID is last
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeResponseForwarderID);
-      byteArrayOutputStream.write(1);
-      byteArrayOutputStream.write(forwarderID);
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    writeForResponse(writer);
 
-      return byteArrayOutputStream.toByteArray();
-    } catch (Exception e)
+    return writer.toByteArray();
+  }
+
+  /** Writes the units for a response gateway entity. */
+  public void writeForResponse(BinaryMessageWriter writer)
+  {
+    // add forwarderAddress
+    writer.writeUnit(BinaryUPnPConstants.UnitTypeResponseForwarderAddress, forwarderAddress);
+    // optional responsePort
+    if (responsePort != null)
     {
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeResponseForwarderPort, responsePort);
     }
-    return null;
+    // forwarder phy type
+    //      writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeResponseForwarderPhyType, forwarderPhyType);
+    if (id != -1)
+    {
+      writer.writeUInt32Unit(BinaryUPnPConstants.UnitTypeResponseID, id);
+    }
+    // forwarder ID is last
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeResponseForwarderID, forwarderID);
   }
 
   /** Returns the byte array for an access gateway entity. */
   public byte[] toByteArrayForAccess()
   {
-    try
-    {
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
-      // add forwarderAddress
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeAccessForwarderAddress);
-      byteArrayOutputStream.write(forwarderAddress.length);
-      byteArrayOutputStream.write(forwarderAddress);
-      // optional ports
-      if (descriptionPort != null &&
-        ByteArrayHelper.byteArrayToUInt16(descriptionPort, 0) != BinaryUPnPConstants.DescriptionPort)
-      {
-        byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeAccessForwarderDescriptionPort);
-        byteArrayOutputStream.write(descriptionPort.length);
-        byteArrayOutputStream.write(descriptionPort);
-      }
-      if (controlPort != null && ByteArrayHelper.byteArrayToUInt16(controlPort, 0) != BinaryUPnPConstants.ControlPort)
-      {
-        byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeAccessForwarderControlPort);
-        byteArrayOutputStream.write(controlPort.length);
-        byteArrayOutputStream.write(controlPort);
-      }
-      if (eventPort != null &&
-        ByteArrayHelper.byteArrayToUInt16(eventPort, 0) != BinaryUPnPConstants.EventMulticastPort)
-      {
-        byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeAccessForwarderEventPort);
-        byteArrayOutputStream.write(eventPort.length);
-        byteArrayOutputStream.write(eventPort);
-      }
-      // forwarder phy type
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeAccessForwarderPhyType);
-      byteArrayOutputStream.write(1);
-      byteArrayOutputStream.write(forwarderPhyType);
-      if (id != -1)
-      {
-        byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeAccessID);
-        byteArrayOutputStream.write(4);
-        byteArrayOutputStream.write(ByteArrayHelper.int32ToByteArray((int)id));
-      }
-      // forwarder ID is last
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeAccessForwarderID);
-      byteArrayOutputStream.write(1);
-      byteArrayOutputStream.write(forwarderID);
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    writeForAccess(writer);
 
-      return byteArrayOutputStream.toByteArray();
-    } catch (Exception e)
+    return writer.toByteArray();
+  }
+
+  /** Writes the units for an access gateway entity. */
+  public void writeForAccess(BinaryMessageWriter writer)
+  {
+    // add forwarderAddress
+    writer.writeUnit(BinaryUPnPConstants.UnitTypeAccessForwarderAddress, forwarderAddress);
+    // optional ports
+    writePorts(writer);
+    if (eventPort != null &&
+      ByteArrayHelper.byteArrayToUInt16(eventPort, 0) != BinaryUPnPConstants.EventMulticastPort)
     {
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeAccessForwarderEventPort, eventPort);
     }
-    return null;
+    // forwarder phy type
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeAccessForwarderPhyType, forwarderPhyType);
+    if (id != -1)
+    {
+      writer.writeUInt32Unit(BinaryUPnPConstants.UnitTypeAccessID, id);
+    }
+    // forwarder ID is last
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeAccessForwarderID, forwarderID);
   }
 
   /** Returns the byte array for a request gateway entity. */
   public byte[] toByteArrayForRequest()
   {
-    try
-    {
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
-      // add forwarderAddress
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeAccessForwarderAddress);
-      byteArrayOutputStream.write(forwarderAddress.length);
-      byteArrayOutputStream.write(forwarderAddress);
-      // optional ports
-      if (descriptionPort != null &&
-        ByteArrayHelper.byteArrayToUInt16(descriptionPort, 0) != BinaryUPnPConstants.DescriptionPort)
-      {
-        byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeAccessForwarderDescriptionPort);
-        byteArrayOutputStream.write(descriptionPort.length);
-        byteArrayOutputStream.write(descriptionPort);
-      }
-      if (controlPort != null && ByteArrayHelper.byteArrayToUInt16(controlPort, 0) != BinaryUPnPConstants.ControlPort)
-      {
-        byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeAccessForwarderControlPort);
-        byteArrayOutputStream.write(controlPort.length);
-        byteArrayOutputStream.write(controlPort);
-      }
-      // forwarder ID is last
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeAccessForwarderID);
-      byteArrayOutputStream.write(1);
-      byteArrayOutputStream.write(forwarderID);
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    writeForRequest(writer);
+
+    return writer.toByteArray();
+  }
+
+  /** Writes the units for a request gateway entity. */
+  public void writeForRequest(BinaryMessageWriter writer)
+  {
+    // add forwarderAddress
+    writer.writeUnit(BinaryUPnPConstants.UnitTypeAccessForwarderAddress, forwarderAddress);
+    // optional ports
+    writePorts(writer);
+    // forwarder ID is last
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeAccessForwarderID, forwarderID);
+  }
 
-      return byteArrayOutputStream.toByteArray();
-    } catch (Exception e)
+  /** Writes the description and control port if they differ from the standard ports. */
+  private void writePorts(BinaryMessageWriter writer)
+  {
+    if (descriptionPort != null &&
+      ByteArrayHelper.byteArrayToUInt16(descriptionPort, 0) != BinaryUPnPConstants.DescriptionPort)
     {
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeAccessForwarderDescriptionPort, descriptionPort);
+    }
+    if (controlPort != null && ByteArrayHelper.byteArrayToUInt16(controlPort, 0) != BinaryUPnPConstants.ControlPort)
+    {
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeAccessForwarderControlPort, controlPort);
     }
-    return null;
   }
 
   /** Returns a descriptive string for this device and its services. */
@@ -27,9 +27,9 @@
 */
 package de.fraunhofer.fokus.lsf.core.control_point;
 
-import java.io.ByteArrayOutputStream;
 import java.util.Vector;
 
+import de.fraunhofer.fokus.lsf.core.BinaryMessageWriter;
 import de.fraunhofer.fokus.lsf.core.BinaryUPnPConstants;
 import de.fraunhofer.fokus.lsf.core.base.AbstractBinaryAction;
 import de.fraunhofer.fokus.lsf.core.base.BinaryArgument;
@@ -143,45 +143,26 @@ public class BinaryCPAction extends AbstractBinaryAction
   /** Returns the byte array description for this action, but without the EndOfPacket tupel. */
   public byte[] toByteArrayForAction()
   {
-    try
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    // add prefix
+    writer.writeUnit(BinaryUPnPConstants.UnitTypeInvokeAction);
+    writer.writeUInt32Unit(BinaryUPnPConstants.UnitTypeDeviceID, getBinaryCPService().getBinaryCPDevice()
+      .getDeviceID());
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeServiceID, getBinaryCPService().getServiceID());
+    int containerOffset = writer.beginUnit(BinaryUPnPConstants.UnitTypeActionContainer);
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeActionID, actionID);
+    for (int i = 0; i < argumentList.size(); i++)
     {
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
-      // calculate action size
-      for (int i = 0; i < argumentList.size(); i++)
+      BinaryArgument currentArgument = (BinaryArgument)argumentList.elementAt(i);
+      if (currentArgument.isInArgument())
       {
-        BinaryArgument currentArgument = (BinaryArgument)argumentList.elementAt(i);
-        if (currentArgument.isInArgument())
-        {
-          // add byte array description for in argument
-          byteArrayOutputStream.write(currentArgument.toByteArrayForAction());
-        }
+        // add in argument
+        currentArgument.writeForAction(writer);
       }
-      byte[] argumentDescriptions = byteArrayOutputStream.toByteArray();
-      byteArrayOutputStream.reset();
-
-      long deviceID = getBinaryCPService().getBinaryCPDevice().getDeviceID();
-      int serviceID = getBinaryCPService().getServiceID();
-      // add prefix
-      byte[] prefix =
-        new byte[] {
-            BinaryUPnPConstants.UnitTypeInvokeAction, 0, BinaryUPnPConstants.UnitTypeDeviceID, 4,
-            (byte)(deviceID >> 24 & 0xFF), (byte)(deviceID >> 16 & 0xFF), (byte)(deviceID >> 8 & 0xFF),
-            (byte)(deviceID >> 0 & 0xFF), BinaryUPnPConstants.UnitTypeServiceID, 1, (byte)(serviceID & 0xFF),
-            BinaryUPnPConstants.UnitTypeActionContainer, (byte)(3 + argumentDescriptions.length),
-            BinaryUPnPConstants.UnitTypeActionID, 1, (byte)(actionID & 0xFF),
-        };
-      // combine prefix and arguments
-      byteArrayOutputStream.write(prefix);
-      byteArrayOutputStream.write(argumentDescriptions);
-      //      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeEndOfPacket);
-
-      return byteArrayOutputStream.toByteArray();
-    } catch (Exception e)
-    {
-
     }
-    return null;
+    writer.endUnit(containerOffset);
+
+    return writer.toByteArray();
   }
 
 }
@@ -27,12 +27,12 @@
 */
 package de.fraunhofer.fokus.lsf.core.control_point;
 
-import java.io.ByteArrayOutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Hashtable;
 import java.util.Vector;
 
+import de.fraunhofer.fokus.lsf.core.BinaryMessageWriter;
 import de.fraunhofer.fokus.lsf.core.BinaryUPnPConstants;
 import de.fraunhofer.fokus.lsf.core.IBinaryUPnPDevice;
 import de.fraunhofer.fokus.lsf.core.base.AbstractBinaryDevice;
@@ -69,6 +69,12 @@ public class BinaryCPDevice extends AbstractBinaryDevice implements IBinaryUPnPD
 
   private int                lastResponseTimesCount               = 0;
 
+  /** Smoothed response time in ms, -1 if unknown */
+  private long               smoothedResponseTime                 = -1;
+
+  /** Smoothed response time variation in ms */
+  private long               responseTimeVariation                = 0;
+
   /**
    * Creates a new instance of BinaryCPDevice.
    * 
@@ -185,9 +191,9 @@ public class BinaryCPDevice extends AbstractBinaryDevice implements IBinaryUPnPD
   }
 
   /** Adds access entities to a control message */
-  public void addAccessEntities(ByteArrayOutputStream outputStream)
+  public void addAccessEntities(BinaryMessageWriter writer)
   {
-    deviceInfo.addAccessEntities(outputStream);
+    deviceInfo.addAccessEntities(writer);
   }
 
   /**
@@ -432,7 +438,7 @@ public class BinaryCPDevice extends AbstractBinaryDevice implements IBinaryUPnPD
   }
 
   /** Adds a new response time to the local store. */
-  public void addResponseTime(long time)
+  public synchronized void addResponseTime(long time)
   {
     if (lastResponseTimesCount < lastResponseTimes.length)
     {
@@ -443,10 +449,42 @@ public class BinaryCPDevice extends AbstractBinaryDevice implements IBinaryUPnPD
       lastResponseTimes[i] = lastResponseTimes[i - 1];
     }
     lastResponseTimes[0] = time;
+
+    // update smoothed values as described in RFC 6298
+    if (smoothedResponseTime < 0)
+    {
+      smoothedResponseTime = time;
+      responseTimeVariation = time / 2;
+    } else
+    {
+      responseTimeVariation = (3 * responseTimeVariation + Math.abs(smoothedResponseTime - time)) / 4;
+      smoothedResponseTime = (7 * smoothedResponseTime + time) / 8;
+    }
+  }
+
+  /**
+   * Retrieves the timeout for the first transmission of a request. The timeout is derived from the response time
+   * history of this device and falls back to the given maximum if no response time is known yet.
+   * 
+   * @param maxTimeout
+   *          The upper bound for the timeout
+   * 
+   * @return The retransmission timeout in ms
+   */
+  public synchronized int getRetransmissionTimeout(int maxTimeout)
+  {
+    if (smoothedResponseTime < 0)
+    {
+      return maxTimeout;
+    }
+    long result = smoothedResponseTime + 4 * responseTimeVariation;
+    result = Math.max(BinaryUPnPConstants.MIN_RETRANSMISSION_TIMEOUT, result);
+
+    return (int)Math.min(maxTimeout, result);
   }
 
   /** Returns the average response time of the last sent messages. */
-  public long getAverageResponseTimes()
+  public synchronized long getAverageResponseTimes()
   {
     if (lastResponseTimesCount == 0)
     {
@@ -27,10 +27,10 @@
 */
 package de.fraunhofer.fokus.lsf.core.control_point;
 
-import java.io.ByteArrayOutputStream;
 import java.net.InetAddress;
 import java.util.Vector;
 
+import de.fraunhofer.fokus.lsf.core.BinaryMessageWriter;
 import de.fraunhofer.fokus.lsf.core.BinaryUPnPConstants;
 import de.fraunhofer.fokus.lsf.core.base.GatewayData;
 import de.fraunhofer.fokus.upnp.util.Portable;
@@ -131,17 +131,11 @@ public class BinaryCPDeviceInfo
   }
 
   /** Adds access entities to a request message */
-  public void addAccessEntities(ByteArrayOutputStream outputStream)
+  public void addAccessEntities(BinaryMessageWriter writer)
   {
-    try
-    {
-      for (int i = 0; i < getAccessEntityList().size(); i++)
-      {
-        GatewayData accessEntityData = getAccessEntityData(i);
-        outputStream.write(accessEntityData.toByteArrayForRequest());
-      }
-    } catch (Exception e)
+    for (int i = 0; i < getAccessEntityList().size(); i++)
     {
+      getAccessEntityData(i).writeForRequest(writer);
     }
   }
 
@@ -43,7 +43,10 @@ import de.fraunhofer.fokus.upnp.util.Portable;
 public class BinaryCPHostAddressSocketStructure extends BinaryHostAddressSocketStructure
 {
 
-  private MulticastSocket discoveryUnicastSocket;
+  private MulticastSocket           discoveryUnicastSocket;
+
+  /** Receiver for description and control responses, created on first request */
+  private BinaryCPRequestDispatcher requestDispatcher = null;
 
   /**
    * Creates a new instance of BinaryCPHostAddressSocketStructure.
@@ -119,11 +122,32 @@ public class BinaryCPHostAddressSocketStructure extends BinaryHostAddressSocketS
     return discoveryUnicastSocket;
   }
 
+  /**
+   * Retrieves the dispatcher that sends requests over the description and control socket.
+   * 
+   * @return The request dispatcher
+   */
+  public synchronized BinaryCPRequestDispatcher getRequestDispatcher()
+  {
+    if (requestDispatcher == null)
+    {
+      requestDispatcher = new BinaryCPRequestDispatcher(this);
+    }
+    return requestDispatcher;
+  }
+
   /* (non-Javadoc)
    * @see de.fraunhofer.fokus.lsf.core.BinaryHostAddressSocketStructure#terminate()
    */
   public void terminate()
   {
+    synchronized(this)
+    {
+      if (requestDispatcher != null)
+      {
+        requestDispatcher.terminate();
+      }
+    }
     try
     {
       discoveryUnicastSocket.close();
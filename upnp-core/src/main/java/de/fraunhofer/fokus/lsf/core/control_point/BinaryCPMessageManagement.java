@@ -161,10 +161,13 @@ public class BinaryCPMessageManagement extends Thread
           message = SocketHelper.readBinaryMessage(null, currentSocketStructure.getDiscoverySocket(), 10);
           if (message != null)
           {
-            Portable.println("Discovery: Received multicast discovery message");
-            Portable.println(BinaryUPnPConstants.toForwarderDebugString("",
-              message.getBody(),
-              message.getSourceAddress().getAddress()));
+            if (BinaryUPnPConstants.DEBUG_MESSAGES)
+            {
+              Portable.println("Discovery: Received multicast discovery message");
+              Portable.println(BinaryUPnPConstants.toForwarderDebugString("",
+                message.getBody(),
+                message.getSourceAddress().getAddress()));
+            }
             binaryControlPoint.processDiscoveryMessage(message, currentSocketStructure);
           }
         } while (message != null);
@@ -174,10 +177,13 @@ public class BinaryCPMessageManagement extends Thread
           message = SocketHelper.readBinaryMessage(null, currentSocketStructure.getDiscoveryUnicastSocket(), 10);
           if (message != null)
           {
-            StringHelper.printDebugText("", true, "Discovery: Received search reply from " +
-              IPHelper.toString(message.getSourceAddress()) + ":", BinaryUPnPConstants.toForwarderDebugString("",
-              message.getBody(),
-              message.getSourceAddress().getAddress()));
+            if (BinaryUPnPConstants.DEBUG_MESSAGES)
+            {
+              StringHelper.printDebugText("", true, "Discovery: Received search reply from " +
+                IPHelper.toString(message.getSourceAddress()) + ":", BinaryUPnPConstants.toForwarderDebugString("",
+                message.getBody(),
+                message.getSourceAddress().getAddress()));
+            }
             binaryControlPoint.processDiscoveryMessage(message, currentSocketStructure);
           }
         } while (message != null);
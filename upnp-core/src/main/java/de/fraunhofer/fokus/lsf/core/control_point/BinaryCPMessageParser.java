@@ -30,10 +30,10 @@ package de.fraunhofer.fokus.lsf.core.control_point;
 import java.net.InetAddress;
 import java.util.Vector;
 
+import de.fraunhofer.fokus.lsf.core.BinaryMessageReader;
 import de.fraunhofer.fokus.lsf.core.BinaryUPnPConstants;
 import de.fraunhofer.fokus.lsf.core.base.BinaryArgument;
 import de.fraunhofer.fokus.lsf.core.base.GatewayData;
-import de.fraunhofer.fokus.upnp.util.ByteArrayHelper;
 import de.fraunhofer.fokus.upnp.util.Portable;
 import de.fraunhofer.fokus.upnp.util.StringHelper;
 import de.fraunhofer.fokus.upnp.util.URLHelper;
@@ -85,9 +85,8 @@ public class BinaryCPMessageParser
   {
     try
     {
-      byte[] messageData = message.getBody();
-      int offset = 0;
-      int loops = 0;
+      BinaryMessageReader messageReader = BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_MESSAGE);
+      messageReader.reset(message.getBody());
       // address used to access the device
       InetAddress accessAddress = message.getSourceAddress().getAddress();
       long deviceID = -1;
@@ -107,18 +106,9 @@ public class BinaryCPMessageParser
       //      Portable.println("\r\nFrom " + IPHelper.toString(message.getSourceAddress()) + "\r\n  " +
       //        BinaryUPnPConstants.toDebugString(messageData));
 
-      while (offset < messageData.length && loops < MAX_LOOP_COUNT)
+      while (messageReader.next())
       {
-        byte unitType = messageData[offset++];
-        if (unitType == BinaryUPnPConstants.UnitTypeEndOfPacket)
-        {
-          break;
-        }
-        if (unitType == BinaryUPnPConstants.UnitTypePadding)
-        {
-          continue;
-        }
-        int length = BinaryUPnPConstants.decodeUnitLength(messageData[offset++] & 0xFF);
+        byte unitType = messageReader.getUnitType();
         // handle packet units
         if (unitType == BinaryUPnPConstants.UnitTypeSearchDevice ||
           unitType == BinaryUPnPConstants.UnitTypeDeviceAnnouncement ||
@@ -143,57 +133,54 @@ public class BinaryCPMessageParser
         // handle packet units
         if (unitType == BinaryUPnPConstants.UnitTypeDeviceDescriptionDate)
         {
-          deviceDescriptionDate = ByteArrayHelper.byteArrayToInt64(messageData, offset, length);
+          deviceDescriptionDate = messageReader.getNumber();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeDeviceID)
         {
-          deviceID = ByteArrayHelper.byteArrayToInt64(messageData, offset, length);
+          deviceID = messageReader.getNumber();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeDeviceType)
         {
-          deviceType = messageData[offset] & 0xFF;
+          deviceType = messageReader.getUInt8();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeDeviceDescriptionPort)
         {
-          descriptionPort = ByteArrayHelper.byteArrayToUInt16(messageData, offset);
+          descriptionPort = messageReader.getUInt16();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeDeviceControlPort)
         {
-          controlPort = ByteArrayHelper.byteArrayToUInt16(messageData, offset);
+          controlPort = messageReader.getUInt16();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeDeviceEventPort)
         {
-          eventPort = ByteArrayHelper.byteArrayToUInt16(messageData, offset);
+          eventPort = messageReader.getUInt16();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeAccessForwarderAddress)
         {
-          entityAccessAddress = new byte[length];
-          Portable.arraycopy(messageData, offset, entityAccessAddress, 0, length);
+          entityAccessAddress = messageReader.getValue();
           entityAccessForwarderDescriptionPort = null;
           entityAccessForwarderID = -1;
           entityAccessForwarderPhyType = 0;
         }
         if (unitType == BinaryUPnPConstants.UnitTypeAccessForwarderPhyType)
         {
-          entityAccessForwarderPhyType = messageData[offset] & 0xFF;
+          entityAccessForwarderPhyType = messageReader.getUInt8();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeAccessForwarderDescriptionPort)
         {
-          entityAccessForwarderDescriptionPort = new byte[length];
-          Portable.arraycopy(messageData, offset, entityAccessForwarderDescriptionPort, 0, length);
+          entityAccessForwarderDescriptionPort = messageReader.getValue();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeAccessForwarderControlPort)
         {
-          entityAccessForwarderControlPort = new byte[length];
-          Portable.arraycopy(messageData, offset, entityAccessForwarderControlPort, 0, length);
+          entityAccessForwarderControlPort = messageReader.getValue();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeAccessID)
         {
-          entityAccessID = ByteArrayHelper.byteArrayToInt64(messageData, offset, length);
+          entityAccessID = messageReader.getNumber();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeAccessForwarderID)
         {
-          entityAccessForwarderID = messageData[offset] & 0xFF;
+          entityAccessForwarderID = messageReader.getUInt8();
           // check if a complete gateway description has been found
           if (entityAccessForwarderID != -1 && entityAccessAddress != null)
           {
@@ -220,8 +207,6 @@ public class BinaryCPMessageParser
           }
           entityAccessAddress = null;
         }
-        offset += length;
-        loops++;
       }
       // if gathered information is sufficient, create device
       if (deviceDescriptionDate != -1 && deviceID != -1)
@@ -267,26 +252,16 @@ public class BinaryCPMessageParser
   {
     try
     {
-      byte[] messageData = message.getBody();
-      int offset = 0;
-      int loops = 0;
+      BinaryMessageReader messageReader = BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_MESSAGE);
+      messageReader.reset(message.getBody());
       long deviceID = -1;
 
       //      Portable.println("\r\nFrom " + IPHelper.toString(message.getSourceAddress()) + "\r\n  " +
       //        BinaryUPnPConstants.toDebugString(messageData));
 
-      while (offset < messageData.length && loops < MAX_LOOP_COUNT)
+      while (messageReader.next())
       {
-        byte unitType = messageData[offset++];
-        if (unitType == BinaryUPnPConstants.UnitTypeEndOfPacket)
-        {
-          break;
-        }
-        if (unitType == BinaryUPnPConstants.UnitTypePadding)
-        {
-          continue;
-        }
-        int length = BinaryUPnPConstants.decodeUnitLength(messageData[offset++] & 0xFF);
+        byte unitType = messageReader.getUnitType();
         // handle packet units
         if (unitType == BinaryUPnPConstants.UnitTypeSearchDevice ||
           unitType == BinaryUPnPConstants.UnitTypeDeviceAnnouncement ||
@@ -311,10 +286,8 @@ public class BinaryCPMessageParser
         // handle packet units
         if (unitType == BinaryUPnPConstants.UnitTypeDeviceID)
         {
-          deviceID = ByteArrayHelper.byteArrayToInt64(messageData, offset, length);
+          deviceID = messageReader.getNumber();
         }
-        offset += length;
-        loops++;
       }
       return deviceID;
     } catch (Exception e)
@@ -337,8 +310,8 @@ public class BinaryCPMessageParser
     try
     {
       byte[] messageData = message.getBody();
-      int offset = 0;
-      int loops = 0;
+      BinaryMessageReader messageReader = BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_MESSAGE);
+      messageReader.reset(messageData);
       long deviceDescriptionDate = -1;
       int lifeTime = 0;
       long deviceID = -1;
@@ -351,46 +324,37 @@ public class BinaryCPMessageParser
 
       //      Portable.println(BinaryUPnPConstants.toDebugString(messageData));
 
-      while (offset < messageData.length && loops < MAX_LOOP_COUNT)
+      while (messageReader.next())
       {
-        byte unitType = messageData[offset++];
-        if (unitType == BinaryUPnPConstants.UnitTypeEndOfPacket)
-        {
-          break;
-        }
-        if (unitType == BinaryUPnPConstants.UnitTypePadding)
-        {
-          continue;
-        }
-        int length = BinaryUPnPConstants.decodeUnitLength(messageData[offset++] & 0xFF);
+        byte unitType = messageReader.getUnitType();
         // handle packet units
         if (unitType == BinaryUPnPConstants.UnitTypeDeviceDescriptionDate)
         {
-          deviceDescriptionDate = ByteArrayHelper.byteArrayToInt64(messageData, offset, length);
+          deviceDescriptionDate = messageReader.getNumber();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeDeviceExpectedLifeTime)
         {
-          lifeTime = (messageData[offset] & 0xFF) * 256 + (messageData[offset + 1] & 0xFF);
+          lifeTime = messageReader.getUInt16();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeDeviceID)
         {
-          deviceID = ByteArrayHelper.byteArrayToInt64(messageData, offset, length);
+          deviceID = messageReader.getNumber();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeDeviceType)
         {
-          deviceType = messageData[offset] & 0xFF;
+          deviceType = messageReader.getUInt8();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeDeviceName)
         {
-          name = StringHelper.byteArrayToString(messageData, offset, length);
+          name = messageReader.getString();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeDeviceApplication)
         {
-          application = StringHelper.byteArrayToString(messageData, offset, length);
+          application = messageReader.getString();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeDeviceManufacturer)
         {
-          manufacturer = StringHelper.byteArrayToString(messageData, offset, length);
+          manufacturer = messageReader.getString();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeDeviceExternalDescriptions)
         {
@@ -400,23 +364,13 @@ public class BinaryCPMessageParser
         if (unitType == BinaryUPnPConstants.UnitTypeServiceDescriptionContainer)
         {
           //            Portable.println("Parse service description with size " + length);
-          byte[] serviceDescription = new byte[length];
-          Portable.arraycopy(messageData, offset, serviceDescription, 0, length);
-
-          // Portable.println("ServiceDescription:");
-          // for (int i = 0; i < serviceDescription.length; i++)
-          // {
-          // System.out.print(serviceDescription[i] + " ");
-          // }
-          // Portable.println("");
-          BinaryCPService service = processServiceDescription(serviceDescription);
+          BinaryCPService service =
+            processServiceDescription(messageData, messageReader.getValueOffset(), messageReader.getValueLength());
           if (service != null)
           {
             serviceList.add(service);
           }
         }
-        offset += length;
-        loops++;
       }
       // if gathered information is sufficient, create device
       if (lifeTime != 0 && deviceID != -1 && deviceInfo.getDeviceID() == deviceID)
@@ -461,45 +415,25 @@ public class BinaryCPMessageParser
     try
     {
       byte[] messageData = message.getBody();
-      int offset = 0;
-      int loops = 0;
-      long deviceID = -1;
+      BinaryMessageReader messageReader = BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_MESSAGE);
+      messageReader.reset(messageData);
 
       //      Portable.println(BinaryUPnPConstants.toDebugString(messageData));
 
-      while (offset < messageData.length && loops < MAX_LOOP_COUNT)
+      while (messageReader.next())
       {
-        byte unitType = messageData[offset++];
-        if (unitType == BinaryUPnPConstants.UnitTypeEndOfPacket)
-        {
-          break;
-        }
-        if (unitType == BinaryUPnPConstants.UnitTypePadding)
-        {
-          continue;
-        }
-        int length = BinaryUPnPConstants.decodeUnitLength(messageData[offset++] & 0xFF);
+        byte unitType = messageReader.getUnitType();
         // handle packet units
-        if (unitType == BinaryUPnPConstants.UnitTypeDeviceID)
+        if (unitType == BinaryUPnPConstants.UnitTypeDeviceID && messageReader.getNumber() != device.getDeviceID())
         {
-          deviceID = ByteArrayHelper.byteArrayToInt64(messageData, offset, length);
-          if (deviceID != device.getDeviceID())
-          {
-            return null;
-          }
+          return null;
         }
         // process service descriptions in extra method
         if (unitType == BinaryUPnPConstants.UnitTypeServiceDescriptionContainer)
         {
           //          Portable.println("Parse service description with size " + length);
-          byte[] serviceDescription = new byte[length];
-          Portable.arraycopy(messageData, offset, serviceDescription, 0, length);
-
-          BinaryCPService service = processServiceDescription(serviceDescription);
-          return service;
+          return processServiceDescription(messageData, messageReader.getValueOffset(), messageReader.getValueLength());
         }
-        offset += length;
-        loops++;
       }
       return null;
     } catch (Exception e)
@@ -515,11 +449,26 @@ public class BinaryCPMessageParser
    *          The service description
    */
   public static BinaryCPService processServiceDescription(byte[] serviceDescription)
+  {
+    return processServiceDescription(serviceDescription, 0, serviceDescription.length);
+  }
+
+  /**
+   * Processes a service description that is part of a larger message.
+   * 
+   * @param data
+   *          The array containing the service description
+   * @param offset
+   *          Start of the service description
+   * @param length
+   *          Length of the service description
+   */
+  public static BinaryCPService processServiceDescription(byte[] data, int offset, int length)
   {
     try
     {
-      int offset = 0;
-      int loops = 0;
+      BinaryMessageReader serviceReader = BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_SERVICE);
+      serviceReader.reset(data, offset, length);
 
       int serviceType = -1;
       int serviceID = -1;
@@ -529,58 +478,41 @@ public class BinaryCPMessageParser
       String valueUnit = "";
       Vector actionList = new Vector();
 
-      while (offset < serviceDescription.length && loops < MAX_LOOP_COUNT)
+      while (serviceReader.next())
       {
-        byte unitType = serviceDescription[offset++];
-        if (unitType == BinaryUPnPConstants.UnitTypeEndOfPacket)
-        {
-          break;
-        }
-        if (unitType == BinaryUPnPConstants.UnitTypePadding)
-        {
-          continue;
-        }
-        int length = BinaryUPnPConstants.decodeUnitLength(serviceDescription[offset++] & 0xFF);
+        byte unitType = serviceReader.getUnitType();
         if (unitType == BinaryUPnPConstants.UnitTypeServiceType)
         {
-          serviceType = serviceDescription[offset] & 0xFF;
+          serviceType = serviceReader.getUInt8();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeServiceID)
         {
-          serviceID = serviceDescription[offset] & 0xFF;
+          serviceID = serviceReader.getUInt8();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeValueType)
         {
-          valueType = serviceDescription[offset] & 0xFF;
+          valueType = serviceReader.getUInt8();
         }
-        if (unitType == BinaryUPnPConstants.UnitTypeValueUnit && length > 0)
+        if (unitType == BinaryUPnPConstants.UnitTypeValueUnit && serviceReader.getValueLength() > 0)
         {
-          byte[] unitData = new byte[length];
-          Portable.arraycopy(serviceDescription, offset, unitData, 0, length);
-          valueUnit = URLHelper.escapedURLToString(StringHelper.byteArrayToString(unitData));
+          valueUnit = URLHelper.escapedURLToString(serviceReader.getString());
         }
         if (unitType == BinaryUPnPConstants.UnitTypeServiceName)
         {
-          byte[] nameData = new byte[length];
-          Portable.arraycopy(serviceDescription, offset, nameData, 0, length);
-          serviceName = StringHelper.byteArrayToString(nameData);
+          serviceName = serviceReader.getString();
         }
         // process action descriptions in extra method
         if (unitType == BinaryUPnPConstants.UnitTypeActionDescriptionContainer)
         {
           //          Portable.println("Parse action description with size " + length);
 
-          byte[] actionDescription = new byte[length];
-          Portable.arraycopy(serviceDescription, offset, actionDescription, 0, length);
-
-          BinaryCPAction action = processActionDescription(actionDescription);
+          BinaryCPAction action =
+            processActionDescription(data, serviceReader.getValueOffset(), serviceReader.getValueLength());
           if (action != null)
           {
             actionList.add(action);
           }
         }
-        offset += length;
-        loops++;
       }
       if (serviceType != -1 && serviceID != -1)
       {
@@ -625,47 +557,49 @@ public class BinaryCPMessageParser
    *          The action description
    */
   public static BinaryCPAction processActionDescription(byte[] actionDescription)
+  {
+    return processActionDescription(actionDescription, 0, actionDescription.length);
+  }
+
+  /**
+   * Processes an action description that is part of a larger message.
+   * 
+   * @param data
+   *          The array containing the action description
+   * @param offset
+   *          Start of the action description
+   * @param length
+   *          Length of the action description
+   */
+  public static BinaryCPAction processActionDescription(byte[] data, int offset, int length)
   {
     try
     {
-      int offset = 0;
-      int loops = 0;
+      BinaryMessageReader actionReader = BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_ACTION);
+      actionReader.reset(data, offset, length);
 
       int actionID = -1;
       String actionName = null;
       Vector argumentList = new Vector();
 
-      while (offset < actionDescription.length && loops < MAX_LOOP_COUNT)
+      while (actionReader.next())
       {
-        byte unitType = actionDescription[offset++];
-        if (unitType == BinaryUPnPConstants.UnitTypeEndOfPacket)
-        {
-          break;
-        }
-        if (unitType == BinaryUPnPConstants.UnitTypePadding)
-        {
-          continue;
-        }
-        int length = BinaryUPnPConstants.decodeUnitLength(actionDescription[offset++] & 0xFF);
+        byte unitType = actionReader.getUnitType();
         if (unitType == BinaryUPnPConstants.UnitTypeActionID)
         {
-          actionID = actionDescription[offset] & 0xFF;
+          actionID = actionReader.getUInt8();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeActionName)
         {
-          byte[] nameData = new byte[length];
-          Portable.arraycopy(actionDescription, offset, nameData, 0, length);
-          actionName = StringHelper.byteArrayToString(nameData);
+          actionName = actionReader.getString();
         }
         // process argument descriptions in extra method
         if (unitType == BinaryUPnPConstants.UnitTypeArgumentDescriptionContainer)
         {
           //          Portable.println("Parse argument description with size " + length);
 
-          byte[] argumentDescription = new byte[length];
-          Portable.arraycopy(actionDescription, offset, argumentDescription, 0, length);
-
-          BinaryArgument argument = processArgumentDescription(argumentDescription);
+          BinaryArgument argument =
+            processArgumentDescription(data, actionReader.getValueOffset(), actionReader.getValueLength());
           if (argument != null)
           {
             argumentList.add(argument);
@@ -676,17 +610,13 @@ public class BinaryCPMessageParser
         {
           //          Portable.println("Parse packed argument description with size " + length);
 
-          byte[] argumentDescription = new byte[length];
-          Portable.arraycopy(actionDescription, offset, argumentDescription, 0, length);
-
-          BinaryArgument argument = processPackedArgumentDescription(argumentDescription);
+          BinaryArgument argument =
+            processPackedArgumentDescription(data, actionReader.getValueOffset(), actionReader.getValueLength());
           if (argument != null)
           {
             argumentList.add(argument);
           }
         }
-        offset += length;
-        loops++;
       }
       if (actionID != -1 && actionName != null)
       {
@@ -710,54 +640,50 @@ public class BinaryCPMessageParser
    */
   public static BinaryArgument processArgumentDescription(byte[] argumentDescription)
   {
-    // Portable.println("Argument description:");
-    // for (int i = 0; i < argumentDescription.length; i++)
-    // {
-    // System.out.print(argumentDescription[i] + " ");
-    // }
-    // Portable.println("");
+    return processArgumentDescription(argumentDescription, 0, argumentDescription.length);
+  }
+
+  /**
+   * Processes an argument description that is part of a larger message.
+   * 
+   * @param data
+   *          The array containing the argument description
+   * @param offset
+   *          Start of the argument description
+   * @param length
+   *          Length of the argument description
+   */
+  public static BinaryArgument processArgumentDescription(byte[] data, int offset, int length)
+  {
     try
     {
-      int offset = 0;
-      int loops = 0;
+      BinaryMessageReader argumentReader = BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_ARGUMENT);
+      argumentReader.reset(data, offset, length);
 
       int argumentID = -1;
       String argumentName = null;
       boolean inArgument = true;
       int argumentType = -1;
 
-      while (offset < argumentDescription.length && loops < MAX_LOOP_COUNT)
+      while (argumentReader.next())
       {
-        byte unitType = argumentDescription[offset++];
-        if (unitType == BinaryUPnPConstants.UnitTypeEndOfPacket)
-        {
-          break;
-        }
-        if (unitType == BinaryUPnPConstants.UnitTypePadding)
-        {
-          continue;
-        }
-        int length = BinaryUPnPConstants.decodeUnitLength(argumentDescription[offset++] & 0xFF);
+        byte unitType = argumentReader.getUnitType();
         if (unitType == BinaryUPnPConstants.UnitTypeArgumentID)
         {
-          argumentID = argumentDescription[offset] & 0xFF;
+          argumentID = argumentReader.getUInt8();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeArgumentDirection)
         {
-          inArgument = (argumentDescription[offset] & 0xFF) == BinaryUPnPConstants.ArgumentDirectionIn;
+          inArgument = argumentReader.getUInt8() == BinaryUPnPConstants.ArgumentDirectionIn;
         }
         if (unitType == BinaryUPnPConstants.UnitTypeArgumentName)
         {
-          byte[] nameData = new byte[length];
-          Portable.arraycopy(argumentDescription, offset, nameData, 0, length);
-          argumentName = StringHelper.byteArrayToString(nameData);
+          argumentName = argumentReader.getString();
         }
         if (unitType == BinaryUPnPConstants.UnitTypeValueType)
         {
-          argumentType = argumentDescription[offset] & 0xFF;
+          argumentType = argumentReader.getUInt8();
         }
-        offset += length;
-        loops++;
       }
       if (argumentID != -1 && argumentName != null && argumentType != -1)
       {
@@ -779,15 +705,30 @@ public class BinaryCPMessageParser
    *          The argument description
    */
   public static BinaryArgument processPackedArgumentDescription(byte[] argumentDescription)
+  {
+    return processPackedArgumentDescription(argumentDescription, 0, argumentDescription.length);
+  }
+
+  /**
+   * Processes a packed argument description that is part of a larger message.
+   * 
+   * @param data
+   *          The array containing the argument description
+   * @param offset
+   *          Start of the argument description
+   * @param length
+   *          Length of the argument description
+   */
+  public static BinaryArgument processPackedArgumentDescription(byte[] data, int offset, int length)
   {
     try
     {
-      int nameLength = argumentDescription.length - 3;
+      int nameLength = length - 3;
 
-      int argumentID = argumentDescription[0] & 0xFF;
-      boolean inArgument = (argumentDescription[1] & 0xFF) == BinaryUPnPConstants.ArgumentDirectionIn;
-      int argumentType = argumentDescription[2] & 0xFF;
-      String argumentName = StringHelper.byteArrayToString(argumentDescription, 3, nameLength);
+      int argumentID = data[offset] & 0xFF;
+      boolean inArgument = (data[offset + 1] & 0xFF) == BinaryUPnPConstants.ArgumentDirectionIn;
+      int argumentType = data[offset + 2] & 0xFF;
+      String argumentName = StringHelper.byteArrayToString(data, offset + 3, nameLength);
 
       return new BinaryArgument(argumentName, argumentID, argumentType, inArgument);
     } catch (Exception e)
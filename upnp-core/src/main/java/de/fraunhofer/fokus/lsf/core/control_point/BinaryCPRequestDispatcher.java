@@ -0,0 +1,414 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.lsf.core.control_point;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import de.fraunhofer.fokus.lsf.core.BinaryMessageReader;
+import de.fraunhofer.fokus.lsf.core.BinaryMessageWriter;
+import de.fraunhofer.fokus.lsf.core.BinaryUPnPConstants;
+import de.fraunhofer.fokus.upnp.util.Portable;
+import de.fraunhofer.fokus.upnp.util.StringHelper;
+import de.fraunhofer.fokus.upnp.util.network.BinaryMessageObject;
+import de.fraunhofer.fokus.upnp.util.network.SocketHelper;
+
+/**
+ * This class sends description and control requests for one socket structure and correlates received responses to
+ * pending requests. Requests carry an optional request ID that is echoed by the device. Responses from older devices
+ * without request ID are associated with the oldest pending request for the same socket and access address. This
+ * allows multiple outstanding requests per socket and device. Each socket is read by its own thread that blocks until
+ * a response arrives.
+ * 
+ * @author Alexander Koenig
+ */
+public class BinaryCPRequestDispatcher
+{
+
+  /** Timeout for blocking reads, only used to check for termination */
+  public static final int                    READ_TIMEOUT              = 500;
+
+  /** Threads that read responses from the description and control socket */
+  private ResponseReader[]                   responseReaders;
+
+  /** Table with pending requests, keyed by request ID */
+  private Hashtable                          pendingRequestFromIDTable = new Hashtable();
+
+  /** Pending requests in send order */
+  private Vector                             pendingRequestList        = new Vector();
+
+  /** Sync object for pending requests */
+  private Object                             lock                      = new Object();
+
+  /** Next request ID */
+  private int                                nextRequestID             = 1;
+
+  /** Number of received responses that could not be associated with a request */
+  private long                               unmatchedResponseCount    = 0;
+
+  /** Number of retransmitted requests */
+  private long                               retransmissionCount       = 0;
+
+  private boolean                            terminateThread           = false;
+
+  /**
+   * Creates a new instance of BinaryCPRequestDispatcher.
+   * 
+   * @param socketStructure
+   *          The sockets used for requests
+   */
+  public BinaryCPRequestDispatcher(BinaryCPHostAddressSocketStructure socketStructure)
+  {
+    this(socketStructure.getDescriptionSocket(), socketStructure.getControlSocket());
+  }
+
+  /**
+   * Creates a new instance of BinaryCPRequestDispatcher.
+   * 
+   * @param descriptionSocket
+   *          The socket used for description requests
+   * @param controlSocket
+   *          The socket used for control requests
+   */
+  public BinaryCPRequestDispatcher(DatagramSocket descriptionSocket, DatagramSocket controlSocket)
+  {
+    responseReaders = new ResponseReader[] {
+        new ResponseReader(descriptionSocket, "Description"), new ResponseReader(controlSocket, "Control")
+    };
+  }
+
+  /**
+   * Sends a request to the device and waits for the associated response. Requests are retransmitted with an
+   * exponential backoff. The first timeout is derived from the response time history of the device.
+   * 
+   * @param prefix
+   *          The current message
+   * @param deviceInfo
+   *          Object containing forwarder info
+   * @param socket
+   *          Send socket
+   * @param destinationPort
+   *          Destination port
+   * @param device
+   *          The device used for response time measurements or null
+   * 
+   * @return The response or null if no response was received
+   */
+  public BinaryMessageObject sendRequestAndWaitForResponse(byte[] prefix,
+    BinaryCPDeviceInfo deviceInfo,
+    DatagramSocket socket,
+    int destinationPort,
+    BinaryCPDevice device)
+  {
+    PendingRequest request = null;
+    try
+    {
+      int requestID;
+      synchronized(lock)
+      {
+        requestID = nextRequestID;
+        nextRequestID = nextRequestID % 0xFFFF + 1;
+      }
+      BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+      writer.writeRaw(prefix);
+      if (BinaryUPnPConstants.USE_REQUEST_IDS)
+      {
+        writer.writeUInt16Unit(BinaryUPnPConstants.UnitTypeRequestID, requestID);
+      }
+      // add path to device to allow proper routing
+      deviceInfo.addAccessEntities(writer);
+
+      writer.writeEndOfPacket();
+      byte[] packetData = writer.toByteArray();
+
+      if (BinaryUPnPConstants.DEBUG_MESSAGES)
+      {
+        StringHelper.printDebugText("", true, "To " + deviceInfo.getAccessAddress().getHostAddress() + ":" +
+          destinationPort + ":", BinaryUPnPConstants.toForwarderDebugString("", packetData, null));
+      }
+
+      DatagramPacket packet =
+        new DatagramPacket(packetData, packetData.length, deviceInfo.getAccessAddress(), destinationPort);
+
+      request = new PendingRequest(requestID, socket, deviceInfo.getAccessAddress());
+      synchronized(lock)
+      {
+        pendingRequestFromIDTable.put(new Integer(requestID), request);
+        pendingRequestList.add(request);
+      }
+
+      int maxTimeout = deviceInfo.getResponseWaitTime();
+      int timeout = device != null ? device.getRetransmissionTimeout(maxTimeout) : maxTimeout;
+      long startTime = Portable.currentTimeMillis();
+      for (int transmission = 0; transmission <= BinaryUPnPConstants.INVOCATION_RETRIES; transmission++)
+      {
+        if (transmission > 0)
+        {
+          Portable.println("Resend request");
+          retransmissionCount++;
+          timeout = Math.min(timeout * 2, maxTimeout);
+        }
+        socket.send(packet);
+
+        long endTime = Portable.currentTimeMillis() + timeout;
+        synchronized(lock)
+        {
+          long waitTime = endTime - Portable.currentTimeMillis();
+          while (request.response == null && waitTime > 0 && !terminateThread)
+          {
+            lock.wait(waitTime);
+            waitTime = endTime - Portable.currentTimeMillis();
+          }
+        }
+        BinaryMessageObject responseMessage = request.response;
+        // a message was received
+        if (responseMessage != null)
+        {
+          long responseTime = request.responseTime - startTime;
+          Portable.println("\r\n  Response received after " + responseTime + " ms (" +
+            responseMessage.getBody().length + " bytes)");
+          // only use unambiguous measurements (Karn's algorithm)
+          if (device != null && transmission == 0)
+          {
+            device.addResponseTime(responseTime);
+          }
+          return responseMessage;
+        }
+      }
+    } catch (Exception e)
+    {
+    } finally
+    {
+      if (request != null)
+      {
+        synchronized(lock)
+        {
+          pendingRequestFromIDTable.remove(new Integer(request.requestID));
+          pendingRequestList.remove(request);
+        }
+      }
+    }
+    return null;
+  }
+
+  /** Associates a received response with a pending request. */
+  private void processResponse(DatagramSocket socket, BinaryMessageObject message)
+  {
+    byte[] messageData = message.getBody();
+    int requestIDOffset = getRequestIDOffset(messageData);
+    synchronized(lock)
+    {
+      PendingRequest request = null;
+      if (requestIDOffset != -1)
+      {
+        int requestID = (messageData[requestIDOffset + 2] & 0xFF) << 8 | messageData[requestIDOffset + 3] & 0xFF;
+        request = (PendingRequest)pendingRequestFromIDTable.get(new Integer(requestID));
+        if (request != null && request.socket != socket)
+        {
+          request = null;
+        }
+        // remove request ID unit to keep responses compatible with stored messages
+        byte[] strippedData = new byte[messageData.length - 4];
+        Portable.arraycopy(messageData, 0, strippedData, 0, requestIDOffset);
+        Portable.arraycopy(messageData,
+          requestIDOffset + 4,
+          strippedData,
+          requestIDOffset,
+          messageData.length - requestIDOffset - 4);
+        message.setBody(strippedData);
+      } else
+      {
+        // response from older device, use oldest pending request for this path
+        InetAddress sourceAddress = message.getSourceAddress().getAddress();
+        for (int i = 0; request == null && i < pendingRequestList.size(); i++)
+        {
+          PendingRequest currentRequest = (PendingRequest)pendingRequestList.elementAt(i);
+          if (currentRequest.response == null && currentRequest.socket == socket &&
+            currentRequest.accessAddress.equals(sourceAddress))
+          {
+            request = currentRequest;
+          }
+        }
+      }
+      if (request == null || request.response != null)
+      {
+        unmatchedResponseCount++;
+        Portable.println("Discard response without pending request from " +
+          message.getSourceAddress().getAddress().getHostAddress());
+        return;
+      }
+      request.responseTime = Portable.currentTimeMillis();
+      request.response = message;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Searches the request ID unit in a message.
+   * 
+   * @param messageData
+   *          The message
+   * 
+   * @return The offset of the request ID unit or -1
+   */
+  private static int getRequestIDOffset(byte[] messageData)
+  {
+    BinaryMessageReader messageReader = BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_MESSAGE);
+    messageReader.reset(messageData);
+    if (messageReader.find(BinaryUPnPConstants.UnitTypeRequestID) && messageReader.getValueLength() == 2)
+    {
+      return messageReader.getUnitOffset();
+    }
+    return -1;
+  }
+
+  /**
+   * Retrieves the number of currently pending requests.
+   * 
+   * @return The number of pending requests
+   */
+  public int getPendingRequestCount()
+  {
+    return pendingRequestList.size();
+  }
+
+  /**
+   * Retrieves the number of responses that could not be associated with a request.
+   * 
+   * @return The number of discarded responses
+   */
+  public long getUnmatchedResponseCount()
+  {
+    return unmatchedResponseCount;
+  }
+
+  /**
+   * Retrieves the number of retransmitted requests.
+   * 
+   * @return The number of retransmissions
+   */
+  public long getRetransmissionCount()
+  {
+    return retransmissionCount;
+  }
+
+  /** Terminates the dispatcher */
+  public void terminate()
+  {
+    terminateThread = true;
+    synchronized(lock)
+    {
+      lock.notifyAll();
+    }
+    for (int i = 0; i < responseReaders.length; i++)
+    {
+      try
+      {
+        responseReaders[i].join();
+      } catch (InterruptedException e)
+      {
+      }
+    }
+  }
+
+  /** This class reads responses from one socket. */
+  private class ResponseReader extends Thread
+  {
+    /** Socket that receives the responses */
+    private DatagramSocket socket;
+
+    /**
+     * Creates a new instance of ResponseReader.
+     * 
+     * @param socket
+     * @param name
+     */
+    public ResponseReader(DatagramSocket socket, String name)
+    {
+      super("BinaryControlPoint.RequestDispatcher." + name);
+      this.socket = socket;
+      setDaemon(true);
+
+      start();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Thread#run()
+     */
+    public void run()
+    {
+      while (!terminateThread && !socket.isClosed())
+      {
+        BinaryMessageObject message = SocketHelper.readBinaryMessage(null, socket, READ_TIMEOUT);
+        if (message != null)
+        {
+          processResponse(socket, message);
+        }
+      }
+    }
+  }
+
+  /** This class holds one request that waits for its response. */
+  private static class PendingRequest
+  {
+    /** Request ID sent with the request */
+    private int                 requestID;
+
+    /** Socket used for the request */
+    private DatagramSocket      socket;
+
+    /** Address the request was sent to */
+    private InetAddress         accessAddress;
+
+    /** Received response */
+    private BinaryMessageObject response     = null;
+
+    /** Time when the response was received */
+    private long                responseTime = 0;
+
+    /**
+     * Creates a new instance of PendingRequest.
+     * 
+     * @param requestID
+     * @param socket
+     * @param accessAddress
+     */
+    public PendingRequest(int requestID, DatagramSocket socket, InetAddress accessAddress)
+    {
+      this.requestID = requestID;
+      this.socket = socket;
+      this.accessAddress = accessAddress;
+    }
+  }
+
+}
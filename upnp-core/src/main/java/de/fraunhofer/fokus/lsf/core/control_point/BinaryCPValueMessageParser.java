@@ -29,6 +29,7 @@ package de.fraunhofer.fokus.lsf.core.control_point;
 
 import java.util.Hashtable;
 
+import de.fraunhofer.fokus.lsf.core.BinaryMessageReader;
 import de.fraunhofer.fokus.lsf.core.BinaryUPnPConstants;
 import de.fraunhofer.fokus.upnp.util.Portable;
 import de.fraunhofer.fokus.upnp.util.exceptions.ActionFailedException;
@@ -77,25 +78,19 @@ public class BinaryCPValueMessageParser
   public void parse(BinaryMessageObject message) throws ActionFailedException
   {
     byte[] messageData = message.getBody();
-    int offset = 0;
-    int loops = 0;
     int currentArgumentID = -1;
     int currentServiceID = -1;
 
-    Portable.println(BinaryUPnPConstants.toDebugString(messageData));
+    if (BinaryUPnPConstants.DEBUG_MESSAGES)
+    {
+      Portable.println(BinaryUPnPConstants.toDebugString(messageData));
+    }
 
-    while (offset < messageData.length && loops < BinaryCPMessageParser.MAX_LOOP_COUNT)
+    BinaryMessageReader messageReader = BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_MESSAGE);
+    messageReader.reset(messageData);
+    while (messageReader.next())
     {
-      byte unitType = messageData[offset++];
-      if (unitType == BinaryUPnPConstants.UnitTypeEndOfPacket)
-      {
-        break;
-      }
-      if (unitType == BinaryUPnPConstants.UnitTypePadding)
-      {
-        continue;
-      }
-      int length = BinaryUPnPConstants.decodeUnitLength(messageData[offset++] & 0xFF);
+      byte unitType = messageReader.getUnitType();
 
       // handle packet units
       // skip containers
@@ -103,19 +98,18 @@ public class BinaryCPValueMessageParser
         unitType == BinaryUPnPConstants.UnitTypeArgumentContainer ||
         unitType == BinaryUPnPConstants.UnitTypeServiceContainer)
       {
-        length = 0;
+        messageReader.enterUnit();
+        continue;
       }
       // handle common tupels
       if (unitType == BinaryUPnPConstants.UnitTypeDeviceID)
       {
-        deviceID =
-          ((messageData[offset] & 0xFF) << 24) + ((messageData[offset + 1] & 0xFF) << 16) +
-            ((messageData[offset + 2] & 0xFF) << 8) + (messageData[offset + 3] & 0xFF);
+        deviceID = messageReader.getNumber();
       }
       if (unitType == BinaryUPnPConstants.UnitTypeServiceID)
       {
-        serviceID = messageData[offset] & 0xFF;
-        currentServiceID = messageData[offset] & 0xFF;
+        serviceID = messageReader.getUInt8();
+        currentServiceID = serviceID;
       }
       // handle event tupels
       if (unitType == BinaryUPnPConstants.UnitTypeEvent)
@@ -125,9 +119,7 @@ public class BinaryCPValueMessageParser
       if (unitType == BinaryUPnPConstants.UnitTypeServiceValue)
       {
         // right now, we don't know the type of the value, so we store it as byte array
-        byte[] serviceValue = new byte[length];
-        Portable.arraycopy(messageData, offset, serviceValue, 0, serviceValue.length);
-        serviceValueTable.put(new Integer(currentServiceID), serviceValue);
+        serviceValueTable.put(new Integer(currentServiceID), messageReader.getValue());
       }
       // handle result tupels
       if (unitType == BinaryUPnPConstants.UnitTypeSetDeviceNameResult ||
@@ -141,25 +133,21 @@ public class BinaryCPValueMessageParser
         unitType == BinaryUPnPConstants.UnitTypeSetDeviceNameResult ||
         unitType == BinaryUPnPConstants.UnitTypeSetDeviceApplicationResult)
       {
-        result = messageData[offset];
+        result = messageReader.getByte();
       }
       if (unitType == BinaryUPnPConstants.UnitTypeActionID)
       {
-        actionID = messageData[offset] & 0xFF;
+        actionID = messageReader.getUInt8();
       }
       if (unitType == BinaryUPnPConstants.UnitTypeArgumentID)
       {
-        currentArgumentID = messageData[offset] & 0xFF;
+        currentArgumentID = messageReader.getUInt8();
       }
       if (unitType == BinaryUPnPConstants.UnitTypeArgumentValue)
       {
         // right now, we don't know the type of the value, so we store it as byte array
-        byte[] argumentValue = new byte[length];
-        Portable.arraycopy(messageData, offset, argumentValue, 0, argumentValue.length);
-        outArgumentValueTable.put(new Integer(currentArgumentID), argumentValue);
+        outArgumentValueTable.put(new Integer(currentArgumentID), messageReader.getValue());
       }
-      offset += length;
-      loops++;
     }
     // missing device data
     if (deviceID == -1)
@@ -27,14 +27,13 @@
 */
 package de.fraunhofer.fokus.lsf.core.control_point;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.util.Enumeration;
 import java.util.Vector;
 
+import de.fraunhofer.fokus.lsf.core.BinaryMessageWriter;
 import de.fraunhofer.fokus.lsf.core.BinaryUPnPConstants;
 import de.fraunhofer.fokus.lsf.core.event.IBinaryCPDeviceEventListener;
 import de.fraunhofer.fokus.lsf.core.event.IBinaryCPServiceValueListener;
@@ -52,7 +51,6 @@ import de.fraunhofer.fokus.upnp.util.ThreadHelper;
 import de.fraunhofer.fokus.upnp.util.exceptions.ActionFailedException;
 import de.fraunhofer.fokus.upnp.util.network.BinaryMessageObject;
 import de.fraunhofer.fokus.upnp.util.network.IPHelper;
-import de.fraunhofer.fokus.upnp.util.network.SocketHelper;
 
 /**
  * This class is used to enumerate binary UPnP devices.
@@ -594,23 +592,15 @@ public class BinaryControlPoint extends Thread implements IBinaryCPDeviceEventLi
   /** Sends a command to a binary UPnP service. */
   public BinaryCPValueMessageParser invokeSetServiceValue(BinaryCPService binaryCPService, byte[] newValue) throws ActionFailedException
   {
-    long deviceID = binaryCPService.getBinaryCPDevice().getDeviceID();
-    byte[] prefix =
-      new byte[] {
-          BinaryUPnPConstants.UnitTypeSetServiceValue, 0,
-
-          BinaryUPnPConstants.UnitTypeDeviceID, 4, (byte)(deviceID >> 24 & 0xFF), (byte)(deviceID >> 16 & 0xFF),
-          (byte)(deviceID >> 8 & 0xFF), (byte)(deviceID >> 0 & 0xFF),
-
-          BinaryUPnPConstants.UnitTypeServiceID, 1, (byte)(binaryCPService.getServiceID() & 0xFF)
-      };
-    ByteArrayOutputStream prefixOutputStream = new ByteArrayOutputStream();
+    byte[] prefix;
     try
     {
-      prefixOutputStream.write(prefix);
-      prefixOutputStream.write(BinaryUPnPConstants.UnitTypeServiceValue);
-      prefixOutputStream.write(newValue.length);
-      prefixOutputStream.write(newValue);
+      BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeSetServiceValue);
+      writer.writeUInt32Unit(BinaryUPnPConstants.UnitTypeDeviceID, binaryCPService.getBinaryCPDevice().getDeviceID());
+      writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeServiceID, binaryCPService.getServiceID());
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeServiceValue, newValue);
+      prefix = writer.toByteArray();
     } catch (Exception e)
     {
       throw BinaryUPnPConstants.createActionFailedException(BinaryUPnPConstants.ResultTypeUnknownError);
@@ -618,7 +608,7 @@ public class BinaryControlPoint extends Thread implements IBinaryCPDeviceEventLi
     BinaryCPHostAddressSocketStructure socketStructure =
       binaryCPService.getBinaryCPDevice().getAssociatedSocketStructure();
     BinaryMessageObject response =
-      sendRequestAndWaitForResponse(prefixOutputStream.toByteArray(),
+      sendRequestAndWaitForResponse(prefix,
         binaryCPService.getBinaryCPDevice().getDeviceInfo(),
         socketStructure.getControlSocket(),
         binaryCPService.getBinaryCPDevice().getControlPort(),
@@ -635,29 +625,21 @@ public class BinaryControlPoint extends Thread implements IBinaryCPDeviceEventLi
   /** Sends a new name to the binary UPnP device. */
   public BinaryCPValueMessageParser invokeSetDeviceName(BinaryCPDevice binaryCPDevice, String newName) throws ActionFailedException
   {
-    long deviceID = binaryCPDevice.getDeviceID();
-    byte[] prefix =
-      new byte[] {
-          BinaryUPnPConstants.UnitTypeSetDeviceName, 0,
-
-          BinaryUPnPConstants.UnitTypeDeviceID, 4, (byte)(deviceID >> 24 & 0xFF), (byte)(deviceID >> 16 & 0xFF),
-          (byte)(deviceID >> 8 & 0xFF), (byte)(deviceID >> 0 & 0xFF)
-      };
-    byte[] nameData = StringHelper.stringToByteArray(newName);
-    ByteArrayOutputStream prefixOutputStream = new ByteArrayOutputStream();
+    byte[] prefix;
     try
     {
-      prefixOutputStream.write(prefix);
-      prefixOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceName);
-      prefixOutputStream.write(nameData.length);
-      prefixOutputStream.write(nameData);
+      BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeSetDeviceName);
+      writer.writeUInt32Unit(BinaryUPnPConstants.UnitTypeDeviceID, binaryCPDevice.getDeviceID());
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeDeviceName, StringHelper.stringToByteArray(newName));
+      prefix = writer.toByteArray();
     } catch (Exception e)
     {
       throw BinaryUPnPConstants.createActionFailedException(BinaryUPnPConstants.ResultTypeUnknownError);
     }
     BinaryCPHostAddressSocketStructure socketStructure = binaryCPDevice.getAssociatedSocketStructure();
     BinaryMessageObject response =
-      sendRequestAndWaitForResponse(prefixOutputStream.toByteArray(),
+      sendRequestAndWaitForResponse(prefix,
         binaryCPDevice.getDeviceInfo(),
         socketStructure.getControlSocket(),
         binaryCPDevice.getControlPort(),
@@ -674,29 +656,21 @@ public class BinaryControlPoint extends Thread implements IBinaryCPDeviceEventLi
   /** Sends a new application to the binary UPnP device. */
   public BinaryCPValueMessageParser invokeSetDeviceApplication(BinaryCPDevice binaryCPDevice, String newApplication) throws ActionFailedException
   {
-    long deviceID = binaryCPDevice.getDeviceID();
-    byte[] prefix =
-      new byte[] {
-          BinaryUPnPConstants.UnitTypeSetDeviceApplication, 0,
-
-          BinaryUPnPConstants.UnitTypeDeviceID, 4, (byte)(deviceID >> 24 & 0xFF), (byte)(deviceID >> 16 & 0xFF),
-          (byte)(deviceID >> 8 & 0xFF), (byte)(deviceID >> 0 & 0xFF)
-      };
-    byte[] applicationData = StringHelper.stringToByteArray(newApplication);
-    ByteArrayOutputStream prefixOutputStream = new ByteArrayOutputStream();
+    byte[] prefix;
     try
     {
-      prefixOutputStream.write(prefix);
-      prefixOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceApplication);
-      prefixOutputStream.write(applicationData.length);
-      prefixOutputStream.write(applicationData);
+      BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeSetDeviceApplication);
+      writer.writeUInt32Unit(BinaryUPnPConstants.UnitTypeDeviceID, binaryCPDevice.getDeviceID());
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeDeviceApplication, StringHelper.stringToByteArray(newApplication));
+      prefix = writer.toByteArray();
     } catch (Exception e)
     {
       throw BinaryUPnPConstants.createActionFailedException(BinaryUPnPConstants.ResultTypeUnknownError);
     }
     BinaryCPHostAddressSocketStructure socketStructure = binaryCPDevice.getAssociatedSocketStructure();
     BinaryMessageObject response =
-      sendRequestAndWaitForResponse(prefixOutputStream.toByteArray(),
+      sendRequestAndWaitForResponse(prefix,
         binaryCPDevice.getDeviceInfo(),
         socketStructure.getControlSocket(),
         binaryCPDevice.getControlPort(),
@@ -842,7 +816,8 @@ public class BinaryControlPoint extends Thread implements IBinaryCPDeviceEventLi
   }
 
   /**
-   * Sends a request to the device and tries to receive an answer.
+   * Sends a request to the device and tries to receive an answer. The response is received by the request
+   * dispatcher of the associated socket structure, so multiple requests can be outstanding at the same time.
    * 
    * 
    * @param prefix
@@ -861,56 +836,14 @@ public class BinaryControlPoint extends Thread implements IBinaryCPDeviceEventLi
     int destinationPort,
     BinaryCPDevice device)
   {
-    try
-    {
-      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-      outputStream.write(prefix);
-
-      // add path to device to allow proper routing
-      deviceInfo.addAccessEntities(outputStream);
-
-      outputStream.write(BinaryUPnPConstants.UnitTypeEndOfPacket);
-      byte[] packetData = outputStream.toByteArray();
-
-      StringHelper.printDebugText("", true, "To " + deviceInfo.getAccessAddress().getHostAddress() + ":" +
-        destinationPort + ":", BinaryUPnPConstants.toForwarderDebugString("", packetData, null));
-
-      DatagramPacket packet =
-        new DatagramPacket(packetData, packetData.length, deviceInfo.getAccessAddress(), destinationPort);
-
-      int invocationCount = BinaryUPnPConstants.INVOCATION_RETRIES + 1;
-      do
-      {
-        long startTime = Portable.currentTimeMillis();
-
-        socket.send(packet);
-
-        // read response
-        BinaryMessageObject responseMessage =
-          SocketHelper.readBinaryMessage(null, socket, deviceInfo.getResponseWaitTime());
-        long endTime = Portable.currentTimeMillis();
+    BinaryCPHostAddressSocketStructure socketStructure =
+      (BinaryCPHostAddressSocketStructure)deviceInfo.getAssociatedSocketStructure();
 
-        // a message was received
-        if (responseMessage != null)
-        {
-          Portable.println("\r\n  Response received after " + (endTime - startTime) + " ms (" +
-            responseMessage.getBody().length + " bytes)");
-          if (device != null)
-          {
-            device.addResponseTime(endTime - startTime);
-          }
-          return responseMessage;
-        }
-        invocationCount--;
-        if (invocationCount > 0)
-        {
-          Portable.println("Resend request");
-        }
-      } while (invocationCount > 0);
-    } catch (Exception e)
-    {
-    }
-    return null;
+    return socketStructure.getRequestDispatcher().sendRequestAndWaitForResponse(prefix,
+      deviceInfo,
+      socket,
+      destinationPort,
+      device);
   }
 
   /* (non-Javadoc)
@@ -27,15 +27,14 @@
 */
 package de.fraunhofer.fokus.lsf.core.device;
 
-import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
 import java.util.Vector;
 
+import de.fraunhofer.fokus.lsf.core.BinaryMessageWriter;
 import de.fraunhofer.fokus.lsf.core.BinaryUPnPConstants;
 import de.fraunhofer.fokus.lsf.core.IBinaryUPnPDevice;
 import de.fraunhofer.fokus.lsf.core.base.AbstractBinaryDevice;
 import de.fraunhofer.fokus.lsf.core.base.GatewayData;
-import de.fraunhofer.fokus.upnp.util.ByteArrayHelper;
 import de.fraunhofer.fokus.upnp.util.CollectionHelper;
 import de.fraunhofer.fokus.upnp.util.CriticalSection;
 import de.fraunhofer.fokus.upnp.util.Portable;
@@ -56,6 +55,9 @@ import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
 public class BinaryDevice extends AbstractBinaryDevice implements IBinaryUPnPDevice, Runnable, IEventListener
 {
 
+  /** SDL version 1.0 contained in announcements */
+  private static final int              SDL_VERSION             = 0x0100;
+
   /** Local device ID */
   private long                          deviceID;
 
@@ -268,16 +270,16 @@ public class BinaryDevice extends AbstractBinaryDevice implements IBinaryUPnPDev
     BinaryDeviceMessageParserResult parseResult = BinaryDeviceMessageParser.processMessage(message);
     if (parseResult != null && parseResult.isSearchMessage(this))
     {
-      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
       try
       {
-        // add announcement without end of packet
-        byte[] announcementMessageData = toByteArrayForAnnouncement(socketStructure);
-        addResponseEntities(outputStream, announcementMessageData, parseResult.getResponseEntityList());
-        announcementMessageData = outputStream.toByteArray();
+        byte[] announcementMessageData =
+          addResponseEntities(toByteArrayForAnnouncement(socketStructure), parseResult);
 
-        Portable.println("Answer search from " + message.getSourceAddress() + " with " +
-          BinaryUPnPConstants.toDebugString(announcementMessageData));
+        if (BinaryUPnPConstants.DEBUG_MESSAGES)
+        {
+          Portable.println("Answer search from " + message.getSourceAddress() + " with " +
+            BinaryUPnPConstants.toDebugString(announcementMessageData));
+        }
 
         BinaryMessageObject responseMessage =
           new BinaryMessageObject(announcementMessageData, (InetSocketAddress)socketStructure.getDiscoverySocket()
@@ -297,15 +299,15 @@ public class BinaryDevice extends AbstractBinaryDevice implements IBinaryUPnPDev
     BinaryDeviceMessageParserResult parseResult = BinaryDeviceMessageParser.processMessage(message);
     if (parseResult != null && parseResult.isGetDescriptionMessage(this))
     {
-      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
       try
       {
-        byte[] descriptionMessageData = toByteArrayForGetDescriptionResponse();
-        addResponseEntities(outputStream, descriptionMessageData, parseResult.getResponseEntityList());
-        descriptionMessageData = outputStream.toByteArray();
+        byte[] descriptionMessageData = addResponseEntities(toByteArrayForGetDescriptionResponse(), parseResult);
 
-        Portable.println("Answer get description from " + IPHelper.toString(message.getSourceAddress()) + " with " +
-          BinaryUPnPConstants.toDebugString(outputStream.toByteArray()));
+        if (BinaryUPnPConstants.DEBUG_MESSAGES)
+        {
+          Portable.println("Answer get description from " + IPHelper.toString(message.getSourceAddress()) +
+            " with " + BinaryUPnPConstants.toDebugString(descriptionMessageData));
+        }
 
         BinaryMessageObject responseMessage =
           new BinaryMessageObject(descriptionMessageData, (InetSocketAddress)socketStructure.getDescriptionSocket()
@@ -326,7 +328,6 @@ public class BinaryDevice extends AbstractBinaryDevice implements IBinaryUPnPDev
     BinaryDeviceMessageParserResult parseResult = BinaryDeviceMessageParser.processMessage(message);
     try
     {
-      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
       byte[] responseMessageData = null;
 
       if (parseResult != null && parseResult.isGetServiceValueMessage(this))
@@ -343,18 +344,24 @@ public class BinaryDevice extends AbstractBinaryDevice implements IBinaryUPnPDev
         {
           responseMessageData = deviceService.toByteArrayForGetValueResult();
         }
-        Portable.println("Generated control response message is\r\n" +
-          BinaryUPnPConstants.toDebugString(responseMessageData));
+        if (BinaryUPnPConstants.DEBUG_MESSAGES)
+        {
+          Portable.println("Generated control response message is\r\n" +
+            BinaryUPnPConstants.toDebugString(responseMessageData));
+        }
       }
       if (responseMessageData != null)
       {
-        addResponseEntities(outputStream, responseMessageData, parseResult.getResponseEntityList());
+        responseMessageData = addResponseEntities(responseMessageData, parseResult);
 
-        Portable.println("Generated control response message with response entities is\r\n" +
-          BinaryUPnPConstants.toDebugString(outputStream.toByteArray()));
+        if (BinaryUPnPConstants.DEBUG_MESSAGES)
+        {
+          Portable.println("Generated control response message with response entities is\r\n" +
+            BinaryUPnPConstants.toDebugString(responseMessageData));
+        }
 
         BinaryMessageObject responseMessage =
-          new BinaryMessageObject(outputStream.toByteArray(), (InetSocketAddress)socketStructure.getControlSocket()
+          new BinaryMessageObject(responseMessageData, (InetSocketAddress)socketStructure.getControlSocket()
             .getLocalSocketAddress(), message.getSourceAddress());
         SocketHelper.sendBinaryMessage(responseMessage, socketStructure.getControlSocket());
       }
@@ -366,122 +373,90 @@ public class BinaryDevice extends AbstractBinaryDevice implements IBinaryUPnPDev
   }
 
   /**
-   * Adds optional response entities to a generated message.
+   * Adds the optional request ID and optional response entities to a generated message.
    * 
    * 
-   * @param outputStream
-   *          Destination stream
    * @param coreMessageData
    *          Original message
-   * @param responseEntityList
-   *          Optional response entities
+   * @param parseResult
+   *          Parsed request with optional request ID and response entities
+   * 
+   * @return The message with request ID and response entities or the original message if nothing must be added
    */
-  private void addResponseEntities(ByteArrayOutputStream outputStream, byte[] coreMessageData, Vector responseEntityList)
+  private byte[] addResponseEntities(byte[] coreMessageData, BinaryDeviceMessageParserResult parseResult)
   {
-    try
+    Vector responseEntityList = parseResult.getResponseEntityList();
+    byte[] requestID = parseResult.getRequestID();
+    if (responseEntityList.size() == 0 && requestID == null)
     {
-      if (responseEntityList.size() > 0)
-      {
-        // discard original end of packet tupel
-        outputStream.write(coreMessageData, 0, coreMessageData.length - 1);
-        for (int i = 0; i < responseEntityList.size(); i++)
-        {
-          outputStream.write(((GatewayData)responseEntityList.elementAt(i)).toByteArrayForResponse());
-        }
-        outputStream.write(BinaryUPnPConstants.UnitTypeEndOfPacket);
-      } else
-      {
-        outputStream.write(coreMessageData);
-      }
-    } catch (Exception e)
+      return coreMessageData;
+    }
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    // discard original end of packet tupel
+    writer.writeRaw(coreMessageData, 0, coreMessageData.length - 1);
+    // echo request ID to allow correlation in the control point
+    if (requestID != null)
     {
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeRequestID, requestID);
     }
+    for (int i = 0; i < responseEntityList.size(); i++)
+    {
+      ((GatewayData)responseEntityList.elementAt(i)).writeForResponse(writer);
+    }
+    writer.writeEndOfPacket();
+
+    return writer.toByteArray();
   }
 
   /** Returns the byte array announcement for this device. */
   public byte[] toByteArrayForAnnouncement(BinaryDeviceHostAddressSocketStructure socketStructure)
   {
-    try
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    // add packet type
+    writer.writeUnit(BinaryUPnPConstants.UnitTypeDeviceAnnouncement);
+    // add version
+    writer.writeUInt16Unit(BinaryUPnPConstants.UnitTypeSDLVersion, SDL_VERSION);
+    // add date
+    writer.writeNumberUnit(BinaryUPnPConstants.UnitTypeDeviceDescriptionDate, deviceDescriptionDate, 5);
+    // add ID
+    writer.writeUInt32Unit(BinaryUPnPConstants.UnitTypeDeviceID, deviceID);
+    // add type if not custom
+    if (deviceType != BinaryUPnPConstants.DeviceTypeCustom)
     {
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
-      // add packet type
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceAnnouncement);
-      byteArrayOutputStream.write(0);
-      // add version
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeSDLVersion);
-      byteArrayOutputStream.write(2);
-      byteArrayOutputStream.write(1);
-      byteArrayOutputStream.write(0);
-      // add date
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceDescriptionDate);
-      byteArrayOutputStream.write(5);
-      byteArrayOutputStream.write(ByteArrayHelper.int64ToByteArray(deviceDescriptionDate, 5));
-      // add ID
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceID);
-      byteArrayOutputStream.write(4);
-      byteArrayOutputStream.write(ByteArrayHelper.uint32ToByteArray(deviceID));
-      // add type if not custom
-      if (deviceType != BinaryUPnPConstants.DeviceTypeCustom)
-      {
-        byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceType);
-        byteArrayOutputStream.write(1);
-        byteArrayOutputStream.write(deviceType);
-      }
-      // add description port if not standard
-      if (socketStructure.getDescriptionSocket().getLocalPort() != BinaryUPnPConstants.DescriptionPort)
-      {
-        byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceDescriptionPort);
-        byteArrayOutputStream.write(2);
-        byteArrayOutputStream.write(ByteArrayHelper.uint16ToByteArray(socketStructure.getDescriptionSocket()
-          .getLocalPort()));
-      }
-      // add control port if not standard
-      if (socketStructure.getControlSocket().getLocalPort() != BinaryUPnPConstants.ControlPort)
-      {
-        byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceControlPort);
-        byteArrayOutputStream.write(2);
-        byteArrayOutputStream.write(ByteArrayHelper.uint16ToByteArray(socketStructure.getControlSocket().getLocalPort()));
-      }
-      // add end of packet
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeEndOfPacket);
-
-      return byteArrayOutputStream.toByteArray();
-    } catch (Exception e)
+      writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeDeviceType, deviceType);
+    }
+    // add description port if not standard
+    if (socketStructure.getDescriptionSocket().getLocalPort() != BinaryUPnPConstants.DescriptionPort)
     {
-
+      writer.writeUInt16Unit(BinaryUPnPConstants.UnitTypeDeviceDescriptionPort, socketStructure.getDescriptionSocket()
+        .getLocalPort());
     }
-    return null;
+    // add control port if not standard
+    if (socketStructure.getControlSocket().getLocalPort() != BinaryUPnPConstants.ControlPort)
+    {
+      writer.writeUInt16Unit(BinaryUPnPConstants.UnitTypeDeviceControlPort, socketStructure.getControlSocket()
+        .getLocalPort());
+    }
+    // add end of packet
+    writer.writeEndOfPacket();
+
+    return writer.toByteArray();
   }
 
   /** Returns the byte array removal message for this device. */
   public byte[] toByteArrayForRemoval()
   {
-    try
-    {
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
-      // add packet type
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceRemoval);
-      byteArrayOutputStream.write(0);
-      // add version
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeSDLVersion);
-      byteArrayOutputStream.write(2);
-      byteArrayOutputStream.write(1);
-      byteArrayOutputStream.write(0);
-      // add ID
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceID);
-      byteArrayOutputStream.write(4);
-      byteArrayOutputStream.write(ByteArrayHelper.uint32ToByteArray(deviceID));
-      // add end of packet
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeEndOfPacket);
-
-      return byteArrayOutputStream.toByteArray();
-    } catch (Exception e)
-    {
-
-    }
-    return null;
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    // add packet type
+    writer.writeUnit(BinaryUPnPConstants.UnitTypeDeviceRemoval);
+    // add version
+    writer.writeUInt16Unit(BinaryUPnPConstants.UnitTypeSDLVersion, SDL_VERSION);
+    // add ID
+    writer.writeUInt32Unit(BinaryUPnPConstants.UnitTypeDeviceID, deviceID);
+    // add end of packet
+    writer.writeEndOfPacket();
+
+    return writer.toByteArray();
   }
 
   /** Returns the byte array description for this device. */
@@ -493,65 +468,37 @@ public class BinaryDevice extends AbstractBinaryDevice implements IBinaryUPnPDev
     }
     try
     {
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
-      // calculate services size
-      for (int i = 0; i < serviceList.size(); i++)
-      {
-        BinaryDeviceService currentService = getDeviceService(i);
-        // add byte array description for service
-        byteArrayOutputStream.write(currentService.toByteArrayForGetDescriptionResponse());
-      }
-      byte[] serviceDescriptions = byteArrayOutputStream.toByteArray();
-      byteArrayOutputStream.reset();
-
+      BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
       // add packet type
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceDescription);
-      byteArrayOutputStream.write(0);
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeDeviceDescription);
       // add date
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceDescriptionDate);
-      byteArrayOutputStream.write(5);
-      byteArrayOutputStream.write(ByteArrayHelper.int64ToByteArray(deviceDescriptionDate, 5));
+      writer.writeNumberUnit(BinaryUPnPConstants.UnitTypeDeviceDescriptionDate, deviceDescriptionDate, 5);
       // add lifetime
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceExpectedLifeTime);
-      byteArrayOutputStream.write(2);
-      byteArrayOutputStream.write(ByteArrayHelper.uint16ToByteArray((int)expectedLifeTime));
+      writer.writeUInt16Unit(BinaryUPnPConstants.UnitTypeDeviceExpectedLifeTime, (int)expectedLifeTime);
       // add type
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceType);
-      byteArrayOutputStream.write(1);
-      byteArrayOutputStream.write(deviceType);
+      writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeDeviceType, deviceType);
       // add ID
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceID);
-      byteArrayOutputStream.write(4);
-      byteArrayOutputStream.write(ByteArrayHelper.uint32ToByteArray(deviceID));
+      writer.writeUInt32Unit(BinaryUPnPConstants.UnitTypeDeviceID, deviceID);
       // add name
-      byte[] nameData = StringHelper.stringToByteArray(name);
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceName);
-      byteArrayOutputStream.write(nameData.length);
-      byteArrayOutputStream.write(nameData);
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeDeviceName, StringHelper.stringToByteArray(name));
       // add application
-      byte[] applicationData = StringHelper.stringToByteArray(application);
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceApplication);
-      byteArrayOutputStream.write(applicationData.length);
-      byteArrayOutputStream.write(applicationData);
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeDeviceApplication, StringHelper.stringToByteArray(application));
       // add manufacturer
-      byte[] manufacturerData = StringHelper.stringToByteArray(manufacturer);
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceManufacturer);
-      byteArrayOutputStream.write(manufacturerData.length);
-      byteArrayOutputStream.write(manufacturerData);
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeDeviceManufacturer, StringHelper.stringToByteArray(manufacturer));
       // add control port if changed
       if (controlPort != BinaryUPnPConstants.ControlPort)
       {
-        byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceControlPort);
-        byteArrayOutputStream.write(2);
-        byteArrayOutputStream.write(ByteArrayHelper.uint16ToByteArray(controlPort));
+        writer.writeUInt16Unit(BinaryUPnPConstants.UnitTypeDeviceControlPort, controlPort);
       }
       // add all services
-      byteArrayOutputStream.write(serviceDescriptions);
+      for (int i = 0; i < serviceList.size(); i++)
+      {
+        getDeviceService(i).writeDescription(writer);
+      }
       // add end of packet
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeEndOfPacket);
+      writer.writeEndOfPacket();
 
-      descriptionMessage = byteArrayOutputStream.toByteArray();
+      descriptionMessage = writer.toByteArray();
       return descriptionMessage;
     } catch (Exception e)
     {
@@ -563,86 +510,52 @@ public class BinaryDevice extends AbstractBinaryDevice implements IBinaryUPnPDev
   /** Builds the response message for a control request */
   public byte[] toByteArrayForValueResult(int messageType, int result, int serviceID)
   {
-    try
-    {
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
-      // add type
-      byteArrayOutputStream.write(messageType);
-      byteArrayOutputStream.write(1);
-      byteArrayOutputStream.write(result);
-      // add device ID
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceID);
-      byteArrayOutputStream.write(4);
-      byteArrayOutputStream.write(ByteArrayHelper.uint32ToByteArray(deviceID));
-      // add service ID
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeServiceID);
-      byteArrayOutputStream.write(1);
-      byteArrayOutputStream.write(serviceID);
-      // add end of packet
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeEndOfPacket);
-
-      return byteArrayOutputStream.toByteArray();
-    } catch (Exception e)
-    {
-    }
-    return null;
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    // add type
+    writer.writeUInt8Unit((byte)messageType, result);
+    // add device ID
+    writer.writeUInt32Unit(BinaryUPnPConstants.UnitTypeDeviceID, deviceID);
+    // add service ID
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeServiceID, serviceID);
+    // add end of packet
+    writer.writeEndOfPacket();
+
+    return writer.toByteArray();
   }
 
   /** Builds the message for events. */
   public byte[] toByteArrayForEventMessage()
   {
-    try
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    // add type
+    writer.writeUnit(BinaryUPnPConstants.UnitTypeEvent);
+    // add device ID
+    writer.writeUInt32Unit(BinaryUPnPConstants.UnitTypeDeviceID, deviceID);
+    // single event
+    if (pendingEventServiceList.size() == 1)
     {
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
-      // add type
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeEvent);
-      byteArrayOutputStream.write(0);
-      // add device ID
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceID);
-      byteArrayOutputStream.write(4);
-      byteArrayOutputStream.write(ByteArrayHelper.uint32ToByteArray(deviceID));
-      // single event
-      if (pendingEventServiceList.size() == 1)
+      BinaryDeviceService deviceService = (BinaryDeviceService)pendingEventServiceList.elementAt(0);
+      // add service ID
+      writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeServiceID, deviceService.getServiceID());
+      // add value
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeServiceValue, deviceService.getValue().toByteArray());
+    } else
+    {
+      for (int i = 0; i < pendingEventServiceList.size(); i++)
       {
-        BinaryDeviceService deviceService = (BinaryDeviceService)pendingEventServiceList.elementAt(0);
+        BinaryDeviceService deviceService = (BinaryDeviceService)pendingEventServiceList.elementAt(i);
+        // add container
+        int containerOffset = writer.beginUnit(BinaryUPnPConstants.UnitTypeServiceContainer);
         // add service ID
-        byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeServiceID);
-        byteArrayOutputStream.write(1);
-        byteArrayOutputStream.write(deviceService.getServiceID());
+        writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeServiceID, deviceService.getServiceID());
         // add value
-        byte[] value = deviceService.getValue().toByteArray();
-        byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeServiceValue);
-        byteArrayOutputStream.write(value.length);
-        byteArrayOutputStream.write(value);
-      } else
-      {
-        for (int i = 0; i < pendingEventServiceList.size(); i++)
-        {
-          BinaryDeviceService deviceService = (BinaryDeviceService)pendingEventServiceList.elementAt(i);
-          byte[] value = deviceService.getValue().toByteArray();
-          int containerSize = 5 + value.length;
-          // add container
-          byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeServiceContainer);
-          byteArrayOutputStream.write(containerSize);
-          // add service ID
-          byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeServiceID);
-          byteArrayOutputStream.write(1);
-          byteArrayOutputStream.write(deviceService.getServiceID());
-          // add value
-          byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeServiceValue);
-          byteArrayOutputStream.write(value.length);
-          byteArrayOutputStream.write(value);
-        }
+        writer.writeUnit(BinaryUPnPConstants.UnitTypeServiceValue, deviceService.getValue().toByteArray());
+        writer.endUnit(containerOffset);
       }
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeEndOfPacket);
-
-      return byteArrayOutputStream.toByteArray();
-    } catch (Exception e)
-    {
     }
-    return null;
+    writer.writeEndOfPacket();
+
+    return writer.toByteArray();
   }
 
   /* (non-Javadoc)
@@ -686,7 +599,10 @@ public class BinaryDevice extends AbstractBinaryDevice implements IBinaryUPnPDev
 
         byte[] announcementMessageData = toByteArrayForAnnouncement(currentSocketStructure);
 
-        Portable.println("Announce device with " + BinaryUPnPConstants.toDebugString(announcementMessageData));
+        if (BinaryUPnPConstants.DEBUG_MESSAGES)
+        {
+          Portable.println("Announce device with " + BinaryUPnPConstants.toDebugString(announcementMessageData));
+        }
 
         BinaryMessageObject message =
           new BinaryMessageObject(announcementMessageData,
@@ -723,7 +639,10 @@ public class BinaryDevice extends AbstractBinaryDevice implements IBinaryUPnPDev
 
       byte[] removalMessageData = toByteArrayForRemoval();
 
-      Portable.println("Send device removal with " + BinaryUPnPConstants.toDebugString(removalMessageData));
+      if (BinaryUPnPConstants.DEBUG_MESSAGES)
+      {
+        Portable.println("Send device removal with " + BinaryUPnPConstants.toDebugString(removalMessageData));
+      }
 
       BinaryMessageObject message =
         new BinaryMessageObject(removalMessageData, (InetSocketAddress)currentSocketStructure.getDiscoverySocket()
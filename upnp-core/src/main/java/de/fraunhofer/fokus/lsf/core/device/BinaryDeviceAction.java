@@ -27,9 +27,9 @@
 */
 package de.fraunhofer.fokus.lsf.core.device;
 
-import java.io.ByteArrayOutputStream;
 import java.util.Vector;
 
+import de.fraunhofer.fokus.lsf.core.BinaryMessageWriter;
 import de.fraunhofer.fokus.lsf.core.BinaryUPnPConstants;
 import de.fraunhofer.fokus.lsf.core.base.AbstractBinaryAction;
 import de.fraunhofer.fokus.lsf.core.base.BinaryArgument;
@@ -83,41 +83,26 @@ public class BinaryDeviceAction extends AbstractBinaryAction
   /** Returns the byte array description for this action. */
   public byte[] toByteArrayForDescription()
   {
-    try
-    {
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
-      // calculate action size
-      for (int i = 0; i < argumentList.size(); i++)
-      {
-        BinaryArgument currentArgument = (BinaryArgument)argumentList.elementAt(i);
-        // add byte array description for argument
-        byteArrayOutputStream.write(currentArgument.toByteArrayForDescription());
-      }
-      byte[] argumentDescriptions = byteArrayOutputStream.toByteArray();
-      byte[] actionNameData = StringHelper.stringToByteArray(actionName);
-
-      byteArrayOutputStream.reset();
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    writeDescription(writer);
 
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeActionDescriptionContainer);
-      byteArrayOutputStream.write(5 + actionNameData.length + argumentDescriptions.length);
-      // add ID
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeActionID);
-      byteArrayOutputStream.write(1);
-      byteArrayOutputStream.write(actionID);
-      // add name
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeActionName);
-      byteArrayOutputStream.write(actionNameData.length);
-      byteArrayOutputStream.write(actionNameData);
-      // add all arguments
-      byteArrayOutputStream.write(argumentDescriptions);
+    return writer.toByteArray();
+  }
 
-      return byteArrayOutputStream.toByteArray();
-    } catch (Exception e)
+  /** Writes the action description container. */
+  public void writeDescription(BinaryMessageWriter writer)
+  {
+    int containerOffset = writer.beginUnit(BinaryUPnPConstants.UnitTypeActionDescriptionContainer);
+    // add ID
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeActionID, actionID);
+    // add name
+    writer.writeUnit(BinaryUPnPConstants.UnitTypeActionName, StringHelper.stringToByteArray(actionName));
+    // add all arguments
+    for (int i = 0; i < argumentList.size(); i++)
     {
-
+      ((BinaryArgument)argumentList.elementAt(i)).writeForDescription(writer);
     }
-    return null;
+    writer.endUnit(containerOffset);
   }
 
 }
@@ -105,9 +105,12 @@ public class BinaryDeviceMessageManagement extends Thread
           message = SocketHelper.readBinaryMessage(null, currentSocketStructure.getDescriptionSocket(), 10);
           if (message != null)
           {
-            Portable.println("Description: Received description request from " +
-              IPHelper.toString(message.getSourceAddress()) + " with " +
-              BinaryUPnPConstants.toDebugString(message.getBody()));
+            if (BinaryUPnPConstants.DEBUG_MESSAGES)
+            {
+              Portable.println("Description: Received description request from " +
+                IPHelper.toString(message.getSourceAddress()) + " with " +
+                BinaryUPnPConstants.toDebugString(message.getBody()));
+            }
             binaryDevice.processDescriptionMessage(message, currentSocketStructure);
           }
         } while (message != null);
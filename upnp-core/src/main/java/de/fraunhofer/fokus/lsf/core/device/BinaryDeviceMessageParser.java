@@ -27,10 +27,9 @@
 */
 package de.fraunhofer.fokus.lsf.core.device;
 
+import de.fraunhofer.fokus.lsf.core.BinaryMessageReader;
 import de.fraunhofer.fokus.lsf.core.BinaryUPnPConstants;
 import de.fraunhofer.fokus.lsf.core.base.GatewayData;
-import de.fraunhofer.fokus.upnp.util.ByteArrayHelper;
-import de.fraunhofer.fokus.upnp.util.Portable;
 import de.fraunhofer.fokus.upnp.util.network.BinaryMessageObject;
 
 /**
@@ -58,98 +57,90 @@ public class BinaryDeviceMessageParser
     {
       BinaryDeviceMessageParserResult result = new BinaryDeviceMessageParserResult();
 
-      byte[] messageData = message.getBody();
-      int offset = 0;
-      int loops = 0;
+      BinaryMessageReader messageReader = BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_MESSAGE);
+      messageReader.reset(message.getBody());
 
       byte[] entityResponseAddress = null;
       byte[] entityResponsePort = null;
       int entityResponseForwarderID = -1;
       long entityResponseID = -1;
 
-      while (offset < messageData.length && loops < MAX_LOOP_COUNT)
+      while (messageReader.next())
       {
-        byte unitType = messageData[offset++];
-        if (unitType != BinaryUPnPConstants.UnitTypeEndOfPacket)
+        byte unitType = messageReader.getUnitType();
+        // handle packet units
+        if (unitType == BinaryUPnPConstants.UnitTypeSearchDevice ||
+          unitType == BinaryUPnPConstants.UnitTypeDeviceAnnouncement ||
+          unitType == BinaryUPnPConstants.UnitTypeDeviceRemoval ||
+          unitType == BinaryUPnPConstants.UnitTypeGetDeviceDescription ||
+          unitType == BinaryUPnPConstants.UnitTypeDeviceDescription ||
+          unitType == BinaryUPnPConstants.UnitTypeGetServiceDescription ||
+          unitType == BinaryUPnPConstants.UnitTypeServiceDescription ||
+          unitType == BinaryUPnPConstants.UnitTypeGetServiceValue ||
+          unitType == BinaryUPnPConstants.UnitTypeSetServiceValue ||
+          unitType == BinaryUPnPConstants.UnitTypeInvokeAction ||
+          unitType == BinaryUPnPConstants.UnitTypeSetDeviceName ||
+          unitType == BinaryUPnPConstants.UnitTypeSetDeviceNameResult ||
+          unitType == BinaryUPnPConstants.UnitTypeSetDeviceApplication ||
+          unitType == BinaryUPnPConstants.UnitTypeSetDeviceApplicationResult)
         {
-          int length = messageData[offset++] & 0xFF;
-          // handle packet units
-          if (unitType == BinaryUPnPConstants.UnitTypeSearchDevice ||
-            unitType == BinaryUPnPConstants.UnitTypeDeviceAnnouncement ||
-            unitType == BinaryUPnPConstants.UnitTypeDeviceRemoval ||
-            unitType == BinaryUPnPConstants.UnitTypeGetDeviceDescription ||
-            unitType == BinaryUPnPConstants.UnitTypeDeviceDescription ||
-            unitType == BinaryUPnPConstants.UnitTypeGetServiceDescription ||
-            unitType == BinaryUPnPConstants.UnitTypeServiceDescription ||
-            unitType == BinaryUPnPConstants.UnitTypeGetServiceValue ||
-            unitType == BinaryUPnPConstants.UnitTypeSetServiceValue ||
-            unitType == BinaryUPnPConstants.UnitTypeInvokeAction ||
-            unitType == BinaryUPnPConstants.UnitTypeSetDeviceName ||
-            unitType == BinaryUPnPConstants.UnitTypeSetDeviceNameResult ||
-            unitType == BinaryUPnPConstants.UnitTypeSetDeviceApplication ||
-            unitType == BinaryUPnPConstants.UnitTypeSetDeviceApplicationResult)
-          {
-            result.setMessageType(unitType);
-          }
-          if (unitType == BinaryUPnPConstants.UnitTypeDeviceID)
-          {
-            result.setDeviceID(ByteArrayHelper.byteArrayToUInt32(messageData, offset));
-          }
-          if (unitType == BinaryUPnPConstants.UnitTypeDeviceType)
-          {
-            result.setDeviceType(messageData[offset] & 0xFF);
-          }
-          if (unitType == BinaryUPnPConstants.UnitTypeServiceType)
-          {
-            result.setServiceType(messageData[offset] & 0xFF);
-          }
-          if (unitType == BinaryUPnPConstants.UnitTypeServiceID)
-          {
-            result.setServiceID(messageData[offset] & 0xFF);
-          }
-          if (unitType == BinaryUPnPConstants.UnitTypeResponseForwarderAddress)
-          {
-            entityResponseAddress = new byte[length];
-            Portable.arraycopy(messageData, offset, entityResponseAddress, 0, length);
-            entityResponsePort = null;
-            entityResponseID = -1;
-            entityResponseForwarderID = -1;
-          }
-          if (unitType == BinaryUPnPConstants.UnitTypeResponseForwarderPort)
-          {
-            entityResponsePort = new byte[length];
-            Portable.arraycopy(messageData, offset, entityResponsePort, 0, length);
-          }
-          if (unitType == BinaryUPnPConstants.UnitTypeResponseID)
-          {
-            entityResponseID = ByteArrayHelper.byteArrayToInt64(messageData, offset, length);
-          }
-          if (unitType == BinaryUPnPConstants.UnitTypeResponseForwarderID)
+          result.setMessageType(unitType);
+        }
+        if (unitType == BinaryUPnPConstants.UnitTypeDeviceID)
+        {
+          result.setDeviceID(messageReader.getNumber());
+        }
+        if (unitType == BinaryUPnPConstants.UnitTypeDeviceType)
+        {
+          result.setDeviceType(messageReader.getUInt8());
+        }
+        if (unitType == BinaryUPnPConstants.UnitTypeServiceType)
+        {
+          result.setServiceType(messageReader.getUInt8());
+        }
+        if (unitType == BinaryUPnPConstants.UnitTypeServiceID)
+        {
+          result.setServiceID(messageReader.getUInt8());
+        }
+        if (unitType == BinaryUPnPConstants.UnitTypeRequestID)
+        {
+          result.setRequestID(messageReader.getValue());
+        }
+        if (unitType == BinaryUPnPConstants.UnitTypeResponseForwarderAddress)
+        {
+          entityResponseAddress = messageReader.getValue();
+          entityResponsePort = null;
+          entityResponseID = -1;
+          entityResponseForwarderID = -1;
+        }
+        if (unitType == BinaryUPnPConstants.UnitTypeResponseForwarderPort)
+        {
+          entityResponsePort = messageReader.getValue();
+        }
+        if (unitType == BinaryUPnPConstants.UnitTypeResponseID)
+        {
+          entityResponseID = messageReader.getNumber();
+        }
+        if (unitType == BinaryUPnPConstants.UnitTypeResponseForwarderID)
+        {
+          entityResponseForwarderID = messageReader.getUInt8();
+          // check if a complete gateway description has been found
+          if (entityResponseForwarderID != -1 && entityResponseAddress != null)
           {
-            entityResponseForwarderID = messageData[offset] & 0xFF;
-            // check if a complete gateway description has been found
-            if (entityResponseForwarderID != -1 && entityResponseAddress != null)
+            GatewayData gatewayData = null;
+            gatewayData = new GatewayData(entityResponseAddress, entityResponseForwarderID);
+            // add optional properties
+            if (entityResponsePort != null)
+            {
+              gatewayData.setResponsePort(entityResponsePort);
+            }
+            if (entityResponseID != 0)
             {
-              GatewayData gatewayData = null;
-              gatewayData = new GatewayData(entityResponseAddress, entityResponseForwarderID);
-              // add optional properties
-              if (entityResponsePort != null)
-              {
-                gatewayData.setResponsePort(entityResponsePort);
-              }
-              if (entityResponseID != 0)
-              {
-                gatewayData.setID(entityResponseID);
-              }
-              result.getResponseEntityList().add(gatewayData);
+              gatewayData.setID(entityResponseID);
             }
-            entityResponseAddress = null;
+            result.getResponseEntityList().add(gatewayData);
           }
-          offset += length;
-          loops++;
-        } else
-        {
-          offset = messageData.length;
+          entityResponseAddress = null;
         }
       }
       return result;
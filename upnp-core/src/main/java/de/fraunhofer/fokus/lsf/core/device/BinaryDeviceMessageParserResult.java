@@ -52,6 +52,8 @@ public class BinaryDeviceMessageParserResult
 
   private int    messageType        = 0;
 
+  private byte[] requestID          = null;
+
   /**
    * Creates a new instance of BinaryDeviceMessageParserResult.
    * 
@@ -186,6 +188,27 @@ public class BinaryDeviceMessageParserResult
     this.messageType = messageType;
   }
 
+  /**
+   * Retrieves the optional request ID that must be echoed in the response.
+   * 
+   * @return The request ID or null for requests from older control points
+   */
+  public byte[] getRequestID()
+  {
+    return requestID;
+  }
+
+  /**
+   * Sets the new value for requestID.
+   * 
+   * @param requestID
+   *          The new value for requestID
+   */
+  public void setRequestID(byte[] requestID)
+  {
+    this.requestID = requestID;
+  }
+
   /** Checks whether this message is a matching search device message. */
   public boolean isSearchMessage(BinaryDevice binaryDevice)
   {
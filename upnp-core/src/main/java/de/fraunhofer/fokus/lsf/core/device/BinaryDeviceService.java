@@ -27,13 +27,11 @@
 */
 package de.fraunhofer.fokus.lsf.core.device;
 
-import java.io.ByteArrayOutputStream;
 import java.util.Vector;
 
+import de.fraunhofer.fokus.lsf.core.BinaryMessageWriter;
 import de.fraunhofer.fokus.lsf.core.BinaryUPnPConstants;
 import de.fraunhofer.fokus.lsf.core.base.AbstractBinaryService;
-import de.fraunhofer.fokus.upnp.util.ByteArrayHelper;
-import de.fraunhofer.fokus.upnp.util.Portable;
 import de.fraunhofer.fokus.upnp.util.StringHelper;
 
 /**
@@ -155,115 +153,59 @@ public class BinaryDeviceService extends AbstractBinaryService
   /** Returns the byte array description for this service. */
   public byte[] toByteArrayForGetDescriptionResponse()
   {
-    try
-    {
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    writeDescription(writer);
 
-      // calculate actions size
-      for (int i = 0; i < actionList.size(); i++)
-      {
-        BinaryDeviceAction currentAction = getDeviceAction(i);
-        // add byte array description for action
-        byteArrayOutputStream.write(currentAction.toByteArrayForDescription());
-      }
-      byte[] actionDescriptions = byteArrayOutputStream.toByteArray();
-      byte[] serviceNameData = StringHelper.stringToByteArray(serviceName);
+    return writer.toByteArray();
+  }
 
-      byte[] serviceValueDescriptionData = new byte[0];
-      if (hasServiceValue())
+  /** Writes the service description container. */
+  public void writeDescription(BinaryMessageWriter writer)
+  {
+    int containerOffset = writer.beginUnit(BinaryUPnPConstants.UnitTypeServiceDescriptionContainer);
+    // add ID
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeServiceID, serviceID);
+    // add type
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeServiceType, serviceType);
+    // add optional service value
+    if (hasServiceValue())
+    {
+      // replace simple service value with composite description if needed
+      if (value.isCompositeValue())
       {
-        byte[] valueUnitData = StringHelper.stringToByteArray(valueUnit);
-        // assume simple service value
-        byte[] serviceTypeData = new byte[] {
-          (byte)getValueType()
-        };
-        // replace with composite description if needed
-        if (value.isCompositeValue())
-        {
-          serviceTypeData = value.getCompositeDescription();
-        }
-        serviceValueDescriptionData = new byte[4 + serviceTypeData.length + valueUnitData.length];
-        serviceValueDescriptionData[0] = BinaryUPnPConstants.UnitTypeValueType;
-        serviceValueDescriptionData[1] = (byte)serviceTypeData.length;
-        Portable.arraycopy(serviceTypeData, 0, serviceValueDescriptionData, 2, serviceTypeData.length);
-        serviceValueDescriptionData[serviceTypeData.length + 2] = BinaryUPnPConstants.UnitTypeValueUnit;
-        serviceValueDescriptionData[serviceTypeData.length + 3] = (byte)valueUnitData.length;
-        if (valueUnitData.length > 0)
-        {
-          Portable.arraycopy(valueUnitData,
-            0,
-            serviceValueDescriptionData,
-            serviceTypeData.length + 4,
-            valueUnitData.length);
-        }
-      }
-
-      byteArrayOutputStream.reset();
-
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeServiceDescriptionContainer);
-      // ServiceID, Type, Name
-      byteArrayOutputStream.write(8 + serviceNameData.length + serviceValueDescriptionData.length +
-        actionDescriptions.length);
-      // add ID
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeServiceID);
-      byteArrayOutputStream.write(1);
-      byteArrayOutputStream.write(serviceID);
-      // add type
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeServiceType);
-      byteArrayOutputStream.write(1);
-      byteArrayOutputStream.write(serviceType);
-      // add optional service value
-      if (serviceValueDescriptionData.length > 0)
+        writer.writeUnit(BinaryUPnPConstants.UnitTypeValueType, value.getCompositeDescription());
+      } else
       {
-        byteArrayOutputStream.write(serviceValueDescriptionData);
+        writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeValueType, getValueType());
       }
-      // add name
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeServiceName);
-      byteArrayOutputStream.write(serviceNameData.length);
-      byteArrayOutputStream.write(serviceNameData);
-      // add all actions
-      byteArrayOutputStream.write(actionDescriptions);
-
-      return byteArrayOutputStream.toByteArray();
-    } catch (Exception e)
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeValueUnit, StringHelper.stringToByteArray(valueUnit));
+    }
+    // add name
+    writer.writeUnit(BinaryUPnPConstants.UnitTypeServiceName, StringHelper.stringToByteArray(serviceName));
+    // add all actions
+    for (int i = 0; i < actionList.size(); i++)
     {
-
+      getDeviceAction(i).writeDescription(writer);
     }
-    return null;
+    writer.endUnit(containerOffset);
   }
 
   /** Builds the message for a get value response message. */
   public byte[] toByteArrayForGetValueResult()
   {
-    try
-    {
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
-      // add type
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeServiceValueResult);
-      byteArrayOutputStream.write(1);
-      byteArrayOutputStream.write(BinaryUPnPConstants.ResultTypeOk);
-      // add device ID
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeDeviceID);
-      byteArrayOutputStream.write(4);
-      byteArrayOutputStream.write(ByteArrayHelper.uint32ToByteArray(binaryDevice.getDeviceID()));
-      // add service ID
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeServiceID);
-      byteArrayOutputStream.write(1);
-      byteArrayOutputStream.write(serviceID);
-      // add value
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeServiceValue);
-      byte[] valueData = value.toByteArray();
-      byteArrayOutputStream.write(valueData.length);
-      byteArrayOutputStream.write(valueData);
-      // add end of packet
-      byteArrayOutputStream.write(BinaryUPnPConstants.UnitTypeEndOfPacket);
-
-      return byteArrayOutputStream.toByteArray();
-    } catch (Exception e)
-    {
-    }
-    return null;
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    // add type
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeServiceValueResult, BinaryUPnPConstants.ResultTypeOk);
+    // add device ID
+    writer.writeUInt32Unit(BinaryUPnPConstants.UnitTypeDeviceID, binaryDevice.getDeviceID());
+    // add service ID
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeServiceID, serviceID);
+    // add value
+    writer.writeUnit(BinaryUPnPConstants.UnitTypeServiceValue, value.toByteArray());
+    // add end of packet
+    writer.writeEndOfPacket();
+
+    return writer.toByteArray();
   }
 
 }
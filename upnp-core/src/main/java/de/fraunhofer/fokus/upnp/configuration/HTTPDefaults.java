@@ -58,6 +58,15 @@ public class HTTPDefaults
   /** Time interval for server sockets to check for available data */
   public final static int     SERVER_THREAD_SLEEP_TIME            = 50;
 
+  /** Number of worker threads that process requests received by a selector based HTTP server */
+  public final static int     SELECTOR_SERVER_WORKER_THREADS      = 4;
+
+  /** Maximum number of open connections for a selector based HTTP server */
+  public final static int     MAX_SELECTOR_SERVER_CONNECTIONS     = 4096;
+
+  /** Maximum time a selector based HTTP server blocks while waiting for network events */
+  public final static int     SELECTOR_SERVER_SELECT_TIMEOUT      = 1000;
+
   /**
    * Maximum number of allowed active HTTPClients at a time. If the number is exceeded, pending
    * requests are cancelled.
@@ -73,4 +82,22 @@ public class HTTPDefaults
    * Timeout for an HTTP connection till a response is expected (10 seconds)
    */
   public static final int     TIMEOUT_FOR_RESEND                  = 10;
+
+  /** Maximum number of concurrent pooled client connections to one remote host */
+  public final static int     MAX_CLIENT_CONNECTIONS_PER_HOST     = 4;
+
+  /** Time in ms after which unused pooled client connections are closed */
+  public final static long    CLIENT_CONNECTION_IDLE_TIMEOUT      = 20000;
+
+  /** Maximum time in ms to wait for a free pooled client connection */
+  public final static long    CLIENT_POOL_WAIT_TIMEOUT            = 30000;
+
+  /** Timeout in ms for establishing a client connection */
+  public final static int     CLIENT_CONNECT_TIMEOUT              = 10000;
+
+  /** Timeout in ms for GENA event notifications */
+  public final static int     EVENT_NOTIFY_TIMEOUT                = 5000;
+
+  /** Flag to send multiple idempotent requests over one client connection without waiting for responses */
+  public static final boolean PIPELINED_CLIENT_REQUESTS           = false;
 }
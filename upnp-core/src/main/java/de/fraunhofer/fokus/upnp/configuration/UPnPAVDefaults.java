@@ -37,6 +37,12 @@ package de.fraunhofer.fokus.upnp.configuration;
 public class UPnPAVDefaults
 {
   /** This flag may be set to true for static media servers to accelerate browse action handling */
-  public static boolean CACHE_BROWSE_ACTION = false;
+  public static boolean CACHE_BROWSE_ACTION             = false;
+
+  /** Number of threads that scan directories for file based media servers */
+  public static int     DIRECTORY_SCAN_THREAD_COUNT     = 4;
+
+  /** Interval for checking scanned directories for changes in ms */
+  public static long    DIRECTORY_CHANGE_CHECK_INTERVAL = 30000;
 
 }
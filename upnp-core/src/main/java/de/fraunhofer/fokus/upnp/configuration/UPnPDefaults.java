@@ -37,15 +37,36 @@ package de.fraunhofer.fokus.upnp.configuration;
 public class UPnPDefaults
 {
 
+  /** Maximum number of browse responses cached by control points */
+  public static final int     CP_BROWSE_CACHE_MAX_ENTRIES               = 2048;
+
+  /** Maximum total size in characters of all cached browse results */
+  public static final long    CP_BROWSE_CACHE_MAX_SIZE                  = 16777216;
+
+  /** Time in ms after which cached browse responses are requested again */
+  public static final long    CP_BROWSE_CACHE_TIME_TO_LIVE              = 3600000;
+
   /** Maximum number of parallel device cache retrieval threads */
   public static final int     CP_DEVICE_CACHE_RETRIEVAL_THREAD_COUNT    = 5;
 
   /** Minimum timeout for devices that publish a lower max age in seconds */
   public static final int     CP_DEVICE_MIN_ACCEPTED_MAX_AGE            = 600;
 
+  /** Initial time in ms before a host is contacted again after a failed description retrieval */
+  public static final long    CP_DEVICE_RETRIEVAL_BACK_OFF_TIME         = 5000;
+
+  /** Maximum number of concurrent description retrievals from one host */
+  public static final int     CP_DEVICE_RETRIEVAL_HOST_THREAD_COUNT     = 2;
+
+  /** Maximum time in ms before a host is contacted again after failed description retrievals */
+  public static final long    CP_DEVICE_RETRIEVAL_MAX_BACK_OFF_TIME     = 300000;
+
   /** Maximum number of parallel device retrieval threads */
   public static final int     CP_DEVICE_RETRIEVAL_THREAD_COUNT          = 5;
 
+  /** Flag to disable the cache for browse responses of media servers */
+  public static boolean       CP_DISABLE_BROWSE_CACHE                   = false;
+
   /** Flag to disable the device cache */
   public static boolean       CP_DISABLE_DEVICE_CACHE                   = false;
 
@@ -61,6 +82,21 @@ public class UPnPDefaults
   /** Timeout for invalid devices until a new discovery is possible (5 min) */
   public static final long    CP_INVALID_DEVICE_DISCOVERY_TIMEOUT       = 300;
 
+  /** Number of objects requested by the first browse request for a container */
+  public static final int     CP_MEDIA_SERVER_BROWSE_INITIAL_PAGE_SIZE  = 16;
+
+  /** Maximum number of objects requested by one browse request */
+  public static final int     CP_MEDIA_SERVER_BROWSE_MAX_PAGE_SIZE      = 1024;
+
+  /** Minimum number of objects requested by one browse request */
+  public static final int     CP_MEDIA_SERVER_BROWSE_MIN_PAGE_SIZE      = 5;
+
+  /** Response time in ms that should not be exceeded by one browse request */
+  public static final long    CP_MEDIA_SERVER_BROWSE_TARGET_TIME        = 500;
+
+  /** Number of threads that concurrently enumerate containers of one media server */
+  public static final int     CP_MEDIA_SERVER_ENUMERATION_THREAD_COUNT  = 3;
+
   /** Time to sleep between two sent M_SEARCH messages */
   public static final int     CP_M_SEARCH_MESSAGE_DELAY                 = 5;     // 15
 
@@ -73,17 +109,47 @@ public class UPnPDefaults
   /** Time to wait for a valid subscription ID before the initial event message is discarded */
   public static final int     CP_SUBSCRIBER_TEST_SLEEP_TIME             = 500;
 
+  /** Time in ms in which due subscription renewals for the same host are sent together */
+  public static final long    CP_SUBSCRIPTION_RENEWAL_BATCH_WINDOW      = 60000;
+
+  /** Maximum fraction of the renewal interval that is randomly subtracted from renewal times */
+  public static final double  CP_SUBSCRIPTION_RENEWAL_JITTER            = 0.1;
+
+  /** Number of threads that send subscription messages */
+  public static final int     CP_SUBSCRIPTION_RENEWAL_THREAD_COUNT      = 3;
+
   /** Requested subscription timeout by control points in seconds */
   public static final int     CP_SUBSCRIPTION_TIMEOUT                   = 2400;  // was 2400
 
   /** Add content hash for each service to device description */
   public static final boolean DEVICE_ADD_SERVICE_DESCRIPTION_HASH       = true;
 
+  /** Maximum number of cached action responses per service */
+  public static final int     DEVICE_CONTROL_CACHE_MAX_ENTRIES          = 256;
+
+  /** Maximum size in bytes of all cached action responses per service */
+  public static final long    DEVICE_CONTROL_CACHE_MAX_SIZE             = 1048576;
+
+  /** Time in ms after which cached action responses are discarded */
+  public static final long    DEVICE_CONTROL_CACHE_TIME_TO_LIVE         = 600000;
+
+  /** Number of event message bodies that are kept for reuse by other subscribers */
+  public static final int     DEVICE_EVENT_NOTIFY_BODY_CACHE_SIZE       = 32;
+
+  /** Maximum time in ms that event messages for a slow or unreachable subscriber are delayed */
+  public static final long    DEVICE_EVENT_NOTIFY_MAX_DEFER_TIME        = 5000;
+
   /**
    * Number of retries for consecutive event notify messages
    */
   public static final int     DEVICE_EVENT_NOTIFY_RETRIES               = 1;
 
+  /** Duration in ms of an event delivery after which the subscriber is considered slow */
+  public static final long    DEVICE_EVENT_NOTIFY_SLOW_SUBSCRIBER_TIME  = 1000;
+
+  /** Number of threads that send event messages for all devices */
+  public static final int     DEVICE_EVENT_NOTIFY_THREAD_COUNT          = 8;
+
   /** Time to wait before the first NOTIFY:alive is sent after device startup */
   public static long          DEVICE_INITIAL_NOTIFY_DELAY               = 500;
 
@@ -114,6 +180,9 @@ public class UPnPDefaults
   /** Flag to use relative URLs in device descriptions. */
   public static boolean       DEVICE_USE_RELATIVE_URLS                  = true;
 
+  /** Flag to receive SSDP messages with a selector instead of polling the sockets */
+  public static boolean       SSDP_USE_SELECTOR_RECEIVER                = true;
+
   /** Number of times to transmit SSDP messages (2) */
   public static final int     UDP_SEND_COUNT                            = 2;     // 3
 
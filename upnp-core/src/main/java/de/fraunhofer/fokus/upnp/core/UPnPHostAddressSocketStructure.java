@@ -37,6 +37,7 @@ import org.apache.log4j.Logger;
 
 import de.fraunhofer.fokus.upnp.ssdp.SSDPConstant;
 import de.fraunhofer.fokus.upnp.util.network.AbstractHostAddressSocketStructure;
+import de.fraunhofer.fokus.upnp.util.network.SocketHelper;
 
 /**
  * This class is used to bundle all sockets that are needed for one external interface for both UPnP devices and control
@@ -56,10 +57,10 @@ public class UPnPHostAddressSocketStructure extends AbstractHostAddressSocketStr
   protected NetworkInterface  networkInterface;
 
   /** Socket used for multicast SSDP messages */
-  protected MulticastSocket   ssdpMulticastSocket;
+  protected DatagramSocket    ssdpMulticastSocket;
 
   /** Socket used for unicast SSDP messages */
-  protected MulticastSocket   ssdpUnicastSocket;
+  protected DatagramSocket    ssdpUnicastSocket;
 
   /** Flag that fixed ports should be used */
   protected boolean           fixedPorts;
@@ -89,6 +90,33 @@ public class UPnPHostAddressSocketStructure extends AbstractHostAddressSocketStr
     InetSocketAddress ssdpMulticastSocketAddress,
     int ssdpUnicastPort,
     int IPVersion)
+  {
+    this(networkInterface, address, ssdpMulticastSocketAddress, ssdpUnicastPort, IPVersion, false);
+  }
+
+  /**
+   * Creates a new instance of UPnPHostAddressSocketStructure with fixed ports.
+   * 
+   * @param networkInterface
+   *          The associated network interface
+   * @param address
+   *          The address this structure should be bound to
+   * @param ssdpMulticastSocketAddress
+   *          The address used for SSDP messages
+   * @param ssdpUnicastPort
+   *          The port used for SSDP unicast
+   * @param IPVersion
+   *          The IP version
+   * @param selectableSockets
+   *          True to create the SSDP sockets from non-blocking channels that can be served by a
+   *          DatagramChannelReceiver. Falls back to plain sockets if the channels cannot be created.
+   */
+  public UPnPHostAddressSocketStructure(NetworkInterface networkInterface,
+    InetAddress address,
+    InetSocketAddress ssdpMulticastSocketAddress,
+    int ssdpUnicastPort,
+    int IPVersion,
+    boolean selectableSockets)
   {
     super(address);
     this.networkInterface = networkInterface;
@@ -97,26 +125,58 @@ public class UPnPHostAddressSocketStructure extends AbstractHostAddressSocketStr
     this.ssdpMulticastSocketAddress = ssdpMulticastSocketAddress;
     try
     {
-      // create SSDP multicast socket
-      ssdpMulticastSocket = new MulticastSocket(ssdpMulticastSocketAddress.getPort());
-      ssdpMulticastSocket.setInterface(address);
+      InetAddress groupAddress = null;
       if (IPVersion == SSDPConstant.IP6)
       { // IP version 6
-        ssdpMulticastSocket.joinGroup(InetAddress.getByName(SSDPConstant.SSDPMulticastAddressV6));
+        groupAddress = InetAddress.getByName(SSDPConstant.SSDPMulticastAddressV6);
       }
       if (IPVersion == SSDPConstant.IP4)
       { // IP version 4
-        ssdpMulticastSocket.joinGroup(ssdpMulticastSocketAddress.getAddress());
+        groupAddress = ssdpMulticastSocketAddress.getAddress();
+      }
+      if (selectableSockets)
+      {
+        try
+        {
+          ssdpMulticastSocket =
+            SocketHelper.createSelectableMulticastSocket(networkInterface,
+              address,
+              new InetSocketAddress(ssdpMulticastSocketAddress.getPort()),
+              groupAddress,
+              SSDPConstant.TTL);
+          ssdpUnicastSocket =
+            SocketHelper.createSelectableMulticastSocket(networkInterface,
+              address,
+              new InetSocketAddress(address, ssdpUnicastPort),
+              null,
+              SSDPConstant.TTL);
+        } catch (Exception e)
+        {
+          logger.warn("cannot create selectable SSDP sockets for " + address.getHostAddress() + ": " + e.getMessage());
+          closeSockets();
+        }
+      }
+      if (ssdpMulticastSocket == null)
+      {
+        // create SSDP multicast socket
+        MulticastSocket multicastSocket = new MulticastSocket(ssdpMulticastSocketAddress.getPort());
+        ssdpMulticastSocket = multicastSocket;
+        multicastSocket.setInterface(address);
+        if (groupAddress != null)
+        {
+          multicastSocket.joinGroup(groupAddress);
+        }
+        // set timeout to simplify message processing for multiple sockets
+        multicastSocket.setSoTimeout(10);
+        multicastSocket.setTimeToLive(SSDPConstant.TTL);
+
+        // must be a multicast socket to allow forwarding of multicast messages to other network segments
+        MulticastSocket unicastSocket = new MulticastSocket(new InetSocketAddress(address, ssdpUnicastPort));
+        ssdpUnicastSocket = unicastSocket;
+        unicastSocket.setSoTimeout(10);
+        unicastSocket.setTimeToLive(SSDPConstant.TTL);
       }
-      // set timeout to simplify message processing for multiple sockets
-      ssdpMulticastSocket.setSoTimeout(10);
-      ssdpMulticastSocket.setTimeToLive(SSDPConstant.TTL);
-
-      // must be a multicast socket to allow forwarding of multicast messages to other network segments
-      ssdpUnicastSocket = new MulticastSocket(new InetSocketAddress(address, ssdpUnicastPort));
-      ssdpUnicastSocket.setSoTimeout(10);
-      ssdpUnicastSocket.setTimeToLive(SSDPConstant.TTL);
-      ssdpUnicastPort = ssdpUnicastSocket.getLocalPort();
+      this.ssdpUnicastPort = ssdpUnicastSocket.getLocalPort();
     } catch (Exception e)
     {
       System.out.println("Cannot start UPnPHostAddressSocketStructure for address " + address.getHostAddress() + ": " +
@@ -147,6 +207,39 @@ public class UPnPHostAddressSocketStructure extends AbstractHostAddressSocketStr
     this(networkInterface, address, ssdpMulticastSocketAddress, 0, IPVersion);
   }
 
+  /**
+   * Creates a new instance of UPnPHostAddressSocketStructure with random ports.
+   * 
+   * @param networkInterface
+   *          The associated network interface
+   * @param address
+   *          The address this structure should be bound to
+   * @param ssdpMulticastAddress
+   *          The address used for SSDP messages
+   * @param IPVersion
+   *          The IP version
+   * @param selectableSockets
+   *          True to create the SSDP sockets from non-blocking channels
+   */
+  public UPnPHostAddressSocketStructure(NetworkInterface networkInterface,
+    InetAddress address,
+    InetSocketAddress ssdpMulticastSocketAddress,
+    int IPVersion,
+    boolean selectableSockets)
+  {
+    this(networkInterface, address, ssdpMulticastSocketAddress, 0, IPVersion, selectableSockets);
+  }
+
+  /**
+   * Checks if the SSDP sockets are served by a selector.
+   * 
+   * @return True if the SSDP sockets were created from non-blocking channels
+   */
+  public boolean hasSelectableSockets()
+  {
+    return ssdpMulticastSocket != null && ssdpMulticastSocket.getChannel() != null;
+  }
+
   /** Retrieves the socket that receives M-SEARCH and NOTIFY messages. */
   public DatagramSocket getSSDPMulticastSocket()
   {
@@ -188,6 +281,12 @@ public class UPnPHostAddressSocketStructure extends AbstractHostAddressSocketStr
    * @see de.fhg.fokus.magic.upnp.InterfaceSocketStructure#terminate()
    */
   public void terminate()
+  {
+    closeSockets();
+  }
+
+  /** Closes the SSDP sockets. */
+  private void closeSockets()
   {
     try
     {
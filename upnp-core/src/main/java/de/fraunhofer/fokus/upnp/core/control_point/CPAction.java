@@ -28,6 +28,7 @@
 package de.fraunhofer.fokus.upnp.core.control_point;
 
 import de.fraunhofer.fokus.upnp.core.AbstractAction;
+import de.fraunhofer.fokus.upnp.core.Argument;
 
 /**
  * This class represent a remote view on a UPnP action.
@@ -53,6 +54,26 @@ public class CPAction extends AbstractAction
     this.cpService = cpService;
   }
 
+  /**
+   * Clones this action. The cloned action shares the service and the related state variables but
+   * has its own argument values, so it can be invoked concurrently to the original action.
+   */
+  public Object clone()
+  {
+    CPAction result = new CPAction(getName(), cpService);
+    Argument[] argumentTable = getArgumentTable();
+    if (argumentTable != null)
+    {
+      Argument[] clonedArgumentList = new Argument[argumentTable.length];
+      for (int i = 0; i < clonedArgumentList.length; i++)
+      {
+        clonedArgumentList[i] = (Argument)argumentTable[i].clone();
+      }
+      result.setArgumentTable(clonedArgumentList);
+    }
+    return result;
+  }
+
   /**
    * Retrieves the cpService.
    * 
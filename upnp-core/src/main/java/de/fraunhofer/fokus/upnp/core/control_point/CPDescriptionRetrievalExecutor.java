@@ -0,0 +1,659 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.control_point;
+
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import de.fraunhofer.fokus.upnp.configuration.UPnPDefaults;
+
+/**
+ * This class executes device description retrievals with a fixed number of worker threads.
+ * Pending retrievals are ordered by priority and arrival. The number of concurrent retrievals
+ * from one host is limited, retrievals for a device description URL that is already pending are
+ * discarded and hosts that failed to deliver a description are not contacted again until a back
+ * off time has passed. The back off time doubles with each consecutive failure.
+ * 
+ * Idle workers also help running retrievals to request service descriptions in parallel.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class CPDescriptionRetrievalExecutor
+{
+
+  /** Pending retrievals, ordered by priority */
+  private Vector           pendingEntries              = new Vector();
+
+  /** Pending and running retrievals, indexed by their URL */
+  private Hashtable        entryFromURLTable           = new Hashtable();
+
+  /** State of all hosts with running or failed retrievals */
+  private Hashtable        hostEntryTable              = new Hashtable();
+
+  /** Tasks of running retrievals that can be executed by idle workers */
+  private Vector           pendingTasks                = new Vector();
+
+  /** Worker threads */
+  private WorkerThread[]   workerThreads;
+
+  /** Maximum number of concurrent retrievals from one host */
+  private int              maxRetrievalsPerHost;
+
+  /** Initial back off time after a failed retrieval */
+  private long             backOffTime                 = UPnPDefaults.CP_DEVICE_RETRIEVAL_BACK_OFF_TIME;
+
+  /** Maximum back off time */
+  private long             maxBackOffTime              = UPnPDefaults.CP_DEVICE_RETRIEVAL_MAX_BACK_OFF_TIME;
+
+  /** Sync object */
+  private Object           lock                        = new Object();
+
+  private boolean          terminateThread             = false;
+
+  private int              runningRetrievalCount       = 0;
+
+  private int              maxPendingRetrievalCount    = 0;
+
+  private long             submittedRetrievalCount     = 0;
+
+  private long             discardedRetrievalCount     = 0;
+
+  private long             completedRetrievalCount     = 0;
+
+  private long             failedRetrievalCount        = 0;
+
+  private long             parallelTaskCount           = 0;
+
+  /** Accumulated time between submission and start of all started retrievals */
+  private long             totalWaitTime               = 0;
+
+  /** Accumulated duration of all completed retrievals */
+  private long             totalRetrievalTime          = 0;
+
+  /** Maximum duration of one retrieval */
+  private long             maxRetrievalTime            = 0;
+
+  /**
+   * Creates a new instance of CPDescriptionRetrievalExecutor and starts the worker threads.
+   * 
+   * @param name
+   *          Name for the worker threads
+   * @param workerCount
+   *          Number of worker threads
+   * @param maxRetrievalsPerHost
+   *          Maximum number of concurrent retrievals from one host
+   */
+  public CPDescriptionRetrievalExecutor(String name, int workerCount, int maxRetrievalsPerHost)
+  {
+    this.maxRetrievalsPerHost = Math.max(1, maxRetrievalsPerHost);
+    workerThreads = new WorkerThread[Math.max(1, workerCount)];
+    for (int i = 0; i < workerThreads.length; i++)
+    {
+      workerThreads[i] = new WorkerThread(name + ".DescriptionRetrieval" + i);
+      workerThreads[i].start();
+    }
+  }
+
+  /**
+   * Adds a retrieval to the pending retrievals.
+   * 
+   * @param retrieval
+   *          The retrieval
+   * 
+   * @return True if the retrieval was added, false if a retrieval for the same URL is already
+   *         pending or running
+   */
+  public boolean submit(CPDeviceDescriptionRetrieval retrieval)
+  {
+    URL descriptionURL = retrieval.getDeviceDescriptionURL();
+    // use URL strings because URL.equals() resolves host names
+    String url = descriptionURL != null ? descriptionURL.toExternalForm() : retrieval.toString();
+    synchronized(lock)
+    {
+      if (terminateThread || entryFromURLTable.containsKey(url))
+      {
+        discardedRetrievalCount++;
+        return false;
+      }
+      RetrievalEntry entry = new RetrievalEntry(retrieval, url, getHost(descriptionURL));
+      entryFromURLTable.put(url, entry);
+
+      // insert behind all entries with the same or a higher priority
+      int index = pendingEntries.size();
+      while (index > 0 &&
+        ((RetrievalEntry)pendingEntries.elementAt(index - 1)).retrieval.getPriority() < retrieval.getPriority())
+      {
+        index--;
+      }
+      pendingEntries.insertElementAt(entry, index);
+      submittedRetrievalCount++;
+      maxPendingRetrievalCount = Math.max(maxPendingRetrievalCount, pendingEntries.size());
+
+      lock.notifyAll();
+    }
+    return true;
+  }
+
+  /**
+   * Removes a pending retrieval. Running retrievals are not affected.
+   * 
+   * @param retrieval
+   *          The retrieval
+   */
+  public void remove(CPDeviceDescriptionRetrieval retrieval)
+  {
+    synchronized(lock)
+    {
+      for (int i = 0; i < pendingEntries.size(); i++)
+      {
+        RetrievalEntry entry = (RetrievalEntry)pendingEntries.elementAt(i);
+        if (entry.retrieval == retrieval)
+        {
+          pendingEntries.remove(i);
+          entryFromURLTable.remove(entry.url);
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks if a retrieval for a device description URL is pending or running.
+   * 
+   * @param descriptionURL
+   *          The device description URL
+   * 
+   * @return True if the URL is currently processed
+   */
+  public boolean isPendingRetrieval(URL descriptionURL)
+  {
+    return entryFromURLTable.containsKey(descriptionURL.toExternalForm());
+  }
+
+  /**
+   * Runs a number of tasks in parallel. The calling thread runs all tasks that are not taken by
+   * idle worker threads and returns when all tasks are finished.
+   * 
+   * @param tasks
+   *          The tasks
+   */
+  public void runParallel(Runnable[] tasks)
+  {
+    TaskEntry[] taskEntries = new TaskEntry[tasks.length];
+    synchronized(lock)
+    {
+      for (int i = 0; i < tasks.length; i++)
+      {
+        taskEntries[i] = new TaskEntry(tasks[i]);
+        // the first task is always run by the calling thread
+        if (i > 0 && !terminateThread)
+        {
+          pendingTasks.add(taskEntries[i]);
+        }
+      }
+      lock.notifyAll();
+    }
+    for (int i = 0; i < taskEntries.length; i++)
+    {
+      boolean ownTask = false;
+      synchronized(lock)
+      {
+        if (!taskEntries[i].started)
+        {
+          pendingTasks.remove(taskEntries[i]);
+          taskEntries[i].started = true;
+          ownTask = true;
+        }
+      }
+      if (ownTask)
+      {
+        executeTask(taskEntries[i]);
+      }
+    }
+    // wait for tasks executed by other workers
+    synchronized(lock)
+    {
+      for (int i = 0; i < taskEntries.length; i++)
+      {
+        while (!taskEntries[i].finished)
+        {
+          try
+          {
+            lock.wait();
+          } catch (InterruptedException e)
+          {
+          }
+        }
+      }
+    }
+  }
+
+  /** Retrieves the number of pending retrievals. */
+  public int getPendingRetrievalCount()
+  {
+    return pendingEntries.size();
+  }
+
+  /** Retrieves the maximum number of pending retrievals. */
+  public int getMaxPendingRetrievalCount()
+  {
+    return maxPendingRetrievalCount;
+  }
+
+  /** Retrieves the number of running retrievals. */
+  public int getRunningRetrievalCount()
+  {
+    return runningRetrievalCount;
+  }
+
+  /** Retrieves the number of accepted retrievals. */
+  public long getSubmittedRetrievalCount()
+  {
+    return submittedRetrievalCount;
+  }
+
+  /** Retrieves the number of retrievals that were discarded because the URL was already pending. */
+  public long getDiscardedRetrievalCount()
+  {
+    return discardedRetrievalCount;
+  }
+
+  /** Retrieves the number of completed retrievals, including failed retrievals. */
+  public long getCompletedRetrievalCount()
+  {
+    return completedRetrievalCount;
+  }
+
+  /** Retrieves the number of failed retrievals. */
+  public long getFailedRetrievalCount()
+  {
+    return failedRetrievalCount;
+  }
+
+  /** Retrieves the number of hosts that are currently not contacted because of failures. */
+  public int getBackOffHostCount()
+  {
+    int result = 0;
+    long time = System.currentTimeMillis();
+    synchronized(lock)
+    {
+      Enumeration hostEntries = hostEntryTable.elements();
+      while (hostEntries.hasMoreElements())
+      {
+        if (((HostEntry)hostEntries.nextElement()).backOffEndTime > time)
+        {
+          result++;
+        }
+      }
+    }
+    return result;
+  }
+
+  /** Retrieves the average time in ms between submission and start of a retrieval. */
+  public long getAverageWaitTime()
+  {
+    long startedCount = completedRetrievalCount + runningRetrievalCount;
+    return startedCount == 0 ? 0 : totalWaitTime / startedCount;
+  }
+
+  /** Retrieves the average duration of a retrieval in ms. */
+  public long getAverageRetrievalTime()
+  {
+    return completedRetrievalCount == 0 ? 0 : totalRetrievalTime / completedRetrievalCount;
+  }
+
+  /** Retrieves the maximum duration of a retrieval in ms. */
+  public long getMaxRetrievalTime()
+  {
+    return maxRetrievalTime;
+  }
+
+  /** Retrieves a short description of the retrieval counters. */
+  public String getStatistics()
+  {
+    return "Pending: " + getPendingRetrievalCount() + " (max. " + maxPendingRetrievalCount + "), running: " +
+      runningRetrievalCount + ", completed: " + completedRetrievalCount + ", failed: " + failedRetrievalCount +
+      ", discarded: " + discardedRetrievalCount + ", hosts in back off: " + getBackOffHostCount() +
+      ", parallel tasks: " + parallelTaskCount + ", avg. wait: " + getAverageWaitTime() + " ms, avg. retrieval: " +
+      getAverageRetrievalTime() + " ms, max. retrieval: " + maxRetrievalTime + " ms";
+  }
+
+  /**
+   * Retrieves the initial back off time.
+   * 
+   * @return The back off time in ms
+   */
+  public long getBackOffTime()
+  {
+    return backOffTime;
+  }
+
+  /**
+   * Sets the initial back off time and the maximum back off time.
+   * 
+   * @param backOffTime
+   *          The initial back off time in ms
+   * @param maxBackOffTime
+   *          The maximum back off time in ms
+   */
+  public void setBackOffTime(long backOffTime, long maxBackOffTime)
+  {
+    this.backOffTime = Math.max(0, backOffTime);
+    this.maxBackOffTime = Math.max(this.backOffTime, maxBackOffTime);
+  }
+
+  /** Terminates all pending retrievals and stops the worker threads. */
+  public void terminate()
+  {
+    Vector terminatedEntries;
+    synchronized(lock)
+    {
+      terminateThread = true;
+      terminatedEntries = new Vector(entryFromURLTable.values());
+      pendingEntries.clear();
+      entryFromURLTable.clear();
+      lock.notifyAll();
+    }
+    for (int i = 0; i < terminatedEntries.size(); i++)
+    {
+      ((RetrievalEntry)terminatedEntries.elementAt(i)).retrieval.terminate();
+    }
+  }
+
+  /** Retrieves the host key for an URL. */
+  private String getHost(URL url)
+  {
+    if (url == null)
+    {
+      return "";
+    }
+    return url.getHost() + ":" + url.getPort();
+  }
+
+  /** Retrieves the host entry for a host, creates a new entry if needed. */
+  private HostEntry getHostEntry(String host)
+  {
+    HostEntry result = (HostEntry)hostEntryTable.get(host);
+    if (result == null)
+    {
+      result = new HostEntry();
+      hostEntryTable.put(host, result);
+    }
+    return result;
+  }
+
+  /**
+   * Removes the first retrieval that can be started from the pending retrievals. Must be called
+   * with the lock held.
+   * 
+   * @param time
+   *          The current time
+   * 
+   * @return The entry or null
+   */
+  private RetrievalEntry removeStartableEntry(long time)
+  {
+    for (int i = 0; i < pendingEntries.size(); i++)
+    {
+      RetrievalEntry entry = (RetrievalEntry)pendingEntries.elementAt(i);
+      HostEntry hostEntry = (HostEntry)hostEntryTable.get(entry.host);
+      // cached descriptions do not contact the host
+      if (hostEntry == null || entry.retrieval.isCachedRetrieval() ||
+        hostEntry.runningRetrievalCount < maxRetrievalsPerHost && hostEntry.backOffEndTime <= time)
+      {
+        pendingEntries.remove(i);
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Calculates the time until the next pending retrieval leaves its back off state. Must be called
+   * with the lock held.
+   * 
+   * @return The wait time in ms or 0 to wait for other events
+   */
+  private long getBackOffWaitTime(long time)
+  {
+    long result = Long.MAX_VALUE;
+    for (int i = 0; i < pendingEntries.size(); i++)
+    {
+      RetrievalEntry entry = (RetrievalEntry)pendingEntries.elementAt(i);
+      HostEntry hostEntry = (HostEntry)hostEntryTable.get(entry.host);
+      if (hostEntry != null && hostEntry.backOffEndTime > time)
+      {
+        result = Math.min(result, hostEntry.backOffEndTime - time);
+      }
+    }
+    return result == Long.MAX_VALUE ? 0 : result;
+  }
+
+  /** Executes one retrieval and updates the host state. */
+  private void executeRetrieval(RetrievalEntry entry)
+  {
+    long startTime = System.currentTimeMillis();
+    try
+    {
+      entry.retrieval.run();
+    } catch (Exception e)
+    {
+      System.out.println("Error in " + entry.retrieval.toString() + ": " + e.getMessage());
+    }
+    long endTime = System.currentTimeMillis();
+
+    synchronized(lock)
+    {
+      runningRetrievalCount--;
+      completedRetrievalCount++;
+      totalRetrievalTime += endTime - startTime;
+      maxRetrievalTime = Math.max(maxRetrievalTime, endTime - startTime);
+      entryFromURLTable.remove(entry.url);
+
+      HostEntry hostEntry = getHostEntry(entry.host);
+      if (!entry.retrieval.isCachedRetrieval())
+      {
+        hostEntry.runningRetrievalCount--;
+      }
+      if (entry.retrieval.hasFailed())
+      {
+        failedRetrievalCount++;
+        hostEntry.failureCount++;
+        // double back off time for each consecutive failure
+        long currentBackOffTime = backOffTime << Math.min(hostEntry.failureCount - 1, 16);
+        hostEntry.backOffEndTime = endTime + Math.min(currentBackOffTime, maxBackOffTime);
+      } else if (!entry.retrieval.isCachedRetrieval() && !entry.retrieval.isTerminated())
+      {
+        hostEntry.failureCount = 0;
+        hostEntry.backOffEndTime = 0;
+      }
+      // forget hosts that are neither busy nor in back off
+      if (hostEntry.runningRetrievalCount == 0 && hostEntry.failureCount == 0)
+      {
+        hostEntryTable.remove(entry.host);
+      }
+      lock.notifyAll();
+    }
+  }
+
+  /** Executes one parallel task. */
+  private void executeTask(TaskEntry taskEntry)
+  {
+    try
+    {
+      taskEntry.task.run();
+    } catch (Exception e)
+    {
+      System.out.println("Error in parallel description task: " + e.getMessage());
+    }
+    synchronized(lock)
+    {
+      taskEntry.finished = true;
+      parallelTaskCount++;
+      lock.notifyAll();
+    }
+  }
+
+  /** This class holds a pending or running retrieval. */
+  private static class RetrievalEntry
+  {
+
+    public CPDeviceDescriptionRetrieval retrieval;
+
+    public String                       url;
+
+    public String                       host;
+
+    public long                         submitTime;
+
+    /**
+     * Creates a new instance of RetrievalEntry.
+     * 
+     * @param retrieval
+     * @param url
+     * @param host
+     */
+    public RetrievalEntry(CPDeviceDescriptionRetrieval retrieval, String url, String host)
+    {
+      this.retrieval = retrieval;
+      this.url = url;
+      this.host = host;
+      this.submitTime = System.currentTimeMillis();
+    }
+  }
+
+  /** This class holds the retrieval state for one host. */
+  private static class HostEntry
+  {
+
+    public int  runningRetrievalCount = 0;
+
+    public int  failureCount          = 0;
+
+    public long backOffEndTime        = 0;
+
+  }
+
+  /** This class holds one task for parallel execution. */
+  private static class TaskEntry
+  {
+
+    public Runnable task;
+
+    public boolean  started  = false;
+
+    public boolean  finished = false;
+
+    /**
+     * Creates a new instance of TaskEntry.
+     * 
+     * @param task
+     */
+    public TaskEntry(Runnable task)
+    {
+      this.task = task;
+    }
+  }
+
+  /** This thread executes pending retrievals and parallel tasks. */
+  private class WorkerThread extends Thread
+  {
+
+    /**
+     * Creates a new instance of WorkerThread.
+     * 
+     * @param name
+     *          Name of the thread
+     */
+    public WorkerThread(String name)
+    {
+      super(name);
+      setDaemon(true);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Thread#run()
+     */
+    public void run()
+    {
+      while (!terminateThread)
+      {
+        RetrievalEntry entry = null;
+        TaskEntry taskEntry = null;
+        synchronized(lock)
+        {
+          while (!terminateThread && entry == null && taskEntry == null)
+          {
+            long time = System.currentTimeMillis();
+            // help running retrievals first
+            if (pendingTasks.size() > 0)
+            {
+              taskEntry = (TaskEntry)pendingTasks.remove(0);
+              taskEntry.started = true;
+            } else
+            {
+              entry = removeStartableEntry(time);
+              if (entry == null)
+              {
+                try
+                {
+                  lock.wait(getBackOffWaitTime(time));
+                } catch (InterruptedException e)
+                {
+                }
+              }
+            }
+          }
+          if (entry != null)
+          {
+            runningRetrievalCount++;
+            totalWaitTime += System.currentTimeMillis() - entry.submitTime;
+            if (!entry.retrieval.isCachedRetrieval())
+            {
+              getHostEntry(entry.host).runningRetrievalCount++;
+            }
+          }
+        }
+        if (taskEntry != null)
+        {
+          executeTask(taskEntry);
+        }
+        if (entry != null)
+        {
+          executeRetrieval(entry);
+        }
+      }
+    }
+  }
+
+}
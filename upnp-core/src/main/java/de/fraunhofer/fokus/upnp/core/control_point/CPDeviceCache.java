@@ -766,7 +766,9 @@ public class CPDeviceCache implements IEventListener
               TemplateControlPoint.printMessage(controlPoint.toString() + ": Add cached DEVICE INFO for URL " +
                 deviceDescriptionURL + " with UUID " + uuid);
               // load device description from file
-              new CPDeviceDescriptionRetrieval(controlPoint, path, deviceDiscoveryInfo, ssdpInfoParser.etag);
+              CPDeviceDescriptionRetrieval descriptionRetrieval =
+                new CPDeviceDescriptionRetrieval(controlPoint, path, deviceDiscoveryInfo, ssdpInfoParser.etag);
+              controlPoint.addDescriptionRetrieval(descriptionRetrieval);
             }
           }
         }
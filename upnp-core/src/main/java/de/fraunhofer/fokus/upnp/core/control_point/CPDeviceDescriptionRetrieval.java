@@ -62,15 +62,23 @@ import de.fraunhofer.fokus.upnp.util.network.HTTPMessageObject;
 import de.fraunhofer.fokus.upnp.util.network.IPHelper;
 
 /**
- * This class is responsible for retrieving device and service descriptions.
+ * This class is responsible for retrieving device and service descriptions. Retrievals are
+ * executed by the CPDescriptionRetrievalExecutor of the control point.
  * 
  * @author icu, Alexander Koenig
  * 
  */
-public class CPDeviceDescriptionRetrieval extends Thread implements IHTTPMessageFlow
+public class CPDeviceDescriptionRetrieval implements Runnable, IHTTPMessageFlow
 {
 
-  public static int                              ACTIVE_THREADS  = 0;
+  /** Priority for descriptions read from the device cache */
+  public static final int                        PRIORITY_CACHED     = 2;
+
+  /** Priority for devices discovered via SSDP */
+  public static final int                        PRIORITY_DISCOVERED = 1;
+
+  /** Priority for remote devices added by URL */
+  public static final int                        PRIORITY_REMOTE     = 0;
 
   /** UPnP logger */
   protected static Logger                        logger          = Logger.getLogger("upnp.desc");
@@ -101,8 +109,17 @@ public class CPDeviceDescriptionRetrieval extends Thread implements IHTTPMessage
 
   private CPDeviceDiscoveryInfo                  cpDeviceDiscoveryInfo;
 
+  /** Service descriptions that were retrieved in advance, indexed by their URL */
+  private Hashtable                              prefetchedDescriptionTable = new Hashtable();
+
   private boolean                                terminateThread = false;
 
+  /** Priority of this retrieval */
+  private int                                    priority;
+
+  /** Flag that the description could not be retrieved from the device */
+  private boolean                                failed          = false;
+
   /**
    * Creates a new instance of CPDeviceDescriptionRetrieval.
    * 
@@ -130,7 +147,6 @@ public class CPDeviceDescriptionRetrieval extends Thread implements IHTTPMessage
     String NLS,
     int IPVersion)
   {
-    this.setName("CPDeviceDescriptionRetrieval [" + deviceDescriptionURL.toString() + "]");
     this.controlPoint = controlPoint;
     this.discoverySocketStructure = socketStructure;
     this.deviceDescriptionURL = deviceDescriptionURL;
@@ -139,9 +155,7 @@ public class CPDeviceDescriptionRetrieval extends Thread implements IHTTPMessage
     this.maxage = maxage;
     this.NLS = NLS;
     this.IPVersion = IPVersion;
-
-    // add to description retrieval list
-    controlPoint.addDescriptionRetrievalThread(this);
+    this.priority = PRIORITY_DISCOVERED;
   }
 
   /**
@@ -159,7 +173,6 @@ public class CPDeviceDescriptionRetrieval extends Thread implements IHTTPMessage
     CPDeviceDiscoveryInfo cpDeviceDiscoveryInfo,
     String descriptionHashBase64)
   {
-    super("CPDeviceDescriptionRetrieval [" + deviceCacheDirectory + "]");
     this.controlPoint = controlPoint;
     this.deviceCacheDirectory = deviceCacheDirectory;
     this.deviceDescriptionURL = cpDeviceDiscoveryInfo.getLocation();
@@ -173,9 +186,7 @@ public class CPDeviceDescriptionRetrieval extends Thread implements IHTTPMessage
     // use preferred socket structure for cached devices
     // this should be changed to a more sophisticated solution
     this.discoverySocketStructure = controlPoint.getPreferredSocketStructure();
-
-    // add to description retrieval list
-    controlPoint.addDescriptionRetrievalThread(this);
+    this.priority = PRIORITY_CACHED;
   }
 
   /**
@@ -188,7 +199,6 @@ public class CPDeviceDescriptionRetrieval extends Thread implements IHTTPMessage
    */
   public CPDeviceDescriptionRetrieval(ControlPoint controlPoint, CPDeviceDiscoveryInfo cpDeviceDiscoveryInfo)
   {
-    super("CPDeviceDescriptionRetrieval [" + cpDeviceDiscoveryInfo.getLocation() + "]");
     this.controlPoint = controlPoint;
     this.cpDeviceDiscoveryInfo = cpDeviceDiscoveryInfo;
 
@@ -199,9 +209,7 @@ public class CPDeviceDescriptionRetrieval extends Thread implements IHTTPMessage
     this.IPVersion = 4;
     // use preferred socket structure for remote devices
     this.discoverySocketStructure = controlPoint.getPreferredSocketStructure();
-
-    // add to description retrieval list
-    controlPoint.addDescriptionRetrievalThread(this);
+    this.priority = PRIORITY_REMOTE;
   }
 
   /**
@@ -377,6 +385,8 @@ public class CPDeviceDescriptionRetrieval extends Thread implements IHTTPMessage
   {
     CPService[] services = new CPService[serviceHandlerList.size()];
 
+    prefetchServiceDescriptions(serviceHandlerList, urlBase);
+
     // go through all services found in the device description
     for (int i = 0; i < serviceHandlerList.size(); i++)
     {
@@ -624,12 +634,6 @@ public class CPDeviceDescriptionRetrieval extends Thread implements IHTTPMessage
     return actions;
   }
 
-  /** Removes this thread from the list of pending retrievals. */
-  private void removeFromDescriptionRetrievalList()
-  {
-    controlPoint.removeDescriptionRetrievalThread(this);
-  }
-
   /** Creates an absolute URL with the device description URL. */
   private String createAbsoluteURLFromDeviceDescriptionURL(String urlPath)
   {
@@ -773,8 +777,103 @@ public class CPDeviceDescriptionRetrieval extends Thread implements IHTTPMessage
     }
   }
 
-  /** Retrieves a service description for this device. */
-  private String getServiceDescription(URL serviceDescriptionURL)
+  /**
+   * Retrieves all service descriptions that are not cached in advance. The descriptions are
+   * requested with pipelined requests if pipelining is enabled for the HTTP client pool, or else
+   * in parallel by idle threads of the description retrieval executor.
+   */
+  private void prefetchServiceDescriptions(Vector serviceHandlerList, String urlBase)
+  {
+    Vector descriptionURLs = new Vector();
+    // compare URL strings because URL.equals() resolves host names
+    Vector descriptionURLStrings = new Vector();
+    for (int i = 0; i < serviceHandlerList.size(); i++)
+    {
+      DeviceDescriptionServiceHandler deviceDescriptionServiceHandler =
+        (DeviceDescriptionServiceHandler)serviceHandlerList.elementAt(i);
+
+      URL serviceDescriptionURL = trySetAbsoluteURL(deviceDescriptionServiceHandler.getSCPDURL(), urlBase);
+      if (serviceDescriptionURL != null && !isCachedServiceDescription(serviceDescriptionURL) &&
+        !descriptionURLStrings.contains(serviceDescriptionURL.toExternalForm()))
+      {
+        descriptionURLs.add(serviceDescriptionURL);
+        descriptionURLStrings.add(serviceDescriptionURL.toExternalForm());
+      }
+    }
+    if (descriptionURLs.size() < 2)
+    {
+      return;
+    }
+    URL[] targetURLs = new URL[descriptionURLs.size()];
+    descriptionURLs.copyInto(targetURLs);
+
+    prefetchDescriptions(targetURLs);
+  }
+
+  /** Retrieves a number of descriptions in advance and stores them until they are requested. */
+  protected void prefetchDescriptions(URL[] descriptionURLs)
+  {
+    String[] descriptions = getDescriptions(descriptionURLs);
+    for (int i = 0; i < descriptions.length; i++)
+    {
+      if (descriptions[i] != null)
+      {
+        prefetchedDescriptionTable.put(descriptionURLs[i].toExternalForm(), descriptions[i]);
+      }
+    }
+  }
+
+  /**
+   * Retrieves a number of descriptions via HTTP. The requests are pipelined if pipelining is
+   * enabled for the HTTP client pool, or else sent in parallel by idle threads of the description
+   * retrieval executor. May be overriden by descendant classes that must build each request
+   * individually.
+   * 
+   * @param descriptionURLs
+   *          The URLs of the descriptions
+   * 
+   * @return An array with the descriptions, with null for all descriptions that were not retrieved
+   */
+  protected String[] getDescriptions(URL[] descriptionURLs)
+  {
+    final String[] descriptions = new String[descriptionURLs.length];
+    if (HTTPMessageFlow.getHTTPClientPool().isPipelining())
+    {
+      Object[] results = HTTPMessageFlow.sendMessagesAndProcessResponses(new Hashtable(), descriptionURLs, this);
+      for (int i = 0; i < results.length; i++)
+      {
+        if (results[i] instanceof String)
+        {
+          descriptions[i] = (String)results[i];
+        }
+      }
+      return descriptions;
+    }
+    CPDescriptionRetrievalExecutor executor = controlPoint.getDescriptionRetrievalExecutor();
+    if (executor == null)
+    {
+      return descriptions;
+    }
+    Runnable[] tasks = new Runnable[descriptionURLs.length];
+    for (int i = 0; i < descriptionURLs.length; i++)
+    {
+      final URL targetURL = descriptionURLs[i];
+      final int index = i;
+      tasks[i] = new Runnable()
+      {
+        public void run()
+        {
+          descriptions[index] = getDescription(targetURL);
+        }
+      };
+    }
+    executor.runParallel(tasks);
+
+    return descriptions;
+  }
+
+  /** Checks if a valid service description is found in the device cache. */
+  private boolean isCachedServiceDescription(URL serviceDescriptionURL)
   {
     boolean canUseCache = deviceCacheDirectory != null;
     // if size must be checked, set verify to false
@@ -787,7 +886,18 @@ public class CPDeviceDescriptionRetrieval extends Thread implements IHTTPMessage
       verifiedServiceDescription =
         CPDeviceCache.getCachedDescriptionState(absoluteDescriptionFileName, serviceDescriptionURL, null) == CPDeviceCache.CACHED_DESCRIPTION_VALID;
     }
-    if (canUseCache && verifiedServiceDescription)
+    return canUseCache && verifiedServiceDescription;
+  }
+
+  /** Retrieves a service description for this device. */
+  private String getServiceDescription(URL serviceDescriptionURL)
+  {
+    String prefetchedDescription = (String)prefetchedDescriptionTable.remove(serviceDescriptionURL.toExternalForm());
+    if (prefetchedDescription != null)
+    {
+      return prefetchedDescription;
+    }
+    if (isCachedServiceDescription(serviceDescriptionURL))
     {
       return getCachedDescription(serviceDescriptionURL);
     } else
@@ -803,7 +913,7 @@ public class CPDeviceDescriptionRetrieval extends Thread implements IHTTPMessage
    */
   protected String getDescription(URL descriptionURL)
   {
-    Object result = HTTPMessageFlow.sendMessageAndProcessResponse(null, descriptionURL, this);
+    Object result = HTTPMessageFlow.sendMessageAndProcessResponse(new Hashtable(), descriptionURL, this);
     if (!(result instanceof String))
     {
       return null;
@@ -895,24 +1005,66 @@ public class CPDeviceDescriptionRetrieval extends Thread implements IHTTPMessage
   /*
    * (non-Javadoc)
    * 
-   * @see java.lang.Thread#toString()
+   * @see java.lang.Object#toString()
    */
   public String toString()
   {
     return "CPDeviceDescriptionRetrieval (" + deviceDescriptionURL + ")";
   }
 
+  /** Retrieves the URL of the device description. */
+  public URL getDeviceDescriptionURL()
+  {
+    return deviceDescriptionURL;
+  }
+
+  /** Checks if the description is read from the device cache. */
+  public boolean isCachedRetrieval()
+  {
+    return deviceCacheDirectory != null;
+  }
+
+  /**
+   * Retrieves the priority. Retrievals with a higher priority are executed first.
+   * 
+   * @return The priority
+   */
+  public int getPriority()
+  {
+    return priority;
+  }
+
+  /**
+   * Sets the priority.
+   * 
+   * @param priority
+   *          The new value for priority
+   */
+  public void setPriority(int priority)
+  {
+    this.priority = priority;
+  }
+
+  /** Checks if the retrieval has failed to retrieve the description from the device. */
+  public boolean hasFailed()
+  {
+    return failed;
+  }
+
+  /** Checks if the retrieval was terminated. */
+  public boolean isTerminated()
+  {
+    return terminateThread;
+  }
+
   /**
    * Retrieves device description and service description
    */
   public void run()
   {
     // exit immediately if terminated from the outside before the actual retrieval has started
-    // this is done to prevent unstarted threads which are not collected by the
-    // garbage collector
     if (terminateThread)
     {
-      removeFromDescriptionRetrievalList();
       return;
     }
     try
@@ -945,6 +1097,7 @@ public class CPDeviceDescriptionRetrieval extends Thread implements IHTTPMessage
         device.setDescriptionHashBase64(descriptionHashBase64);
         // store device in control point hashtable
         controlPoint.getCPDeviceFromDescriptionURLTable().put(deviceDescriptionURL, device);
+        controlPoint.getDeviceLifetimeHandler().deviceLifetimeChanged();
 
         // store friendly name in discovery info
         CPDeviceDiscoveryInfo discoveryInfo =
@@ -979,6 +1132,8 @@ public class CPDeviceDescriptionRetrieval extends Thread implements IHTTPMessage
       logger.warn("reason: " + e.getMessage());
 
       System.out.println("Could not request device description from " + deviceDescriptionURL);
+      // remember network failures to back off from the host
+      failed = deviceCacheDirectory == null;
 
       synchronized(controlPoint.getDeviceInfoLock())
       {
@@ -999,28 +1154,20 @@ public class CPDeviceDescriptionRetrieval extends Thread implements IHTTPMessage
           }
         }
       }
-      removeFromDescriptionRetrievalList();
       return;
     }
     logger.info("successfully retrieved description from " + deviceDescriptionURL);
-    removeFromDescriptionRetrievalList();
   }
 
   /** Terminates the description retrieval */
   public void terminate()
   {
-    // start and exit immediately if needed
-    if (!this.isAlive())
-    {
-      System.out.println("Exit pending device description thread immediately");
-      terminateThread = true;
-      start();
-    }
+    terminateThread = true;
     if (httpClient != null)
     {
       httpClient.terminate();
     }
-    removeFromDescriptionRetrievalList();
+    controlPoint.removeDescriptionRetrieval(this);
   }
 
 }
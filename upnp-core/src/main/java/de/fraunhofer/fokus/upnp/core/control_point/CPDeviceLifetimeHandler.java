@@ -34,19 +34,23 @@ import de.fraunhofer.fokus.upnp.http.HTTPClient;
 import de.fraunhofer.fokus.upnp.http.HTTPMessageBuilder;
 import de.fraunhofer.fokus.upnp.util.CollectionHelper;
 import de.fraunhofer.fokus.upnp.util.network.HTTPMessageObject;
-import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
+import de.fraunhofer.fokus.upnp.util.threads.IScheduledEventListener;
 
 /**
- * This class manages the lease time of UPnP devices.
+ * This class manages the lease time of UPnP devices. The handler is only called when the next
+ * device must be checked or removed, or when a device lifetime was set to an earlier time.
  * 
  * @author icu, Alexander Koenig
  */
-public class CPDeviceLifetimeHandler implements IEventListener
+public class CPDeviceLifetimeHandler implements IScheduledEventListener
 {
 
-  private ControlPoint controlPoint;
+  /** Minimum time between two checks */
+  private static final long CHECK_INTERVAL = 5000;
 
-  private long         lastCheck;
+  private ControlPoint      controlPoint;
+
+  private long              lastCheck;
 
   /**
    * Creates the class that monitors device lifetimes.
@@ -60,40 +64,74 @@ public class CPDeviceLifetimeHandler implements IEventListener
   }
 
   /**
-   * Regularly check lifetime for all known devices.
+   * Checks the lifetime for all known devices.
    */
   public void triggerEvents()
   {
-    if (System.currentTimeMillis() - lastCheck > 5000)
+    lastCheck = System.currentTimeMillis();
+    // find deprecated devices
+    // use copy because deprecated devices are instantly removed from the original hashtable
+    Enumeration devices =
+      CollectionHelper.getPersistentElementsEnumeration(controlPoint.getCPDeviceFromDescriptionURLTable());
+    while (devices.hasMoreElements())
+    {
+      CPDevice currentDevice = (CPDevice)devices.nextElement();
+
+      // multicast may not work for different reasons
+      // issue a HEAD request to the device description to test for device existence in
+      // the last 60 seconds of expected device lifetime
+      if (System.currentTimeMillis() + 60000 > currentDevice.getExpectedLifetime() &&
+        !currentDevice.isPendingHeadRequest())
+      {
+        TemplateControlPoint.printMessage(controlPoint.toString() + ": Trigger head request for device: " +
+          currentDevice.toDiscoveryString());
+        new DeviceRequestThread(currentDevice);
+      }
+      // remove device
+      if (System.currentTimeMillis() > currentDevice.getExpectedLifetime())
+      {
+        TemplateControlPoint.printMessage(controlPoint.toString() + ": Remove timed out device: " +
+          currentDevice.toDiscoveryString());
+        controlPoint.removeRootDevice(currentDevice, true);
+      }
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see de.fraunhofer.fokus.upnp.util.threads.IScheduledEventListener#getNextEventTime()
+   */
+  public long getNextEventTime()
+  {
+    long result = -1;
+    Enumeration devices =
+      CollectionHelper.getPersistentElementsEnumeration(controlPoint.getCPDeviceFromDescriptionURLTable());
+    while (devices.hasMoreElements())
     {
-      lastCheck = System.currentTimeMillis();
-      // find deprecated devices
-      // use copy because deprecated devices are instantly removed from the original hashtable
-      Enumeration devices =
-        CollectionHelper.getPersistentElementsEnumeration(controlPoint.getCPDeviceFromDescriptionURLTable());
-      while (devices.hasMoreElements())
+      CPDevice currentDevice = (CPDevice)devices.nextElement();
+      long expectedLifetime = currentDevice.getExpectedLifetime();
+      // time for the HEAD request
+      if (!currentDevice.isPendingHeadRequest())
       {
-        CPDevice currentDevice = (CPDevice)devices.nextElement();
-
-        // multicast may not work for different reasons
-        // issue a HEAD request to the device description to test for device existence in
-        // the last 60 seconds of expected device lifetime
-        if (System.currentTimeMillis() + 60000 > currentDevice.getExpectedLifetime() &&
-          !currentDevice.isPendingHeadRequest())
-        {
-          TemplateControlPoint.printMessage(controlPoint.toString() + ": Trigger head request for device: " +
-            currentDevice.toDiscoveryString());
-          new DeviceRequestThread(currentDevice);
-        }
-        // remove device
-        if (System.currentTimeMillis() > currentDevice.getExpectedLifetime())
-        {
-          TemplateControlPoint.printMessage(controlPoint.toString() + ": Remove timed out device: " +
-            currentDevice.toDiscoveryString());
-          controlPoint.removeRootDevice(currentDevice, true);
-        }
+        result = result == -1 ? expectedLifetime - 60000 : Math.min(result, expectedLifetime - 60000);
       }
+      // time for the removal
+      result = result == -1 ? expectedLifetime + 1 : Math.min(result, expectedLifetime + 1);
+    }
+    if (result == -1)
+    {
+      return -1;
     }
+    return Math.max(result, lastCheck + CHECK_INTERVAL);
+  }
+
+  /**
+   * Signals that a device was added or that the lifetime of a device was set to an earlier time.
+   */
+  public void deviceLifetimeChanged()
+  {
+    controlPoint.getControlPointEventThread().trigger(this);
   }
 
   /** This thread is used to check for device existence by sending a HEAD request */
@@ -36,7 +36,9 @@ import org.apache.log4j.Logger;
 import de.fraunhofer.fokus.upnp.configuration.UPnPDefaults;
 import de.fraunhofer.fokus.upnp.util.StringHelper;
 import de.fraunhofer.fokus.upnp.util.network.BinaryMessageObject;
+import de.fraunhofer.fokus.upnp.util.network.DatagramChannelReceiver;
 import de.fraunhofer.fokus.upnp.util.network.SocketHelper;
+import de.fraunhofer.fokus.upnp.util.network.listener.IDatagramReceiveListener;
 import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
 
 /**
@@ -46,7 +48,7 @@ import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
  * @author icu, Alexander Koenig
  * 
  */
-public class CPMSearchClient implements IEventListener
+public class CPMSearchClient implements IEventListener, IDatagramReceiveListener
 {
 
   static Logger                  logger                   = Logger.getLogger("upnp.ssdp");
@@ -139,7 +141,7 @@ public class CPMSearchClient implements IEventListener
       // send message packet
       for (int j = 0; j < UPnPDefaults.UDP_SEND_COUNT; j++)
       {
-        socketStructure.getSSDPUnicastSocket().send(packet);
+        SocketHelper.sendPacket(socketStructure.getSSDPUnicastSocket(), packet);
         Thread.sleep(UPnPDefaults.CP_M_SEARCH_MESSAGE_DELAY);
       }
     } catch (Exception e)
@@ -158,6 +160,15 @@ public class CPMSearchClient implements IEventListener
       ControlPointHostAddressSocketStructure socketStructure =
         (ControlPointHostAddressSocketStructure)socketStructures.elementAt(i);
 
+      // packets are dispatched by the receiver as soon as they arrive
+      DatagramChannelReceiver receiver = DatagramChannelReceiver.getDefaultReceiver();
+      if (receiver.register(socketStructure.getSSDPUnicastSocket(),
+        this,
+        null,
+        socketStructure))
+      {
+        continue;
+      }
       // stick to one socket until all pending packets were read
       boolean packetFound = true;
       while (packetFound)
@@ -181,4 +192,15 @@ public class CPMSearchClient implements IEventListener
     }
   }
 
+  /*
+   * (non-Javadoc)
+   * 
+   * @see de.fraunhofer.fokus.upnp.util.network.listener.IDatagramReceiveListener#datagramReceived(
+   *      de.fraunhofer.fokus.upnp.util.network.BinaryMessageObject, java.lang.Object)
+   */
+  public void datagramReceived(BinaryMessageObject message, Object attachment)
+  {
+    mSearchResponseProcessor.processMessage((ControlPointHostAddressSocketStructure)attachment, message);
+  }
+
 }
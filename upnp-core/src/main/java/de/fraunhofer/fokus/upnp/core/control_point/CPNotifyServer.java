@@ -32,25 +32,34 @@ import java.util.Vector;
 import org.apache.log4j.Logger;
 
 import de.fraunhofer.fokus.upnp.util.network.BinaryMessageObject;
+import de.fraunhofer.fokus.upnp.util.network.DatagramChannelReceiver;
 import de.fraunhofer.fokus.upnp.util.network.SocketHelper;
-import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
+import de.fraunhofer.fokus.upnp.util.network.listener.IDatagramReceiveListener;
+import de.fraunhofer.fokus.upnp.util.threads.EventThread;
+import de.fraunhofer.fokus.upnp.util.threads.IScheduledEventListener;
 
 /**
- * This class is used by control points to receive NOTIFY messages from devices.
+ * This class is used by control points to receive NOTIFY messages from devices. Multicast sockets
+ * created from channels are served by the shared DatagramChannelReceiver, other sockets are
+ * polled. If no socket must be polled, the server only checks for sockets of new network interfaces
+ * from time to time.
  * 
  * @author icu, Alexander Koenig
  * 
  */
-public class CPNotifyServer implements IEventListener
+public class CPNotifyServer implements IScheduledEventListener, IDatagramReceiveListener
 {
 
   /** SSDPServer logger */
-  static Logger                  logger = Logger.getLogger("upnp.ssdp");
+  static Logger                  logger        = Logger.getLogger("upnp.ssdp");
 
   private ControlPoint           controlPoint;
 
   private CPSSDPMessageProcessor notifyMessageProcessor;
 
+  /** Flag that at least one socket could not be registered at the receiver and must be polled */
+  private boolean                socketsPolled = false;
+
   /**
    * Creates a new instance of CPNotifyServer.
    * 
@@ -72,6 +81,7 @@ public class CPNotifyServer implements IEventListener
    */
   public void triggerEvents()
   {
+    boolean polled = false;
     // check all associated multicast sockets for received packets
     Vector socketStructures = controlPoint.getSocketStructures();
     for (int i = 0; i < socketStructures.size(); i++)
@@ -79,6 +89,16 @@ public class CPNotifyServer implements IEventListener
       ControlPointHostAddressSocketStructure socketStructure =
         (ControlPointHostAddressSocketStructure)socketStructures.elementAt(i);
 
+      // packets are dispatched by the receiver as soon as they arrive
+      DatagramChannelReceiver receiver = DatagramChannelReceiver.getDefaultReceiver();
+      if (receiver.register(socketStructure.getSSDPMulticastSocket(),
+        this,
+        null,
+        socketStructure))
+      {
+        continue;
+      }
+      polled = true;
       // stay to one socket until all pending packets were read
       boolean packetFound = true;
       while (packetFound)
@@ -97,6 +117,29 @@ public class CPNotifyServer implements IEventListener
         }
       }
     }
+    socketsPolled = polled;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see de.fraunhofer.fokus.upnp.util.threads.IScheduledEventListener#getNextEventTime()
+   */
+  public long getNextEventTime()
+  {
+    return System.currentTimeMillis() +
+      (socketsPolled ? EventThread.EVENT_THREAD_SLEEP_TIME : DatagramChannelReceiver.REGISTRATION_INTERVAL);
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see de.fraunhofer.fokus.upnp.util.network.listener.IDatagramReceiveListener#datagramReceived(
+   *      de.fraunhofer.fokus.upnp.util.network.BinaryMessageObject, java.lang.Object)
+   */
+  public void datagramReceived(BinaryMessageObject message, Object attachment)
+  {
+    notifyMessageProcessor.processMessage((ControlPointHostAddressSocketStructure)attachment, message);
   }
 
 }
@@ -87,9 +87,9 @@ public class CPSSDPMessageProcessor
   public void processMessage(ControlPointHostAddressSocketStructure discoverySocketStructure,
     BinaryMessageObject message)
   {
-    String packetContent = message.getBodyAsString();
+    // parse received bytes directly, the content is only converted to a string for unknown messages
     HTTPParser httpParser = new HTTPParser();
-    httpParser.parse(packetContent);
+    httpParser.parse(message.getBody());
 
     if (httpParser.isMSEARCHResponseMessage())
     {
@@ -152,7 +152,8 @@ public class CPSSDPMessageProcessor
 
       return;
     }
-    logger.warn("Unknown message from " + IPHelper.toString(message.getSourceAddress()) + " [\n" + packetContent + "]");
+    logger.warn("Unknown message from " + IPHelper.toString(message.getSourceAddress()) + " [\n" +
+      message.getBodyAsString() + "]");
   }
 
   /**
@@ -252,7 +253,13 @@ public class CPSSDPMessageProcessor
       CPDevice device = (CPDevice)controlPoint.getCPDeviceFromDescriptionURLTable().get(descriptionURL);
       if (device != null)
       {
-        device.setExpectedLifetime(System.currentTimeMillis() + deviceDiscoveryInfo.getMaxage() * 1000);
+        long expectedLifetime = System.currentTimeMillis() + deviceDiscoveryInfo.getMaxage() * 1000;
+        boolean earlierLifetime = expectedLifetime < device.getExpectedLifetime();
+        device.setExpectedLifetime(expectedLifetime);
+        if (earlierLifetime)
+        {
+          controlPoint.getDeviceLifetimeHandler().deviceLifetimeChanged();
+        }
       }
       if (isNotifyMessage)
       {
@@ -417,15 +424,17 @@ public class CPSSDPMessageProcessor
     int maxAge,
     String NLSValue)
   {
-    // create and start device description retrieval thread
-    new CPDeviceDescriptionRetrieval(controlPoint,
-      discoverySocketStructure,
-      descriptionURL,
-      rootDeviceUUID,
-      serverValue,
-      maxAge,
-      NLSValue,
-      IPVersion);
+    // create and queue device description retrieval
+    CPDeviceDescriptionRetrieval descriptionRetrieval =
+      new CPDeviceDescriptionRetrieval(controlPoint,
+        discoverySocketStructure,
+        descriptionURL,
+        rootDeviceUUID,
+        serverValue,
+        maxAge,
+        NLSValue,
+        IPVersion);
+    controlPoint.addDescriptionRetrieval(descriptionRetrieval);
   }
 
 }
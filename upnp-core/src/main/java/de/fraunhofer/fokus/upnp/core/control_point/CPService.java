@@ -46,13 +46,14 @@ import de.fraunhofer.fokus.upnp.core.Argument;
 import de.fraunhofer.fokus.upnp.core.event.ICPStateVariableListener;
 import de.fraunhofer.fokus.upnp.core.exceptions.InvokeActionException;
 import de.fraunhofer.fokus.upnp.core.xml.SOAPActionArgument;
-import de.fraunhofer.fokus.upnp.core.xml.SOAPActionHandler;
+import de.fraunhofer.fokus.upnp.core.xml.SOAPActionParser;
 import de.fraunhofer.fokus.upnp.core.xml.SOAPErrorHandler;
-import de.fraunhofer.fokus.upnp.http.HTTPClient;
 import de.fraunhofer.fokus.upnp.http.HTTPConstant;
 import de.fraunhofer.fokus.upnp.http.HTTPHeaderBuilder;
+import de.fraunhofer.fokus.upnp.http.HTTPMessageFlow;
 import de.fraunhofer.fokus.upnp.http.HTTPParser;
 import de.fraunhofer.fokus.upnp.http.HTTPServer;
+import de.fraunhofer.fokus.upnp.soap.SOAPCodec;
 import de.fraunhofer.fokus.upnp.soap.SOAPHeaderBuilder;
 import de.fraunhofer.fokus.upnp.soap.SOAPMessageBuilder;
 import de.fraunhofer.fokus.upnp.util.Base64Helper;
@@ -122,9 +123,6 @@ public class CPService extends AbstractService implements ICPStateVariableListen
   /** URL for subscribe purposes for a service */
   protected URL                              eventSubscriptionURL;
 
-  /** Client used to send action requests. */
-  protected HTTPClient                       persistentClient;
-
   /**
    * Creates CPService object.
    * 
@@ -188,10 +186,7 @@ public class CPService extends AbstractService implements ICPStateVariableListen
     ActionFailedException
   {
     logger.info("invoke" + action.getName() + " action");
-    String innerBody = SOAPMessageBuilder.buildActionRequestInnerBody(serviceType, action);
-    String body = SOAPMessageBuilder.buildEnvelope(innerBody);
-
-    byte[] bodyByteArray = StringHelper.utf8StringToByteArray(body);
+    byte[] bodyByteArray = SOAPCodec.encodeActionRequest(serviceType, action);
     sendPostAction(action, bodyByteArray, optionalHeaderLines, null, null, null, null);
   }
 
@@ -218,10 +213,11 @@ public class CPService extends AbstractService implements ICPStateVariableListen
 
     String innerBody = SOAPMessageBuilder.buildActionRequestInnerBody(serviceType, action);
     String body = SOAPMessageBuilder.buildEnvelope(innerBody);
-    String signatureContent = sequenceBase + keyID + body;
 
-    // calculate signature
-    byte[] signatureAsByteArray = DigestHelper.calculateSHA1HMACForString(aesKey, signatureContent);
+    // calculate signature over sequence base, key ID and body
+    byte[] signatureAsByteArray = DigestHelper.calculateSHA1HMACForStrings(aesKey, new String[] {
+        sequenceBase, keyID, body
+    });
     String signatureBase64 = Base64Helper.byteArrayToBase64(signatureAsByteArray);
 
     Vector optionalHeaderLines = new Vector();
@@ -372,20 +368,24 @@ public class CPService extends AbstractService implements ICPStateVariableListen
    */
   private HTTPMessageObject sendActionToRemoteDevice(HTTPMessageObject message) throws InvokeActionException
   {
-    // create new http client if needed
-    if (persistentClient == null || !HTTPDefaults.PERSISTENT_CLIENT_CONNECTION)
-    {
-      persistentClient = new HTTPClient(HTTPDefaults.PERSISTENT_CLIENT_CONNECTION);
-    }
+    HTTPMessageObject response = null;
     try
     {
       //      System.out.println(DateTimeHelper.formatCurrentDateForDebug() + ": Send action to remote device");
-      persistentClient.sendRequestAndWaitForResponse(message);
+      // concurrent actions to the same device use separate pooled connections
+      response =
+        HTTPMessageFlow.getHTTPClientPool().sendRequestAndWaitForResponse(message,
+          HTTPDefaults.CLIENT_CONNECT_TIMEOUT,
+          HTTPDefaults.TIMEOUT_FOR_RESEND * 1000);
     } catch (Exception e1)
     {
       throw new InvokeActionException(e1.getMessage());
     }
-    return persistentClient.getResponse();
+    if (response == null)
+    {
+      throw new InvokeActionException("No connection available to " + controlURL);
+    }
+    return response;
   }
 
   /**
@@ -499,39 +499,40 @@ public class CPService extends AbstractService implements ICPStateVariableListen
         {
           System.out.println("Received action response with invalid signature");
         }
-        SOAPActionHandler soapActionHandler = new SOAPActionHandler();
+        SOAPActionParser soapActionParser = new SOAPActionParser();
         if (trustableResponse)
         {
           try
           {
-            soapActionHandler.parse(responseBody);
+            soapActionParser.parse(responseBody);
           } catch (SAXException e1)
           {
             throw new InvokeActionException("Error parsing response");
           }
-          if (soapActionHandler.isValid())
+          if (soapActionParser.isValid())
           {
             // valid action response message
-            if (!soapActionHandler.getServiceType().equalsIgnoreCase(serviceType))
+            if (!soapActionParser.getServiceType().equalsIgnoreCase(serviceType))
             {
-              logger.warn("wrong response service type =" + soapActionHandler.getServiceType());
-              throw new InvokeActionException("wrong response service type =" + soapActionHandler.getServiceType());
+              logger.warn("wrong response service type =" + soapActionParser.getServiceType());
+              throw new InvokeActionException("wrong response service type =" + soapActionParser.getServiceType());
             }
             // get action using action name provided in response message
-            CPAction tempAction = getCPAction(soapActionHandler.getActionName());
+            CPAction tempAction = getCPAction(soapActionParser.getActionName());
 
             if (tempAction == null)
             {
-              logger.warn("no action found " + soapActionHandler.getServiceType());
-              throw new InvokeActionException("no action found" + soapActionHandler.getServiceType());
+              logger.warn("no action found " + soapActionParser.getServiceType());
+              throw new InvokeActionException("no action found" + soapActionParser.getServiceType());
             }
-            if (tempAction != action)
+            // compare names to also accept private copies of an action
+            if (!tempAction.getName().equals(action.getName()))
             {
               logger.warn("wrong response " + tempAction.getName());
-              throw new InvokeActionException("Response does not fit " + soapActionHandler.getActionName());
+              throw new InvokeActionException("Response does not fit " + soapActionParser.getActionName());
             }
             // get all out arguments from response message
-            Vector receivedArgumentTable = soapActionHandler.getArgumentList();
+            Vector receivedArgumentTable = soapActionParser.getArgumentList();
             Argument[] localArgumentTable = action.getOutArgumentTable();
             int localArgumentTableSize = localArgumentTable == null ? 0 : localArgumentTable.length;
             // compare size of argument tables
@@ -54,15 +54,16 @@ import de.fraunhofer.fokus.upnp.util.security.SecurityHelper;
 import de.fraunhofer.fokus.upnp.util.security.SymmetricKeyInfo;
 
 /**
- * This thread is started in the CPService for each successful subscription. The thread is put into
- * a hashtable in the control point for further reference. This thread automatically resubscribes
+ * This class is created in the CPService for each successful subscription. It is put into a
+ * hashtable in the control point for further reference. The subscription is automatically renewed
  * (if timeout is not set to infinite) to the corresponing service if a certain configurable timeout
- * is reached
+ * is reached. All messages are sent by the shared subscription renewal scheduler of the control
+ * point.
  * 
  * @author tje, Alexander Koenig
  * 
  */
-public class CPServiceEventSubscriptionThread extends Thread implements IHTTPMessageFlow
+public class CPServiceEventSubscriptionThread implements IHTTPMessageFlow
 {
 
   protected static String MESSAGE_TYPE_TAG = "MessageType";
@@ -115,6 +116,9 @@ public class CPServiceEventSubscriptionThread extends Thread implements IHTTPMes
 
   protected boolean       terminated       = false;
 
+  /** Flag that terminate() was called */
+  protected volatile boolean terminationRequested = false;
+
   protected boolean       sendUnsubscription;
 
   /**
@@ -171,8 +175,6 @@ public class CPServiceEventSubscriptionThread extends Thread implements IHTTPMes
     int IPVersion,
     ControlPoint controlPoint)
   {
-    super("CPServiceEventSubscriptionThread [" + controlPoint.toString() + "]");
-
     // TemplateService.printMessage(controlPoint.toString() + ": Start event subscription thread" +
     // " for service " + service.getCPDevice() + "." + service +
     // ", requested interval is " + timeoutwish + " seconds");
@@ -221,6 +223,26 @@ public class CPServiceEventSubscriptionThread extends Thread implements IHTTPMes
     return service;
   }
 
+  /**
+   * Retrieves the host and port of the publisher URL.
+   * 
+   * @return The publisher host and port
+   */
+  public String getPublisherHostAndPort()
+  {
+    return publisherHost + ":" + publisherPort;
+  }
+
+  /**
+   * Checks if the termination of this subscription was requested.
+   * 
+   * @return True if terminate() was called, false otherwise
+   */
+  public boolean isTerminationRequested()
+  {
+    return terminationRequested;
+  }
+
   /**
    * Builds subscribe message
    * 
@@ -365,7 +387,7 @@ public class CPServiceEventSubscriptionThread extends Thread implements IHTTPMes
         "." + service.toString());
 
       // use 5 minutes
-      return 300;
+      return 300000;
     }
 
     // sleep 80% of the received resubscription time
@@ -490,72 +512,82 @@ public class CPServiceEventSubscriptionThread extends Thread implements IHTTPMes
     terminateThread = !(result instanceof Boolean && ((Boolean)result).booleanValue());
   }
 
-  /** This method is responsible for handling one subscription. */
-  public void run()
+  /** Hands this subscription to the renewal scheduler which sends the initial subscription. */
+  public void start()
+  {
+    if (!controlPoint.getSubscriptionRenewalScheduler().add(this))
+    {
+      finishSubscription();
+    }
+  }
+
+  /**
+   * Sends the initial subscription or a resubscription. This method is called by the renewal
+   * scheduler.
+   * 
+   * @return The time in ms until the next resubscription or -1 if the subscription has ended
+   */
+  public long processSubscription()
   {
-    // send subscription request
-    if (service.getCPDevice().supportsPersonalization())
+    if (sid == null)
     {
-      synchronized(service.getCPDevice().getPersonalizationSyncLock())
+      // send subscription request
+      if (service.getCPDevice().supportsPersonalization())
+      {
+        synchronized(service.getCPDevice().getPersonalizationSyncLock())
+        {
+          sendGENAMessage(SUBSCRIBE);
+        }
+      } else
       {
         sendGENAMessage(SUBSCRIBE);
       }
     } else
     {
-      sendGENAMessage(SUBSCRIBE);
+      // send resubscription
+      sendGENAMessage(RESUBSCRIBE);
     }
-    while (!terminateThread)
+    if (terminateThread || terminationRequested)
     {
-      // signal subscription to CPService
-      service.setSubscribed(true);
-
-      long sleepTime = getResubscriptionSleepInterval(receivedTimeout);
+      return -1;
+    }
+    // signal subscription to CPService
+    service.setSubscribed(true);
 
-      // System.out.println(getName() + ": Try to sleep for " + sleepTime/60000 + " minutes");
+    return getResubscriptionSleepInterval(receivedTimeout);
+  }
 
-      try
+  /**
+   * Ends this subscription. Sends an UNSUBSCRIBE if requested and removes the subscription from
+   * the control point.
+   */
+  public void finishSubscription()
+  {
+    synchronized(this)
+    {
+      if (terminated)
       {
-        Thread.sleep(sleepTime);
-
-        // send resubscription
-        sendGENAMessage(RESUBSCRIBE);
-
-        // update sleep time if possible
-        if (!terminateThread)
-        {
-          sleepTime = getResubscriptionSleepInterval(receivedTimeout);
-        }
+        return;
+      }
+      // end event subscription
+      if (sendUnsubscription && service.isSubscribed())
+      {
+        logger.info("send unsubscribe");
 
-      } catch (InterruptedException e)
+        sendGENAMessage(UNSUBSCRIBE);
+      }
+      // remove subscription
+      if (sid != null)
       {
-        terminateThread = true;
+        controlPoint.getEventSubscriptionThreadFromSIDTable().remove(sid);
       }
+      service.setSubscribed(false);
+      terminated = true;
     }
-
-    // end event subscription
-    if (sendUnsubscription && service.isSubscribed())
-    {
-      // System.out.println("Send unsubscribe for " + service.getDevice().getFriendlyName()+"." +
-      // service.toString());
-      logger.info("send unsubscribe");
-
-      sendGENAMessage(UNSUBSCRIBE);
-    }
-    // remove thread
-    if (sid != null)
-    {
-      // remove thread from hashtable
-      controlPoint.getEventSubscriptionThreadFromSIDTable().remove(sid);
-    }
-    service.setSubscribed(false);
-    terminated = true;
-    // TemplateControlPoint.printMessage(controlPoint.toString() + ":" +
-    // "Terminated subscription to " + service.getCPDevice().getFriendlyName()+"." +
-    // service.toString() + " (SID:" + sid + ")");
   }
 
   /**
-   * Terminates the event subscription thread.
+   * Terminates the event subscription.
    * 
    * 
    * @param sendUnsubscription
@@ -564,8 +596,12 @@ public class CPServiceEventSubscriptionThread extends Thread implements IHTTPMes
   public void terminate(boolean sendUnsubscription)
   {
     this.sendUnsubscription = sendUnsubscription;
-    terminateThread = true;
-    this.interrupt();
+    terminationRequested = true;
+    // finish directly if no message is currently sent for this subscription
+    if (!controlPoint.getSubscriptionRenewalScheduler().remove(this))
+    {
+      finishSubscription();
+    }
     while (!terminated)
     {
       ThreadHelper.sleep(10);
@@ -0,0 +1,513 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.control_point;
+
+import java.util.Hashtable;
+import java.util.Random;
+import java.util.Vector;
+
+import de.fraunhofer.fokus.upnp.configuration.UPnPDefaults;
+
+/**
+ * This class drives all event subscriptions of a control point with a small number of worker
+ * threads. Subscriptions are kept in a queue ordered by their next renewal time. Renewal times are
+ * jittered to prevent that subscriptions created at the same time are renewed at the same time.
+ * 
+ * If a renewal is due, all other subscriptions to the same host that are due soon are renewed by
+ * the same worker, so one connection to the host can be reused for all messages. Only one worker
+ * sends messages to a certain host at a time.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class CPSubscriptionRenewalScheduler
+{
+
+  /** Scheduled subscriptions, ordered by their next renewal time */
+  private Vector           pendingEntries               = new Vector();
+
+  /** Scheduled or running subscriptions */
+  private Hashtable        entryFromSubscriptionTable   = new Hashtable();
+
+  /** Hosts that are currently contacted by a worker */
+  private Hashtable        busyHostTable                = new Hashtable();
+
+  /** Worker threads */
+  private WorkerThread[]   workerThreads;
+
+  /** Fraction of the renewal interval that is randomly subtracted */
+  private double           jitter                       = UPnPDefaults.CP_SUBSCRIPTION_RENEWAL_JITTER;
+
+  /** Time in ms in which renewals for the same host are combined */
+  private long             batchWindow                  = UPnPDefaults.CP_SUBSCRIPTION_RENEWAL_BATCH_WINDOW;
+
+  private Random           random                       = new Random();
+
+  /** Sync object */
+  private Object           lock                         = new Object();
+
+  private boolean          terminateThread              = false;
+
+  private long             subscribeCount               = 0;
+
+  private long             renewalCount                 = 0;
+
+  private long             batchedRenewalCount          = 0;
+
+  private long             failedSubscriptionCount      = 0;
+
+  /** Accumulated delay between renewal time and start of all sent renewals */
+  private long             totalRenewalDelay            = 0;
+
+  /** Maximum delay between renewal time and start of a renewal */
+  private long             maxRenewalDelay              = 0;
+
+  /**
+   * Creates a new instance of CPSubscriptionRenewalScheduler and starts the worker threads.
+   * 
+   * @param name
+   *          Name for the worker threads
+   * @param workerCount
+   *          Number of worker threads
+   */
+  public CPSubscriptionRenewalScheduler(String name, int workerCount)
+  {
+    workerThreads = new WorkerThread[Math.max(1, workerCount)];
+    for (int i = 0; i < workerThreads.length; i++)
+    {
+      workerThreads[i] = new WorkerThread(name + ".SubscriptionRenewal" + i);
+      workerThreads[i].start();
+    }
+  }
+
+  /**
+   * Adds a new subscription. The initial SUBSCRIBE is sent as soon as possible.
+   * 
+   * @param subscription
+   *          The subscription
+   * 
+   * @return True if the subscription was added, false if it is already known
+   */
+  public boolean add(CPServiceEventSubscriptionThread subscription)
+  {
+    synchronized(lock)
+    {
+      if (terminateThread || entryFromSubscriptionTable.containsKey(subscription))
+      {
+        return false;
+      }
+      SubscriptionEntry entry = new SubscriptionEntry(subscription, System.currentTimeMillis());
+      entryFromSubscriptionTable.put(subscription, entry);
+      insertEntry(entry);
+
+      lock.notifyAll();
+    }
+    return true;
+  }
+
+  /**
+   * Removes a subscription from the scheduler.
+   * 
+   * @param subscription
+   *          The subscription
+   * 
+   * @return True if a worker currently sends a message for this subscription, false if the
+   *         subscription was removed or is unknown
+   */
+  public boolean remove(CPServiceEventSubscriptionThread subscription)
+  {
+    synchronized(lock)
+    {
+      SubscriptionEntry entry = (SubscriptionEntry)entryFromSubscriptionTable.get(subscription);
+      if (entry == null)
+      {
+        return false;
+      }
+      if (entry.running)
+      {
+        return true;
+      }
+      pendingEntries.remove(entry);
+      entryFromSubscriptionTable.remove(subscription);
+      return false;
+    }
+  }
+
+  /**
+   * Retrieves the next renewal time for a subscription.
+   * 
+   * @param subscription
+   *          The subscription
+   * 
+   * @return The time in ms or -1 if the subscription is not scheduled
+   */
+  public long getRenewalTime(CPServiceEventSubscriptionThread subscription)
+  {
+    synchronized(lock)
+    {
+      SubscriptionEntry entry = (SubscriptionEntry)entryFromSubscriptionTable.get(subscription);
+      return entry == null || entry.running ? -1 : entry.renewalTime;
+    }
+  }
+
+  /** Retrieves the number of managed subscriptions. */
+  public int getSubscriptionCount()
+  {
+    return entryFromSubscriptionTable.size();
+  }
+
+  /** Retrieves the number of sent initial subscriptions. */
+  public long getSubscribeCount()
+  {
+    return subscribeCount;
+  }
+
+  /** Retrieves the number of sent renewals. */
+  public long getRenewalCount()
+  {
+    return renewalCount;
+  }
+
+  /** Retrieves the number of renewals that were sent together with a renewal for the same host. */
+  public long getBatchedRenewalCount()
+  {
+    return batchedRenewalCount;
+  }
+
+  /** Retrieves the number of subscriptions that ended because a message failed. */
+  public long getFailedSubscriptionCount()
+  {
+    return failedSubscriptionCount;
+  }
+
+  /** Retrieves the average delay in ms between the planned and the actual start of a renewal. */
+  public long getAverageRenewalDelay()
+  {
+    return renewalCount == 0 ? 0 : totalRenewalDelay / renewalCount;
+  }
+
+  /** Retrieves the maximum delay in ms between the planned and the actual start of a renewal. */
+  public long getMaxRenewalDelay()
+  {
+    return maxRenewalDelay;
+  }
+
+  /** Retrieves a short description of the scheduler counters. */
+  public String getStatistics()
+  {
+    return "Subscriptions: " + getSubscriptionCount() + ", subscribed: " + subscribeCount + ", renewed: " +
+      renewalCount + " (batched: " + batchedRenewalCount + "), failed: " + failedSubscriptionCount +
+      ", avg. delay: " + getAverageRenewalDelay() + " ms, max. delay: " + maxRenewalDelay + " ms";
+  }
+
+  /**
+   * Sets the jitter for renewal times.
+   * 
+   * @param jitter
+   *          Fraction of the renewal interval that is randomly subtracted (0 to 0.5)
+   */
+  public void setJitter(double jitter)
+  {
+    this.jitter = Math.max(0, Math.min(0.5, jitter));
+  }
+
+  /**
+   * Sets the time in which renewals for the same host are combined.
+   * 
+   * @param batchWindow
+   *          The time in ms
+   */
+  public void setBatchWindow(long batchWindow)
+  {
+    this.batchWindow = Math.max(0, batchWindow);
+  }
+
+  /**
+   * Stops the worker threads. Subscriptions are neither renewed nor unsubscribed afterwards.
+   */
+  public void terminate()
+  {
+    synchronized(lock)
+    {
+      terminateThread = true;
+      pendingEntries.clear();
+      lock.notifyAll();
+    }
+  }
+
+  /** Inserts an entry behind all entries with the same or an earlier renewal time. */
+  private void insertEntry(SubscriptionEntry entry)
+  {
+    int index = pendingEntries.size();
+    while (index > 0 && ((SubscriptionEntry)pendingEntries.elementAt(index - 1)).renewalTime > entry.renewalTime)
+    {
+      index--;
+    }
+    pendingEntries.insertElementAt(entry, index);
+  }
+
+  /**
+   * Removes all entries that should be processed now. This is the first due entry for a host that
+   * is not busy, together with all entries for the same host that are due within the batch window.
+   * Must be called with the lock held.
+   * 
+   * @param time
+   *          The current time
+   * 
+   * @return A vector with the entries or null if no entry is due
+   */
+  private Vector removeDueEntries(long time)
+  {
+    Vector result = null;
+    String host = null;
+    int i = 0;
+    while (i < pendingEntries.size())
+    {
+      SubscriptionEntry entry = (SubscriptionEntry)pendingEntries.elementAt(i);
+      if (result == null)
+      {
+        if (entry.renewalTime > time)
+        {
+          return null;
+        }
+        if (!busyHostTable.containsKey(entry.host))
+        {
+          host = entry.host;
+          result = new Vector();
+          result.add(entry);
+          pendingEntries.remove(i);
+          continue;
+        }
+      } else if (entry.host.equals(host))
+      {
+        // renew early only for a small part of the renewal interval
+        long window = entry.interval < 0 ? batchWindow : Math.min(batchWindow, entry.interval / 4);
+        if (entry.renewalTime > time + window)
+        {
+          // the queue is ordered, so no later entry can be inside the window
+          if (entry.renewalTime > time + batchWindow)
+          {
+            break;
+          }
+        } else
+        {
+          result.add(entry);
+          pendingEntries.remove(i);
+          continue;
+        }
+      }
+      i++;
+    }
+    return result;
+  }
+
+  /**
+   * Calculates the time until the next entry for a host that is not busy is due. Must be called
+   * with the lock held.
+   * 
+   * @return The wait time in ms or 0 to wait for other events
+   */
+  private long getWaitTime(long time)
+  {
+    for (int i = 0; i < pendingEntries.size(); i++)
+    {
+      SubscriptionEntry entry = (SubscriptionEntry)pendingEntries.elementAt(i);
+      if (!busyHostTable.containsKey(entry.host))
+      {
+        return Math.max(1, entry.renewalTime - time);
+      }
+    }
+    return 0;
+  }
+
+  /** Sends the messages for a number of entries for the same host and reschedules them. */
+  private void processEntries(Vector entries)
+  {
+    for (int i = 0; i < entries.size(); i++)
+    {
+      SubscriptionEntry entry = (SubscriptionEntry)entries.elementAt(i);
+      CPServiceEventSubscriptionThread subscription = entry.subscription;
+
+      long startTime = System.currentTimeMillis();
+      boolean initial = entry.interval < 0;
+      // subscriptions terminated while waiting in a batch need no further message
+      boolean terminationRequested = subscription.isTerminationRequested();
+      long interval = -1;
+      if (!terminationRequested)
+      {
+        try
+        {
+          interval = subscription.processSubscription();
+        } catch (Exception e)
+        {
+          System.out.println("Error in subscription for " + subscription.getCPService().toString() + ": " +
+            e.getMessage());
+        }
+      }
+      boolean finishSubscription = false;
+      synchronized(lock)
+      {
+        if (!terminationRequested)
+        {
+          if (initial)
+          {
+            subscribeCount++;
+          } else
+          {
+            renewalCount++;
+            if (i > 0)
+            {
+              batchedRenewalCount++;
+            }
+            long delay = Math.max(0, startTime - entry.renewalTime);
+            totalRenewalDelay += delay;
+            maxRenewalDelay = Math.max(maxRenewalDelay, delay);
+          }
+          if (interval < 0)
+          {
+            failedSubscriptionCount++;
+          }
+        }
+        entry.running = false;
+        if (interval < 0 || terminateThread || subscription.isTerminationRequested())
+        {
+          entryFromSubscriptionTable.remove(subscription);
+          // a stopped scheduler just forgets its subscriptions
+          finishSubscription = interval < 0 || subscription.isTerminationRequested();
+        } else
+        {
+          entry.interval = interval;
+          // subtract a random part to spread renewals of subscriptions with equal timeouts
+          entry.renewalTime = System.currentTimeMillis() + interval - (long)(interval * jitter * random.nextDouble());
+          insertEntry(entry);
+        }
+      }
+      if (finishSubscription)
+      {
+        subscription.finishSubscription();
+      }
+    }
+  }
+
+  /** This class holds one subscription and its renewal time. */
+  private static class SubscriptionEntry
+  {
+
+    public CPServiceEventSubscriptionThread subscription;
+
+    public String                           host;
+
+    public long                             renewalTime;
+
+    /** Last renewal interval in ms or -1 for the initial subscription */
+    public long                             interval = -1;
+
+    public boolean                          running  = false;
+
+    /**
+     * Creates a new instance of SubscriptionEntry.
+     * 
+     * @param subscription
+     * @param renewalTime
+     */
+    public SubscriptionEntry(CPServiceEventSubscriptionThread subscription, long renewalTime)
+    {
+      this.subscription = subscription;
+      this.host = subscription.getPublisherHostAndPort();
+      this.renewalTime = renewalTime;
+    }
+  }
+
+  /** This thread sends subscription messages for due entries. */
+  private class WorkerThread extends Thread
+  {
+
+    /**
+     * Creates a new instance of WorkerThread.
+     * 
+     * @param name
+     *          Name of the thread
+     */
+    public WorkerThread(String name)
+    {
+      super(name);
+      setDaemon(true);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Thread#run()
+     */
+    public void run()
+    {
+      while (!terminateThread)
+      {
+        Vector entries = null;
+        synchronized(lock)
+        {
+          while (!terminateThread && entries == null)
+          {
+            long time = System.currentTimeMillis();
+            entries = removeDueEntries(time);
+            if (entries == null)
+            {
+              try
+              {
+                lock.wait(getWaitTime(time));
+              } catch (InterruptedException e)
+              {
+              }
+            }
+          }
+          if (entries == null)
+          {
+            return;
+          }
+          busyHostTable.put(((SubscriptionEntry)entries.elementAt(0)).host, this);
+          for (int i = 0; i < entries.size(); i++)
+          {
+            ((SubscriptionEntry)entries.elementAt(i)).running = true;
+          }
+        }
+        try
+        {
+          processEntries(entries);
+        } finally
+        {
+          synchronized(lock)
+          {
+            busyHostTable.remove(((SubscriptionEntry)entries.elementAt(0)).host);
+            lock.notifyAll();
+          }
+        }
+      }
+    }
+  }
+
+}
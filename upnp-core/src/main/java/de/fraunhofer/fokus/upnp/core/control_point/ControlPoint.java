@@ -101,8 +101,11 @@ public class ControlPoint implements ICPStateVariableListener, IEventListener
   /** Contains long term discovery infos */
   private Hashtable                        deviceDiscoveryInfoFromUUIDTable;
 
-  /** Contains description retrieval threads */
-  private Vector                           descriptionRetrievalList;
+  /** Executor for device description retrievals */
+  private CPDescriptionRetrievalExecutor   descriptionRetrievalExecutor;
+
+  /** Scheduler for event subscriptions */
+  private CPSubscriptionRenewalScheduler   subscriptionRenewalScheduler;
 
   /** Processor for GENA NOTIFY packets */
   private CPEventMessageProcessor          cpEventMessageProcessor;
@@ -230,14 +233,19 @@ public class ControlPoint implements ICPStateVariableListener, IEventListener
       logger.fatal("unknown IP version" + IPVersion);
       return;
     }
-    controlPointEventThread = new EventThread(toString());
+    controlPointEventThread = EventThread.createSharedEventThread(toString());
 
     deviceDiscoveryInfoFromDescriptionURLTable = new Hashtable();
     cpDeviceFromDescriptionURLTable = new Hashtable();
     deviceDescriptionURLFromUUIDTable = new Hashtable();
     eventSubscriptionThreadFromSIDTable = new Hashtable();
     deviceDiscoveryInfoFromUUIDTable = new Hashtable();
-    descriptionRetrievalList = new Vector();
+    descriptionRetrievalExecutor =
+      new CPDescriptionRetrievalExecutor(toString(),
+        UPnPDefaults.CP_DEVICE_RETRIEVAL_THREAD_COUNT,
+        UPnPDefaults.CP_DEVICE_RETRIEVAL_HOST_THREAD_COUNT);
+    subscriptionRenewalScheduler =
+      new CPSubscriptionRenewalScheduler(toString(), UPnPDefaults.CP_SUBSCRIPTION_RENEWAL_THREAD_COUNT);
     deviceLifetimeHandler = new CPDeviceLifetimeHandler(this);
 
     // create message processors using factory
@@ -368,58 +376,66 @@ public class ControlPoint implements ICPStateVariableListener, IEventListener
     return deviceDiscoveryInfoFromUUIDTable;
   }
 
-  public void addDescriptionRetrievalThread(CPDeviceDescriptionRetrieval deviceDescriptionRetrieval)
+  /**
+   * Adds a device description retrieval to the pending retrievals. Retrievals for URLs that are
+   * already processed are discarded.
+   * 
+   * @param deviceDescriptionRetrieval
+   *          The retrieval
+   * 
+   * @return True if the retrieval was added
+   */
+  public boolean addDescriptionRetrieval(CPDeviceDescriptionRetrieval deviceDescriptionRetrieval)
   {
-    synchronized(descriptionRetrievalList)
-    {
-      descriptionRetrievalList.add(deviceDescriptionRetrieval);
-    }
+    return descriptionRetrievalExecutor.submit(deviceDescriptionRetrieval);
   }
 
-  public void removeDescriptionRetrievalThread(CPDeviceDescriptionRetrieval deviceDescriptionRetrieval)
+  /** Removes a pending device description retrieval. */
+  public void removeDescriptionRetrieval(CPDeviceDescriptionRetrieval deviceDescriptionRetrieval)
   {
-    synchronized(descriptionRetrievalList)
-    {
-      if (descriptionRetrievalList.contains(deviceDescriptionRetrieval))
-      {
-        if (deviceDescriptionRetrieval.isAlive())
-        {
-          CPDeviceDescriptionRetrieval.ACTIVE_THREADS--;
-        } else
-        {
-          // try to remove thread that was not yet started
-          System.out.println("ERROR: Remove thread that was not started");
-        }
-        descriptionRetrievalList.remove(deviceDescriptionRetrieval);
-      }
-    }
+    descriptionRetrievalExecutor.remove(deviceDescriptionRetrieval);
   }
 
-  /** Starts description retrieval threads that are waiting */
-  protected void startPendingDescriptionRetrievals()
+  /** Retrieves the executor for device description retrievals. */
+  public CPDescriptionRetrievalExecutor getDescriptionRetrievalExecutor()
   {
-    if (CPDeviceDescriptionRetrieval.ACTIVE_THREADS >= UPnPDefaults.CP_DEVICE_RETRIEVAL_THREAD_COUNT)
-    {
-      return;
-    }
-    synchronized(descriptionRetrievalList)
-    {
-      for (int i = 0; i < descriptionRetrievalList.size() &&
-        CPDeviceDescriptionRetrieval.ACTIVE_THREADS < UPnPDefaults.CP_DEVICE_RETRIEVAL_THREAD_COUNT; i++)
-      {
-        CPDeviceDescriptionRetrieval currentDescriptionRetrieval =
-          (CPDeviceDescriptionRetrieval)descriptionRetrievalList.elementAt(i);
-        if (!currentDescriptionRetrieval.isAlive())
-        {
-          // System.out.println("START " + currentDescriptionRetrieval.toString());
+    return descriptionRetrievalExecutor;
+  }
 
-          CPDeviceDescriptionRetrieval.ACTIVE_THREADS++;
-          currentDescriptionRetrieval.start();
+  /** Retrieves the number of device description retrievals that wait for execution. */
+  public int getPendingDescriptionRetrievalCount()
+  {
+    return descriptionRetrievalExecutor.getPendingRetrievalCount();
+  }
 
-          System.out.println("  Number of active or pending descriptions is " + descriptionRetrievalList.size());
-        }
-      }
-    }
+  /** Retrieves the average time in ms that a device description retrieval waits for execution. */
+  public long getAverageDescriptionRetrievalWaitTime()
+  {
+    return descriptionRetrievalExecutor.getAverageWaitTime();
+  }
+
+  /** Retrieves the average duration of a device description retrieval in ms. */
+  public long getAverageDescriptionRetrievalTime()
+  {
+    return descriptionRetrievalExecutor.getAverageRetrievalTime();
+  }
+
+  /** Retrieves a short description of the device description retrieval counters. */
+  public String getDescriptionRetrievalStatistics()
+  {
+    return descriptionRetrievalExecutor.getStatistics();
+  }
+
+  /** Retrieves the scheduler that sends all event subscription messages. */
+  public CPSubscriptionRenewalScheduler getSubscriptionRenewalScheduler()
+  {
+    return subscriptionRenewalScheduler;
+  }
+
+  /** Retrieves a short description of the subscription renewal counters. */
+  public String getSubscriptionRenewalStatistics()
+  {
+    return subscriptionRenewalScheduler.getStatistics();
   }
 
   public int getIPVersion()
@@ -1205,6 +1221,16 @@ public class ControlPoint implements ICPStateVariableListener, IEventListener
     return controlPointStartupConfiguration;
   }
 
+  /**
+   * Checks if the event callback servers should use a selector and a worker pool.
+   * 
+   * @return True to use selector based HTTP servers
+   */
+  public boolean useSelectorHTTPServer()
+  {
+    return controlPointStartupConfiguration != null && controlPointStartupConfiguration.useSelectorHTTPServer();
+  }
+
   /**
    * Retrieves the deviceCache.
    * 
@@ -1319,6 +1345,16 @@ public class ControlPoint implements ICPStateVariableListener, IEventListener
     return controlPointEventThread;
   }
 
+  /**
+   * Retrieves the deviceLifetimeHandler.
+   * 
+   * @return The deviceLifetimeHandler
+   */
+  public CPDeviceLifetimeHandler getDeviceLifetimeHandler()
+  {
+    return deviceLifetimeHandler;
+  }
+
   /**
    * Retrieves the deviceInfoLock.
    * 
@@ -1336,7 +1372,6 @@ public class ControlPoint implements ICPStateVariableListener, IEventListener
    */
   public void triggerEvents()
   {
-    startPendingDescriptionRetrievals();
     if (searchRootDeviceTime != 0 && Portable.currentTimeMillis() > searchRootDeviceTime)
     {
       Portable.println("Search root devices");
@@ -1365,13 +1400,10 @@ public class ControlPoint implements ICPStateVariableListener, IEventListener
     }
 
     controlPointEventThread.terminate();
-    // terminate description retrieval threads
-    // the original list is changed when each description thread terminates so we use a persistent
-    // copy
-    for (Enumeration e = CollectionHelper.getPersistentEntryEnumeration(descriptionRetrievalList); e.hasMoreElements();)
-    {
-      ((CPDeviceDescriptionRetrieval)e.nextElement()).terminate();
-    }
+    // terminate pending description retrievals
+    descriptionRetrievalExecutor.terminate();
+    // stop subscription renewals
+    subscriptionRenewalScheduler.terminate();
     closeSocketStructures();
   }
 
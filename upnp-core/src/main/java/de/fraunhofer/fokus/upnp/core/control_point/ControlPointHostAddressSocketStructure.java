@@ -33,6 +33,7 @@ import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
 import java.net.NetworkInterface;
 
+import de.fraunhofer.fokus.upnp.configuration.UPnPDefaults;
 import de.fraunhofer.fokus.upnp.core.UPnPHostAddressSocketStructure;
 import de.fraunhofer.fokus.upnp.core.templates.TemplateControlPoint;
 import de.fraunhofer.fokus.upnp.http.HTTPConstant;
@@ -72,7 +73,11 @@ public class ControlPointHostAddressSocketStructure extends UPnPHostAddressSocke
     InetAddress address,
     boolean useEventCallbackUDPServer)
   {
-    super(networkInterface, address, controlPoint.getSSDPMulticastSocketAddress(), controlPoint.getIPVersion());
+    super(networkInterface,
+      address,
+      controlPoint.getSSDPMulticastSocketAddress(),
+      controlPoint.getIPVersion(),
+      UPnPDefaults.SSDP_USE_SELECTOR_RECEIVER);
 
     if (!valid)
     {
@@ -86,7 +91,8 @@ public class ControlPointHostAddressSocketStructure extends UPnPHostAddressSocke
           false,
           hostAddress,
           controlPoint.getCPEventMessageProcessor(),
-          controlPoint.getIPVersion());
+          controlPoint.getIPVersion(),
+          controlPoint.useSelectorHTTPServer());
 
       httpServerAddress = new InetSocketAddress(address, eventCallbackServer.getPort());
 
@@ -126,7 +132,8 @@ public class ControlPointHostAddressSocketStructure extends UPnPHostAddressSocke
       address,
       controlPoint.getSSDPMulticastSocketAddress(),
       ssdpUnicastPort,
-      controlPoint.getIPVersion());
+      controlPoint.getIPVersion(),
+      UPnPDefaults.SSDP_USE_SELECTOR_RECEIVER);
 
     if (!valid)
     {
@@ -140,7 +147,8 @@ public class ControlPointHostAddressSocketStructure extends UPnPHostAddressSocke
           true,
           hostAddress,
           controlPoint.getCPEventMessageProcessor(),
-          controlPoint.getIPVersion());
+          controlPoint.getIPVersion(),
+          controlPoint.useSelectorHTTPServer());
 
       // start optional UDP event server
       if (eventCallbackUDPServerPort != -1)
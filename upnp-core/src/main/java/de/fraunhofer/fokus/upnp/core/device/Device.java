@@ -116,6 +116,9 @@ public class Device extends AbstractDevice
   /** Flag to send multicast events */
   protected boolean                     useMulticastEvents                    = false;
 
+  /** Flag to handle HTTP connections with a selector based server */
+  protected boolean                     useSelectorHTTPServer                 = false;
+
   /** Number of services that use multicast events */
   protected int                         multicastEventThreadCount             = 0;
 
@@ -205,7 +208,7 @@ public class Device extends AbstractDevice
     maxage = UPnPDefaults.DEVICE_MAX_AGE;
     server = UPnPConstant.SERVER;
     NLS = UPnPConstant.NLS_Value;
-    deviceEventThread = new EventThread(toString());
+    deviceEventThread = EventThread.createSharedEventThread(toString());
 
     this.useMulticastEvents = deviceStartupConfiguration.getBooleanProperty("UseMulticastEvents");
     // store socket address used for multicast events
@@ -223,6 +226,7 @@ public class Device extends AbstractDevice
     {
       multicastEventHandler = new DeviceMulticastEventHandler(this);
     }
+    this.useSelectorHTTPServer = deviceStartupConfiguration.useSelectorHTTPServer();
     // set fixed ports if necessary
     if (deviceStartupConfiguration.useFixedPorts())
     {
@@ -1481,6 +1485,16 @@ public class Device extends AbstractDevice
     return useMulticastEvents;
   }
 
+  /**
+   * Retrieves the useSelectorHTTPServer flag.
+   * 
+   * @return True if the device HTTP servers should use a selector and a worker pool
+   */
+  public boolean useSelectorHTTPServer()
+  {
+    return useSelectorHTTPServer;
+  }
+
   /**
    * Retrieves the multicastEventAddress.
    * 
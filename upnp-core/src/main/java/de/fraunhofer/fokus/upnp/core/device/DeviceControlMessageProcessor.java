@@ -38,9 +38,10 @@ import de.fraunhofer.fokus.upnp.core.DeviceConstant;
 import de.fraunhofer.fokus.upnp.core.UPnPConstant;
 import de.fraunhofer.fokus.upnp.core.device.personalization.SecuredPersonalizationService;
 import de.fraunhofer.fokus.upnp.core.xml.SOAPActionArgument;
-import de.fraunhofer.fokus.upnp.core.xml.SOAPActionHandler;
+import de.fraunhofer.fokus.upnp.core.xml.SOAPActionParser;
 import de.fraunhofer.fokus.upnp.http.HTTPConstant;
 import de.fraunhofer.fokus.upnp.http.HTTPParser;
+import de.fraunhofer.fokus.upnp.soap.SOAPCodec;
 import de.fraunhofer.fokus.upnp.soap.SOAPConstant;
 import de.fraunhofer.fokus.upnp.soap.SOAPMessageBuilder;
 import de.fraunhofer.fokus.upnp.util.Base64Helper;
@@ -276,6 +277,8 @@ public class DeviceControlMessageProcessor
 
     // used to cache action response messages
     String requestBodyHashBase64 = null;
+    // cache generation before invocation, used to drop responses that raced with state changes
+    long cacheGeneration = service.getControlMessageCache().getGeneration();
 
     // retrieve action name from header
     // retrieve action name to use soap control cache
@@ -309,15 +312,15 @@ public class DeviceControlMessageProcessor
       // cacheable action found
       if (action != null && action.isCacheable())
       {
-        // build hash from request
+        // build hash from request, personalized requests are scoped to the requesting key
+        String cacheScope = keyObject != null ? keyObject.toRSAPublicKeyXMLDescription() : "";
         requestBodyHashBase64 =
-          Base64Helper.byteArrayToBase64(DigestHelper.calculateSHAHashForString(bodyAsUTF8String));
+          Base64Helper.byteArrayToBase64(DigestHelper.calculateSHAHashForString(cacheScope + bodyAsUTF8String));
 
-        // search hash in cache hash table
-        if (service.getControlMessageCache().containsKey(requestBodyHashBase64))
+        // search hash in cache
+        byte[] responseBodyByteArray = (byte[])service.getControlMessageCache().get(requestBodyHashBase64);
+        if (responseBodyByteArray != null)
         {
-
-          byte[] responseBodyByteArray = (byte[])service.getControlMessageCache().get(requestBodyHashBase64);
           String responseBody = StringHelper.byteArrayToUTF8String(responseBodyByteArray);
 
           // System.out.println("Found request " + service.toString() + "." + action.getName() +
@@ -340,34 +343,34 @@ public class DeviceControlMessageProcessor
     }
 
     // parse body
-    SOAPActionHandler soapActionHandler = new SOAPActionHandler();
+    SOAPActionParser soapActionParser = new SOAPActionParser();
     try
     {
-      soapActionHandler.parse(bodyAsUTF8String);
+      soapActionParser.parse(bodyAsUTF8String);
     } catch (SAXException e)
     {
       System.out.println("Could not parse SOAP request: " + e.getMessage());
       // error parsing request
       return buildInvokeError(serverAddress, UPnPConstant.SOAP_ERROR_401, device);
     }
-    if (soapActionHandler.isValid())
+    if (soapActionParser.isValid())
     {
       // check serviceType
-      if (!soapActionHandler.getServiceType().equals(service.getServiceType()))
+      if (!soapActionParser.getServiceType().equals(service.getServiceType()))
       {
-        logger.warn("incorrect service type = " + soapActionHandler.getServiceType());
+        logger.warn("incorrect service type = " + soapActionParser.getServiceType());
         return new HTTPMessageObject(HTTPConstant.HTTP_ERROR_400, serverAddress);
       }
       // check action name from body
-      Action action = service.getAction(soapActionHandler.getActionName());
+      Action action = service.getAction(soapActionParser.getActionName());
       if (action == null)
       {
-        logger.warn("incorrect action name = " + soapActionHandler.getActionName());
+        logger.warn("incorrect action name = " + soapActionParser.getActionName());
         return buildInvokeError(serverAddress, UPnPConstant.SOAP_ERROR_401, device);
       }
 
       // process arguments
-      action = processReceivedArguments(action, soapActionHandler.getArgumentList());
+      action = processReceivedArguments(action, soapActionParser.getArgumentList());
       if (action == null)
       {
         return buildInvokeError(serverAddress, UPnPConstant.SOAP_ERROR_402, device);
@@ -388,13 +391,21 @@ public class DeviceControlMessageProcessor
           logger.info("action successfully performed by device");
         }
 
-        String responseBody = buildActionResponseBody(service, action, device);
-        byte[] responseBodyByteArray = StringHelper.utf8StringToByteArray(responseBody);
+        byte[] responseBodyByteArray = SOAPCodec.encodeActionResponse(service.getServiceType(), action);
+        // the string representation is only needed to sign the response
+        String responseBody = null;
+        if (isSymmetricKeySigned || storedNonce != null)
+        {
+          responseBody = StringHelper.byteArrayToUTF8String(responseBodyByteArray);
+        }
 
         // a non-null value indicates that the action response is cacheable
         if (requestBodyHashBase64 != null)
         {
-          service.getControlMessageCache().put(requestBodyHashBase64, responseBodyByteArray);
+          service.getControlMessageCache().put(requestBodyHashBase64,
+            responseBodyByteArray,
+            responseBodyByteArray.length,
+            cacheGeneration);
           // System.out.println("Store " + service.toString() + "." + action.getName() +
           // " in soap cache: " + requestBodyHashBase64 + " -> " + responseMessage.getBody().length
           // + " bytes");
@@ -0,0 +1,536 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.device;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+import de.fraunhofer.fokus.upnp.configuration.UPnPDefaults;
+import de.fraunhofer.fokus.upnp.gena.GENAMessageBuilder;
+import de.fraunhofer.fokus.upnp.util.StringHelper;
+
+/**
+ * This class sends GENA event NOTIFY messages for all subscribers with a fixed number of worker
+ * threads. Each subscriber is handled by a DeviceSendEventNotifyThread that collects its events.
+ * A subscriber has at most one message in transit, so event keys are always sent in order. Events
+ * that arrive meanwhile are coalesced and sent with the next message.
+ * 
+ * Message bodies are built once for each set of events and shared by all subscribers that send
+ * the same events. Subscribers that answer slowly or not at all are deferred, so they cannot occupy
+ * all workers.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class DeviceEventNotifyDispatcher
+{
+
+  /** Dispatcher shared by all devices */
+  private static DeviceEventNotifyDispatcher defaultDispatcher;
+
+  /** Senders with pending events, in order of arrival */
+  private Vector                             queuedEntries          = new Vector();
+
+  /** All scheduled or running senders */
+  private Hashtable                          entryFromSenderTable   = new Hashtable();
+
+  /** Built message bodies, indexed by the sent events */
+  private Hashtable                          bodyFromEventsTable    = new Hashtable();
+
+  /** Keys of built message bodies, in order of creation */
+  private Vector                             bodyKeys               = new Vector();
+
+  /** Worker threads */
+  private WorkerThread[]                     workerThreads;
+
+  /** Sync object */
+  private Object                             lock                   = new Object();
+
+  private boolean                            terminateThread        = false;
+
+  private long                               sentMessageCount       = 0;
+
+  private long                               failedMessageCount     = 0;
+
+  private long                               deferredMessageCount   = 0;
+
+  private long                               builtBodyCount         = 0;
+
+  private long                               sharedBodyCount        = 0;
+
+  private long                               coalescedEventCount    = 0;
+
+  /**
+   * Creates a new instance of DeviceEventNotifyDispatcher and starts the worker threads.
+   * 
+   * @param name
+   *          Name for the worker threads
+   * @param workerCount
+   *          Number of worker threads
+   */
+  public DeviceEventNotifyDispatcher(String name, int workerCount)
+  {
+    workerThreads = new WorkerThread[Math.max(1, workerCount)];
+    for (int i = 0; i < workerThreads.length; i++)
+    {
+      workerThreads[i] = new WorkerThread(name + i);
+      workerThreads[i].start();
+    }
+  }
+
+  /**
+   * Retrieves the dispatcher that is shared by all devices.
+   * 
+   * @return The default dispatcher
+   */
+  public static synchronized DeviceEventNotifyDispatcher getDefaultDispatcher()
+  {
+    if (defaultDispatcher == null)
+    {
+      defaultDispatcher =
+        new DeviceEventNotifyDispatcher("DeviceEventNotifyDispatcher", UPnPDefaults.DEVICE_EVENT_NOTIFY_THREAD_COUNT);
+    }
+    return defaultDispatcher;
+  }
+
+  /**
+   * Requests the delivery of pending events for a sender. Senders that are already queued keep
+   * their position. Senders that are currently sending are queued again afterwards.
+   * 
+   * @param sender
+   *          The sender with new events
+   */
+  public void schedule(DeviceSendEventNotifyThread sender)
+  {
+    synchronized(lock)
+    {
+      if (terminateThread)
+      {
+        return;
+      }
+      SenderEntry entry = (SenderEntry)entryFromSenderTable.get(sender);
+      if (entry == null)
+      {
+        entry = new SenderEntry(sender);
+        entryFromSenderTable.put(sender, entry);
+      }
+      if (entry.running)
+      {
+        entry.rescheduled = true;
+        return;
+      }
+      if (!entry.queued)
+      {
+        entry.queued = true;
+        queuedEntries.add(entry);
+        lock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Removes a sender from the dispatcher.
+   * 
+   * @param sender
+   *          The sender
+   * 
+   * @return True if a worker currently sends a message for this sender, false if the sender was
+   *         removed or is unknown
+   */
+  public boolean remove(DeviceSendEventNotifyThread sender)
+  {
+    synchronized(lock)
+    {
+      SenderEntry entry = (SenderEntry)entryFromSenderTable.get(sender);
+      if (entry == null)
+      {
+        return false;
+      }
+      if (entry.running)
+      {
+        entry.removed = true;
+        return true;
+      }
+      queuedEntries.remove(entry);
+      entryFromSenderTable.remove(sender);
+      return false;
+    }
+  }
+
+  /**
+   * Retrieves the NOTIFY body for a list of events. Bodies are shared by all senders that send
+   * the same event objects in the same order.
+   * 
+   * @param eventObjects
+   *          List with StateVariableEventObjects
+   * 
+   * @return The UTF-8 encoded message body which must not be modified
+   */
+  public byte[] getNotifyBody(Vector eventObjects)
+  {
+    EventsKey key = new EventsKey(eventObjects.toArray());
+    synchronized(lock)
+    {
+      byte[] result = (byte[])bodyFromEventsTable.get(key);
+      if (result != null)
+      {
+        sharedBodyCount++;
+        return result;
+      }
+    }
+    byte[] result = StringHelper.utf8StringToByteArray(GENAMessageBuilder.buildNotifyBody(eventObjects));
+    synchronized(lock)
+    {
+      builtBodyCount++;
+      if (!bodyFromEventsTable.containsKey(key))
+      {
+        bodyFromEventsTable.put(key, result);
+        bodyKeys.add(key);
+        // forget oldest bodies
+        while (bodyKeys.size() > UPnPDefaults.DEVICE_EVENT_NOTIFY_BODY_CACHE_SIZE)
+        {
+          bodyFromEventsTable.remove(bodyKeys.remove(0));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Adds to the number of events that were replaced by a newer value before they were sent.
+   * 
+   * @param count
+   *          The number of replaced events
+   */
+  public void addCoalescedEvents(int count)
+  {
+    synchronized(lock)
+    {
+      coalescedEventCount += count;
+    }
+  }
+
+  /** Retrieves the number of senders with pending events. */
+  public int getQueuedSenderCount()
+  {
+    return queuedEntries.size();
+  }
+
+  /** Retrieves the number of sent messages, including failed messages. */
+  public long getSentMessageCount()
+  {
+    return sentMessageCount;
+  }
+
+  /** Retrieves the number of messages that could not be delivered. */
+  public long getFailedMessageCount()
+  {
+    return failedMessageCount;
+  }
+
+  /** Retrieves the number of messages that were delayed because the subscriber was slow. */
+  public long getDeferredMessageCount()
+  {
+    return deferredMessageCount;
+  }
+
+  /** Retrieves the number of built message bodies. */
+  public long getBuiltBodyCount()
+  {
+    return builtBodyCount;
+  }
+
+  /** Retrieves the number of messages that used an already built body. */
+  public long getSharedBodyCount()
+  {
+    return sharedBodyCount;
+  }
+
+  /** Retrieves the number of events that were replaced by a newer value before they were sent. */
+  public long getCoalescedEventCount()
+  {
+    return coalescedEventCount;
+  }
+
+  /** Retrieves a short description of the dispatcher counters. */
+  public String getStatistics()
+  {
+    return "Senders: " + entryFromSenderTable.size() + ", queued: " + getQueuedSenderCount() + ", sent: " +
+      sentMessageCount + ", failed: " + failedMessageCount + ", deferred: " + deferredMessageCount +
+      ", bodies built: " + builtBodyCount + ", bodies shared: " + sharedBodyCount + ", coalesced events: " +
+      coalescedEventCount;
+  }
+
+  /** Stops the worker threads. Pending events are discarded. */
+  public void terminate()
+  {
+    synchronized(lock)
+    {
+      terminateThread = true;
+      queuedEntries.clear();
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Removes the first queued entry that can be sent now. Must be called with the lock held.
+   * 
+   * @param time
+   *          The current time
+   * 
+   * @return The entry or null
+   */
+  private SenderEntry removeStartableEntry(long time)
+  {
+    for (int i = 0; i < queuedEntries.size(); i++)
+    {
+      SenderEntry entry = (SenderEntry)queuedEntries.elementAt(i);
+      if (entry.nextSendTime <= time)
+      {
+        queuedEntries.remove(i);
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Calculates the time until the next deferred entry can be sent. Must be called with the lock
+   * held.
+   * 
+   * @return The wait time in ms or 0 to wait for other events
+   */
+  private long getWaitTime(long time)
+  {
+    long result = Long.MAX_VALUE;
+    for (int i = 0; i < queuedEntries.size(); i++)
+    {
+      result = Math.min(result, ((SenderEntry)queuedEntries.elementAt(i)).nextSendTime - time);
+    }
+    return result == Long.MAX_VALUE ? 0 : Math.max(1, result);
+  }
+
+  /** Sends the pending events of one sender and queues the sender again if needed. */
+  private void processEntry(SenderEntry entry)
+  {
+    DeviceSendEventNotifyThread sender = entry.sender;
+    int eventErrors = sender.getSendEventErrors();
+    long startTime = System.currentTimeMillis();
+    boolean sent = false;
+    try
+    {
+      sent = sender.trySendEventObjects();
+    } catch (Exception e)
+    {
+      System.out.println("Error sending event message: " + e.getMessage());
+    }
+    long endTime = System.currentTimeMillis();
+    boolean failed = sender.getSendEventErrors() > eventErrors;
+
+    synchronized(lock)
+    {
+      entry.running = false;
+      if (sent)
+      {
+        sentMessageCount++;
+      }
+      if (failed)
+      {
+        failedMessageCount++;
+      }
+      if (entry.removed || terminateThread)
+      {
+        entryFromSenderTable.remove(sender);
+        lock.notifyAll();
+        return;
+      }
+      // defer subscribers that are slow or unreachable
+      long duration = endTime - startTime;
+      if (failed || duration > UPnPDefaults.DEVICE_EVENT_NOTIFY_SLOW_SUBSCRIBER_TIME)
+      {
+        long deferTime = failed ? UPnPDefaults.DEVICE_EVENT_NOTIFY_MAX_DEFER_TIME : duration;
+        entry.nextSendTime = endTime + Math.min(deferTime, UPnPDefaults.DEVICE_EVENT_NOTIFY_MAX_DEFER_TIME);
+      }
+      if (entry.rescheduled || failed && sender.hasPendingEvents())
+      {
+        if (entry.nextSendTime > endTime)
+        {
+          deferredMessageCount++;
+        }
+        entry.rescheduled = false;
+        entry.queued = true;
+        queuedEntries.add(entry);
+      }
+      lock.notifyAll();
+    }
+  }
+
+  /** This class holds the dispatch state of one sender. */
+  private static class SenderEntry
+  {
+
+    public DeviceSendEventNotifyThread sender;
+
+    public boolean                     queued       = false;
+
+    public boolean                     running      = false;
+
+    /** Flag that new events arrived while the sender was running */
+    public boolean                     rescheduled  = false;
+
+    public boolean                     removed      = false;
+
+    /** Earliest time for the next message */
+    public long                        nextSendTime = 0;
+
+    /**
+     * Creates a new instance of SenderEntry.
+     * 
+     * @param sender
+     */
+    public SenderEntry(DeviceSendEventNotifyThread sender)
+    {
+      this.sender = sender;
+    }
+  }
+
+  /** This class identifies a list of event objects by the identity of its elements. */
+  private static class EventsKey
+  {
+
+    private Object[] eventObjects;
+
+    private int      hashCode;
+
+    /**
+     * Creates a new instance of EventsKey.
+     * 
+     * @param eventObjects
+     */
+    public EventsKey(Object[] eventObjects)
+    {
+      this.eventObjects = eventObjects;
+      hashCode = eventObjects.length;
+      for (int i = 0; i < eventObjects.length; i++)
+      {
+        hashCode = hashCode * 31 + System.identityHashCode(eventObjects[i]);
+      }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#hashCode()
+     */
+    public int hashCode()
+    {
+      return hashCode;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    public boolean equals(Object obj)
+    {
+      if (!(obj instanceof EventsKey))
+      {
+        return false;
+      }
+      Object[] otherEventObjects = ((EventsKey)obj).eventObjects;
+      if (otherEventObjects.length != eventObjects.length)
+      {
+        return false;
+      }
+      for (int i = 0; i < eventObjects.length; i++)
+      {
+        if (otherEventObjects[i] != eventObjects[i])
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** This thread sends event messages for queued senders. */
+  private class WorkerThread extends Thread
+  {
+
+    /**
+     * Creates a new instance of WorkerThread.
+     * 
+     * @param name
+     *          Name of the thread
+     */
+    public WorkerThread(String name)
+    {
+      super(name);
+      setDaemon(true);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Thread#run()
+     */
+    public void run()
+    {
+      while (!terminateThread)
+      {
+        SenderEntry entry = null;
+        synchronized(lock)
+        {
+          while (!terminateThread && entry == null)
+          {
+            long time = System.currentTimeMillis();
+            entry = removeStartableEntry(time);
+            if (entry == null)
+            {
+              try
+              {
+                lock.wait(getWaitTime(time));
+              } catch (InterruptedException e)
+              {
+              }
+            }
+          }
+          if (entry == null)
+          {
+            return;
+          }
+          entry.queued = false;
+          entry.running = true;
+        }
+        processEntry(entry);
+      }
+    }
+  }
+
+}
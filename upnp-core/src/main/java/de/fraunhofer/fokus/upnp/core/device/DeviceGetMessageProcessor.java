@@ -29,8 +29,6 @@ package de.fraunhofer.fokus.upnp.core.device;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.Vector;
@@ -55,6 +53,7 @@ import de.fraunhofer.fokus.upnp.util.URLHelper;
 import de.fraunhofer.fokus.upnp.util.KeyValueVector;
 import de.fraunhofer.fokus.upnp.util.network.HTTPMessageHelper;
 import de.fraunhofer.fokus.upnp.util.network.HTTPMessageObject;
+import de.fraunhofer.fokus.upnp.util.network.HTTPStreamingBody;
 
 /**
  * This class handles the processing and response of an incoming GET or HEAD message to retrieve
@@ -255,22 +254,12 @@ public class DeviceGetMessageProcessor
         file = new File(absoluteFileName);
         found = file.exists();
       }
-      if (found)
+      if (found && file.isFile())
       {
         logger.info("File found");
         // System.out.println(device.toString() +": Deliver requested file: " + fileName);
 
-        try
-        {
-          return processResource(fileName,
-            new FileInputStream(file),
-            (int)file.length(),
-            httpParser,
-            device,
-            optionalHeaderLines);
-        } catch (FileNotFoundException e)
-        {
-        }
+        return processFileResource(fileName, file, httpParser, optionalHeaderLines);
       }
     }
     return null;
@@ -448,6 +437,123 @@ public class DeviceGetMessageProcessor
     return null;
   }
 
+  /**
+   * Builds the response for a file resource. The file content is not read into memory. Instead,
+   * the response contains a streaming body that is sent by the HTTP server. Single and multiple
+   * byte ranges are supported.
+   * 
+   * @param resourceName
+   *          The name of the resource
+   * @param file
+   *          The file
+   * @param httpParser
+   *          Associated parser
+   * @param optionalHeaderLines
+   *          Additional header lines for the response
+   * 
+   * @return Response message object (HTTP error or requested data)
+   */
+  protected static HTTPMessageObject processFileResource(String resourceName,
+    File file,
+    HTTPParser httpParser,
+    Vector optionalHeaderLines)
+  {
+    logger.info("File resource found");
+    String mimetype = FileExtensionHelper.getMimeTypeByFileExtension(resourceName);
+    long resourceSize = file.length();
+
+    // check for HEAD request
+    if (httpParser.isHEADRequest())
+    {
+      String responseHeader =
+        HTTPMessageBuilder.createGETorHEADResponse(httpParser.isHTTP_1_0_Request(),
+          HTTPConstant.DEFAULT_LANGUAGE,
+          resourceSize + "",
+          mimetype,
+          DateTimeHelper.getRFC1123Date(),
+          optionalHeaderLines);
+
+      logger.info("HEAD message is valid & a HEAD response message will be created and sent");
+      return new HTTPMessageObject(responseHeader, httpParser.getHTTPMessageObject().getDestinationAddress());
+    }
+    if (!httpParser.isGETRequest())
+    {
+      return null;
+    }
+    // check for partial GET request
+    long[][] ranges = null;
+    if (httpParser.hasField(CommonConstants.RANGE))
+    {
+      ranges = HTTPMessageHelper.getRanges(httpParser.getValue(CommonConstants.RANGE), resourceSize);
+    }
+    // invalid range headers are ignored
+    if (ranges != null && ranges.length == 0)
+    {
+      logger.info("Partial GET message contains no satisfiable range");
+      return new HTTPMessageObject(HTTPConstant.HTTP_ERROR_416 +
+        HTTPHeaderBuilder.buildHeader(CommonConstants.CONTENT_RANGE, "bytes */" + resourceSize) +
+        HTTPHeaderBuilder.buildContentLength("0"), httpParser.getHTTPMessageObject().getDestinationAddress());
+    }
+    HTTPStreamingBody streamingBody = new HTTPStreamingBody(file);
+    String responseHeader = null;
+    if (ranges == null)
+    {
+      // normal GET request, return complete resource
+      streamingBody.addFileRegion(0, resourceSize);
+      responseHeader =
+        HTTPMessageBuilder.createGETorHEADResponse(httpParser.isHTTP_1_0_Request(),
+          HTTPConstant.DEFAULT_LANGUAGE,
+          resourceSize + "",
+          mimetype,
+          DateTimeHelper.getRFC1123Date(),
+          optionalHeaderLines);
+
+      logger.info("GET message is valid & a GET response message will be created and sent");
+    } else if (ranges.length == 1)
+    {
+      streamingBody.addFileRegion(ranges[0][0], ranges[0][1] - ranges[0][0]);
+      responseHeader =
+        HTTPMessageBuilder.createPartialGETResponse(HTTPConstant.DEFAULT_LANGUAGE,
+          streamingBody.getLength() + "",
+          mimetype,
+          DateTimeHelper.getRFC1123Date(),
+          "bytes " + ranges[0][0] + "-" + (ranges[0][1] - 1) + "/" + resourceSize,
+          optionalHeaderLines);
+
+      logger.info("Partial GET message is valid & a partial GET response message will be created and sent");
+    } else
+    {
+      // multiple ranges are sent as multipart/byteranges
+      String boundary = "UPNP_BYTERANGES_" + Long.toHexString(System.currentTimeMillis());
+      for (int i = 0; i < ranges.length; i++)
+      {
+        streamingBody.addData(StringHelper.stringToByteArray((i == 0 ? "" : CommonConstants.NEW_LINE) + "--" +
+          boundary + CommonConstants.NEW_LINE +
+          HTTPHeaderBuilder.buildContentType(mimetype) +
+          HTTPHeaderBuilder.buildHeader(CommonConstants.CONTENT_RANGE, "bytes " + ranges[i][0] + "-" +
+            (ranges[i][1] - 1) + "/" + resourceSize) + CommonConstants.NEW_LINE));
+        streamingBody.addFileRegion(ranges[i][0], ranges[i][1] - ranges[i][0]);
+      }
+      streamingBody.addData(StringHelper.stringToByteArray(CommonConstants.NEW_LINE + "--" + boundary + "--" +
+        CommonConstants.NEW_LINE));
+
+      responseHeader =
+        HTTPMessageBuilder.createPartialGETResponse(HTTPConstant.DEFAULT_LANGUAGE,
+          streamingBody.getLength() + "",
+          "multipart/byteranges; boundary=" + boundary,
+          DateTimeHelper.getRFC1123Date(),
+          null,
+          optionalHeaderLines);
+
+      logger.info("Partial GET message with " + ranges.length + " ranges is valid");
+    }
+    HTTPMessageObject result =
+      new HTTPMessageObject(responseHeader, httpParser.getHTTPMessageObject().getDestinationAddress());
+    result.setStreamingBody(streamingBody);
+
+    return result;
+  }
+
   /**
    * Tests if the message parameterURL is valid and return the requested description
    * 
@@ -27,18 +27,21 @@
 */
 package de.fraunhofer.fokus.upnp.core.device;
 
+import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 
+import de.fraunhofer.fokus.upnp.configuration.UPnPDefaults;
 import de.fraunhofer.fokus.upnp.core.UPnPHostAddressSocketStructure;
 import de.fraunhofer.fokus.upnp.core.templates.TemplateDevice;
 import de.fraunhofer.fokus.upnp.http.HTTPConstant;
 import de.fraunhofer.fokus.upnp.http.HTTPServer;
 import de.fraunhofer.fokus.upnp.ssdp.SSDPConstant;
 import de.fraunhofer.fokus.upnp.util.network.IPHelper;
+import de.fraunhofer.fokus.upnp.util.network.SocketHelper;
 
 /**
  * This class is used to bundle all sockets that are needed for one external device interface.
@@ -57,7 +60,7 @@ public class DeviceHostAddressSocketStructure extends UPnPHostAddressSocketStruc
   private HTTPServer        httpServer;
 
   /** Optional socket used for multicast event messages */
-  protected MulticastSocket multicastEventSocket;
+  protected DatagramSocket  multicastEventSocket;
 
   private InetSocketAddress multicastEventSocketAddress = null;
 
@@ -107,7 +110,12 @@ public class DeviceHostAddressSocketStructure extends UPnPHostAddressSocketStruc
     InetSocketAddress multicastEventAddress,
     InetAddress address)
   {
-    super(networkInterface, address, device.getSSDPMulticastSocketAddress(), ssdpUnicastPort, device.getIPVersion());
+    super(networkInterface,
+      address,
+      device.getSSDPMulticastSocketAddress(),
+      ssdpUnicastPort,
+      device.getIPVersion(),
+      UPnPDefaults.SSDP_USE_SELECTOR_RECEIVER);
 
     if (!valid)
     {
@@ -118,7 +126,12 @@ public class DeviceHostAddressSocketStructure extends UPnPHostAddressSocketStruc
     {
       // start server for message processing
       httpServer =
-        new HTTPServer(httpServerPort, true, hostAddress, device.getHTTPMessageProcessor(), device.getIPVersion());
+        new HTTPServer(httpServerPort,
+          true,
+          hostAddress,
+          device.getHTTPMessageProcessor(),
+          device.getIPVersion(),
+          device.useSelectorHTTPServer());
       httpServer.setServerName(device.toString());
 
       TemplateDevice.printMessage(device.toString() + ":   Started HTTP device server on port " + httpServer.getPort());
@@ -139,16 +152,37 @@ public class DeviceHostAddressSocketStructure extends UPnPHostAddressSocketStruc
       this.multicastEventSocketAddress = multicastEventAddress;
       try
       {
-        multicastEventSocket = new MulticastSocket(multicastEventAddress.getPort());
-        multicastEventSocket.setInterface(address);
         // IP version 4
-        if (device.getIPVersion() == SSDPConstant.IP4)
+        InetAddress groupAddress =
+          device.getIPVersion() == SSDPConstant.IP4 ? multicastEventAddress.getAddress() : null;
+        if (UPnPDefaults.SSDP_USE_SELECTOR_RECEIVER)
+        {
+          try
+          {
+            multicastEventSocket =
+              SocketHelper.createSelectableMulticastSocket(networkInterface,
+                address,
+                new InetSocketAddress(multicastEventAddress.getPort()),
+                groupAddress,
+                SSDPConstant.TTL);
+          } catch (Exception e)
+          {
+            logger.warn("cannot create selectable multicast event socket: " + e.getMessage());
+          }
+        }
+        if (multicastEventSocket == null)
         {
-          multicastEventSocket.joinGroup(multicastEventAddress.getAddress());
+          MulticastSocket multicastSocket = new MulticastSocket(multicastEventAddress.getPort());
+          multicastEventSocket = multicastSocket;
+          multicastSocket.setInterface(address);
+          if (groupAddress != null)
+          {
+            multicastSocket.joinGroup(groupAddress);
+          }
+          // set timeout to simplify message processing for multiple sockets
+          multicastSocket.setSoTimeout(10);
+          multicastSocket.setTimeToLive(SSDPConstant.TTL);
         }
-        // set timeout to simplify message processing for multiple sockets
-        multicastEventSocket.setSoTimeout(10);
-        multicastEventSocket.setTimeToLive(SSDPConstant.TTL);
 
         TemplateDevice.printMessage(device.toString() + ":   Started multicast event socket on address " +
           IPHelper.toString(multicastEventAddress));
@@ -176,7 +210,11 @@ public class DeviceHostAddressSocketStructure extends UPnPHostAddressSocketStruc
    */
   public DeviceHostAddressSocketStructure(Device device, NetworkInterface networkInterface, InetAddress address)
   {
-    super(networkInterface, address, device.getSSDPMulticastSocketAddress(), device.getIPVersion());
+    super(networkInterface,
+      address,
+      device.getSSDPMulticastSocketAddress(),
+      device.getIPVersion(),
+      UPnPDefaults.SSDP_USE_SELECTOR_RECEIVER);
 
     if (!valid)
     {
@@ -191,7 +229,8 @@ public class DeviceHostAddressSocketStructure extends UPnPHostAddressSocketStruc
           false,
           hostAddress,
           device.getHTTPMessageProcessor(),
-          device.getIPVersion());
+          device.getIPVersion(),
+          device.useSelectorHTTPServer());
       httpServer.setServerName(device.toString());
 
       TemplateDevice.printMessage(device.toString() + ":   Started HTTP device server on port " + httpServer.getPort());
@@ -226,7 +265,7 @@ public class DeviceHostAddressSocketStructure extends UPnPHostAddressSocketStruc
    * 
    * @return The multicastEventSocket
    */
-  public MulticastSocket getMulticastEventSocket()
+  public DatagramSocket getMulticastEventSocket()
   {
     return multicastEventSocket;
   }
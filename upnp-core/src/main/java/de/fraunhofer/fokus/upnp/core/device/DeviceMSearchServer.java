@@ -39,18 +39,24 @@ import de.fraunhofer.fokus.upnp.ssdp.MSearchResponseMessage;
 import de.fraunhofer.fokus.upnp.util.CommonConstants;
 import de.fraunhofer.fokus.upnp.util.StringHelper;
 import de.fraunhofer.fokus.upnp.util.network.BinaryMessageObject;
+import de.fraunhofer.fokus.upnp.util.network.DatagramChannelReceiver;
 import de.fraunhofer.fokus.upnp.util.network.IPHelper;
 import de.fraunhofer.fokus.upnp.util.network.SocketHelper;
 import de.fraunhofer.fokus.upnp.util.network.UDPPacketManager;
-import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
+import de.fraunhofer.fokus.upnp.util.network.listener.IDatagramReceiveListener;
+import de.fraunhofer.fokus.upnp.util.threads.EventThread;
+import de.fraunhofer.fokus.upnp.util.threads.IScheduledEventListener;
 
 /**
- * Devices use this class to receive M-SEARCH messages from control points.
+ * Devices use this class to receive M-SEARCH messages from control points. Multicast sockets
+ * created from channels are served by the shared DatagramChannelReceiver, other sockets are
+ * polled. The server is triggered when a response is queued and otherwise only runs when the next
+ * response is due, when received packets expire or when polled sockets must be read.
  * 
  * @author icu, Alexander Koenig
  * 
  */
-public class DeviceMSearchServer implements IEventListener
+public class DeviceMSearchServer implements IScheduledEventListener, IDatagramReceiveListener
 {
 
   // do not process the same received message within one second
@@ -77,6 +83,9 @@ public class DeviceMSearchServer implements IEventListener
   /** Associated device */
   private Device                        device;
 
+  /** Flag that at least one socket could not be registered at the receiver and must be polled */
+  private boolean                       socketsPolled            = false;
+
   /**
    * Constructor for SSDPServer class which starts the SSDP Server
    * 
@@ -145,6 +154,8 @@ public class DeviceMSearchServer implements IEventListener
         // add packets to send list
         responseMessages.add(responseMessage);
       }
+      // reschedule the server for the new responses
+      device.getDeviceEventThread().trigger(this);
     }
   }
 
@@ -160,6 +171,29 @@ public class DeviceMSearchServer implements IEventListener
     udpPacketManager.triggerEvents();
   }
 
+  /*
+   * (non-Javadoc)
+   * 
+   * @see de.fraunhofer.fokus.upnp.util.threads.IScheduledEventListener#getNextEventTime()
+   */
+  public long getNextEventTime()
+  {
+    // polled sockets are read regularly, otherwise check for sockets of new network interfaces
+    long result =
+      System.currentTimeMillis() +
+        (socketsPolled ? EventThread.EVENT_THREAD_SLEEP_TIME : DatagramChannelReceiver.REGISTRATION_INTERVAL);
+
+    result = Math.min(result, udpPacketManager.getNextEventTime());
+    synchronized(responseMessages)
+    {
+      for (int i = 0; i < responseMessages.size(); i++)
+      {
+        result = Math.min(result, ((MSearchResponseMessage)responseMessages.elementAt(i)).getResponseTime());
+      }
+    }
+    return result;
+  }
+
   /**
    * Retrieves the ssdpMessageModifier.
    * 
@@ -190,6 +224,7 @@ public class DeviceMSearchServer implements IEventListener
   /** Reads multicast messages from all network interfaces */
   private void readPendingMessages()
   {
+    boolean polled = false;
     // check all associated multicast sockets for received packets
     Vector socketStructures = device.getSocketStructures();
     for (int i = 0; i < socketStructures.size(); i++)
@@ -197,9 +232,18 @@ public class DeviceMSearchServer implements IEventListener
       DeviceHostAddressSocketStructure socketStructure =
         (DeviceHostAddressSocketStructure)socketStructures.elementAt(i);
 
+      // packets are dispatched by the receiver as soon as they arrive
+      DatagramChannelReceiver receiver = DatagramChannelReceiver.getDefaultReceiver();
+      if (receiver.register(socketStructure.getSSDPMulticastSocket(),
+        this,
+        udpPacketManager,
+        socketStructure))
+      {
+        continue;
+      }
+      polled = true;
       // stay to one socket until all pending packets were read
       boolean packetFound = true;
-      int packetCount = 0;
       while (packetFound)
       {
         BinaryMessageObject message =
@@ -209,7 +253,6 @@ public class DeviceMSearchServer implements IEventListener
 
         if (message != null)
         {
-          packetCount++;
           // set destination address
           message.setDestinationAddress(socketStructure.getSSDPMulticastSocketAddress());
           processReceivedMessage(socketStructure, message);
@@ -219,6 +262,21 @@ public class DeviceMSearchServer implements IEventListener
         }
       }
     }
+    socketsPolled = polled;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see de.fraunhofer.fokus.upnp.util.network.listener.IDatagramReceiveListener#datagramReceived(
+   *      de.fraunhofer.fokus.upnp.util.network.BinaryMessageObject, java.lang.Object)
+   */
+  public void datagramReceived(BinaryMessageObject message, Object attachment)
+  {
+    DeviceHostAddressSocketStructure socketStructure = (DeviceHostAddressSocketStructure)attachment;
+    // set destination address
+    message.setDestinationAddress(socketStructure.getSSDPMulticastSocketAddress());
+    processReceivedMessage(socketStructure, message);
   }
 
   /** Sends generated response messages for received M-SEARCH requests */
@@ -232,7 +290,7 @@ public class DeviceMSearchServer implements IEventListener
       {
         MSearchResponseMessage message = (MSearchResponseMessage)responseMessages.elementAt(i);
         // check if message is in time for sending
-        if (message.getResponseTime() < System.currentTimeMillis())
+        if (message.getResponseTime() <= System.currentTimeMillis())
         {
           logger.info("Send M-SEARCH response message to " +
             IPHelper.toString(message.getResponsePacket().getDestinationAddress()));
@@ -40,10 +40,12 @@ import de.fraunhofer.fokus.upnp.util.CommonConstants;
 import de.fraunhofer.fokus.upnp.util.StringHelper;
 import de.fraunhofer.fokus.upnp.util.URLHelper;
 import de.fraunhofer.fokus.upnp.util.network.BinaryMessageObject;
+import de.fraunhofer.fokus.upnp.util.network.DatagramChannelReceiver;
 import de.fraunhofer.fokus.upnp.util.network.HTTPMessageObject;
 import de.fraunhofer.fokus.upnp.util.network.IPHelper;
 import de.fraunhofer.fokus.upnp.util.network.SocketHelper;
 import de.fraunhofer.fokus.upnp.util.network.UDPPacketManager;
+import de.fraunhofer.fokus.upnp.util.network.listener.IDatagramReceiveListener;
 import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
 
 /**
@@ -52,7 +54,7 @@ import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
  * @author Alexander Koenig
  * 
  */
-public class DeviceMulticastEventHandler implements IEventListener
+public class DeviceMulticastEventHandler implements IEventListener, IDatagramReceiveListener
 {
 
   // do not process the same received message within one second
@@ -232,6 +234,15 @@ public class DeviceMulticastEventHandler implements IEventListener
       DeviceHostAddressSocketStructure socketStructure =
         (DeviceHostAddressSocketStructure)socketStructures.elementAt(i);
 
+      // packets are dispatched by the receiver as soon as they arrive
+      DatagramChannelReceiver receiver = DatagramChannelReceiver.getDefaultReceiver();
+      if (receiver.register(socketStructure.getMulticastEventSocket(),
+        this,
+        udpPacketManager,
+        socketStructure))
+      {
+        continue;
+      }
       // stay to one socket until all pending packets were read
       boolean packetFound = true;
       while (packetFound)
@@ -256,6 +267,21 @@ public class DeviceMulticastEventHandler implements IEventListener
     udpPacketManager.triggerEvents();
   }
 
+  /*
+   * (non-Javadoc)
+   * 
+   * @see de.fraunhofer.fokus.upnp.util.network.listener.IDatagramReceiveListener#datagramReceived(
+   *      de.fraunhofer.fokus.upnp.util.network.BinaryMessageObject, java.lang.Object)
+   */
+  public void datagramReceived(BinaryMessageObject message, Object attachment)
+  {
+    DeviceHostAddressSocketStructure socketStructure = (DeviceHostAddressSocketStructure)attachment;
+    // set destination address
+    message.setDestinationAddress((InetSocketAddress)socketStructure.getMulticastEventSocket()
+      .getLocalSocketAddress());
+    processReceivedMessage(socketStructure, message);
+  }
+
   /** Close the multicast event handler. */
   public void terminate()
   {
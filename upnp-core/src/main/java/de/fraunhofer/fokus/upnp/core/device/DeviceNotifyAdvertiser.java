@@ -38,6 +38,7 @@ import de.fraunhofer.fokus.upnp.configuration.UPnPDefaults;
 import de.fraunhofer.fokus.upnp.ssdp.NotifyMessageBuilder;
 import de.fraunhofer.fokus.upnp.ssdp.SSDPConstant;
 import de.fraunhofer.fokus.upnp.util.StringHelper;
+import de.fraunhofer.fokus.upnp.util.network.SocketHelper;
 import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
 
 /**
@@ -130,7 +131,7 @@ public class DeviceNotifyAdvertiser implements IEventListener
       // "+SSDPConstant.getSSDPMulticastAddress().getHostAddress());
       for (int j = 0; j < UPnPDefaults.UDP_SEND_COUNT; j++)
       {
-        socket.send(packet);
+        SocketHelper.sendPacket(socket, packet);
         Thread.sleep(UPnPDefaults.DEVICE_NOTIFY_MESSAGE_DELAY);
       }
     } catch (Exception e)
@@ -35,6 +35,7 @@ import java.util.Vector;
 
 import org.apache.log4j.Logger;
 
+import de.fraunhofer.fokus.upnp.configuration.HTTPDefaults;
 import de.fraunhofer.fokus.upnp.configuration.UPnPDefaults;
 import de.fraunhofer.fokus.upnp.core.UPnPConstant;
 import de.fraunhofer.fokus.upnp.gena.GENAConstant;
@@ -43,7 +44,6 @@ import de.fraunhofer.fokus.upnp.http.HTTPMessageFlow;
 import de.fraunhofer.fokus.upnp.http.HTTPOverUDPClient;
 import de.fraunhofer.fokus.upnp.http.HTTPParser;
 import de.fraunhofer.fokus.upnp.http.IHTTPMessageFlow;
-import de.fraunhofer.fokus.upnp.util.StringHelper;
 import de.fraunhofer.fokus.upnp.util.ThreadHelper;
 import de.fraunhofer.fokus.upnp.util.URLHelper;
 import de.fraunhofer.fokus.upnp.util.network.HTTPMessageObject;
@@ -51,10 +51,12 @@ import de.fraunhofer.fokus.upnp.util.network.IPHelper;
 
 /**
  * This class is used to send GENA event NOTIFY messages to a subscriber or to a multicast address.
+ * It collects the events for one target. The messages are sent by the shared
+ * DeviceEventNotifyDispatcher.
  * 
  * @author Alexander Koenig
  */
-public class DeviceSendEventNotifyThread extends Thread implements IHTTPMessageFlow
+public class DeviceSendEventNotifyThread implements IHTTPMessageFlow
 {
 
   /** GENA logger */
@@ -108,32 +110,27 @@ public class DeviceSendEventNotifyThread extends Thread implements IHTTPMessageF
   /** Associated service */
   private DeviceService                         service;
 
+  /** Dispatcher that sends the event messages */
+  protected DeviceEventNotifyDispatcher         dispatcher;
+
   /** Creates a new instance of DeviceSendEventNotifyThread */
   public DeviceSendEventNotifyThread(DeviceSubscribedControlPointHandler deviceSubscribedControlPointThread)
   {
-    super("DeviceSendEventNotifyThread [" + deviceSubscribedControlPointThread.getDeviceService().toString() + " for " +
-      ((URL)deviceSubscribedControlPointThread.getDeliveryURLs().elementAt(0)).toString() + "]");
-
     this.deviceSubscribedControlPointThread = deviceSubscribedControlPointThread;
+    dispatcher = DeviceEventNotifyDispatcher.getDefaultDispatcher();
     IPVersion = deviceSubscribedControlPointThread.getDeviceService().getIPVersion();
-
-    start();
   }
 
   /** Creates a new instance of DeviceSendEventNotifyThread for multicast event delivery */
   public DeviceSendEventNotifyThread(DeviceService deviceService, InetSocketAddress deliveryAddress)
   {
-    super("DeviceSendEventNotifyThread [" + deviceService.toString() + " for " + IPHelper.toString(deliveryAddress) +
-      "]");
-
     this.multicastDeliveryAddress = deliveryAddress;
     this.service = deviceService;
+    dispatcher = DeviceEventNotifyDispatcher.getDefaultDispatcher();
     // URL can be created as soon as the device UDN is known (after TemplateDevice.runDevice())
     multicastDeliveryURL = null;
     currentEventKey = 1;
     IPVersion = deviceService.getIPVersion();
-
-    start();
   }
 
   /** Sends the initial event message */
@@ -145,8 +142,12 @@ public class DeviceSendEventNotifyThread extends Thread implements IHTTPMessageF
       // set initial event key
       currentEventKey = deviceSubscribedControlPointThread.incrementEventKey();
 
-      this.eventObjects.addAll(eventObjects);
+      for (int i = 0; i < eventObjects.size(); i++)
+      {
+        addEventObject((StateVariableEventObject)eventObjects.elementAt(i));
+      }
     }
+    dispatcher.schedule(this);
   }
 
   /** Adds new events targeted to this subscriber to the event queue. */
@@ -172,7 +173,7 @@ public class DeviceSendEventNotifyThread extends Thread implements IHTTPMessageF
         if (currentEventObject.getPublicKey() == null || deviceSubscribedControlPointThread != null &&
           currentEventObject.getPublicKey().equals(deviceSubscribedControlPointThread.getSubscriberPublicKey()))
         {
-          this.eventObjects.add(currentEventObject);
+          addEventObject(currentEventObject);
         }
       }
       if (this.eventObjects.size() > 0 && deviceSubscribedControlPointThread != null)
@@ -180,6 +181,59 @@ public class DeviceSendEventNotifyThread extends Thread implements IHTTPMessageF
         deviceSubscribedControlPointThread.getDeviceService().incEventTriggerCount();
       }
     }
+    if (this.eventObjects.size() > 0)
+    {
+      dispatcher.schedule(this);
+    }
+  }
+
+  /**
+   * Adds one event to the event queue. An older event for the same state variable is replaced
+   * because only the latest value must be sent. Must be called with the event lock held.
+   * 
+   * @param eventObject
+   *          The new event
+   */
+  protected void addEventObject(StateVariableEventObject eventObject)
+  {
+    int index = indexOfEventObject(eventObjects, eventObject);
+    if (index != -1)
+    {
+      eventObjects.remove(index);
+      dispatcher.addCoalescedEvents(1);
+    }
+    eventObjects.add(eventObject);
+  }
+
+  /**
+   * Searches an event for the same state variable and public key.
+   * 
+   * @param eventObjects
+   *          List with StateVariableEventObjects
+   * @param eventObject
+   *          The event
+   * 
+   * @return The index of the event or -1
+   */
+  protected int indexOfEventObject(Vector eventObjects, StateVariableEventObject eventObject)
+  {
+    for (int i = 0; i < eventObjects.size(); i++)
+    {
+      StateVariableEventObject currentEventObject = (StateVariableEventObject)eventObjects.elementAt(i);
+      if (currentEventObject.getName().equals(eventObject.getName()) &&
+        (currentEventObject.getPublicKey() == null ? eventObject.getPublicKey() == null
+          : currentEventObject.getPublicKey().equals(eventObject.getPublicKey())))
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Checks if there are events that wait for delivery. */
+  public boolean hasPendingEvents()
+  {
+    return eventObjects.size() > 0;
   }
 
   /** Retrieves the number of event messages that could not be sent */
@@ -188,11 +242,15 @@ public class DeviceSendEventNotifyThread extends Thread implements IHTTPMessageF
     return eventErrors;
   }
 
-  /** Sends an outstanding event message */
-  protected void trySendEventObjects()
+  /**
+   * Sends an outstanding event message. This method is called by the event notify dispatcher.
+   * 
+   * @return True if a message was sent, false otherwise
+   */
+  protected boolean trySendEventObjects()
   {
     // check if there is work to do
-    if (eventObjects.size() > 0)
+    if (eventObjects.size() > 0 && !terminateThread)
     {
       //      long sendStart = HighResTimerHelper.getTimeStamp();
 
@@ -200,7 +258,7 @@ public class DeviceSendEventNotifyThread extends Thread implements IHTTPMessageF
       byte[] messageBody = null;
       synchronized(eventLock)
       {
-        messageBody = StringHelper.utf8StringToByteArray(GENAMessageBuilder.buildNotifyBody(eventObjects));
+        messageBody = dispatcher.getNotifyBody(eventObjects);
 
         // copy to pending event vectors
         // this is done to allow a later retry for event sending
@@ -228,7 +286,7 @@ public class DeviceSendEventNotifyThread extends Thread implements IHTTPMessageF
         {
           System.out.println("Try to send multicast event packet, but delivery URL is still invalid");
         }
-        return;
+        return multicastDeliveryURL != null;
       }
       // standard subscriber event handling
       // send small messages over UDP if possible
@@ -249,6 +307,9 @@ public class DeviceSendEventNotifyThread extends Thread implements IHTTPMessageF
       } else
       {
         messageOptions.put(HTTPMessageFlow.MESSAGE_OPTION_KEY_MESSAGE_TYPE, TCP);
+        // do not let slow subscribers block the event delivery for too long
+        messageOptions.put(HTTPMessageFlow.MESSAGE_OPTION_KEY_READ_TIMEOUT,
+          new Integer(HTTPDefaults.EVENT_NOTIFY_TIMEOUT));
         sendEventsOverTCP(messageOptions);
       }
       //      long time = HighResTimerHelper.getTimeStamp();
@@ -256,7 +317,10 @@ public class DeviceSendEventNotifyThread extends Thread implements IHTTPMessageF
       //      System.out.print(duration + ",");
       // performance evaluation
       deviceSubscribedControlPointThread.getDeviceService().incEventHandleCount();
+
+      return true;
     }
+    return false;
   }
 
   /** Handles the case that delivery to all known URLs fails. */
@@ -268,8 +332,15 @@ public class DeviceSendEventNotifyThread extends Thread implements IHTTPMessageF
     {
       if (UPnPDefaults.DEVICE_FAULT_TOLERANT_EVENT_COLLECTION)
       {
-        // add at start to keep event order
-        eventObjects.addAll(0, pendingEventObjects);
+        // add at start to keep event order, skip events that were replaced meanwhile
+        for (int i = pendingEventObjects.size() - 1; i >= 0; i--)
+        {
+          StateVariableEventObject pendingEventObject = (StateVariableEventObject)pendingEventObjects.elementAt(i);
+          if (indexOfEventObject(eventObjects, pendingEventObject) == -1)
+          {
+            eventObjects.insertElementAt(pendingEventObject, 0);
+          }
+        }
         // clear pending variables after copying back
         pendingEventObjects.clear();
         if (!terminateThread)
@@ -412,21 +483,6 @@ public class DeviceSendEventNotifyThread extends Thread implements IHTTPMessageF
     return currentEventKey;
   }
 
-  public void run()
-  {
-    while (!terminateThread)
-    {
-      trySendEventObjects();
-      ThreadHelper.sleep(10);
-    }
-    terminated = true;
-    // TemplateService.printMessage(deviceSubscribedControlPointThread.getDeviceService().toString()
-    // +
-    // ": Send event thread for " +
-    // ((URL)deviceSubscribedControlPointThread.getDeliveryURLs().elementAt(0)).toString() + " was
-    // shut down");
-  }
-
   /*
    * (non-Javadoc)
    * 
@@ -507,14 +563,16 @@ public class DeviceSendEventNotifyThread extends Thread implements IHTTPMessageF
     return null;
   }
 
-  /** Terminates the event thread */
+  /** Terminates the event delivery */
   public void terminate()
   {
     terminateThread = true;
-    while (!terminated)
+    // wait for a message that is currently sent
+    while (dispatcher.remove(this))
     {
-      ThreadHelper.sleep(50);
+      ThreadHelper.sleep(10);
     }
+    terminated = true;
   }
 
 }
@@ -49,6 +49,7 @@ import de.fraunhofer.fokus.upnp.core.exceptions.DescriptionNotCreatedException;
 import de.fraunhofer.fokus.upnp.core.templates.TemplateService;
 import de.fraunhofer.fokus.upnp.http.HTTPConstant;
 import de.fraunhofer.fokus.upnp.http.HTTPParser;
+import de.fraunhofer.fokus.upnp.util.BoundedCache;
 import de.fraunhofer.fokus.upnp.util.CollectionHelper;
 import de.fraunhofer.fokus.upnp.util.CommonConstants;
 import de.fraunhofer.fokus.upnp.util.DateTimeHelper;
@@ -96,8 +97,8 @@ public class DeviceService extends AbstractService implements IDeviceStateVariab
   /** Associated device */
   private Device                       device;
 
-  /** SOAP control cache */
-  private Hashtable                    controlMessageCache          = new Hashtable();
+  /** SOAP control cache, cleared on each change of an evented state variable */
+  private BoundedCache                 controlMessageCache;
 
   /**
    * Creates DeviceService object
@@ -112,6 +113,10 @@ public class DeviceService extends AbstractService implements IDeviceStateVariab
     super(serviceType, serviceId, IPVersion);
     System.out.println("    Create service " + toString() + "...");
     this.device = device;
+    controlMessageCache =
+      new BoundedCache(UPnPDefaults.DEVICE_CONTROL_CACHE_MAX_ENTRIES,
+        UPnPDefaults.DEVICE_CONTROL_CACHE_MAX_SIZE,
+        UPnPDefaults.DEVICE_CONTROL_CACHE_TIME_TO_LIVE);
     registerStateVariableListener();
     eventCollector = new DeviceServiceEventCollector(this);
     // check if this service should start a multicast event thread
@@ -215,6 +220,9 @@ public class DeviceService extends AbstractService implements IDeviceStateVariab
    */
   public void stateVariableChanged(StateVariable stateVariable, RSAPublicKey publicKey)
   {
+    // cached action responses may depend on the old value
+    controlMessageCache.invalidate();
+
     // check if state variable change can be handled directly
     if (stateVariable.canSendEvent())
     {
@@ -885,7 +893,7 @@ public class DeviceService extends AbstractService implements IDeviceStateVariab
    * 
    * @return The controlMessageCache
    */
-  public Hashtable getControlMessageCache()
+  public BoundedCache getControlMessageCache()
   {
     return controlMessageCache;
   }
@@ -35,7 +35,7 @@ import de.fraunhofer.fokus.upnp.configuration.UPnPDefaults;
 import de.fraunhofer.fokus.upnp.core.templates.TemplateDevice;
 import de.fraunhofer.fokus.upnp.core.templates.TemplateService;
 import de.fraunhofer.fokus.upnp.gena.GENAConstant;
-import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
+import de.fraunhofer.fokus.upnp.util.threads.IScheduledEventListener;
 
 /**
  * This class stores data of a subscriber and controls the eventing key for the subscriber. It is
@@ -44,9 +44,12 @@ import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
  * @author tje, Alexander Koenig
  * 
  */
-public class DeviceSubscribedControlPointHandler implements IEventListener
+public class DeviceSubscribedControlPointHandler implements IScheduledEventListener
 {
 
+  /** Interval in ms for checking the number of send errors */
+  private static final long           ERROR_CHECK_INTERVAL = 1000;
+
   private String                      sid;
 
   private Vector                      deliveryURLs;
@@ -277,6 +280,21 @@ public class DeviceSubscribedControlPointHandler implements IEventListener
     }
   }
 
+  /*
+   * (non-Javadoc)
+   * 
+   * @see de.fraunhofer.fokus.upnp.util.threads.IScheduledEventListener#getNextEventTime()
+   */
+  public long getNextEventTime()
+  {
+    long result = System.currentTimeMillis() + ERROR_CHECK_INTERVAL;
+    if (!initialEventSent)
+    {
+      result = Math.min(result, subscriptionStartTime + UPnPDefaults.DEVICE_INITIAL_NOTIFY_DELAY + 1);
+    }
+    return Math.min(result, subscriptionStartTime + subscriptionTimeout * 1000L + 1);
+  }
+
   /** Terminates the subscriber thread */
   public void terminate()
   {
@@ -0,0 +1,90 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.templates;
+
+import de.fraunhofer.fokus.upnp.core.device.Action;
+import de.fraunhofer.fokus.upnp.http.HTTPParser;
+
+/**
+ * This class holds the state of one local action invocation. It is bound to the invoking thread
+ * for the duration of the invocation and replaces the lookup of the request parser by thread.
+ * 
+ * @author Alexander Koenig
+ */
+public class ActionInvocationContext
+{
+
+  /** Invoked action */
+  private Action                  action;
+
+  /** Parser that received the request, may be null for local invocations */
+  private HTTPParser              httpParser;
+
+  /** Context of an enclosing invocation on the same thread */
+  private ActionInvocationContext previousContext;
+
+  /**
+   * Creates a new instance of ActionInvocationContext.
+   * 
+   * @param action
+   *          The invoked action
+   * @param previousContext
+   *          The context of an enclosing invocation or null
+   */
+  public ActionInvocationContext(Action action, ActionInvocationContext previousContext)
+  {
+    this.action = action;
+    this.httpParser = action.getHTTPParser();
+    this.previousContext = previousContext;
+  }
+
+  /** Retrieves the invoked action. */
+  public Action getAction()
+  {
+    return action;
+  }
+
+  /** Retrieves the parser that received the action request. */
+  public HTTPParser getHTTPParser()
+  {
+    return httpParser;
+  }
+
+  /** Retrieves the host that received the action request. */
+  public String getServerAddress()
+  {
+    return httpParser != null ? httpParser.getHost() : null;
+  }
+
+  /** Retrieves the context of an enclosing invocation. */
+  public ActionInvocationContext getPreviousContext()
+  {
+    return previousContext;
+  }
+
+}
@@ -364,7 +364,9 @@ public class TemplateControlPoint implements
             deviceURL);
 
           // try to request complete device description
-          new CPDeviceDescriptionRetrieval(basicControlPoint, deviceDiscoveryInfo);
+          CPDeviceDescriptionRetrieval descriptionRetrieval =
+            new CPDeviceDescriptionRetrieval(basicControlPoint, deviceDiscoveryInfo);
+          basicControlPoint.addDescriptionRetrieval(descriptionRetrieval);
         } else
         {
           TemplateControlPoint.printMessage(basicControlPoint.toString() + ": Device discovery info for URL " +
@@ -51,17 +51,23 @@ import de.fraunhofer.fokus.upnp.util.exceptions.ActionFailedException;
 public class TemplateService extends DeviceService implements IDeviceInvokedActionListener
 {
 
+  /** Parameter types of all action methods */
+  private static final Class[] ACTION_METHOD_PARAMETERS  = { Argument[].class };
+
   /** Associated logger */
-  protected static Logger logger                    = Logger.getLogger("upnp");
+  protected static Logger      logger                    = Logger.getLogger("upnp");
 
   /** Associated UPnP device */
-  private TemplateDevice  device;
+  private TemplateDevice       device;
 
   /** Working directory for service */
-  private String          workingDirectory;
+  private String               workingDirectory;
+
+  /** Hashtable containing the resolved method for each action name */
+  private Hashtable            actionMethodFromNameTable = new Hashtable();
 
-  /** Hashtable to retrieve httpParser for action invocator */
-  private Hashtable       httpParserFromThreadTable = new Hashtable();
+  /** Context of the action that is currently invoked by a thread */
+  private ThreadLocal          invocationContext         = new ThreadLocal();
 
   /**
    * Creates a new instance of TemplateService.
@@ -155,33 +161,20 @@ public class TemplateService extends DeviceService implements IDeviceInvokedActi
   {
     // delete last error
     action.clearError();
+    ActionInvocationContext previousContext = (ActionInvocationContext)invocationContext.get();
     try
     {
-      String actionName = action.getName();
-      actionName = actionName.substring(0, 1).toLowerCase() + actionName.substring(1);
-
-      Class serviceClass = getClass();
-      Class[] params = new Class[] {
-        Argument[].class
-      };
-      Method actionMethod = serviceClass.getMethod(actionName, params);
-      // add the parser that received the current action to hashtable
-      if (action.getHTTPParser() != null)
-      {
-        httpParserFromThreadTable.put(Thread.currentThread(), action.getHTTPParser());
-      }
+      Method actionMethod = getActionMethod(action.getName());
+      // bind the context of the current action to this thread
+      invocationContext.set(new ActionInvocationContext(action, previousContext));
 
       actionMethod.invoke(this, new Object[] {
         action.getArgumentTable()
       });
-      // remove from hashtable
-      httpParserFromThreadTable.remove(Thread.currentThread());
       // successful
       return true;
     } catch (InvocationTargetException e)
     {
-      // remove from hashtable
-      httpParserFromThreadTable.remove(Thread.currentThread());
       // convert UPnP action exceptions to error string
       if (e.getTargetException() instanceof ActionFailedException)
       {
@@ -191,13 +184,72 @@ public class TemplateService extends DeviceService implements IDeviceInvokedActi
       }
     } catch (Exception ex)
     {
-      // remove from hashtable
-      httpParserFromThreadTable.remove(Thread.currentThread());
       System.out.println(ex.getClass().getName() + ':' + ex.getMessage());
+    } finally
+    {
+      invocationContext.set(previousContext);
     }
     return false;
   }
 
+  /*
+   * (non-Javadoc)
+   * 
+   * @see de.fraunhofer.fokus.upnp.core.device.DeviceService#setActionTable(Action[])
+   */
+  public void setActionTable(Action[] actionTable)
+  {
+    super.setActionTable(actionTable);
+    // resolve all action methods once instead of for each invocation
+    actionMethodFromNameTable.clear();
+    for (int i = 0; actionTable != null && i < actionTable.length; i++)
+    {
+      try
+      {
+        getActionMethod(actionTable[i].getName());
+      } catch (NoSuchMethodException e)
+      {
+        logger.warn("No method found for action " + actionTable[i].getName() + " in " + getClass().getName());
+      }
+    }
+  }
+
+  /**
+   * Retrieves the method that handles a certain action. Methods are resolved once and then taken
+   * from the dispatch table.
+   * 
+   * @param actionName
+   *          The name of the action
+   * 
+   * @return The method that must be invoked for the action
+   * @throws NoSuchMethodException
+   *           if the service does not implement the action
+   */
+  public Method getActionMethod(String actionName) throws NoSuchMethodException
+  {
+    Method actionMethod = (Method)actionMethodFromNameTable.get(actionName);
+    if (actionMethod == null)
+    {
+      String methodName = actionName.substring(0, 1).toLowerCase() + actionName.substring(1);
+      actionMethod = getClass().getMethod(methodName, ACTION_METHOD_PARAMETERS);
+      // skip access checks for each invocation
+      try
+      {
+        actionMethod.setAccessible(true);
+      } catch (SecurityException e)
+      {
+      }
+      actionMethodFromNameTable.put(actionName, actionMethod);
+    }
+    return actionMethod;
+  }
+
+  /** Retrieves the context of the action that is currently invoked by the calling thread. */
+  public ActionInvocationContext getCurrentActionInvocationContext()
+  {
+    return (ActionInvocationContext)invocationContext.get();
+  }
+
   public TemplateDevice getTemplateDevice()
   {
     return device;
@@ -223,9 +275,10 @@ public class TemplateService extends DeviceService implements IDeviceInvokedActi
   /** Retrieves the socket address that received the current action */
   public String getServerAddressForCurrentAction()
   {
-    if (httpParserFromThreadTable.containsKey(Thread.currentThread()))
+    ActionInvocationContext context = getCurrentActionInvocationContext();
+    if (context != null)
     {
-      return ((HTTPParser)httpParserFromThreadTable.get(Thread.currentThread())).getHost();
+      return context.getServerAddress();
     }
 
     return null;
@@ -234,9 +287,10 @@ public class TemplateService extends DeviceService implements IDeviceInvokedActi
   /** Retrieves the socket address that received the current action */
   public HTTPParser getHTTPParserForCurrentAction()
   {
-    if (httpParserFromThreadTable.containsKey(Thread.currentThread()))
+    ActionInvocationContext context = getCurrentActionInvocationContext();
+    if (context != null)
     {
-      return (HTTPParser)httpParserFromThreadTable.get(Thread.currentThread());
+      return context.getHTTPParser();
     }
 
     return null;
@@ -0,0 +1,322 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Hashtable;
+
+import de.fraunhofer.fokus.upnp.core.Argument;
+import de.fraunhofer.fokus.upnp.core.device.Action;
+import de.fraunhofer.fokus.upnp.core.templates.ActionInvocationContext;
+import de.fraunhofer.fokus.upnp.core.templates.TemplateDevice;
+import de.fraunhofer.fokus.upnp.core.templates.TemplateService;
+import de.fraunhofer.fokus.upnp.core.xml.UPnPStartupConfiguration;
+import de.fraunhofer.fokus.upnp.http.HTTPParser;
+import de.fraunhofer.fokus.upnp.util.exceptions.ActionFailedException;
+import de.fraunhofer.fokus.upnp.util.threads.EventThread;
+
+/**
+ * This class checks the action dispatch of TemplateService. Actions are invoked via
+ * invokeLocalAction() on a service subclass and must reach the handler methods with the correct
+ * invocation context, also for nested invocations and concurrent threads. Afterwards, the time for
+ * invokeLocalAction() is compared to the former dispatch that looked up the method for each call.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class TestActionDispatch
+{
+
+  private static final int ERROR_CODE         = 801;
+
+  /** Number of invocations for each timed run */
+  private static final int TIMING_INVOCATIONS = 200000;
+
+  /** Device that is created without network setup */
+  private static class DispatchTestDevice extends TemplateDevice
+  {
+
+    private EventThread eventThread = new EventThread("DispatchTestDevice");
+
+    public DispatchTestDevice()
+    {
+      super(null, new UPnPStartupConfiguration(TestActionDispatch.class, null));
+    }
+
+    public boolean forceRunDelayed()
+    {
+      return true;
+    }
+
+    public EventThread getDeviceEventThread()
+    {
+      return eventThread;
+    }
+  }
+
+  /** Service with handlers that record the context they are invoked with */
+  public static class DispatchTestService extends TemplateService
+  {
+
+    /** Number of GetValue invocations */
+    private int                     valueCount;
+
+    /** Context seen by the last GetValue invocation */
+    private ActionInvocationContext valueContext;
+
+    /** Parser seen by the last GetValue invocation */
+    private HTTPParser              valueParser;
+
+    /** Context seen by the nested action */
+    private ActionInvocationContext innerContext;
+
+    /** Context seen by the outer action after the nested action returned */
+    private ActionInvocationContext outerContextAfterInner;
+
+    /** Result of the nested invocation */
+    private boolean                 innerResult;
+
+    public DispatchTestService(TemplateDevice device)
+    {
+      super(device, null, "urn:test:service:Dispatch:1", "Dispatch", false);
+      setActionTable(new Action[] {
+          new Action("GetValue"), new Action("Fail"), new Action("Outer"), new Action("Inner")
+      });
+    }
+
+    public void getValue(Argument[] args)
+    {
+      synchronized(this)
+      {
+        valueCount++;
+      }
+      valueContext = getCurrentActionInvocationContext();
+      valueParser = getHTTPParserForCurrentAction();
+    }
+
+    public void fail(Argument[] args) throws ActionFailedException
+    {
+      throw new ActionFailedException(ERROR_CODE, "Expected failure");
+    }
+
+    public void outer(Argument[] args)
+    {
+      innerResult = invokeLocalAction(getServiceId(), new Action("Inner"));
+      outerContextAfterInner = getCurrentActionInvocationContext();
+    }
+
+    public void inner(Argument[] args)
+    {
+      innerContext = getCurrentActionInvocationContext();
+    }
+  }
+
+  /** Checks that an action reaches its handler with a context that is removed afterwards */
+  private static boolean testDispatch(DispatchTestService service) throws Exception
+  {
+    Action action = new Action("GetValue");
+    HTTPParser httpParser = new HTTPParser();
+    action.setHTTPParser(httpParser);
+
+    boolean result = service.invokeLocalAction(service.getServiceId(), action);
+
+    Method method = service.getActionMethod("GetValue");
+
+    return result && service.valueCount == 1 && service.valueContext != null &&
+      service.valueContext.getAction() == action && service.valueContext.getPreviousContext() == null &&
+      service.valueParser == httpParser && service.getCurrentActionInvocationContext() == null &&
+      method.getName().equals("getValue") && service.getActionMethod("GetValue") == method;
+  }
+
+  /** Checks that failing and unknown actions are reported to the caller */
+  private static boolean testErrors(DispatchTestService service)
+  {
+    Action failAction = new Action("Fail");
+    boolean failResult = service.invokeLocalAction(service.getServiceId(), failAction);
+
+    Action unknownAction = new Action("Unknown");
+    boolean unknownResult = service.invokeLocalAction(service.getServiceId(), unknownAction);
+
+    return !failResult && failAction.getErrorCode() == ERROR_CODE && !unknownResult &&
+      service.getCurrentActionInvocationContext() == null;
+  }
+
+  /** Checks that a nested invocation does not clear the context of the enclosing action */
+  private static boolean testNestedInvocation(DispatchTestService service)
+  {
+    Action outerAction = new Action("Outer");
+    boolean result = service.invokeLocalAction(service.getServiceId(), outerAction);
+
+    return result && service.innerResult && service.innerContext != null &&
+      service.innerContext.getAction().getName().equals("Inner") &&
+      service.innerContext.getPreviousContext() != null &&
+      service.innerContext.getPreviousContext().getAction() == outerAction &&
+      service.outerContextAfterInner != null && service.outerContextAfterInner.getAction() == outerAction &&
+      service.getCurrentActionInvocationContext() == null;
+  }
+
+  /** Checks that concurrent invocations are all dispatched */
+  private static boolean testConcurrentInvocations(final DispatchTestService service, int threadCount,
+    final int invocations) throws InterruptedException
+  {
+    final boolean[] success = new boolean[] {
+      true
+    };
+    int previousCount = service.valueCount;
+    Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++)
+    {
+      threads[i] = new Thread(new Runnable()
+      {
+        public void run()
+        {
+          for (int j = 0; j < invocations; j++)
+          {
+            if (!service.invokeLocalAction(service.getServiceId(), new Action("GetValue")) ||
+              service.getCurrentActionInvocationContext() != null)
+            {
+              success[0] = false;
+            }
+          }
+        }
+      });
+      threads[i].start();
+    }
+    for (int i = 0; i < threadCount; i++)
+    {
+      threads[i].join();
+    }
+    return success[0] && service.valueCount == previousCount + threadCount * invocations;
+  }
+
+  /**
+   * Invokes an action like TemplateService did before the dispatch table was introduced. The method
+   * is looked up for each call and the parser is stored in a table keyed by the invoking thread.
+   */
+  private static boolean invokeReflective(TemplateService service, Hashtable httpParserFromThreadTable, Action action)
+  {
+    action.clearError();
+    try
+    {
+      String actionName = action.getName();
+      actionName = actionName.substring(0, 1).toLowerCase() + actionName.substring(1);
+
+      Class serviceClass = service.getClass();
+      Class[] params = new Class[] {
+        Argument[].class
+      };
+      Method actionMethod = serviceClass.getMethod(actionName, params);
+      if (action.getHTTPParser() != null)
+      {
+        httpParserFromThreadTable.put(Thread.currentThread(), action.getHTTPParser());
+      }
+      actionMethod.invoke(service, new Object[] {
+        action.getArgumentTable()
+      });
+      httpParserFromThreadTable.remove(Thread.currentThread());
+      return true;
+    } catch (InvocationTargetException e)
+    {
+      httpParserFromThreadTable.remove(Thread.currentThread());
+      if (e.getTargetException() instanceof ActionFailedException)
+      {
+        ActionFailedException afe = (ActionFailedException)e.getTargetException();
+        action.setError(afe.getErrorCode(), afe.getErrorDescription());
+      }
+    } catch (Exception ex)
+    {
+      httpParserFromThreadTable.remove(Thread.currentThread());
+    }
+    return false;
+  }
+
+  /**
+   * Measures the average time of one action invocation.
+   * 
+   * @param service
+   *          The service
+   * @param reflective
+   *          True to use the former reflective dispatch, false to use invokeLocalAction()
+   * 
+   * @return The average time in ns
+   */
+  private static long timeInvocations(DispatchTestService service, boolean reflective)
+  {
+    Hashtable httpParserFromThreadTable = new Hashtable();
+    Action action = new Action("GetValue");
+    action.setHTTPParser(new HTTPParser());
+    boolean result = true;
+    long startTime = System.nanoTime();
+    for (int i = 0; i < TIMING_INVOCATIONS; i++)
+    {
+      result &=
+        reflective ? invokeReflective(service, httpParserFromThreadTable, action)
+          : service.invokeLocalAction(service.getServiceId(), action);
+    }
+    long duration = System.nanoTime() - startTime;
+    if (!result)
+    {
+      System.out.println("Timed invocation failed");
+    }
+    return duration / TIMING_INVOCATIONS;
+  }
+
+  /** Prints the time for the former and the current dispatch */
+  private static void printTimings(DispatchTestService service)
+  {
+    // warm up both paths
+    timeInvocations(service, true);
+    timeInvocations(service, false);
+
+    System.out.println("Reflective lookup per call: " + timeInvocations(service, true) + " ns per invocation");
+    System.out.println("invokeLocalAction: " + timeInvocations(service, false) + " ns per invocation");
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    DispatchTestService service = new DispatchTestService(new DispatchTestDevice());
+
+    boolean success = testDispatch(service);
+    System.out.println("Dispatch: " + (success ? "OK" : "FAILED"));
+
+    boolean errorSuccess = testErrors(service);
+    System.out.println("Errors: " + (errorSuccess ? "OK" : "FAILED"));
+
+    boolean nestedSuccess = testNestedInvocation(service);
+    System.out.println("Nested invocation: " + (nestedSuccess ? "OK" : "FAILED"));
+
+    boolean concurrentSuccess = testConcurrentInvocations(service, 8, 1000);
+    System.out.println("Concurrent invocations: " + (concurrentSuccess ? "OK" : "FAILED"));
+
+    printTimings(service);
+
+    System.exit(success && errorSuccess && nestedSuccess && concurrentSuccess ? 0 : 1);
+  }
+
+}
@@ -0,0 +1,523 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Vector;
+
+import de.fraunhofer.fokus.lsf.core.BinaryMessageHelper;
+import de.fraunhofer.fokus.lsf.core.BinaryMessageReader;
+import de.fraunhofer.fokus.lsf.core.BinaryMessageWriter;
+import de.fraunhofer.fokus.lsf.core.BinaryUPnPConstants;
+import de.fraunhofer.fokus.lsf.core.base.BinaryArgument;
+import de.fraunhofer.fokus.lsf.core.base.GatewayData;
+import de.fraunhofer.fokus.lsf.core.control_point.BinaryCPAction;
+import de.fraunhofer.fokus.lsf.core.control_point.BinaryCPDeviceInfo;
+import de.fraunhofer.fokus.lsf.core.control_point.BinaryCPMessageParser;
+import de.fraunhofer.fokus.lsf.core.control_point.BinaryCPService;
+import de.fraunhofer.fokus.lsf.core.control_point.BinaryCPValueMessageParser;
+import de.fraunhofer.fokus.lsf.core.device.BinaryDeviceAction;
+import de.fraunhofer.fokus.lsf.core.device.BinaryDeviceMessageParser;
+import de.fraunhofer.fokus.lsf.core.device.BinaryDeviceMessageParserResult;
+import de.fraunhofer.fokus.lsf.core.device.BinaryDeviceService;
+import de.fraunhofer.fokus.upnp.util.network.BinaryMessageObject;
+
+/**
+ * This class checks that LSF discovery, description, event and action packets built with the BinaryMessageWriter
+ * are equal to the packets built with streams, that the parsers decode them with the reusable BinaryMessageReader and
+ * that values which cannot be encoded are rejected. Afterwards, encoding with streams and decoding into tupel lists
+ * is timed against the writer and the reader.
+ * 
+ * Usage: TestBinaryMessageCodec [messages]
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class TestBinaryMessageCodec
+{
+
+  private static final long              DEVICE_ID   = 0x12345678L;
+
+  private static final long              DATE        = 0x0102030405L;
+
+  private static final byte[]            ADDRESS     = new byte[] {
+      (byte)192, (byte)168, 1, 20
+  };
+
+  private static final InetSocketAddress SOURCE      = new InetSocketAddress("127.0.0.1", 4000);
+
+  private static final byte[]            CONTROL_PORT = new byte[] {
+      0x12, 0x34
+  };
+
+  /** Sum of decoded values that keeps the timed loops from being optimized away */
+  private static long                    checksum;
+
+  /** Writes a unit to a stream like the former message generation */
+  private static void writeUnit(ByteArrayOutputStream outputStream, int unitType, byte[] value)
+  {
+    outputStream.write(unitType);
+    outputStream.write(value.length);
+    outputStream.write(value, 0, value.length);
+  }
+
+  private static byte[] uint32(long value)
+  {
+    return new byte[] {
+        (byte)(value >> 24), (byte)(value >> 16), (byte)(value >> 8), (byte)value
+    };
+  }
+
+  private static byte[] uint8(int value)
+  {
+    return new byte[] {
+      (byte)value
+    };
+  }
+
+  private static boolean check(String name, boolean success)
+  {
+    System.out.println(name + ": " + (success ? "OK" : "FAILED"));
+    return success;
+  }
+
+  /** Creates the access entity used for announcements */
+  private static GatewayData createAccessEntity()
+  {
+    GatewayData accessEntity = new GatewayData(ADDRESS, 3);
+    accessEntity.setControlPort(CONTROL_PORT);
+    accessEntity.setForwarderPhyType(2);
+    accessEntity.setID(7);
+    return accessEntity;
+  }
+
+  /** Builds an announcement with one access entity with the writer */
+  private static byte[] writeAnnouncement(BinaryMessageWriter writer, GatewayData accessEntity)
+  {
+    writer.reset();
+    writer.writeUnit(BinaryUPnPConstants.UnitTypeDeviceAnnouncement);
+    writer.writeUInt16Unit(BinaryUPnPConstants.UnitTypeSDLVersion, 0x0100);
+    writer.writeNumberUnit(BinaryUPnPConstants.UnitTypeDeviceDescriptionDate, DATE, 5);
+    writer.writeUInt32Unit(BinaryUPnPConstants.UnitTypeDeviceID, DEVICE_ID);
+    accessEntity.writeForAccess(writer);
+    writer.writeEndOfPacket();
+    return writer.toByteArray();
+  }
+
+  /** Builds the same announcement with a stream like the former message generation */
+  private static byte[] streamAnnouncement()
+  {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    writeUnit(outputStream, BinaryUPnPConstants.UnitTypeDeviceAnnouncement, new byte[0]);
+    writeUnit(outputStream, BinaryUPnPConstants.UnitTypeSDLVersion, new byte[] {
+        1, 0
+    });
+    writeUnit(outputStream, BinaryUPnPConstants.UnitTypeDeviceDescriptionDate, new byte[] {
+        1, 2, 3, 4, 5
+    });
+    writeUnit(outputStream, BinaryUPnPConstants.UnitTypeDeviceID, uint32(DEVICE_ID));
+    writeUnit(outputStream, BinaryUPnPConstants.UnitTypeAccessForwarderAddress, ADDRESS);
+    writeUnit(outputStream, BinaryUPnPConstants.UnitTypeAccessForwarderControlPort, CONTROL_PORT);
+    writeUnit(outputStream, BinaryUPnPConstants.UnitTypeAccessForwarderPhyType, uint8(2));
+    writeUnit(outputStream, BinaryUPnPConstants.UnitTypeAccessID, uint32(7));
+    writeUnit(outputStream, BinaryUPnPConstants.UnitTypeAccessForwarderID, uint8(3));
+    outputStream.write(BinaryUPnPConstants.UnitTypeEndOfPacket);
+    return outputStream.toByteArray();
+  }
+
+  /** Checks an announcement with one access entity */
+  private static boolean testDiscovery()
+  {
+    byte[] message = writeAnnouncement(BinaryMessageWriter.getThreadWriter(), createAccessEntity());
+
+    boolean success = Arrays.equals(message, streamAnnouncement());
+
+    BinaryCPDeviceInfo deviceInfo = BinaryCPMessageParser.processDeviceAnnouncement(new BinaryMessageObject(message,
+      SOURCE));
+    success &=
+      deviceInfo != null && deviceInfo.getDeviceID() == DEVICE_ID && deviceInfo.getDeviceDescriptionDate() == DATE &&
+        deviceInfo.getAccessEntityList().size() == 1 && deviceInfo.getAccessEntityData(0).getForwarderID() == 3 &&
+        deviceInfo.getAccessEntityData(0).getControlPortAsInt() == 0x1234 &&
+        Arrays.equals(deviceInfo.getDeviceAddress(), ADDRESS);
+
+    // forwarders split the message into tupels and entities and must be able to rebuild it
+    Vector tupelList = new Vector();
+    Vector accessEntityList = new Vector();
+    BinaryMessageHelper.parseMessageForForwarding(message, tupelList, accessEntityList, null);
+    success &=
+      tupelList.size() == 4 && accessEntityList.size() == 1 &&
+        Arrays.equals(BinaryMessageHelper.toByteArray(tupelList, accessEntityList, null), message) &&
+        BinaryMessageHelper.getDeviceIDFromMessage(message) == DEVICE_ID;
+
+    return success;
+  }
+
+  /** Checks the description of a service with one action */
+  private static boolean testDescription()
+  {
+    BinaryArgument inArgument = new BinaryArgument("Min", 0, BinaryUPnPConstants.VarTypeUINT8, true);
+    BinaryArgument outArgument = new BinaryArgument("Max", 1, BinaryUPnPConstants.VarTypeUINT16, false);
+    Vector argumentList = new Vector();
+    argumentList.add(inArgument);
+    argumentList.add(outArgument);
+    BinaryDeviceService service =
+      new BinaryDeviceService(null,
+        BinaryUPnPConstants.ServiceTypeTemperaturSensor,
+        4,
+        "Temperature",
+        "C",
+        BinaryUPnPConstants.VarTypeINT16,
+        true);
+    service.getActionList().add(new BinaryDeviceAction("SetRange", 2, argumentList));
+
+    byte[] description = service.toByteArrayForGetDescriptionResponse();
+
+    ByteArrayOutputStream argumentStream = new ByteArrayOutputStream();
+    String[] names = new String[] {
+        "Min", "Max"
+    };
+    byte[] types = new byte[] {
+        BinaryUPnPConstants.VarTypeUINT8, BinaryUPnPConstants.VarTypeUINT16
+    };
+    for (int i = 0; i < names.length; i++)
+    {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      writeUnit(outputStream, BinaryUPnPConstants.UnitTypeArgumentID, uint8(i));
+      writeUnit(outputStream, BinaryUPnPConstants.UnitTypeArgumentName, names[i].getBytes());
+      writeUnit(outputStream, BinaryUPnPConstants.UnitTypeArgumentDirection, uint8(i == 0
+        ? BinaryUPnPConstants.ArgumentDirectionIn : BinaryUPnPConstants.ArgumentDirectionOut));
+      writeUnit(outputStream, BinaryUPnPConstants.UnitTypeValueType, uint8(types[i]));
+      writeUnit(argumentStream, BinaryUPnPConstants.UnitTypeArgumentDescriptionContainer, outputStream.toByteArray());
+    }
+    ByteArrayOutputStream actionStream = new ByteArrayOutputStream();
+    writeUnit(actionStream, BinaryUPnPConstants.UnitTypeActionID, uint8(2));
+    writeUnit(actionStream, BinaryUPnPConstants.UnitTypeActionName, "SetRange".getBytes());
+    byte[] argumentDescriptions = argumentStream.toByteArray();
+    actionStream.write(argumentDescriptions, 0, argumentDescriptions.length);
+
+    ByteArrayOutputStream serviceStream = new ByteArrayOutputStream();
+    writeUnit(serviceStream, BinaryUPnPConstants.UnitTypeServiceID, uint8(4));
+    writeUnit(serviceStream,
+      BinaryUPnPConstants.UnitTypeServiceType,
+      uint8(BinaryUPnPConstants.ServiceTypeTemperaturSensor));
+    writeUnit(serviceStream, BinaryUPnPConstants.UnitTypeValueType, uint8(BinaryUPnPConstants.VarTypeINT16));
+    writeUnit(serviceStream, BinaryUPnPConstants.UnitTypeValueUnit, "C".getBytes());
+    writeUnit(serviceStream, BinaryUPnPConstants.UnitTypeServiceName, "Temperature".getBytes());
+    writeUnit(serviceStream, BinaryUPnPConstants.UnitTypeActionDescriptionContainer, actionStream.toByteArray());
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    writeUnit(outputStream, BinaryUPnPConstants.UnitTypeServiceDescriptionContainer, serviceStream.toByteArray());
+
+    boolean success = Arrays.equals(description, outputStream.toByteArray());
+
+    // parse container content in place
+    BinaryCPService cpService = BinaryCPMessageParser.processServiceDescription(description, 2, description.length - 2);
+    success &=
+      cpService != null && cpService.getServiceID() == 4 && "Temperature".equals(cpService.getServiceName()) &&
+        "C".equals(cpService.getValueUnit()) && cpService.getActionList().size() == 1;
+    if (success)
+    {
+      BinaryCPAction action = cpService.getCPAction(0);
+      success &=
+        action.getActionID() == 2 && "SetRange".equals(action.getActionName()) &&
+          action.getArgumentList().size() == 2 && action.getArgumentByID(0).isInArgument() &&
+          !action.getArgumentByID(1).isInArgument() && "Max".equals(action.getArgumentByID(1).getArgumentName());
+    }
+    return success;
+  }
+
+  /** Builds an event for two services with the writer */
+  private static byte[] writeEvent(BinaryMessageWriter writer)
+  {
+    writer.reset();
+    writer.writeUnit(BinaryUPnPConstants.UnitTypeEvent);
+    writer.writeUInt32Unit(BinaryUPnPConstants.UnitTypeDeviceID, DEVICE_ID);
+    for (int i = 1; i <= 2; i++)
+    {
+      int containerOffset = writer.beginUnit(BinaryUPnPConstants.UnitTypeServiceContainer);
+      writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeServiceID, i);
+      writer.writeUInt16Unit(BinaryUPnPConstants.UnitTypeServiceValue, i * 100);
+      writer.endUnit(containerOffset);
+    }
+    writer.writeEndOfPacket();
+    return writer.toByteArray();
+  }
+
+  /** Builds the same event with streams */
+  private static byte[] streamEvent()
+  {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    writeUnit(outputStream, BinaryUPnPConstants.UnitTypeEvent, new byte[0]);
+    writeUnit(outputStream, BinaryUPnPConstants.UnitTypeDeviceID, uint32(DEVICE_ID));
+    for (int i = 1; i <= 2; i++)
+    {
+      ByteArrayOutputStream containerStream = new ByteArrayOutputStream();
+      writeUnit(containerStream, BinaryUPnPConstants.UnitTypeServiceID, uint8(i));
+      writeUnit(containerStream, BinaryUPnPConstants.UnitTypeServiceValue, new byte[] {
+          (byte)(i * 100 >> 8), (byte)(i * 100)
+      });
+      writeUnit(outputStream, BinaryUPnPConstants.UnitTypeServiceContainer, containerStream.toByteArray());
+    }
+    outputStream.write(BinaryUPnPConstants.UnitTypeEndOfPacket);
+    return outputStream.toByteArray();
+  }
+
+  /** Checks an event for two services */
+  private static boolean testEvent()
+  {
+    byte[] message = writeEvent(BinaryMessageWriter.getThreadWriter());
+
+    boolean success = Arrays.equals(message, streamEvent());
+    try
+    {
+      BinaryCPValueMessageParser parser = new BinaryCPValueMessageParser();
+      parser.parse(new BinaryMessageObject(message, SOURCE));
+      byte[] value = (byte[])parser.getServiceValueTable().get(new Integer(2));
+      success &=
+        parser.getDeviceID() == DEVICE_ID && parser.getServiceValueTable().size() == 2 &&
+          Arrays.equals(value, new byte[] {
+              0, (byte)200
+          });
+    } catch (Exception e)
+    {
+      success = false;
+    }
+    return success;
+  }
+
+  /** Checks an action request with request ID, a long value and a response entity */
+  private static boolean testAction()
+  {
+    BinaryArgument argument = new BinaryArgument("Level", 1, BinaryUPnPConstants.VarTypeUINT16, true);
+    argument.setNumericValue(300);
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    writeUnit(outputStream, BinaryUPnPConstants.UnitTypeArgumentID, uint8(1));
+    writeUnit(outputStream, BinaryUPnPConstants.UnitTypeArgumentValue, new byte[] {
+        1, 44
+    });
+    byte[] containerData = outputStream.toByteArray();
+    outputStream.reset();
+    writeUnit(outputStream, BinaryUPnPConstants.UnitTypeArgumentContainer, containerData);
+
+    boolean success = Arrays.equals(argument.toByteArrayForAction(), outputStream.toByteArray());
+
+    GatewayData responseEntity = new GatewayData(ADDRESS, 5);
+    responseEntity.setResponsePort(CONTROL_PORT);
+    byte[] longValue = new byte[200];
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    writer.writeUnit(BinaryUPnPConstants.UnitTypeInvokeAction);
+    writer.writeUInt32Unit(BinaryUPnPConstants.UnitTypeDeviceID, DEVICE_ID);
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeServiceID, 1);
+    int containerOffset = writer.beginUnit(BinaryUPnPConstants.UnitTypeActionContainer);
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeActionID, 2);
+    argument.writeForAction(writer);
+    writer.endUnit(containerOffset);
+    // long values are padded and must be skipped correctly
+    writer.writeUnit(BinaryUPnPConstants.UnitTypeServiceValue, longValue);
+    writer.writeUInt16Unit(BinaryUPnPConstants.UnitTypeRequestID, 42);
+    responseEntity.writeForResponse(writer);
+    writer.writeEndOfPacket();
+    byte[] message = writer.toByteArray();
+
+    BinaryDeviceMessageParserResult result =
+      BinaryDeviceMessageParser.processMessage(new BinaryMessageObject(message, SOURCE));
+    success &=
+      result != null && result.getMessageType() == BinaryUPnPConstants.UnitTypeInvokeAction &&
+        result.getDeviceID() == DEVICE_ID && result.getServiceID() == 1 &&
+        Arrays.equals(result.getRequestID(), new byte[] {
+            0, 42
+        }) && result.getResponseEntityList().size() == 1 &&
+        ((GatewayData)result.getResponseEntityList().elementAt(0)).getResponsePortAsInt() == 0x1234;
+
+    return success;
+  }
+
+  /** Checks that values longer than the maximum unit length are rejected */
+  private static boolean testLongValues()
+  {
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    boolean success = false;
+    try
+    {
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeServiceValue, new byte[BinaryMessageWriter.MAX_VALUE_LENGTH + 1]);
+    } catch (IllegalArgumentException e)
+    {
+      success = true;
+    }
+    writer.reset();
+    int containerOffset = writer.beginUnit(BinaryUPnPConstants.UnitTypeServiceContainer);
+    for (int i = 0; i < 10; i++)
+    {
+      writer.writeUnit(BinaryUPnPConstants.UnitTypeServiceValue, new byte[100]);
+    }
+    try
+    {
+      writer.endUnit(containerOffset);
+      success = false;
+    } catch (IllegalArgumentException e)
+    {
+    }
+    // the longest value is padded and can be read
+    byte[] value = new byte[BinaryMessageWriter.MAX_VALUE_LENGTH];
+    value[value.length - 1] = 17;
+    writer.reset();
+    writer.writeUnit(BinaryUPnPConstants.UnitTypeServiceValue, value);
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeServiceID, 9);
+    writer.writeEndOfPacket();
+
+    BinaryMessageReader reader = BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_MESSAGE);
+    reader.reset(writer.toByteArray());
+    success &= reader.next() && reader.isValueEqual(value);
+    success &= reader.next() && reader.getUnitType() == BinaryUPnPConstants.UnitTypeServiceID && reader.getUInt8() == 9;
+    success &= !reader.next();
+
+    return success;
+  }
+
+  /** Checks that each thread reuses its own readers and writer */
+  private static boolean testThreadInstances() throws Exception
+  {
+    final Object[] otherThreadInstances = new Object[2];
+    Thread thread = new Thread()
+    {
+      public void run()
+      {
+        otherThreadInstances[0] = BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_MESSAGE);
+        otherThreadInstances[1] = BinaryMessageWriter.getThreadWriter();
+      }
+    };
+    thread.start();
+    thread.join();
+
+    BinaryMessageReader reader = BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_MESSAGE);
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    writer.writeEndOfPacket();
+
+    return reader == BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_MESSAGE) &&
+      reader != BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_SERVICE) &&
+      writer == BinaryMessageWriter.getThreadWriter() && writer.getLength() == 0 && reader != otherThreadInstances[0] &&
+      writer != otherThreadInstances[1];
+  }
+
+  /** Decodes a message into tupels like the former forwarding code */
+  private static void decodeWithTupelList(byte[] message)
+  {
+    Vector tupelList = new Vector();
+    Vector accessEntityList = new Vector();
+    Vector responseEntityList = new Vector();
+    BinaryMessageHelper.parseMessageForForwarding(message, tupelList, accessEntityList, responseEntityList);
+    checksum += tupelList.size() + accessEntityList.size();
+    checksum += BinaryMessageHelper.getDeviceIDFromMessage(message);
+  }
+
+  /** Decodes a message in place */
+  private static void decodeWithReader(BinaryMessageReader reader, byte[] message)
+  {
+    reader.reset(message);
+    while (reader.next())
+    {
+      checksum++;
+      if (reader.getUnitType() == BinaryUPnPConstants.UnitTypeDeviceID)
+      {
+        checksum += reader.getNumber();
+      }
+    }
+  }
+
+  /** Times encoding and decoding of announcements and events with both approaches */
+  private static void printTimings(int messages)
+  {
+    BinaryMessageWriter writer = BinaryMessageWriter.getThreadWriter();
+    BinaryMessageReader reader = BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_MESSAGE);
+    GatewayData accessEntity = createAccessEntity();
+    byte[] announcement = streamAnnouncement();
+    byte[] event = streamEvent();
+
+    // the first round warms up all code paths
+    for (int round = 0; round < 2; round++)
+    {
+      long startTime = System.nanoTime();
+      for (int i = 0; i < messages; i++)
+      {
+        checksum += streamAnnouncement().length + streamEvent().length;
+      }
+      long streamEncodeTime = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      for (int i = 0; i < messages; i++)
+      {
+        checksum += writeAnnouncement(writer, accessEntity).length + writeEvent(writer).length;
+      }
+      long writerEncodeTime = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      for (int i = 0; i < messages; i++)
+      {
+        decodeWithTupelList(announcement);
+        decodeWithTupelList(event);
+      }
+      long tupelDecodeTime = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      for (int i = 0; i < messages; i++)
+      {
+        decodeWithReader(reader, announcement);
+        decodeWithReader(reader, event);
+      }
+      long readerDecodeTime = System.nanoTime() - startTime;
+
+      if (round > 0)
+      {
+        System.out.println("Encode announcement and event: stream " + streamEncodeTime / messages + " ns, writer " +
+          writerEncodeTime / messages + " ns");
+        System.out.println("Decode announcement and event: tupel list " + tupelDecodeTime / messages +
+          " ns, reader " + readerDecodeTime / messages + " ns");
+      }
+    }
+    System.out.println("Checksum " + checksum);
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+    boolean success = check("Discovery packet", testDiscovery());
+    success &= check("Service description", testDescription());
+    success &= check("Event packet", testEvent());
+    success &= check("Action packet", testAction());
+    success &= check("Long values", testLongValues());
+    success &= check("Thread instances", testThreadInstances());
+
+    printTimings(messages);
+
+    System.exit(success ? 0 : 1);
+  }
+
+}
@@ -0,0 +1,275 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import de.fraunhofer.fokus.lsf.core.BinaryMessageReader;
+import de.fraunhofer.fokus.lsf.core.BinaryMessageWriter;
+import de.fraunhofer.fokus.lsf.core.BinaryUPnPConstants;
+import de.fraunhofer.fokus.lsf.core.control_point.BinaryCPDeviceInfo;
+import de.fraunhofer.fokus.lsf.core.control_point.BinaryCPRequestDispatcher;
+import de.fraunhofer.fokus.upnp.util.network.BinaryMessageObject;
+
+/**
+ * This class checks the correlation of responses to pending requests in the BinaryCPRequestDispatcher. The device is
+ * simulated by a local socket that answers in a different order than requested. Responses with request ID must
+ * reach their request without the request ID unit, responses without request ID must reach the oldest pending
+ * request for the same socket.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class TestBinaryRequestDispatcher
+{
+
+  /** Unit used to mark requests and responses */
+  private static final byte                TAG_UNIT = BinaryUPnPConstants.UnitTypeDeviceID;
+
+  private static InetAddress               loopbackAddress;
+
+  private static DatagramSocket            deviceSocket;
+
+  private static BinaryCPDeviceInfo        deviceInfo;
+
+  private static BinaryCPRequestDispatcher dispatcher;
+
+  /** Thread that sends one request and waits for the response */
+  private static class RequestCaller extends Thread
+  {
+
+    private int                 tag;
+
+    private DatagramSocket      socket;
+
+    private BinaryMessageObject response = null;
+
+    public RequestCaller(int tag, DatagramSocket socket)
+    {
+      this.tag = tag;
+      this.socket = socket;
+      start();
+    }
+
+    public void run()
+    {
+      byte[] prefix = new BinaryMessageWriter().writeUInt32Unit(TAG_UNIT, tag).toByteArray();
+      response =
+        dispatcher.sendRequestAndWaitForResponse(prefix, deviceInfo, socket, deviceSocket.getLocalPort(), null);
+    }
+
+    /** Checks if the expected response without request ID was received */
+    public boolean hasResponse()
+    {
+      try
+      {
+        join();
+      } catch (InterruptedException e)
+      {
+      }
+      boolean result = response != null && Arrays.equals(response.getBody(), createResponse(tag, -1));
+      if (!result)
+      {
+        System.out.println("Unexpected response for request " + tag);
+      }
+      return result;
+    }
+  }
+
+  /** Request received by the simulated device */
+  private static class ReceivedRequest
+  {
+
+    private int               tag;
+
+    private int               requestID = -1;
+
+    private InetSocketAddress sourceAddress;
+
+    public ReceivedRequest(DatagramPacket packet)
+    {
+      byte[] data = new byte[packet.getLength()];
+      System.arraycopy(packet.getData(), packet.getOffset(), data, 0, data.length);
+      BinaryMessageReader reader = new BinaryMessageReader(data);
+      if (reader.find(TAG_UNIT))
+      {
+        tag = (int)reader.getNumber();
+      }
+      reader.reset(data);
+      if (reader.find(BinaryUPnPConstants.UnitTypeRequestID))
+      {
+        requestID = reader.getUInt16();
+      }
+      sourceAddress = new InetSocketAddress(packet.getAddress(), packet.getPort());
+    }
+  }
+
+  /** Creates a response with an optional request ID unit between other units */
+  private static byte[] createResponse(int tag, int requestID)
+  {
+    BinaryMessageWriter writer = new BinaryMessageWriter();
+    writer.writeUInt32Unit(TAG_UNIT, tag);
+    if (requestID != -1)
+    {
+      writer.writeUInt16Unit(BinaryUPnPConstants.UnitTypeRequestID, requestID);
+    }
+    writer.writeUInt8Unit(BinaryUPnPConstants.UnitTypeSDLVersion, 1);
+    writer.writeEndOfPacket();
+    return writer.toByteArray();
+  }
+
+  /** Receives the next request at the simulated device */
+  private static ReceivedRequest receiveRequest() throws Exception
+  {
+    DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+    deviceSocket.receive(packet);
+    return new ReceivedRequest(packet);
+  }
+
+  /** Sends a response from the simulated device */
+  private static void sendResponse(byte[] data, InetSocketAddress destination) throws Exception
+  {
+    deviceSocket.send(new DatagramPacket(data, data.length, destination));
+  }
+
+  /** Waits until the dispatcher has a number of pending requests */
+  private static void waitForPendingRequests(int count) throws Exception
+  {
+    long endTime = System.currentTimeMillis() + 2000;
+    while (dispatcher.getPendingRequestCount() < count && System.currentTimeMillis() < endTime)
+    {
+      Thread.sleep(1);
+    }
+  }
+
+  /** Checks that responses with request ID reach their request, regardless of the order */
+  private static boolean testRequestIDs(DatagramSocket controlSocket) throws Exception
+  {
+    RequestCaller[] callers = new RequestCaller[4];
+    ReceivedRequest[] requests = new ReceivedRequest[callers.length];
+    for (int i = 0; i < callers.length; i++)
+    {
+      callers[i] = new RequestCaller(i + 1, controlSocket);
+    }
+    for (int i = 0; i < requests.length; i++)
+    {
+      requests[i] = receiveRequest();
+    }
+    boolean result = dispatcher.getPendingRequestCount() == callers.length;
+    for (int i = requests.length - 1; i >= 0; i--)
+    {
+      result &= requests[i].requestID != -1;
+      sendResponse(createResponse(requests[i].tag, requests[i].requestID), requests[i].sourceAddress);
+    }
+    for (int i = 0; i < callers.length; i++)
+    {
+      result &= callers[i].hasResponse();
+    }
+    return result && dispatcher.getPendingRequestCount() == 0;
+  }
+
+  /** Checks that responses without request ID reach the oldest pending request */
+  private static boolean testOldestRequest(DatagramSocket controlSocket) throws Exception
+  {
+    BinaryUPnPConstants.USE_REQUEST_IDS = false;
+    RequestCaller olderCaller = new RequestCaller(10, controlSocket);
+    ReceivedRequest olderRequest = receiveRequest();
+    waitForPendingRequests(1);
+    RequestCaller newerCaller = new RequestCaller(11, controlSocket);
+    ReceivedRequest newerRequest = receiveRequest();
+    waitForPendingRequests(2);
+    BinaryUPnPConstants.USE_REQUEST_IDS = true;
+
+    boolean result = olderRequest.requestID == -1 && newerRequest.requestID == -1;
+    sendResponse(createResponse(olderRequest.tag, -1), newerRequest.sourceAddress);
+    sendResponse(createResponse(newerRequest.tag, -1), newerRequest.sourceAddress);
+
+    return result && olderCaller.hasResponse() && newerCaller.hasResponse();
+  }
+
+  /** Checks that responses for unknown requests or other sockets are discarded */
+  private static boolean testUnmatchedResponses(DatagramSocket descriptionSocket, DatagramSocket controlSocket)
+    throws Exception
+  {
+    long unmatchedCount = dispatcher.getUnmatchedResponseCount();
+    RequestCaller caller = new RequestCaller(20, controlSocket);
+    ReceivedRequest request = receiveRequest();
+    // correct request ID, but received by the description socket
+    sendResponse(createResponse(request.tag, request.requestID), new InetSocketAddress(loopbackAddress,
+      descriptionSocket.getLocalPort()));
+    // unknown request ID
+    sendResponse(createResponse(request.tag, request.requestID + 100), request.sourceAddress);
+    // response without request ID for a socket without pending requests
+    sendResponse(createResponse(request.tag, -1), new InetSocketAddress(loopbackAddress,
+      descriptionSocket.getLocalPort()));
+    long endTime = System.currentTimeMillis() + 2000;
+    while (dispatcher.getUnmatchedResponseCount() < unmatchedCount + 3 && System.currentTimeMillis() < endTime)
+    {
+      Thread.sleep(1);
+    }
+    sendResponse(createResponse(request.tag, request.requestID), request.sourceAddress);
+
+    return caller.hasResponse() && dispatcher.getUnmatchedResponseCount() == unmatchedCount + 3;
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    loopbackAddress = InetAddress.getByName("127.0.0.1");
+    deviceSocket = new DatagramSocket(0, loopbackAddress);
+    deviceSocket.setSoTimeout(5000);
+    DatagramSocket descriptionSocket = new DatagramSocket(0, loopbackAddress);
+    DatagramSocket controlSocket = new DatagramSocket(0, loopbackAddress);
+    deviceInfo = new BinaryCPDeviceInfo(loopbackAddress, 0, 1);
+    dispatcher = new BinaryCPRequestDispatcher(descriptionSocket, controlSocket);
+
+    boolean success = testRequestIDs(controlSocket);
+    System.out.println("Request ID correlation: " + (success ? "OK" : "FAILED"));
+
+    boolean oldestSuccess = testOldestRequest(controlSocket);
+    System.out.println("Oldest pending request: " + (oldestSuccess ? "OK" : "FAILED"));
+
+    boolean unmatchedSuccess = testUnmatchedResponses(descriptionSocket, controlSocket);
+    System.out.println("Unmatched responses: " + (unmatchedSuccess ? "OK" : "FAILED"));
+
+    long startTime = System.currentTimeMillis();
+    dispatcher.terminate();
+    boolean terminateSuccess = System.currentTimeMillis() - startTime <= BinaryCPRequestDispatcher.READ_TIMEOUT * 2;
+    System.out.println("Terminate: " + (terminateSuccess ? "OK" : "FAILED"));
+
+    descriptionSocket.close();
+    controlSocket.close();
+    deviceSocket.close();
+
+    System.exit(success && oldestSuccess && unmatchedSuccess && terminateSuccess ? 0 : 1);
+  }
+
+}
@@ -0,0 +1,157 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.test;
+
+import java.io.File;
+
+import de.fraunhofer.fokus.upnp.core_av.control_point.CPBrowseCache;
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLItem;
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLParserHandler;
+import de.fraunhofer.fokus.upnp.core_av.server.BrowseResponse;
+
+/**
+ * This class checks that the control point browse cache answers ranges of BrowseDirectChildren
+ * requests only if they are stored completely. Servers that report 0 total matches do not know the
+ * number of children, so requests beyond the stored pages must be sent to the server.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class TestBrowseCache
+{
+
+  private static final String UDN          = "uuid:TestBrowseCache";
+
+  private static final String CONTAINER_ID = "1";
+
+  /** Builds a DIDL-Lite result with a number of items */
+  private static String buildResult(int startingIndex, int count)
+  {
+    String result =
+      "<" + DIDLParserHandler.DIDL_LITE + " " + DIDLParserHandler.DC_XMLNS + " " + DIDLParserHandler.UPNP_XMLNS +
+        " " + DIDLParserHandler.UPNP_DIDL_LITE_XMLNS + ">";
+    for (int i = startingIndex; i < startingIndex + count; i++)
+    {
+      DIDLItem item = new DIDLItem("Item " + i, CONTAINER_ID + "_" + i);
+      item.setParentID(CONTAINER_ID);
+      result += item.toXMLDescription("*", "");
+    }
+    return result + "</" + DIDLParserHandler.DIDL_LITE + ">";
+  }
+
+  /** Caches one page as received from the server */
+  private static void putPage(CPBrowseCache cache,
+    int startingIndex,
+    int requestedCount,
+    int numberReturned,
+    int totalMatches)
+  {
+    cache.putDirectChildren(UDN,
+      CONTAINER_ID,
+      startingIndex,
+      requestedCount,
+      "*",
+      "",
+      buildResult(startingIndex, numberReturned),
+      numberReturned,
+      totalMatches,
+      1,
+      cache.getInvalidationCount(UDN));
+  }
+
+  /** Checks that a cached response contains the expected items */
+  private static boolean isRange(BrowseResponse response, int startingIndex, int count, long totalMatches)
+  {
+    if (response == null || response.getResult() == null || response.getResult().length != count ||
+      response.getNumberReturned() != count || response.getTotalMatches() != totalMatches)
+    {
+      return false;
+    }
+    for (int i = 0; i < count; i++)
+    {
+      if (!response.getResult()[i].getTitle().equals("Item " + (startingIndex + i)))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static BrowseResponse getRange(CPBrowseCache cache, int startingIndex, int requestedCount)
+  {
+    return cache.getDirectChildren(UDN, CONTAINER_ID, startingIndex, requestedCount, "*", "");
+  }
+
+  /** Checks a server that reports 0 total matches and caps the page size */
+  private static boolean testUnknownTotalMatches(CPBrowseCache cache)
+  {
+    cache.invalidateServer(UDN);
+    putPage(cache, 0, 16, 10, 0);
+
+    boolean success =
+      isRange(getRange(cache, 0, 10), 0, 10, 0) && isRange(getRange(cache, 4, 4), 4, 4, 0) &&
+        getRange(cache, 0, 16) == null && getRange(cache, 10, 16) == null && getRange(cache, 0, 0) == null;
+
+    // the next page is requested from the server and merged
+    putPage(cache, 10, 16, 10, 0);
+
+    return success && isRange(getRange(cache, 5, 10), 5, 10, 0) && getRange(cache, 20, 16) == null;
+  }
+
+  /** Checks a server that reports the real number of matches */
+  private static boolean testKnownTotalMatches(CPBrowseCache cache)
+  {
+    cache.invalidateServer(UDN);
+    putPage(cache, 0, 16, 16, 20);
+
+    boolean success = isRange(getRange(cache, 0, 16), 0, 16, 20) && getRange(cache, 16, 16) == null;
+
+    putPage(cache, 16, 16, 4, 20);
+
+    BrowseResponse endResponse = getRange(cache, 20, 16);
+
+    return success && isRange(getRange(cache, 16, 16), 16, 4, 20) && isRange(getRange(cache, 0, 0), 0, 20, 20) &&
+      endResponse != null && endResponse.getResult().length == 0 && endResponse.getTotalMatches() == 20 &&
+      getRange(cache, 21, 16) == null;
+  }
+
+  public static void main(String[] args)
+  {
+    File directory = new File(System.getProperty("java.io.tmpdir"), "TestBrowseCache");
+    CPBrowseCache cache = new CPBrowseCache(directory.getAbsolutePath());
+
+    boolean success = testUnknownTotalMatches(cache);
+    System.out.println("Unknown total matches: " + (success ? "OK" : "FAILED"));
+
+    boolean knownSuccess = testKnownTotalMatches(cache);
+    System.out.println("Known total matches: " + (knownSuccess ? "OK" : "FAILED"));
+
+    System.exit(success && knownSuccess ? 0 : 1);
+  }
+
+}
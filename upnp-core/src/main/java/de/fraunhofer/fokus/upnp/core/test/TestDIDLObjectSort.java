@@ -0,0 +1,176 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.test;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.Vector;
+
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLItem;
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLObject;
+import de.fraunhofer.fokus.upnp.core_av.server.DIDLObjectComparator;
+
+/**
+ * This class checks that DIDL objects with mixed numeric and non-numeric property values can be
+ * sorted. The comparison must be transitive, numbers must be sorted numerically and before all
+ * other values.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class TestDIDLObjectSort
+{
+
+  /** Values that are not transitive if numbers and strings are compared differently */
+  private static final String[] MIXED_VALUES =
+    new String[] {
+        "10", "9a", "9", "-3", "abc", "Abc", "10b", "007", "1e3", "", "zeta", "2"
+    };
+
+  /** Checks that all triples of the mixed values are ordered transitively */
+  private static boolean testTransitivity(DIDLObjectComparator comparator)
+  {
+    Vector objects = createObjects(MIXED_VALUES);
+    for (int i = 0; i < objects.size(); i++)
+    {
+      for (int j = 0; j < objects.size(); j++)
+      {
+        int ij = comparator.compare(objects.elementAt(i), objects.elementAt(j));
+        if (Integer.signum(ij) != -Integer.signum(comparator.compare(objects.elementAt(j), objects.elementAt(i))))
+        {
+          return false;
+        }
+        for (int k = 0; k < objects.size(); k++)
+        {
+          int jk = comparator.compare(objects.elementAt(j), objects.elementAt(k));
+          int ik = comparator.compare(objects.elementAt(i), objects.elementAt(k));
+          if (ij <= 0 && jk <= 0 && ik > 0)
+          {
+            System.out.println("Not transitive: " + MIXED_VALUES[i] + ", " + MIXED_VALUES[j] + ", " +
+              MIXED_VALUES[k]);
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Sorts many objects with random mixed values and checks the order */
+  private static boolean testSort(DIDLObjectComparator comparator, int count)
+  {
+    Random random = new Random(4711);
+    String[] values = new String[count];
+    for (int i = 0; i < count; i++)
+    {
+      int number = random.nextInt(200);
+      switch (random.nextInt(3))
+      {
+      case 0:
+        values[i] = "" + number;
+        break;
+      case 1:
+        values[i] = number + "a";
+        break;
+      default:
+        values[i] = MIXED_VALUES[number % MIXED_VALUES.length];
+      }
+    }
+    Vector objects = createObjects(values);
+    try
+    {
+      Collections.sort(objects, comparator);
+    } catch (IllegalArgumentException e)
+    {
+      System.out.println("Sort failed: " + e.getMessage());
+      return false;
+    }
+    boolean numberSeen = false;
+    boolean textSeen = false;
+    for (int i = 0; i < objects.size(); i++)
+    {
+      String title = ((DIDLObject)objects.elementAt(i)).getTitle();
+      boolean number = isNumber(title);
+      // numbers must precede all other values
+      if (number && textSeen)
+      {
+        return false;
+      }
+      numberSeen |= number;
+      textSeen |= !number;
+      if (i > 0 && comparator.compare(objects.elementAt(i - 1), objects.elementAt(i)) > 0)
+      {
+        return false;
+      }
+    }
+    // numbers are compared numerically
+    Vector numbers = createObjects(new String[] {
+        "100", "9", "-3", "25"
+    });
+    Collections.sort(numbers, comparator);
+
+    return numberSeen && textSeen && ((DIDLObject)numbers.elementAt(0)).getTitle().equals("-3") &&
+      ((DIDLObject)numbers.elementAt(3)).getTitle().equals("100");
+  }
+
+  private static Vector createObjects(String[] titles)
+  {
+    Vector result = new Vector();
+    for (int i = 0; i < titles.length; i++)
+    {
+      result.add(new DIDLItem(titles[i], "" + i));
+    }
+    return result;
+  }
+
+  private static boolean isNumber(String value)
+  {
+    try
+    {
+      Long.parseLong(value);
+      return true;
+    } catch (NumberFormatException e)
+    {
+      return false;
+    }
+  }
+
+  public static void main(String[] args)
+  {
+    DIDLObjectComparator comparator = new DIDLObjectComparator("+dc:title");
+
+    boolean success = testTransitivity(comparator);
+    System.out.println("Transitive order for mixed values: " + (success ? "OK" : "FAILED"));
+
+    boolean sortSuccess = testSort(comparator, 5000);
+    System.out.println("Sort of 5000 mixed values: " + (sortSuccess ? "OK" : "FAILED"));
+
+    System.exit(success && sortSuccess ? 0 : 1);
+  }
+
+}
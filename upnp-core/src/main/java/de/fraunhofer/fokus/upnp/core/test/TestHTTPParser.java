@@ -0,0 +1,269 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.test;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.StringTokenizer;
+
+import de.fraunhofer.fokus.upnp.http.HTTPParser;
+import de.fraunhofer.fokus.upnp.util.CommonConstants;
+import de.fraunhofer.fokus.upnp.util.StringHelper;
+
+/**
+ * This class checks that HTTPParser reads typical SSDP, GENA and SOAP headers like the former
+ * line based parser. Headers are parsed from strings and from received bytes, and method, host,
+ * response code and all header fields must be equal to those of the former parser.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class TestHTTPParser
+{
+
+  private static final String   NL       = CommonConstants.NEW_LINE;
+
+  /** Typical headers of received messages */
+  private static final String[] MESSAGES = new String[] {
+      "NOTIFY * HTTP/1.1" + NL + "HOST: 239.255.255.250:1900" + NL + "CACHE-CONTROL: max-age=1800" + NL +
+        "LOCATION: http://192.168.1.20:8080/description.xml" + NL + "NT: upnp:rootdevice" + NL +
+        "NTS: ssdp:alive" + NL + "SERVER: Linux/2.6 UPnP/1.0 FhG-Fokus-UPnP/1.0" + NL +
+        "USN: uuid:device1::upnp:rootdevice" + NL + NL,
+      "NOTIFY * HTTP/1.1" + NL + "Host: 239.255.255.250:1900" + NL + "nt: urn:schemas-upnp-org:device:Basic:1" + NL +
+        "Nts: ssdp:byebye" + NL + "Usn: uuid:device1::urn:schemas-upnp-org:device:Basic:1" + NL + NL,
+      "M-SEARCH * HTTP/1.1" + NL + "HOST: 239.255.255.250:1900" + NL + "MAN: \"ssdp:discover\"" + NL + "MX: 3" +
+        NL + "ST: ssdp:all" + NL + NL,
+      "HTTP/1.1 200 OK" + NL + "CACHE-CONTROL: max-age = 1800" + NL + "DATE: Sat, 17 Oct 2026 10:00:00 GMT" + NL +
+        "EXT:" + NL + "LOCATION: http://192.168.1.20:8080/description.xml" + NL +
+        "SERVER: Linux/2.6 UPnP/1.0 FhG-Fokus-UPnP/1.0" + NL + "ST: upnp:rootdevice" + NL +
+        "USN: uuid:device1::upnp:rootdevice" + NL + NL,
+      "SUBSCRIBE /event/service1 HTTP/1.1" + NL + "HOST: 192.168.1.20:8080" + NL +
+        "CALLBACK: <http://192.168.1.10:9000/callback>" + NL + "NT: upnp:event" + NL + "TIMEOUT: Second-1800" + NL +
+        NL,
+      "NOTIFY /callback HTTP/1.1" + NL + "HOST: 192.168.1.10:9000" + NL + "CONTENT-TYPE: text/xml" + NL +
+        "CONTENT-LENGTH: 120" + NL + "NT: upnp:event" + NL + "NTS: upnp:propchange" + NL + "SID: uuid:sub1" + NL +
+        "SEQ: 7" + NL + NL,
+      "POST /control/service1 HTTP/1.1" + NL + "HOST: 192.168.1.20:8080" + NL +
+        "CONTENT-LENGTH: 300" + NL + "CONTENT-TYPE: text/xml; charset=\"utf-8\"" + NL +
+        "SOAPACTION: \"urn:schemas-upnp-org:service:SwitchPower:1#SetTarget\"" + NL + NL,
+      "GET /description.xml HTTP/1.0" + NL + "Host: devicehost" + NL + "Accept-Language: de, en" + NL + NL,
+      "HTTP/1.1 404 Not Found" + NL + "Content-Length: 0" + NL + "Connection: close" + NL + NL,
+      "HTTP/1.1 200 OK\nSERVER: Linux UPnP/1.0\nST: upnp:rootdevice\n\n",
+      "HTTP/1.1 500" + NL + NL, "INVALID" + NL + "NO COLON" + NL + NL, ""
+  };
+
+  /** Former line based parser */
+  private static class LineParser
+  {
+
+    private String    method;
+
+    private String    hostPath;
+
+    private String    hostIP;
+
+    private int       hostPort     = -1;
+
+    private int       responseCode = -1;
+
+    private String    responseDescription;
+
+    private Hashtable fieldTable   = new Hashtable();
+
+    public void parse(String messageHeader)
+    {
+      if (messageHeader == null || messageHeader.length() == 0)
+      {
+        return;
+      }
+      StringTokenizer tokenizer = new StringTokenizer(messageHeader, CommonConstants.NEW_LINE);
+      if (tokenizer.hasMoreTokens())
+      {
+        String methodLine = tokenizer.nextToken();
+        if (methodLine.toUpperCase().startsWith(CommonConstants.HTTP_1_x))
+        {
+          int codeIndex = methodLine.indexOf(" ");
+          if (codeIndex != -1 && codeIndex < methodLine.length() - 1)
+          {
+            String codeString = methodLine.substring(codeIndex + 1).trim();
+            int descriptionIndex = codeString.indexOf(" ");
+            if (descriptionIndex != -1 && descriptionIndex < codeString.length() - 1)
+            {
+              try
+              {
+                responseCode = Integer.parseInt(codeString.substring(0, descriptionIndex));
+                responseDescription = codeString.substring(descriptionIndex + 1).trim();
+              } catch (Exception e)
+              {
+              }
+            }
+          }
+        } else
+        {
+          int pathIndex = methodLine.indexOf(" ");
+          if (pathIndex != -1 && pathIndex < methodLine.length() - 1)
+          {
+            method = methodLine.substring(0, pathIndex);
+            String pathString = methodLine.substring(pathIndex + 1).trim();
+            int httpIndex = pathString.indexOf(" ");
+            if (httpIndex != -1 && httpIndex < pathString.length() - 1)
+            {
+              hostPath = pathString.substring(0, httpIndex);
+            }
+          }
+        }
+        while (tokenizer.hasMoreTokens())
+        {
+          String line = tokenizer.nextToken();
+          int colonIndex = line.indexOf(":");
+          if (colonIndex != -1)
+          {
+            String tag = line.toUpperCase();
+            String value = "";
+            if (colonIndex < line.length() - 1)
+            {
+              tag = line.substring(0, colonIndex + 1).toUpperCase();
+              value = line.substring(colonIndex + 1).trim();
+            }
+            fieldTable.put(tag, value);
+            if (tag.equals(CommonConstants.HOST))
+            {
+              int portIndex = value.indexOf(":");
+              if (portIndex != -1 && portIndex < value.length() - 1)
+              {
+                hostIP = value.substring(0, portIndex);
+                try
+                {
+                  hostPort = Integer.parseInt(value.substring(portIndex + 1).trim());
+                } catch (Exception e)
+                {
+                }
+              } else
+              {
+                hostIP = value;
+                hostPort = CommonConstants.HTTP_DEFAULT_PORT;
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static boolean isEqual(String first, String second)
+  {
+    return first == null ? second == null : first.equals(second);
+  }
+
+  /** Compares the result of both parsers */
+  private static boolean isEqual(LineParser lineParser, HTTPParser httpParser)
+  {
+    boolean result =
+      isEqual(lineParser.method, httpParser.getMethod()) && isEqual(lineParser.hostPath, httpParser.getHostPath()) &&
+        isEqual(lineParser.hostIP, httpParser.getHostIP()) && lineParser.hostPort == httpParser.getHostPort() &&
+        lineParser.responseCode == httpParser.getResponseCode() &&
+        isEqual(lineParser.responseDescription, httpParser.getResponseDescription());
+
+    Enumeration tags = lineParser.fieldTable.keys();
+    while (tags.hasMoreElements())
+    {
+      String tag = (String)tags.nextElement();
+      result &= httpParser.hasField(tag) && httpParser.getValue(tag).equals(lineParser.fieldTable.get(tag));
+      // lookups ignore the case of the requested tag
+      result &= httpParser.hasField(tag.toLowerCase());
+    }
+    return result && !httpParser.hasField("X-UNKNOWN:");
+  }
+
+  /** Checks that strings and received bytes are parsed like with the former parser */
+  private static boolean testMessages()
+  {
+    boolean result = true;
+    // one parser is reused for all messages like in the servers
+    HTTPParser httpParser = new HTTPParser();
+    for (int i = 0; i < MESSAGES.length; i++)
+    {
+      LineParser lineParser = new LineParser();
+      lineParser.parse(MESSAGES[i]);
+
+      httpParser.parse(MESSAGES[i]);
+      boolean stringResult = isEqual(lineParser, httpParser);
+
+      // the header is embedded in a larger buffer to check offsets
+      byte[] data = StringHelper.stringToByteArray(MESSAGES[i]);
+      byte[] embeddedData = new byte[data.length + 8];
+      System.arraycopy(data, 0, embeddedData, 4, data.length);
+      httpParser.parse(embeddedData, 4, data.length);
+      boolean byteResult = isEqual(lineParser, httpParser);
+
+      httpParser.parse(data);
+      byteResult &= isEqual(lineParser, httpParser);
+
+      if (!stringResult || !byteResult)
+      {
+        System.out.println("Different result for message " + i);
+      }
+      result &= stringResult && byteResult;
+    }
+    return result;
+  }
+
+  /** Checks the message types derived from SSDP headers parsed from bytes */
+  private static boolean testSSDPMessageTypes()
+  {
+    HTTPParser httpParser = new HTTPParser();
+    httpParser.parse(StringHelper.stringToByteArray(MESSAGES[0]));
+    boolean result = httpParser.isNOTIFYAliveMessage() && !httpParser.isNOTIFYByeByeMessage();
+
+    httpParser.parse(StringHelper.stringToByteArray(MESSAGES[1]));
+    result &= httpParser.isNOTIFYByeByeMessage() && !httpParser.isNOTIFYAliveMessage();
+
+    httpParser.parse(StringHelper.stringToByteArray(MESSAGES[2]));
+    result &= httpParser.isMSEARCHMessage() && !httpParser.isMSEARCHResponseMessage();
+
+    httpParser.parse(StringHelper.stringToByteArray(MESSAGES[3]));
+    result &= httpParser.isMSEARCHResponseMessage() && httpParser.isHTTPOKResponse();
+
+    httpParser.parse(StringHelper.stringToByteArray(MESSAGES[6]));
+    result &= httpParser.isSOAPRequest() && !httpParser.isMSEARCHMessage();
+
+    return result;
+  }
+
+  public static void main(String[] args)
+  {
+    boolean success = testMessages();
+    System.out.println("Same fields as former parser: " + (success ? "OK" : "FAILED"));
+
+    boolean typeSuccess = testSSDPMessageTypes();
+    System.out.println("SSDP message types: " + (typeSuccess ? "OK" : "FAILED"));
+
+    System.exit(success && typeSuccess ? 0 : 1);
+  }
+
+}
@@ -0,0 +1,116 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.test;
+
+import de.fraunhofer.fokus.upnp.util.network.HTTPMessageHelper;
+
+/**
+ * This class checks the parsing of RANGE headers for partial GET requests. Satisfiable ranges are
+ * served with 206, an empty result leads to 416 and invalid headers are ignored, so the complete
+ * resource is served with 200.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class TestHTTPRanges
+{
+
+  private static final long RESOURCE_SIZE = 1000;
+
+  /** Checks the parsed ranges for a header. Expected ranges are given as start, end pairs. */
+  private static boolean isRanges(String rangeValue, long[] expectedRanges)
+  {
+    long[][] ranges = HTTPMessageHelper.getRanges(rangeValue, RESOURCE_SIZE);
+    boolean result = ranges != null && ranges.length * 2 == expectedRanges.length;
+    for (int i = 0; result && i < ranges.length; i++)
+    {
+      result = ranges[i][0] == expectedRanges[i * 2] && ranges[i][1] == expectedRanges[i * 2 + 1];
+    }
+    if (!result)
+    {
+      System.out.println("Unexpected ranges for " + rangeValue);
+    }
+    return result;
+  }
+
+  /** Checks that a header is ignored */
+  private static boolean isInvalid(String rangeValue)
+  {
+    boolean result = HTTPMessageHelper.getRanges(rangeValue, RESOURCE_SIZE) == null;
+    if (!result)
+    {
+      System.out.println("Accepted invalid range " + rangeValue);
+    }
+    return result;
+  }
+
+  public static void main(String[] args)
+  {
+    boolean success =
+      isRanges("bytes=0-99", new long[] {
+          0, 100
+      }) && isRanges("bytes=900-", new long[] {
+          900, 1000
+      }) && isRanges("bytes = 900-2000", new long[] {
+          900, 1000
+      }) && isRanges("BYTES=999-999", new long[] {
+          999, 1000
+      });
+    System.out.println("Single ranges: " + (success ? "OK" : "FAILED"));
+
+    boolean multiSuccess =
+      isRanges("bytes=0-9, 20-29", new long[] {
+          0, 10, 20, 30
+      }) && isRanges("bytes=0-9,2000-3000,,-10", new long[] {
+          0, 10, 990, 1000
+      });
+    System.out.println("Multiple ranges: " + (multiSuccess ? "OK" : "FAILED"));
+
+    boolean suffixSuccess = isRanges("bytes=-100", new long[] {
+        900, 1000
+    }) && isRanges("bytes=-2000", new long[] {
+        0, 1000
+    });
+    System.out.println("Suffix ranges: " + (suffixSuccess ? "OK" : "FAILED"));
+
+    // syntactically valid, but no range is satisfiable
+    boolean unsatisfiableSuccess =
+      isRanges("bytes=1000-", new long[0]) && isRanges("bytes=1000-1999,-0", new long[0]);
+    System.out.println("Unsatisfiable ranges: " + (unsatisfiableSuccess ? "OK" : "FAILED"));
+
+    boolean invalidSuccess =
+      isInvalid(null) && isInvalid("bytes=500-100") && isInvalid("bytes=0-9,500-100") && isInvalid("bytes=") &&
+        isInvalid("bytes=,") && isInvalid("bytes=-") && isInvalid("bytes=abc") && isInvalid("bytes=+1-2") &&
+        isInvalid("bytes=1-+2") && isInvalid("bytes=--5") && isInvalid("bytes=1-2-3") && isInvalid("items=0-9") &&
+        isInvalid("0-9");
+    System.out.println("Invalid ranges: " + (invalidSuccess ? "OK" : "FAILED"));
+
+    System.exit(success && multiSuccess && suffixSuccess && unsatisfiableSuccess && invalidSuccess ? 0 : 1);
+  }
+
+}
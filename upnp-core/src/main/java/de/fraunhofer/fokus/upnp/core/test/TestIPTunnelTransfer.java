@@ -0,0 +1,267 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IPPacket;
+import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IPTunnelConstants;
+import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IPTunnelServerSocket;
+import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IPTunnelSocket;
+import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.TCPPacket;
+import de.fraunhofer.fokus.upnp.util.tunnel.network_interface.DummyTunnelNetworkInterface;
+
+/**
+ * This class checks IP tunnel sockets over two connected in-process dummy tunnel network interfaces.
+ * TCP options must survive encoding and parsing, and transfers with and without packet loss must
+ * deliver the complete data while SACK, fast retransmission and the retransmission timeout work
+ * as negotiated. Afterwards, the throughput is measured for different segment sizes with and
+ * without packet loss.
+ * 
+ * Usage: TestIPTunnelTransfer [throughput size] [packet loss interval]
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class TestIPTunnelTransfer
+{
+
+  private static final int SERVER_PORT   = 8000;
+
+  private static final int TRANSFER_SIZE = 1024 * 1024;
+
+  /** Result of one transfer */
+  private static class TransferResult
+  {
+
+    private byte[]         receivedData;
+
+    private IPTunnelSocket clientSocket;
+
+    private int            lostPacketCount;
+
+    /** Time from connecting until all data was received in ns */
+    private long           duration;
+
+  }
+
+  /** Parses the byte representation of a TCP packet */
+  private static TCPPacket parseTCPPacket(byte[] data) throws Exception
+  {
+    InetAddress address = InetAddress.getByName("192.168.254.1");
+    IPPacket ipPacket = new IPPacket(IPTunnelConstants.PROTOCOL_TYPE_TCP, address, address, data);
+
+    return new TCPPacket(ipPacket, data);
+  }
+
+  /** Checks that MSS, SACK-permitted and SACK block options are parsed as they were written */
+  private static boolean testOptions() throws Exception
+  {
+    TCPPacket synPacket = new TCPPacket(1000, SERVER_PORT, 4711, 16384, 1400);
+    synPacket.setSackPermitted(true);
+    TCPPacket parsedSynPacket = parseTCPPacket(synPacket.toByteArray());
+
+    long[] sackBlocks = new long[] {
+        5000, 6000, 8000, 9000
+    };
+    TCPPacket ackPacket = new TCPPacket(SERVER_PORT, 1000, 4712, 3000, 16384, null);
+    ackPacket.setSackBlocks(sackBlocks);
+    TCPPacket parsedAckPacket = parseTCPPacket(ackPacket.toByteArray());
+
+    // header with an end-of-options byte followed by garbage
+    byte[] endOfOptionsData = new TCPPacket(1000, SERVER_PORT, 4711, 16384, 1400).toByteArray();
+    endOfOptionsData[20] = 0;
+    endOfOptionsData[21] = (byte)0xFF;
+    TCPPacket parsedEndOfOptionsPacket = parseTCPPacket(endOfOptionsData);
+
+    return parsedSynPacket.hasSYNFlag() && parsedSynPacket.getMaximumPayloadSize() == 1400 &&
+      parsedSynPacket.isSackPermitted() && parsedAckPacket.getAcknowledgementNumber() == 3000 &&
+      !parsedAckPacket.isSackPermitted() && Arrays.equals(parsedAckPacket.getSackBlocks(), sackBlocks) &&
+      parsedEndOfOptionsPacket.getMaximumPayloadSize() == 0;
+  }
+
+  /** Transfers a number of bytes over a new tunnel connection */
+  private static TransferResult runTransfer(int segmentSize, int packetLossInterval, final int size) throws Exception
+  {
+    InetAddress address = InetAddress.getByName("192.168.254.1");
+
+    DummyTunnelNetworkInterface clientInterface = new DummyTunnelNetworkInterface();
+    DummyTunnelNetworkInterface serverInterface = new DummyTunnelNetworkInterface();
+    DummyTunnelNetworkInterface.connect(clientInterface, serverInterface);
+
+    clientInterface.setMaximumSegmentSize(segmentSize);
+    clientInterface.setAcceptOnlySinglePacketsPerSocket(false);
+    clientInterface.setPacketLossInterval(packetLossInterval);
+    clientInterface.setIPTunnelInetAddress(address);
+
+    serverInterface.setMaximumSegmentSize(segmentSize);
+    serverInterface.setAcceptOnlySinglePacketsPerSocket(false);
+    serverInterface.setIPTunnelInetAddress(address);
+
+    final IPTunnelServerSocket serverSocket =
+      serverInterface.getIPTunnelSocketFactory().createIPTunnelServerSocket(SERVER_PORT);
+    final TransferResult result = new TransferResult();
+    result.receivedData = new byte[size];
+
+    Thread receiverThread = new Thread(new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          IPTunnelSocket socket = serverSocket.accept();
+          InputStream inputStream = socket.getInputStream();
+          int received = 0;
+          while (received < size)
+          {
+            int read = inputStream.read(result.receivedData, received, size - received);
+            if (read < 0)
+            {
+              break;
+            }
+            received += read;
+          }
+        } catch (Exception e)
+        {
+          System.out.println("Receiver failed: " + e.getMessage());
+        }
+      }
+    });
+    receiverThread.start();
+
+    long startTime = System.nanoTime();
+    IPTunnelSocket clientSocket = clientInterface.getIPTunnelSocketFactory().createIPTunnelSocket();
+    clientSocket.setSoTimeout(10000);
+    clientSocket.setTcpNoDelay(true);
+    clientSocket.connect(new InetSocketAddress(address, SERVER_PORT));
+
+    OutputStream outputStream = clientSocket.getOutputStream();
+    outputStream.write(createData(size));
+    outputStream.flush();
+    receiverThread.join(120000);
+    result.duration = System.nanoTime() - startTime;
+
+    result.clientSocket = clientSocket;
+    result.lostPacketCount = clientInterface.getLostPacketCount();
+
+    clientSocket.terminate(false);
+    serverSocket.terminate();
+    clientInterface.terminate();
+    serverInterface.terminate();
+
+    return result;
+  }
+
+  /** Checks that all data arrives without fast retransmissions if no packet is lost */
+  private static boolean testTransfer(int segmentSize) throws Exception
+  {
+    TransferResult result = runTransfer(segmentSize, 0, TRANSFER_SIZE);
+    IPTunnelSocket socket = result.clientSocket;
+
+    // the payload size is negotiated from the segment size minus the TCP header
+    return Arrays.equals(result.receivedData, createData(TRANSFER_SIZE)) && result.lostPacketCount == 0 &&
+      socket.isSackEnabled() && socket.getMaximumPayloadSize() == segmentSize - 20 &&
+      socket.getFastRetransmissionCount() == 0 && isValidRetransmissionTimeout(socket);
+  }
+
+  /** Checks that lost packets are recovered by fast retransmission */
+  private static boolean testLossRecovery(int segmentSize, int packetLossInterval) throws Exception
+  {
+    TransferResult result = runTransfer(segmentSize, packetLossInterval, TRANSFER_SIZE);
+    IPTunnelSocket socket = result.clientSocket;
+
+    return Arrays.equals(result.receivedData, createData(TRANSFER_SIZE)) && result.lostPacketCount > 0 &&
+      socket.isSackEnabled() && socket.getRetransmissionCount() > 0 && socket.getFastRetransmissionCount() > 0 &&
+      isValidRetransmissionTimeout(socket);
+  }
+
+  /** Checks that the retransmission timeout is within the allowed bounds */
+  private static boolean isValidRetransmissionTimeout(IPTunnelSocket socket)
+  {
+    return socket.getRetransmissionTimeout() >= IPTunnelConstants.TCP_MIN_RETRANSMISSION_TIMEOUT &&
+      socket.getRetransmissionTimeout() <= IPTunnelConstants.TCP_MAX_RETRANSMISSION_TIMEOUT &&
+      socket.getRoundTripTime() >= 0;
+  }
+
+  /** Prints the throughput of transfers for different segment sizes with and without packet loss */
+  private static void printThroughput(int size, int packetLossInterval) throws Exception
+  {
+    int[] segmentSizes = new int[] {
+        IPTunnelConstants.TCP_DEFAULT_SEGMENT_SIZE, 1400, IPTunnelConstants.TCP_STREAM_TUNNEL_SEGMENT_SIZE
+    };
+    for (int i = 0; i < segmentSizes.length; i++)
+    {
+      for (int j = 0; j < 2; j++)
+      {
+        int lossInterval = j == 0 ? 0 : packetLossInterval;
+        TransferResult result = runTransfer(segmentSizes[i], lossInterval, size);
+        long throughput = (long)size * 1000000000L / 1024 / Math.max(1, result.duration);
+        System.out.println("Throughput for segment size " + segmentSizes[i] + ", packet loss interval " +
+          lossInterval + ": " + throughput + " KB/s, " + result.lostPacketCount + " lost, " +
+          result.clientSocket.getRetransmissionCount() + " retransmitted");
+      }
+    }
+  }
+
+  private static byte[] createData(int size)
+  {
+    byte[] result = new byte[size];
+    for (int i = 0; i < size; i++)
+    {
+      result[i] = (byte)(i * 31 + (i >> 8));
+    }
+    return result;
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    int throughputSize = args.length > 0 ? Integer.parseInt(args[0]) : 4 * 1024 * 1024;
+    int packetLossInterval = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+    boolean success = testOptions();
+    System.out.println("TCP options: " + (success ? "OK" : "FAILED"));
+
+    boolean transferSuccess = testTransfer(IPTunnelConstants.TCP_DEFAULT_SEGMENT_SIZE);
+    System.out.println("Transfer without loss: " + (transferSuccess ? "OK" : "FAILED"));
+
+    boolean streamTransferSuccess = testTransfer(IPTunnelConstants.TCP_STREAM_TUNNEL_SEGMENT_SIZE);
+    System.out.println("Stream tunnel transfer without loss: " + (streamTransferSuccess ? "OK" : "FAILED"));
+
+    boolean lossSuccess = testLossRecovery(IPTunnelConstants.TCP_DEFAULT_SEGMENT_SIZE, 50);
+    System.out.println("Transfer with packet loss: " + (lossSuccess ? "OK" : "FAILED"));
+
+    printThroughput(throughputSize, packetLossInterval);
+
+    System.exit(success && transferSuccess && streamTransferSuccess && lossSuccess ? 0 : 1);
+  }
+
+}
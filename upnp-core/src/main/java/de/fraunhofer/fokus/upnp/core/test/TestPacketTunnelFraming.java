@@ -0,0 +1,240 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.test;
+
+import java.util.Vector;
+
+import de.fraunhofer.fokus.upnp.util.ByteArrayHelper;
+import de.fraunhofer.fokus.upnp.util.StringHelper;
+import de.fraunhofer.fokus.upnp.util.ThreadHelper;
+import de.fraunhofer.fokus.upnp.util.tunnel.common.AbstractPacketTunnel;
+import de.fraunhofer.fokus.upnp.util.tunnel.common.IPacketTunnelListener;
+
+/**
+ * This class checks the batched tunnel framing. Packets sent with default and with batched framing must arrive
+ * completely and in send order, batched NOTIFY bursts must be compressed and a tunnel that blocks while writing a
+ * batch must still be able to process received data.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class TestPacketTunnelFraming
+{
+
+  /** Creates a NOTIFY message with a sequence number */
+  private static byte[] createNotifyMessage(int index)
+  {
+    return StringHelper.stringToByteArray("NOTIFY * HTTP/1.1\r\nHOST: 239.255.255.250:1900\r\n" +
+      "CACHE-CONTROL: max-age=1800\r\nLOCATION: http://192.168.1." + (index % 250 + 2) + ":8080/device.xml\r\n" +
+      "NT: urn:schemas-upnp-org:service:ContentDirectory:1\r\nNTS: ssdp:alive\r\n" +
+      "USN: uuid:" + Integer.toHexString(0x10000 + index) + "::urn:schemas-upnp-org:service:ContentDirectory:1\r\n" +
+      "SEQ: " + index + "\r\n\r\n");
+  }
+
+  /** Sends packets over a pair of connected tunnels and checks that all arrive in order */
+  private static boolean testPacketOrder(boolean batchedFraming, int packetCount)
+  {
+    TestTunnel receiver = new TestTunnel(null);
+    TestTunnel sender = new TestTunnel(receiver);
+    sender.setBatchedFraming(batchedFraming);
+
+    for (int i = 0; i < packetCount; i++)
+    {
+      sender.sendPacket((byte)1, createNotifyMessage(i));
+    }
+    long start = System.currentTimeMillis();
+    while (receiver.getPacketCount() < packetCount && System.currentTimeMillis() - start < 5000)
+    {
+      ThreadHelper.sleep(5);
+    }
+    boolean success = receiver.getPacketCount() == packetCount;
+    for (int i = 0; success && i < packetCount; i++)
+    {
+      success = ByteArrayHelper.isEqual(createNotifyMessage(i), receiver.getPacket(i));
+    }
+    if (batchedFraming)
+    {
+      // repeated NOTIFY headers must be compressed
+      success &= sender.getSentTunnelBytes() < sender.getSentPacketBytes() / 2;
+    }
+    sender.setBatchedFraming(false);
+
+    System.out.println((batchedFraming ? "Batched framing: " : "Default framing: ") + receiver.getPacketCount() +
+      "/" + packetCount + " packets in order, " + sender.getSentPacketBytes() + " packet bytes, " +
+      sender.getSentTunnelBytes() + " tunnel bytes: " + (success ? "OK" : "FAILED"));
+
+    return success;
+  }
+
+  /** Checks that received data is processed while a batch frame write blocks */
+  private static boolean testReceiveWhileWriteBlocks()
+  {
+    final TestTunnel tunnel = new TestTunnel(null);
+    tunnel.setBatchedFraming(true);
+    tunnel.setBlockWrites(true);
+
+    // fill more than one batch so that the sending thread writes a frame itself
+    Thread sendThread = new Thread(new Runnable()
+    {
+      public void run()
+      {
+        for (int i = 0; i < 200; i++)
+        {
+          tunnel.sendPacket((byte)1, createNotifyMessage(i));
+        }
+      }
+    });
+    sendThread.setDaemon(true);
+    sendThread.start();
+    long start = System.currentTimeMillis();
+    while (!tunnel.isWriteBlocked() && System.currentTimeMillis() - start < 5000)
+    {
+      ThreadHelper.sleep(5);
+    }
+    // a frame from the remote side must be processed while the write is blocked
+    final byte[] payload = createNotifyMessage(0);
+    final byte[] frame = new byte[payload.length + 5];
+    System.arraycopy(ByteArrayHelper.int32ToByteArray(payload.length), 0, frame, 0, 4);
+    frame[4] = 1;
+    System.arraycopy(payload, 0, frame, 5, payload.length);
+
+    Thread receiveThread = new Thread(new Runnable()
+    {
+      public void run()
+      {
+        tunnel.handleReceivedData(frame, 0, frame.length);
+      }
+    });
+    receiveThread.setDaemon(true);
+    receiveThread.start();
+    try
+    {
+      receiveThread.join(2000);
+    } catch (InterruptedException e)
+    {
+    }
+    boolean success = tunnel.isWriteBlocked() && !receiveThread.isAlive() && tunnel.getPacketCount() == 1;
+    tunnel.setBlockWrites(false);
+    tunnel.setBatchedFraming(false);
+
+    System.out.println("Receive while a batch write blocks: " + (success ? "OK" : "FAILED"));
+
+    return success;
+  }
+
+  public static void main(String[] args)
+  {
+    boolean success = testPacketOrder(false, 500);
+    success &= testPacketOrder(true, 500);
+    success &= testReceiveWhileWriteBlocks();
+
+    System.exit(success ? 0 : 1);
+  }
+
+  /** Stream tunnel that writes to a peer tunnel and stores received packets */
+  private static class TestTunnel extends AbstractPacketTunnel implements IPacketTunnelListener
+  {
+
+    private TestTunnel peer;
+
+    private Vector     packetList   = new Vector();
+
+    private boolean    blockWrites  = false;
+
+    private boolean    writeBlocked = false;
+
+    public TestTunnel(TestTunnel peer)
+    {
+      super(null);
+      setTunnelListener(this);
+      setStreamTunnel(true);
+      this.peer = peer;
+    }
+
+    public void sendPacketInternal(byte[] data)
+    {
+      synchronized(this)
+      {
+        while (blockWrites)
+        {
+          writeBlocked = true;
+          try
+          {
+            wait();
+          } catch (InterruptedException e)
+          {
+          }
+        }
+      }
+      if (peer != null)
+      {
+        peer.handleReceivedData(data, 0, data.length);
+      }
+    }
+
+    public synchronized void setBlockWrites(boolean state)
+    {
+      blockWrites = state;
+      notifyAll();
+    }
+
+    public synchronized boolean isWriteBlocked()
+    {
+      return writeBlocked;
+    }
+
+    public boolean isConnected()
+    {
+      return true;
+    }
+
+    public void closeConnection()
+    {
+    }
+
+    public void triggerEvents()
+    {
+    }
+
+    public void packetReceived(byte packetType, byte[] payload)
+    {
+      packetList.add(payload);
+    }
+
+    public int getPacketCount()
+    {
+      return packetList.size();
+    }
+
+    public byte[] getPacket(int index)
+    {
+      return (byte[])packetList.elementAt(index);
+    }
+  }
+
+}
@@ -0,0 +1,314 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.test;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+import org.xml.sax.SAXException;
+
+import de.fraunhofer.fokus.upnp.core.Argument;
+import de.fraunhofer.fokus.upnp.core.UPnPConstant;
+import de.fraunhofer.fokus.upnp.core.device.Action;
+import de.fraunhofer.fokus.upnp.core.device.StateVariable;
+import de.fraunhofer.fokus.upnp.core.xml.SOAPActionArgument;
+import de.fraunhofer.fokus.upnp.core.xml.SOAPActionHandler;
+import de.fraunhofer.fokus.upnp.core.xml.SOAPActionParser;
+import de.fraunhofer.fokus.upnp.soap.SOAPCodec;
+import de.fraunhofer.fokus.upnp.soap.SOAPConstant;
+import de.fraunhofer.fokus.upnp.soap.SOAPMessageBuilder;
+import de.fraunhofer.fokus.upnp.util.StringHelper;
+import de.fraunhofer.fokus.upnp.util.XMLPullParser;
+
+/**
+ * This class checks that SOAPCodec builds the same request and response bodies as the
+ * SOAPMessageBuilder and that SOAPActionParser reads the same action, service type and arguments as
+ * the SAX based SOAPActionHandler. The XMLPullParser must handle CDATA sections, entities,
+ * namespaces and comments and reject malformed documents.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class TestSOAPCodec
+{
+
+  private static final String SERVICE_TYPE   = "urn:schemas-upnp-org:service:TestCodec:1";
+
+  private static final String ENVELOPE_START = SOAPConstant.ENVELOPE_START_TAG;
+
+  private static final String ENVELOPE_END   = SOAPConstant.ENVELOPE_END_TAG;
+
+  /** Creates an action with arguments of one direction */
+  private static Action createAction(String name, String direction, String[] argumentNames) throws Exception
+  {
+    Argument[] arguments = new Argument[argumentNames.length];
+    for (int i = 0; i < argumentNames.length; i++)
+    {
+      arguments[i] = new Argument(argumentNames[i], direction, new StateVariable(argumentNames[i], "", false));
+    }
+    return new Action(name, arguments);
+  }
+
+  /** Sets the values of all arguments */
+  private static void setValues(Action action, String[] values) throws Exception
+  {
+    Argument[] arguments = action.getArgumentTable();
+    for (int i = 0; i < values.length; i++)
+    {
+      arguments[i].setValue(values[i]);
+    }
+  }
+
+  /** Checks that the parser found an action with the expected arguments */
+  private static boolean isParsedAction(SOAPActionParser parser, String actionName, String[] names, String[] values)
+  {
+    Vector argumentList = parser.getArgumentList();
+    boolean result =
+      parser.isValid() && parser.getActionName().equals(actionName) && parser.getServiceType().equals(SERVICE_TYPE) &&
+        argumentList.size() == names.length;
+    for (int i = 0; result && i < names.length; i++)
+    {
+      SOAPActionArgument argument = (SOAPActionArgument)argumentList.elementAt(i);
+      result = argument.getName().equals(names[i]) && argument.getValue().equals(values[i]);
+    }
+    return result;
+  }
+
+  /** Checks that the pull parser and the SAX handler read the same action from a document */
+  private static boolean isParsedLikeSAX(String document) throws SAXException
+  {
+    SOAPActionParser parser = new SOAPActionParser();
+    parser.parse(document);
+    SOAPActionHandler handler = new SOAPActionHandler();
+    handler.parse(document);
+
+    Vector argumentList = parser.getArgumentList();
+    Vector handlerArgumentList = handler.getArgumentList();
+    boolean result =
+      parser.isValid() == handler.isValid() && parser.getActionName().equals(handler.getActionName()) &&
+        parser.getServiceType().equals(handler.getServiceType()) &&
+        argumentList.size() == handlerArgumentList.size();
+    for (int i = 0; result && i < argumentList.size(); i++)
+    {
+      SOAPActionArgument argument = (SOAPActionArgument)argumentList.elementAt(i);
+      SOAPActionArgument handlerArgument = (SOAPActionArgument)handlerArgumentList.elementAt(i);
+      result = argument.getName().equals(handlerArgument.getName()) &&
+        argument.getValue().equals(handlerArgument.getValue());
+    }
+    return result;
+  }
+
+  /** Checks that requests are equal to those of the SOAPMessageBuilder and can be parsed again */
+  private static boolean testRequests() throws Exception
+  {
+    String[] names = new String[] {
+        "InstanceID", "Title", "Empty", "Unicode"
+    };
+    String[][] valueSets = new String[][] {
+        {
+            "0", "Simple title", "", "Grüße €"
+        }, {
+            "17", "<a href=\"x\">Tom & Jerry's</a>", "", "&amp; is already escaped"
+        }, {
+            "", "", "", ""
+        }
+    };
+    Action action = createAction("SetTitle", UPnPConstant.DIRECTION_IN, names);
+    Action emptyAction = createAction("GetStatus", UPnPConstant.DIRECTION_IN, new String[0]);
+
+    boolean result = true;
+    // repeated encoding reuses the precomputed template
+    for (int i = 0; i < valueSets.length; i++)
+    {
+      setValues(action, valueSets[i]);
+      byte[] body = SOAPCodec.encodeActionRequest(SERVICE_TYPE, action);
+      String builderBody =
+        SOAPMessageBuilder.buildEnvelope(SOAPMessageBuilder.buildActionRequestInnerBody(SERVICE_TYPE, action));
+      result &= Arrays.equals(body, StringHelper.utf8StringToByteArray(builderBody));
+
+      String document = StringHelper.byteArrayToUTF8String(body);
+      SOAPActionParser parser = new SOAPActionParser();
+      parser.parse(document);
+      // values that already contain entities are sent unchanged and decoded by the receiver
+      String[] expectedValues = new String[valueSets[i].length];
+      for (int j = 0; j < expectedValues.length; j++)
+      {
+        expectedValues[j] = StringHelper.escapedStringToXML(StringHelper.escapeXMLIfNecessary(valueSets[i][j]));
+      }
+      result &= isParsedAction(parser, "SetTitle", names, expectedValues) && isParsedLikeSAX(document);
+    }
+    byte[] emptyBody = SOAPCodec.encodeActionRequest(SERVICE_TYPE, emptyAction);
+    String emptyBuilderBody =
+      SOAPMessageBuilder.buildEnvelope(SOAPMessageBuilder.buildActionRequestInnerBody(SERVICE_TYPE, emptyAction));
+    result &= Arrays.equals(emptyBody, StringHelper.utf8StringToByteArray(emptyBuilderBody));
+
+    SOAPActionParser parser = new SOAPActionParser();
+    parser.parse(StringHelper.byteArrayToUTF8String(emptyBody));
+    result &= isParsedAction(parser, "GetStatus", new String[0], new String[0]);
+
+    return result;
+  }
+
+  /** Checks that responses are equal to those of the SOAPMessageBuilder and can be parsed again */
+  private static boolean testResponses() throws Exception
+  {
+    String[] names = new String[] {
+        "Result", "NumberReturned", "Empty"
+    };
+    String[] values = new String[] {
+        "<DIDL-Lite><item id=\"1\"><dc:title>Rock & Roll</dc:title></item></DIDL-Lite>", "1", ""
+    };
+    Action action = createAction("Browse", UPnPConstant.DIRECTION_OUT, names);
+    setValues(action, values);
+
+    byte[] body = SOAPCodec.encodeActionResponse(SERVICE_TYPE, action);
+    String builderBody = SOAPMessageBuilder.buildActionResponseBody(SERVICE_TYPE, "Browse", names, values);
+    boolean result = Arrays.equals(body, StringHelper.utf8StringToByteArray(builderBody));
+
+    String document = StringHelper.byteArrayToUTF8String(body);
+    SOAPActionParser parser = new SOAPActionParser();
+    parser.parse(document);
+
+    return result && isParsedAction(parser, "Browse", names, values) && isParsedLikeSAX(document);
+  }
+
+  /** Checks that the pull parser handles CDATA, entities, namespaces and comments like the SAX handler */
+  private static boolean testPullParser() throws Exception
+  {
+    String cdataDocument =
+      "<?xml version=\"1.0\"?>" + ENVELOPE_START + "<s:Body><u:Set xmlns:u=\"" + SERVICE_TYPE + "\">" +
+        "<Value><![CDATA[<b>&amp;</b>]]></Value><Mixed>a<![CDATA[<]]>b</Mixed></u:Set></s:Body>" + ENVELOPE_END;
+    String entityDocument =
+      ENVELOPE_START + "<s:Body><u:Set xmlns:u=\"" + SERVICE_TYPE + "\">" +
+        "<Value>&lt;&gt;&amp;&quot;&apos;&#65;&#x42;</Value><Attribute a=\"&lt;x&gt;\">1</Attribute>" +
+        "</u:Set></s:Body>" + ENVELOPE_END;
+    String namespaceDocument =
+      "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+        "<SOAP-ENV:Header><m:Id xmlns:m=\"urn:header\">5</m:Id></SOAP-ENV:Header><SOAP-ENV:Body>" +
+        "<m:Set xmlns:m=\"" + SERVICE_TYPE + "\"><Value xmlns=\"urn:default\">7</Value><Empty/></m:Set>" +
+        "</SOAP-ENV:Body></SOAP-ENV:Envelope>";
+    String commentDocument =
+      "<?xml version=\"1.0\"?><!-- before -->" + ENVELOPE_START + "<s:Body><!-- body -->" + "<u:Set xmlns:u=\"" +
+        SERVICE_TYPE + "\"><!-- action --><Value>1<!-- inside -->2</Value>\r\n<?pi data?><Next>3</Next></u:Set>" +
+        "</s:Body>" + ENVELOPE_END + "<!-- after -->";
+    // document type declarations are parsed with the SAX handler
+    String doctypeDocument =
+      "<?xml version=\"1.0\"?><!DOCTYPE s:Envelope>" + ENVELOPE_START + "<s:Body><u:Set xmlns:u=\"" + SERVICE_TYPE +
+        "\"><Value>1</Value></u:Set></s:Body>" + ENVELOPE_END;
+
+    SOAPActionParser parser = new SOAPActionParser();
+    parser.parse(cdataDocument);
+    boolean result = isParsedAction(parser, "Set", new String[] {
+        "Value", "Mixed"
+    }, new String[] {
+        "<b>&amp;</b>", "a<b"
+    });
+    parser.parse(entityDocument);
+    result &= isParsedAction(parser, "Set", new String[] {
+        "Value", "Attribute"
+    }, new String[] {
+        "<>&\"'AB", "1"
+    });
+    parser.parse(namespaceDocument);
+    result &= isParsedAction(parser, "Set", new String[] {
+        "Value", "Empty"
+    }, new String[] {
+        "7", ""
+    });
+    parser.parse(doctypeDocument);
+    result &= isParsedAction(parser, "Set", new String[] {
+      "Value"
+    }, new String[] {
+      "1"
+    });
+
+    XMLPullParser pullParser = new XMLPullParser(entityDocument);
+    while (pullParser.next() != XMLPullParser.START_TAG || !pullParser.getName().equals("Attribute"))
+    {
+    }
+    result &= pullParser.getAttributeCount() == 1 && pullParser.getAttributeValue(0).equals("<x>");
+
+    return result && isParsedLikeSAX(cdataDocument) && isParsedLikeSAX(entityDocument) &&
+      isParsedLikeSAX(namespaceDocument) && isParsedLikeSAX(commentDocument) && isParsedLikeSAX(doctypeDocument);
+  }
+
+  /** Checks that the pull parser rejects malformed documents */
+  private static boolean testMalformedDocuments() throws Exception
+  {
+    String[] documents =
+      new String[] {
+          ENVELOPE_START + "<s:Body><u:Set xmlns:u=\"" + SERVICE_TYPE + "\"><Value>1</Other></u:Set></s:Body>" +
+            ENVELOPE_END,
+          ENVELOPE_START + "<s:Body><u:Set xmlns:u=\"" + SERVICE_TYPE + "\"><Value>1</Value>",
+          ENVELOPE_START + "<s:Body><u:Set xmlns:u=\"" + SERVICE_TYPE + "\"><Value>&unknown;</Value></u:Set>" +
+            "</s:Body>" + ENVELOPE_END,
+          ENVELOPE_START + "<s:Body><u:Set xmlns:u=\"" + SERVICE_TYPE + "\"><Value a=1>1</Value></u:Set></s:Body>" +
+            ENVELOPE_END, ENVELOPE_START + ENVELOPE_END + "<Second/>", "", "no xml"
+      };
+    boolean result = true;
+    for (int i = 0; i < documents.length; i++)
+    {
+      boolean rejected = false;
+      try
+      {
+        XMLPullParser parser = new XMLPullParser(documents[i]);
+        while (parser.next() != XMLPullParser.END_DOCUMENT)
+        {
+        }
+      } catch (SAXException e)
+      {
+        rejected = true;
+      }
+      if (!rejected)
+      {
+        System.out.println("Malformed document " + i + " was accepted");
+      }
+      // the SAX handler is used as fallback and determines the result
+      result &= rejected && (documents[i].length() == 0 || isParsedLikeSAX(documents[i]));
+    }
+    return result;
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    boolean success = testRequests();
+    System.out.println("Requests: " + (success ? "OK" : "FAILED"));
+
+    boolean responseSuccess = testResponses();
+    System.out.println("Responses: " + (responseSuccess ? "OK" : "FAILED"));
+
+    boolean pullParserSuccess = testPullParser();
+    System.out.println("Pull parser: " + (pullParserSuccess ? "OK" : "FAILED"));
+
+    boolean malformedSuccess = testMalformedDocuments();
+    System.out.println("Malformed documents: " + (malformedSuccess ? "OK" : "FAILED"));
+
+    System.exit(success && responseSuccess && pullParserSuccess && malformedSuccess ? 0 : 1);
+  }
+
+}
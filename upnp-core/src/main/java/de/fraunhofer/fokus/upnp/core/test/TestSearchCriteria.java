@@ -0,0 +1,264 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.test;
+
+import java.util.Vector;
+
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLConstants;
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLContainer;
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLItem;
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLMusicTrack;
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLObject;
+import de.fraunhofer.fokus.upnp.core_av.server.ContentDirectoryIndex;
+import de.fraunhofer.fokus.upnp.core_av.server.SearchCriteria;
+import de.fraunhofer.fokus.upnp.util.exceptions.ActionFailedException;
+
+/**
+ * This class checks the parsing and evaluation of search criteria and the search in the
+ * ContentDirectoryIndex. Results found with the index must be equal to the objects that match the
+ * criteria when all objects are checked.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class TestSearchCriteria
+{
+
+  private static final String   SEARCH_CAPABILITIES =
+    "dc:title,dc:creator,upnp:class,upnp:artist,upnp:genre,@id,@parentID";
+
+  /** Titles that are compared numerically or lexically */
+  private static final String[] TITLES              = new String[] {
+      "9", "10", "100", "12345678901234567890", "007", "-5", "+3", "abc", "Abc Song", "10b"
+  };
+
+  /** Criteria that are checked with and without the index */
+  private static final String[] CRITERIA            =
+                                                      new String[] {
+      "*", "upnp:class derivedfrom \"object.item\"", "upnp:class derivedfrom \"object.item.audioItem\"",
+      "upnp:class = \"object.container\"", "dc:title = \"7\"", "dc:title = \"abc\"", "dc:title < \"10\"",
+      "dc:title >= \"100\"", "dc:title != \"10\"", "dc:title contains \"ABC\"", "dc:title doesNotContain \"1\"",
+      "upnp:artist exists true", "upnp:artist exists false",
+      "upnp:artist = \"Artist 1\" or upnp:class derivedfrom \"object.container\" and dc:title = \"Music\"",
+      "(upnp:artist = \"Artist 1\" or upnp:class derivedfrom \"object.container\") and dc:title contains \"a\"",
+      "@parentID = \"1\" and dc:title > \"-10\"", "dc:creator = \"Creator\""
+  };
+
+  /** Creates the content of a small media server */
+  private static Vector createObjects()
+  {
+    Vector result = new Vector();
+    DIDLContainer music = new DIDLContainer("Music", "1");
+    DIDLContainer other = new DIDLContainer("Other", "2");
+    music.setParentID("0");
+    other.setParentID("0");
+    result.add(music);
+    result.add(other);
+    for (int i = 0; i < TITLES.length; i++)
+    {
+      DIDLItem item;
+      if (i % 2 == 0)
+      {
+        DIDLMusicTrack track = new DIDLMusicTrack(TITLES[i], "t" + i);
+        track.setArtist("Artist " + i % 3);
+        track.setParentID(music.getID());
+        item = track;
+      } else
+      {
+        item = new DIDLItem(TITLES[i], "i" + i);
+        item.setParentID(other.getID());
+      }
+      item.setCreator(i % 4 == 0 ? "Creator" : null);
+      result.add(item);
+    }
+    // a class that only shares a prefix with object.item
+    DIDLItem prefixItem = new DIDLItem("Prefix", "p");
+    prefixItem.setObjectClass("object.itemx");
+    prefixItem.setParentID(other.getID());
+    result.add(prefixItem);
+
+    return result;
+  }
+
+  /** Retrieves the titles of a list of objects */
+  private static String toTitles(Vector objects)
+  {
+    StringBuffer result = new StringBuffer();
+    for (int i = 0; i < objects.size(); i++)
+    {
+      result.append((i > 0 ? "," : "") + ((DIDLObject)objects.elementAt(i)).getTitle());
+    }
+    return result.toString();
+  }
+
+  /** Checks if an object is a descendant of a container */
+  private static boolean isDescendant(Vector objects, DIDLObject didlObject, String containerID)
+  {
+    String parentID = didlObject.getParentID();
+    while (parentID != null && !parentID.equals(containerID))
+    {
+      DIDLObject parent = null;
+      for (int i = 0; parent == null && i < objects.size(); i++)
+      {
+        if (((DIDLObject)objects.elementAt(i)).getID().equals(parentID))
+        {
+          parent = (DIDLObject)objects.elementAt(i);
+        }
+      }
+      parentID = parent != null ? parent.getParentID() : null;
+    }
+    return parentID != null;
+  }
+
+  /** Searches all objects without the index */
+  private static Vector search(Vector objects, String containerID, SearchCriteria searchCriteria)
+  {
+    Vector result = new Vector();
+    for (int i = 0; i < objects.size(); i++)
+    {
+      DIDLObject didlObject = (DIDLObject)objects.elementAt(i);
+      if (isDescendant(objects, didlObject, containerID) && searchCriteria.matches(didlObject))
+      {
+        result.add(didlObject);
+      }
+    }
+    return result;
+  }
+
+  /** Checks the result of a search without the index */
+  private static boolean isResult(Vector objects, String criteria, String titles) throws ActionFailedException
+  {
+    String result = toTitles(search(objects, "0", SearchCriteria.parse(criteria, SEARCH_CAPABILITIES)));
+    if (!result.equals(titles))
+    {
+      System.out.println("Unexpected result for " + criteria + ": " + result);
+    }
+    return result.equals(titles);
+  }
+
+  /** Checks that invalid and unsupported criteria are rejected */
+  private static boolean testInvalidCriteria()
+  {
+    String[] invalidCriteria =
+      new String[] {
+          "", "dc:title", "dc:title =", "dc:title = abc", "dc:date = \"2008\"", "dc:title like \"a\"",
+          "dc:title exists \"true\"", "upnp:artist exists maybe", "(dc:title = \"a\"", "dc:title = \"a\")",
+          "dc:title = \"a\" and", "dc:title = \"a\" dc:title = \"b\"", "dc:title = \"unterminated"
+      };
+    boolean result = true;
+    for (int i = 0; i < invalidCriteria.length; i++)
+    {
+      try
+      {
+        SearchCriteria.parse(invalidCriteria[i], SEARCH_CAPABILITIES);
+        System.out.println("Accepted invalid criteria: " + invalidCriteria[i]);
+        result = false;
+      } catch (ActionFailedException e)
+      {
+        result &= e.getErrorCode() == 708;
+      }
+    }
+    return result;
+  }
+
+  /** Checks class derivation, numeric and lexical comparisons and logical operators */
+  private static boolean testMatches() throws ActionFailedException
+  {
+    Vector objects = createObjects();
+    return isResult(objects, "upnp:class derivedfrom \"object.item\"", "9,10,100,12345678901234567890,007,-5,+3,abc," +
+      "Abc Song,10b") &&
+      isResult(objects, "upnp:class derivedfrom \"object.item.audioItem.musicTrack\"", "9,100,007,+3,Abc Song") &&
+      isResult(objects, "upnp:class derivedfrom \"object.itemx\"", "Prefix") &&
+      isResult(objects, "dc:title < \"10\"", "9,007,-5,+3") &&
+      isResult(objects, "dc:title > \"99999999999999999999\"", "Music,Other,abc,Abc Song,10b,Prefix") &&
+      isResult(objects, "dc:title >= \"12345678901234567890\" and dc:title <= \"12345678901234567890\"",
+        "12345678901234567890") && isResult(objects, "dc:title = \"7\" or dc:title = \"3\"", "007,+3") &&
+      isResult(objects, "dc:title = \"-0005\"", "-5") && isResult(objects, "dc:title = \"ABC\"", "abc") &&
+      isResult(objects, "dc:title contains \"abc\" and upnp:artist exists true", "Abc Song") &&
+      isResult(objects, "upnp:artist = \"Artist 0\" or dc:title = \"abc\" and upnp:artist exists true", "9,+3");
+  }
+
+  /** Checks that the index finds the same objects as the evaluation of all objects */
+  private static boolean testIndex() throws ActionFailedException
+  {
+    Vector objects = createObjects();
+    ContentDirectoryIndex index = new ContentDirectoryIndex();
+    for (int i = 0; i < objects.size(); i++)
+    {
+      index.addObject((DIDLObject)objects.elementAt(i));
+    }
+    boolean result = index.size() == objects.size();
+    String[] containerIDs = new String[] {
+        "0", "1", "2"
+    };
+    for (int i = 0; i < CRITERIA.length; i++)
+    {
+      SearchCriteria searchCriteria = SearchCriteria.parse(CRITERIA[i], SEARCH_CAPABILITIES);
+      for (int j = 0; j < containerIDs.length; j++)
+      {
+        String indexResult = toTitles(index.search(containerIDs[j], searchCriteria));
+        String expectedResult = toTitles(search(objects, containerIDs[j], searchCriteria));
+        if (!indexResult.equals(expectedResult))
+        {
+          System.out.println("Different index result for " + CRITERIA[i] + " in " + containerIDs[j] + ": " +
+            indexResult + " instead of " + expectedResult);
+          result = false;
+        }
+      }
+    }
+    // changed objects are found with their new values
+    DIDLObject changedObject = (DIDLObject)objects.elementAt(2);
+    changedObject.setTitle("Changed");
+    index.addObject(changedObject);
+    SearchCriteria oldTitle = SearchCriteria.parse("dc:title = \"9\"", SEARCH_CAPABILITIES);
+    SearchCriteria newTitle = SearchCriteria.parse("dc:title = \"changed\"", SEARCH_CAPABILITIES);
+    result &= index.search("0", oldTitle).size() == 0 && index.search("0", newTitle).size() == 1;
+
+    // removed containers are removed with their children
+    index.removeObject("1");
+    SearchCriteria all = SearchCriteria.parse("*", SEARCH_CAPABILITIES);
+    result &= index.search("0", all).size() == objects.size() - 6 && index.search("1", all).size() == 0;
+
+    return result;
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    boolean success = testInvalidCriteria();
+    System.out.println("Invalid criteria: " + (success ? "OK" : "FAILED"));
+
+    boolean matchSuccess = testMatches();
+    System.out.println("Matches: " + (matchSuccess ? "OK" : "FAILED"));
+
+    boolean indexSuccess = testIndex();
+    System.out.println("Index search: " + (indexSuccess ? "OK" : "FAILED"));
+
+    System.exit(success && matchSuccess && indexSuccess ? 0 : 1);
+  }
+
+}
@@ -0,0 +1,244 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import de.fraunhofer.fokus.upnp.core.control_point.CPDeviceDescriptionRetrieval;
+import de.fraunhofer.fokus.upnp.core.xml.UPnPStartupConfiguration;
+import de.fraunhofer.fokus.upnp.core_security.control_point.SecurityAwareCPDeviceDescriptionRetrieval;
+import de.fraunhofer.fokus.upnp.core_security.templates.SecurityAwareTemplateControlPoint;
+import de.fraunhofer.fokus.upnp.core_security.templates.SecurityAwareTemplateEntity;
+import de.fraunhofer.fokus.upnp.http.HTTPMessageFlow;
+
+/**
+ * This class checks that service descriptions are prefetched with pipelined requests for normal
+ * and security aware control points. Security aware control points must build each request with
+ * their own message options.
+ * 
+ * Usage: TestSecuredDescriptionPrefetch [startup configuration of a control point]
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class TestSecuredDescriptionPrefetch
+{
+
+  private static final int DESCRIPTION_COUNT = 3;
+
+  /** Request lines received by the description server */
+  private static Vector    requestLines      = new Vector();
+
+  /** Builds the description that is returned for a path */
+  private static String getDescription(String path)
+  {
+    return "<scpd><path>" + path + "</path></scpd>";
+  }
+
+  /** Starts a description server that supports persistent connections and pipelined requests */
+  private static ServerSocket startDescriptionServer() throws Exception
+  {
+    final ServerSocket serverSocket = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+    Thread serverThread = new Thread(new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          while (true)
+          {
+            final Socket socket = serverSocket.accept();
+            Thread connectionThread = new Thread(new Runnable()
+            {
+              public void run()
+              {
+                handleConnection(socket);
+              }
+            });
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+          }
+        } catch (Exception e)
+        {
+        }
+      }
+    });
+    serverThread.setDaemon(true);
+    serverThread.start();
+
+    return serverSocket;
+  }
+
+  /** Answers all GET requests received over one connection */
+  private static void handleConnection(Socket socket)
+  {
+    try
+    {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+      OutputStream outputStream = socket.getOutputStream();
+      String requestLine = reader.readLine();
+      while (requestLine != null)
+      {
+        // skip header
+        String headerLine = reader.readLine();
+        while (headerLine != null && headerLine.length() > 0)
+        {
+          headerLine = reader.readLine();
+        }
+        requestLines.add(requestLine);
+
+        byte[] body = getDescription(requestLine.split(" ")[1]).getBytes("UTF-8");
+        String header =
+          "HTTP/1.1 200 OK\r\nCONTENT-TYPE: text/xml; charset=\"utf-8\"\r\nCONTENT-LENGTH: " + body.length + "\r\n\r\n";
+        outputStream.write(header.getBytes("ISO-8859-1"));
+        outputStream.write(body);
+        outputStream.flush();
+
+        requestLine = reader.readLine();
+      }
+      socket.close();
+    } catch (Exception e)
+    {
+    }
+  }
+
+  /** Prefetches the descriptions and checks the result */
+  private static boolean checkPrefetch(String name, PrefetchingRetrieval retrieval, URL[] descriptionURLs)
+    throws Exception
+  {
+    requestLines.clear();
+    retrieval.prefetch(descriptionURLs);
+
+    Field field = CPDeviceDescriptionRetrieval.class.getDeclaredField("prefetchedDescriptionTable");
+    field.setAccessible(true);
+    Hashtable prefetchedDescriptionTable = (Hashtable)field.get(retrieval.getRetrieval());
+
+    boolean success = requestLines.size() == descriptionURLs.length;
+    for (int i = 0; i < descriptionURLs.length; i++)
+    {
+      String description = (String)prefetchedDescriptionTable.get(descriptionURLs[i].toExternalForm());
+      success &= getDescription(descriptionURLs[i].getPath()).equals(description);
+    }
+    System.out.println(name + ": " + requestLines.size() + " requests, " + prefetchedDescriptionTable.size() +
+      " prefetched descriptions: " + (success ? "OK" : "FAILED"));
+
+    return success;
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    String configurationFileName = args.length > 0 ? args[0] : "res/ControlPointEntity.xml";
+
+    ServerSocket serverSocket = startDescriptionServer();
+    URL[] descriptionURLs = new URL[DESCRIPTION_COUNT];
+    for (int i = 0; i < descriptionURLs.length; i++)
+    {
+      descriptionURLs[i] = new URL("http://127.0.0.1:" + serverSocket.getLocalPort() + "/service" + i + ".xml");
+    }
+    URL deviceDescriptionURL = new URL("http://127.0.0.1:" + serverSocket.getLocalPort() + "/description.xml");
+
+    HTTPMessageFlow.getHTTPClientPool().setPipelining(true);
+
+    boolean success =
+      checkPrefetch("Pipelined prefetch", new PrefetchingCPDeviceDescriptionRetrieval(deviceDescriptionURL),
+        descriptionURLs);
+
+    // security aware control points are not started immediately, so no network access is needed
+    UPnPStartupConfiguration startupConfiguration = new UPnPStartupConfiguration(configurationFileName);
+    SecurityAwareTemplateEntity entity = new SecurityAwareTemplateEntity(startupConfiguration);
+    SecurityAwareTemplateControlPoint controlPoint =
+      new SecurityAwareTemplateControlPoint(entity, startupConfiguration);
+
+    success &=
+      checkPrefetch("Pipelined prefetch for security aware control point",
+        new PrefetchingSecurityAwareCPDeviceDescriptionRetrieval(controlPoint, deviceDescriptionURL),
+        descriptionURLs);
+
+    System.out.println(success ? "All tests passed" : "Tests FAILED");
+    System.exit(success ? 0 : 1);
+  }
+
+  /** Interface for retrievals that allow to start a prefetch */
+  private interface PrefetchingRetrieval
+  {
+    public void prefetch(URL[] descriptionURLs);
+
+    public CPDeviceDescriptionRetrieval getRetrieval();
+  }
+
+  /** Retrieval for normal control points */
+  private static class PrefetchingCPDeviceDescriptionRetrieval extends CPDeviceDescriptionRetrieval implements
+    PrefetchingRetrieval
+  {
+    public PrefetchingCPDeviceDescriptionRetrieval(URL deviceDescriptionURL)
+    {
+      super(null, null, deviceDescriptionURL, "uuid:test", "", 1800, null, 4);
+    }
+
+    public void prefetch(URL[] descriptionURLs)
+    {
+      prefetchDescriptions(descriptionURLs);
+    }
+
+    public CPDeviceDescriptionRetrieval getRetrieval()
+    {
+      return this;
+    }
+  }
+
+  /** Retrieval for security aware control points */
+  private static class PrefetchingSecurityAwareCPDeviceDescriptionRetrieval extends
+    SecurityAwareCPDeviceDescriptionRetrieval implements PrefetchingRetrieval
+  {
+    public PrefetchingSecurityAwareCPDeviceDescriptionRetrieval(SecurityAwareTemplateControlPoint controlPoint,
+      URL deviceDescriptionURL)
+    {
+      super(controlPoint, null, deviceDescriptionURL, "uuid:test", "", 1800, null, 4);
+    }
+
+    public void prefetch(URL[] descriptionURLs)
+    {
+      prefetchDescriptions(descriptionURLs);
+    }
+
+    public CPDeviceDescriptionRetrieval getRetrieval()
+    {
+      return this;
+    }
+  }
+
+}
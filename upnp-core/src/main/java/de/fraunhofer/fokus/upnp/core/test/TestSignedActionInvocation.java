@@ -0,0 +1,563 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.test;
+
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.Signature;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Vector;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import de.fraunhofer.fokus.upnp.core.Argument;
+import de.fraunhofer.fokus.upnp.core.UPnPConstant;
+import de.fraunhofer.fokus.upnp.core.control_point.CPAction;
+import de.fraunhofer.fokus.upnp.core.control_point.CPService;
+import de.fraunhofer.fokus.upnp.core.device.StateVariable;
+import de.fraunhofer.fokus.upnp.core.exceptions.InvokeActionException;
+import de.fraunhofer.fokus.upnp.http.HTTPConstant;
+import de.fraunhofer.fokus.upnp.soap.SOAPMessageBuilder;
+import de.fraunhofer.fokus.upnp.util.CommonConstants;
+import de.fraunhofer.fokus.upnp.util.StringHelper;
+import de.fraunhofer.fokus.upnp.util.exceptions.ActionFailedException;
+import de.fraunhofer.fokus.upnp.util.network.HTTPMessageObject;
+import de.fraunhofer.fokus.upnp.util.security.DigestHelper;
+import de.fraunhofer.fokus.upnp.util.security.PersonalizedKeyObject;
+import de.fraunhofer.fokus.upnp.util.security.PublicKeyCryptographyHelper;
+import de.fraunhofer.fokus.upnp.util.security.SymmetricCryptographyHelper;
+
+/**
+ * This class checks the pooled cryptographic primitives of the security helpers. HMACs, AES
+ * ciphertexts and RSA signatures must match those of primitives created for each message, also
+ * after key changes, for long strings and on concurrent threads. Signed and encrypted actions are
+ * run end to end through CPService.invokeSymmetricKeyPersonalizedAction(). The request is not
+ * sent over the network, but verified and answered by the same code paths a personalized device
+ * uses. Afterwards, the time for pooled primitives is compared to primitives created for each
+ * message, and the time for complete personalized actions is measured.
+ * 
+ * Usage: TestSignedActionInvocation [messages]
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class TestSignedActionInvocation
+{
+
+  private static final String SERVICE_TYPE = "urn:schemas-fokus-fraunhofer-de:service:SignedAction:1";
+
+  private static final String ACTION_NAME  = "GetValue";
+
+  /** Sum of results that keeps the timed loops from being optimized away */
+  private static long         checksum;
+
+  /** Calculates a HMAC with a new Mac instance */
+  private static byte[] calculateReferenceHMAC(SecretKey key, String dataString) throws Exception
+  {
+    Mac hmac = Mac.getInstance(CommonConstants.HMAC_SHA_1_JAVA);
+    hmac.init(key);
+    return hmac.doFinal(StringHelper.stringToByteArray(dataString));
+  }
+
+  /** Verifies a RSA signature with a new Signature instance */
+  private static boolean verifyReferenceRSASignature(RSAPublicKey key, String dataString, byte[] signatureData)
+    throws Exception
+  {
+    Signature signature = Signature.getInstance(CommonConstants.RSA_SHA_1_JAVA);
+    signature.initVerify(key);
+    signature.update(StringHelper.stringToByteArray(dataString));
+    return signature.verify(signatureData);
+  }
+
+  /** Calculates a RSA signature with a new Signature instance */
+  private static byte[] calculateReferenceRSASignature(RSAPrivateKey key, String dataString) throws Exception
+  {
+    Signature signature = Signature.getInstance(CommonConstants.RSA_SHA_1_JAVA);
+    signature.initSign(key);
+    signature.update(StringHelper.stringToByteArray(dataString));
+    return signature.sign();
+  }
+
+  /** Encrypts a byte array with a new Cipher instance */
+  private static byte[] encryptReferenceAES(SecretKey key, byte[] iv, byte[] data) throws Exception
+  {
+    int paddedBytes = 16 - data.length % 16;
+    byte[] paddedData = new byte[data.length + paddedBytes];
+    System.arraycopy(data, 0, paddedData, 0, data.length);
+    paddedData[paddedData.length - 1] = (byte)paddedBytes;
+
+    Cipher cipher = Cipher.getInstance(CommonConstants.AES_128_CBC_JAVA);
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key.getEncoded(), "AES"), new IvParameterSpec(iv));
+    return cipher.doFinal(paddedData);
+  }
+
+  /** Builds a string that is longer than the scratch buffer used to feed strings into primitives */
+  private static String buildLongString()
+  {
+    StringBuffer result = new StringBuffer();
+    for (int i = 0; i < 1000; i++)
+    {
+      result.append("value" + i + " ");
+    }
+    return result.toString();
+  }
+
+  /** Checks pooled HMACs against new Mac instances, also after key changes */
+  private static boolean testHMAC() throws Exception
+  {
+    SecretKey firstKey = SymmetricCryptographyHelper.generateAESKey();
+    SecretKey secondKey = SymmetricCryptographyHelper.generateAESKey();
+    String shortString = "sequence1keyID";
+    String longString = buildLongString();
+    byte[] longByteArray = StringHelper.stringToByteArray(longString);
+    byte[] embeddedByteArray = new byte[longByteArray.length + 10];
+    System.arraycopy(longByteArray, 0, embeddedByteArray, 5, longByteArray.length);
+
+    return Arrays.equals(DigestHelper.calculateSHA1HMACForString(firstKey, shortString),
+      calculateReferenceHMAC(firstKey, shortString)) &&
+      Arrays.equals(DigestHelper.calculateSHA1HMACForString(secondKey, shortString),
+        calculateReferenceHMAC(secondKey, shortString)) &&
+      Arrays.equals(DigestHelper.calculateSHA1HMACForString(firstKey, longString),
+        calculateReferenceHMAC(firstKey, longString)) &&
+      Arrays.equals(DigestHelper.calculateSHA1HMACForStrings(secondKey, new String[] {
+          shortString, longString
+      }), calculateReferenceHMAC(secondKey, shortString + longString)) &&
+      Arrays.equals(DigestHelper.calculateSHA1HMAC(firstKey, embeddedByteArray, 5, longByteArray.length),
+        calculateReferenceHMAC(firstKey, longString)) &&
+      Arrays.equals(DigestHelper.calculateSHA1HMAC(firstKey, ByteBuffer.wrap(longByteArray)),
+        calculateReferenceHMAC(firstKey, longString));
+  }
+
+  /** Checks pooled AES encryption against a new Cipher instance and decrypts the result */
+  private static boolean testAES() throws Exception
+  {
+    SecretKey key = SymmetricCryptographyHelper.generateAESKey();
+    byte[] iv = SymmetricCryptographyHelper.generateIV();
+    boolean result = true;
+    // check lengths with and without a full padding block
+    for (int length = 0; length <= 48; length += 7)
+    {
+      byte[] data = new byte[length];
+      for (int i = 0; i < length; i++)
+      {
+        data[i] = (byte)(i * 13);
+      }
+      byte[] embeddedData = new byte[length + 3];
+      System.arraycopy(data, 0, embeddedData, 3, length);
+
+      byte[] encrypted = SymmetricCryptographyHelper.encryptWithAES(key, iv, data);
+      result &= Arrays.equals(encrypted, encryptReferenceAES(key, iv, data));
+      result &= Arrays.equals(SymmetricCryptographyHelper.encryptWithAES(key, iv, embeddedData, 3, length), encrypted);
+      result &= Arrays.equals(SymmetricCryptographyHelper.decryptWithAES(key, iv, encrypted), data);
+    }
+    return result;
+  }
+
+  /** Checks that pooled RSA signatures are verified by new Signature instances and vice versa */
+  private static boolean testRSA() throws Exception
+  {
+    KeyPair firstKeyPair = PublicKeyCryptographyHelper.generateRSAKeyPair();
+    KeyPair secondKeyPair = PublicKeyCryptographyHelper.generateRSAKeyPair();
+    RSAPrivateKey privateKey = (RSAPrivateKey)firstKeyPair.getPrivate();
+    RSAPublicKey publicKey = (RSAPublicKey)firstKeyPair.getPublic();
+    RSAPublicKey otherPublicKey = (RSAPublicKey)secondKeyPair.getPublic();
+    String data = buildLongString();
+    byte[] dataByteArray = StringHelper.stringToByteArray(data);
+
+    byte[] signature = PublicKeyCryptographyHelper.calculateRSASignatureForString(privateKey, data);
+    byte[] bufferSignature =
+      PublicKeyCryptographyHelper.calculateRSASignature(privateKey, ByteBuffer.wrap(dataByteArray));
+
+    return verifyReferenceRSASignature(publicKey, data, signature) &&
+      verifyReferenceRSASignature(publicKey, data, bufferSignature) &&
+      PublicKeyCryptographyHelper.verifyRSASignatureForString(publicKey, data, signature) &&
+      PublicKeyCryptographyHelper.verifyRSASignature(publicKey, dataByteArray, 0, dataByteArray.length, signature) &&
+      !PublicKeyCryptographyHelper.verifyRSASignatureForString(otherPublicKey, data, signature) &&
+      !PublicKeyCryptographyHelper.verifyRSASignatureForString(publicKey, data + " ", signature) &&
+      PublicKeyCryptographyHelper.verifyRSASignatureForString(publicKey, data, signature);
+  }
+
+  /** Checks that threads with different keys do not share pooled primitives */
+  private static boolean testConcurrentHMAC(int threadCount, final int invocations) throws InterruptedException
+  {
+    final boolean[] success = new boolean[] {
+      true
+    };
+    Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++)
+    {
+      threads[i] = new Thread(new Runnable()
+      {
+        public void run()
+        {
+          try
+          {
+            SecretKey key = SymmetricCryptographyHelper.generateAESKey();
+            for (int j = 0; j < invocations; j++)
+            {
+              String data = "message" + j;
+              if (!Arrays.equals(DigestHelper.calculateSHA1HMACForString(key, data),
+                calculateReferenceHMAC(key, data)))
+              {
+                success[0] = false;
+              }
+            }
+          } catch (Exception e)
+          {
+            success[0] = false;
+          }
+        }
+      });
+      threads[i].start();
+    }
+    for (int i = 0; i < threadCount; i++)
+    {
+      threads[i].join();
+    }
+    return success[0];
+  }
+
+  /** Checks that signed actions with and without encryption return the value of the device */
+  private static boolean testPersonalizedAction(LoopbackCPService service) throws Exception
+  {
+    boolean result = true;
+    for (int i = 1; i <= 4; i++)
+    {
+      boolean encrypt = i % 2 == 0;
+      service.invoke(encrypt, i);
+      result &= service.responseCount == i && service.lastRequestEncrypted == encrypt;
+      result &= service.action.getOutArgument("Value").getValueAsString().equals("Input value " + i);
+    }
+    return result;
+  }
+
+  /** Checks that requests and responses with wrong signatures are rejected */
+  private static boolean testInvalidSignatures(LoopbackCPService service) throws Exception
+  {
+    SecretKey wrongKey = SymmetricCryptographyHelper.generateAESKey();
+    int responseCount = service.responseCount;
+
+    // request signed with a key the device does not know
+    boolean requestRejected = false;
+    try
+    {
+      service.invoke(false, 10, wrongKey);
+    } catch (InvokeActionException e)
+    {
+      requestRejected = true;
+    }
+    // response signed with a key the control point does not know
+    boolean responseRejected = false;
+    service.responseKey = wrongKey;
+    try
+    {
+      service.invoke(false, 11);
+    } catch (InvokeActionException e)
+    {
+      responseRejected = true;
+    }
+    service.responseKey = null;
+
+    return requestRejected && responseRejected && service.responseCount == responseCount;
+  }
+
+  /** Prints the time per message for primitives created for each message and for pooled primitives */
+  private static void printPrimitiveTimings(int messages) throws Exception
+  {
+    SecretKey key = SymmetricCryptographyHelper.generateAESKey();
+    byte[] iv = SymmetricCryptographyHelper.generateIV();
+    KeyPair keyPair = PublicKeyCryptographyHelper.generateRSAKeyPair();
+    RSAPrivateKey privateKey = (RSAPrivateKey)keyPair.getPrivate();
+    RSAPublicKey publicKey = (RSAPublicKey)keyPair.getPublic();
+    String data = "1keyID<s:Envelope><s:Body><u:GetValue><Input>Input value</Input></u:GetValue></s:Body></s:Envelope>";
+    byte[] dataByteArray = StringHelper.stringToByteArray(data);
+    byte[] signature = PublicKeyCryptographyHelper.calculateRSASignatureForString(privateKey, data);
+    // RSA operations are much slower than symmetric ones
+    int rsaMessages = Math.max(1, messages / 50);
+
+    // the first round warms up all code paths
+    for (int round = 0; round < 2; round++)
+    {
+      long startTime = System.nanoTime();
+      for (int i = 0; i < messages; i++)
+      {
+        checksum += calculateReferenceHMAC(key, data)[0];
+      }
+      long referenceHMACTime = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      for (int i = 0; i < messages; i++)
+      {
+        checksum += DigestHelper.calculateSHA1HMACForString(key, data)[0];
+      }
+      long pooledHMACTime = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      for (int i = 0; i < messages; i++)
+      {
+        checksum += encryptReferenceAES(key, iv, dataByteArray)[0];
+      }
+      long referenceAESTime = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      for (int i = 0; i < messages; i++)
+      {
+        checksum += SymmetricCryptographyHelper.encryptWithAES(key, iv, dataByteArray)[0];
+      }
+      long pooledAESTime = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      for (int i = 0; i < rsaMessages; i++)
+      {
+        checksum += calculateReferenceRSASignature(privateKey, data)[0];
+        checksum += verifyReferenceRSASignature(publicKey, data, signature) ? 1 : 0;
+      }
+      long referenceRSATime = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      for (int i = 0; i < rsaMessages; i++)
+      {
+        checksum += PublicKeyCryptographyHelper.calculateRSASignatureForString(privateKey, data)[0];
+        checksum += PublicKeyCryptographyHelper.verifyRSASignatureForString(publicKey, data, signature) ? 1 : 0;
+      }
+      long pooledRSATime = System.nanoTime() - startTime;
+
+      if (round > 0)
+      {
+        System.out.println("HMAC: per message " + referenceHMACTime / messages + " ns, pooled " +
+          pooledHMACTime / messages + " ns");
+        System.out.println("AES encryption: per message " + referenceAESTime / messages + " ns, pooled " +
+          pooledAESTime / messages + " ns");
+        System.out.println("RSA signature and verification: per message " + referenceRSATime / rsaMessages +
+          " ns, pooled " + pooledRSATime / rsaMessages + " ns");
+      }
+    }
+  }
+
+  /** Prints the time for complete personalized actions with and without encryption */
+  private static void printActionTimings(LoopbackCPService service, int invocations) throws Exception
+  {
+    // sequence bases must increase, so continue after the checks
+    long sequenceBase = 1000;
+    for (int round = 0; round < 2; round++)
+    {
+      long startTime = System.nanoTime();
+      for (int i = 0; i < invocations; i++)
+      {
+        service.invoke(false, sequenceBase++);
+      }
+      long signedTime = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      for (int i = 0; i < invocations; i++)
+      {
+        service.invoke(true, sequenceBase++);
+      }
+      long encryptedTime = System.nanoTime() - startTime;
+
+      if (round > 0)
+      {
+        System.out.println("Personalized action time: signed " + signedTime / invocations +
+          " ns, signed and encrypted " + encryptedTime / invocations + " ns");
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    int messages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+    boolean success = testHMAC();
+    System.out.println("Pooled HMAC: " + (success ? "OK" : "FAILED"));
+
+    boolean aesSuccess = testAES();
+    System.out.println("Pooled AES: " + (aesSuccess ? "OK" : "FAILED"));
+
+    boolean rsaSuccess = testRSA();
+    System.out.println("Pooled RSA: " + (rsaSuccess ? "OK" : "FAILED"));
+
+    boolean concurrentSuccess = testConcurrentHMAC(8, 500);
+    System.out.println("Concurrent HMAC: " + (concurrentSuccess ? "OK" : "FAILED"));
+
+    LoopbackCPService service =
+      new LoopbackCPService(SymmetricCryptographyHelper.generateAESKey(), SymmetricCryptographyHelper.generateIV());
+
+    boolean actionSuccess = testPersonalizedAction(service);
+    System.out.println("Personalized action: " + (actionSuccess ? "OK" : "FAILED"));
+
+    boolean signatureSuccess = testInvalidSignatures(service);
+    System.out.println("Invalid signatures: " + (signatureSuccess ? "OK" : "FAILED"));
+
+    printPrimitiveTimings(messages);
+    printActionTimings(service, Math.max(1, messages / 10));
+    System.out.println("Checksum " + checksum);
+
+    System.exit(success && aesSuccess && rsaSuccess && concurrentSuccess && actionSuccess && signatureSuccess ? 0
+      : 1);
+  }
+
+  /**
+   * This class sends personalized actions to a local loopback instead of a remote device. The
+   * request is verified and answered like in DeviceControlMessageProcessor. The device returns the
+   * input value as output value.
+   */
+  private static class LoopbackCPService extends CPService
+  {
+    private SecretKey             aesKey;
+
+    private byte[]                iv;
+
+    private CPAction              action;
+
+    private PersonalizedKeyObject keyObject;
+
+    /** Key used to sign the response instead of the shared key, if set */
+    private SecretKey             responseKey;
+
+    private InetSocketAddress     serverAddress        = new InetSocketAddress("127.0.0.1", 80);
+
+    private int                   responseCount        = 0;
+
+    private boolean               lastRequestEncrypted = false;
+
+    public LoopbackCPService(SecretKey aesKey, byte[] iv) throws Exception
+    {
+      super(SERVICE_TYPE, "urn:fokus-fraunhofer-de:serviceId:SignedAction1.0", new URL("http://127.0.0.1/scpd"),
+        new URL("http://127.0.0.1/control"), new URL("http://127.0.0.1/event"), UPnPConstant.IP4, null);
+      this.aesKey = aesKey;
+      this.iv = iv;
+
+      action = new CPAction(ACTION_NAME, this);
+      action.setArgumentTable(new Argument[] {
+          new Argument("Input", UPnPConstant.DIRECTION_IN, new StateVariable("Input", "", false)),
+          new Argument("Value", UPnPConstant.DIRECTION_OUT, new StateVariable("Value", "", false))
+      });
+      setCPActionTable(new CPAction[] {
+        action
+      });
+
+      keyObject = createKeyObject(aesKey);
+    }
+
+    private PersonalizedKeyObject createKeyObject(SecretKey key)
+    {
+      PersonalizedKeyObject result = new PersonalizedKeyObject(null, "SignedAction");
+      result.setSymmetricKey(key, iv);
+      result.setKeyID("1");
+
+      return result;
+    }
+
+    /** Invokes the action with a new sequence base */
+    public void invoke(boolean encrypt, long sequenceBase) throws Exception
+    {
+      invoke(encrypt, sequenceBase, aesKey);
+    }
+
+    /** Invokes the action with a new sequence base and a certain signature key */
+    public void invoke(boolean encrypt, long sequenceBase, SecretKey signatureKey) throws Exception
+    {
+      action.getInArgument("Input").setValue("Input value " + sequenceBase);
+      invokeSymmetricKeyPersonalizedAction(encrypt, action, sequenceBase + "", keyObject.getKeyID(), signatureKey, iv);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see de.fraunhofer.fokus.upnp.core.control_point.CPService#sendPostAction
+     */
+    protected void sendPostAction(CPAction action,
+      byte[] requestBody,
+      Vector optionalHeaderLines,
+      SecretKey aesKey,
+      byte[] iv,
+      String sequenceBase,
+      String nonce) throws InvokeActionException, ActionFailedException
+    {
+      // device side: decrypt and verify request
+      boolean encrypted = false;
+      String signatureBase64 = null;
+      for (int i = 0; i < optionalHeaderLines.size(); i++)
+      {
+        String headerLine = (String)optionalHeaderLines.elementAt(i);
+        encrypted |= headerLine.startsWith(HTTPConstant.X_ENCRYPTION_TAG);
+        if (headerLine.startsWith(HTTPConstant.X_PERSONALIZATION_SIGNATURE))
+        {
+          signatureBase64 = headerLine.substring(HTTPConstant.X_PERSONALIZATION_SIGNATURE.length()).trim();
+        }
+      }
+      byte[] body =
+        encrypted ? SymmetricCryptographyHelper.decryptWithAES(keyObject.getAESKey(), keyObject.getIV(), requestBody)
+          : requestBody;
+      String signatureContent = sequenceBase + keyObject.getKeyID() + StringHelper.byteArrayToUTF8String(body);
+      if (!DigestHelper.verifySHA1HMACForString(signatureBase64, signatureContent, keyObject.getAESKey()))
+      {
+        throw new InvokeActionException("Invalid request signature");
+      }
+      keyObject.setSequenceBase(Long.parseLong(sequenceBase));
+      lastRequestEncrypted = encrypted;
+
+      // device side: build signed response that returns the input value
+      PersonalizedKeyObject responseKeyObject = keyObject;
+      if (responseKey != null)
+      {
+        responseKeyObject = createKeyObject(responseKey);
+        responseKeyObject.setSequenceBase(keyObject.getSequenceBase());
+      }
+      String responseBody =
+        SOAPMessageBuilder.buildActionResponseBody(SERVICE_TYPE, ACTION_NAME, new String[] {
+          "Value"
+        }, new String[] {
+          action.getInArgument("Input").getValueAsString()
+        });
+      HTTPMessageObject response =
+        SOAPMessageBuilder.createActionResponseMessage(serverAddress,
+          responseBody,
+          StringHelper.utf8StringToByteArray(responseBody),
+          "SignedAction",
+          null,
+          null,
+          null,
+          responseKeyObject,
+          encrypted);
+
+      // control point side: decrypt and verify response
+      processActionResponse(action, requestBody, response, aesKey, iv, sequenceBase, nonce);
+      responseCount++;
+    }
+  }
+
+}
@@ -70,6 +70,8 @@ public class ControlPointStartupConfiguration extends ChildStartupConfiguration
 
   private String            ignoredDeviceAddresses     = "";
 
+  private boolean           useSelectorHTTPServer      = false;
+
   /**
    * Creates a new instance of ControlPointStartupConfiguration.
    * 
@@ -238,6 +240,11 @@ public class ControlPointStartupConfiguration extends ChildStartupConfiguration
       {
         ignoredDeviceAddresses = content;
       }
+
+      if (getCurrentTag().equals(UPnPStartupConfiguration.USE_SELECTOR_HTTP_SERVER))
+      {
+        useSelectorHTTPServer = StringHelper.stringToBoolean(content);
+      }
     }
   }
 
@@ -360,4 +367,25 @@ public class ControlPointStartupConfiguration extends ChildStartupConfiguration
     return ignoredDeviceAddresses;
   }
 
+  /**
+   * Retrieves the useSelectorHTTPServer flag.
+   * 
+   * @return True if the control point should use the selector based HTTP server for event callbacks
+   */
+  public boolean useSelectorHTTPServer()
+  {
+    return useSelectorHTTPServer;
+  }
+
+  /**
+   * Sets the useSelectorHTTPServer flag.
+   * 
+   * @param useSelectorHTTPServer
+   *          The new value for useSelectorHTTPServer
+   */
+  public void setUseSelectorHTTPServer(boolean useSelectorHTTPServer)
+  {
+    this.useSelectorHTTPServer = useSelectorHTTPServer;
+  }
+
 }
@@ -66,6 +66,8 @@ public class DeviceStartupConfiguration extends ChildStartupConfiguration
 
   private boolean           runDelayed             = false;
 
+  private boolean           useSelectorHTTPServer  = false;
+
   /**
    * Creates a new instance of DeviceStartupConfiguration.
    * 
@@ -283,6 +285,11 @@ public class DeviceStartupConfiguration extends ChildStartupConfiguration
       {
         ssdpUnicastPort = StringHelper.stringToIntegerDef(content, -1);
       }
+
+      if (getCurrentTag().equals(UPnPStartupConfiguration.USE_SELECTOR_HTTP_SERVER))
+      {
+        useSelectorHTTPServer = StringHelper.stringToBoolean(content);
+      }
     }
   }
 
@@ -336,6 +343,27 @@ public class DeviceStartupConfiguration extends ChildStartupConfiguration
     this.runDelayed = runDelayed;
   }
 
+  /**
+   * Retrieves the useSelectorHTTPServer flag.
+   * 
+   * @return True if the device should use the selector based HTTP server
+   */
+  public boolean useSelectorHTTPServer()
+  {
+    return useSelectorHTTPServer;
+  }
+
+  /**
+   * Sets the useSelectorHTTPServer flag.
+   * 
+   * @param useSelectorHTTPServer
+   *          The new value for useSelectorHTTPServer
+   */
+  public void setUseSelectorHTTPServer(boolean useSelectorHTTPServer)
+  {
+    this.useSelectorHTTPServer = useSelectorHTTPServer;
+  }
+
   /**
    * Retrieves the webServerDirectoryList.
    * 
@@ -0,0 +1,172 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core.xml;
+
+import java.util.Vector;
+
+import org.xml.sax.SAXException;
+
+import de.fraunhofer.fokus.upnp.util.XMLPullParser;
+
+/**
+ * This class parses a SOAP request or response with a pull parser. It yields the same results as
+ * the SOAPActionHandler but does not need a JAXP parser for each message. Documents that cannot be
+ * handled by the pull parser are parsed with the SOAPActionHandler.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class SOAPActionParser
+{
+
+  private String actionName   = "";
+
+  private String serviceType  = "";
+
+  private Vector argumentList = new Vector();
+
+  /**
+   * Parses a SOAP message.
+   * 
+   * @param document
+   *          The SOAP message
+   * 
+   * @throws SAXException
+   */
+  public void parse(String document) throws SAXException
+  {
+    try
+    {
+      parseWithPullParser(document);
+    } catch (Exception e)
+    {
+      // retry with the SAX parser
+      SOAPActionHandler soapActionHandler = new SOAPActionHandler();
+      soapActionHandler.parse(document);
+
+      actionName = soapActionHandler.getActionName();
+      serviceType = soapActionHandler.getServiceType();
+      argumentList = soapActionHandler.getArgumentList();
+    }
+  }
+
+  /** Parses the message with the pull parser. */
+  private void parseWithPullParser(String document) throws SAXException
+  {
+    actionName = "";
+    serviceType = "";
+    argumentList = new Vector();
+
+    XMLPullParser parser = new XMLPullParser(document);
+    boolean isBody = false;
+    String content = "";
+    String text = null;
+
+    int eventType = parser.next();
+    while (eventType != XMLPullParser.END_DOCUMENT)
+    {
+      int depth = parser.getDepth();
+      if (eventType == XMLPullParser.START_TAG)
+      {
+        text = null;
+        String tag = parser.getName();
+        int colonIndex = tag.indexOf(":");
+        if (depth == 2 && colonIndex != -1)
+        {
+          isBody = tag.substring(colonIndex + 1).equalsIgnoreCase("body");
+        }
+        if (isBody && depth == 3 && colonIndex != -1)
+        {
+          actionName = tag.substring(colonIndex + 1);
+          // remove pending "Response"
+          int index = actionName.indexOf("Response");
+          if (index != -1)
+          {
+            actionName = actionName.substring(0, index);
+          }
+          for (int i = 0; i < parser.getAttributeCount(); i++)
+          {
+            if (parser.getAttributeName(i).startsWith("xmlns:"))
+            {
+              serviceType = parser.getAttributeValue(i);
+            }
+          }
+        }
+      }
+      if (eventType == XMLPullParser.TEXT)
+      {
+        text = parser.getText();
+      }
+      if (eventType == XMLPullParser.END_TAG)
+      {
+        boolean isArgument = depth == 4 && actionName.length() > 0 && isBody;
+        if (isArgument && text != null)
+        {
+          content = text;
+        }
+        text = null;
+        if (isArgument)
+        {
+          argumentList.add(new SOAPActionArgument(parser.getName(), content));
+          content = "";
+        }
+        if (depth == 2)
+        {
+          isBody = false;
+        }
+      }
+      eventType = parser.next();
+    }
+  }
+
+  public boolean isValid()
+  {
+    return actionName.length() > 0 && serviceType.length() > 0;
+  }
+
+  public String getActionName()
+  {
+    return actionName;
+  }
+
+  public Vector getArgumentList()
+  {
+    return argumentList;
+  }
+
+  /**
+   * Retrieves the serviceType.
+   * 
+   * @return The serviceType
+   */
+  public String getServiceType()
+  {
+    return serviceType;
+  }
+
+}
@@ -108,6 +108,9 @@ public class UPnPStartupConfiguration extends StartupConfiguration
   /** Tag for device UUID */
   public static final String UDN_TAG                        = "UDN";
 
+  /** Tag for flag to use the selector based HTTP server (optional, default = false) */
+  public static final String USE_SELECTOR_HTTP_SERVER       = "UseSelectorHTTPServer";
+
   /** Tag for path to resources (optional) */
   public static final String WEB_SERVER_DIRECTORY           = "WebServerDirectory";
 
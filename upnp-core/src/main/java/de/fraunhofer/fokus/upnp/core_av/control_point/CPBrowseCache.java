@@ -0,0 +1,758 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core_av.control_point;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+import de.fraunhofer.fokus.upnp.configuration.UPnPDefaults;
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLObject;
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLParser;
+import de.fraunhofer.fokus.upnp.core_av.server.BrowseResponse;
+import de.fraunhofer.fokus.upnp.core_av.server.MediaServerConstant;
+import de.fraunhofer.fokus.upnp.util.BoundedCache;
+import de.fraunhofer.fokus.upnp.util.FileHelper;
+import de.fraunhofer.fokus.upnp.util.SAXTemplateHandler;
+import de.fraunhofer.fokus.upnp.util.StringHelper;
+
+/**
+ * This class caches browse responses of remote media servers. Entries are keyed by the UDN of the
+ * server, the object ID, the filter and the sort criteria. All received BrowseDirectChildren pages
+ * of a container are kept in one entry, so requested ranges are answered from the stored children
+ * even if the page size changes between requests. ContainerUpdateIDs events invalidate the entries
+ * of single containers, SystemUpdateID events invalidate all entries of servers that do not send
+ * container updates. The entries of a server can be stored to disk and read again at startup if
+ * the SystemUpdateID of the server did not change in between.
+ * 
+ * Cached results are stored as DIDL-Lite strings and parsed for each request, so callers always
+ * receive their own DIDL objects.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class CPBrowseCache
+{
+
+  /** Shared cache for all media servers */
+  private static CPBrowseCache defaultCache            = null;
+
+  /** Cached responses */
+  private BoundedCache         cache;
+
+  /** Hashtable containing the state for each server UDN */
+  private Hashtable            serverEntryFromUDNTable = new Hashtable();
+
+  /** Directory for stored cache entries */
+  private String               cacheDirectory;
+
+  /**
+   * Creates a new instance of CPBrowseCache.
+   * 
+   * @param cacheDirectory
+   *          The directory used to store cache entries
+   */
+  public CPBrowseCache(String cacheDirectory)
+  {
+    cache =
+      new BoundedCache(UPnPDefaults.CP_BROWSE_CACHE_MAX_ENTRIES,
+        UPnPDefaults.CP_BROWSE_CACHE_MAX_SIZE,
+        UPnPDefaults.CP_BROWSE_CACHE_TIME_TO_LIVE);
+    this.cacheDirectory = FileHelper.toValidDirectoryName(cacheDirectory);
+  }
+
+  /**
+   * Retrieves the cache that is shared by all media servers.
+   * 
+   * @return The default cache
+   */
+  public static synchronized CPBrowseCache getDefaultCache()
+  {
+    if (defaultCache == null)
+    {
+      defaultCache = new CPBrowseCache(FileHelper.getResourceDirectoryName() + "browse_cache");
+    }
+    return defaultCache;
+  }
+
+  /**
+   * Retrieves a cached response for a BrowseDirectChildren request.
+   * 
+   * @return The response or null
+   */
+  public BrowseResponse getDirectChildren(String udn,
+    String objectID,
+    int startingIndex,
+    int requestedCount,
+    String filter,
+    String sortCriteria)
+  {
+    String key = buildKey(udn, MediaServerConstant.BROWSE_DIRECT_CHILDREN, objectID, filter, sortCriteria);
+    CachedChildren children = (CachedChildren)cache.get(key);
+    if (children == null)
+    {
+      return null;
+    }
+    return children.getRange(startingIndex, requestedCount);
+  }
+
+  /**
+   * Retrieves a cached response for a BrowseMetadata request.
+   * 
+   * @return The response or null
+   */
+  public BrowseResponse getMetadata(String udn, String objectID)
+  {
+    CachedResponse response =
+      (CachedResponse)cache.get(buildKey(udn, MediaServerConstant.BROWSE_METADATA, objectID, "*", ""));
+    if (response == null)
+    {
+      return null;
+    }
+    DIDLParser parser = new DIDLParser(response.result);
+    if (parser.getDIDLObject() == null)
+    {
+      return null;
+    }
+    return new BrowseResponse(parser.getDIDLObject(), response.updateID);
+  }
+
+  /**
+   * Retrieves the number of invalidations for a server. This value must be read before a request is
+   * sent and handed to the put methods, so responses that were overtaken by an invalidation are
+   * not cached.
+   */
+  public long getInvalidationCount(String udn)
+  {
+    synchronized(serverEntryFromUDNTable)
+    {
+      return getServerEntry(udn).invalidationCount;
+    }
+  }
+
+  /** Caches the response for a BrowseDirectChildren request. */
+  public void putDirectChildren(String udn,
+    String objectID,
+    int startingIndex,
+    int requestedCount,
+    String filter,
+    String sortCriteria,
+    String result,
+    long numberReturned,
+    long totalMatches,
+    long updateID,
+    long invalidationCount)
+  {
+    CachedResponse response = new CachedResponse();
+    response.browseFlag = MediaServerConstant.BROWSE_DIRECT_CHILDREN;
+    response.objectID = objectID;
+    response.startingIndex = startingIndex;
+    response.requestedCount = requestedCount;
+    response.filter = filter;
+    response.sortCriteria = sortCriteria;
+    response.result = result;
+    response.numberReturned = numberReturned;
+    response.totalMatches = totalMatches;
+    response.updateID = updateID;
+
+    put(udn, response, invalidationCount);
+  }
+
+  /** Caches the response for a BrowseMetadata request. */
+  public void putMetadata(String udn, String objectID, String result, long updateID, long invalidationCount)
+  {
+    CachedResponse response = new CachedResponse();
+    response.browseFlag = MediaServerConstant.BROWSE_METADATA;
+    response.objectID = objectID;
+    response.filter = "*";
+    response.sortCriteria = "";
+    response.result = result;
+    response.updateID = updateID;
+    // metadata also changes with the parent container
+    DIDLParser parser = new DIDLParser(result);
+    if (parser.getDIDLObject() != null)
+    {
+      response.parentID = parser.getDIDLObject().getParentID();
+    }
+    put(udn, response, invalidationCount);
+  }
+
+  /**
+   * Processes a ContainerUpdateIDs event and invalidates all changed containers.
+   * 
+   * @param udn
+   *          The UDN of the server
+   * @param containerUpdateIDs
+   *          The comma separated list of container IDs and update IDs
+   * 
+   * @return A hashtable containing the new update ID for each changed container
+   */
+  public Hashtable containerUpdateIDsChanged(String udn, String containerUpdateIDs)
+  {
+    Hashtable result = new Hashtable();
+    if (containerUpdateIDs == null)
+    {
+      return result;
+    }
+    String[] values = containerUpdateIDs.split(",");
+    for (int i = 0; i + 1 < values.length; i += 2)
+    {
+      String containerID = values[i].trim();
+      try
+      {
+        result.put(containerID, new Long(Long.parseLong(values[i + 1].trim())));
+      } catch (Exception e)
+      {
+        result.put(containerID, new Long(-1));
+      }
+      invalidateContainer(udn, containerID);
+    }
+    return result;
+  }
+
+  /**
+   * Processes a change of the SystemUpdateID of a server.
+   * 
+   * @param udn
+   *          The UDN of the server
+   * @param systemUpdateID
+   *          The new SystemUpdateID
+   * @param containerUpdatesEvented
+   *          True if the server also sends ContainerUpdateIDs events
+   */
+  public void systemUpdateIDChanged(String udn, long systemUpdateID, boolean containerUpdatesEvented)
+  {
+    synchronized(serverEntryFromUDNTable)
+    {
+      ServerEntry serverEntry = getServerEntry(udn);
+      if (serverEntry.systemUpdateID == systemUpdateID)
+      {
+        return;
+      }
+      serverEntry.systemUpdateID = systemUpdateID;
+    }
+    // without container updates we cannot know what changed
+    if (!containerUpdatesEvented)
+    {
+      invalidateServer(udn);
+    }
+  }
+
+  /** Removes all cached responses for one container. */
+  public void invalidateContainer(String udn, String containerID)
+  {
+    synchronized(serverEntryFromUDNTable)
+    {
+      ServerEntry serverEntry = getServerEntry(udn);
+      serverEntry.invalidationCount++;
+      Vector keys = (Vector)serverEntry.keysFromContainerIDTable.remove(containerID);
+      for (int i = 0; keys != null && i < keys.size(); i++)
+      {
+        cache.remove(keys.elementAt(i));
+      }
+    }
+  }
+
+  /** Removes all cached responses for one server. */
+  public void invalidateServer(String udn)
+  {
+    synchronized(serverEntryFromUDNTable)
+    {
+      ServerEntry serverEntry = getServerEntry(udn);
+      serverEntry.invalidationCount++;
+      Enumeration keyLists = serverEntry.keysFromContainerIDTable.elements();
+      while (keyLists.hasMoreElements())
+      {
+        Vector keys = (Vector)keyLists.nextElement();
+        for (int i = 0; i < keys.size(); i++)
+        {
+          cache.remove(keys.elementAt(i));
+        }
+      }
+      serverEntry.keysFromContainerIDTable.clear();
+    }
+  }
+
+  /**
+   * Reads the stored responses of a server. Stored responses are discarded if the SystemUpdateID
+   * of the server changed.
+   * 
+   * @param udn
+   *          The UDN of the server
+   * @param systemUpdateID
+   *          The current SystemUpdateID of the server
+   */
+  public void readServerCache(String udn, long systemUpdateID)
+  {
+    synchronized(serverEntryFromUDNTable)
+    {
+      getServerEntry(udn).systemUpdateID = systemUpdateID;
+    }
+    File cacheFile = new File(getCacheFileName(udn));
+    if (!cacheFile.exists())
+    {
+      return;
+    }
+    try
+    {
+      BrowseCacheParser parser = new BrowseCacheParser(udn, getInvalidationCount(udn));
+      parser.parse(cacheFile);
+      if (parser.systemUpdateID != systemUpdateID)
+      {
+        // content changed while we were offline
+        invalidateServer(udn);
+        cacheFile.delete();
+      }
+    } catch (Exception e)
+    {
+      System.out.println("Could not read browse cache for " + udn + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Stores all cached responses of a server to disk.
+   * 
+   * @param udn
+   *          The UDN of the server
+   */
+  public void storeServerCache(String udn)
+  {
+    Vector responses = new Vector();
+    long systemUpdateID;
+    synchronized(serverEntryFromUDNTable)
+    {
+      ServerEntry serverEntry = getServerEntry(udn);
+      systemUpdateID = serverEntry.systemUpdateID;
+      Enumeration keyLists = serverEntry.keysFromContainerIDTable.elements();
+      while (keyLists.hasMoreElements())
+      {
+        Vector keys = (Vector)keyLists.nextElement();
+        for (int i = 0; i < keys.size(); i++)
+        {
+          Object value = cache.get(keys.elementAt(i));
+          if (value instanceof CachedChildren)
+          {
+            // store each received page
+            responses.addAll(((CachedChildren)value).pages);
+          } else if (value != null && !responses.contains(value))
+          {
+            responses.add(value);
+          }
+        }
+      }
+    }
+    File directory = new File(cacheDirectory);
+    // create directory if necessary
+    if (!directory.exists())
+    {
+      directory.mkdir();
+    }
+    FileOutputStream outputStream = null;
+    try
+    {
+      outputStream = new FileOutputStream(getCacheFileName(udn));
+      outputStream.write(StringHelper.utf8StringToByteArray("<?xml version=\"1.0\"?>"));
+      outputStream.write(StringHelper.utf8StringToByteArray("<BrowseCache>"));
+      outputStream.write(StringHelper.utf8StringToByteArray("<SystemUpdateID>" + systemUpdateID +
+        "</SystemUpdateID>"));
+      for (int i = 0; i < responses.size(); i++)
+      {
+        CachedResponse response = (CachedResponse)responses.elementAt(i);
+        outputStream.write(StringHelper.utf8StringToByteArray(response.toXMLDescription()));
+      }
+      outputStream.write(StringHelper.utf8StringToByteArray("</BrowseCache>"));
+    } catch (Exception e)
+    {
+      System.out.println("Could not store browse cache for " + udn + ": " + e.getMessage());
+    } finally
+    {
+      if (outputStream != null)
+      {
+        try
+        {
+          outputStream.close();
+        } catch (IOException e)
+        {
+        }
+      }
+    }
+  }
+
+  /** Retrieves statistics for the cache. */
+  public String getStatistics()
+  {
+    return cache.getStatistics();
+  }
+
+  /**
+   * Adds a response to the cache and indexes it for all containers it depends on. BrowseDirectChildren
+   * pages are merged into the entry of their container.
+   */
+  private void put(String udn, CachedResponse response, long invalidationCount)
+  {
+    Object key = buildKey(udn, response.browseFlag, response.objectID, response.filter, response.sortCriteria);
+
+    synchronized(serverEntryFromUDNTable)
+    {
+      ServerEntry serverEntry = getServerEntry(udn);
+      // discard responses that were overtaken by an invalidation
+      if (serverEntry.invalidationCount != invalidationCount)
+      {
+        return;
+      }
+      Object value = response;
+      long size = response.result.length();
+      if (response.browseFlag.equals(MediaServerConstant.BROWSE_DIRECT_CHILDREN))
+      {
+        // entries are replaced and never changed, so readers need no lock
+        CachedChildren children = new CachedChildren((CachedChildren)cache.get(key), response);
+        value = children;
+        size = children.size;
+      }
+      if (!cache.put(key, value, size, cache.getGeneration()))
+      {
+        return;
+      }
+      addKey(serverEntry, response.objectID, key);
+      if (response.parentID != null)
+      {
+        addKey(serverEntry, response.parentID, key);
+      }
+    }
+  }
+
+  /** Adds a key to the list of one container. */
+  private void addKey(ServerEntry serverEntry, String containerID, Object key)
+  {
+    Vector keys = (Vector)serverEntry.keysFromContainerIDTable.get(containerID);
+    if (keys == null)
+    {
+      keys = new Vector();
+      serverEntry.keysFromContainerIDTable.put(containerID, keys);
+    }
+    // remove keys of evicted or expired responses
+    for (int i = keys.size() - 1; i >= 0; i--)
+    {
+      if (!cache.containsKey(keys.elementAt(i)))
+      {
+        keys.remove(i);
+      }
+    }
+    if (!keys.contains(key))
+    {
+      keys.add(key);
+    }
+  }
+
+  /** Retrieves the state for one server. Must be called while holding the table lock. */
+  private ServerEntry getServerEntry(String udn)
+  {
+    ServerEntry serverEntry = (ServerEntry)serverEntryFromUDNTable.get(udn);
+    if (serverEntry == null)
+    {
+      serverEntry = new ServerEntry();
+      serverEntryFromUDNTable.put(udn, serverEntry);
+    }
+    return serverEntry;
+  }
+
+  /** Retrieves the file that holds the stored responses of a server. */
+  private String getCacheFileName(String udn)
+  {
+    return cacheDirectory + StringHelper.escapeDirectoryName(udn) + ".xml";
+  }
+
+  /** Builds the key for one request. */
+  private static String buildKey(String udn, String browseFlag, String objectID, String filter, String sortCriteria)
+  {
+    return udn + "\n" + browseFlag + "\n" + objectID + "\n" + filter + "\n" + sortCriteria;
+  }
+
+  /** This class holds the state for one server. */
+  private static class ServerEntry
+  {
+
+    /** Incremented with each invalidation */
+    private long      invalidationCount        = 0;
+
+    /** Last known SystemUpdateID */
+    private long      systemUpdateID           = -1;
+
+    /** Hashtable containing the keys of all responses that depend on a container */
+    private Hashtable keysFromContainerIDTable = new Hashtable();
+
+  }
+
+  /** This class holds one cached response. */
+  private static class CachedResponse
+  {
+
+    private String browseFlag;
+
+    private String objectID;
+
+    private String parentID;
+
+    private int    startingIndex;
+
+    private int    requestedCount;
+
+    private String filter;
+
+    private String sortCriteria;
+
+    private String result;
+
+    private long   numberReturned;
+
+    private long   totalMatches;
+
+    private long   updateID;
+
+    /** Creates a XML description for the cache file. */
+    public String toXMLDescription()
+    {
+      return "<Entry>" + "<BrowseFlag>" + browseFlag + "</BrowseFlag>" + "<ObjectID>" +
+        StringHelper.xmlToEscapedString(objectID) + "</ObjectID>" + "<StartingIndex>" + startingIndex +
+        "</StartingIndex>" + "<RequestedCount>" + requestedCount + "</RequestedCount>" + "<Filter>" +
+        StringHelper.xmlToEscapedString(filter) + "</Filter>" + "<SortCriteria>" +
+        StringHelper.xmlToEscapedString(sortCriteria) + "</SortCriteria>" + "<NumberReturned>" + numberReturned +
+        "</NumberReturned>" + "<TotalMatches>" + totalMatches + "</TotalMatches>" + "<UpdateID>" + updateID +
+        "</UpdateID>" + "<Result>" + StringHelper.xmlToEscapedString(result) + "</Result>" + "</Entry>";
+    }
+
+  }
+
+  /** This class holds all received BrowseDirectChildren pages of one container. */
+  private static class CachedChildren
+  {
+
+    /** Pages sorted by their starting index, without overlaps */
+    private Vector pages = new Vector();
+
+    /** Sum of the result sizes of all pages */
+    private long   size  = 0;
+
+    /**
+     * Creates a new entry that contains the pages of a previous entry and a new page. Overlapping
+     * pages and pages with another update ID are replaced by the new page.
+     */
+    public CachedChildren(CachedChildren previousChildren, CachedResponse page)
+    {
+      long pageEnd = page.startingIndex + page.numberReturned;
+      for (int i = 0; previousChildren != null && i < previousChildren.pages.size(); i++)
+      {
+        CachedResponse currentPage = (CachedResponse)previousChildren.pages.elementAt(i);
+        long currentPageEnd = currentPage.startingIndex + currentPage.numberReturned;
+        if (currentPage.updateID == page.updateID &&
+          (currentPageEnd <= page.startingIndex || currentPage.startingIndex >= pageEnd))
+        {
+          pages.add(currentPage);
+          size += currentPage.result.length();
+        }
+      }
+      int index = 0;
+      while (index < pages.size() && ((CachedResponse)pages.elementAt(index)).startingIndex < page.startingIndex)
+      {
+        index++;
+      }
+      pages.insertElementAt(page, index);
+      size += page.result.length();
+    }
+
+    /**
+     * Builds a response for a requested range from the stored pages.
+     * 
+     * @return The response or null if the range is not completely stored
+     */
+    public BrowseResponse getRange(int startingIndex, int requestedCount)
+    {
+      CachedResponse lastPage = (CachedResponse)pages.lastElement();
+      long cachedEnd = lastPage.startingIndex + lastPage.numberReturned;
+      long totalMatches = lastPage.totalMatches;
+      // a total of 0 means that the server does not know the number of matches, so only ranges
+      // within the stored pages can be answered
+      if (totalMatches == 0 && (requestedCount == 0 || (long)startingIndex + requestedCount > cachedEnd))
+      {
+        return null;
+      }
+      long end =
+        totalMatches == 0 ? (long)startingIndex + requestedCount : requestedCount == 0 ? totalMatches
+          : Math.min((long)startingIndex + requestedCount, totalMatches);
+      if (end <= startingIndex)
+      {
+        return startingIndex <= totalMatches ? new BrowseResponse(new DIDLObject[0], 0, totalMatches,
+          lastPage.updateID) : null;
+      }
+      Vector objects = new Vector();
+      long index = startingIndex;
+      for (int i = 0; i < pages.size() && index < end; i++)
+      {
+        CachedResponse page = (CachedResponse)pages.elementAt(i);
+        long pageEnd = page.startingIndex + page.numberReturned;
+        if (page.startingIndex > index)
+        {
+          // range is not stored completely
+          return null;
+        }
+        if (pageEnd <= index)
+        {
+          continue;
+        }
+        DIDLObject[] pageObjects = new DIDLParser(page.result).getDIDLObjects();
+        while (index < end && index < pageEnd)
+        {
+          int offset = (int)(index - page.startingIndex);
+          if (pageObjects == null || offset >= pageObjects.length)
+          {
+            return null;
+          }
+          objects.add(pageObjects[offset]);
+          index++;
+        }
+      }
+      if (index < end)
+      {
+        return null;
+      }
+      DIDLObject[] result = new DIDLObject[objects.size()];
+      objects.copyInto(result);
+
+      return new BrowseResponse(result, result.length, totalMatches, lastPage.updateID);
+    }
+
+  }
+
+  /** This class parses a stored cache file. */
+  private class BrowseCacheParser extends SAXTemplateHandler
+  {
+
+    private String         udn;
+
+    private long           invalidationCount;
+
+    private long           systemUpdateID = -1;
+
+    private CachedResponse response;
+
+    public BrowseCacheParser(String udn, long invalidationCount)
+    {
+      this.udn = udn;
+      this.invalidationCount = invalidationCount;
+    }
+
+    public void processStartElement(String uri, String name, String qName, Attributes atts) throws SAXException
+    {
+      if (getTagCount() == 2 && getCurrentTag().equals("Entry"))
+      {
+        response = new CachedResponse();
+        response.filter = "";
+        response.sortCriteria = "";
+        response.result = "";
+      }
+    }
+
+    public void processContentElement(String content) throws SAXException
+    {
+      if (getTagCount() == 2 && getCurrentTag().equals("SystemUpdateID"))
+      {
+        systemUpdateID = Long.parseLong(content);
+      }
+      if (getTagCount() == 3 && response != null)
+      {
+        String tag = getCurrentTag();
+        if (tag.equals("BrowseFlag"))
+        {
+          response.browseFlag = content;
+        }
+        if (tag.equals("ObjectID"))
+        {
+          response.objectID = content;
+        }
+        if (tag.equals("StartingIndex"))
+        {
+          response.startingIndex = Integer.parseInt(content);
+        }
+        if (tag.equals("RequestedCount"))
+        {
+          response.requestedCount = Integer.parseInt(content);
+        }
+        if (tag.equals("Filter"))
+        {
+          response.filter = content;
+        }
+        if (tag.equals("SortCriteria"))
+        {
+          response.sortCriteria = content;
+        }
+        if (tag.equals("NumberReturned"))
+        {
+          response.numberReturned = Long.parseLong(content);
+        }
+        if (tag.equals("TotalMatches"))
+        {
+          response.totalMatches = Long.parseLong(content);
+        }
+        if (tag.equals("UpdateID"))
+        {
+          response.updateID = Long.parseLong(content);
+        }
+        if (tag.equals("Result"))
+        {
+          response.result = content;
+        }
+      }
+    }
+
+    public void processEndElement(String uri, String localName, String qName) throws SAXException
+    {
+      if (getTagCount() == 2 && getCurrentTag().equals("Entry") && response != null)
+      {
+        if (response.browseFlag != null && response.objectID != null)
+        {
+          if (response.browseFlag.equals(MediaServerConstant.BROWSE_METADATA))
+          {
+            putMetadata(udn, response.objectID, response.result, response.updateID, invalidationCount);
+          } else
+          {
+            put(udn, response, invalidationCount);
+          }
+        }
+        response = null;
+      }
+    }
+
+  }
+
+}
@@ -29,6 +29,7 @@ package de.fraunhofer.fokus.upnp.core_av.control_point;
 
 import org.apache.log4j.Logger;
 
+import de.fraunhofer.fokus.upnp.configuration.UPnPDefaults;
 import de.fraunhofer.fokus.upnp.core.Argument;
 import de.fraunhofer.fokus.upnp.core.control_point.CPAction;
 import de.fraunhofer.fokus.upnp.core.control_point.CPService;
@@ -68,6 +69,12 @@ public class CPContentDirectoryBrowser implements IMediaServerContentProvider
 
   private TemplateControlPoint controlPoint;
 
+  /** Optional cache for browse responses */
+  private CPBrowseCache        browseCache;
+
+  /** UDN of the media server, used as cache key */
+  private String               udn;
+
   /**
    * Creates a new instance of CPContentDirectoryBrowser.
    * 
@@ -79,6 +86,21 @@ public class CPContentDirectoryBrowser implements IMediaServerContentProvider
     controlPoint = mediaServerCPDevice.getTemplateControlPoint();
     cpContentDirectoryService =
       mediaServerCPDevice.getCPDevice().getCPServiceByType(UPnPAVConstant.CONTENT_DIRECTORY_SERVICE_TYPE);
+    udn = mediaServerCPDevice.getCPDevice().getUDN();
+    if (!UPnPDefaults.CP_DISABLE_BROWSE_CACHE)
+    {
+      browseCache = CPBrowseCache.getDefaultCache();
+    }
+  }
+
+  /**
+   * Retrieves the browse cache.
+   * 
+   * @return The browse cache or null if caching is disabled
+   */
+  public CPBrowseCache getBrowseCache()
+  {
+    return browseCache;
   }
 
   /**
@@ -181,6 +203,17 @@ public class CPContentDirectoryBrowser implements IMediaServerContentProvider
   // //
   // //
   // ////////////////////////////////////////////////////////////////////////////////////////////////
+  /**
+   * Retrieves a private copy of the browse action. This allows concurrent browse requests for
+   * different containers.
+   */
+  private CPAction getBrowseAction()
+  {
+    CPAction action = cpContentDirectoryService.getCPAction("Browse");
+
+    return action != null ? (CPAction)action.clone() : null;
+  }
+
   /* (non-Javadoc)
    * @see de.fhg.fokus.magic.upnpav.server.IMediaServerContentProvider#getSystemUpdateID()
    */
@@ -232,7 +265,18 @@ public class CPContentDirectoryBrowser implements IMediaServerContentProvider
     String filter,
     String sortCriteria)
   {
-    CPAction action = cpContentDirectoryService.getCPAction("Browse");
+    long invalidationCount = 0;
+    if (browseCache != null)
+    {
+      BrowseResponse cachedResponse =
+        browseCache.getDirectChildren(udn, objectID, startingIndex, requestedCount, filter, sortCriteria);
+      if (cachedResponse != null)
+      {
+        return cachedResponse;
+      }
+      invalidationCount = browseCache.getInvalidationCount(udn);
+    }
+    CPAction action = getBrowseAction();
 
     if (action != null)
     {
@@ -253,6 +297,20 @@ public class CPContentDirectoryBrowser implements IMediaServerContentProvider
         long containerUpdateID = action.getOutArgument("UpdateID").getNumericValue();
 
         DIDLParser parser = new DIDLParser(actionResult);
+        if (browseCache != null)
+        {
+          browseCache.putDirectChildren(udn,
+            objectID,
+            startingIndex,
+            requestedCount,
+            filter,
+            sortCriteria,
+            actionResult,
+            numberReturned,
+            totalMatches,
+            containerUpdateID,
+            invalidationCount);
+        }
         return new BrowseResponse(parser.getDIDLObjects(), numberReturned, totalMatches, containerUpdateID);
 
       } catch (Exception e)
@@ -268,7 +326,17 @@ public class CPContentDirectoryBrowser implements IMediaServerContentProvider
    */
   public BrowseResponse browseMetadata(String objectID)
   {
-    CPAction action = cpContentDirectoryService.getCPAction("Browse");
+    long invalidationCount = 0;
+    if (browseCache != null)
+    {
+      BrowseResponse cachedResponse = browseCache.getMetadata(udn, objectID);
+      if (cachedResponse != null)
+      {
+        return cachedResponse;
+      }
+      invalidationCount = browseCache.getInvalidationCount(udn);
+    }
+    CPAction action = getBrowseAction();
 
     if (action != null)
     {
@@ -288,7 +356,12 @@ public class CPContentDirectoryBrowser implements IMediaServerContentProvider
 
         if (parser.getDIDLObject() != null)
         {
-          return new BrowseResponse(parser.getDIDLObject(), action.getArgument("UpdateID").getNumericValue());
+          long updateID = action.getArgument("UpdateID").getNumericValue();
+          if (browseCache != null)
+          {
+            browseCache.putMetadata(udn, objectID, actionResult, updateID, invalidationCount);
+          }
+          return new BrowseResponse(parser.getDIDLObject(), updateID);
         }
 
       } catch (Exception e)
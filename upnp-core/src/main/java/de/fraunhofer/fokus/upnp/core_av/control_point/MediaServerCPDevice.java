@@ -28,10 +28,12 @@
 package de.fraunhofer.fokus.upnp.core_av.control_point;
 
 import java.util.Enumeration;
+import java.util.Hashtable;
 import java.util.Vector;
 
 import org.apache.log4j.Logger;
 
+import de.fraunhofer.fokus.upnp.configuration.UPnPDefaults;
 import de.fraunhofer.fokus.upnp.core.control_point.CPAction;
 import de.fraunhofer.fokus.upnp.core.control_point.CPDevice;
 import de.fraunhofer.fokus.upnp.core.control_point.CPService;
@@ -84,12 +86,25 @@ public class MediaServerCPDevice extends TemplateCPDevice implements Runnable, I
   /** Class used for modifying the remote server */
   private CPContentDirectoryModifier contentDirectoryModifier;
 
-  /** List of objectIDs that are waiting for enumeration */
+  /** List of objectIDs that are waiting for enumeration or are currently enumerated */
   private Vector                     pendingContainerList     = new Vector();
 
+  /** List of objectIDs that are currently enumerated */
+  private Vector                     activeContainerList      = new Vector();
+
+  /** Hashtable containing the progress for all containers that are currently enumerated */
+  private Hashtable                  enumerationProgressTable = new Hashtable();
+
+  /** Number of objects requested by the next browse request */
+  private int                        browsePageSize;
+
   private boolean                    terminateThread          = false;
 
-  private boolean                    terminated               = false;
+  /** Number of running enumeration threads */
+  private int                        runningThreadCount       = 0;
+
+  /** List of container IDs whose content changed after their enumeration */
+  private Vector                     staleContainerList       = new Vector();
 
   /**
    * Creates a new instance of MediaServerCPDevice.
@@ -103,6 +118,14 @@ public class MediaServerCPDevice extends TemplateCPDevice implements Runnable, I
   {
     super(controlPoint, serverDevice);
     contentDirectoryBrowser = new CPContentDirectoryBrowser(this);
+    browsePageSize = UPnPDefaults.CP_MEDIA_SERVER_BROWSE_INITIAL_PAGE_SIZE;
+    // get initial value for system update ID
+    systemUpdateID = contentDirectoryBrowser.getSystemUpdateID();
+    // reuse responses stored in a previous session if the server content did not change
+    if (contentDirectoryBrowser.getBrowseCache() != null)
+    {
+      contentDirectoryBrowser.getBrowseCache().readServerCache(getCPDevice().getUDN(), systemUpdateID);
+    }
     try
     {
       // immediately enumerate root folder
@@ -110,7 +133,7 @@ public class MediaServerCPDevice extends TemplateCPDevice implements Runnable, I
       DIDLObject[] rootChildren = contentDirectoryBrowser.browseRootDirectChildren().getResult();
       // link parent with all childs
       contentRootObject.setChildList(rootChildren);
-      contentRootObject.setContainerUpdateID(contentDirectoryBrowser.getSystemUpdateID());
+      contentRootObject.setContainerUpdateID(systemUpdateID);
       currentObject = contentRootObject;
     } catch (Exception ex)
     {
@@ -118,12 +141,15 @@ public class MediaServerCPDevice extends TemplateCPDevice implements Runnable, I
     }
 
     contentDirectoryModifier = new CPContentDirectoryModifier(this);
-    // get initial value for system update ID
-    systemUpdateID = contentDirectoryBrowser.getSystemUpdateID();
 
-    Thread thread = new Thread(this);
-    thread.setName("MediaServerCPDevice");
-    thread.start();
+    // start threads that enumerate containers concurrently
+    runningThreadCount = UPnPDefaults.CP_MEDIA_SERVER_ENUMERATION_THREAD_COUNT;
+    for (int i = 0; i < UPnPDefaults.CP_MEDIA_SERVER_ENUMERATION_THREAD_COUNT; i++)
+    {
+      Thread thread = new Thread(this);
+      thread.setName("MediaServerCPDevice");
+      thread.start();
+    }
   }
 
   /*
@@ -157,6 +183,13 @@ public class MediaServerCPDevice extends TemplateCPDevice implements Runnable, I
         if (systemUpdateID != stateVariable.getNumericValue())
         {
           systemUpdateID = stateVariable.getNumericValue();
+          if (contentDirectoryBrowser.getBrowseCache() != null)
+          {
+            // servers without container updates invalidate all cached responses
+            contentDirectoryBrowser.getBrowseCache().systemUpdateIDChanged(getCPDevice().getUDN(),
+              systemUpdateID,
+              stateVariable.getCPService().getCPStateVariable("ContainerUpdateIDs") != null);
+          }
           // inform listeners
           for (int i = 0; i < serverChangeListenerList.size(); ++i)
           {
@@ -167,17 +200,56 @@ public class MediaServerCPDevice extends TemplateCPDevice implements Runnable, I
       {
       }
     }
-    if (stateVariable.getName().equals("ContainerUpdateIDs"))
+    if (stateVariable.getName().equals("ContainerUpdateIDs") &&
+      stateVariable.getCPService().getCPDevice() == getCPDevice())
     {
-      // System.out.println("Var changed="+csv.getValue().toString()+":");
-
-      /*
-       * for (int i = 0; i < listenerList.size(); ++i) { ((UPnPAVServerChangeAdapter)
-       * listenerList.get(i)).containerUpdateOccurred(csv.getValue() .toString()); }
-       */
+      Hashtable updateIDFromContainerIDTable = new Hashtable();
+      if (contentDirectoryBrowser.getBrowseCache() != null)
+      {
+        updateIDFromContainerIDTable =
+          contentDirectoryBrowser.getBrowseCache().containerUpdateIDsChanged(getCPDevice().getUDN(),
+            stateVariable.getValueAsString());
+      }
+      Enumeration containerIDs = updateIDFromContainerIDTable.keys();
+      while (containerIDs.hasMoreElements())
+      {
+        String containerID = (String)containerIDs.nextElement();
+        long containerUpdateID = ((Long)updateIDFromContainerIDTable.get(containerID)).longValue();
+        DIDLContainer container = getContainer(containerID);
+        // only containers with known content can become stale
+        if (container != null && container.hasBeenEnumerated() &&
+          container.getContainerUpdateID() != containerUpdateID)
+        {
+          synchronized(staleContainerList)
+          {
+            if (!staleContainerList.contains(containerID))
+            {
+              staleContainerList.add(containerID);
+            }
+          }
+          for (int i = 0; i < serverChangeListenerList.size(); ++i)
+          {
+            ((ICPMediaServerStateVariableListener)serverChangeListenerList.get(i)).containerUpdateOccurred(this,
+              containerID);
+          }
+        }
+      }
     }
   }
 
+  /**
+   * Checks if the content of a container changed after its last enumeration.
+   * 
+   * @param containerID
+   *          The ID of the container
+   * 
+   * @return True if the container should be enumerated again, false otherwise
+   */
+  public boolean isStaleContainer(String containerID)
+  {
+    return staleContainerList.contains(containerID);
+  }
+
   // ////////////////////////////////////////////////////////////////////////////////////////////////
   // //
   // //
@@ -349,19 +421,20 @@ public class MediaServerCPDevice extends TemplateCPDevice implements Runnable, I
     DIDLContainer currentContainer = getCurrentContainer();
     if (currentContainer != null)
     {
-      if (!isPendingContainer(currentContainer.getID()))
-      {
-        pendingContainerList.add(currentContainer.getID());
-      }
+      enumerateContainer(currentContainer.getID());
     }
   }
 
   /** Enumerates a container in another thread. The method returns immediately. */
   public void enumerateContainer(String containerID)
   {
-    if (!isPendingContainer(containerID))
+    synchronized(pendingContainerList)
     {
-      pendingContainerList.add(containerID);
+      if (!isPendingContainer(containerID))
+      {
+        pendingContainerList.add(containerID);
+        pendingContainerList.notifyAll();
+      }
     }
   }
 
@@ -371,6 +444,39 @@ public class MediaServerCPDevice extends TemplateCPDevice implements Runnable, I
     return pendingContainerList.size() > 0;
   }
 
+  /**
+   * Retrieves the number of objects that have already been received for a container that is
+   * currently enumerated.
+   * 
+   * @param containerID
+   *          The ID of the container
+   * 
+   * @return The number of received objects or -1 if the container is not enumerated
+   */
+  public int getEnumeratedChildCount(String containerID)
+  {
+    EnumerationProgress progress = (EnumerationProgress)enumerationProgressTable.get(containerID);
+
+    return progress != null ? progress.enumeratedChildCount : -1;
+  }
+
+  /**
+   * Retrieves the total number of children reported by the server for a container that is
+   * currently enumerated.
+   * 
+   * @param containerID
+   *          The ID of the container
+   * 
+   * @return The number of expected objects, 0 if the server did not report a total number or -1 if
+   *         the container is not enumerated
+   */
+  public long getExpectedChildCount(String containerID)
+  {
+    EnumerationProgress progress = (EnumerationProgress)enumerationProgressTable.get(containerID);
+
+    return progress != null ? progress.expectedChildCount : -1;
+  }
+
   // ////////////////////////////////////////////////////////////////////////////////////////////////
   // //
   // //
@@ -558,13 +664,111 @@ public class MediaServerCPDevice extends TemplateCPDevice implements Runnable, I
 
   private boolean isPendingContainer(String containerID)
   {
-    boolean result = false;
-    for (int i = 0; i < pendingContainerList.size(); i++)
+    return pendingContainerList.contains(containerID);
+  }
+
+  /**
+   * Retrieves the next container that can be enumerated and marks it as active. Parents of
+   * unconnected containers are not enumerated before the enumeration of their child is finished.
+   * 
+   * @return The ID of the container or null
+   */
+  private String startNextPendingContainer()
+  {
+    synchronized(pendingContainerList)
     {
-      result |= ((String)pendingContainerList.elementAt(i)).equals(containerID);
+      for (int i = 0; i < pendingContainerList.size(); i++)
+      {
+        String containerID = (String)pendingContainerList.elementAt(i);
+        boolean blocked = activeContainerList.contains(containerID);
+        Enumeration progressEnumeration = enumerationProgressTable.elements();
+        while (!blocked && progressEnumeration.hasMoreElements())
+        {
+          EnumerationProgress progress = (EnumerationProgress)progressEnumeration.nextElement();
+          blocked = containerID.equals(progress.unconnectedParentID);
+        }
+        if (!blocked)
+        {
+          activeContainerList.add(containerID);
+          enumerationProgressTable.put(containerID, new EnumerationProgress());
+
+          return containerID;
+        }
+      }
     }
+    return null;
+  }
 
-    return result;
+  /** Removes a container from the list of pending containers. */
+  private void finishPendingContainer(String containerID)
+  {
+    synchronized(pendingContainerList)
+    {
+      pendingContainerList.remove(containerID);
+      activeContainerList.remove(containerID);
+      enumerationProgressTable.remove(containerID);
+      // parents of this container may be enumerated now
+      pendingContainerList.notifyAll();
+    }
+  }
+
+  /**
+   * Requests one page of children of a container. The page size is adapted to the response time of
+   * the server.
+   * 
+   * @param containerID
+   *          The ID of the container
+   * @param offset
+   *          The index of the first requested child
+   * 
+   * @return The response or null
+   */
+  private BrowseResponse browseDirectChildren(String containerID, int offset)
+  {
+    int pageSize = browsePageSize;
+    long startTime = System.currentTimeMillis();
+    BrowseResponse browseResponse =
+      contentDirectoryBrowser.browseDirectChildren(containerID, offset, pageSize, "*", "");
+    adaptBrowsePageSize(pageSize, browseResponse, System.currentTimeMillis() - startTime);
+
+    // retry failed requests once with a smaller page
+    if (browseResponse == null && browsePageSize < pageSize && !terminateThread)
+    {
+      pageSize = browsePageSize;
+      startTime = System.currentTimeMillis();
+      browseResponse = contentDirectoryBrowser.browseDirectChildren(containerID, offset, pageSize, "*", "");
+      adaptBrowsePageSize(pageSize, browseResponse, System.currentTimeMillis() - startTime);
+    }
+    return browseResponse;
+  }
+
+  /**
+   * Adapts the page size for the next browse requests. Fast and complete responses double the page
+   * size, slow or failed requests halve it.
+   * 
+   * @param pageSize
+   *          The page size of the finished request
+   * @param browseResponse
+   *          The response or null
+   * @param responseTime
+   *          The time needed for the request
+   */
+  private void adaptBrowsePageSize(int pageSize, BrowseResponse browseResponse, long responseTime)
+  {
+    synchronized(pendingContainerList)
+    {
+      if (browseResponse == null || responseTime > UPnPDefaults.CP_MEDIA_SERVER_BROWSE_TARGET_TIME)
+      {
+        browsePageSize = Math.max(UPnPDefaults.CP_MEDIA_SERVER_BROWSE_MIN_PAGE_SIZE, pageSize / 2);
+        return;
+      }
+      DIDLObject[] result = browseResponse.getResult();
+      if (result != null && result.length >= pageSize &&
+        responseTime < UPnPDefaults.CP_MEDIA_SERVER_BROWSE_TARGET_TIME / 2)
+      {
+        browsePageSize = Math.min(UPnPDefaults.CP_MEDIA_SERVER_BROWSE_MAX_PAGE_SIZE, pageSize * 2);
+      }
+    }
   }
 
   // ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -578,154 +782,194 @@ public class MediaServerCPDevice extends TemplateCPDevice implements Runnable, I
   {
     while (!terminateThread)
     {
-      // check for containers that wait for enumeration
-      if (pendingContainerList.size() > 0)
+      // wait for containers that can be enumerated
+      String containerID = null;
+      synchronized(pendingContainerList)
       {
-        String containerID = (String)pendingContainerList.elementAt(0);
-        // flag that container is not linked to the root container
-        boolean unconnectedContainer = false;
-
-        // try to find container in known tree
-        DIDLContainer container = getContainer(containerID);
-        if (container == null)
+        containerID = startNextPendingContainer();
+        if (containerID == null && !terminateThread)
         {
-          // System.out.println("Try to enumerate unconnected container: " + containerID);
-          // retrieve container metadata
-          BrowseResponse browseResponse = contentDirectoryBrowser.browseMetadata(containerID);
           try
           {
-            container = (DIDLContainer)browseResponse.getFirstResult();
-            // add container to unconnected list
-            unconnectedContainerList.add(container);
-            // add parent container to list of requested containers
-            if (!container.getParentID().equals("-1") && !isPendingContainer(container.getParentID()))
-            {
-              pendingContainerList.add(container.getParentID());
-            }
-            unconnectedContainer = true;
-          } catch (Exception e)
+            pendingContainerList.wait();
+          } catch (InterruptedException e)
           {
           }
         }
-        // container is valid, enumerate
-        if (container != null)
+      }
+      if (containerID != null)
+      {
+        boolean unconnectedContainer = false;
+        try
+        {
+          unconnectedContainer = enumeratePendingContainer(containerID);
+        } finally
+        {
+          finishPendingContainer(containerID);
+        }
+        // Event for finish
+        if (!unconnectedContainer)
         {
-          System.out.println("Enumerate " + container.getTitle() + "(" + containerID + ")...");
-
-          // check if the container is currently empty
-          boolean emptyContainer = container.getCurrentChildCount() == 0;
-          // if (emptyContainer)
-          // {
-          // System.out.println(" Container content is unknown");
-          // }
-          DIDLObject[] completeResult = new DIDLObject[0];
-
-          // browse 5 items a time
-          int offset = 0;
-          BrowseResponse browseResponse = contentDirectoryBrowser.browseDirectChildren(containerID, offset, 5, "*", "");
-          DIDLObject[] result = browseResponse != null ? browseResponse.getResult() : null;
-
-          while (browseResponse != null && result != null && result.length > 0)
+          for (int i = 0; i < serverChangeListenerList.size(); i++)
           {
-            // if container content is not yet known, update immediately
-            if (emptyContainer && !unconnectedContainer)
-            {
-              synchronized(contentLock)
-              {
-                container.addChilds(result);
-                container.setContainerUpdateID(browseResponse.getUpdateID());
-              }
-              // send event to listeners
-              for (int i = 0; i < serverChangeListenerList.size(); i++)
-              {
-                ((ICPMediaServerStateVariableListener)serverChangeListenerList.get(i)).containerEnumerationUpdate(this,
-                  containerID);
-              }
-            } else
-            {
-              // container already has content, add to complete result
-              DIDLObject[] tempResult = new DIDLObject[completeResult.length + result.length];
-              for (int i = 0; i < completeResult.length; i++)
-              {
-                tempResult[i] = completeResult[i];
-              }
-              for (int i = 0; i < result.length; i++)
-              {
-                tempResult[completeResult.length + i] = result[i];
-              }
-              completeResult = tempResult;
-            }
-            offset += result.length;
-            // continue browsing
-            browseResponse = contentDirectoryBrowser.browseDirectChildren(containerID, offset, 5, "*", "");
-            result = browseResponse != null ? browseResponse.getResult() : null;
+            ((ICPMediaServerStateVariableListener)serverChangeListenerList.get(i)).containerEnumerationFinished(this,
+              containerID);
           }
-          // update in one step if container already had content
-          if (!emptyContainer || unconnectedContainer)
+        }
+      }
+    }
+    synchronized(pendingContainerList)
+    {
+      runningThreadCount--;
+      pendingContainerList.notifyAll();
+    }
+  }
+
+  /**
+   * Enumerates one container.
+   * 
+   * @param containerID
+   *          The ID of the container
+   * 
+   * @return True if the container is not linked to the root container, false otherwise
+   */
+  private boolean enumeratePendingContainer(String containerID)
+  {
+    EnumerationProgress progress = (EnumerationProgress)enumerationProgressTable.get(containerID);
+    // flag that container is not linked to the root container
+    boolean unconnectedContainer = false;
+
+    // try to find container in known tree
+    DIDLContainer container = getContainer(containerID);
+    if (container == null)
+    {
+      // System.out.println("Try to enumerate unconnected container: " + containerID);
+      // retrieve container metadata
+      BrowseResponse browseResponse = contentDirectoryBrowser.browseMetadata(containerID);
+      try
+      {
+        container = (DIDLContainer)browseResponse.getFirstResult();
+        // add container to unconnected list
+        synchronized(contentLock)
+        {
+          unconnectedContainerList.add(container);
+        }
+        // add parent container to list of requested containers
+        if (!container.getParentID().equals("-1"))
+        {
+          // the parent must wait until this container is enumerated
+          progress.unconnectedParentID = container.getParentID();
+          enumerateContainer(container.getParentID());
+        }
+        unconnectedContainer = true;
+      } catch (Exception e)
+      {
+      }
+    }
+    // container is valid, enumerate
+    if (container != null)
+    {
+      System.out.println("Enumerate " + container.getTitle() + "(" + containerID + ")...");
+
+      // check if the container is currently empty
+      boolean emptyContainer = container.getCurrentChildCount() == 0;
+      Vector completeResult = new Vector();
+      long containerUpdateID = container.getContainerUpdateID();
+
+      // browse with adaptive page size
+      int offset = 0;
+      BrowseResponse browseResponse = browseDirectChildren(containerID, offset);
+      DIDLObject[] result = browseResponse != null ? browseResponse.getResult() : null;
+
+      while (browseResponse != null && result != null && result.length > 0 && !terminateThread)
+      {
+        containerUpdateID = browseResponse.getUpdateID();
+        offset += result.length;
+        progress.enumeratedChildCount = offset;
+        progress.expectedChildCount = browseResponse.getTotalMatches();
+
+        // if container content is not yet known, update immediately
+        if (emptyContainer && !unconnectedContainer)
+        {
+          synchronized(contentLock)
           {
-            synchronized(contentLock)
-            {
-              container.setChildList(completeResult);
-              container.setContainerUpdateID(browseResponse.getUpdateID());
-            }
+            container.addChilds(result);
+            container.setContainerUpdateID(containerUpdateID);
           }
-          // try to link unconnected containers
-          synchronized(contentLock)
+        } else
+        {
+          // container already has content, add to complete result
+          for (int i = 0; i < result.length; i++)
           {
-            DIDLContainer[] childContainerList = container.getChildContainerList();
-            // check all new child containers if their content is already known
-            for (int i = 0; i < childContainerList.length; i++)
-            {
-              Enumeration unconnectedContainers = unconnectedContainerList.elements();
-              while (unconnectedContainers.hasMoreElements())
-              {
-                DIDLContainer currentContainer = (DIDLContainer)unconnectedContainers.nextElement();
-                // try to find the current child container in the list of unconnected containers
-                if (currentContainer.getID().equals(childContainerList[i].getID()))
-                {
-                  // System.out.println("Found container " + currentContainer.getTitle() + " in the
-                  // unconnected list");
-                  // copy reference to childs
-                  childContainerList[i].setChildList(currentContainer.getChildList());
-                  // remove from unconnected list
-                  unconnectedContainerList.remove(currentContainer);
-                  // trigger event for child container
-                  for (int j = 0; j < serverChangeListenerList.size(); j++)
-                  {
-                    ((ICPMediaServerStateVariableListener)serverChangeListenerList.get(j)).containerEnumerationFinished(this,
-                      currentContainer.getID());
-                  }
-                }
-              }
-            }
+            completeResult.add(result[i]);
           }
-          // set flag for enumeration
-          container.setEnumerated();
-          // store system update ID for the enumeration
-          container.setSystemUpdateID(systemUpdateID);
         }
-        pendingContainerList.remove(0);
-        // Event for finish
         if (!unconnectedContainer)
         {
+          // send event to listeners
           for (int i = 0; i < serverChangeListenerList.size(); i++)
           {
-            ((ICPMediaServerStateVariableListener)serverChangeListenerList.get(i)).containerEnumerationFinished(this,
+            ((ICPMediaServerStateVariableListener)serverChangeListenerList.get(i)).containerEnumerationUpdate(this,
               containerID);
           }
         }
-        // System.out.println("done");
-        // if (container != null)
-        // debugOut(container, "");
+        // stop if the server reported that all children have been received
+        if (browseResponse.getTotalMatches() > 0 && offset >= browseResponse.getTotalMatches())
+        {
+          break;
+        }
+        // continue browsing
+        browseResponse = browseDirectChildren(containerID, offset);
+        result = browseResponse != null ? browseResponse.getResult() : null;
       }
-      try
+      // update in one step if container already had content
+      if (!emptyContainer || unconnectedContainer)
       {
-        Thread.sleep(50);
-      } catch (Exception ex)
+        DIDLObject[] childList = new DIDLObject[completeResult.size()];
+        completeResult.copyInto(childList);
+        synchronized(contentLock)
+        {
+          container.setChildList(childList);
+          container.setContainerUpdateID(containerUpdateID);
+        }
+      }
+      // try to link unconnected containers
+      synchronized(contentLock)
       {
+        DIDLContainer[] childContainerList = container.getChildContainerList();
+        // check all new child containers if their content is already known
+        for (int i = 0; i < childContainerList.length; i++)
+        {
+          Enumeration unconnectedContainers = unconnectedContainerList.elements();
+          while (unconnectedContainers.hasMoreElements())
+          {
+            DIDLContainer currentContainer = (DIDLContainer)unconnectedContainers.nextElement();
+            // try to find the current child container in the list of unconnected containers
+            if (currentContainer.getID().equals(childContainerList[i].getID()))
+            {
+              // System.out.println("Found container " + currentContainer.getTitle() + " in the
+              // unconnected list");
+              // copy reference to childs
+              childContainerList[i].setChildList(currentContainer.getChildList());
+              // remove from unconnected list
+              unconnectedContainerList.remove(currentContainer);
+              // trigger event for child container
+              for (int j = 0; j < serverChangeListenerList.size(); j++)
+              {
+                ((ICPMediaServerStateVariableListener)serverChangeListenerList.get(j)).containerEnumerationFinished(this,
+                  currentContainer.getID());
+              }
+            }
+          }
+        }
       }
+      // set flag for enumeration
+      container.setEnumerated();
+      staleContainerList.remove(containerID);
+      // store system update ID for the enumeration
+      container.setSystemUpdateID(systemUpdateID);
     }
-    terminated = true;
+    return unconnectedContainer;
   }
 
   /*
@@ -735,17 +979,41 @@ public class MediaServerCPDevice extends TemplateCPDevice implements Runnable, I
    */
   public void terminate()
   {
-    terminateThread = true;
-    while (!terminated)
+    synchronized(pendingContainerList)
     {
-      try
-      {
-        Thread.sleep(10);
-      } catch (Exception ex)
+      terminateThread = true;
+      pendingContainerList.notifyAll();
+      while (runningThreadCount > 0)
       {
+        try
+        {
+          pendingContainerList.wait();
+        } catch (InterruptedException e)
+        {
+        }
       }
     }
+    // keep browse responses for the next session
+    if (contentDirectoryBrowser.getBrowseCache() != null)
+    {
+      contentDirectoryBrowser.getBrowseCache().storeServerCache(getCPDevice().getUDN());
+    }
     super.terminate();
   }
 
+  /** This class holds the progress of one container enumeration. */
+  private static class EnumerationProgress
+  {
+
+    /** Number of received children */
+    private int    enumeratedChildCount = 0;
+
+    /** Number of children reported by the server */
+    private long   expectedChildCount   = 0;
+
+    /** Parent that must wait for this unconnected container */
+    private String unconnectedParentID  = null;
+
+  }
+
 }
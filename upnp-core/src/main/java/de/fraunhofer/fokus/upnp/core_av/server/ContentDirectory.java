@@ -27,6 +27,9 @@
 */
 package de.fraunhofer.fokus.upnp.core_av.server;
 
+import java.util.Collections;
+import java.util.Vector;
+
 import de.fraunhofer.fokus.upnp.configuration.UPnPAVDefaults;
 import de.fraunhofer.fokus.upnp.core.Argument;
 import de.fraunhofer.fokus.upnp.core.UPnPConstant;
@@ -39,7 +42,6 @@ import de.fraunhofer.fokus.upnp.core_av.didl.DIDLObject;
 import de.fraunhofer.fokus.upnp.core_av.didl.DIDLParser;
 import de.fraunhofer.fokus.upnp.core_av.didl.DIDLParserHandler;
 import de.fraunhofer.fokus.upnp.util.HighResTimerHelper;
-import de.fraunhofer.fokus.upnp.util.StringHelper;
 import de.fraunhofer.fokus.upnp.util.exceptions.ActionFailedException;
 
 /**
@@ -52,7 +54,11 @@ import de.fraunhofer.fokus.upnp.util.exceptions.ActionFailedException;
 
 public class ContentDirectory extends TemplateService implements Runnable
 {
-  private final static String         SORT_CAPABILITIES = "dc:title";
+  private final static String         SORT_CAPABILITIES   =
+    "dc:title,dc:creator,dc:date,upnp:class,upnp:artist,upnp:album,upnp:genre";
+
+  private final static String         SEARCH_CAPABILITIES =
+    "@id,@parentID,@refID,dc:title,dc:creator,upnp:class,upnp:artist,upnp:album,upnp:genre";
 
   // state variables
   private StateVariable               A_ARG_TYPE_ObjectID;
@@ -65,6 +71,8 @@ public class ContentDirectory extends TemplateService implements Runnable
 
   private StateVariable               A_ARG_TYPE_SortCriteria;
 
+  private StateVariable               A_ARG_TYPE_SearchCriteria;
+
   private StateVariable               A_ARG_TYPE_Index;
 
   private StateVariable               A_ARG_TYPE_Count;
@@ -100,6 +108,8 @@ public class ContentDirectory extends TemplateService implements Runnable
 
   private Action                      browse;
 
+  private Action                      search;
+
   private Action                      createObject;
 
   private Action                      destroyObject;
@@ -114,9 +124,9 @@ public class ContentDirectory extends TemplateService implements Runnable
 
   private Action                      deleteResource;
 
-  private boolean                     terminateThread   = false;
+  private boolean                     terminateThread     = false;
 
-  private boolean                     terminated        = false;
+  private boolean                     terminated          = false;
 
   private boolean                     contentChange;
 
@@ -126,6 +136,9 @@ public class ContentDirectory extends TemplateService implements Runnable
 
   private IMediaServerContentHelper   contentHelper;
 
+  /** Index used for Search actions */
+  private ContentDirectoryIndex       contentIndex        = new ContentDirectoryIndex();
+
   /** Creates a new instance of ContentDirectory. */
   public ContentDirectory(TemplateDevice device)
   {
@@ -189,6 +202,7 @@ public class ContentDirectory extends TemplateService implements Runnable
     });
     A_ARG_TYPE_Filter = new StateVariable("A_ARG_TYPE_Filter", "", false);
     A_ARG_TYPE_SortCriteria = new StateVariable("A_ARG_TYPE_SortCriteria", "", false);
+    A_ARG_TYPE_SearchCriteria = new StateVariable("A_ARG_TYPE_SearchCriteria", "", false);
     A_ARG_TYPE_Index = new StateVariable("A_ARG_TYPE_Index", "ui4", 0, false);
     A_ARG_TYPE_Count = new StateVariable("A_ARG_TYPE_Count", "ui4", 0, false);
     A_ARG_TYPE_UpdateID = new StateVariable("A_ARG_TYPE_UpdateID", "ui4", 0, false);
@@ -200,7 +214,7 @@ public class ContentDirectory extends TemplateService implements Runnable
     A_ARG_TYPE_URI = new StateVariable("A_ARG_TYPE_URI", "uri", "", false);
 
     transferIDs = new StateVariable("TransferIDs", "", true);
-    searchCapabilities = new StateVariable("SearchCapabilities", "", false);
+    searchCapabilities = new StateVariable("SearchCapabilities", SEARCH_CAPABILITIES, false);
     sortCapabilities = new StateVariable("SortCapabilities", SORT_CAPABILITIES, false);
     systemUpdateID = new StateVariable("SystemUpdateID", "ui4", 0, true);
 
@@ -209,17 +223,17 @@ public class ContentDirectory extends TemplateService implements Runnable
     {
       setStateVariableTable(new StateVariable[] {
           A_ARG_TYPE_ObjectID, A_ARG_TYPE_Result, A_ARG_TYPE_BrowseFlag, A_ARG_TYPE_Filter, A_ARG_TYPE_SortCriteria,
-          A_ARG_TYPE_Index, A_ARG_TYPE_Count, A_ARG_TYPE_UpdateID, A_ARG_TYPE_TransferID, A_ARG_TYPE_TransferStatus,
-          A_ARG_TYPE_TransferLength, A_ARG_TYPE_TransferTotal, A_ARG_TYPE_TagValueList, A_ARG_TYPE_URI, transferIDs,
-          searchCapabilities, sortCapabilities, systemUpdateID
+          A_ARG_TYPE_SearchCriteria, A_ARG_TYPE_Index, A_ARG_TYPE_Count, A_ARG_TYPE_UpdateID, A_ARG_TYPE_TransferID,
+          A_ARG_TYPE_TransferStatus, A_ARG_TYPE_TransferLength, A_ARG_TYPE_TransferTotal, A_ARG_TYPE_TagValueList,
+          A_ARG_TYPE_URI, transferIDs, searchCapabilities, sortCapabilities, systemUpdateID
       });
     } else
     {
       // create state variable table for static servers
       setStateVariableTable(new StateVariable[] {
           A_ARG_TYPE_ObjectID, A_ARG_TYPE_Result, A_ARG_TYPE_BrowseFlag, A_ARG_TYPE_Filter, A_ARG_TYPE_SortCriteria,
-          A_ARG_TYPE_Index, A_ARG_TYPE_Count, A_ARG_TYPE_UpdateID, A_ARG_TYPE_TagValueList, searchCapabilities,
-          sortCapabilities, systemUpdateID
+          A_ARG_TYPE_SearchCriteria, A_ARG_TYPE_Index, A_ARG_TYPE_Count, A_ARG_TYPE_UpdateID, A_ARG_TYPE_TagValueList,
+          searchCapabilities, sortCapabilities, systemUpdateID
       });
     }
     // //////////////////////////////////////////////////////////////////////////////////////////////
@@ -260,6 +274,21 @@ public class ContentDirectory extends TemplateService implements Runnable
     });
     browse.setCacheable(UPnPAVDefaults.CACHE_BROWSE_ACTION);
 
+    search = new Action("Search");
+    search.setArgumentTable(new Argument[] {
+        new Argument("ContainerID", UPnPConstant.DIRECTION_IN, A_ARG_TYPE_ObjectID),
+        new Argument("SearchCriteria", UPnPConstant.DIRECTION_IN, A_ARG_TYPE_SearchCriteria),
+        new Argument("Filter", UPnPConstant.DIRECTION_IN, A_ARG_TYPE_Filter),
+        new Argument("StartingIndex", UPnPConstant.DIRECTION_IN, A_ARG_TYPE_Index),
+        new Argument("RequestedCount", UPnPConstant.DIRECTION_IN, A_ARG_TYPE_Count),
+        new Argument("SortCriteria", UPnPConstant.DIRECTION_IN, A_ARG_TYPE_SortCriteria),
+        new Argument("Result", UPnPConstant.DIRECTION_OUT, A_ARG_TYPE_Result),
+        new Argument("NumberReturned", UPnPConstant.DIRECTION_OUT, A_ARG_TYPE_Count),
+        new Argument("TotalMatches", UPnPConstant.DIRECTION_OUT, A_ARG_TYPE_Count),
+        new Argument("UpdateID", UPnPConstant.DIRECTION_OUT, A_ARG_TYPE_UpdateID)
+    });
+    search.setCacheable(UPnPAVDefaults.CACHE_BROWSE_ACTION);
+
     createObject = new Action(UPnPAVConstant.ACTION_CREATE_OBJECT);
     createObject.setArgumentTable(new Argument[] {
         new Argument("ContainerID", UPnPConstant.DIRECTION_IN, A_ARG_TYPE_ObjectID),
@@ -308,14 +337,14 @@ public class ContentDirectory extends TemplateService implements Runnable
     if (contentModifier != null)
     {
       setActionTable(new Action[] {
-          getSearchCapabilities, getSortCapabilities, getSystemUpdateID, browse, createObject, destroyObject,
-          importResource, getTransferProgress
+          getSearchCapabilities, getSortCapabilities, getSystemUpdateID, browse, search, createObject,
+          destroyObject, importResource, getTransferProgress
       });
     } else
     // do not show modify actions for static media servers
     {
       setActionTable(new Action[] {
-          getSearchCapabilities, getSortCapabilities, getSystemUpdateID, browse
+          getSearchCapabilities, getSortCapabilities, getSystemUpdateID, browse, search
       });
     }
   }
@@ -383,7 +412,6 @@ public class ContentDirectory extends TemplateService implements Runnable
     int startingIndex;
     int requestedCount;
     String sortCriteria;
-    String result;
     try
     {
       objectID = args[0].getStringValue();
@@ -400,23 +428,13 @@ public class ContentDirectory extends TemplateService implements Runnable
     {
       throw new ActionFailedException(720, "Cannot process the request");
     }
-    if (!(sortCriteria.equals("") || sortCriteria.equals("+" + SORT_CAPABILITIES) || sortCriteria.equals("-" +
-      SORT_CAPABILITIES)))
+    if (!DIDLObjectComparator.isSupported(sortCriteria, SORT_CAPABILITIES))
     {
       throw new ActionFailedException(709, "Unsupported or invalid sort criteria");
     }
-    // build result header
-    result =
-      "<" + DIDLParserHandler.DIDL_LITE + " " + DIDLParserHandler.DC_XMLNS + " " + DIDLParserHandler.UPNP_XMLNS + " " +
-        DIDLParserHandler.UPNP_DIDL_LITE_XMLNS + ">";
-
-    String serverAddress = getServerAddressForCurrentAction();
-    String absoluteServerPath = "";
-    if (serverAddress != null)
-    {
-      absoluteServerPath = "http://" + serverAddress + "/";
-    }
+    String absoluteServerPath = getAbsoluteServerPath();
     BrowseResponse browseResponse = null;
+    DIDLResultWriter resultWriter = null;
 
     // metadata
     if (browseFlag.equals(MediaServerConstant.BROWSE_METADATA))
@@ -426,14 +444,31 @@ public class ContentDirectory extends TemplateService implements Runnable
       {
         throw new ActionFailedException(701, "No such object");
       }
-
-      result += browseResponse.getResult()[0].toXMLDescription(filter, absoluteServerPath);
+      resultWriter = new DIDLResultWriter(1);
+      resultWriter.writeObject(browseResponse.getResult()[0], filter, absoluteServerPath);
     }
     // children
     if (browseFlag.equals(MediaServerConstant.BROWSE_DIRECT_CHILDREN))
     {
       long startTime = HighResTimerHelper.getTimeStamp();
-      browseResponse = contentProvider.browseDirectChildren(objectID, startingIndex, requestedCount, "*", sortCriteria);
+      if (sortCriteria.length() == 0)
+      {
+        browseResponse = contentProvider.browseDirectChildren(objectID, startingIndex, requestedCount, "*", "");
+      } else
+      {
+        // sort all children before selecting the requested page
+        browseResponse = contentProvider.browseDirectChildren(objectID, 0, 0, "*", "");
+        if (browseResponse != null)
+        {
+          Vector children = new Vector();
+          for (int i = 0; i < browseResponse.getNumberReturned(); i++)
+          {
+            children.add(browseResponse.getResult()[i]);
+          }
+          browseResponse =
+            sortAndSelect(children, sortCriteria, startingIndex, requestedCount, browseResponse.getUpdateID());
+        }
+      }
       long endTime = HighResTimerHelper.getTimeStamp();
       HighResTimerHelper.PERFORMANCE_CORRECTION += HighResTimerHelper.getMicroseconds(startTime, endTime);
 
@@ -443,20 +478,20 @@ public class ContentDirectory extends TemplateService implements Runnable
       }
 
       // build result
+      resultWriter = new DIDLResultWriter((int)browseResponse.getNumberReturned());
       for (int i = 0; i < browseResponse.getNumberReturned(); i++)
       {
-        result += browseResponse.getResult()[i].toXMLDescription(filter, absoluteServerPath);
+        resultWriter.writeObject(browseResponse.getResult()[i], filter, absoluteServerPath);
       }
     }
-
-    // build result footer
-    result += "</" + DIDLParserHandler.DIDL_LITE + ">";
-
-    // System.out.println("Result of browse action is [\n" + result + "]");
+    if (browseResponse == null)
+    {
+      throw new ActionFailedException(402, "Invalid args");
+    }
 
     try
     {
-      args[6].setValue(StringHelper.xmlToEscapedString(result));
+      args[6].setValue(resultWriter.finish());
       args[7].setNumericValue(browseResponse.getNumberReturned());
       args[8].setNumericValue(browseResponse.getTotalMatches());
       args[9].setNumericValue(browseResponse.getUpdateID());
@@ -466,6 +501,123 @@ public class ContentDirectory extends TemplateService implements Runnable
     }
   }
 
+  /** Search for objects in a container */
+  public void search(Argument[] args) throws ActionFailedException
+  {
+    String containerID;
+    String searchCriteria;
+    String filter;
+    int startingIndex;
+    int requestedCount;
+    String sortCriteria;
+    try
+    {
+      containerID = args[0].getStringValue();
+      searchCriteria = args[1].getStringValue();
+      filter = args[2].getStringValue();
+      startingIndex = (int)args[3].getNumericValue();
+      requestedCount = (int)args[4].getNumericValue();
+      sortCriteria = args[5].getStringValue().trim();
+    } catch (Exception ex)
+    {
+      throw new ActionFailedException(402, "Invalid args");
+    }
+    if (contentProvider == null)
+    {
+      throw new ActionFailedException(720, "Cannot process the request");
+    }
+    if (!DIDLObjectComparator.isSupported(sortCriteria, SORT_CAPABILITIES))
+    {
+      throw new ActionFailedException(709, "Unsupported or invalid sort criteria");
+    }
+    SearchCriteria criteria = SearchCriteria.parse(searchCriteria, SEARCH_CAPABILITIES);
+
+    BrowseResponse containerResponse = contentProvider.browseMetadata(containerID);
+    if (containerResponse == null)
+    {
+      throw new ActionFailedException(710, "No such container");
+    }
+    Vector matchingObjects;
+    synchronized(contentIndex)
+    {
+      // the index is built lazily after unspecific content changes
+      if (!contentIndex.isValid())
+      {
+        contentIndex.rebuild(contentProvider);
+      }
+      matchingObjects = contentIndex.search(containerID, criteria);
+    }
+    BrowseResponse searchResponse =
+      sortAndSelect(matchingObjects, sortCriteria, startingIndex, requestedCount, containerResponse.getUpdateID());
+
+    String absoluteServerPath = getAbsoluteServerPath();
+    DIDLResultWriter resultWriter = new DIDLResultWriter((int)searchResponse.getNumberReturned());
+    for (int i = 0; i < searchResponse.getNumberReturned(); i++)
+    {
+      resultWriter.writeObject(searchResponse.getResult()[i], filter, absoluteServerPath);
+    }
+    try
+    {
+      args[6].setValue(resultWriter.finish());
+      args[7].setNumericValue(searchResponse.getNumberReturned());
+      args[8].setNumericValue(searchResponse.getTotalMatches());
+      args[9].setNumericValue(searchResponse.getUpdateID());
+    } catch (Exception ex)
+    {
+      throw new ActionFailedException(402, "Invalid args");
+    }
+  }
+
+  /**
+   * Sorts a list of objects and selects the requested part.
+   * 
+   * @param objects
+   *          A vector with all objects
+   * @param sortCriteria
+   *          The sort criteria, may be empty
+   * @param startingIndex
+   *          The index of the first requested object
+   * @param requestedCount
+   *          The number of requested objects or 0 for all objects
+   * @param updateID
+   *          The update ID for the response
+   * 
+   * @return A browse response with the selected objects
+   */
+  private BrowseResponse sortAndSelect(Vector objects,
+    String sortCriteria,
+    int startingIndex,
+    int requestedCount,
+    long updateID)
+  {
+    if (sortCriteria.length() > 0)
+    {
+      Collections.sort(objects, new DIDLObjectComparator(sortCriteria));
+    }
+    int resultCount = Math.max(0, objects.size() - startingIndex);
+    if (requestedCount != 0)
+    {
+      resultCount = Math.min(resultCount, requestedCount);
+    }
+    DIDLObject[] result = new DIDLObject[resultCount];
+    for (int i = 0; i < resultCount; i++)
+    {
+      result[i] = (DIDLObject)objects.elementAt(startingIndex + i);
+    }
+    return new BrowseResponse(result, resultCount, objects.size(), updateID);
+  }
+
+  /** Retrieves the server path used for relative URLs in the current action. */
+  private String getAbsoluteServerPath()
+  {
+    String serverAddress = getServerAddressForCurrentAction();
+    if (serverAddress != null)
+    {
+      return "http://" + serverAddress + "/";
+    }
+    return "";
+  }
+
   /** Create a new object */
   public void createObject(Argument[] args) throws ActionFailedException
   {
@@ -516,6 +668,7 @@ public class ContentDirectory extends TemplateService implements Runnable
     {
       throw new ActionFailedException(712, "Bad metadata");
     }
+    updateContentIndex(createdObject, null);
 
     // build result header
     result =
@@ -571,6 +724,7 @@ public class ContentDirectory extends TemplateService implements Runnable
       throw new ActionFailedException(711, "Restricted object");
     }
     contentModifier.destroyObject(didlObject);
+    updateContentIndex(null, didlObject.getID());
   }
 
   /** Import a resource for an object */
@@ -655,10 +809,71 @@ public class ContentDirectory extends TemplateService implements Runnable
   /** Content change event from content provider */
   public void contentChanged()
   {
+    // the changed objects are unknown, so the search index must be rebuilt
+    contentIndex.invalidate();
     // only set variable, because state variable SystemUpdateID is moderated with 0.5 Hz
     contentChange = true;
   }
 
+  /**
+   * Content change event from content provider for a new object. In contrast to contentChanged(),
+   * the search index is updated incrementally.
+   * 
+   * @param didlObject
+   *          The new object
+   */
+  public void objectCreated(DIDLObject didlObject)
+  {
+    updateContentIndex(didlObject, null);
+    contentChange = true;
+  }
+
+  /**
+   * Content change event from content provider for a changed object. In contrast to
+   * contentChanged(), the search index is updated incrementally.
+   * 
+   * @param didlObject
+   *          The changed object
+   */
+  public void objectUpdated(DIDLObject didlObject)
+  {
+    updateContentIndex(didlObject, null);
+    contentChange = true;
+  }
+
+  /**
+   * Content change event from content provider for a removed object. In contrast to
+   * contentChanged(), the search index is updated incrementally.
+   * 
+   * @param didlObject
+   *          The removed object
+   */
+  public void objectDestroyed(DIDLObject didlObject)
+  {
+    updateContentIndex(null, didlObject.getID());
+    contentChange = true;
+  }
+
+  /** Adds or removes an object from the search index if the index is currently in use. */
+  private void updateContentIndex(DIDLObject addedObject, String removedObjectID)
+  {
+    synchronized(contentIndex)
+    {
+      if (!contentIndex.isValid())
+      {
+        return;
+      }
+      if (addedObject != null)
+      {
+        contentIndex.addObject(addedObject);
+      }
+      if (removedObjectID != null)
+      {
+        contentIndex.removeObject(removedObjectID);
+      }
+    }
+  }
+
   /**
    * Retrieves the current systemUpdateID.
    * 
@@ -0,0 +1,483 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core_av.server;
+
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLAudioItem;
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLConstants;
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLContainer;
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLItem;
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLMusicTrack;
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLObject;
+
+/**
+ * This class holds an inverted index over the DIDL properties of all objects of a media server.
+ * For each indexed property, it maps the lower case property values to the objects that carry this
+ * value. The index can be built by traversing a content provider and is then kept up to date with
+ * single object changes.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class ContentDirectoryIndex
+{
+
+  /** Properties that are held in the index */
+  public static final String[] INDEXED_PROPERTIES     = {
+      "@" + DIDLConstants.ATTR_ID, "@" + DIDLConstants.ATTR_PARENT_ID, "@" + DIDLConstants.ATTR_REF_ID,
+      DIDLConstants.DC_TITLE, DIDLConstants.DC_CREATOR, DIDLConstants.UPNP_CLASS, DIDLConstants.UPNP_ARTIST,
+      DIDLConstants.UPNP_ALBUM, DIDLConstants.UPNP_GENRE
+  };
+
+  /** Hashtable containing the index entry for each object ID */
+  private Hashtable            entryFromIDTable       = new Hashtable();
+
+  /** Hashtable containing a value table for each indexed property */
+  private Hashtable            valueTableFromProperty = new Hashtable();
+
+  /** Hashtable containing the IDs of all children for each object ID */
+  private Hashtable            childIDsFromParentID   = new Hashtable();
+
+  /** Sequence number for the next added object */
+  private long                 sequence               = 0;
+
+  /** Flag that the index reflects the current content */
+  private boolean              valid                  = false;
+
+  /** Incremented with each invalidation */
+  private long                 invalidationCount      = 0;
+
+  /** Sync object for the valid flag, never held while waiting for the index */
+  private Object               stateLock              = new Object();
+
+  /**
+   * Creates a new instance of ContentDirectoryIndex.
+   */
+  public ContentDirectoryIndex()
+  {
+    for (int i = 0; i < INDEXED_PROPERTIES.length; i++)
+    {
+      valueTableFromProperty.put(INDEXED_PROPERTIES[i], new Hashtable());
+    }
+  }
+
+  /**
+   * Checks if a property is held in the index.
+   * 
+   * @param property
+   *          The property name (e.g., dc:title or @id)
+   * 
+   * @return True if the property is indexed, false otherwise
+   */
+  public static boolean isIndexedProperty(String property)
+  {
+    for (int i = 0; i < INDEXED_PROPERTIES.length; i++)
+    {
+      if (INDEXED_PROPERTIES[i].equals(property))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Retrieves the value of a property for a DIDL object.
+   * 
+   * @param didlObject
+   *          The object
+   * @param property
+   *          The property name (e.g., dc:title or @id)
+   * 
+   * @return The property value or null
+   */
+  public static String getPropertyValue(DIDLObject didlObject, String property)
+  {
+    if (property.startsWith("@"))
+    {
+      String attribute = property.substring(1);
+      if (attribute.equals(DIDLConstants.ATTR_ID))
+      {
+        return didlObject.getID();
+      }
+      if (attribute.equals(DIDLConstants.ATTR_PARENT_ID))
+      {
+        return didlObject.getParentID();
+      }
+      if (attribute.equals(DIDLConstants.ATTR_REF_ID))
+      {
+        return didlObject instanceof DIDLItem ? ((DIDLItem)didlObject).getRefID() : null;
+      }
+      if (attribute.equals(DIDLConstants.ATTR_RESTRICTED))
+      {
+        return didlObject.getRestricted();
+      }
+      return didlObject.getAttributeValue(attribute);
+    }
+    if (property.equals(DIDLConstants.DC_TITLE))
+    {
+      return didlObject.getTitle();
+    }
+    if (property.equals(DIDLConstants.DC_CREATOR))
+    {
+      return didlObject.getCreator();
+    }
+    if (property.equals(DIDLConstants.UPNP_CLASS))
+    {
+      return didlObject.getObjectClass();
+    }
+    if (didlObject instanceof DIDLMusicTrack)
+    {
+      if (property.equals(DIDLConstants.UPNP_ARTIST))
+      {
+        return ((DIDLMusicTrack)didlObject).getArtist();
+      }
+      if (property.equals(DIDLConstants.UPNP_ALBUM))
+      {
+        return ((DIDLMusicTrack)didlObject).getAlbum();
+      }
+    }
+    if (didlObject instanceof DIDLAudioItem && property.equals(DIDLConstants.UPNP_GENRE))
+    {
+      return ((DIDLAudioItem)didlObject).getGenre();
+    }
+    return didlObject.getPropertyValue(property);
+  }
+
+  /** Checks if the index reflects the current content. */
+  public boolean isValid()
+  {
+    synchronized(stateLock)
+    {
+      return valid;
+    }
+  }
+
+  /**
+   * Marks the index as outdated. The index must be rebuilt before it can be used again. This
+   * method does not block, so content providers can call it while holding their own locks.
+   */
+  public void invalidate()
+  {
+    synchronized(stateLock)
+    {
+      valid = false;
+      invalidationCount++;
+    }
+  }
+
+  /**
+   * Rebuilds the index by traversing all objects of a content provider.
+   * 
+   * @param contentProvider
+   *          The provider for the content
+   */
+  public synchronized void rebuild(IMediaServerContentProvider contentProvider)
+  {
+    long startInvalidationCount;
+    synchronized(stateLock)
+    {
+      startInvalidationCount = invalidationCount;
+    }
+    entryFromIDTable.clear();
+    childIDsFromParentID.clear();
+    Enumeration valueTables = valueTableFromProperty.elements();
+    while (valueTables.hasMoreElements())
+    {
+      ((Hashtable)valueTables.nextElement()).clear();
+    }
+    Vector pendingContainerIDs = new Vector();
+    pendingContainerIDs.add("0");
+    while (pendingContainerIDs.size() > 0)
+    {
+      String containerID = (String)pendingContainerIDs.remove(0);
+      BrowseResponse browseResponse = contentProvider.browseDirectChildren(containerID);
+      if (browseResponse == null || browseResponse.getResult() == null)
+      {
+        continue;
+      }
+      DIDLObject[] children = browseResponse.getResult();
+      for (int i = 0; i < children.length; i++)
+      {
+        // ignore objects that are reachable via more than one path
+        if (children[i] != null && !entryFromIDTable.containsKey(children[i].getID()))
+        {
+          addObject(children[i]);
+          if (children[i] instanceof DIDLContainer)
+          {
+            pendingContainerIDs.add(children[i].getID());
+          }
+        }
+      }
+    }
+    synchronized(stateLock)
+    {
+      // content that changed during the traversal may be missing
+      valid = invalidationCount == startInvalidationCount;
+    }
+  }
+
+  /**
+   * Adds or replaces an object in the index.
+   * 
+   * @param didlObject
+   *          The object
+   */
+  public synchronized void addObject(DIDLObject didlObject)
+  {
+    if (didlObject == null || didlObject.getID() == null)
+    {
+      return;
+    }
+    removeEntry(didlObject.getID());
+
+    IndexEntry entry = new IndexEntry(didlObject, sequence++);
+    entryFromIDTable.put(didlObject.getID(), entry);
+    for (int i = 0; i < INDEXED_PROPERTIES.length; i++)
+    {
+      if (entry.values[i] != null)
+      {
+        Hashtable valueTable = (Hashtable)valueTableFromProperty.get(INDEXED_PROPERTIES[i]);
+        Hashtable entries = (Hashtable)valueTable.get(entry.values[i]);
+        if (entries == null)
+        {
+          entries = new Hashtable();
+          valueTable.put(entry.values[i], entries);
+        }
+        entries.put(didlObject.getID(), entry);
+      }
+    }
+    if (didlObject.getParentID() != null)
+    {
+      Vector childIDs = (Vector)childIDsFromParentID.get(didlObject.getParentID());
+      if (childIDs == null)
+      {
+        childIDs = new Vector();
+        childIDsFromParentID.put(didlObject.getParentID(), childIDs);
+      }
+      childIDs.add(didlObject.getID());
+    }
+  }
+
+  /**
+   * Removes an object and all its descendants from the index.
+   * 
+   * @param objectID
+   *          The ID of the object
+   */
+  public synchronized void removeObject(String objectID)
+  {
+    Vector childIDs = (Vector)childIDsFromParentID.remove(objectID);
+    for (int i = 0; childIDs != null && i < childIDs.size(); i++)
+    {
+      removeObject((String)childIDs.elementAt(i));
+    }
+    removeEntry(objectID);
+  }
+
+  /**
+   * Searches all descendants of a container that match certain search criteria.
+   * 
+   * @param containerID
+   *          The container that should be searched
+   * @param searchCriteria
+   *          The criteria
+   * 
+   * @return A vector with all matching objects, in the order they were added to the index
+   */
+  public synchronized Vector search(String containerID, SearchCriteria searchCriteria)
+  {
+    Hashtable candidates = searchCriteria.getCandidates(this);
+    if (candidates == null)
+    {
+      candidates = entryFromIDTable;
+    }
+    Vector matchingEntries = new Vector();
+    Enumeration entries = candidates.elements();
+    while (entries.hasMoreElements())
+    {
+      IndexEntry entry = (IndexEntry)entries.nextElement();
+      if (isDescendant(entry, containerID) && searchCriteria.matches(entry.didlObject))
+      {
+        matchingEntries.add(entry);
+      }
+    }
+    IndexEntry[] sortedEntries = new IndexEntry[matchingEntries.size()];
+    matchingEntries.copyInto(sortedEntries);
+    Arrays.sort(sortedEntries);
+
+    Vector result = new Vector(sortedEntries.length);
+    for (int i = 0; i < sortedEntries.length; i++)
+    {
+      result.add(sortedEntries[i].didlObject);
+    }
+    return result;
+  }
+
+  /** Retrieves the number of indexed objects. */
+  public synchronized int size()
+  {
+    return entryFromIDTable.size();
+  }
+
+  /**
+   * Retrieves all index entries with a certain value for a property. The returned table must not
+   * be changed.
+   * 
+   * @return A hashtable containing the entries for each object ID
+   */
+  Hashtable getEntries(String property, String lowerCaseValue)
+  {
+    Hashtable valueTable = (Hashtable)valueTableFromProperty.get(property);
+    Hashtable entries = valueTable != null ? (Hashtable)valueTable.get(lowerCaseValue) : null;
+
+    return entries != null ? entries : new Hashtable();
+  }
+
+  /**
+   * Retrieves all index entries whose value for a property fulfills a condition. The condition is
+   * only evaluated once for each distinct value.
+   * 
+   * @return A hashtable containing the entries for each object ID
+   */
+  Hashtable getEntries(String property, IValueCondition condition)
+  {
+    Hashtable result = new Hashtable();
+    Hashtable valueTable = (Hashtable)valueTableFromProperty.get(property);
+    if (valueTable == null)
+    {
+      return result;
+    }
+    Enumeration values = valueTable.keys();
+    while (values.hasMoreElements())
+    {
+      String value = (String)values.nextElement();
+      if (condition.matches(value))
+      {
+        result.putAll((Hashtable)valueTable.get(value));
+      }
+    }
+    return result;
+  }
+
+  /** Removes a single object from the index. */
+  private void removeEntry(String objectID)
+  {
+    IndexEntry entry = (IndexEntry)entryFromIDTable.remove(objectID);
+    if (entry == null)
+    {
+      return;
+    }
+    for (int i = 0; i < INDEXED_PROPERTIES.length; i++)
+    {
+      if (entry.values[i] != null)
+      {
+        Hashtable valueTable = (Hashtable)valueTableFromProperty.get(INDEXED_PROPERTIES[i]);
+        Hashtable entries = (Hashtable)valueTable.get(entry.values[i]);
+        if (entries != null)
+        {
+          entries.remove(objectID);
+          if (entries.isEmpty())
+          {
+            valueTable.remove(entry.values[i]);
+          }
+        }
+      }
+    }
+    Vector childIDs = entry.parentID != null ? (Vector)childIDsFromParentID.get(entry.parentID) : null;
+    if (childIDs != null)
+    {
+      childIDs.remove(objectID);
+    }
+  }
+
+  /** Checks if an entry is located below a container. */
+  private boolean isDescendant(IndexEntry entry, String containerID)
+  {
+    String parentID = entry.parentID;
+    // limit depth to prevent endless loops for inconsistent content
+    for (int depth = 0; parentID != null && depth < 256; depth++)
+    {
+      if (parentID.equals(containerID))
+      {
+        return true;
+      }
+      IndexEntry parentEntry = (IndexEntry)entryFromIDTable.get(parentID);
+      parentID = parentEntry != null ? parentEntry.parentID : null;
+    }
+    return false;
+  }
+
+  /** This interface is used to select property values. */
+  interface IValueCondition
+  {
+
+    /** Checks if a lower case property value fulfills the condition. */
+    public boolean matches(String lowerCaseValue);
+
+  }
+
+  /** This class holds the indexed values for one object. */
+  private static class IndexEntry implements Comparable
+  {
+
+    private DIDLObject didlObject;
+
+    private String     parentID;
+
+    private long       sequence;
+
+    /** Lower case values for all indexed properties */
+    private String[]   values = new String[INDEXED_PROPERTIES.length];
+
+    public IndexEntry(DIDLObject didlObject, long sequence)
+    {
+      this.didlObject = didlObject;
+      this.parentID = didlObject.getParentID();
+      this.sequence = sequence;
+      for (int i = 0; i < INDEXED_PROPERTIES.length; i++)
+      {
+        String value = getPropertyValue(didlObject, INDEXED_PROPERTIES[i]);
+        values[i] = value != null ? value.toLowerCase() : null;
+      }
+    }
+
+    public int compareTo(Object object)
+    {
+      long otherSequence = ((IndexEntry)object).sequence;
+
+      return sequence < otherSequence ? -1 : sequence == otherSequence ? 0 : 1;
+    }
+
+  }
+
+}
@@ -0,0 +1,146 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core_av.server;
+
+import java.util.Comparator;
+import java.util.StringTokenizer;
+import java.util.Vector;
+
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLObject;
+
+/**
+ * This class compares DIDL objects according to the sort criteria of a Browse or Search request.
+ * Sort criteria consist of a comma separated list of properties, each prefixed with + for
+ * ascending or - for descending order.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class DIDLObjectComparator implements Comparator
+{
+
+  /** Properties used for sorting */
+  private String[]  properties;
+
+  /** Flags for ascending order */
+  private boolean[] ascending;
+
+  /**
+   * Creates a new instance of DIDLObjectComparator.
+   * 
+   * @param sortCriteria
+   *          The sort criteria (e.g., +upnp:artist,-dc:title)
+   */
+  public DIDLObjectComparator(String sortCriteria)
+  {
+    Vector keys = parseSortCriteria(sortCriteria);
+    properties = new String[keys.size()];
+    ascending = new boolean[keys.size()];
+    for (int i = 0; i < keys.size(); i++)
+    {
+      String key = (String)keys.elementAt(i);
+      ascending[i] = key.charAt(0) != '-';
+      properties[i] = key.substring(1);
+    }
+  }
+
+  /**
+   * Checks if sort criteria are valid and only use supported properties.
+   * 
+   * @param sortCriteria
+   *          The sort criteria
+   * @param sortCapabilities
+   *          A comma separated list with the supported properties
+   * 
+   * @return True if the criteria are supported, false otherwise
+   */
+  public static boolean isSupported(String sortCriteria, String sortCapabilities)
+  {
+    Vector keys = parseSortCriteria(sortCriteria);
+    String capabilities = "," + sortCapabilities + ",";
+    for (int i = 0; i < keys.size(); i++)
+    {
+      String key = (String)keys.elementAt(i);
+      if (key.length() < 2 || key.charAt(0) != '+' && key.charAt(0) != '-' ||
+        capabilities.indexOf("," + key.substring(1) + ",") == -1)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Splits sort criteria into a list of keys. */
+  private static Vector parseSortCriteria(String sortCriteria)
+  {
+    Vector result = new Vector();
+    StringTokenizer tokenizer = new StringTokenizer(sortCriteria, ",");
+    while (tokenizer.hasMoreTokens())
+    {
+      String key = tokenizer.nextToken().trim();
+      if (key.length() > 0)
+      {
+        result.add(key);
+      }
+    }
+    return result;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
+   */
+  public int compare(Object a, Object b)
+  {
+    for (int i = 0; i < properties.length; i++)
+    {
+      String valueA = ContentDirectoryIndex.getPropertyValue((DIDLObject)a, properties[i]);
+      String valueB = ContentDirectoryIndex.getPropertyValue((DIDLObject)b, properties[i]);
+      int result;
+      // missing values are sorted to the end
+      if (valueA == null || valueB == null)
+      {
+        result = valueA == valueB ? 0 : valueA == null ? 1 : -1;
+      } else
+      {
+        result = SearchCriteria.compareValues(valueA, valueB);
+        if (!ascending[i])
+        {
+          result = -result;
+        }
+      }
+      if (result != 0)
+      {
+        return result;
+      }
+    }
+    return 0;
+  }
+
+}
@@ -0,0 +1,119 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core_av.server;
+
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLObject;
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLParserHandler;
+
+/**
+ * This class writes the escaped DIDL-Lite result of a Browse or Search action. Object descriptions
+ * are appended and escaped one by one, so the whole result is neither built by repeated string
+ * concatenation nor held twice in its unescaped and escaped form.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class DIDLResultWriter
+{
+
+  /** Expected size of one object description */
+  private static final int AVERAGE_OBJECT_SIZE = 512;
+
+  /** Buffer for the escaped result */
+  private StringBuffer     buffer;
+
+  /**
+   * Creates a new instance of DIDLResultWriter and writes the DIDL-Lite header.
+   * 
+   * @param expectedObjectCount
+   *          The expected number of objects, used to size the buffer
+   */
+  public DIDLResultWriter(int expectedObjectCount)
+  {
+    buffer = new StringBuffer(256 + Math.max(1, expectedObjectCount) * AVERAGE_OBJECT_SIZE);
+    appendEscaped("<" + DIDLParserHandler.DIDL_LITE + " " + DIDLParserHandler.DC_XMLNS + " " +
+      DIDLParserHandler.UPNP_XMLNS + " " + DIDLParserHandler.UPNP_DIDL_LITE_XMLNS + ">");
+  }
+
+  /**
+   * Appends the description of one object.
+   * 
+   * @param didlObject
+   *          The object
+   * @param filter
+   *          The filter of the request
+   * @param absoluteServerPath
+   *          The path that should be used for relative URLs
+   */
+  public void writeObject(DIDLObject didlObject, String filter, String absoluteServerPath)
+  {
+    appendEscaped(didlObject.toXMLDescription(filter, absoluteServerPath));
+  }
+
+  /**
+   * Writes the DIDL-Lite footer and retrieves the escaped result.
+   * 
+   * @return The escaped DIDL-Lite document
+   */
+  public String finish()
+  {
+    appendEscaped("</" + DIDLParserHandler.DIDL_LITE + ">");
+    String result = buffer.toString();
+    buffer = null;
+
+    return result;
+  }
+
+  /** Appends a string with escaped XML characters. */
+  private void appendEscaped(String text)
+  {
+    int length = text.length();
+    for (int i = 0; i < length; i++)
+    {
+      char c = text.charAt(i);
+      switch (c)
+      {
+        case '&':
+          buffer.append("&amp;");
+          break;
+        case '<':
+          buffer.append("&lt;");
+          break;
+        case '>':
+          buffer.append("&gt;");
+          break;
+        case '"':
+          buffer.append("&quot;");
+          break;
+        default:
+          buffer.append(c);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,515 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core_av.server;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import de.fraunhofer.fokus.upnp.core_av.didl.DIDLObject;
+import de.fraunhofer.fokus.upnp.util.exceptions.ActionFailedException;
+
+/**
+ * This class represents parsed search criteria for the Search action of the ContentDirectory.
+ * Criteria can be evaluated for single DIDL objects and can retrieve candidate objects from a
+ * ContentDirectoryIndex, so only a small part of the content must be checked.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class SearchCriteria
+{
+
+  private static final int AND             = 0;
+
+  private static final int OR              = 1;
+
+  private static final int RELATION        = 2;
+
+  private static final int ALL             = 3;
+
+  /** Type of this expression */
+  private int              type;
+
+  /** Left operand for logical expressions */
+  private SearchCriteria   left;
+
+  /** Right operand for logical expressions */
+  private SearchCriteria   right;
+
+  /** Property for relational expressions */
+  private String           property;
+
+  /** Operator for relational expressions */
+  private String           operator;
+
+  /** Lower case value for relational expressions */
+  private String           value;
+
+  /** Creates a logical expression. */
+  private SearchCriteria(int type, SearchCriteria left, SearchCriteria right)
+  {
+    this.type = type;
+    this.left = left;
+    this.right = right;
+  }
+
+  /** Creates a relational expression. */
+  private SearchCriteria(String property, String operator, String value)
+  {
+    this.type = RELATION;
+    this.property = property;
+    this.operator = operator;
+    this.value = value.toLowerCase();
+  }
+
+  /**
+   * Parses search criteria.
+   * 
+   * @param searchCriteria
+   *          The criteria as sent in the Search action
+   * @param searchCapabilities
+   *          A comma separated list with the supported properties
+   * 
+   * @return The parsed criteria
+   * 
+   * @throws ActionFailedException
+   *           If the criteria are invalid or use unsupported properties
+   */
+  public static SearchCriteria parse(String searchCriteria, String searchCapabilities) throws ActionFailedException
+  {
+    String criteria = searchCriteria.trim();
+    if (criteria.equals("*"))
+    {
+      return new SearchCriteria(ALL, null, null);
+    }
+    Tokenizer tokenizer = new Tokenizer(criteria, "," + searchCapabilities + ",");
+    SearchCriteria result = tokenizer.parseOrExpression();
+    if (tokenizer.nextToken() != null)
+    {
+      throw new ActionFailedException(708, "Unsupported or invalid search criteria");
+    }
+    return result;
+  }
+
+  /**
+   * Checks if an object matches these criteria.
+   * 
+   * @param didlObject
+   *          The object
+   * 
+   * @return True if the object matches, false otherwise
+   */
+  public boolean matches(DIDLObject didlObject)
+  {
+    switch (type)
+    {
+      case AND:
+        return left.matches(didlObject) && right.matches(didlObject);
+      case OR:
+        return left.matches(didlObject) || right.matches(didlObject);
+      case RELATION:
+        String propertyValue = ContentDirectoryIndex.getPropertyValue(didlObject, property);
+        if (operator.equals("exists"))
+        {
+          return (propertyValue != null) == value.equals("true");
+        }
+        return propertyValue != null && matchesValue(propertyValue.toLowerCase());
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Retrieves all index entries that may match these criteria. The returned table must not be
+   * changed.
+   * 
+   * @param index
+   *          The index
+   * 
+   * @return A hashtable containing the entries for each object ID or null if the index cannot
+   *         restrict the candidates
+   */
+  Hashtable getCandidates(ContentDirectoryIndex index)
+  {
+    if (type == AND)
+    {
+      Hashtable leftCandidates = left.getCandidates(index);
+      Hashtable rightCandidates = right.getCandidates(index);
+      if (leftCandidates == null || rightCandidates == null)
+      {
+        return leftCandidates != null ? leftCandidates : rightCandidates;
+      }
+      // iterate over the smaller table
+      if (leftCandidates.size() > rightCandidates.size())
+      {
+        Hashtable swap = leftCandidates;
+        leftCandidates = rightCandidates;
+        rightCandidates = swap;
+      }
+      Hashtable result = new Hashtable();
+      Enumeration objectIDs = leftCandidates.keys();
+      while (objectIDs.hasMoreElements())
+      {
+        Object objectID = objectIDs.nextElement();
+        if (rightCandidates.containsKey(objectID))
+        {
+          result.put(objectID, leftCandidates.get(objectID));
+        }
+      }
+      return result;
+    }
+    if (type == OR)
+    {
+      Hashtable leftCandidates = left.getCandidates(index);
+      Hashtable rightCandidates = leftCandidates != null ? right.getCandidates(index) : null;
+      if (leftCandidates == null || rightCandidates == null)
+      {
+        return null;
+      }
+      Hashtable result = new Hashtable(leftCandidates);
+      result.putAll(rightCandidates);
+      return result;
+    }
+    if (type == RELATION && ContentDirectoryIndex.isIndexedProperty(property))
+    {
+      // numbers are compared numerically, so 007 must also be found for 7
+      if (operator.equals("=") && !isNumber(value))
+      {
+        return index.getEntries(property, value);
+      }
+      if (operator.equals("=") || operator.equals("contains") || operator.equals("derivedfrom") ||
+        operator.equals("exists") && value.equals("true"))
+      {
+        return index.getEntries(property, new ContentDirectoryIndex.IValueCondition()
+        {
+          public boolean matches(String lowerCaseValue)
+          {
+            return matchesValue(lowerCaseValue);
+          }
+        });
+      }
+    }
+    return null;
+  }
+
+  /** Compares a lower case property value with the value of this relational expression. */
+  private boolean matchesValue(String propertyValue)
+  {
+    if (operator.equals("exists"))
+    {
+      return value.equals("true");
+    }
+    if (operator.equals("contains"))
+    {
+      return propertyValue.indexOf(value) != -1;
+    }
+    if (operator.equals("doesnotcontain"))
+    {
+      return propertyValue.indexOf(value) == -1;
+    }
+    if (operator.equals("derivedfrom"))
+    {
+      // classes are derived at dots, so object.item does not match object.itemx
+      return propertyValue.equals(value) || propertyValue.startsWith(value + ".");
+    }
+    int comparison = compareValues(propertyValue, value);
+    if (operator.equals("="))
+    {
+      return comparison == 0;
+    }
+    if (operator.equals("!="))
+    {
+      return comparison != 0;
+    }
+    if (operator.equals("<"))
+    {
+      return comparison < 0;
+    }
+    if (operator.equals("<="))
+    {
+      return comparison <= 0;
+    }
+    if (operator.equals(">"))
+    {
+      return comparison > 0;
+    }
+    if (operator.equals(">="))
+    {
+      return comparison >= 0;
+    }
+    return false;
+  }
+
+  /**
+   * Compares two values. Numbers are compared numerically and sorted before all other values,
+   * which are compared lexically. This is a total order that can be used for sorting mixed values.
+   */
+  static int compareValues(String a, String b)
+  {
+    boolean isNumberA = isNumber(a);
+    boolean isNumberB = isNumber(b);
+    if (isNumberA && isNumberB)
+    {
+      return compareNumbers(a, b);
+    }
+    if (isNumberA != isNumberB)
+    {
+      return isNumberA ? -1 : 1;
+    }
+    return a.compareToIgnoreCase(b);
+  }
+
+  /** Checks if a value is an optionally signed sequence of decimal digits. */
+  private static boolean isNumber(String value)
+  {
+    int length = value.length();
+    int start = length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+') ? 1 : 0;
+    if (start == length)
+    {
+      return false;
+    }
+    for (int i = start; i < length; i++)
+    {
+      char c = value.charAt(i);
+      if (c < '0' || c > '9')
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Compares two numbers of arbitrary length without parsing them. */
+  private static int compareNumbers(String a, String b)
+  {
+    int startA = getMagnitudeStart(a);
+    int startB = getMagnitudeStart(b);
+    // zero has no sign
+    boolean negativeA = a.charAt(0) == '-' && startA < a.length();
+    boolean negativeB = b.charAt(0) == '-' && startB < b.length();
+    if (negativeA != negativeB)
+    {
+      return negativeA ? -1 : 1;
+    }
+    // longer magnitudes are larger, equal lengths are compared digit by digit
+    int result = (a.length() - startA) - (b.length() - startB);
+    for (int i = 0; result == 0 && startA + i < a.length(); i++)
+    {
+      result = a.charAt(startA + i) - b.charAt(startB + i);
+    }
+    result = result < 0 ? -1 : result > 0 ? 1 : 0;
+
+    return negativeA ? -result : result;
+  }
+
+  /** Retrieves the index of the first significant digit of a number. */
+  private static int getMagnitudeStart(String number)
+  {
+    int result = number.charAt(0) == '-' || number.charAt(0) == '+' ? 1 : 0;
+    while (result < number.length() && number.charAt(result) == '0')
+    {
+      result++;
+    }
+    return result;
+  }
+
+  /** This class splits search criteria into tokens and builds the expression tree. */
+  private static class Tokenizer
+  {
+
+    private String criteria;
+
+    private String searchCapabilities;
+
+    private int    position = 0;
+
+    /** Token that was read but not yet consumed */
+    private String pendingToken;
+
+    /** Flag that the pending token was a quoted value */
+    private boolean pendingQuoted;
+
+    public Tokenizer(String criteria, String searchCapabilities)
+    {
+      this.criteria = criteria;
+      this.searchCapabilities = searchCapabilities;
+    }
+
+    /** orExpression ::= andExpression ('or' andExpression)* */
+    public SearchCriteria parseOrExpression() throws ActionFailedException
+    {
+      SearchCriteria result = parseAndExpression();
+      while ("or".equalsIgnoreCase(peekToken()))
+      {
+        nextToken();
+        result = new SearchCriteria(OR, result, parseAndExpression());
+      }
+      return result;
+    }
+
+    /** andExpression ::= primary ('and' primary)* */
+    private SearchCriteria parseAndExpression() throws ActionFailedException
+    {
+      SearchCriteria result = parsePrimary();
+      while ("and".equalsIgnoreCase(peekToken()))
+      {
+        nextToken();
+        result = new SearchCriteria(AND, result, parsePrimary());
+      }
+      return result;
+    }
+
+    /** primary ::= '(' orExpression ')' | property operator value */
+    private SearchCriteria parsePrimary() throws ActionFailedException
+    {
+      String token = nextToken();
+      if ("(".equals(token))
+      {
+        SearchCriteria result = parseOrExpression();
+        if (!")".equals(nextToken()))
+        {
+          throw new ActionFailedException(708, "Unsupported or invalid search criteria");
+        }
+        return result;
+      }
+      String property = token;
+      String operator = nextToken();
+      String value = nextToken();
+      boolean quoted = pendingQuoted;
+      if (property == null || operator == null || value == null || property.equals("(") || property.equals(")"))
+      {
+        throw new ActionFailedException(708, "Unsupported or invalid search criteria");
+      }
+      if (searchCapabilities.indexOf("," + property + ",") == -1)
+      {
+        throw new ActionFailedException(708, "Unsupported or invalid search criteria");
+      }
+      operator = operator.toLowerCase();
+      if (operator.equals("exists"))
+      {
+        if (quoted || !(value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")))
+        {
+          throw new ActionFailedException(708, "Unsupported or invalid search criteria");
+        }
+        return new SearchCriteria(property, operator, value);
+      }
+      if (!quoted ||
+        !(operator.equals("=") || operator.equals("!=") || operator.equals("<") || operator.equals("<=") ||
+          operator.equals(">") || operator.equals(">=") || operator.equals("contains") ||
+          operator.equals("doesnotcontain") || operator.equals("derivedfrom")))
+      {
+        throw new ActionFailedException(708, "Unsupported or invalid search criteria");
+      }
+      return new SearchCriteria(property, operator, value);
+    }
+
+    /** Retrieves the next token without consuming it. */
+    private String peekToken() throws ActionFailedException
+    {
+      if (pendingToken == null)
+      {
+        pendingToken = readToken();
+      }
+      return pendingToken;
+    }
+
+    /** Retrieves and consumes the next token. */
+    public String nextToken() throws ActionFailedException
+    {
+      String result = peekToken();
+      pendingToken = null;
+      return result;
+    }
+
+    /** Reads the next token from the criteria string. */
+    private String readToken() throws ActionFailedException
+    {
+      pendingQuoted = false;
+      while (position < criteria.length() && Character.isWhitespace(criteria.charAt(position)))
+      {
+        position++;
+      }
+      if (position >= criteria.length())
+      {
+        return null;
+      }
+      char c = criteria.charAt(position);
+      if (c == '(' || c == ')')
+      {
+        position++;
+        return String.valueOf(c);
+      }
+      if (c == '"')
+      {
+        // quoted value with escaped quotes and backslashes
+        StringBuffer result = new StringBuffer();
+        position++;
+        while (position < criteria.length() && criteria.charAt(position) != '"')
+        {
+          if (criteria.charAt(position) == '\\' && position + 1 < criteria.length())
+          {
+            position++;
+          }
+          result.append(criteria.charAt(position));
+          position++;
+        }
+        if (position >= criteria.length())
+        {
+          throw new ActionFailedException(708, "Unsupported or invalid search criteria");
+        }
+        position++;
+        pendingQuoted = true;
+        return result.toString();
+      }
+      if (c == '=' || c == '!' || c == '<' || c == '>')
+      {
+        int start = position;
+        position++;
+        if (position < criteria.length() && criteria.charAt(position) == '=')
+        {
+          position++;
+        }
+        String result = criteria.substring(start, position);
+        if (result.equals("!"))
+        {
+          throw new ActionFailedException(708, "Unsupported or invalid search criteria");
+        }
+        return result;
+      }
+      int start = position;
+      while (position < criteria.length() && !Character.isWhitespace(criteria.charAt(position)) &&
+        "()\"=!<>".indexOf(criteria.charAt(position)) == -1)
+      {
+        position++;
+      }
+      return criteria.substring(start, position);
+    }
+
+  }
+
+}
@@ -160,6 +160,27 @@ public class SecurityAwareCPDeviceDescriptionRetrieval extends CPDeviceDescripti
     return null;
   }
 
+  /*
+   * (non-Javadoc)
+   * 
+   * @see de.fraunhofer.fokus.upnp.core.control_point.CPDeviceDescriptionRetrieval#getDescriptions(java.net.URL[])
+   */
+  protected String[] getDescriptions(URL[] descriptionURLs)
+  {
+    // pipelined requests share one set of message options, but each request must be signed
+    // individually and may need to fall back to another signature type
+    if (HTTPMessageFlow.getHTTPClientPool().isPipelining())
+    {
+      String[] descriptions = new String[descriptionURLs.length];
+      for (int i = 0; i < descriptionURLs.length; i++)
+      {
+        descriptions[i] = getDescription(descriptionURLs[i]);
+      }
+      return descriptions;
+    }
+    return super.getDescriptions(descriptionURLs);
+  }
+
   /*
    * (non-Javadoc)
    * 
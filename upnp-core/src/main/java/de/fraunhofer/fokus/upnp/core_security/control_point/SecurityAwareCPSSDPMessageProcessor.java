@@ -72,27 +72,31 @@ public class SecurityAwareCPSSDPMessageProcessor extends CPSSDPMessageProcessor
   {
     if (securityAwareTemplateControlPoint != null)
     {
-      // create and start device description retrieval thread
-      new SecurityAwareCPDeviceDescriptionRetrieval(securityAwareTemplateControlPoint,
-        discoverySocketStructure,
-        descriptionURL,
-        rootDeviceUUID,
-        serverValue,
-        maxAge,
-        NLSValue,
-        IPVersion);
+      // create and queue device description retrieval
+      CPDeviceDescriptionRetrieval descriptionRetrieval =
+        new SecurityAwareCPDeviceDescriptionRetrieval(securityAwareTemplateControlPoint,
+          discoverySocketStructure,
+          descriptionURL,
+          rootDeviceUUID,
+          serverValue,
+          maxAge,
+          NLSValue,
+          IPVersion);
+      controlPoint.addDescriptionRetrieval(descriptionRetrieval);
     } else
     {
       System.out.println("SecurityAwareControlPoint is not yet known, " + "fall back to normal description retrieval");
-      // create and start device description retrieval thread
-      new CPDeviceDescriptionRetrieval(controlPoint,
-        discoverySocketStructure,
-        descriptionURL,
-        rootDeviceUUID,
-        serverValue,
-        maxAge,
-        NLSValue,
-        IPVersion);
+      // create and queue device description retrieval
+      CPDeviceDescriptionRetrieval descriptionRetrieval =
+        new CPDeviceDescriptionRetrieval(controlPoint,
+          discoverySocketStructure,
+          descriptionURL,
+          rootDeviceUUID,
+          serverValue,
+          maxAge,
+          NLSValue,
+          IPVersion);
+      controlPoint.addDescriptionRetrieval(descriptionRetrieval);
     }
   }
 
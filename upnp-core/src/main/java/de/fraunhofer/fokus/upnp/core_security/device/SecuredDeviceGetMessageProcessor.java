@@ -115,6 +115,11 @@ public class SecuredDeviceGetMessageProcessor extends DeviceGetMessageProcessor
 
     // signature is valid, use normal handling
     HTTPMessageObject result = DeviceGetMessageProcessor.processMessage(requestParser, device);
+    // secured responses are signed over the complete body
+    if (result != null)
+    {
+      result.loadStreamingBody();
+    }
 
     // if this message was signed by a public key, add the encrypted symmetric key to the response
     // message
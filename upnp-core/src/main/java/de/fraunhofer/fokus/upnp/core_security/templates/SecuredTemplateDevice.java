@@ -42,6 +42,7 @@ import java.util.Hashtable;
 import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.SecretKey;
 
@@ -79,9 +80,15 @@ import de.fraunhofer.fokus.upnp.util.security.SecurityHelper;
 public class SecuredTemplateDevice extends TemplateDevice
 {
 
-  private static final String   OWNER_FILE      = "owner.txt";
+  private static final String   OWNER_FILE        = "owner.txt";
 
-  private static final String   ACL_FILE        = "acl.txt";
+  private static final String   ACL_FILE          = "acl.txt";
+
+  /** Time in milliseconds a nonce for event subscription remains valid */
+  public static long            NONCE_TIMEOUT     = 300000;
+
+  /** Maximum number of cached ACL decisions before the cache is flushed */
+  private static final int      MAX_ACL_DECISIONS = 4096;
 
   private DeviceSecurityService deviceSecurityService;
 
@@ -98,10 +105,21 @@ public class SecuredTemplateDevice extends TemplateDevice
   // list of SecurityAwareObject
   private Vector                ownerList;
 
+  /** Set of owners, keyed by algorithm and public key hash */
+  private Hashtable             ownerTable;
+
   private String                ownerXMLDescription;
 
   private Vector                sessionList;
 
+  /** Hashtable containing sessions, keyed by device key ID */
+  private Hashtable             sessionFromDeviceKeyIDTable;
+
+  /** Hashtable containing sessions, keyed by control point key ID */
+  private Hashtable             sessionFromCPKeyIDTable;
+
+  private Object                sessionLock     = new Object();
+
   private int                   sessionCounter;
 
   // Secret for TakeOwnership
@@ -114,6 +132,12 @@ public class SecuredTemplateDevice extends TemplateDevice
 
   private String                aclListVersion;
 
+  /** Compiled ACL, replaced as a whole when the ACL changes */
+  private volatile CompiledACL  compiledACL;
+
+  /** Sync object for ACL compilation */
+  private Object                aclLock         = new Object();
+
   // Proprietary extensions to UPnP
 
   /** Flag that all subscription requests must be signed. */
@@ -137,7 +161,10 @@ public class SecuredTemplateDevice extends TemplateDevice
   /** Flag that this device should use anonymous URLs. */
   protected boolean             anonymousURLs;
 
-  private Vector                nonceList;
+  /** Hashtable containing the creation time for all pending nonces */
+  private Hashtable             nonceTable;
+
+  private long                  lastNonceCleanupTime;
 
   private Object                keyCreationLock = new Object();
 
@@ -204,18 +231,23 @@ public class SecuredTemplateDevice extends TemplateDevice
     signedEvents = SecurityDefaults.SIGNED_EVENTS;
     encryptedEvents = SecurityDefaults.ENCRYPTED_EVENTS;
 
-    nonceList = new Vector();
+    nonceTable = new Hashtable();
+    lastNonceCleanupTime = System.currentTimeMillis();
     securityAwareControlPointObjectFromPublicKeyTable = new Hashtable();
 
     securedServiceList = new Vector();
 
     sessionList = new Vector();
+    sessionFromDeviceKeyIDTable = new Hashtable();
+    sessionFromCPKeyIDTable = new Hashtable();
     sessionCounter = 0;
 
     ownerList = new Vector();
+    ownerTable = new Hashtable();
     loadOwnerListFromFile(getWorkingDirectory() + OWNER_FILE);
 
     aclList = new Vector();
+    compileACL();
     loadACLListFromFile(getWorkingDirectory() + ACL_FILE);
 
     // convert user-readable UDN string to securityID to prevent leakage of device type information
@@ -455,7 +487,9 @@ public class SecuredTemplateDevice extends TemplateDevice
   /** Adds an owner for this device */
   public void addOwner(String algorithm, String keyHashBase64)
   {
-    ownerList.add(new SecurityAwareObject(algorithm, keyHashBase64));
+    SecurityAwareObject owner = new SecurityAwareObject(algorithm, keyHashBase64);
+    ownerList.add(owner);
+    ownerTable.put(getOwnerKey(algorithm, keyHashBase64), owner);
     buildOwnerXMLDescription();
     saveOwnerListToFile(getWorkingDirectory() + OWNER_FILE);
   }
@@ -470,6 +504,7 @@ public class SecuredTemplateDevice extends TemplateDevice
         ((SecurityAwareObject)ownerList.elementAt(i)).getHashAlgorithm().equals(algorithm))
       {
         ownerList.remove(i);
+        ownerTable.remove(getOwnerKey(algorithm, keyHashBase64));
         buildOwnerXMLDescription();
         saveOwnerListToFile(getWorkingDirectory() + OWNER_FILE);
       } else
@@ -481,20 +516,19 @@ public class SecuredTemplateDevice extends TemplateDevice
 
   public boolean isKnownOwner(String algorithm, String keyHashBase64)
   {
-    for (int i = 0; i < ownerList.size(); i++)
-    {
-      if (((SecurityAwareObject)ownerList.elementAt(i)).getPublicKeyHashBase64().equals(keyHashBase64) &&
-        ((SecurityAwareObject)ownerList.elementAt(i)).getHashAlgorithm().equals(algorithm))
-      {
-        return true;
-      }
-    }
-    return false;
+    return ownerTable.containsKey(getOwnerKey(algorithm, keyHashBase64));
+  }
+
+  /** Builds the key for the owner table */
+  private String getOwnerKey(String algorithm, String keyHashBase64)
+  {
+    return algorithm + ":" + keyHashBase64;
   }
 
   private void loadOwnerListFromFile(String fileName)
   {
     ownerList.clear();
+    ownerTable.clear();
     if (new File(fileName).exists())
     {
       try
@@ -517,6 +551,7 @@ public class SecuredTemplateDevice extends TemplateDevice
 
               SecurityAwareObject owner = new SecurityAwareObject(hashAlgorithm, publicKeyHash);
               ownerList.add(owner);
+              ownerTable.put(getOwnerKey(hashAlgorithm, publicKeyHash), owner);
             } catch (NoSuchElementException nsee)
             {
               System.out.println("Exception while loading owner list: " + nsee.getMessage());
@@ -562,12 +597,22 @@ public class SecuredTemplateDevice extends TemplateDevice
   /** Adds a session to this service */
   public boolean addSession(Session session)
   {
-    if (!isKnownSession(session))
+    synchronized(sessionLock)
     {
-      sessionCounter++;
-      session.setDeviceKeyID(sessionCounter);
-      sessionList.add(session);
-      return true;
+      if (!isKnownSession(session))
+      {
+        sessionCounter++;
+        session.setDeviceKeyID(sessionCounter);
+        sessionList.add(session);
+        sessionFromDeviceKeyIDTable.put(new Integer(session.getDeviceKeyID()), session);
+        // control point key IDs are chosen by the control point, keep the first session
+        Integer cpKeyID = new Integer(session.getCpKeyID());
+        if (!sessionFromCPKeyIDTable.containsKey(cpKeyID))
+        {
+          sessionFromCPKeyIDTable.put(cpKeyID, session);
+        }
+        return true;
+      }
     }
     System.out.println("ERROR: Session is already known");
     return false;
@@ -576,63 +621,48 @@ public class SecuredTemplateDevice extends TemplateDevice
   /** Retrieves the session for a certain keyID */
   public Session getSessionFromCPKeyID(int cpKeyID)
   {
-    for (int i = 0; i < sessionList.size(); i++)
-    {
-      Session currentSession = (Session)sessionList.elementAt(i);
-      if (currentSession.getCpKeyID() == cpKeyID)
-      {
-        return currentSession;
-      }
-    }
-
-    return null;
+    return (Session)sessionFromCPKeyIDTable.get(new Integer(cpKeyID));
   }
 
   /** Retrieves the session for a certain keyID */
   public Session getSessionFromDeviceKeyID(int deviceKeyID)
   {
-    for (int i = 0; i < sessionList.size(); i++)
-    {
-      Session currentSession = (Session)sessionList.elementAt(i);
-      if (currentSession.getDeviceKeyID() == deviceKeyID)
-      {
-        return currentSession;
-      }
-    }
-
-    return null;
+    return (Session)sessionFromDeviceKeyIDTable.get(new Integer(deviceKeyID));
   }
 
   public Session removeSession(int deviceKeyID)
   {
-    int i = 0;
-    while (i < sessionList.size())
+    synchronized(sessionLock)
     {
-      Session currentSession = (Session)sessionList.elementAt(i);
-      if (currentSession.getDeviceKeyID() == deviceKeyID)
+      Session session = (Session)sessionFromDeviceKeyIDTable.remove(new Integer(deviceKeyID));
+      if (session == null)
       {
-        sessionList.remove(i);
-        return currentSession;
-      } else
+        return null;
+      }
+      sessionList.remove(session);
+
+      Integer cpKeyID = new Integer(session.getCpKeyID());
+      if (sessionFromCPKeyIDTable.get(cpKeyID) == session)
       {
-        i++;
+        sessionFromCPKeyIDTable.remove(cpKeyID);
+        // promote another session with the same control point key ID
+        for (int i = 0; i < sessionList.size(); i++)
+        {
+          Session currentSession = (Session)sessionList.elementAt(i);
+          if (currentSession.getCpKeyID() == session.getCpKeyID())
+          {
+            sessionFromCPKeyIDTable.put(cpKeyID, currentSession);
+            break;
+          }
+        }
       }
+      return session;
     }
-    return null;
   }
 
   private boolean isKnownSession(Session session)
   {
-    for (int i = 0; i < sessionList.size(); i++)
-    {
-      Session currentSession = (Session)sessionList.elementAt(i);
-      if (currentSession.getDeviceKeyID() == session.getDeviceKeyID())
-      {
-        return true;
-      }
-    }
-
-    return false;
+    return sessionFromDeviceKeyIDTable.containsKey(new Integer(session.getDeviceKeyID()));
   }
 
   // ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -724,6 +754,7 @@ public class SecuredTemplateDevice extends TemplateDevice
   public void addACLEntry(ACLEntry entry)
   {
     aclList.add(entry);
+    compileACL();
     buildACLXMLDescription();
     saveACLListToFile(getWorkingDirectory() + ACL_FILE);
   }
@@ -734,6 +765,7 @@ public class SecuredTemplateDevice extends TemplateDevice
     if (index >= 0 && index < getACLCount())
     {
       aclList.remove(index);
+      compileACL();
       buildACLXMLDescription();
       saveACLListToFile(getWorkingDirectory() + ACL_FILE);
     }
@@ -752,6 +784,71 @@ public class SecuredTemplateDevice extends TemplateDevice
     return aclXMLDescription;
   }
 
+  /**
+   * Checks if the ACL grants a permission to a subject. Decisions are cached until the ACL changes.
+   * 
+   * @param keyHashBase64
+   *          The public key hash of the subject
+   * @param accessPermission
+   *          The requested permission
+   * 
+   * @return True if an ACL entry grants the permission, false otherwise
+   */
+  public boolean isGrantedByACL(String keyHashBase64, String accessPermission)
+  {
+    String decisionKey = keyHashBase64 + " " + accessPermission;
+    // read once, so the decision and the cache belong to the same ACL
+    CompiledACL acl = compiledACL;
+    ConcurrentHashMap decisionTable = acl.decisionTable;
+    Boolean decision = (Boolean)decisionTable.get(decisionKey);
+    if (decision == null)
+    {
+      Vector permissions = (Vector)acl.permissionsFromSubjectTable.get(keyHashBase64);
+      boolean granted =
+        acl.permissionsForAnySubject.contains(accessPermission) || permissions != null &&
+          permissions.contains(accessPermission);
+      decision = granted ? Boolean.TRUE : Boolean.FALSE;
+
+      // prevent unbounded growth for many different callers
+      if (decisionTable.size() >= MAX_ACL_DECISIONS)
+      {
+        decisionTable.clear();
+      }
+      decisionTable.put(decisionKey, decision);
+    }
+    return decision.booleanValue();
+  }
+
+  /** Compiles the ACL into a table of permissions per subject and flushes cached decisions */
+  private void compileACL()
+  {
+    // serialize compilations, so an older ACL never replaces a newer one
+    synchronized(aclLock)
+    {
+      CompiledACL acl = new CompiledACL();
+      for (int i = 0; i < aclList.size(); i++)
+      {
+        ACLEntry entry = (ACLEntry)aclList.elementAt(i);
+        if (entry.getSubject() == null)
+        {
+          acl.permissionsForAnySubject.add(entry.getAccessPermission());
+        } else
+        {
+          String keyHashBase64 = entry.getSubject().getPublicKeyHashBase64();
+          Vector permissions = (Vector)acl.permissionsFromSubjectTable.get(keyHashBase64);
+          if (permissions == null)
+          {
+            permissions = new Vector();
+            acl.permissionsFromSubjectTable.put(keyHashBase64, permissions);
+          }
+          permissions.add(entry.getAccessPermission());
+        }
+      }
+      // publish the complete ACL with one write, readers either see the old or the new ACL
+      compiledACL = acl;
+    }
+  }
+
   private void loadACLListFromFile(String fileName)
   {
     aclList.clear();
@@ -767,8 +864,9 @@ public class SecuredTemplateDevice extends TemplateDevice
       {
         ex.printStackTrace(System.out);
       }
+      compileACL();
       buildACLXMLDescription();
-      System.out.println("  Loaded " + ownerList.size() + " ACL entries");
+      System.out.println("  Loaded " + aclList.size() + " ACL entries");
     }
   }
 
@@ -937,16 +1035,50 @@ public class SecuredTemplateDevice extends TemplateDevice
   public String createAndStoreNonce()
   {
     String nonce = SecurityHelper.createSequenceBaseString();
-    nonceList.add(nonce);
+    long currentTime = System.currentTimeMillis();
+    nonceTable.put(nonce, new Long(currentTime));
 
+    if (currentTime - lastNonceCleanupTime > NONCE_TIMEOUT)
+    {
+      lastNonceCleanupTime = currentTime;
+      removeExpiredNonces(currentTime);
+    }
     return nonce;
   }
 
   /** Checks and removes a nonce for event subscription */
   public boolean checkAndRemoveNonce(String nonce)
   {
+    if (nonce == null)
+    {
+      return false;
+    }
     // returns true if the nonce was valid
-    return nonceList.remove(nonce);
+    Long creationTime = (Long)nonceTable.remove(nonce);
+
+    return creationTime != null && System.currentTimeMillis() - creationTime.longValue() <= NONCE_TIMEOUT;
+  }
+
+  /** Removes all nonces that were not used in time */
+  private void removeExpiredNonces(long currentTime)
+  {
+    Vector expiredNonces = new Vector();
+    synchronized(nonceTable)
+    {
+      Enumeration nonces = nonceTable.keys();
+      while (nonces.hasMoreElements())
+      {
+        Object nonce = nonces.nextElement();
+        if (currentTime - ((Long)nonceTable.get(nonce)).longValue() > NONCE_TIMEOUT)
+        {
+          expiredNonces.add(nonce);
+        }
+      }
+    }
+    for (int i = 0; i < expiredNonces.size(); i++)
+    {
+      nonceTable.remove(expiredNonces.elementAt(i));
+    }
   }
 
   /**
@@ -1036,4 +1168,19 @@ public class SecuredTemplateDevice extends TemplateDevice
     return result;
   }
 
+  /** This class holds a compiled ACL. It is not changed after it was published, except for the decision cache. */
+  private static class CompiledACL
+  {
+
+    /** Permissions keyed by subject public key hash. Values are Vectors of permissions */
+    private final Hashtable         permissionsFromSubjectTable = new Hashtable();
+
+    /** Permissions granted to any subject */
+    private final Vector            permissionsForAnySubject    = new Vector();
+
+    /** Cache with Boolean decisions, keyed by subject public key hash and permission */
+    private final ConcurrentHashMap decisionTable               = new ConcurrentHashMap();
+
+  }
+
 }
@@ -36,7 +36,6 @@ import de.fraunhofer.fokus.upnp.core.device.DeviceSubscribedControlPointHandler;
 import de.fraunhofer.fokus.upnp.core.templates.TemplateService;
 import de.fraunhofer.fokus.upnp.core_security.InvokeSecuredActionListener;
 import de.fraunhofer.fokus.upnp.core_security.device.SecuredDeviceSendEventNotifyThread;
-import de.fraunhofer.fokus.upnp.core_security.helpers.ACLEntry;
 import de.fraunhofer.fokus.upnp.core_security.helpers.ActionSecurityInfo;
 import de.fraunhofer.fokus.upnp.core_security.helpers.Permission;
 import de.fraunhofer.fokus.upnp.core_security.helpers.Profile;
@@ -165,14 +164,14 @@ public class SecuredTemplateService extends TemplateService implements InvokeSec
     // check ACL
     if (!actionAuthorized)
     {
-      for (int i = 0; !actionAuthorized && i < getSecuredDevice().getACLCount(); i++)
+      // check all permissions associated with the action against the compiled ACL
+      for (int i = 0; !actionAuthorized && i < permissionList.size(); i++)
       {
-        ACLEntry entry = getSecuredDevice().getACLEntry(i);
-        // if subject is equal to caller
-        if (entry.getSubject().getPublicKeyHashBase64().equals(publicKeyHashBase64))
+        PermissionActionAssociation association = (PermissionActionAssociation)permissionList.elementAt(i);
+        if (association.containsAction(action))
         {
-          // check if action is associated with the found permission
-          actionAuthorized = isAssociatedAction(entry.getAccessPermission(), action);
+          actionAuthorized =
+            getSecuredDevice().isGrantedByACL(publicKeyHashBase64, association.permission.getACLEntry());
         }
       }
       if (actionAuthorized)
@@ -302,25 +301,6 @@ public class SecuredTemplateService extends TemplateService implements InvokeSec
     return false;
   }
 
-  private boolean isAssociatedAction(String accessPermission, Action action)
-  {
-    for (int i = 0; i < permissionList.size(); i++)
-    {
-      PermissionActionAssociation association = (PermissionActionAssociation)permissionList.elementAt(i);
-      if (association.permission.getACLEntry().equals(accessPermission))
-      {
-        for (int j = 0; j < association.actionList.size(); j++)
-        {
-          if (((Action)association.actionList.elementAt(j)).getName().equals(action.getName()))
-          {
-            return true;
-          }
-        }
-      }
-    }
-    return false;
-  }
-
   // ////////////////////////////////////////////////////////////////////////////////////////////////
   // //
   // //
@@ -395,6 +375,19 @@ public class SecuredTemplateService extends TemplateService implements InvokeSec
         this.actionList.add(actionList[i]);
       }
     }
+
+    /** Checks if an action is associated with this permission */
+    public boolean containsAction(Action action)
+    {
+      for (int i = 0; i < actionList.size(); i++)
+      {
+        if (((Action)actionList.elementAt(i)).getName().equals(action.getName()))
+        {
+          return true;
+        }
+      }
+      return false;
+    }
   }
 
   /**
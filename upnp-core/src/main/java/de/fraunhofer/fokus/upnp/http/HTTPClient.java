@@ -27,7 +27,11 @@
 */
 package de.fraunhofer.fokus.upnp.http;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
@@ -80,6 +84,15 @@ public class HTTPClient implements IHTTPClient
   /** Flag to end pending request */
   private boolean              terminateClient      = false;
 
+  /** Timeout in ms for establishing the connection */
+  private int                  connectTimeout       = HTTPDefaults.CLIENT_CONNECT_TIMEOUT;
+
+  /** Timeout in ms for receiving response data */
+  private int                  readTimeout          = HTTPDefaults.TIMEOUT_FOR_RESEND * 1000;
+
+  /** Time of the last finished request */
+  private long                 lastUseTime          = System.currentTimeMillis();
+
   /**
    * Creates a new instance of HTTPClient.
    * 
@@ -180,7 +193,11 @@ public class HTTPClient implements IHTTPClient
         // request.getDestinationAddress());
 
         // read and parse response
-        HTTPMessage.getServerResponseMessage(responseMessage, socket.getInputStream(), false, expectHeaderOnlyResponse);
+        HTTPMessage.getServerResponseMessage(responseMessage,
+          socket.getInputStream(),
+          false,
+          expectHeaderOnlyResponse,
+          readTimeout);
 
         // System.out.println("Result of request is [\n" + responseMessage.getHeader() + "\n" +
         // responseMessage.getBodyAsString() + "]");
@@ -209,6 +226,7 @@ public class HTTPClient implements IHTTPClient
       }
     }
     activeClients--;
+    lastUseTime = System.currentTimeMillis();
 
     if (debug)
     {
@@ -217,6 +235,98 @@ public class HTTPClient implements IHTTPClient
     }
   }
 
+  /**
+   * Sends a number of requests to the same remote host over one connection without waiting for
+   * the responses in between (HTTP/1.1 pipelining). Because failed requests may be resent, this
+   * should only be used for idempotent requests like GET.
+   * 
+   * @param requests
+   *          The requests, all targeted to the same socket address
+   * 
+   * @return The responses in the order of the requests. Responses that could not be received
+   *         have no header
+   */
+  public HTTPMessageObject[] sendPipelinedRequestsAndWaitForResponses(HTTPMessageObject[] requests)
+  {
+    HTTPMessageObject[] responses = new HTTPMessageObject[requests.length];
+    if (requests.length == 0)
+    {
+      return responses;
+    }
+    InetSocketAddress destinationAddress = requests[0].getDestinationAddress();
+    ByteArrayOutputStream requestStream = new ByteArrayOutputStream();
+    for (int i = 0; i < requests.length; i++)
+    {
+      responses[i] =
+        new HTTPMessageObject(null, null, requests[i].getDestinationAddress(), requests[i].getSourceAddress());
+      byte[] requestData = requests[i].toByteArray();
+      requestStream.write(requestData, 0, requestData.length);
+    }
+    if (activeClients > HTTPDefaults.MAX_ACTIVE_CLIENTS)
+    {
+      System.out.println("Discard request due to too much stress");
+      return responses;
+    }
+    activeClients++;
+
+    if (socket != null && socket.isConnected() &&
+      !((InetSocketAddress)socket.getRemoteSocketAddress()).equals(destinationAddress))
+    {
+      close();
+    }
+    byte[] pendingResponseData = null;
+    int receivedResponses = 0;
+    try
+    {
+      if (socket == null)
+      {
+        connect(destinationAddress);
+      }
+      // send all requests at once
+      sendRequest(requestStream.toByteArray());
+
+      boolean closeConnection = false;
+      while (!closeConnection && receivedResponses < requests.length)
+      {
+        InputStream inputStream = socket.getInputStream();
+        // data already read belongs to the next response
+        if (pendingResponseData != null)
+        {
+          inputStream = new SequenceInputStream(new ByteArrayInputStream(pendingResponseData), inputStream);
+        }
+        boolean expectHeaderOnlyResponse =
+          HTTPMessageHelper.isHeaderOnlyResponseMessage(requests[receivedResponses].getHeader().toUpperCase());
+
+        pendingResponseData =
+          HTTPMessage.getPipelinedServerResponseMessage(responses[receivedResponses],
+            inputStream,
+            expectHeaderOnlyResponse,
+            readTimeout);
+
+        if (responses[receivedResponses].getHeader() == null)
+        {
+          closeConnection = true;
+        } else
+        {
+          closeConnection = responses[receivedResponses].isCloseConnection();
+          receivedResponses++;
+        }
+      }
+    } catch (Exception e)
+    {
+      close();
+    }
+    // connection is not reusable if responses are missing or unexpected data was received
+    if (!persistentConnection || receivedResponses < requests.length || pendingResponseData != null)
+    {
+      close();
+    }
+    activeClients--;
+    lastUseTime = System.currentTimeMillis();
+
+    return responses;
+  }
+
   /*
    * (non-Javadoc)
    * 
@@ -380,7 +490,7 @@ public class HTTPClient implements IHTTPClient
     {
       logger.debug(activeClients + " open client sockets");
       socket = new Socket();
-      socket.connect(destination, 10000);
+      socket.connect(destination, connectTimeout);
       socket.setSoTimeout(20);
     } catch (UnknownHostException e)
     {
@@ -439,6 +549,48 @@ public class HTTPClient implements IHTTPClient
     return lock;
   }
 
+  /**
+   * Sets the timeout for establishing the connection.
+   * 
+   * @param connectTimeout
+   *          The timeout in ms
+   */
+  public void setConnectTimeout(int connectTimeout)
+  {
+    this.connectTimeout = connectTimeout;
+  }
+
+  /**
+   * Sets the maximum time to wait for response data.
+   * 
+   * @param readTimeout
+   *          The timeout in ms
+   */
+  public void setReadTimeout(int readTimeout)
+  {
+    this.readTimeout = readTimeout;
+  }
+
+  /**
+   * Checks if the client holds an open connection that can be used for the next request.
+   * 
+   * @return True if the socket is connected, false otherwise
+   */
+  public boolean isConnected()
+  {
+    return socket != null && socket.isConnected() && !socket.isClosed();
+  }
+
+  /**
+   * Retrieves the time of the last finished request.
+   * 
+   * @return The lastUseTime.
+   */
+  public long getLastUseTime()
+  {
+    return lastUseTime;
+  }
+
   /**
    * Closes the client socket.
    */
@@ -0,0 +1,632 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.http;
+
+import java.net.InetSocketAddress;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+
+import de.fraunhofer.fokus.upnp.configuration.HTTPDefaults;
+import de.fraunhofer.fokus.upnp.util.network.HTTPMessageObject;
+
+/**
+ * This class manages client connections to remote HTTP servers. Connections are reused for
+ * consecutive requests to the same host, the number of concurrent connections per host is limited
+ * and connections that were not used for some time are closed. Requests to different hosts or
+ * concurrent requests to the same host do not block each other as long as the connection limit is
+ * not reached.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class HTTPClientPool
+{
+  /** HTTP client logger */
+  private final static Logger logger                   = Logger.getLogger("upnp.http");
+
+  /** Table with the connection state for each remote socket address */
+  private Hashtable           hostEntryTable           = new Hashtable();
+
+  /** Sync object */
+  private Object              lock                     = new Object();
+
+  /** Maximum number of concurrent connections to one host */
+  private int                 maxConnectionsPerHost    = HTTPDefaults.MAX_CLIENT_CONNECTIONS_PER_HOST;
+
+  /** Time in ms after which unused connections are closed */
+  private long                idleTimeout              = HTTPDefaults.CLIENT_CONNECTION_IDLE_TIMEOUT;
+
+  /** Maximum time in ms to wait for a free connection */
+  private long                waitTimeout              = HTTPDefaults.CLIENT_POOL_WAIT_TIMEOUT;
+
+  /** Flag to pipeline multiple requests to the same host */
+  private boolean             pipelining               = HTTPDefaults.PIPELINED_CLIENT_REQUESTS;
+
+  /** Time of the last search for idle connections */
+  private long                lastEvictionTime         = System.currentTimeMillis();
+
+  private long                requestCount             = 0;
+
+  private long                failedRequestCount       = 0;
+
+  private long                pipelinedRequestCount    = 0;
+
+  private long                createdConnectionCount   = 0;
+
+  private long                reusedConnectionCount    = 0;
+
+  private long                evictedConnectionCount   = 0;
+
+  private long                waitCount                = 0;
+
+  private long                waitTimeoutCount         = 0;
+
+  /**
+   * Creates a new instance of HTTPClientPool with default settings.
+   */
+  public HTTPClientPool()
+  {
+  }
+
+  /**
+   * Creates a new instance of HTTPClientPool.
+   * 
+   * @param maxConnectionsPerHost
+   *          Maximum number of concurrent connections to one host
+   * @param idleTimeout
+   *          Time in ms after which unused connections are closed
+   */
+  public HTTPClientPool(int maxConnectionsPerHost, long idleTimeout)
+  {
+    this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+    this.idleTimeout = idleTimeout;
+  }
+
+  /**
+   * Sends a request and waits for the response. The request is sent over an idle connection to
+   * the destination if available.
+   * 
+   * @param request
+   *          The request
+   * @param connectTimeout
+   *          Timeout in ms for establishing a new connection
+   * @param readTimeout
+   *          Maximum time in ms to wait for response data
+   * 
+   * @return The response or null if no connection could be acquired
+   */
+  public HTTPMessageObject sendRequestAndWaitForResponse(HTTPMessageObject request, int connectTimeout, int readTimeout)
+  {
+    InetSocketAddress destinationAddress = request.getDestinationAddress();
+    HTTPClient httpClient = acquireClient(destinationAddress);
+    if (httpClient == null)
+    {
+      logger.warn("No free connection to " + destinationAddress);
+      synchronized(lock)
+      {
+        requestCount++;
+        failedRequestCount++;
+      }
+      return null;
+    }
+    httpClient.setConnectTimeout(connectTimeout);
+    httpClient.setReadTimeout(readTimeout);
+
+    HTTPMessageObject response = null;
+    try
+    {
+      httpClient.sendRequestAndWaitForResponse(request);
+      response = httpClient.getResponse();
+    } finally
+    {
+      releaseClient(httpClient, destinationAddress, response);
+    }
+    synchronized(lock)
+    {
+      requestCount++;
+      if (response == null || response.getHeader() == null)
+      {
+        failedRequestCount++;
+      }
+    }
+    return response;
+  }
+
+  /**
+   * Sends a number of requests to the same host. If pipelining is enabled, all requests are sent
+   * over one connection before the responses are read. Requests whose responses were not received
+   * are resent one by one, so this should only be used for idempotent requests like GET.
+   * 
+   * @param requests
+   *          The requests, all targeted to the same socket address
+   * @param connectTimeout
+   *          Timeout in ms for establishing a new connection
+   * @param readTimeout
+   *          Maximum time in ms to wait for response data
+   * 
+   * @return The responses in the order of the requests, with null for failed requests
+   */
+  public HTTPMessageObject[] sendRequestsAndWaitForResponses(HTTPMessageObject[] requests,
+    int connectTimeout,
+    int readTimeout)
+  {
+    HTTPMessageObject[] responses = new HTTPMessageObject[requests.length];
+    if (pipelining && requests.length > 1)
+    {
+      InetSocketAddress destinationAddress = requests[0].getDestinationAddress();
+      HTTPClient httpClient = acquireClient(destinationAddress);
+      if (httpClient != null)
+      {
+        httpClient.setConnectTimeout(connectTimeout);
+        httpClient.setReadTimeout(readTimeout);
+        HTTPMessageObject[] pipelinedResponses = null;
+        try
+        {
+          pipelinedResponses = httpClient.sendPipelinedRequestsAndWaitForResponses(requests);
+        } finally
+        {
+          releaseClient(httpClient, destinationAddress, null);
+        }
+        synchronized(lock)
+        {
+          for (int i = 0; i < pipelinedResponses.length; i++)
+          {
+            if (pipelinedResponses[i].getHeader() != null)
+            {
+              responses[i] = pipelinedResponses[i];
+              requestCount++;
+              pipelinedRequestCount++;
+            }
+          }
+        }
+      }
+    }
+    // send remaining requests one by one
+    for (int i = 0; i < requests.length; i++)
+    {
+      if (responses[i] == null)
+      {
+        responses[i] = sendRequestAndWaitForResponse(requests[i], connectTimeout, readTimeout);
+      }
+    }
+    return responses;
+  }
+
+  /**
+   * Retrieves a client for a destination. The client must be returned with releaseClient() after
+   * use. If the maximum number of connections to the destination is reached, this method blocks
+   * until a connection is released.
+   * 
+   * @param destinationAddress
+   *          The remote socket address
+   * 
+   * @return A client or null if no client became available within the wait timeout
+   */
+  public HTTPClient acquireClient(InetSocketAddress destinationAddress)
+  {
+    Vector expiredClients = new Vector();
+    HTTPClient result = null;
+    synchronized(lock)
+    {
+      HostEntry hostEntry = (HostEntry)hostEntryTable.get(destinationAddress);
+      if (hostEntry == null)
+      {
+        hostEntry = new HostEntry();
+        hostEntryTable.put(destinationAddress, hostEntry);
+      }
+      // prevent removal of the host entry while this thread uses it
+      hostEntry.acquiringThreads++;
+      long startTime = System.currentTimeMillis();
+      boolean waiting = false;
+      while (result == null)
+      {
+        // reuse most recently used connection
+        while (result == null && hostEntry.idleClients.size() > 0)
+        {
+          HTTPClient idleClient = (HTTPClient)hostEntry.idleClients.remove(hostEntry.idleClients.size() - 1);
+          if (System.currentTimeMillis() - idleClient.getLastUseTime() < idleTimeout)
+          {
+            result = idleClient;
+            reusedConnectionCount++;
+          } else
+          {
+            expiredClients.add(idleClient);
+            evictedConnectionCount++;
+          }
+        }
+        if (result == null && hostEntry.activeClients < maxConnectionsPerHost)
+        {
+          result = new HTTPClient(HTTPDefaults.PERSISTENT_CLIENT_CONNECTION);
+          createdConnectionCount++;
+        }
+        if (result == null)
+        {
+          long remainingTime = waitTimeout - (System.currentTimeMillis() - startTime);
+          if (remainingTime <= 0)
+          {
+            waitTimeoutCount++;
+            break;
+          }
+          if (!waiting)
+          {
+            waiting = true;
+            waitCount++;
+          }
+          try
+          {
+            lock.wait(remainingTime);
+          } catch (InterruptedException e)
+          {
+            waitTimeoutCount++;
+            break;
+          }
+        }
+      }
+      if (result != null)
+      {
+        hostEntry.activeClients++;
+      }
+      hostEntry.acquiringThreads--;
+      collectExpiredClients(expiredClients);
+    }
+    terminateClients(expiredClients);
+
+    return result;
+  }
+
+  /**
+   * Returns a client to the pool. The connection is kept open for later requests if the client is
+   * still connected and the server did not request to close the connection.
+   * 
+   * @param httpClient
+   *          The client retrieved with acquireClient()
+   * @param destinationAddress
+   *          The remote socket address used for acquireClient()
+   * @param response
+   *          The last received response or null
+   */
+  public void releaseClient(HTTPClient httpClient, InetSocketAddress destinationAddress, HTTPMessageObject response)
+  {
+    boolean reusable =
+      HTTPDefaults.PERSISTENT_CLIENT_CONNECTION && httpClient.isConnected() &&
+        (response == null || response.getHeader() != null && !response.isCloseConnection());
+
+    Vector expiredClients = new Vector();
+    synchronized(lock)
+    {
+      HostEntry hostEntry = (HostEntry)hostEntryTable.get(destinationAddress);
+      if (hostEntry != null)
+      {
+        hostEntry.activeClients--;
+        if (reusable)
+        {
+          hostEntry.idleClients.add(httpClient);
+        }
+      }
+      if (!reusable || hostEntry == null)
+      {
+        expiredClients.add(httpClient);
+      }
+      collectExpiredClients(expiredClients);
+
+      lock.notifyAll();
+    }
+    terminateClients(expiredClients);
+  }
+
+  /** Closes all connections that were not used within the idle timeout. */
+  public void closeIdleClients()
+  {
+    Vector expiredClients = new Vector();
+    synchronized(lock)
+    {
+      lastEvictionTime = 0;
+      collectExpiredClients(expiredClients);
+    }
+    terminateClients(expiredClients);
+  }
+
+  /** Closes all idle connections. */
+  public void terminate()
+  {
+    Vector idleClients = new Vector();
+    synchronized(lock)
+    {
+      Enumeration hostEntries = hostEntryTable.elements();
+      while (hostEntries.hasMoreElements())
+      {
+        HostEntry hostEntry = (HostEntry)hostEntries.nextElement();
+        idleClients.addAll(hostEntry.idleClients);
+        hostEntry.idleClients.clear();
+      }
+      // keep hosts that are still in use, their clients are counted on release
+      removeUnusedHosts();
+    }
+    terminateClients(idleClients);
+  }
+
+  /**
+   * Moves expired idle clients of all hosts to a list. Hosts without connections and waiting
+   * threads are removed. The search is done at most once per second. Must be called while holding
+   * the lock.
+   */
+  private void collectExpiredClients(Vector expiredClients)
+  {
+    long currentTime = System.currentTimeMillis();
+    if (currentTime - lastEvictionTime < 1000)
+    {
+      return;
+    }
+    lastEvictionTime = currentTime;
+
+    Enumeration hostEntries = hostEntryTable.elements();
+    while (hostEntries.hasMoreElements())
+    {
+      HostEntry hostEntry = (HostEntry)hostEntries.nextElement();
+      // idle clients are sorted by their last use time
+      while (hostEntry.idleClients.size() > 0 &&
+        currentTime - ((HTTPClient)hostEntry.idleClients.elementAt(0)).getLastUseTime() >= idleTimeout)
+      {
+        expiredClients.add(hostEntry.idleClients.remove(0));
+        evictedConnectionCount++;
+      }
+    }
+    removeUnusedHosts();
+  }
+
+  /**
+   * Removes all hosts without connections. Hosts are kept while a thread in acquireClient() holds
+   * their entry, because the connection count of that thread must be updated in the same entry.
+   * Must be called while holding the lock.
+   */
+  private void removeUnusedHosts()
+  {
+    Vector emptyHosts = new Vector();
+    Enumeration destinations = hostEntryTable.keys();
+    while (destinations.hasMoreElements())
+    {
+      Object destination = destinations.nextElement();
+      HostEntry hostEntry = (HostEntry)hostEntryTable.get(destination);
+      if (hostEntry.activeClients == 0 && hostEntry.acquiringThreads == 0 && hostEntry.idleClients.size() == 0)
+      {
+        emptyHosts.add(destination);
+      }
+    }
+    for (int i = 0; i < emptyHosts.size(); i++)
+    {
+      hostEntryTable.remove(emptyHosts.elementAt(i));
+    }
+  }
+
+  /** Closes the connections of a list of clients. */
+  private void terminateClients(Vector clients)
+  {
+    for (int i = 0; i < clients.size(); i++)
+    {
+      ((HTTPClient)clients.elementAt(i)).terminate();
+    }
+  }
+
+  /**
+   * Sets the maximum number of concurrent connections to one host.
+   * 
+   * @param maxConnectionsPerHost
+   *          The new limit
+   */
+  public void setMaxConnectionsPerHost(int maxConnectionsPerHost)
+  {
+    synchronized(lock)
+    {
+      this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Retrieves the maximum number of concurrent connections to one host.
+   * 
+   * @return The maxConnectionsPerHost.
+   */
+  public int getMaxConnectionsPerHost()
+  {
+    return maxConnectionsPerHost;
+  }
+
+  /**
+   * Sets the time after which unused connections are closed.
+   * 
+   * @param idleTimeout
+   *          The timeout in ms
+   */
+  public void setIdleTimeout(long idleTimeout)
+  {
+    this.idleTimeout = idleTimeout;
+  }
+
+  /**
+   * Retrieves the time after which unused connections are closed.
+   * 
+   * @return The idleTimeout.
+   */
+  public long getIdleTimeout()
+  {
+    return idleTimeout;
+  }
+
+  /**
+   * Sets the maximum time to wait for a free connection.
+   * 
+   * @param waitTimeout
+   *          The timeout in ms
+   */
+  public void setWaitTimeout(long waitTimeout)
+  {
+    this.waitTimeout = waitTimeout;
+  }
+
+  /**
+   * Enables or disables pipelining for sendRequestsAndWaitForResponses(). The remote server must
+   * support pipelined requests.
+   * 
+   * @param pipelining
+   *          The new state
+   */
+  public void setPipelining(boolean pipelining)
+  {
+    this.pipelining = pipelining;
+  }
+
+  /**
+   * Checks if pipelining is enabled.
+   * 
+   * @return The pipelining flag.
+   */
+  public boolean isPipelining()
+  {
+    return pipelining;
+  }
+
+  /** Retrieves the number of open or currently used connections. */
+  public int getConnectionCount()
+  {
+    synchronized(lock)
+    {
+      int result = 0;
+      Enumeration hostEntries = hostEntryTable.elements();
+      while (hostEntries.hasMoreElements())
+      {
+        HostEntry hostEntry = (HostEntry)hostEntries.nextElement();
+        result += hostEntry.activeClients + hostEntry.idleClients.size();
+      }
+      return result;
+    }
+  }
+
+  /** Retrieves the number of idle connections. */
+  public int getIdleConnectionCount()
+  {
+    synchronized(lock)
+    {
+      int result = 0;
+      Enumeration hostEntries = hostEntryTable.elements();
+      while (hostEntries.hasMoreElements())
+      {
+        result += ((HostEntry)hostEntries.nextElement()).idleClients.size();
+      }
+      return result;
+    }
+  }
+
+  /** Retrieves the number of hosts with open or currently used connections. */
+  public int getHostCount()
+  {
+    synchronized(lock)
+    {
+      return hostEntryTable.size();
+    }
+  }
+
+  /** Retrieves the number of sent requests. */
+  public long getRequestCount()
+  {
+    return requestCount;
+  }
+
+  /** Retrieves the number of requests that did not receive a response. */
+  public long getFailedRequestCount()
+  {
+    return failedRequestCount;
+  }
+
+  /** Retrieves the number of requests that were answered over a pipelined connection. */
+  public long getPipelinedRequestCount()
+  {
+    return pipelinedRequestCount;
+  }
+
+  /** Retrieves the number of created clients. */
+  public long getCreatedConnectionCount()
+  {
+    return createdConnectionCount;
+  }
+
+  /** Retrieves the number of times an idle connection was reused. */
+  public long getReusedConnectionCount()
+  {
+    return reusedConnectionCount;
+  }
+
+  /** Retrieves the number of idle connections that were closed due to the idle timeout. */
+  public long getEvictedConnectionCount()
+  {
+    return evictedConnectionCount;
+  }
+
+  /** Retrieves the number of requests that had to wait for a free connection. */
+  public long getWaitCount()
+  {
+    return waitCount;
+  }
+
+  /** Retrieves the number of requests that did not get a free connection in time. */
+  public long getWaitTimeoutCount()
+  {
+    return waitTimeoutCount;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see java.lang.Object#toString()
+   */
+  public String toString()
+  {
+    return "HTTPClientPool: " + getConnectionCount() + " connections (" + getIdleConnectionCount() + " idle) to " +
+      getHostCount() + " hosts, " + requestCount + " requests (" + failedRequestCount + " failed, " +
+      pipelinedRequestCount + " pipelined), " + createdConnectionCount + " created, " + reusedConnectionCount +
+      " reused, " + evictedConnectionCount + " evicted, " + waitCount + " waits, " + waitTimeoutCount +
+      " wait timeouts";
+  }
+
+  /** This class holds the connections to one remote socket address. */
+  private static class HostEntry
+  {
+    /** Connected clients that are currently not used, sorted by their last use time */
+    public Vector idleClients      = new Vector();
+
+    /** Number of clients that are currently used */
+    public int    activeClients    = 0;
+
+    /** Number of threads in acquireClient() that hold this entry */
+    public int    acquiringThreads = 0;
+  }
+
+}
@@ -90,6 +90,8 @@ public class HTTPConstant
 
   public static final String HTTP_ERROR_415               = "HTTP/1.1 415 Unsupported Media Type\r\n";
 
+  public static final String HTTP_ERROR_416               = "HTTP/1.1 416 Requested Range Not Satisfiable\r\n";
+
   public static final String HTTP_ERROR_500               = "HTTP/1.1 500 Internal Server Error";                                         // can
 
   public static final String HTTP_ERROR_503               = "HTTP/1.1 503 Service Unavailable\r\n";                                       // =>Unable
@@ -75,7 +75,7 @@ public class HTTPMessage
   public static void getServerMessage(HTTPMessageObject message, InputStream inStream) throws IOException,
     HTTPParseException
   {
-    getMessage(message, inStream, false, false, true);
+    getMessage(message, inStream, false, false, true, HTTPDefaults.TIMEOUT_FOR_RESEND * 1000, false);
   }
 
   /**
@@ -101,7 +101,71 @@ public class HTTPMessage
     boolean returnAfterHeader,
     boolean expectHeaderOnlyResponse) throws IOException, HTTPParseException
   {
-    getMessage(message, inStream, returnAfterHeader, expectHeaderOnlyResponse, false);
+    getMessage(message,
+      inStream,
+      returnAfterHeader,
+      expectHeaderOnlyResponse,
+      false,
+      HTTPDefaults.TIMEOUT_FOR_RESEND * 1000,
+      false);
+  }
+
+  /**
+   * This method reads an incoming response message.
+   * 
+   * @param message
+   *          The object that holds the received message
+   * @param inStream
+   *          The stream that is read
+   * @param returnAfterHeader
+   *          The method returns immediately after the header was read.
+   * @param expectHeaderOnlyResponse
+   *          Flag that this is a header only reponse
+   * @param readTimeout
+   *          Maximum time in ms to wait for more data
+   * 
+   * @throws IOException
+   *           if an error occurred reading the input
+   * @throws HTTPParseException
+   *           if the received message is empty or contains no body
+   * 
+   */
+  public static void getServerResponseMessage(HTTPMessageObject message,
+    InputStream inStream,
+    boolean returnAfterHeader,
+    boolean expectHeaderOnlyResponse,
+    long readTimeout) throws IOException, HTTPParseException
+  {
+    getMessage(message, inStream, returnAfterHeader, expectHeaderOnlyResponse, false, readTimeout, false);
+  }
+
+  /**
+   * This method reads one response from a connection that is used for pipelined requests. Data
+   * that was read beyond the end of the response belongs to the next response and is returned.
+   * 
+   * @param message
+   *          The object that holds the received message
+   * @param inStream
+   *          The stream that is read
+   * @param expectHeaderOnlyResponse
+   *          Flag that this is a header only reponse
+   * @param readTimeout
+   *          Maximum time in ms to wait for more data
+   * 
+   * @return Data that belongs to the next response or null
+   * 
+   * @throws IOException
+   *           if an error occurred reading the input
+   * @throws HTTPParseException
+   *           if the received message is empty or contains no body
+   * 
+   */
+  public static byte[] getPipelinedServerResponseMessage(HTTPMessageObject message,
+    InputStream inStream,
+    boolean expectHeaderOnlyResponse,
+    long readTimeout) throws IOException, HTTPParseException
+  {
+    return getMessage(message, inStream, false, expectHeaderOnlyResponse, false, readTimeout, true);
   }
 
   /**
@@ -117,6 +181,12 @@ public class HTTPMessage
    *          Flag that this is a header only reponse
    * @param serverRequest
    *          Flag that this is a request received by a server
+   * @param readTimeout
+   *          Maximum time in ms to wait for more data
+   * @param pipelined
+   *          Flag that more messages may follow on the same stream
+   * 
+   * @return Data read beyond the end of a pipelined message or null
    * 
    * @throws IOException
    *           if an error occurred reading the input
@@ -124,11 +194,13 @@ public class HTTPMessage
    *           if the received message is empty or contains no body
    * 
    */
-  private static void getMessage(HTTPMessageObject message,
+  private static byte[] getMessage(HTTPMessageObject message,
     InputStream inStream,
     boolean returnAfterHeader,
     boolean expectHeaderOnlyResponse,
-    boolean serverRequest) throws IOException, HTTPParseException
+    boolean serverRequest,
+    long readTimeout,
+    boolean pipelined) throws IOException, HTTPParseException
   {
     ByteArrayOutputStream messageOutputStream = new ByteArrayOutputStream(CommonConstants.HTTP_BUFFER_READ_SIZE); // default
                                                                                                                   // is
@@ -146,7 +218,7 @@ public class HTTPMessage
     long lastReceiveTime = System.currentTimeMillis();
 
     // loop until whole message read or timeout
-    while (!finished && System.currentTimeMillis() - lastReceiveTime < HTTPDefaults.TIMEOUT_FOR_RESEND * 1000)
+    while (!finished && System.currentTimeMillis() - lastReceiveTime < readTimeout)
     {
       bytesRead = 0;
       // try to read available bytes
@@ -186,7 +258,8 @@ public class HTTPMessage
         if (chunkedEncoding)
         {
           byte[] partialBody = HTTPMessageHelper.getBody(messageOutputStream.toByteArray(), headerEndIndex);
-          if (hasLastChunk(partialBody))
+          // wait for the complete terminator to not leave it in the stream of a persistent connection
+          if (getChunkedBodyLength(partialBody, true) != -1)
           {
             finished = true;
             logger.debug("Found last chunk");
@@ -295,6 +368,21 @@ public class HTTPMessage
         finished = true;
       }
     }
+    byte[] surplusData = null;
+    // separate data that belongs to the next pipelined message
+    if (pipelined && headerFound)
+    {
+      byte[] receivedData = messageOutputStream.toByteArray();
+      int messageLength = getMessageLength(receivedData, receivedData.length, serverRequest, expectHeaderOnlyResponse);
+      if (messageLength != -1 && messageLength < receivedData.length)
+      {
+        surplusData = new byte[receivedData.length - messageLength];
+        System.arraycopy(receivedData, messageLength, surplusData, 0, surplusData.length);
+
+        messageOutputStream.reset();
+        messageOutputStream.write(receivedData, 0, messageLength);
+      }
+    }
     // try to build body with received message
     if (headerFound)
     {
@@ -321,7 +409,7 @@ public class HTTPMessage
       }
     }
     // no more data available
-    if (System.currentTimeMillis() - lastReceiveTime >= HTTPDefaults.TIMEOUT_FOR_RESEND * 1000)
+    if (System.currentTimeMillis() - lastReceiveTime >= readTimeout)
     {
       // no data was received within the timeout, return with incomplete message
       logger.warn("Wait timeout.");
@@ -339,10 +427,157 @@ public class HTTPMessage
     {
       throw new HTTPParseException("Empty response");
     }
+    return surplusData;
+  }
+
+  /**
+   * Checks whether a buffer holds a complete server request. This is used by servers that
+   * receive data in a non-blocking way and must decide when a request can be processed.
+   * 
+   * @param data
+   *          The received data
+   * @param length
+   *          The number of valid bytes in data
+   * 
+   * @return The length of the first complete request in the buffer or -1 if the request is not
+   *         yet complete
+   * 
+   * @throws HTTPParseException
+   *           if the header contains an invalid content length
+   */
+  public static int getServerMessageLength(byte[] data, int length) throws HTTPParseException
+  {
+    return getMessageLength(data, length, true, false);
+  }
+
+  /**
+   * Retrieves the length of the first complete message in a buffer.
+   * 
+   * @param data
+   *          The received data
+   * @param length
+   *          The number of valid bytes in data
+   * @param serverRequest
+   *          Flag that this is a request received by a server
+   * @param expectHeaderOnlyResponse
+   *          Flag that this is a header only reponse
+   * 
+   * @return The length of the first complete message in the buffer or -1 if the message is not
+   *         yet complete or its end can only be detected by closing the connection
+   * 
+   * @throws HTTPParseException
+   *           if the header contains an invalid content length
+   */
+  private static int getMessageLength(byte[] data,
+    int length,
+    boolean serverRequest,
+    boolean expectHeaderOnlyResponse) throws HTTPParseException
+  {
+    int headerEndIndex = -1;
+    for (int i = 0; i < length - 3 && headerEndIndex == -1; i++)
+    {
+      if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n')
+      {
+        headerEndIndex = i;
+      }
+    }
+    if (headerEndIndex == -1)
+    {
+      return -1;
+    }
+    if (!serverRequest && expectHeaderOnlyResponse)
+    {
+      return headerEndIndex + 4;
+    }
+    String headerUpperCase = StringHelper.byteArrayToString(data, 0, headerEndIndex + 2).toUpperCase();
+
+    // informational, no content and not modified responses never have a body
+    int statusCode = serverRequest ? -1 : getStatusCode(headerUpperCase);
+    if (statusCode >= 100 && statusCode < 200 || statusCode == 204 || statusCode == 304)
+    {
+      return headerEndIndex + 4;
+    }
+    // chunked messages end with the last chunk
+    int encodingPos = headerUpperCase.indexOf(HTTPConstant.TRANSFER_ENCODING);
+    int lineEnd = headerUpperCase.indexOf("\r\n", encodingPos);
+    if (encodingPos != -1 && lineEnd != -1 &&
+      headerUpperCase.substring(encodingPos + HTTPConstant.TRANSFER_ENCODING.length(), lineEnd)
+        .trim()
+        .equals(HTTPConstant.CHUNKED))
+    {
+      byte[] partialBody = new byte[length - (headerEndIndex + 4)];
+      System.arraycopy(data, headerEndIndex + 4, partialBody, 0, partialBody.length);
+
+      try
+      {
+        int chunkedBodyLength = getChunkedBodyLength(partialBody, true);
+
+        return chunkedBodyLength != -1 ? headerEndIndex + 4 + chunkedBodyLength : -1;
+      } catch (NumberFormatException e)
+      {
+        throw new HTTPParseException("Invalid chunk size");
+      }
+    }
+    int contentLengthPos = headerUpperCase.indexOf(CommonConstants.CONTENT_LENGTH);
+    lineEnd = headerUpperCase.indexOf("\r\n", contentLengthPos);
+    if (contentLengthPos != -1 && lineEnd != -1)
+    {
+      int contentLength = 0;
+      try
+      {
+        contentLength =
+          Integer.parseInt(headerUpperCase.substring(contentLengthPos + CommonConstants.CONTENT_LENGTH.length(),
+            lineEnd).trim());
+      } catch (NumberFormatException e)
+      {
+        throw new HTTPParseException("Invalid content length");
+      }
+      int messageLength = headerEndIndex + 4 + contentLength;
+
+      return messageLength <= length ? messageLength : -1;
+    }
+    // requests without content length and chunked encoding do not have a body,
+    // the same is true for HTTP errors
+    if (serverRequest || statusCode >= 400 && statusCode < 500)
+    {
+      return headerEndIndex + 4;
+    }
+    // response body ends when the connection is closed
+    return -1;
+  }
+
+  /**
+   * Retrieves the status code from the status line of a response header.
+   * 
+   * @param header
+   *          The response header
+   * 
+   * @return The status code or -1 if the header does not start with a valid status line
+   */
+  private static int getStatusCode(String header)
+  {
+    // HTTP/1.0 200 OK or HTTP/1.1 200 OK
+    if (!header.startsWith("HTTP/"))
+    {
+      return -1;
+    }
+    int codeStart = header.indexOf(' ');
+    if (codeStart == -1 || codeStart + 4 > header.length())
+    {
+      return -1;
+    }
+    try
+    {
+      return Integer.parseInt(header.substring(codeStart + 1, codeStart + 4));
+    } catch (NumberFormatException e)
+    {
+      return -1;
+    }
   }
 
   /**
-   * Searches the last chunk in a chunked message.
+   * Searches the last chunk in a chunked message. A missing final line end is tolerated because
+   * this is used for messages that were already read completely.
    * 
    * @param body
    *          The chunked body.
@@ -350,6 +585,21 @@ public class HTTPMessage
    * @return True if the last chunk was found, false otherwise
    */
   private static boolean hasLastChunk(byte[] body)
+  {
+    return getChunkedBodyLength(body, false) != -1;
+  }
+
+  /**
+   * Retrieves the length of a chunked body including the last chunk.
+   * 
+   * @param body
+   *          The chunked body, possibly followed by other data
+   * @param requireTerminator
+   *          Flag that the empty line that terminates the optional trailer must have been received
+   * 
+   * @return The length of the chunked body or -1 if the last chunk was not found
+   */
+  private static int getChunkedBodyLength(byte[] body, boolean requireTerminator)
   {
     int idx = 0;
     String buffer = "";
@@ -366,10 +616,6 @@ public class HTTPMessage
       {
         final int chunkBlockSize = Integer.parseInt(buffer, 16);
         buffer = "";
-        if (chunkBlockSize == 0)
-        {
-          return true;
-        }
         // search for line end if not already found
         if (c == ';')
         {
@@ -380,13 +626,39 @@ public class HTTPMessage
 
           idx++;
         }
+        if (chunkBlockSize == 0)
+        {
+          if (!requireTerminator)
+          {
+            return Math.min(idx + 2, body.length);
+          }
+          // skip trailer lines up to the empty line after the last chunk
+          while (true)
+          {
+            int lineEnd = idx;
+            while (lineEnd < body.length && body[lineEnd] != '\n')
+            {
+              lineEnd++;
+            }
+            if (lineEnd >= body.length)
+            {
+              return -1;
+            }
+            boolean emptyLine = lineEnd == idx || lineEnd == idx + 1 && body[idx] == '\r';
+            idx = lineEnd + 1;
+            if (emptyLine)
+            {
+              return idx;
+            }
+          }
+        }
 
         // skip data
         idx += chunkBlockSize;
         idx += 2; // skip added cr/lf
       }
     }
-    return false;
+    return -1;
   }
 
   /**
@@ -199,7 +199,7 @@ public class HTTPMessageBuilder extends HTTPHeaderBuilder
    * @param Date
    *          Date when message was build
    * @param contentRange
-   *          Content-Range header value for partial GET response
+   *          Content-Range header value for partial GET response or null for multipart responses
    * 
    * @return response for the partial GET request
    * 
@@ -218,7 +218,11 @@ public class HTTPMessageBuilder extends HTTPHeaderBuilder
     response.append(buildContentLength(bytesInBody));
     response.append(buildContentType(contentType));
     response.append(buildHeader(CommonConstants.ACCEPT_RANGES, "bytes"));
-    response.append(buildHeader(CommonConstants.CONTENT_RANGE, contentRange));
+    // multipart responses have no content range in the header
+    if (contentRange != null)
+    {
+      response.append(buildHeader(CommonConstants.CONTENT_RANGE, contentRange));
+    }
     response.append(buildDate(Date));
     for (int i = 0; optionalHeaderLines != null && i < optionalHeaderLines.size(); i++)
     {
@@ -31,6 +31,7 @@ import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.URL;
 import java.util.Hashtable;
+import java.util.Vector;
 
 import de.fraunhofer.fokus.upnp.configuration.HTTPDefaults;
 import de.fraunhofer.fokus.upnp.util.network.HTTPMessageHelper;
@@ -46,17 +47,82 @@ import de.fraunhofer.fokus.upnp.util.network.HTTPMessageObject;
 public class HTTPMessageFlow
 {
 
-  private static Hashtable                  httpClientHashtable             = new Hashtable();
+  /** Pool with client connections shared by all TCP message flows */
+  private static HTTPClientPool             httpClientPool                     = new HTTPClientPool();
 
   private static HTTPOverMulticastUDPClient httpOverMulticastClient;
 
-  private static Object                     lock                            = new Object();
+  private static Object                     lock                               = new Object();
 
-  public static String                      MESSAGE_OPTION_KEY_BODY         = "Body";
+  public static String                      MESSAGE_OPTION_KEY_BODY            = "Body";
 
-  public static String                      MESSAGE_OPTION_KEY_MESSAGE_TYPE = "MessageType";
+  public static String                      MESSAGE_OPTION_KEY_MESSAGE_TYPE    = "MessageType";
 
-  public static String                      MESSAGE_OPTION_KEY_UDP_CLIENT   = "UDPClient";
+  public static String                      MESSAGE_OPTION_KEY_UDP_CLIENT      = "UDPClient";
+
+  /** Optional Integer with the connect timeout in ms for TCP requests */
+  public static String                      MESSAGE_OPTION_KEY_CONNECT_TIMEOUT = "ConnectTimeout";
+
+  /** Optional Integer with the maximum time in ms to wait for response data for TCP requests */
+  public static String                      MESSAGE_OPTION_KEY_READ_TIMEOUT    = "ReadTimeout";
+
+  /**
+   * Retrieves the pool that holds the client connections for TCP requests.
+   * 
+   * @return The client pool
+   */
+  public static HTTPClientPool getHTTPClientPool()
+  {
+    return httpClientPool;
+  }
+
+  /**
+   * Retrieves an optional timeout from the message options.
+   * 
+   * @param messageOptions
+   *          The message options or null
+   * @param key
+   *          The option key
+   * @param defaultValue
+   *          The value used if the option is not set
+   * 
+   * @return The timeout in ms
+   */
+  private static int getTimeoutOption(Hashtable messageOptions, String key, int defaultValue)
+  {
+    if (messageOptions != null && messageOptions.get(key) instanceof Integer)
+    {
+      return ((Integer)messageOptions.get(key)).intValue();
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Builds a HTTP request and allows its modification by the message flow implementation.
+   * 
+   * @return The request or null if the request could not be created
+   */
+  private static HTTPMessageObject createRequest(Hashtable messageOptions,
+    URL targetURL,
+    IHTTPMessageFlow messageFlowImplementation)
+  {
+    // build message
+    HTTPMessageObject request = messageFlowImplementation.createRequest(messageOptions, targetURL);
+    // check if request could not be built
+    if (request == null)
+    {
+      return null;
+    }
+    // allow modification of request
+    messageFlowImplementation.modifyRequest(messageOptions, targetURL, request);
+
+    if (!HTTPDefaults.PERSISTENT_CLIENT_CONNECTION)
+    {
+      // add connection close header to request
+      request.setHeader(HTTPMessageHelper.addHeaderLine(request.getHeader(), HTTPConstant.CONNECTION_HEADER, "close"));
+    }
+    return request;
+  }
 
   /**
    * Processes the response to a HTTP request.
@@ -122,57 +188,83 @@ public class HTTPMessageFlow
     URL targetURL,
     IHTTPMessageFlow messageFlowImplementation)
   {
-    // build message
-    HTTPMessageObject request = messageFlowImplementation.createRequest(messageOptions, targetURL);
+    HTTPMessageObject request = createRequest(messageOptions, targetURL, messageFlowImplementation);
     // check if request could not be built
     if (request == null)
     {
       return null;
     }
-    // allow modification of request
-    messageFlowImplementation.modifyRequest(messageOptions, targetURL, request);
+    HTTPMessageObject response =
+      httpClientPool.sendRequestAndWaitForResponse(request,
+        getTimeoutOption(messageOptions, MESSAGE_OPTION_KEY_CONNECT_TIMEOUT, HTTPDefaults.CLIENT_CONNECT_TIMEOUT),
+        getTimeoutOption(messageOptions, MESSAGE_OPTION_KEY_READ_TIMEOUT, HTTPDefaults.TIMEOUT_FOR_RESEND * 1000));
 
-    HTTPClient httpClient = null;
-    synchronized(lock)
+    return processResponse(messageOptions, targetURL, messageFlowImplementation, response);
+  }
+
+  /**
+   * Builds HTTP requests for a number of target URLs and sends them. Requests to the same host
+   * are pipelined over one connection if pipelining is enabled for the client pool, so this should
+   * only be used for idempotent requests like GET.
+   * 
+   * @param messageOptions
+   *          Message type that should be created. Implementation-dependent
+   * @param targetURLs
+   *          URLs that should receive the requests
+   * @param messageFlowImplementation
+   *          Class that implements the methods to create the requests and to process the responses
+   * 
+   * @return The results in the order of the URLs, as returned by sendMessageAndProcessResponse()
+   * 
+   */
+  public static Object[] sendMessagesAndProcessResponses(Hashtable messageOptions,
+    URL[] targetURLs,
+    IHTTPMessageFlow messageFlowImplementation)
+  {
+    Object[] results = new Object[targetURLs.length];
+    HTTPMessageObject[] requests = new HTTPMessageObject[targetURLs.length];
+    // group requests by destination
+    Hashtable destinationTable = new Hashtable();
+    Vector destinations = new Vector();
+    for (int i = 0; i < targetURLs.length; i++)
     {
-      // check for existing HTTP client
-      InetSocketAddress destinationAddress = request.getDestinationAddress();
-      if (HTTPDefaults.PERSISTENT_CLIENT_CONNECTION)
+      requests[i] = createRequest(messageOptions, targetURLs[i], messageFlowImplementation);
+      if (requests[i] != null)
       {
-        if (httpClientHashtable.containsKey(destinationAddress))
-        {
-          // System.out.println("HTTPMessageFlow: Reuse existing HTTP client to access " +
-          // targetURL);
-          httpClient = (HTTPClient)httpClientHashtable.get(destinationAddress);
-        }
-        if (httpClient == null)
+        InetSocketAddress destinationAddress = requests[i].getDestinationAddress();
+        Vector indexList = (Vector)destinationTable.get(destinationAddress);
+        if (indexList == null)
         {
-          System.out.println("    HTTPMessageFlow: Create new HTTP client to access  " + targetURL);
-          // send request to server
-          httpClient = new HTTPClient(true);
-          httpClientHashtable.put(destinationAddress, httpClient);
+          indexList = new Vector();
+          destinationTable.put(destinationAddress, indexList);
+          destinations.add(destinationAddress);
         }
-      } else
-      {
-        System.out.println("    HTTPMessageFlow: Create new HTTP client to access  " + targetURL);
-
-        // add connection close header to request
-        request.setHeader(HTTPMessageHelper.addHeaderLine(request.getHeader(), HTTPConstant.CONNECTION_HEADER, "close"));
-
-        // no persistence
-        httpClient = new HTTPClient(false);
+        indexList.add(new Integer(i));
       }
     }
-    // synchronize access within each HTTP client
-    synchronized(httpClient.getLock())
-    {
-      httpClient.sendRequestAndWaitForResponse(request);
+    int connectTimeout =
+      getTimeoutOption(messageOptions, MESSAGE_OPTION_KEY_CONNECT_TIMEOUT, HTTPDefaults.CLIENT_CONNECT_TIMEOUT);
+    int readTimeout =
+      getTimeoutOption(messageOptions, MESSAGE_OPTION_KEY_READ_TIMEOUT, HTTPDefaults.TIMEOUT_FOR_RESEND * 1000);
 
-      // retrieve response
-      HTTPMessageObject response = httpClient.getResponse();
+    for (int i = 0; i < destinations.size(); i++)
+    {
+      Vector indexList = (Vector)destinationTable.get(destinations.elementAt(i));
+      HTTPMessageObject[] destinationRequests = new HTTPMessageObject[indexList.size()];
+      for (int j = 0; j < indexList.size(); j++)
+      {
+        destinationRequests[j] = requests[((Integer)indexList.elementAt(j)).intValue()];
+      }
+      HTTPMessageObject[] responses =
+        httpClientPool.sendRequestsAndWaitForResponses(destinationRequests, connectTimeout, readTimeout);
 
-      return processResponse(messageOptions, targetURL, messageFlowImplementation, response);
+      for (int j = 0; j < indexList.size(); j++)
+      {
+        int index = ((Integer)indexList.elementAt(j)).intValue();
+        results[index] = processResponse(messageOptions, targetURLs[index], messageFlowImplementation, responses[j]);
+      }
     }
+    return results;
   }
 
   /**
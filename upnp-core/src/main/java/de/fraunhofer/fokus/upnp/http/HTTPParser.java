@@ -28,7 +28,6 @@
 package de.fraunhofer.fokus.upnp.http;
 
 import java.net.URL;
-import java.util.Hashtable;
 import java.util.StringTokenizer;
 import java.util.Vector;
 
@@ -47,44 +46,104 @@ import de.fraunhofer.fokus.upnp.util.security.RSAPublicKeyParser;
 /**
  * This class is used to parse header lines in HTTP messages.
  * 
+ * The parser works directly on the header string or the received bytes. It only stores the
+ * positions of the header values and creates value strings on first access. Tags of well-known
+ * header lines are shared by all parsers, so lookups with the constants from HTTPConstant,
+ * CommonConstants etc. usually need no string comparison. Tags are case-insensitive.
+ * 
  * @author icu, Alexander Koenig
  * 
  */
 public class HTTPParser
 {
-  protected static Logger   logger         = Logger.getLogger("upnp.http");
+  protected static Logger       logger         = Logger.getLogger("upnp.http");
+
+  /** Well-known header tags */
+  private static final String[] KNOWN_TAGS     = {
+      HTTPConstant.ACCEPT_LANGUAGE, CommonConstants.ACCEPT_RANGES, HTTPConstant.CACHE_CONTROL,
+      CommonConstants.CALLBACK, HTTPConstant.CONNECTION_HEADER, HTTPConstant.CONTENT_LANGUAGE,
+      CommonConstants.CONTENT_LENGTH, CommonConstants.CONTENT_RANGE, HTTPConstant.CONTENT_TYPE,
+      HTTPConstant.DATE, HTTPConstant.ETAG_HEADER, HTTPConstant.EXT, CommonConstants.HOST,
+      CommonConstants.LOCATION, HTTPConstant.MAN, HTTPConstant.MX, GENAConstant.NT, GENAConstant.NTS,
+      CommonConstants.RANGE, GENAConstant.SEQ, HTTPConstant.SERVER, GENAConstant.SID,
+      SOAPConstant.SOAPACTION, "01-" + SOAPConstant.SOAPACTION, SSDPConstant.ST, HTTPConstant.TIMEOUT,
+      HTTPConstant.TRANSFER_ENCODING, CommonConstants.UDP_CALLBACK, CommonConstants.USN,
+      HTTPConstant.X_ENCRYPTION_TAG, HTTPConstant.X_KEY_ID, HTTPConstant.X_NONCE, HTTPConstant.X_ORIGINATOR,
+      HTTPConstant.X_PERSONALIZATION_KEY_ID, HTTPConstant.X_PERSONALIZATION_PUBLIC_KEY,
+      HTTPConstant.X_PERSONALIZATION_SEQUENCE, HTTPConstant.X_PERSONALIZATION_SIGNATURE,
+      HTTPConstant.X_PUBLIC_KEY, HTTPConstant.X_SEQUENCE, HTTPConstant.X_SIGNATURE,
+      HTTPConstant.X_SYMMETRIC_KEY, HTTPConstant.X_SYMMETRIC_KEY_SIGNATURE
+                                               };
+
+  /** Hash table with the well-known tags, uses linear probing */
+  private static final String[] knownTagTable  = new String[128];
+
+  static
+  {
+    for (int i = 0; i < KNOWN_TAGS.length; i++)
+    {
+      String tag = KNOWN_TAGS[i].intern();
+      int index = getTagHash(tag) & knownTagTable.length - 1;
+      while (knownTagTable[index] != null)
+      {
+        index = index + 1 & knownTagTable.length - 1;
+      }
+      knownTagTable[index] = tag;
+    }
+  }
 
   /** Message object associated with this parser */
-  private HTTPMessageObject httpMessageObject;
+  private HTTPMessageObject     httpMessageObject;
 
   /** Method of request (GET, POST etc.) */
-  protected String          method;
+  protected String              method;
+
+  private String                hostPath;
+
+  private String                methodValue;
 
-  private String            hostPath;
+  private String                hostIP;
 
-  private String            methodValue;
+  private int                   hostPort;
 
-  private String            hostIP;
+  private int                   responseCode;
 
-  private int               hostPort;
+  private String                responseDescription;
 
-  private int               responseCode;
+  private URL                   requestURL;
 
-  private String            responseDescription;
+  /** Parsed header if parsed from a string */
+  private String                header;
 
-  private URL               requestURL;
+  /** Parsed header if parsed from received bytes */
+  private byte[]                headerData;
 
-  /** A hashtable containing all header tags, including the final colon */
-  private Hashtable         fieldTable     = new Hashtable();
+  /** Offset of the header in the received bytes */
+  private int                   headerOffset;
+
+  /** Number of parsed fields */
+  private int                   fieldCount     = 0;
+
+  /** Tags of all header lines, including the final colon */
+  private String[]              fieldTags      = new String[16];
+
+  /** Start indices of the header values */
+  private int[]                 valueStarts    = new int[16];
+
+  /** End indices of the header values */
+  private int[]                 valueEnds      = new int[16];
+
+  /** Header values that were already accessed */
+  private String[]              fieldValues    = new String[16];
 
   /** The first line has the format of a HTTP request */
-  private boolean           httpMethodLine = false;
+  private boolean               httpMethodLine = false;
 
   /** The first line has the format of a HTTP response */
-  private boolean           httpResponse   = false;
+  private boolean               httpResponse   = false;
 
   /** HTTP version */
-  private String            httpVersion    = "1.1";
+  private String                httpVersion    = "1.1";
 
   /** Parses a HTTP message header */
   public void parse(HTTPMessageObject message)
@@ -96,6 +155,53 @@ public class HTTPParser
 
   /** Parses a HTTP message header */
   public void parse(String messageHeader)
+  {
+    reset();
+    if (messageHeader == null || messageHeader.length() == 0)
+    {
+      return;
+    }
+    header = messageHeader;
+    parseHeader(messageHeader.length());
+  }
+
+  /**
+   * Parses a HTTP message header from received bytes. Bytes are interpreted like in
+   * StringHelper.byteArrayToString(). The array must not be changed while the parser is in use.
+   * 
+   * @param data
+   *          The received bytes
+   */
+  public void parse(byte[] data)
+  {
+    parse(data, 0, data != null ? data.length : 0);
+  }
+
+  /**
+   * Parses a HTTP message header from received bytes. Bytes are interpreted like in
+   * StringHelper.byteArrayToString(). The array must not be changed while the parser is in use.
+   * 
+   * @param data
+   *          The received bytes
+   * @param offset
+   *          Start of the header
+   * @param length
+   *          Length of the header
+   */
+  public void parse(byte[] data, int offset, int length)
+  {
+    reset();
+    if (data == null || length <= 0)
+    {
+      return;
+    }
+    headerData = data;
+    headerOffset = offset;
+    parseHeader(length);
+  }
+
+  /** Clears all data of a previously parsed message. */
+  private void reset()
   {
     method = null;
     hostIP = null;
@@ -104,111 +210,288 @@ public class HTTPParser
     hostPort = -1;
     responseCode = -1;
     responseDescription = null;
-    fieldTable.clear();
+    for (int i = 0; i < fieldCount; i++)
+    {
+      fieldTags[i] = null;
+      fieldValues[i] = null;
+    }
+    fieldCount = 0;
     httpMethodLine = false;
     httpResponse = false;
+    httpVersion = "1.1";
     requestURL = null;
+    header = null;
+    headerData = null;
+    headerOffset = 0;
+  }
 
-    if (messageHeader == null || messageHeader.length() == 0)
+  /** Retrieves one character of the parsed header. */
+  private char charAt(int index)
+  {
+    if (header != null)
     {
-      return;
+      return header.charAt(index);
     }
+    return (char)(headerData[headerOffset + index] & 0xFF);
+  }
 
-    StringTokenizer tokenizer = new StringTokenizer(messageHeader, CommonConstants.NEW_LINE);
+  /** Creates a string from a part of the parsed header. */
+  private String substring(int start, int end)
+  {
+    if (header != null)
+    {
+      return header.substring(start, end);
+    }
+    return StringHelper.byteArrayToString(headerData, headerOffset + start, end - start);
+  }
 
-    if (tokenizer.hasMoreTokens())
+  /**
+   * Parses all header lines. Lines are separated by CR or LF, empty lines are ignored.
+   * 
+   * @param length
+   *          The length of the header
+   */
+  private void parseHeader(int length)
+  {
+    boolean firstLine = true;
+    int lineStart = 0;
+    while (lineStart < length)
     {
-      String methodLine = tokenizer.nextToken();
-      // check for response line
-      if (methodLine.toUpperCase().startsWith(CommonConstants.HTTP_1_x))
+      // find end of line
+      int lineEnd = lineStart;
+      int colonIndex = -1;
+      char c;
+      while (lineEnd < length && (c = charAt(lineEnd)) != '\r' && c != '\n')
       {
-        // retrieve number and description
-        int codeIndex = methodLine.indexOf(" ");
-        if (codeIndex != -1 && codeIndex < methodLine.length() - 1)
+        if (c == ':' && colonIndex == -1)
         {
-          String codeString = methodLine.substring(codeIndex + 1).trim();
-          int descriptionIndex = codeString.indexOf(" ");
-          if (descriptionIndex != -1 && descriptionIndex < codeString.length() - 1)
-          {
-            try
-            {
-              responseCode = Integer.parseInt(codeString.substring(0, descriptionIndex));
-              responseDescription = codeString.substring(descriptionIndex + 1).trim();
-              httpResponse = true;
-            } catch (Exception e)
-            {
-            }
-          }
+          colonIndex = lineEnd;
         }
-      } else
+        lineEnd++;
+      }
+      if (lineEnd > lineStart)
       {
-        // handle request
-        int pathIndex = methodLine.indexOf(" ");
-        if (pathIndex != -1 && pathIndex < methodLine.length() - 1)
+        if (firstLine)
         {
-          // extract method
-          method = methodLine.substring(0, pathIndex);
-          // extract path
-          String pathString = methodLine.substring(pathIndex + 1).trim();
-          int httpIndex = pathString.indexOf(" ");
-          if (httpIndex != -1 && httpIndex < pathString.length() - 1)
+          parseMethodLine(substring(lineStart, lineEnd));
+          firstLine = false;
+        } else if (colonIndex != -1)
+        {
+          // tag includes the final colon, empty tags (e.g., EXT:) have an empty value
+          addField(lineStart, colonIndex + 1, lineEnd);
+        }
+      }
+      lineStart = lineEnd + 1;
+    }
+  }
+
+  /** Parses the first line of a HTTP message. */
+  private void parseMethodLine(String methodLine)
+  {
+    // check for response line
+    if (methodLine.regionMatches(true, 0, CommonConstants.HTTP_1_x, 0, CommonConstants.HTTP_1_x.length()))
+    {
+      // retrieve number and description
+      int codeIndex = methodLine.indexOf(" ");
+      if (codeIndex != -1 && codeIndex < methodLine.length() - 1)
+      {
+        String codeString = methodLine.substring(codeIndex + 1).trim();
+        int descriptionIndex = codeString.indexOf(" ");
+        if (descriptionIndex != -1 && descriptionIndex < codeString.length() - 1)
+        {
+          try
           {
-            hostPath = pathString.substring(0, httpIndex);
-            methodValue = hostPath;
-            httpMethodLine = true;
-          }
-          // extract version
-          int index = methodLine.lastIndexOf("/");
-          if (index != -1 && index < methodLine.length() - 1)
+            responseCode = Integer.parseInt(codeString.substring(0, descriptionIndex));
+            responseDescription = codeString.substring(descriptionIndex + 1).trim();
+            httpResponse = true;
+          } catch (Exception e)
           {
-            httpVersion = methodLine.substring(index + 1);
           }
         }
       }
-      // go through all header lines and store values
-      while (tokenizer.hasMoreTokens())
+    } else
+    {
+      // handle request
+      int pathIndex = methodLine.indexOf(" ");
+      if (pathIndex != -1 && pathIndex < methodLine.length() - 1)
       {
-        String line = tokenizer.nextToken();
-        int colonIndex = line.indexOf(":");
-        if (colonIndex != -1)
+        // extract method
+        method = methodLine.substring(0, pathIndex);
+        // extract path
+        String pathString = methodLine.substring(pathIndex + 1).trim();
+        int httpIndex = pathString.indexOf(" ");
+        if (httpIndex != -1 && httpIndex < pathString.length() - 1)
         {
-          // assume empty tag (e.g., EXT:)
-          // store tag with colon
-          String tag = line.toUpperCase();
-          // store value
-          String value = "";
-          // check for non-empty tags
-          if (colonIndex < line.length() - 1)
-          {
-            tag = line.substring(0, colonIndex + 1).toUpperCase();
-            value = line.substring(colonIndex + 1).trim();
-          }
+          hostPath = pathString.substring(0, httpIndex);
+          methodValue = hostPath;
+          httpMethodLine = true;
+        }
+        // extract version
+        int index = methodLine.lastIndexOf("/");
+        if (index != -1 && index < methodLine.length() - 1)
+        {
+          httpVersion = methodLine.substring(index + 1);
+        }
+      }
+    }
+  }
 
-          // System.out.println("Store in table: " + tag + "->" + value);
-          fieldTable.put(tag, value);
+  /**
+   * Stores one header line.
+   * 
+   * @param tagStart
+   *          Start of the tag
+   * @param tagEnd
+   *          End of the tag, after the colon
+   * @param lineEnd
+   *          End of the line
+   */
+  private void addField(int tagStart, int tagEnd, int lineEnd)
+  {
+    if (fieldCount == fieldTags.length)
+    {
+      int newLength = fieldCount * 2;
+      String[] newFieldTags = new String[newLength];
+      int[] newValueStarts = new int[newLength];
+      int[] newValueEnds = new int[newLength];
+      String[] newFieldValues = new String[newLength];
+      System.arraycopy(fieldTags, 0, newFieldTags, 0, fieldCount);
+      System.arraycopy(valueStarts, 0, newValueStarts, 0, fieldCount);
+      System.arraycopy(valueEnds, 0, newValueEnds, 0, fieldCount);
+      System.arraycopy(fieldValues, 0, newFieldValues, 0, fieldCount);
+      fieldTags = newFieldTags;
+      valueStarts = newValueStarts;
+      valueEnds = newValueEnds;
+      fieldValues = newFieldValues;
+    }
+    // trim value
+    int valueStart = tagEnd;
+    int valueEnd = lineEnd;
+    while (valueStart < valueEnd && charAt(valueStart) <= ' ')
+    {
+      valueStart++;
+    }
+    while (valueEnd > valueStart && charAt(valueEnd - 1) <= ' ')
+    {
+      valueEnd--;
+    }
+    String tag = getTag(tagStart, tagEnd);
+    fieldTags[fieldCount] = tag;
+    valueStarts[fieldCount] = valueStart;
+    valueEnds[fieldCount] = valueEnd;
+    fieldValues[fieldCount] = null;
+    fieldCount++;
+
+    // handle special tags
+    if (tag == CommonConstants.HOST)
+    {
+      String value = getFieldValue(fieldCount - 1);
+      int portIndex = value.indexOf(":");
+      if (portIndex != -1 && portIndex < value.length() - 1)
+      {
+        hostIP = value.substring(0, portIndex);
+        try
+        {
+          hostPort = Integer.parseInt(value.substring(portIndex + 1).trim());
+        } catch (Exception e)
+        {
+        }
+      } else
+      {
+        hostIP = value;
+        hostPort = CommonConstants.HTTP_DEFAULT_PORT;
+      }
+    }
+  }
 
-          // handle special tags
-          if (tag.equals(CommonConstants.HOST))
-          {
-            int portIndex = value.indexOf(":");
-            if (portIndex != -1 && portIndex < value.length() - 1)
-            {
-              hostIP = value.substring(0, portIndex);
-              try
-              {
-                hostPort = Integer.parseInt(value.substring(portIndex + 1).trim());
-              } catch (Exception e)
-              {
-              }
-            } else
-            {
-              hostIP = value;
-              hostPort = CommonConstants.HTTP_DEFAULT_PORT;
-            }
-          }
+  /** Retrieves the upper case tag for a part of the header. Well-known tags are shared. */
+  private String getTag(int start, int end)
+  {
+    int length = end - start;
+    int hash = 0;
+    for (int i = start; i < end; i++)
+    {
+      hash = hash * 31 + toUpperCase(charAt(i));
+    }
+    int index = (hash ^ hash >>> 16) & knownTagTable.length - 1;
+    while (knownTagTable[index] != null)
+    {
+      String knownTag = knownTagTable[index];
+      if (knownTag.length() == length)
+      {
+        int i = 0;
+        while (i < length && knownTag.charAt(i) == toUpperCase(charAt(start + i)))
+        {
+          i++;
         }
+        if (i == length)
+        {
+          return knownTag;
+        }
+      }
+      index = index + 1 & knownTagTable.length - 1;
+    }
+    char[] result = new char[length];
+    for (int i = 0; i < length; i++)
+    {
+      result[i] = Character.toUpperCase(charAt(start + i));
+    }
+    return new String(result);
+  }
+
+  /** Calculates the hash for a well-known tag, like in getTag(). */
+  private static int getTagHash(String tag)
+  {
+    int hash = 0;
+    for (int i = 0; i < tag.length(); i++)
+    {
+      hash = hash * 31 + toUpperCase(tag.charAt(i));
+    }
+    return hash ^ hash >>> 16;
+  }
+
+  /** Converts ASCII characters to upper case. */
+  private static char toUpperCase(char c)
+  {
+    return c >= 'a' && c <= 'z' ? (char)(c - 32) : c;
+  }
+
+  /**
+   * Retrieves the index of the last field with a certain tag.
+   * 
+   * @param tag
+   *          The tag, including the final colon
+   * 
+   * @return The field index or -1
+   */
+  private int getFieldIndex(String tag)
+  {
+    // known tags are shared, so an identity check suffices in most cases
+    for (int i = fieldCount - 1; i >= 0; i--)
+    {
+      if (fieldTags[i] == tag)
+      {
+        return i;
       }
     }
+    for (int i = fieldCount - 1; i >= 0; i--)
+    {
+      if (fieldTags[i].equalsIgnoreCase(tag))
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Retrieves the value of a field, creates the value string if needed. */
+  private String getFieldValue(int index)
+  {
+    if (fieldValues[index] == null)
+    {
+      fieldValues[index] = substring(valueStarts[index], valueEnds[index]);
+    }
+    return fieldValues[index];
   }
 
   /**
@@ -591,31 +874,33 @@ public class HTTPParser
   /** Checks the existence of a certain tag. */
   public boolean hasField(String tag)
   {
-    return fieldTable.containsKey(tag.toUpperCase());
+    return getFieldIndex(tag) != -1;
   }
 
   /** Retrieves the value for a certain tag. */
   public String getValue(String tag)
   {
-    if (!fieldTable.containsKey(tag))
+    int index = getFieldIndex(tag);
+    if (index == -1)
     {
       return null;
     }
 
-    return fieldTable.get(tag.toUpperCase()).toString();
+    return getFieldValue(index);
   }
 
   /** Retrieves the numeric value for a certain tag. */
   public long getNumericValue(String tag)
   {
-    if (!fieldTable.containsKey(tag))
+    String value = getValue(tag);
+    if (value == null)
     {
       return -1;
     }
 
     try
     {
-      return Long.parseLong(fieldTable.get(tag.toUpperCase()).toString());
+      return Long.parseLong(value);
     } catch (Exception e)
     {
 
@@ -626,7 +911,8 @@ public class HTTPParser
   /** Checks if the value for a certain tag is a numeric value. */
   public boolean isNumericValue(String tag)
   {
-    if (!fieldTable.containsKey(tag))
+    String value = getValue(tag);
+    if (value == null)
     {
       return false;
     }
@@ -634,7 +920,7 @@ public class HTTPParser
     // try to convert to number
     try
     {
-      Long.parseLong(fieldTable.get(tag.toUpperCase()).toString());
+      Long.parseLong(value);
       return true;
     } catch (Exception e)
     {
@@ -648,14 +934,13 @@ public class HTTPParser
    */
   public boolean getBooleanValue(String tag)
   {
-    if (!fieldTable.containsKey(tag))
+    String value = getValue(tag);
+    if (value == null)
     {
       return false;
     }
 
-    String value = fieldTable.get(tag.toUpperCase()).toString().trim();
-
-    return StringHelper.stringToBoolean(value);
+    return StringHelper.stringToBoolean(value.trim());
   }
 
   /**
@@ -680,8 +965,8 @@ public class HTTPParser
   /** Checks if the header contains a Connection: Close header. */
   public boolean hasConnectionCloseTag()
   {
-    return fieldTable.containsKey(HTTPConstant.CONNECTION_HEADER) &&
-      ((String)fieldTable.get(HTTPConstant.CONNECTION_HEADER)).equalsIgnoreCase("close");
+    String value = getValue(HTTPConstant.CONNECTION_HEADER);
+    return value != null && value.equalsIgnoreCase("close");
   }
 
   /**
@@ -0,0 +1,414 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import de.fraunhofer.fokus.upnp.configuration.HTTPDefaults;
+import de.fraunhofer.fokus.upnp.util.CommonConstants;
+import de.fraunhofer.fokus.upnp.util.network.HTTPStreamingBody;
+import de.fraunhofer.fokus.upnp.util.network.IPHelper;
+
+/**
+ * This class holds the state of one client connection that is handled by a selector based
+ * HTTPServer. Received data is collected until a complete request is available. The request is
+ * then processed by one of the worker threads of the server.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class HTTPSelectorConnection
+{
+
+  /** Channel to the client */
+  private SocketChannel     socketChannel;
+
+  /** Key of the channel in the server selector */
+  private SelectionKey      selectionKey;
+
+  /** Address of the client */
+  private InetSocketAddress remoteAddress;
+
+  /** Address of the server */
+  private InetSocketAddress localAddress;
+
+  /** Data received so far */
+  private byte[]            receiveBuffer       = new byte[CommonConstants.HTTP_BUFFER_READ_SIZE];
+
+  /** Number of valid bytes in the receive buffer */
+  private int               receiveBufferLength = 0;
+
+  /** Length of the first complete request in the receive buffer or -1 */
+  private int               requestLength       = -1;
+
+  /** Time of last received data */
+  private long              lastReceiveTime     = System.currentTimeMillis();
+
+  /** Flag that a request of this connection is currently processed by a worker thread */
+  private boolean           processing          = false;
+
+  /** Number of handled requests */
+  private int               requestCount        = 0;
+
+  private boolean           closed              = false;
+
+  /**
+   * Creates a new instance of HTTPSelectorConnection.
+   * 
+   * @param socketChannel
+   *          The non-blocking channel to the client
+   */
+  public HTTPSelectorConnection(SocketChannel socketChannel)
+  {
+    this.socketChannel = socketChannel;
+    remoteAddress = (InetSocketAddress)socketChannel.socket().getRemoteSocketAddress();
+    localAddress =
+      new InetSocketAddress(socketChannel.socket().getLocalAddress(), socketChannel.socket().getLocalPort());
+  }
+
+  /**
+   * Reads all data that is currently available on the channel.
+   * 
+   * @param readBuffer
+   *          A buffer that is used to read from the channel
+   * 
+   * @return The number of read bytes or -1 if the client closed the connection
+   * 
+   * @throws IOException
+   *           if the channel could not be read
+   */
+  public int readAvailableData(ByteBuffer readBuffer) throws IOException
+  {
+    int totalBytesRead = 0;
+    int bytesRead = 0;
+    do
+    {
+      readBuffer.clear();
+      bytesRead = socketChannel.read(readBuffer);
+      if (bytesRead > 0)
+      {
+        readBuffer.flip();
+        ensureCapacity(receiveBufferLength + bytesRead);
+        readBuffer.get(receiveBuffer, receiveBufferLength, bytesRead);
+        receiveBufferLength += bytesRead;
+        totalBytesRead += bytesRead;
+      }
+    } while (bytesRead > 0);
+
+    if (totalBytesRead > 0)
+    {
+      lastReceiveTime = System.currentTimeMillis();
+    }
+    if (bytesRead == -1 && totalBytesRead == 0)
+    {
+      return -1;
+    }
+    return totalBytesRead;
+  }
+
+  /**
+   * Checks if the received data contains at least one complete request.
+   * 
+   * @return True if a request can be processed, false otherwise
+   * 
+   * @throws HTTPParseException
+   *           if the received data is not a valid request
+   */
+  public boolean hasCompleteRequest() throws HTTPParseException
+  {
+    if (requestLength == -1 && receiveBufferLength > 0)
+    {
+      requestLength = HTTPMessage.getServerMessageLength(receiveBuffer, receiveBufferLength);
+    }
+    return requestLength != -1;
+  }
+
+  /**
+   * Removes the first complete request from the receive buffer. Data that belongs to consecutive
+   * requests is kept.
+   * 
+   * @return The data of the first complete request or null
+   */
+  public byte[] removeRequest()
+  {
+    if (requestLength == -1)
+    {
+      return null;
+    }
+    byte[] result = new byte[requestLength];
+    System.arraycopy(receiveBuffer, 0, result, 0, requestLength);
+
+    receiveBufferLength -= requestLength;
+    System.arraycopy(receiveBuffer, requestLength, receiveBuffer, 0, receiveBufferLength);
+    requestLength = -1;
+    requestCount++;
+
+    return result;
+  }
+
+  /**
+   * Writes data to the client. The calling thread is blocked until all data has been written.
+   * 
+   * @param data
+   *          The data that should be sent
+   * @param writeSelector
+   *          A selector that is owned by the calling thread and used to wait for a writable channel
+   * 
+   * @throws IOException
+   *           if the data could not be written
+   */
+  public void writeData(byte[] data, Selector writeSelector) throws IOException
+  {
+    ByteBuffer writeBuffer = ByteBuffer.wrap(data);
+    SelectionKey writeKey = null;
+    try
+    {
+      while (writeBuffer.hasRemaining())
+      {
+        if (socketChannel.write(writeBuffer) == 0)
+        {
+          writeKey = waitForWritableChannel(writeKey, writeSelector);
+        }
+      }
+    } finally
+    {
+      releaseWriteKey(writeKey, writeSelector);
+    }
+  }
+
+  /**
+   * Writes a streaming body to the client. File regions are transferred directly from the file
+   * channel to the socket channel. The calling thread is blocked until the whole body has been
+   * written.
+   * 
+   * @param streamingBody
+   *          The body that should be sent
+   * @param writeSelector
+   *          A selector that is owned by the calling thread and used to wait for a writable channel
+   * 
+   * @throws IOException
+   *           if the body could not be written
+   */
+  public void writeStreamingBody(HTTPStreamingBody streamingBody, Selector writeSelector) throws IOException
+  {
+    FileChannel fileChannel = streamingBody.openFileChannel();
+    SelectionKey writeKey = null;
+    try
+    {
+      long position = 0;
+      while (position < streamingBody.getLength())
+      {
+        long written = streamingBody.writeTo(socketChannel, fileChannel, position);
+        if (written == 0)
+        {
+          writeKey = waitForWritableChannel(writeKey, writeSelector);
+        }
+        position += written;
+      }
+    } finally
+    {
+      fileChannel.close();
+      releaseWriteKey(writeKey, writeSelector);
+    }
+  }
+
+  /**
+   * Waits until the socket buffer accepts more data.
+   * 
+   * @param writeKey
+   *          The key of the channel in the write selector or null
+   * @param writeSelector
+   *          The write selector
+   * 
+   * @return The key of the channel in the write selector
+   * 
+   * @throws IOException
+   *           if the channel did not become writable in time
+   */
+  private SelectionKey waitForWritableChannel(SelectionKey writeKey, Selector writeSelector) throws IOException
+  {
+    if (writeKey == null)
+    {
+      writeKey = socketChannel.register(writeSelector, SelectionKey.OP_WRITE);
+    }
+    if (writeSelector.select(HTTPDefaults.TIMEOUT_FOR_RESEND * 1000) == 0)
+    {
+      throw new IOException("Timeout while writing to " + remoteAddress);
+    }
+    writeSelector.selectedKeys().clear();
+
+    return writeKey;
+  }
+
+  /** Deregisters the channel from a write selector. */
+  private void releaseWriteKey(SelectionKey writeKey, Selector writeSelector) throws IOException
+  {
+    if (writeKey != null)
+    {
+      writeKey.cancel();
+      writeSelector.selectNow();
+    }
+  }
+
+  /** Closes the connection. */
+  public void close()
+  {
+    if (closed)
+    {
+      return;
+    }
+    closed = true;
+    if (selectionKey != null)
+    {
+      selectionKey.cancel();
+    }
+    try
+    {
+      socketChannel.close();
+    } catch (Exception e)
+    {
+    }
+  }
+
+  /** Ensures that the receive buffer can hold a certain number of bytes. */
+  private void ensureCapacity(int size)
+  {
+    if (size > receiveBuffer.length)
+    {
+      byte[] newReceiveBuffer = new byte[Math.max(size, receiveBuffer.length * 2)];
+      System.arraycopy(receiveBuffer, 0, newReceiveBuffer, 0, receiveBufferLength);
+      receiveBuffer = newReceiveBuffer;
+    }
+  }
+
+  /**
+   * Retrieves the selectionKey.
+   * 
+   * @return The selectionKey
+   */
+  public SelectionKey getSelectionKey()
+  {
+    return selectionKey;
+  }
+
+  /**
+   * Sets the selectionKey.
+   * 
+   * @param selectionKey
+   *          The new value for selectionKey
+   */
+  public void setSelectionKey(SelectionKey selectionKey)
+  {
+    this.selectionKey = selectionKey;
+  }
+
+  /**
+   * Retrieves the address of the client.
+   * 
+   * @return The remoteAddress
+   */
+  public InetSocketAddress getRemoteAddress()
+  {
+    return remoteAddress;
+  }
+
+  /**
+   * Retrieves the address of the server.
+   * 
+   * @return The localAddress
+   */
+  public InetSocketAddress getLocalAddress()
+  {
+    return localAddress;
+  }
+
+  /**
+   * Retrieves the lastReceiveTime.
+   * 
+   * @return The lastReceiveTime
+   */
+  public long getLastReceiveTime()
+  {
+    return lastReceiveTime;
+  }
+
+  /**
+   * Retrieves the processing flag.
+   * 
+   * @return True if a request is currently processed by a worker thread
+   */
+  public boolean isProcessing()
+  {
+    return processing;
+  }
+
+  /**
+   * Sets the processing flag.
+   * 
+   * @param processing
+   *          The new value for processing
+   */
+  public void setProcessing(boolean processing)
+  {
+    this.processing = processing;
+  }
+
+  /**
+   * Retrieves the requestCount.
+   * 
+   * @return The number of handled requests
+   */
+  public int getRequestCount()
+  {
+    return requestCount;
+  }
+
+  /**
+   * Checks if the connection was closed.
+   * 
+   * @return True if the connection is closed
+   */
+  public boolean isClosed()
+  {
+    return closed;
+  }
+
+  /** Returns a short description of the connection */
+  public String toString()
+  {
+    return "HTTPSelectorConnection [" + IPHelper.toString(localAddress) + " <- " + IPHelper.toString(remoteAddress) +
+      "]";
+  }
+
+}
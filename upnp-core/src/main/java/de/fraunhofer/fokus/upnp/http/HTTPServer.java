@@ -27,10 +27,17 @@
 */
 package de.fraunhofer.fokus.upnp.http;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
 import java.util.Random;
 import java.util.Vector;
 
@@ -38,6 +45,7 @@ import org.apache.log4j.Logger;
 
 import de.fraunhofer.fokus.upnp.configuration.HTTPDefaults;
 import de.fraunhofer.fokus.upnp.core.UPnPConstant;
+import de.fraunhofer.fokus.upnp.util.CommonConstants;
 import de.fraunhofer.fokus.upnp.util.ThreadHelper;
 import de.fraunhofer.fokus.upnp.util.network.IPHelper;
 
@@ -46,6 +54,10 @@ import de.fraunhofer.fokus.upnp.util.network.IPHelper;
  * called upon each received request. Every time a client is found a new HTTPServerThread is
  * started.
  * 
+ * Alternatively, the server can run in selector mode. In this mode, all connections are
+ * multiplexed over one selector and requests are processed by a fixed number of
+ * HTTPServerWorkerThreads. Idle persistent connections therefore do not need their own thread.
+ * 
  * @author tje, Alexander Koenig
  * 
  */
@@ -55,35 +67,62 @@ public class HTTPServer extends Thread
   /**
    * HTTPServer logger
    */
-  private static Logger         logger           = Logger.getLogger("upnp.http");
+  private static Logger         logger                  = Logger.getLogger("upnp.http");
 
   /** Number of servers that have an established connection. */
   private static int            activeServerThreads;
 
   /** Server socket that accepts connections */
-  private ServerSocket          serverSocket     = null;
+  private ServerSocket          serverSocket            = null;
 
   /** Vector with all active server threads */
-  private Vector                serverThreadList = new Vector();
+  private Vector                serverThreadList        = new Vector();
 
   /** Port used by the server */
   private int                   port;
 
   /** Server is up and running */
-  private boolean               isRunning        = false;
+  private boolean               isRunning               = false;
 
   /** True if the server needs a specific port */
-  private boolean               fixedPort        = false;
+  private boolean               fixedPort               = false;
 
   /** Set to bound socket to a specific address */
-  private InetAddress           localHostAddress = null;
+  private InetAddress           localHostAddress        = null;
 
   /** The message processor for incoming messages */
   private IHTTPMessageProcessor httpMessageProcessor;
 
-  private boolean               terminateThread  = false;
+  /** Flag to use a selector and a worker pool instead of one thread per connection */
+  private boolean               useSelector             = false;
+
+  /** Channel of the server socket in selector mode */
+  private ServerSocketChannel   serverSocketChannel;
+
+  /** Selector for all connections in selector mode */
+  private Selector              selector;
+
+  /** Key of the server socket channel in selector mode */
+  private SelectionKey          serverSelectionKey;
+
+  /** Worker threads in selector mode */
+  private Vector                workerThreadList        = new Vector();
+
+  /** Connections with complete requests that wait for a worker thread */
+  private Vector                pendingConnectionList   = new Vector();
+
+  /** Connections that were handled by a worker thread */
+  private Vector                processedConnectionList = new Vector();
 
-  private boolean               terminated       = false;
+  /** Number of open connections in selector mode */
+  private int                   selectorConnectionCount = 0;
+
+  /** Time of last check for idle connections */
+  private long                  lastIdleCheckTime       = System.currentTimeMillis();
+
+  private boolean               terminateThread         = false;
+
+  private boolean               terminated              = false;
 
   /**
    * Creates and starts a new HTTP server bound to a specific address.
@@ -110,6 +149,38 @@ public class HTTPServer extends Thread
     InetAddress localHostAddress,
     IHTTPMessageProcessor httpMessageProcessor,
     int IPVersion)
+  {
+    this(port, fixedPort, localHostAddress, httpMessageProcessor, IPVersion, false);
+  }
+
+  /**
+   * Creates and starts a new HTTP server bound to a specific address.
+   * 
+   * @param port
+   *          Port for the server
+   * @param fixedPort
+   *          True to insist on port
+   * @param localHostAddress
+   *          The address the socket should be bound to
+   * @param httpMessageProcessor
+   *          message httpMessageProcessor
+   * @param IPVersion
+   *          4 or 6
+   * @param useSelector
+   *          True to handle all connections with one selector and a fixed number of worker threads
+   * 
+   * @throws NullPointerException
+   *           if httpMessageProcessor is null
+   * @throws IllegalArgumentException
+   *           if IPVersion is neither 4 nor 6
+   * 
+   */
+  public HTTPServer(int port,
+    boolean fixedPort,
+    InetAddress localHostAddress,
+    IHTTPMessageProcessor httpMessageProcessor,
+    int IPVersion,
+    boolean useSelector)
   {
     super("HTTPServer [" + port + ", " + IPVersion + "]");
     if (httpMessageProcessor == null)
@@ -124,6 +195,7 @@ public class HTTPServer extends Thread
     this.httpMessageProcessor = httpMessageProcessor;
     this.fixedPort = fixedPort;
     this.localHostAddress = localHostAddress;
+    this.useSelector = useSelector;
 
     startServer();
   }
@@ -181,9 +253,7 @@ public class HTTPServer extends Thread
     {
       try
       {
-        serverSocket = new ServerSocket(port, 0, localHostAddress);
-        // set timeout to simplify thread termination
-        serverSocket.setSoTimeout(HTTPDefaults.SERVER_ACCEPT_TIMEOUT);
+        serverSocket = openServerSocket();
       } catch (Exception e)
       {
         serverSocket = null;
@@ -199,9 +269,7 @@ public class HTTPServer extends Thread
       {
         try
         {
-          serverSocket = new ServerSocket(port, 0, localHostAddress);
-          // set timeout to simplify thread termination
-          serverSocket.setSoTimeout(HTTPDefaults.SERVER_ACCEPT_TIMEOUT);
+          serverSocket = openServerSocket();
         } catch (Exception e)
         {
           serverSocket = null;
@@ -221,6 +289,24 @@ public class HTTPServer extends Thread
     }
     // update port in name
     setName("HTTPServer [" + localHostAddress.getHostAddress() + ":" + port + "]");
+    if (useSelector)
+    {
+      try
+      {
+        selector = Selector.open();
+        serverSelectionKey = serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+      } catch (Exception e)
+      {
+        logger.fatal("cannot open selector: " + e.getMessage());
+        return;
+      }
+      for (int i = 0; i < HTTPDefaults.SELECTOR_SERVER_WORKER_THREADS; i++)
+      {
+        HTTPServerWorkerThread workerThread = new HTTPServerWorkerThread(this, httpMessageProcessor, i);
+        workerThreadList.add(workerThread);
+        workerThread.start();
+      }
+    }
     // start thread
     start();
     // wait for thread to start running
@@ -235,6 +321,39 @@ public class HTTPServer extends Thread
     }
   }
 
+  /**
+   * Opens the server socket for the current port.
+   * 
+   * @return The bound server socket
+   * 
+   * @throws IOException
+   *           if the socket could not be bound
+   */
+  private ServerSocket openServerSocket() throws IOException
+  {
+    if (useSelector)
+    {
+      ServerSocketChannel channel = ServerSocketChannel.open();
+      try
+      {
+        channel.socket().bind(new InetSocketAddress(localHostAddress, port));
+        channel.configureBlocking(false);
+      } catch (IOException e)
+      {
+        channel.close();
+        throw e;
+      }
+      serverSocketChannel = channel;
+
+      return channel.socket();
+    }
+    ServerSocket result = new ServerSocket(port, 0, localHostAddress);
+    // set timeout to simplify thread termination
+    result.setSoTimeout(HTTPDefaults.SERVER_ACCEPT_TIMEOUT);
+
+    return result;
+  }
+
   /** Sets a name for the HTTP server */
   public void setServerName(String name)
   {
@@ -290,6 +409,23 @@ public class HTTPServer extends Thread
     return isRunning;
   }
 
+  /** Checks if the server handles its connections with a selector and a worker pool */
+  public boolean isSelectorServer()
+  {
+    return useSelector;
+  }
+
+  /**
+   * Retrieves the number of open connections. In thread mode, this is the number of active server
+   * threads.
+   * 
+   * @return The number of open connections
+   */
+  public int getConnectionCount()
+  {
+    return useSelector ? selectorConnectionCount : serverThreadList.size();
+  }
+
   /** Used internally to notify that a new server thread has been created */
   protected synchronized void addConnection(HTTPServerThread thread)
   {
@@ -304,10 +440,59 @@ public class HTTPServer extends Thread
     activeServerThreads--;
   }
 
+  /**
+   * Used by worker threads to wait for a connection with a complete request.
+   * 
+   * @param timeout
+   *          Maximum time to wait in milliseconds
+   * 
+   * @return The connection or null if no request is pending
+   */
+  protected HTTPSelectorConnection waitForPendingConnection(long timeout)
+  {
+    synchronized(pendingConnectionList)
+    {
+      if (pendingConnectionList.size() == 0 && !terminateThread)
+      {
+        try
+        {
+          pendingConnectionList.wait(timeout);
+        } catch (InterruptedException e)
+        {
+        }
+      }
+      if (pendingConnectionList.size() > 0)
+      {
+        return (HTTPSelectorConnection)pendingConnectionList.remove(0);
+      }
+    }
+    return null;
+  }
+
+  /** Used by worker threads to hand a processed connection back to the selector. */
+  protected void connectionProcessed(HTTPSelectorConnection connection)
+  {
+    processedConnectionList.add(connection);
+    selector.wakeup();
+  }
+
+  /** Wakes up all worker threads that wait for pending connections. */
+  protected void wakeupWorkerThreads()
+  {
+    synchronized(pendingConnectionList)
+    {
+      pendingConnectionList.notifyAll();
+    }
+  }
+
   /** Terminates the server. */
   public void terminate()
   {
     terminateThread = true;
+    if (selector != null)
+    {
+      selector.wakeup();
+    }
     // terminate all pending threads
     if (serverThreadList.size() > 0)
     {
@@ -335,6 +520,26 @@ public class HTTPServer extends Thread
   public void run()
   {
     isRunning = true;
+    if (useSelector)
+    {
+      runSelector();
+    } else
+    {
+      runAccept();
+    }
+    try
+    {
+      serverSocket.close();
+    } catch (Exception e)
+    {
+    }
+    terminated = true;
+    isRunning = false;
+  }
+
+  /** Accepts clients and starts a new server thread for each client. */
+  private void runAccept()
+  {
     boolean acceptError = false;
     while (!terminateThread)
     {
@@ -373,14 +578,182 @@ public class HTTPServer extends Thread
       // always try to sleep some time to limit processor usage
       ThreadHelper.sleep(50);
     }
+  }
+
+  /** Handles all connections with one selector until the server is terminated. */
+  private void runSelector()
+  {
+    // reused for all read operations
+    ByteBuffer readBuffer = ByteBuffer.allocateDirect(CommonConstants.HTTP_BUFFER_READ_SIZE);
+    while (!terminateThread)
+    {
+      try
+      {
+        handleProcessedConnections();
+        // stop accepting if too many clients are connected
+        serverSelectionKey.interestOps(selectorConnectionCount < HTTPDefaults.MAX_SELECTOR_SERVER_CONNECTIONS
+          ? SelectionKey.OP_ACCEPT : 0);
+
+        selector.select(HTTPDefaults.SELECTOR_SERVER_SELECT_TIMEOUT);
+
+        Iterator keys = selector.selectedKeys().iterator();
+        while (keys.hasNext())
+        {
+          SelectionKey key = (SelectionKey)keys.next();
+          keys.remove();
+          if (!key.isValid())
+          {
+            continue;
+          }
+          if (key.isAcceptable())
+          {
+            acceptConnections();
+          } else if (key.isReadable())
+          {
+            readConnection((HTTPSelectorConnection)key.attachment(), readBuffer);
+          }
+        }
+        if (System.currentTimeMillis() - lastIdleCheckTime > HTTPDefaults.SELECTOR_SERVER_SELECT_TIMEOUT)
+        {
+          lastIdleCheckTime = System.currentTimeMillis();
+          closeIdleConnections(false);
+        }
+      } catch (Exception e)
+      {
+        logger.error("Error in selector loop: " + e.getMessage());
+      }
+    }
+    // terminate worker threads
+    for (int i = 0; i < workerThreadList.size(); i++)
+    {
+      ((HTTPServerWorkerThread)workerThreadList.elementAt(i)).terminate();
+    }
+    handleProcessedConnections();
+    closeIdleConnections(true);
     try
     {
-      serverSocket.close();
+      selector.close();
     } catch (Exception e)
     {
     }
-    terminated = true;
-    isRunning = false;
+  }
+
+  /** Accepts all pending clients in selector mode. */
+  private void acceptConnections() throws IOException
+  {
+    SocketChannel socketChannel = null;
+    while (selectorConnectionCount < HTTPDefaults.MAX_SELECTOR_SERVER_CONNECTIONS &&
+      (socketChannel = serverSocketChannel.accept()) != null)
+    {
+      socketChannel.configureBlocking(false);
+      socketChannel.socket().setTcpNoDelay(true);
+      HTTPSelectorConnection connection = new HTTPSelectorConnection(socketChannel);
+      connection.setSelectionKey(socketChannel.register(selector, SelectionKey.OP_READ, connection));
+      selectorConnectionCount++;
+    }
+  }
+
+  /** Reads available data for one connection and dispatches complete requests to the worker threads. */
+  private void readConnection(HTTPSelectorConnection connection, ByteBuffer readBuffer)
+  {
+    try
+    {
+      if (connection.readAvailableData(readBuffer) == -1)
+      {
+        closeConnection(connection);
+        return;
+      }
+      dispatchCompleteRequest(connection);
+    } catch (Exception e)
+    {
+      logger.warn("Close connection " + connection.toString() + ": " + e.getMessage());
+      closeConnection(connection);
+    }
+  }
+
+  /**
+   * Hands a connection to the worker threads if it contains a complete request.
+   * 
+   * @param connection
+   *          The connection
+   * 
+   * @throws HTTPParseException
+   *           if the received data is invalid
+   */
+  private void dispatchCompleteRequest(HTTPSelectorConnection connection) throws HTTPParseException
+  {
+    if (connection.hasCompleteRequest())
+    {
+      // no further reads until the request is processed
+      connection.getSelectionKey().interestOps(0);
+      connection.setProcessing(true);
+      synchronized(pendingConnectionList)
+      {
+        pendingConnectionList.add(connection);
+        pendingConnectionList.notify();
+      }
+    } else
+    {
+      connection.getSelectionKey().interestOps(SelectionKey.OP_READ);
+    }
+  }
+
+  /** Rearms connections that were handled by a worker thread. */
+  private void handleProcessedConnections()
+  {
+    while (processedConnectionList.size() > 0)
+    {
+      HTTPSelectorConnection connection = (HTTPSelectorConnection)processedConnectionList.remove(0);
+      connection.setProcessing(false);
+      if (connection.isClosed())
+      {
+        selectorConnectionCount--;
+      } else
+      {
+        try
+        {
+          // pipelined requests may already be complete
+          dispatchCompleteRequest(connection);
+        } catch (Exception e)
+        {
+          closeConnection(connection);
+        }
+      }
+    }
+  }
+
+  /**
+   * Closes connections that did not receive data for a certain time.
+   * 
+   * @param closeAll
+   *          True to close all connections that are not processed
+   */
+  private void closeIdleConnections(boolean closeAll)
+  {
+    Iterator keys = selector.keys().iterator();
+    while (keys.hasNext())
+    {
+      SelectionKey key = (SelectionKey)keys.next();
+      HTTPSelectorConnection connection = (HTTPSelectorConnection)key.attachment();
+      if (connection != null &&
+        !connection.isProcessing() &&
+        (closeAll || System.currentTimeMillis() - connection.getLastReceiveTime() > HTTPDefaults.SERVER_THREAD_TIMEOUT))
+      {
+        logger.info("Close idle connection " + connection.toString() + ", handled " + connection.getRequestCount() +
+          " request(s)");
+        closeConnection(connection);
+      }
+    }
+  }
+
+  /** Closes a connection in selector mode. */
+  private void closeConnection(HTTPSelectorConnection connection)
+  {
+    if (!connection.isClosed())
+    {
+      connection.close();
+      selectorConnectionCount--;
+    }
   }
 
 }
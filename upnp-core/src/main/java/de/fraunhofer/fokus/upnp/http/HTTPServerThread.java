@@ -36,6 +36,7 @@ import org.apache.log4j.Logger;
 import de.fraunhofer.fokus.upnp.configuration.HTTPDefaults;
 import de.fraunhofer.fokus.upnp.util.StringHelper;
 import de.fraunhofer.fokus.upnp.util.ThreadHelper;
+import de.fraunhofer.fokus.upnp.util.network.HTTPMessageHelper;
 import de.fraunhofer.fokus.upnp.util.network.HTTPMessageObject;
 import de.fraunhofer.fokus.upnp.util.network.IPHelper;
 
@@ -340,11 +341,16 @@ public class HTTPServerThread extends Thread
   {
     // System.out.println("Send response [\n" +
     // StringHelper.byteArrayToString(clientResponseMessage) + "]");
-    byte[] responseData = response.toByteArray();
-
     try
     {
-      socket.getOutputStream().write(responseData);
+      if (response.hasStreamingBody())
+      {
+        // send header and stream body directly from file
+        socket.getOutputStream().write(HTTPMessageHelper.createHTTPMessage(response.getHeader()));
+        response.getStreamingBody().writeTo(socket.getOutputStream());
+        return;
+      }
+      socket.getOutputStream().write(response.toByteArray());
 
       // logger.debug("Send response [\n" + response.getHeader() + "\n" + response.getBodyAsString()
       // +
@@ -0,0 +1,189 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.http;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Selector;
+
+import org.apache.log4j.Logger;
+
+import de.fraunhofer.fokus.upnp.configuration.HTTPDefaults;
+import de.fraunhofer.fokus.upnp.util.StringHelper;
+import de.fraunhofer.fokus.upnp.util.network.HTTPMessageHelper;
+import de.fraunhofer.fokus.upnp.util.network.HTTPMessageObject;
+
+/**
+ * This thread belongs to the worker pool of a selector based HTTPServer. It takes connections with
+ * complete requests from the server, forwards the requests to the HTTP message processor and sends
+ * back the generated responses. Idle connections do not occupy a worker thread.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class HTTPServerWorkerThread extends Thread
+{
+
+  /** HTTPServer logger */
+  private final static Logger   logger          = Logger.getLogger("upnp.http");
+
+  /** Associated server */
+  private HTTPServer            httpServer;
+
+  /** Listener for incoming messages */
+  private IHTTPMessageProcessor messageProcessor;
+
+  /** Selector used to wait for writable channels */
+  private Selector              writeSelector;
+
+  private boolean               terminateThread = false;
+
+  private boolean               terminated      = false;
+
+  /**
+   * Creates a new instance of HTTPServerWorkerThread. The thread is not started.
+   * 
+   * @param httpServer
+   *          The associated server
+   * @param messageProcessor
+   *          The processor for received messages
+   * @param index
+   *          The index of the thread in the worker pool
+   */
+  public HTTPServerWorkerThread(HTTPServer httpServer, IHTTPMessageProcessor messageProcessor, int index)
+  {
+    super(httpServer.getName() + " worker " + index);
+    this.httpServer = httpServer;
+    this.messageProcessor = messageProcessor;
+    setDaemon(true);
+  }
+
+  /** Processes pending connections until the thread is terminated. */
+  public void run()
+  {
+    try
+    {
+      writeSelector = Selector.open();
+    } catch (Exception e)
+    {
+      logger.fatal("cannot open write selector: " + e.getMessage());
+      terminated = true;
+      return;
+    }
+    while (!terminateThread)
+    {
+      HTTPSelectorConnection connection =
+        httpServer.waitForPendingConnection(HTTPDefaults.SELECTOR_SERVER_SELECT_TIMEOUT);
+      if (connection != null)
+      {
+        processConnection(connection);
+        httpServer.connectionProcessed(connection);
+      }
+    }
+    try
+    {
+      writeSelector.close();
+    } catch (Exception e)
+    {
+    }
+    terminated = true;
+  }
+
+  /**
+   * Processes the first complete request of a connection.
+   * 
+   * @param connection
+   *          The connection
+   */
+  private void processConnection(HTTPSelectorConnection connection)
+  {
+    try
+    {
+      // create empty request with valid source and destination address
+      HTTPMessageObject request =
+        new HTTPMessageObject(null, null, connection.getRemoteAddress(), connection.getLocalAddress());
+
+      HTTPMessage.getServerMessage(request, new ByteArrayInputStream(connection.removeRequest()));
+      // check if request is valid
+      if (request.getHeader() == null || request.getHeader().length() == 0)
+      {
+        System.out.println("Could not receive request");
+        connection.close();
+        return;
+      }
+      if (!HTTPDefaults.PERSISTENT_SERVER_THREAD_CONNECTION)
+      {
+        request.setCloseConnection(true);
+      }
+      HTTPMessageObject response = messageProcessor.processMessage(request);
+      if (response == null)
+      {
+        logger.error("no message to be sent");
+        connection.writeData(StringHelper.stringToByteArray(HTTPHeaderBuilder.buildHTTPError5xx()), writeSelector);
+        connection.close();
+        return;
+      }
+      if (response.hasStreamingBody())
+      {
+        connection.writeData(HTTPMessageHelper.createHTTPMessage(response.getHeader()), writeSelector);
+        connection.writeStreamingBody(response.getStreamingBody(), writeSelector);
+      } else
+      {
+        connection.writeData(response.toByteArray(), writeSelector);
+      }
+      if (response.isCloseConnection())
+      {
+        connection.close();
+      }
+    } catch (Exception ex)
+    {
+      logger.error("Failed to process message from " + connection.toString(), ex);
+      connection.close();
+    } catch (OutOfMemoryError mem)
+    {
+      logger.error("Client request too huge", mem);
+      connection.close();
+    }
+  }
+
+  /** Terminates the worker thread. */
+  public void terminate()
+  {
+    terminateThread = true;
+    httpServer.wakeupWorkerThreads();
+    while (!terminated)
+    {
+      try
+      {
+        Thread.sleep(10);
+      } catch (Exception e)
+      {
+      }
+    }
+  }
+
+}
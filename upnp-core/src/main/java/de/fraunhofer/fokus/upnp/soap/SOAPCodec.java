@@ -0,0 +1,316 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.soap;
+
+import java.util.Hashtable;
+
+import de.fraunhofer.fokus.upnp.core.AbstractAction;
+import de.fraunhofer.fokus.upnp.core.Argument;
+import de.fraunhofer.fokus.upnp.core.UPnPConstant;
+import de.fraunhofer.fokus.upnp.util.CommonConstants;
+import de.fraunhofer.fokus.upnp.util.StringHelper;
+import de.fraunhofer.fokus.upnp.util.XMLConstant;
+
+/**
+ * This class encodes SOAP action requests and responses directly into UTF-8 byte arrays. The
+ * static parts of each message are precomputed once per service type and action and the variable
+ * argument values are written into a reusable buffer of the calling thread. The resulting bodies
+ * are identical to the ones built by the SOAPMessageBuilder.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class SOAPCodec
+{
+
+  /** Initial size of the encoding buffer */
+  private static final int   BUFFER_SIZE           = 2048;
+
+  /** Buffers larger than this size are not kept for the next message */
+  private static final int   MAX_RETAINED_SIZE     = 65536;
+
+  /** Hashtable containing precomputed templates for requests */
+  private static Hashtable   requestTemplateTable  = new Hashtable();
+
+  /** Hashtable containing precomputed templates for responses */
+  private static Hashtable   responseTemplateTable = new Hashtable();
+
+  /** Encoding buffer for each thread */
+  private static ThreadLocal encodeBuffer          = new ThreadLocal();
+
+  /**
+   * Encodes the SOAP body for an action request.
+   * 
+   * @param serviceType
+   *          The service type
+   * @param action
+   *          The action with its current in argument values
+   * 
+   * @return The UTF-8 encoded SOAP body
+   */
+  public static byte[] encodeActionRequest(String serviceType, AbstractAction action)
+  {
+    Argument[] inArgs = action.getInArgumentTable();
+    ActionTemplate template = getTemplate(requestTemplateTable, serviceType, action.getName(), inArgs, false);
+
+    return encode(template, inArgs);
+  }
+
+  /**
+   * Encodes the SOAP body for an action response.
+   * 
+   * @param serviceType
+   *          The service type
+   * @param action
+   *          The action with its current out argument values
+   * 
+   * @return The UTF-8 encoded SOAP body
+   */
+  public static byte[] encodeActionResponse(String serviceType, AbstractAction action)
+  {
+    Argument[] outArgs = action.getOutArgumentTable();
+    ActionTemplate template = getTemplate(responseTemplateTable, serviceType, action.getName(), outArgs, true);
+
+    return encode(template, outArgs);
+  }
+
+  /** Retrieves the number of precomputed templates. */
+  public static int getTemplateCount()
+  {
+    return requestTemplateTable.size() + responseTemplateTable.size();
+  }
+
+  /** Writes a message into the buffer of the current thread. */
+  private static byte[] encode(ActionTemplate template, Argument[] args)
+  {
+    EncodeBuffer buffer = (EncodeBuffer)encodeBuffer.get();
+    if (buffer == null)
+    {
+      buffer = new EncodeBuffer(BUFFER_SIZE);
+      encodeBuffer.set(buffer);
+    }
+    buffer.reset();
+    buffer.write(template.prefix);
+    for (int i = 0; args != null && i < args.length; i++)
+    {
+      buffer.write(template.argumentStartTags[i]);
+      buffer.writeUTF8(StringHelper.escapeXMLIfNecessary(args[i].getValueAsString()));
+      buffer.write(template.argumentEndTags[i]);
+    }
+    buffer.write(template.suffix);
+
+    byte[] result = buffer.toByteArray();
+    // do not keep large buffers, e.g., after huge browse results
+    if (buffer.capacity() > MAX_RETAINED_SIZE)
+    {
+      encodeBuffer.set(null);
+    }
+    return result;
+  }
+
+  /** Retrieves or creates the template for an action. */
+  private static ActionTemplate getTemplate(Hashtable templateTable,
+    String serviceType,
+    String actionName,
+    Argument[] args,
+    boolean response)
+  {
+    String key = serviceType + "#" + actionName;
+    ActionTemplate template = (ActionTemplate)templateTable.get(key);
+    if (template == null || !template.matches(args))
+    {
+      template = new ActionTemplate(serviceType, actionName, args, response);
+      templateTable.put(key, template);
+    }
+    return template;
+  }
+
+  /** This class holds the precomputed parts of a SOAP message. */
+  private static class ActionTemplate
+  {
+
+    private String[] argumentNames;
+
+    private byte[]   prefix;
+
+    private byte[][] argumentStartTags;
+
+    private byte[][] argumentEndTags;
+
+    private byte[]   suffix;
+
+    /**
+     * Creates a new instance of ActionTemplate.
+     * 
+     * @param serviceType
+     *          The service type
+     * @param actionName
+     *          The action name
+     * @param args
+     *          The arguments that are written in the message
+     * @param response
+     *          True for an action response, false for an action request
+     */
+    public ActionTemplate(String serviceType, String actionName, Argument[] args, boolean response)
+    {
+      String tagName = response ? actionName + "Response" : actionName;
+      String envelopeStart =
+        XMLConstant.XML_VERSION + CommonConstants.NEW_LINE + SOAPConstant.ENVELOPE_START_TAG +
+          CommonConstants.NEW_LINE + SOAPConstant.BODY_START_TAG + CommonConstants.NEW_LINE;
+
+      prefix =
+        StringHelper.utf8StringToByteArray(envelopeStart + "<u:" + tagName + " " + UPnPConstant.XMLNS_SERVICE +
+          serviceType + "\">" + (response ? CommonConstants.NEW_LINE : ""));
+
+      int argumentCount = args == null ? 0 : args.length;
+      argumentNames = new String[argumentCount];
+      argumentStartTags = new byte[argumentCount][];
+      argumentEndTags = new byte[argumentCount][];
+      for (int i = 0; i < argumentCount; i++)
+      {
+        argumentNames[i] = args[i].getName();
+        argumentStartTags[i] = StringHelper.utf8StringToByteArray("<" + argumentNames[i] + ">");
+        argumentEndTags[i] =
+          StringHelper.utf8StringToByteArray("</" + argumentNames[i] + ">" + CommonConstants.NEW_LINE);
+      }
+      suffix =
+        StringHelper.utf8StringToByteArray("</u:" + tagName + ">" + CommonConstants.NEW_LINE +
+          SOAPConstant.BODY_END_TAG + CommonConstants.NEW_LINE + SOAPConstant.ENVELOPE_END_TAG);
+    }
+
+    /** Checks if this template can be used for a list of arguments. */
+    public boolean matches(Argument[] args)
+    {
+      int argumentCount = args == null ? 0 : args.length;
+      if (argumentCount != argumentNames.length)
+      {
+        return false;
+      }
+      for (int i = 0; i < argumentCount; i++)
+      {
+        if (!argumentNames[i].equals(args[i].getName()))
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+
+  }
+
+  /** This class is a growable byte buffer with direct UTF-8 encoding. */
+  private static class EncodeBuffer
+  {
+
+    private byte[] data;
+
+    private int    length;
+
+    public EncodeBuffer(int size)
+    {
+      data = new byte[size];
+    }
+
+    public void reset()
+    {
+      length = 0;
+    }
+
+    public int capacity()
+    {
+      return data.length;
+    }
+
+    public void write(byte[] value)
+    {
+      ensureCapacity(value.length);
+      System.arraycopy(value, 0, data, length, value.length);
+      length += value.length;
+    }
+
+    /** Appends a string in UTF-8 encoding. */
+    public void writeUTF8(String value)
+    {
+      int valueLength = value.length();
+      // at most 3 bytes per char
+      ensureCapacity(valueLength * 3);
+      for (int i = 0; i < valueLength; i++)
+      {
+        char c = value.charAt(i);
+        if (c < 0x80)
+        {
+          data[length++] = (byte)c;
+        } else if (c < 0x800)
+        {
+          data[length++] = (byte)(0xC0 | c >> 6);
+          data[length++] = (byte)(0x80 | c & 0x3F);
+        } else if (c >= 0xD800 && c <= 0xDFFF)
+        {
+          // surrogate pair
+          if (c <= 0xDBFF && i + 1 < valueLength && value.charAt(i + 1) >= 0xDC00 && value.charAt(i + 1) <= 0xDFFF)
+          {
+            int codePoint = 0x10000 + (c - 0xD800 << 10) + value.charAt(i + 1) - 0xDC00;
+            i++;
+            data[length++] = (byte)(0xF0 | codePoint >> 18);
+            data[length++] = (byte)(0x80 | codePoint >> 12 & 0x3F);
+            data[length++] = (byte)(0x80 | codePoint >> 6 & 0x3F);
+            data[length++] = (byte)(0x80 | codePoint & 0x3F);
+          } else
+          {
+            // unpaired surrogates are replaced like in String.getBytes()
+            data[length++] = (byte)'?';
+          }
+        } else
+        {
+          data[length++] = (byte)(0xE0 | c >> 12);
+          data[length++] = (byte)(0x80 | c >> 6 & 0x3F);
+          data[length++] = (byte)(0x80 | c & 0x3F);
+        }
+      }
+    }
+
+    public byte[] toByteArray()
+    {
+      byte[] result = new byte[length];
+      System.arraycopy(data, 0, result, 0, length);
+      return result;
+    }
+
+    private void ensureCapacity(int additionalLength)
+    {
+      if (length + additionalLength > data.length)
+      {
+        byte[] newData = new byte[Math.max(data.length * 2, length + additionalLength)];
+        System.arraycopy(data, 0, newData, 0, length);
+        data = newData;
+      }
+    }
+
+  }
+
+}
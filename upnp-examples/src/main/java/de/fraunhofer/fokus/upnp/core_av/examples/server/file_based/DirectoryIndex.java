@@ -0,0 +1,587 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core_av.examples.server.file_based;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+import de.fraunhofer.fokus.upnp.util.FileExtensionHelper;
+import de.fraunhofer.fokus.upnp.util.SAXTemplateHandler;
+import de.fraunhofer.fokus.upnp.util.StringHelper;
+
+/**
+ * This class holds the metadata of all scanned directories of a file based media server. For each
+ * directory, it stores the modification time and the size, modification time, protocol info and
+ * media type of all relevant files. The index can be stored to disk and is loaded lazily on first
+ * access.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class DirectoryIndex
+{
+
+  /** Media type for subdirectories */
+  public static final int TYPE_DIRECTORY           = 0;
+
+  /** Media type for audio files */
+  public static final int TYPE_AUDIO               = 1;
+
+  /** Media type for image files */
+  public static final int TYPE_IMAGE               = 2;
+
+  /** Media type for video files */
+  public static final int TYPE_VIDEO               = 3;
+
+  /** Media type for incomplete items created by CreateObject */
+  public static final int TYPE_INCOMPLETE          = 4;
+
+  /** Hashtable containing the directory entry for each absolute path */
+  private Hashtable       directoryFromPathTable   = new Hashtable();
+
+  /** File used to store the index */
+  private File            indexFile;
+
+  /** Flag that the index file has been read */
+  private boolean         loaded                   = false;
+
+  /** Flag that the index changed since it was stored */
+  private boolean         modified                 = false;
+
+  /** Prefix of incomplete item file names */
+  private String          incompleteFileNamePrefix;
+
+  /** Extension of incomplete item file names */
+  private String          incompleteFileExtension;
+
+  /**
+   * Creates a new instance of DirectoryIndex.
+   * 
+   * @param indexFile
+   *          The file used to store the index or null
+   * @param incompleteFileNamePrefix
+   *          Prefix of incomplete item file names
+   * @param incompleteFileExtension
+   *          Extension of incomplete item file names
+   */
+  public DirectoryIndex(File indexFile, String incompleteFileNamePrefix, String incompleteFileExtension)
+  {
+    this.indexFile = indexFile;
+    this.incompleteFileNamePrefix = incompleteFileNamePrefix;
+    this.incompleteFileExtension = incompleteFileExtension;
+  }
+
+  /**
+   * Retrieves the entry for a directory.
+   * 
+   * @param path
+   *          The absolute path of the directory
+   * 
+   * @return The entry or null if the directory was not yet scanned
+   */
+  public synchronized DirectoryEntry getDirectory(String path)
+  {
+    load();
+    return (DirectoryEntry)directoryFromPathTable.get(path);
+  }
+
+  /** Retrieves the paths of all known directories. */
+  public synchronized Vector getDirectoryPaths()
+  {
+    load();
+    Vector result = new Vector(directoryFromPathTable.size());
+    Enumeration paths = directoryFromPathTable.keys();
+    while (paths.hasMoreElements())
+    {
+      result.add(paths.nextElement());
+    }
+    return result;
+  }
+
+  /**
+   * Reads a directory from the file system and updates its entry.
+   * 
+   * @param path
+   *          The absolute path of the directory
+   * 
+   * @return The new entry if the directory content changed, null if the content is unchanged or the
+   *         directory does not exist
+   */
+  public DirectoryEntry scanDirectory(String path)
+  {
+    Path directory = Paths.get(path);
+    // read modification time first, so changes during the scan are found later
+    long lastModified;
+    final Vector fileEntries = new Vector();
+    try
+    {
+      lastModified = Files.getLastModifiedTime(directory).toMillis();
+      if (!Files.isDirectory(directory))
+      {
+        throw new IOException("Not a directory");
+      }
+      // walk the direct children, their attributes are read by the walk
+      Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor()
+      {
+        public FileVisitResult visitFile(Object file, BasicFileAttributes attributes) throws IOException
+        {
+          FileEntry fileEntry = createFileEntry((Path)file, attributes);
+          if (fileEntry != null)
+          {
+            fileEntries.add(fileEntry);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        public FileVisitResult visitFileFailed(Object file, IOException e)
+        {
+          // ignore files that were removed during the walk
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e)
+    {
+      removeDirectory(path);
+      return null;
+    }
+    FileEntry[] fileEntryArray = new FileEntry[fileEntries.size()];
+    fileEntries.copyInto(fileEntryArray);
+
+    synchronized(this)
+    {
+      load();
+      DirectoryEntry previousEntry = (DirectoryEntry)directoryFromPathTable.get(path);
+      if (previousEntry != null && previousEntry.hasSameContent(fileEntryArray))
+      {
+        // only remember the new modification time
+        if (previousEntry.lastModified != lastModified)
+        {
+          previousEntry.lastModified = lastModified;
+          modified = true;
+        }
+        return null;
+      }
+      DirectoryEntry entry =
+        new DirectoryEntry(path, lastModified, fileEntryArray, previousEntry != null ? previousEntry.version + 1 : 0);
+      directoryFromPathTable.put(path, entry);
+      // forget subdirectories that were removed
+      if (previousEntry != null)
+      {
+        for (int i = 0; i < previousEntry.files.length; i++)
+        {
+          if (previousEntry.files[i].type == TYPE_DIRECTORY && !entry.containsFile(previousEntry.files[i].name))
+          {
+            removeDirectoryTree(path + File.separator + previousEntry.files[i].name);
+          }
+        }
+      }
+      modified = true;
+      return entry;
+    }
+  }
+
+  /**
+   * Removes a directory from the index.
+   * 
+   * @param path
+   *          The absolute path of the directory
+   */
+  public synchronized void removeDirectory(String path)
+  {
+    load();
+    if (directoryFromPathTable.containsKey(path))
+    {
+      removeDirectoryTree(path);
+      modified = true;
+    }
+  }
+
+  /** Stores the index to disk if it changed. */
+  public void store()
+  {
+    if (indexFile == null)
+    {
+      return;
+    }
+    Vector entries = new Vector();
+    synchronized(this)
+    {
+      if (!loaded || !modified)
+      {
+        return;
+      }
+      entries.addAll(directoryFromPathTable.values());
+      modified = false;
+    }
+    try
+    {
+      // write to temporary file first to keep the old index on errors
+      File temporaryFile = new File(indexFile.getPath() + ".tmp");
+      OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(temporaryFile));
+      outputStream.write(StringHelper.utf8StringToByteArray("<?xml version=\"1.0\"?>\n<DirectoryIndex>\n"));
+      for (int i = 0; i < entries.size(); i++)
+      {
+        DirectoryEntry entry = (DirectoryEntry)entries.elementAt(i);
+        outputStream.write(StringHelper.utf8StringToByteArray(entry.toXMLDescription()));
+      }
+      outputStream.write(StringHelper.utf8StringToByteArray("</DirectoryIndex>\n"));
+      outputStream.close();
+      indexFile.delete();
+      temporaryFile.renameTo(indexFile);
+    } catch (Exception e)
+    {
+      System.out.println("Could not store directory index: " + e.getMessage());
+    }
+  }
+
+  /** Creates the entry for a file or subdirectory, returns null for irrelevant files. */
+  private FileEntry createFileEntry(Path file, BasicFileAttributes attributes) throws IOException
+  {
+    String name = file.getFileName().toString();
+    int type = -1;
+    if (attributes.isDirectory())
+    {
+      type = TYPE_DIRECTORY;
+    } else if (attributes.isRegularFile() && !Files.isHidden(file))
+    {
+      type = getMediaType(name);
+    }
+    if (type == -1)
+    {
+      return null;
+    }
+    return new FileEntry(name,
+      type,
+      type == TYPE_DIRECTORY ? 0 : attributes.size(),
+      attributes.lastModifiedTime().toMillis(),
+      type == TYPE_DIRECTORY || type == TYPE_INCOMPLETE ? null
+        : FileExtensionHelper.getProtocolInfoByFileExtension(name));
+  }
+
+  /** Determines the media type of a file. */
+  private int getMediaType(String name)
+  {
+    if (FileExtensionHelper.isAudioFile(name))
+    {
+      return TYPE_AUDIO;
+    }
+    if (FileExtensionHelper.isImageFile(name))
+    {
+      return TYPE_IMAGE;
+    }
+    if (FileExtensionHelper.isVideoFile(name))
+    {
+      return TYPE_VIDEO;
+    }
+    if (name.startsWith(incompleteFileNamePrefix) &&
+      FileExtensionHelper.getFileExtension(name).equals(incompleteFileExtension))
+    {
+      return TYPE_INCOMPLETE;
+    }
+    return -1;
+  }
+
+  /** Removes a directory and all known subdirectories. Must be called while holding the lock. */
+  private void removeDirectoryTree(String path)
+  {
+    DirectoryEntry entry = (DirectoryEntry)directoryFromPathTable.remove(path);
+    for (int i = 0; entry != null && i < entry.files.length; i++)
+    {
+      if (entry.files[i].type == TYPE_DIRECTORY)
+      {
+        removeDirectoryTree(path + File.separator + entry.files[i].name);
+      }
+    }
+  }
+
+  /** Reads the index file on first access. Must be called while holding the lock. */
+  private void load()
+  {
+    if (loaded)
+    {
+      return;
+    }
+    loaded = true;
+    if (indexFile == null || !indexFile.exists())
+    {
+      return;
+    }
+    try
+    {
+      IndexParser parser = new IndexParser();
+      parser.parse(indexFile);
+      System.out.println("Loaded " + directoryFromPathTable.size() + " directories from " + indexFile.getPath());
+    } catch (Exception e)
+    {
+      System.out.println("Could not read directory index: " + e.getMessage());
+      directoryFromPathTable.clear();
+    }
+  }
+
+  /** This class holds the scanned content of one directory. */
+  public static class DirectoryEntry
+  {
+
+    /** Absolute path */
+    private String      path;
+
+    /** Modification time of the directory when it was scanned */
+    private long        lastModified;
+
+    /** Relevant files and subdirectories */
+    private FileEntry[] files;
+
+    /** Incremented with each content change */
+    private long        version;
+
+    public DirectoryEntry(String path, long lastModified, FileEntry[] files, long version)
+    {
+      this.path = path;
+      this.lastModified = lastModified;
+      this.files = files;
+      this.version = version;
+    }
+
+    /** Retrieves the absolute path. */
+    public String getPath()
+    {
+      return path;
+    }
+
+    /** Retrieves the modification time of the directory when it was scanned. */
+    public long getLastModified()
+    {
+      return lastModified;
+    }
+
+    /** Retrieves the relevant files and subdirectories. */
+    public FileEntry[] getFiles()
+    {
+      return files;
+    }
+
+    /** Retrieves a number that changes with each content change. */
+    public long getVersion()
+    {
+      return version;
+    }
+
+    /** Checks if this entry has a file with a certain name. */
+    private boolean containsFile(String name)
+    {
+      for (int i = 0; i < files.length; i++)
+      {
+        if (files[i].name.equals(name))
+        {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /** Checks if a new scan result equals this entry. */
+    private boolean hasSameContent(FileEntry[] newFiles)
+    {
+      if (newFiles.length != files.length)
+      {
+        return false;
+      }
+      for (int i = 0; i < files.length; i++)
+      {
+        if (!files[i].equals(newFiles[i]))
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** Creates a XML description for the index file. */
+    private String toXMLDescription()
+    {
+      StringBuffer result = new StringBuffer(128 + files.length * 128);
+      result.append("<Directory path=\"" + StringHelper.xmlToEscapedString(path) + "\" lastModified=\"" +
+        lastModified + "\">\n");
+      for (int i = 0; i < files.length; i++)
+      {
+        result.append("<File name=\"" + StringHelper.xmlToEscapedString(files[i].name) + "\" type=\"" +
+          files[i].type + "\" size=\"" + files[i].size + "\" lastModified=\"" + files[i].lastModified + "\"");
+        if (files[i].protocolInfo != null)
+        {
+          result.append(" protocolInfo=\"" + StringHelper.xmlToEscapedString(files[i].protocolInfo) + "\"");
+        }
+        result.append("/>\n");
+      }
+      result.append("</Directory>\n");
+
+      return result.toString();
+    }
+
+  }
+
+  /** This class holds the metadata of one file or subdirectory. */
+  public static class FileEntry
+  {
+
+    private String name;
+
+    private int    type;
+
+    private long   size;
+
+    private long   lastModified;
+
+    private String protocolInfo;
+
+    public FileEntry(String name, int type, long size, long lastModified, String protocolInfo)
+    {
+      this.name = name;
+      this.type = type;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.protocolInfo = protocolInfo;
+    }
+
+    /** Retrieves the file name. */
+    public String getName()
+    {
+      return name;
+    }
+
+    /** Retrieves the media type. */
+    public int getType()
+    {
+      return type;
+    }
+
+    /** Retrieves the file size. */
+    public long getSize()
+    {
+      return size;
+    }
+
+    /** Retrieves the modification time. */
+    public long getLastModified()
+    {
+      return lastModified;
+    }
+
+    /** Retrieves the protocol info for media files. */
+    public String getProtocolInfo()
+    {
+      return protocolInfo;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    public boolean equals(Object object)
+    {
+      if (!(object instanceof FileEntry))
+      {
+        return false;
+      }
+      FileEntry entry = (FileEntry)object;
+
+      return name.equals(entry.name) && type == entry.type && size == entry.size &&
+        lastModified == entry.lastModified;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#hashCode()
+     */
+    public int hashCode()
+    {
+      return name.hashCode();
+    }
+
+  }
+
+  /** This class parses the index file. */
+  private class IndexParser extends SAXTemplateHandler
+  {
+
+    private String directoryPath;
+
+    private long   directoryLastModified;
+
+    private Vector fileEntries = new Vector();
+
+    public void processStartElement(String uri, String name, String qName, Attributes atts) throws SAXException
+    {
+      if (qName.equals("Directory"))
+      {
+        directoryPath = atts.getValue("path");
+        directoryLastModified = Long.parseLong(atts.getValue("lastModified"));
+        fileEntries.clear();
+      }
+      if (qName.equals("File") && directoryPath != null)
+      {
+        fileEntries.add(new FileEntry(atts.getValue("name"),
+          Integer.parseInt(atts.getValue("type")),
+          Long.parseLong(atts.getValue("size")),
+          Long.parseLong(atts.getValue("lastModified")),
+          atts.getValue("protocolInfo")));
+      }
+    }
+
+    public void processEndElement(String uri, String localName, String qName) throws SAXException
+    {
+      if (qName.equals("Directory") && directoryPath != null)
+      {
+        FileEntry[] files = new FileEntry[fileEntries.size()];
+        fileEntries.copyInto(files);
+        directoryFromPathTable.put(directoryPath, new DirectoryEntry(directoryPath, directoryLastModified, files, 0));
+        directoryPath = null;
+      }
+    }
+
+  }
+
+}
@@ -36,6 +36,7 @@ import java.util.Comparator;
 import java.util.Hashtable;
 import java.util.Vector;
 
+import de.fraunhofer.fokus.upnp.configuration.UPnPAVDefaults;
 import de.fraunhofer.fokus.upnp.core.device.Action;
 import de.fraunhofer.fokus.upnp.core.device.DeviceService;
 import de.fraunhofer.fokus.upnp.core.templates.TemplateEntity;
@@ -58,6 +59,7 @@ import de.fraunhofer.fokus.upnp.core_av.server.TransferStatus;
 import de.fraunhofer.fokus.upnp.soap.SOAPHeaderBuilder;
 import de.fraunhofer.fokus.upnp.soap.SOAPMessageBuilder;
 import de.fraunhofer.fokus.upnp.util.FileExtensionHelper;
+import de.fraunhofer.fokus.upnp.util.FileHelper;
 import de.fraunhofer.fokus.upnp.util.HighResTimerHelper;
 import de.fraunhofer.fokus.upnp.util.StringHelper;
 import de.fraunhofer.fokus.upnp.util.ThreadHelper;
@@ -90,6 +92,9 @@ public class DirectoryMediaServerEntity extends TemplateEntity implements
 
   private static final String PATH_SEPARATOR                   = System.getProperty("file.separator");
 
+  /** Key for the index version of the current child list in the management hashtable */
+  private static final String INDEX_VERSION_ID                 = "Index_Version_ID";
+
   private Hashtable           didlObjectFromImportURIHashtable = new Hashtable();
 
   private int                 transferID                       = 1;
@@ -115,6 +120,12 @@ public class DirectoryMediaServerEntity extends TemplateEntity implements
   /** Flag to start the media server read-only */
   private boolean             readOnly                         = true;
 
+  /** Metadata of all scanned directories */
+  private DirectoryIndex      directoryIndex;
+
+  /** Background scanner for the file system */
+  private DirectoryScanner    directoryScanner;
+
   /** Creates a new instance of DirectoryMediaServerEntity */
   public DirectoryMediaServerEntity(UPnPStartupConfiguration startupConfiguration)
   {
@@ -138,6 +149,24 @@ public class DirectoryMediaServerEntity extends TemplateEntity implements
     rootContainer.getManagementHashtable().put(RELATIVE_PATH_ID, "");
     rootContainer.setWriteStatus(MediaServerConstant.WRITE_STATUS_WRITABLE);
     rootContainer.setRestricted(readOnly ? "1" : "0");
+
+    // the index from a previous run is loaded on first access
+    File indexDirectory = new File(FileHelper.getResourceDirectoryName() + "directory_index");
+    if (!indexDirectory.exists())
+    {
+      indexDirectory.mkdir();
+    }
+    directoryIndex =
+      new DirectoryIndex(new File(indexDirectory, StringHelper.escapeDirectoryName(rootDirectory) + ".xml"),
+        NEW_OBJECT_FILE_NAME,
+        NEW_OBJECT_FILE_EXTENSION);
+    directoryScanner =
+      new DirectoryScanner(this,
+        directoryIndex,
+        rootDirectory,
+        UPnPAVDefaults.DIRECTORY_SCAN_THREAD_COUNT,
+        UPnPAVDefaults.DIRECTORY_CHANGE_CHECK_INTERVAL);
+
     // read root directory
     DIDLObject[] rootChildren = readContainerContentFromFileSystem(rootContainer);
     if (rootChildren != null)
@@ -328,11 +357,12 @@ public class DirectoryMediaServerEntity extends TemplateEntity implements
     {
       DIDLContainer currentContainer = (DIDLContainer)didlObject;
       DIDLObject[] childList = currentContainer.getChildList();
-      // folder was not yet read or is deprecated
-      if (childList == null ||
-        // update folder for each new browse
-        startingIndex == 0 ||
-        currentContainer.getSystemUpdateID() != mediaServerDevice.getContentDirectory().getSystemUpdateID())
+      DirectoryIndex.DirectoryEntry directoryEntry =
+        directoryScanner.getDirectory((String)currentContainer.getManagementHashtable().get(PATH_ID));
+      Object indexVersion = currentContainer.getManagementHashtable().get(INDEX_VERSION_ID);
+      // folder was not yet read or the index found changes
+      if (childList == null || directoryEntry == null || indexVersion == null ||
+        ((Long)indexVersion).longValue() != directoryEntry.getVersion())
       {
         // prevent parallel content updates
         synchronized(contentLock)
@@ -342,7 +372,6 @@ public class DirectoryMediaServerEntity extends TemplateEntity implements
           if (childList != null)
           {
             currentContainer.setChildList(childList);
-            currentContainer.setSystemUpdateID(mediaServerDevice.getContentDirectory().getSystemUpdateID());
           }
         }
       }
@@ -548,6 +577,12 @@ public class DirectoryMediaServerEntity extends TemplateEntity implements
   /** Event that a transfer has been finished */
   public void transferFinished(ImportResourceThread importResourceThread)
   {
+    // update index for the target directory
+    DIDLContainer container = importResourceThread.getDIDLObject().getParentContainer();
+    if (container != null)
+    {
+      directoryScanner.scanDirectory((String)container.getManagementHashtable().get(PATH_ID));
+    }
     // inform content directory about change
     mediaServerDevice.getContentDirectory().contentChanged();
 
@@ -564,6 +599,33 @@ public class DirectoryMediaServerEntity extends TemplateEntity implements
     }
   }
 
+  /**
+   * Event that the background scanner found changes in a known directory.
+   * 
+   * @param path
+   *          The absolute path of the changed directory
+   */
+  public void directoryChanged(String path)
+  {
+    // child lists are rebuilt on the next browse because the index version changed
+    if (mediaServerDevice != null)
+    {
+      mediaServerDevice.getContentDirectory().contentChanged();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see de.fraunhofer.fokus.upnp.core.templates.TemplateEntity#terminate()
+   */
+  public void terminate()
+  {
+    directoryScanner.terminate();
+    directoryIndex.store();
+    super.terminate();
+  }
+
   /** Event that a transfer is deprecated */
   public void transferDeprecated(ImportResourceThread importResourceThread)
   {
@@ -620,85 +682,68 @@ public class DirectoryMediaServerEntity extends TemplateEntity implements
     String path = (String)container.getManagementHashtable().get(PATH_ID);
     String relativePath = (String)container.getManagementHashtable().get(RELATIVE_PATH_ID);
 
-    File currentFile = new File(path);
-    if (currentFile.exists() && currentFile.isDirectory())
+    DirectoryIndex.DirectoryEntry directoryEntry = directoryScanner.getDirectory(path);
+    if (directoryEntry != null)
     {
-      File[] children = currentFile.listFiles();
+      DirectoryIndex.FileEntry[] children = directoryEntry.getFiles();
       Vector result = new Vector();
       // check all files in the current directory
       for (int i = 0; i < children.length; i++)
       {
         String name = children[i].getName();
-        String dispName = StringHelper.convertUmlauts(children[i].getName());
+        String dispName = StringHelper.convertUmlauts(name);
         String absName = path + PATH_SEPARATOR + name;
         String relativePathName = (relativePath.length() > 0 ? relativePath + PATH_SEPARATOR : "") + name;
 
         // build id from absolute path
         String id = DigestHelper.hashToSecurityID(DigestHelper.calculateSHAHashForString(absName));
 
-        if (children[i].isDirectory())
-        {
-          // create new container
-          DIDLContainer childContainer = new DIDLContainer(dispName, id);
-          // store directory in management hashtable
-          childContainer.getManagementHashtable().put(PATH_ID, absName);
-          childContainer.getManagementHashtable().put(RELATIVE_PATH_ID, relativePathName);
-          childContainer.setRestricted(readOnly ? "1" : "0");
-
-          result.add(childContainer);
-        }
-        // check file type
-        if (children[i].isFile() && !children[i].isHidden())
+        switch (children[i].getType())
         {
-          // add audio files
-          if (FileExtensionHelper.isAudioFile(name))
-          {
+          case DirectoryIndex.TYPE_DIRECTORY:
+            // create new container
+            DIDLContainer childContainer = new DIDLContainer(dispName, id);
+            // store directory in management hashtable
+            childContainer.getManagementHashtable().put(PATH_ID, absName);
+            childContainer.getManagementHashtable().put(RELATIVE_PATH_ID, relativePathName);
+            childContainer.setRestricted(readOnly ? "1" : "0");
+
+            result.add(childContainer);
+            break;
+          case DirectoryIndex.TYPE_AUDIO:
+            // add audio files
             DIDLMusicTrack track = new DIDLMusicTrack(dispName, id);
-            String protocolInfo = FileExtensionHelper.getProtocolInfoByFileExtension(name);
-
-            // add resource
-            addResource(track, protocolInfo, relativePathName, children[i].length());
+            addResource(track, children[i].getProtocolInfo(), relativePathName, children[i].getSize());
             track.setRestricted(readOnly ? "1" : "0");
             // TO-DO: add meta-data
 
             result.add(track);
-          }
-          // add images
-          if (FileExtensionHelper.isImageFile(name))
-          {
+            break;
+          case DirectoryIndex.TYPE_IMAGE:
+            // add images
             DIDLImageItem image = new DIDLImageItem(dispName, id);
-            String protocolInfo = FileExtensionHelper.getProtocolInfoByFileExtension(name);
-
-            // add resource
-            addResource(image, protocolInfo, relativePathName, children[i].length());
+            addResource(image, children[i].getProtocolInfo(), relativePathName, children[i].getSize());
             image.setRestricted(readOnly ? "1" : "0");
             // TO-DO: add meta-data
 
             result.add(image);
-          }
-          // add video files
-          if (FileExtensionHelper.isVideoFile(name))
-          {
+            break;
+          case DirectoryIndex.TYPE_VIDEO:
+            // add video files
             DIDLItem video = new DIDLItem(dispName, id);
-            String protocolInfo = FileExtensionHelper.getProtocolInfoByFileExtension(name);
-
-            // add resource
-            addResource(video, protocolInfo, relativePathName, children[i].length());
+            addResource(video, children[i].getProtocolInfo(), relativePathName, children[i].getSize());
             video.setRestricted(readOnly ? "1" : "0");
             // TO-DO: add meta-data
 
             result.add(video);
-          }
-          // add incomplete items
-          if (name.startsWith(NEW_OBJECT_FILE_NAME) &&
-            FileExtensionHelper.getFileExtension(name).equals(NEW_OBJECT_FILE_EXTENSION))
-          {
-            // retrieve content of file
+            break;
+          case DirectoryIndex.TYPE_INCOMPLETE:
+            // add incomplete items, their content is read from the file
             try
             {
               IncompleteObjectHandler createObjectHandler = new IncompleteObjectHandler();
               // parse file content
-              createObjectHandler.parse(children[i]);
+              createObjectHandler.parse(new File(absName));
 
               // check if an incomplete object was found
               DIDLObject incompleteObject = createObjectHandler.getDIDLObject();
@@ -718,10 +763,12 @@ public class DirectoryMediaServerEntity extends TemplateEntity implements
             {
               e.printStackTrace();
             }
-          }
+            break;
         }
       }
       Collections.sort(result, new DIDLComparator(""));
+      // remember index state for this child list
+      container.getManagementHashtable().put(INDEX_VERSION_ID, new Long(directoryEntry.getVersion()));
       // copy references to array
       DIDLObject[] resultArray = new DIDLObject[result.size()];
       for (int i = 0; i < result.size(); i++)
@@ -793,8 +840,9 @@ public class DirectoryMediaServerEntity extends TemplateEntity implements
           // add to parent container
           container.addChild(requestedObject);
         }
+        directoryScanner.scanDirectory(path);
         // inform content directory about change
-        mediaServerDevice.getContentDirectory().contentChanged();
+        mediaServerDevice.getContentDirectory().objectCreated(requestedObject);
 
         return requestedObject;
       }
@@ -878,8 +926,9 @@ public class DirectoryMediaServerEntity extends TemplateEntity implements
           // add new item to container
           container.addChild(requestedObject);
         }
+        directoryScanner.scanDirectory(path);
         // inform content directory about change
-        mediaServerDevice.getContentDirectory().contentChanged();
+        mediaServerDevice.getContentDirectory().objectCreated(requestedObject);
 
         return requestedObject;
       } catch (Exception ex)
@@ -920,8 +969,9 @@ public class DirectoryMediaServerEntity extends TemplateEntity implements
       }
       if (deleteFile.isFile() && deleteFile.delete())
       {
+        directoryScanner.scanDirectory(path);
         // inform content directory about change
-        mediaServerDevice.getContentDirectory().contentChanged();
+        mediaServerDevice.getContentDirectory().objectDestroyed(requestedObject);
 
         return true;
       }
@@ -939,9 +989,10 @@ public class DirectoryMediaServerEntity extends TemplateEntity implements
       {
         // delete from hashtable
         removeIncompleteItemFromHashtable(importURI);
+        directoryScanner.scanDirectory(path);
 
         // inform content directory about change
-        mediaServerDevice.getContentDirectory().contentChanged();
+        mediaServerDevice.getContentDirectory().objectDestroyed(requestedObject);
 
         return true;
       }
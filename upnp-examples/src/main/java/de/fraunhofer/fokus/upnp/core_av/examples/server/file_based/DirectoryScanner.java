@@ -0,0 +1,439 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.core_av.examples.server.file_based;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class scans the directories of a file based media server in the background. Directories
+ * are walked in parallel by a fixed number of worker threads and the results are kept in a
+ * DirectoryIndex. Each scanned directory is registered with a WatchService. A separate thread
+ * rescans directories for which the WatchService reports created, deleted or modified entries,
+ * so browse requests can be answered from an up-to-date index.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class DirectoryScanner
+{
+
+  /** Associated media server */
+  private DirectoryMediaServerEntity directoryMediaServerEntity;
+
+  /** Index for scan results */
+  private DirectoryIndex             directoryIndex;
+
+  /** Root directory of the media server */
+  private String                     rootDirectory;
+
+  /** Interval between index stores in ms */
+  private long                       checkInterval;
+
+  /** Service that reports changes in scanned directories, null if not available */
+  private WatchService               watchService;
+
+  /** Hashtable containing the watch key for each registered directory */
+  private Hashtable                  watchKeyFromPath      = new Hashtable();
+
+  /** Hashtable containing the directory path for each watch key */
+  private Hashtable                  pathFromWatchKey      = new Hashtable();
+
+  /** Paths of pending directories */
+  private Vector                     pendingPaths          = new Vector();
+
+  /** Hashtable containing the recursive flag for each pending path */
+  private Hashtable                  recursiveFromPath     = new Hashtable();
+
+  /** Number of directories that are currently scanned */
+  private int                        activeScanCount       = 0;
+
+  /** Number of scanned directories */
+  private long                       scannedDirectoryCount = 0;
+
+  /** Sync object for pending directories */
+  private Object                     lock                  = new Object();
+
+  private boolean                    terminateThread       = false;
+
+  /**
+   * Creates a new instance of DirectoryScanner.
+   * 
+   * @param directoryMediaServerEntity
+   *          The associated media server
+   * @param directoryIndex
+   *          The index for scan results
+   * @param rootDirectory
+   *          The root directory of the media server
+   * @param threadCount
+   *          The number of scanning threads
+   * @param checkInterval
+   *          The interval between index stores in ms
+   */
+  public DirectoryScanner(DirectoryMediaServerEntity directoryMediaServerEntity,
+    DirectoryIndex directoryIndex,
+    String rootDirectory,
+    int threadCount,
+    long checkInterval)
+  {
+    this.directoryMediaServerEntity = directoryMediaServerEntity;
+    this.directoryIndex = directoryIndex;
+    this.rootDirectory = rootDirectory;
+    this.checkInterval = checkInterval;
+    try
+    {
+      watchService = FileSystems.getDefault().newWatchService();
+    } catch (IOException e)
+    {
+      System.out.println("Directory changes are only found by periodic rescans: " + e.getMessage());
+    }
+
+    // validate and complete the index, starting at the root directory
+    requestScan(rootDirectory, true);
+    for (int i = 0; i < Math.max(1, threadCount); i++)
+    {
+      Thread thread = new Thread(new ScanWorker());
+      thread.setName("DirectoryScanner" + i);
+      thread.setDaemon(true);
+      thread.start();
+    }
+    Thread watchThread = new Thread(new ChangeWatcher());
+    watchThread.setName("DirectoryScanner.ChangeWatcher");
+    watchThread.setDaemon(true);
+    watchThread.start();
+  }
+
+  /**
+   * Retrieves the entry for a directory. If the directory is not yet in the index, it is scanned
+   * immediately.
+   * 
+   * @param path
+   *          The absolute path of the directory
+   * 
+   * @return The entry or null if the directory does not exist
+   */
+  public DirectoryIndex.DirectoryEntry getDirectory(String path)
+  {
+    DirectoryIndex.DirectoryEntry entry = directoryIndex.getDirectory(path);
+    if (entry == null)
+    {
+      directoryIndex.scanDirectory(path);
+      entry = directoryIndex.getDirectory(path);
+    }
+    return entry;
+  }
+
+  /**
+   * Scans a directory immediately, e.g., after the media server changed the directory itself.
+   * 
+   * @param path
+   *          The absolute path of the directory
+   */
+  public void scanDirectory(String path)
+  {
+    directoryIndex.scanDirectory(path);
+    scannedDirectoryCount++;
+  }
+
+  /** Retrieves the number of scanned directories. */
+  public long getScannedDirectoryCount()
+  {
+    return scannedDirectoryCount;
+  }
+
+  /** Checks if directories are waiting for a scan. */
+  public boolean isScanning()
+  {
+    synchronized(lock)
+    {
+      return pendingPaths.size() > 0 || activeScanCount > 0;
+    }
+  }
+
+  /** Terminates all scanning threads. */
+  public void terminate()
+  {
+    synchronized(lock)
+    {
+      terminateThread = true;
+      pendingPaths.clear();
+      recursiveFromPath.clear();
+      lock.notifyAll();
+    }
+    if (watchService != null)
+    {
+      try
+      {
+        watchService.close();
+      } catch (IOException e)
+      {
+      }
+    }
+  }
+
+  /** Adds a directory to the pending list. */
+  private void requestScan(String path, boolean recursive)
+  {
+    synchronized(lock)
+    {
+      if (terminateThread)
+      {
+        return;
+      }
+      Boolean pendingRecursive = (Boolean)recursiveFromPath.get(path);
+      if (pendingRecursive == null)
+      {
+        pendingPaths.add(path);
+      }
+      if (pendingRecursive == null || recursive && !pendingRecursive.booleanValue())
+      {
+        recursiveFromPath.put(path, Boolean.valueOf(recursive));
+      }
+      lock.notify();
+    }
+  }
+
+  /** Scans one directory and requests scans for its subdirectories. */
+  private void processDirectory(String path, boolean recursive)
+  {
+    // register before the scan, so no change after the scan is missed
+    registerDirectory(path);
+
+    DirectoryIndex.DirectoryEntry previousEntry = directoryIndex.getDirectory(path);
+    DirectoryIndex.DirectoryEntry entry = previousEntry;
+    // the scan also finds files that were rewritten without changing the directory
+    DirectoryIndex.DirectoryEntry changedEntry = directoryIndex.scanDirectory(path);
+    scannedDirectoryCount++;
+    if (changedEntry != null)
+    {
+      entry = changedEntry;
+      // inform media server about changes in already known directories
+      if (previousEntry != null)
+      {
+        directoryMediaServerEntity.directoryChanged(path);
+      }
+    }
+    if (changedEntry == null && directoryIndex.getDirectory(path) == null)
+    {
+      // directory was removed
+      unregisterDirectory(path);
+      return;
+    }
+    if (entry == null)
+    {
+      return;
+    }
+    DirectoryIndex.FileEntry[] files = entry.getFiles();
+    for (int i = 0; i < files.length; i++)
+    {
+      if (files[i].getType() == DirectoryIndex.TYPE_DIRECTORY)
+      {
+        String childPath = path + File.separator + files[i].getName();
+        // subdirectories that are not yet known are always scanned completely
+        if (recursive || directoryIndex.getDirectory(childPath) == null)
+        {
+          requestScan(childPath, true);
+        }
+      }
+    }
+  }
+
+  /** Registers a directory with the watch service. */
+  private void registerDirectory(String path)
+  {
+    if (watchService == null || watchKeyFromPath.containsKey(path))
+    {
+      return;
+    }
+    try
+    {
+      WatchKey key =
+        Paths.get(path).register(watchService,
+          new WatchEvent.Kind[] {
+              StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+              StandardWatchEventKinds.ENTRY_MODIFY
+          });
+      watchKeyFromPath.put(path, key);
+      pathFromWatchKey.put(key, path);
+    } catch (ClosedWatchServiceException e)
+    {
+    } catch (IOException e)
+    {
+      // directory was removed or cannot be watched
+    }
+  }
+
+  /** Removes a directory from the watch service. */
+  private void unregisterDirectory(String path)
+  {
+    WatchKey key = (WatchKey)watchKeyFromPath.remove(path);
+    if (key != null)
+    {
+      pathFromWatchKey.remove(key);
+      key.cancel();
+    }
+  }
+
+  /** This class scans pending directories. */
+  private class ScanWorker implements Runnable
+  {
+
+    public void run()
+    {
+      while (true)
+      {
+        String path;
+        boolean recursive;
+        synchronized(lock)
+        {
+          while (!terminateThread && pendingPaths.size() == 0)
+          {
+            try
+            {
+              lock.wait();
+            } catch (InterruptedException e)
+            {
+            }
+          }
+          if (terminateThread)
+          {
+            return;
+          }
+          path = (String)pendingPaths.remove(0);
+          recursive = ((Boolean)recursiveFromPath.remove(path)).booleanValue();
+          activeScanCount++;
+        }
+        try
+        {
+          processDirectory(path, recursive);
+        } catch (Exception e)
+        {
+          System.out.println("Error scanning " + path + ": " + e.getMessage());
+        }
+        synchronized(lock)
+        {
+          activeScanCount--;
+        }
+      }
+    }
+
+  }
+
+  /** This class rescans directories with changes reported by the watch service. */
+  private class ChangeWatcher implements Runnable
+  {
+
+    public void run()
+    {
+      long nextStoreTime = System.currentTimeMillis() + checkInterval;
+      while (!terminateThread)
+      {
+        WatchKey key = null;
+        try
+        {
+          if (watchService != null)
+          {
+            key = watchService.poll(Math.max(1, nextStoreTime - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+          } else
+          {
+            Thread.sleep(Math.max(1, nextStoreTime - System.currentTimeMillis()));
+            // without watch service, all directories are validated periodically
+            requestScan(rootDirectory, true);
+          }
+        } catch (InterruptedException e)
+        {
+        } catch (ClosedWatchServiceException e)
+        {
+          return;
+        }
+        if (terminateThread)
+        {
+          return;
+        }
+        if (key != null)
+        {
+          processWatchKey(key);
+        }
+        if (System.currentTimeMillis() >= nextStoreTime)
+        {
+          nextStoreTime = System.currentTimeMillis() + checkInterval;
+          if (!isScanning())
+          {
+            // store results of previous scans
+            directoryIndex.store();
+          }
+          // the root directory is kept even if it was removed temporarily
+          if (directoryIndex.getDirectory(rootDirectory) == null)
+          {
+            requestScan(rootDirectory, true);
+          }
+        }
+      }
+    }
+
+    /** Requests scans for a directory with reported changes. */
+    private void processWatchKey(WatchKey key)
+    {
+      String path = (String)pathFromWatchKey.get(key);
+      if (path == null)
+      {
+        path = ((Path)key.watchable()).toString();
+      }
+      boolean recursive = false;
+      List events = key.pollEvents();
+      for (int i = 0; i < events.size(); i++)
+      {
+        // lost events may hide changes in subdirectories
+        if (((WatchEvent)events.get(i)).kind() == StandardWatchEventKinds.OVERFLOW)
+        {
+          recursive = true;
+        }
+      }
+      if (!key.reset())
+      {
+        // directory is no longer accessible
+        unregisterDirectory(path);
+      }
+      requestScan(path, recursive);
+    }
+
+  }
+
+}
@@ -159,6 +159,16 @@ public class ImportResourceThread extends Thread
     return transferID;
   }
 
+  /**
+   * Retrieves the imported object.
+   * 
+   * @return The imported object.
+   */
+  public DIDLObject getDIDLObject()
+  {
+    return didlObject;
+  }
+
   /**
    * Retrieves the transferStatus.
    * 
@@ -32,12 +32,12 @@ import java.net.InetSocketAddress;
 import java.util.Vector;
 
 import de.fraunhofer.fokus.lsf.core.BinaryMessageHelper;
+import de.fraunhofer.fokus.lsf.core.BinaryMessageWriter;
 import de.fraunhofer.fokus.lsf.core.BinaryUPnPConstants;
 import de.fraunhofer.fokus.lsf.core.MessageTupel;
 import de.fraunhofer.fokus.lsf.core.base.GatewayData;
 import de.fraunhofer.fokus.lsf.gateway.common.message_forwarder.LSFMessageForwarder;
 import de.fraunhofer.fokus.upnp.util.ByteArrayHelper;
-import de.fraunhofer.fokus.upnp.util.Portable;
 import de.fraunhofer.fokus.upnp.util.StringHelper;
 import de.fraunhofer.fokus.upnp.util.network.BinaryMessageObject;
 import de.fraunhofer.fokus.upnp.util.network.IPHelper;
@@ -161,10 +161,13 @@ public abstract class AbstractLSFForwarderModule implements ILSFForwarderModule
    */
   public void receivedAnnouncementMessage(BinaryMessageObject message)
   {
-    StringHelper.printDebugText("", true, toString() + ":Received announcement from " +
-      IPHelper.toString(message.getSourceAddress()), BinaryUPnPConstants.toForwarderDebugString(null,
-      message.getBody(),
-      null));
+    if (BinaryUPnPConstants.DEBUG_MESSAGES)
+    {
+      StringHelper.printDebugText("", true, toString() + ":Received announcement from " +
+        IPHelper.toString(message.getSourceAddress()), BinaryUPnPConstants.toForwarderDebugString(null,
+        message.getBody(),
+        null));
+    }
     //    Portable.println(toString() + ":Received announcement:\r\n" + BinaryUPnPConstants.toDebugString(message.getBody()));
 
     long deviceID = BinaryMessageHelper.getDeviceIDFromMessage(message.getBody());
@@ -283,10 +286,13 @@ public abstract class AbstractLSFForwarderModule implements ILSFForwarderModule
 
     //    Portable.println(toString() + ":Forward announcement");
 
-    StringHelper.printDebugText(Indentation,
-      true,
-      toString() + ":Forwarded announcement message is:",
-      BinaryUPnPConstants.toDebugString(message.getBody()));
+    if (BinaryUPnPConstants.DEBUG_MESSAGES)
+    {
+      StringHelper.printDebugText(Indentation,
+        true,
+        toString() + ":Forwarded announcement message is:",
+        BinaryUPnPConstants.toDebugString(message.getBody()));
+    }
 
     //    StringHelper.printDebugText(Indentation,
     //      true,
@@ -357,10 +363,13 @@ public abstract class AbstractLSFForwarderModule implements ILSFForwarderModule
 
     // create new message
     message.setBody(BinaryMessageHelper.toByteArray(tupelList, null, responseEntityList));
-    StringHelper.printDebugText(Indentation,
-      true,
-      toString() + ":Forwarded search is:",
-      BinaryUPnPConstants.toForwarderDebugString(Indentation, message.getBody(), null));
+    if (BinaryUPnPConstants.DEBUG_MESSAGES)
+    {
+      StringHelper.printDebugText(Indentation,
+        true,
+        toString() + ":Forwarded search is:",
+        BinaryUPnPConstants.toForwarderDebugString(Indentation, message.getBody(), null));
+    }
     //    Portable.println(toString() + ":Forwarded search message is:\r\n" +
     //      BinaryUPnPConstants.toDebugString(message.getBody()));
 
@@ -399,10 +408,13 @@ public abstract class AbstractLSFForwarderModule implements ILSFForwarderModule
 
     // create new message
     message.setBody(BinaryMessageHelper.toByteArray(tupelList, accessEntityList, responseEntityList));
-    StringHelper.printDebugText(Indentation,
-      true,
-      toString() + ":Forwarded search response is:",
-      BinaryUPnPConstants.toForwarderDebugString(Indentation, message.getBody(), null));
+    if (BinaryUPnPConstants.DEBUG_MESSAGES)
+    {
+      StringHelper.printDebugText(Indentation,
+        true,
+        toString() + ":Forwarded search response is:",
+        BinaryUPnPConstants.toForwarderDebugString(Indentation, message.getBody(), null));
+    }
 
     //    Portable.println(toString() + ":Forwarded search response:");
     //    Portable.println(toString() + ":Forwarded search response message is:\r\n" +
@@ -441,11 +453,14 @@ public abstract class AbstractLSFForwarderModule implements ILSFForwarderModule
     message.setBody(BinaryMessageHelper.toByteArray(tupelList, accessEntityList, responseEntityList));
 
     //    Portable.println("Forwarded device request message is:\r\n" + BinaryUPnPConstants.toDebugString(message.getBody()));
-    StringHelper.printDebugText(Indentation,
-      true,
-      toString() + ":Forwarded device request message is:",
-      BinaryUPnPConstants.toForwarderDebugString(Indentation, message.getBody(), message.getSourceAddress()
-        .getAddress()));
+    if (BinaryUPnPConstants.DEBUG_MESSAGES)
+    {
+      StringHelper.printDebugText(Indentation,
+        true,
+        toString() + ":Forwarded device request message is:",
+        BinaryUPnPConstants.toForwarderDebugString(Indentation, message.getBody(), message.getSourceAddress()
+          .getAddress()));
+    }
 
     // send to parsed access address
     message.setDestinationAddress(accessAddress);
@@ -469,11 +484,14 @@ public abstract class AbstractLSFForwarderModule implements ILSFForwarderModule
     // create new message
     message.setBody(BinaryMessageHelper.toByteArray(tupelList, null, responseEntityList));
 
-    StringHelper.printDebugText(Indentation,
-      true,
-      toString() + ":Forwarded device response message is:",
-      BinaryUPnPConstants.toForwarderDebugString(Indentation, message.getBody(), message.getSourceAddress()
-        .getAddress()));
+    if (BinaryUPnPConstants.DEBUG_MESSAGES)
+    {
+      StringHelper.printDebugText(Indentation,
+        true,
+        toString() + ":Forwarded device response message is:",
+        BinaryUPnPConstants.toForwarderDebugString(Indentation, message.getBody(), message.getSourceAddress()
+          .getAddress()));
+    }
 
     // send to parsed access address
     message.setDestinationAddress(responseAddress);
@@ -502,24 +520,16 @@ public abstract class AbstractLSFForwarderModule implements ILSFForwarderModule
    */
   public void forwardEventMessage(BinaryMessageObject message)
   {
-    int newTupelOffset = message.getBody().length - 1;
     // accessID is not a complete gateway entity 
-    byte[] newMessageBody = new byte[message.getBody().length + 6];
+    BinaryMessageWriter messageWriter = BinaryMessageWriter.getThreadWriter();
 
     // ignore end of packet
-    Portable.arraycopy(message.getBody(), 0, newMessageBody, 0, newTupelOffset);
-    newMessageBody[newTupelOffset++] = BinaryUPnPConstants.UnitTypeAccessID;
-    newMessageBody[newTupelOffset++] = 4;
-    Portable.arraycopy(ByteArrayHelper.uint32ToByteArray(messageForwarder.getID()),
-      0,
-      newMessageBody,
-      newTupelOffset,
-      4);
-    newTupelOffset += 4;
-    newMessageBody[newTupelOffset++] = BinaryUPnPConstants.UnitTypeEndOfPacket;
+    messageWriter.writeRaw(message.getBody(), 0, message.getBody().length - 1);
+    messageWriter.writeUInt32Unit(BinaryUPnPConstants.UnitTypeAccessID, messageForwarder.getID());
+    messageWriter.writeEndOfPacket();
 
     // create new message
-    message.setBody(newMessageBody);
+    message.setBody(messageWriter.toByteArray());
 
     //    Portable.println("Forwarded event message is:\r\n" + BinaryUPnPConstants.toDebugString(message.getBody()));
 
@@ -31,15 +31,14 @@ import java.net.InetSocketAddress;
 import java.util.Vector;
 
 import de.fraunhofer.fokus.lsf.core.BinaryMessageHelper;
+import de.fraunhofer.fokus.lsf.core.BinaryMessageReader;
 import de.fraunhofer.fokus.lsf.core.BinaryUPnPConstants;
-import de.fraunhofer.fokus.lsf.core.MessageTupel;
 import de.fraunhofer.fokus.lsf.core.base.GatewayData;
 import de.fraunhofer.fokus.lsf.core.control_point.BinaryCPDevice;
 import de.fraunhofer.fokus.lsf.core.event.IBinaryCPDeviceEventListener;
 import de.fraunhofer.fokus.lsf.core.startup.LSFChildStartupConfiguration;
 import de.fraunhofer.fokus.lsf.core.startup.LSFStartupConfiguration;
 import de.fraunhofer.fokus.lsf.gateway.common.forwarder_module.ILSFForwarderModule;
-import de.fraunhofer.fokus.upnp.util.ByteArrayHelper;
 import de.fraunhofer.fokus.upnp.util.Portable;
 import de.fraunhofer.fokus.upnp.util.StringHelper;
 import de.fraunhofer.fokus.upnp.util.network.BinaryMessageObject;
@@ -91,7 +90,7 @@ public class LSFMessageForwarder implements IBinaryCPDeviceEventListener, IEvent
       System.out.println("Missing gateway startup infos. Exit application");
       return;
     }
-    eventThread = new EventThread("LSFMessageForwarder");
+    eventThread = EventThread.createSharedEventThread("LSFMessageForwarder");
     eventThread.register(this);
     eventThread.start();
   }
@@ -260,15 +259,10 @@ public class LSFMessageForwarder implements IBinaryCPDeviceEventListener, IEvent
   {
     //    Portable.println("Process announcement");
 
-    // parse complete message to retrieve all access entities
-    Vector tupelList = new Vector();
+    // parse complete message to retrieve all access entities, other tupels are not needed
     Vector accessEntityList = new Vector();
-    Vector responseEntityList = new Vector();
     long deviceID = BinaryMessageHelper.getDeviceIDFromMessage(message.getBody());
-    BinaryMessageHelper.parseMessageForForwarding(message.getBody(), tupelList, accessEntityList, responseEntityList);
-
-    //    Portable.println("Message for " + deviceID + " contains " + tupelList.size() + " normal tupels, " +
-    //      accessEntityList.size() + " access entities and " + responseEntityList.size() + " response entities");
+    BinaryMessageHelper.parseMessageForForwarding(message.getBody(), null, accessEntityList, null);
 
     // check for hop count
     if (accessEntityList.size() > 3)
@@ -303,14 +297,10 @@ public class LSFMessageForwarder implements IBinaryCPDeviceEventListener, IEvent
   {
     //    Portable.println("Process search");
 
-    // parse complete message to retrieve all access entities
-    Vector tupelList = new Vector();
+    // parse complete message to retrieve all response entities, other tupels are not needed
     Vector responseEntityList = new Vector();
 
-    BinaryMessageHelper.parseMessageForForwarding(message.getBody(), tupelList, null, responseEntityList);
-
-    //    Portable.println("Message contains " + tupelList.size() + " normal tupels and " + responseEntityList.size() +
-    //      " response entities");
+    BinaryMessageHelper.parseMessageForForwarding(message.getBody(), null, null, responseEntityList);
 
     // check for hop count
     if (responseEntityList.size() > 3)
@@ -345,17 +335,19 @@ public class LSFMessageForwarder implements IBinaryCPDeviceEventListener, IEvent
   public void processUnicastMessage(ILSFForwarderModule sourceForwarderModule, BinaryMessageObject message)
   {
     //    Portable.println(sourceForwarderModule.toString() + ":Received unicast:");
-    StringHelper.printDebugText("", true, sourceForwarderModule.toString() + ":Received unicast from " +
-      IPHelper.toString(message.getSourceAddress()) + ":", BinaryUPnPConstants.toForwarderDebugString("",
-      message.getBody(),
-      message.getSourceAddress().getAddress()));
+    if (BinaryUPnPConstants.DEBUG_MESSAGES)
+    {
+      StringHelper.printDebugText("", true, sourceForwarderModule.toString() + ":Received unicast from " +
+        IPHelper.toString(message.getSourceAddress()) + ":", BinaryUPnPConstants.toForwarderDebugString("",
+        message.getBody(),
+        message.getSourceAddress().getAddress()));
+    }
 
-    // parse complete message to retrieve all access entities
-    Vector tupelList = new Vector();
+    // parse complete message to retrieve all gateway entities, other tupels are not needed
     Vector accessEntityList = new Vector();
     Vector responseEntityList = new Vector();
 
-    BinaryMessageHelper.parseMessageForForwarding(message.getBody(), tupelList, accessEntityList, responseEntityList);
+    BinaryMessageHelper.parseMessageForForwarding(message.getBody(), null, accessEntityList, responseEntityList);
 
     // determine type
     byte messageType = message.getBody()[0];
@@ -449,21 +441,22 @@ public class LSFMessageForwarder implements IBinaryCPDeviceEventListener, IEvent
   {
     //    Portable.println("Process event");
 
-    // parse complete message to find accessID tupels
-    Vector tupelList = new Vector();
-    BinaryMessageHelper.parseMessageForForwarding(message.getBody(), tupelList, null, null);
-    long deviceID = BinaryMessageHelper.getDeviceIDFromMessage(message.getBody());
+    // scan message in place to find device ID and accessID tupels
+    BinaryMessageReader messageReader = BinaryMessageReader.getThreadReader(BinaryMessageReader.LEVEL_MESSAGE);
+    messageReader.reset(message.getBody());
+    long deviceID = 0;
 
     int hopCount = 0;
     // check for loops 
-    for (int i = 0; i < tupelList.size(); i++)
+    while (messageReader.next())
     {
-      MessageTupel currentMessageTupel = (MessageTupel)tupelList.elementAt(i);
-      if (currentMessageTupel.getTupelType() == BinaryUPnPConstants.UnitTypeAccessID)
+      if (messageReader.getUnitType() == BinaryUPnPConstants.UnitTypeDeviceID && deviceID == 0)
+      {
+        deviceID = messageReader.getNumber();
+      }
+      if (messageReader.getUnitType() == BinaryUPnPConstants.UnitTypeAccessID)
       {
-        long accessID =
-          ByteArrayHelper.byteArrayToInt64(currentMessageTupel.getPayload(), 0, currentMessageTupel.getPayloadLength());
-        if (accessID == id)
+        if (messageReader.getNumber() == id)
         {
           Portable.println("Event message loop detected");
           return;
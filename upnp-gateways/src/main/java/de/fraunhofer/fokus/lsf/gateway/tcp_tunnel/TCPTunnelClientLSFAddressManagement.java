@@ -237,7 +237,7 @@ public class TCPTunnelClientLSFAddressManagement extends AbstractLSFAddressManag
             TCPTunnelNetworkInterface tcpTunnelNetworkInterface = new TCPTunnelNetworkInterface(socket);
             tcpTunnelNetworkInterface.setIPTunnelInetAddress(ipTunnelInetAddress);
             // set optional network interface parameters
-            tcpTunnelNetworkInterface.setMaximumSegmentSize(1400);
+            tcpTunnelNetworkInterface.setMaximumSegmentSize(IPTunnelConstants.TCP_STREAM_TUNNEL_SEGMENT_SIZE);
             tcpTunnelNetworkInterface.setAcceptOnlySinglePacketsPerSocket(false);
             tcpTunnelNetworkInterface.setPacketGapTime(1);
 
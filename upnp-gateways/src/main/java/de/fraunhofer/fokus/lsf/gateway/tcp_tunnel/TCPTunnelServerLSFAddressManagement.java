@@ -47,6 +47,7 @@ import de.fraunhofer.fokus.upnp.util.network.IPHelper;
 import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
 import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IIPTunnelEventListener;
 import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IIPTunnelNetworkInterface;
+import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IPTunnelConstants;
 import de.fraunhofer.fokus.upnp.util.tunnel.network_interface.TCPTunnelNetworkInterface;
 
 /**
@@ -297,7 +298,7 @@ public class TCPTunnelServerLSFAddressManagement extends AbstractLSFAddressManag
       tcpTunnelNetworkInterface.setIPTunnelEventListener(this);
 
       // set optional network interface parameters
-      tcpTunnelNetworkInterface.setMaximumSegmentSize(1400);
+      tcpTunnelNetworkInterface.setMaximumSegmentSize(IPTunnelConstants.TCP_STREAM_TUNNEL_SEGMENT_SIZE);
       tcpTunnelNetworkInterface.setAcceptOnlySinglePacketsPerSocket(false);
       tcpTunnelNetworkInterface.setPacketGapTime(1);
 
@@ -28,13 +28,17 @@
 package de.fraunhofer.fokus.upnp.gateway.common.message_forwarder;
 
 import java.net.InetSocketAddress;
+import java.util.zip.CRC32;
 
 import org.apache.log4j.Logger;
 
 import de.fraunhofer.fokus.upnp.gateway.common.forwarder_module.IForwarderModule;
 import de.fraunhofer.fokus.upnp.http.HTTPConstant;
 import de.fraunhofer.fokus.upnp.http.HTTPParser;
+import de.fraunhofer.fokus.upnp.util.BoundedCache;
+import de.fraunhofer.fokus.upnp.util.ByteArrayHelper;
 import de.fraunhofer.fokus.upnp.util.CommonConstants;
+import de.fraunhofer.fokus.upnp.util.HighResTimerHelper;
 import de.fraunhofer.fokus.upnp.util.StringHelper;
 import de.fraunhofer.fokus.upnp.util.URLExtension;
 import de.fraunhofer.fokus.upnp.util.XMLConstant;
@@ -55,14 +59,47 @@ import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
 public class HTTPManagement implements IEventListener
 {
 
-  private static Logger    logger = Logger.getLogger("upnp");
+  private static Logger       logger                         = Logger.getLogger("upnp");
 
-  private MessageForwarder messageForwarder;
+  /** Maximum number of cached rewritten device descriptions */
+  public static int           DESCRIPTION_CACHE_ENTRIES      = 64;
+
+  /** Maximum accumulated size of cached device descriptions in bytes */
+  public static long          DESCRIPTION_CACHE_SIZE         = 2 * 1024 * 1024;
+
+  /** Lifetime of cached device descriptions in ms */
+  public static long          DESCRIPTION_CACHE_TIME_TO_LIVE = 30 * 60 * 1000;
+
+  private static final byte[] XML_START_BYTES                = StringHelper.stringToByteArray(XMLConstant.XML_START);
+
+  private static final byte[] XMLNS_DEVICE_BYTES             = StringHelper.stringToByteArray(XMLConstant.XMLNS_DEVICE);
+
+  private MessageForwarder    messageForwarder;
+
+  /** Rewritten device descriptions */
+  private BoundedCache        descriptionCache;
+
+  /** Number of rewritten device descriptions */
+  private long                descriptionRewriteCount        = 0;
+
+  /** Accumulated time for device description rewriting in microseconds */
+  private long                descriptionRewriteTime         = 0;
+
+  /** Number of rewritten SOAP responses */
+  private long                soapRewriteCount               = 0;
+
+  /** Number of SOAP responses that did not contain forwarded URLs */
+  private long                soapUnchangedCount             = 0;
+
+  /** Accumulated time for SOAP response rewriting in microseconds */
+  private long                soapRewriteTime                = 0;
 
   /** Creates a new instance of HTTPManagement. */
   public HTTPManagement(MessageForwarder messageForwarder)
   {
     this.messageForwarder = messageForwarder;
+    descriptionCache =
+      new BoundedCache(DESCRIPTION_CACHE_ENTRIES, DESCRIPTION_CACHE_SIZE, DESCRIPTION_CACHE_TIME_TO_LIVE);
   }
 
   /**
@@ -267,30 +304,19 @@ public class HTTPManagement implements IEventListener
     String forwarderModuleID,
     String baseURL)
   {
-    if (httpResponse.getBody() == null)
+    byte[] responseBody = httpResponse.getBody();
+    if (responseBody == null)
     {
       return;
     }
 
-    String responseBodyString = StringHelper.byteArrayToUTF8String(httpResponse.getBody());
-    // check for XML and device description
-    if (responseBodyString.startsWith(XMLConstant.XML_START) &&
-      responseBodyString.indexOf(XMLConstant.XMLNS_DEVICE) != -1)
+    // check for XML and device description without decoding the body
+    if (ByteArrayHelper.startsWith(responseBody, XML_START_BYTES) &&
+      ByteArrayHelper.indexOf(responseBody, XMLNS_DEVICE_BYTES, 0) != -1)
     {
-      // device description found, replace URLs
-      IForwarderModule sourceModule = messageForwarder.getForwarderModuleByID(sourceModuleID);
-      // further messages must use the same address:port as this message
-      String changedDeviceDescription =
-        URLExtension.extendDeviceDescriptionURLs(responseBodyString,
-          forwarderModuleID,
-          sourceModule.getHTTPServerAddress(),
-          sourceModule.getHTTPServerPort(),
-          baseURL);
+      byte[] modifiedBody =
+        getModifiedDeviceDescription(httpRequest, httpResponse, sourceModuleID, forwarderModuleID, baseURL);
 
-      // System.out.println("HTTPManagement: Replaced all URLs in DeviceDescription," +
-      // " result is [\n"+changedDeviceDescription+"]");
-
-      byte[] modifiedBody = StringHelper.utf8StringToByteArray(changedDeviceDescription);
       httpResponse.setBody(modifiedBody);
       // change content length in response header
       httpResponse.setHeader(HTTPMessageHelper.replaceContentLength(httpResponse.getHeader(), modifiedBody.length));
@@ -299,27 +325,138 @@ public class HTTPManagement implements IEventListener
     if (httpRequest.getHeader().startsWith(HTTPConstant.POST) ||
       httpRequest.getHeader().startsWith(HTTPConstant.M_POST))
     {
+      long startTime = HighResTimerHelper.getTimeStamp();
       String originalHTTPServer = IPHelper.toString(httpRequest.getDestinationAddress());
       // extend all URLs that are delivered via the device internal HTTP server
       // e.g., media server or POI items
       IForwarderModule sourceModule = messageForwarder.getForwarderModuleByID(sourceModuleID);
       // item requests must be redirected over this gateway
-      String changedMessage =
-        URLExtension.extendSoapResponseURLs(responseBodyString,
+      byte[] modifiedBody =
+        URLExtension.extendSoapResponseURLs(responseBody,
           originalHTTPServer,
           forwarderModuleID,
           sourceModule.getHTTPServerAddress(),
           sourceModule.getHTTPServerPort());
 
-      byte[] modifiedBody = StringHelper.utf8StringToByteArray(changedMessage);
-      httpResponse.setBody(modifiedBody);
-      // change content length in response header
-      httpResponse.setHeader(HTTPMessageHelper.replaceHeaderLine(httpResponse.getHeader(),
-        CommonConstants.CONTENT_LENGTH,
-        " " + Integer.toString(modifiedBody.length)));
+      if (modifiedBody != responseBody)
+      {
+        httpResponse.setBody(modifiedBody);
+        // change content length in response header
+        httpResponse.setHeader(HTTPMessageHelper.replaceHeaderLine(httpResponse.getHeader(),
+          CommonConstants.CONTENT_LENGTH,
+          " " + Integer.toString(modifiedBody.length)));
+      }
+      long endTime = HighResTimerHelper.getTimeStamp();
+      synchronized(this)
+      {
+        if (modifiedBody != responseBody)
+        {
+          soapRewriteCount++;
+        } else
+        {
+          soapUnchangedCount++;
+        }
+        soapRewriteTime += HighResTimerHelper.getMicroseconds(startTime, endTime);
+      }
     }
   }
 
+  /**
+   * Retrieves a device description with extended URLs. Rewritten descriptions are cached for the
+   * target URL, both modules, the HTTP server address of the source module and the ETag or content
+   * of the original description.
+   * 
+   * @param httpRequest
+   *          The associated request message
+   * @param httpResponse
+   *          The response message with the original description
+   * @param sourceModuleID
+   *          The ID of the module that received the request
+   * @param forwarderModuleID
+   *          The ID of the module that forwarded the request
+   * @param baseURL
+   *          The baseURL retrieved from the original request
+   * 
+   * @return The modified description
+   */
+  private byte[] getModifiedDeviceDescription(HTTPMessageObject httpRequest,
+    HTTPMessageObject httpResponse,
+    String sourceModuleID,
+    String forwarderModuleID,
+    String baseURL)
+  {
+    byte[] responseBody = httpResponse.getBody();
+    String header = httpRequest.getHeader();
+    int requestLineEndIndex = header.indexOf(CommonConstants.NEW_LINE);
+    String requestLine = requestLineEndIndex == -1 ? header : header.substring(0, requestLineEndIndex);
+
+    String descriptionVersion = HTTPMessageHelper.getHeaderLine(httpResponse.getHeader(), HTTPConstant.ETAG_HEADER);
+    if (descriptionVersion == null)
+    {
+      CRC32 checksum = new CRC32();
+      checksum.update(responseBody);
+      descriptionVersion = responseBody.length + ":" + Long.toHexString(checksum.getValue());
+    }
+    IForwarderModule sourceModule = messageForwarder.getForwarderModuleByID(sourceModuleID);
+    // the extended URLs contain the current server address of the source module, which changes
+    // with its network interface
+    String cacheKey =
+      IPHelper.toString(httpRequest.getDestinationAddress()) + " " + requestLine + "|" + sourceModuleID + "|" +
+        sourceModule.getHTTPServerAddress() + ":" + sourceModule.getHTTPServerPort() + "|" + forwarderModuleID +
+        "|" + descriptionVersion;
+
+    DescriptionCacheEntry cacheEntry = (DescriptionCacheEntry)descriptionCache.get(cacheKey);
+    // compare content to be safe against hash collisions and reused ETags
+    if (cacheEntry != null && ByteArrayHelper.isEqual(cacheEntry.originalBody, responseBody))
+    {
+      return cacheEntry.modifiedBody;
+    }
+    long generation = descriptionCache.getGeneration();
+    long startTime = HighResTimerHelper.getTimeStamp();
+
+    // device description found, replace URLs
+    // further messages must use the same address:port as this message
+    String changedDeviceDescription =
+      URLExtension.extendDeviceDescriptionURLs(StringHelper.byteArrayToUTF8String(responseBody),
+        forwarderModuleID,
+        sourceModule.getHTTPServerAddress(),
+        sourceModule.getHTTPServerPort(),
+        baseURL);
+
+    // System.out.println("HTTPManagement: Replaced all URLs in DeviceDescription," +
+    // " result is [\n"+changedDeviceDescription+"]");
+
+    byte[] modifiedBody = StringHelper.utf8StringToByteArray(changedDeviceDescription);
+    long endTime = HighResTimerHelper.getTimeStamp();
+    synchronized(this)
+    {
+      descriptionRewriteCount++;
+      descriptionRewriteTime += HighResTimerHelper.getMicroseconds(startTime, endTime);
+    }
+    descriptionCache.put(cacheKey,
+      new DescriptionCacheEntry(responseBody, modifiedBody),
+      responseBody.length + modifiedBody.length,
+      generation);
+
+    return modifiedBody;
+  }
+
+  /** Removes all cached device descriptions, e.g., after a change of a forwarder module. */
+  public void invalidateDescriptionCache()
+  {
+    descriptionCache.invalidate();
+  }
+
+  /** Retrieves a short description of the rewrite counters. */
+  public synchronized String getStatistics()
+  {
+    return "Description cache: " + descriptionCache.getStatistics() + "; descriptions rewritten: " +
+      descriptionRewriteCount + " (" + (descriptionRewriteCount == 0 ? 0 : descriptionRewriteTime /
+      descriptionRewriteCount) + " us avg); SOAP responses rewritten: " + soapRewriteCount + ", unchanged: " +
+      soapUnchangedCount + " (" + (soapRewriteCount + soapUnchangedCount == 0 ? 0 : soapRewriteTime /
+      (soapRewriteCount + soapUnchangedCount)) + " us avg)";
+  }
+
   /*
    * (non-Javadoc)
    * 
@@ -368,4 +505,26 @@ public class HTTPManagement implements IEventListener
     }
   }
 
+  /** This class holds one original device description and its rewritten version. */
+  private static class DescriptionCacheEntry
+  {
+    /** Description as received from the device */
+    private byte[] originalBody;
+
+    /** Description with extended URLs */
+    private byte[] modifiedBody;
+
+    /**
+     * Creates a new instance of DescriptionCacheEntry.
+     * 
+     * @param originalBody
+     * @param modifiedBody
+     */
+    public DescriptionCacheEntry(byte[] originalBody, byte[] modifiedBody)
+    {
+      this.originalBody = originalBody;
+      this.modifiedBody = modifiedBody;
+    }
+  }
+
 }
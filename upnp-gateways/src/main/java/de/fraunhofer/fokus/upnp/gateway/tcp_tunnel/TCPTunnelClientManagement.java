@@ -176,7 +176,7 @@ public class TCPTunnelClientManagement extends Thread implements IIPTunnelEventL
             tcpTunnelNetworkInterface.setIPTunnelInetAddress(ipTunnelInetAddress);
 
             // set optional network interface parameters
-            tcpTunnelNetworkInterface.setMaximumSegmentSize(1400);
+            tcpTunnelNetworkInterface.setMaximumSegmentSize(IPTunnelConstants.TCP_STREAM_TUNNEL_SEGMENT_SIZE);
             tcpTunnelNetworkInterface.setAcceptOnlySinglePacketsPerSocket(false);
             tcpTunnelNetworkInterface.setPacketGapTime(2);
 
@@ -46,6 +46,7 @@ import de.fraunhofer.fokus.upnp.util.network.IPHelper;
 import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
 import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IIPTunnelEventListener;
 import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IIPTunnelNetworkInterface;
+import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IPTunnelConstants;
 import de.fraunhofer.fokus.upnp.util.tunnel.network_interface.TCPTunnelNetworkInterface;
 
 /**
@@ -288,7 +289,7 @@ public class TCPTunnelServerManagement extends Thread implements IIPTunnelEventL
       tcpTunnelNetworkInterface.setIPTunnelEventListener(this);
 
       // set optional network interface parameters
-      tcpTunnelNetworkInterface.setMaximumSegmentSize(1400);
+      tcpTunnelNetworkInterface.setMaximumSegmentSize(IPTunnelConstants.TCP_STREAM_TUNNEL_SEGMENT_SIZE);
       tcpTunnelNetworkInterface.setAcceptOnlySinglePacketsPerSocket(false);
       tcpTunnelNetworkInterface.setPacketGapTime(5);
 
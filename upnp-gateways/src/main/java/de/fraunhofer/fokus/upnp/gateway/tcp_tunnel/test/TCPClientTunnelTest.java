@@ -38,6 +38,7 @@ import de.fraunhofer.fokus.upnp.util.network.BinaryMessageObject;
 import de.fraunhofer.fokus.upnp.util.network.IPHelper;
 import de.fraunhofer.fokus.upnp.util.network.SocketHelper;
 import de.fraunhofer.fokus.upnp.util.threads.EventThread;
+import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IPTunnelConstants;
 import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IPTunnelDatagramSocket;
 import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IPTunnelSocket;
 import de.fraunhofer.fokus.upnp.util.tunnel.network_interface.TCPTunnelNetworkInterface;
@@ -127,7 +128,7 @@ public class TCPClientTunnelTest extends Thread
           eventThread.register(ipTunnelNetworkInterface);
 
           // set optional network interface parameters
-          ipTunnelNetworkInterface.setMaximumSegmentSize(1400);
+          ipTunnelNetworkInterface.setMaximumSegmentSize(IPTunnelConstants.TCP_STREAM_TUNNEL_SEGMENT_SIZE);
           ipTunnelNetworkInterface.setAcceptOnlySinglePacketsPerSocket(false);
           ipTunnelNetworkInterface.setPacketGapTime(0);
 
@@ -39,6 +39,7 @@ import java.net.UnknownHostException;
 import de.fraunhofer.fokus.upnp.util.ThreadHelper;
 import de.fraunhofer.fokus.upnp.util.network.IPHelper;
 import de.fraunhofer.fokus.upnp.util.threads.EventThread;
+import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IPTunnelConstants;
 import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IPTunnelDatagramSocket;
 import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IPTunnelServerSocket;
 import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IPTunnelSocket;
@@ -140,7 +141,7 @@ public class TCPServerTunnelTest extends Thread
           eventThread.register(ipTunnelNetworkInterface);
 
           // set optional network interface parameters
-          ipTunnelNetworkInterface.setMaximumSegmentSize(1400);
+          ipTunnelNetworkInterface.setMaximumSegmentSize(IPTunnelConstants.TCP_STREAM_TUNNEL_SEGMENT_SIZE);
           ipTunnelNetworkInterface.setAcceptOnlySinglePacketsPerSocket(false);
           ipTunnelNetworkInterface.setPacketGapTime(0);
 
@@ -0,0 +1,377 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.util;
+
+import java.util.Hashtable;
+
+/**
+ * This class provides a cache with a limited number of entries, a limited total size and a
+ * limited lifetime for each entry. If a limit is exceeded, the least recently used entries are
+ * removed.
+ * 
+ * Values that depend on changing data can be protected against stale results with the
+ * generation of the cache. The generation is incremented by each call to invalidate(). Values
+ * that were computed in an older generation are not stored.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class BoundedCache
+{
+
+  /** Cache entries, indexed by their key */
+  private Hashtable  entryFromKeyTable   = new Hashtable();
+
+  /** Most recently used entry */
+  private CacheEntry head                = null;
+
+  /** Least recently used entry */
+  private CacheEntry tail                = null;
+
+  /** Maximum number of entries */
+  private int        maxEntries;
+
+  /** Maximum accumulated size of all entries or 0 for no limit */
+  private long       maxSize;
+
+  /** Lifetime of an entry in ms or 0 for no limit */
+  private long       timeToLive;
+
+  /** Accumulated size of all entries */
+  private long       size                = 0;
+
+  /** Number of calls to invalidate() */
+  private long       generation          = 0;
+
+  private long       hitCount            = 0;
+
+  private long       missCount           = 0;
+
+  private long       evictionCount       = 0;
+
+  private long       expirationCount     = 0;
+
+  private long       invalidationCount   = 0;
+
+  /**
+   * Creates a new instance of BoundedCache.
+   * 
+   * @param maxEntries
+   *          Maximum number of entries
+   * @param maxSize
+   *          Maximum accumulated size of all entries or 0 for no limit
+   * @param timeToLive
+   *          Lifetime of an entry in ms or 0 for no limit
+   */
+  public BoundedCache(int maxEntries, long maxSize, long timeToLive)
+  {
+    this.maxEntries = Math.max(1, maxEntries);
+    this.maxSize = Math.max(0, maxSize);
+    this.timeToLive = Math.max(0, timeToLive);
+  }
+
+  /**
+   * Retrieves a cached value.
+   * 
+   * @param key
+   *          The key
+   * 
+   * @return The value or null if the key is unknown or the entry has expired
+   */
+  public synchronized Object get(Object key)
+  {
+    CacheEntry entry = (CacheEntry)entryFromKeyTable.get(key);
+    if (entry == null)
+    {
+      missCount++;
+      return null;
+    }
+    if (timeToLive > 0 && System.currentTimeMillis() - entry.creationTime > timeToLive)
+    {
+      removeEntry(entry);
+      expirationCount++;
+      missCount++;
+      return null;
+    }
+    // move to front
+    unlink(entry);
+    linkFirst(entry);
+    hitCount++;
+
+    return entry.value;
+  }
+
+  /**
+   * Checks if a key is cached. This does not change the order of the entries or the statistics.
+   * 
+   * @param key
+   *          The key
+   * 
+   * @return True if a valid entry exists for the key
+   */
+  public synchronized boolean containsKey(Object key)
+  {
+    CacheEntry entry = (CacheEntry)entryFromKeyTable.get(key);
+    return entry != null && (timeToLive == 0 || System.currentTimeMillis() - entry.creationTime <= timeToLive);
+  }
+
+  /**
+   * Stores a value. The size of byte arrays is their length, the size of strings is their length
+   * in characters. All other values have a size of 1.
+   * 
+   * @param key
+   *          The key
+   * @param value
+   *          The value
+   */
+  public void put(Object key, Object value)
+  {
+    put(key, value, getDefaultSize(value), getGeneration());
+  }
+
+  /**
+   * Stores a value if the cache was not invalidated since the value was computed.
+   * 
+   * @param key
+   *          The key
+   * @param value
+   *          The value
+   * @param size
+   *          The size of the value
+   * @param generation
+   *          The generation that was current when the computation of the value started
+   * 
+   * @return True if the value was stored, false otherwise
+   */
+  public synchronized boolean put(Object key, Object value, long size, long generation)
+  {
+    if (key == null || value == null || generation != this.generation || maxSize > 0 && size > maxSize)
+    {
+      return false;
+    }
+    CacheEntry entry = (CacheEntry)entryFromKeyTable.get(key);
+    if (entry != null)
+    {
+      removeEntry(entry);
+    }
+    entry = new CacheEntry(key, value, size);
+    entryFromKeyTable.put(key, entry);
+    linkFirst(entry);
+    this.size += size;
+
+    // remove least recently used entries
+    while (tail != null && (entryFromKeyTable.size() > maxEntries || maxSize > 0 && this.size > maxSize))
+    {
+      removeEntry(tail);
+      evictionCount++;
+    }
+    return true;
+  }
+
+  /**
+   * Removes a value.
+   * 
+   * @param key
+   *          The key
+   * 
+   * @return The removed value or null
+   */
+  public synchronized Object remove(Object key)
+  {
+    CacheEntry entry = (CacheEntry)entryFromKeyTable.get(key);
+    if (entry == null)
+    {
+      return null;
+    }
+    removeEntry(entry);
+    return entry.value;
+  }
+
+  /** Removes all entries and starts a new generation. */
+  public synchronized void invalidate()
+  {
+    generation++;
+    if (entryFromKeyTable.size() > 0)
+    {
+      invalidationCount++;
+    }
+    entryFromKeyTable.clear();
+    head = null;
+    tail = null;
+    size = 0;
+  }
+
+  /** Retrieves the current generation of the cache. */
+  public synchronized long getGeneration()
+  {
+    return generation;
+  }
+
+  /** Retrieves the number of entries. */
+  public synchronized int size()
+  {
+    return entryFromKeyTable.size();
+  }
+
+  /** Retrieves the accumulated size of all entries. */
+  public synchronized long getSize()
+  {
+    return size;
+  }
+
+  /** Retrieves the number of successful lookups. */
+  public long getHitCount()
+  {
+    return hitCount;
+  }
+
+  /** Retrieves the number of failed lookups. */
+  public long getMissCount()
+  {
+    return missCount;
+  }
+
+  /** Retrieves the number of entries that were removed to keep the limits. */
+  public long getEvictionCount()
+  {
+    return evictionCount;
+  }
+
+  /** Retrieves the number of entries that were removed because their lifetime ended. */
+  public long getExpirationCount()
+  {
+    return expirationCount;
+  }
+
+  /** Retrieves the number of invalidations that removed entries. */
+  public long getInvalidationCount()
+  {
+    return invalidationCount;
+  }
+
+  /** Retrieves a short description of the cache counters. */
+  public synchronized String getStatistics()
+  {
+    long lookupCount = hitCount + missCount;
+    return "Entries: " + entryFromKeyTable.size() + ", size: " + size + ", hits: " + hitCount + ", misses: " +
+      missCount + " (hit rate: " + (lookupCount == 0 ? 0 : hitCount * 100 / lookupCount) + "%), evictions: " +
+      evictionCount + ", expirations: " + expirationCount + ", invalidations: " + invalidationCount;
+  }
+
+  /** Calculates the size of a value. */
+  private long getDefaultSize(Object value)
+  {
+    if (value instanceof byte[])
+    {
+      return ((byte[])value).length;
+    }
+    if (value instanceof String)
+    {
+      return ((String)value).length();
+    }
+    return 1;
+  }
+
+  /** Removes an entry from the table and the usage list. */
+  private void removeEntry(CacheEntry entry)
+  {
+    entryFromKeyTable.remove(entry.key);
+    unlink(entry);
+    size -= entry.size;
+  }
+
+  /** Inserts an entry at the front of the usage list. */
+  private void linkFirst(CacheEntry entry)
+  {
+    entry.previous = null;
+    entry.next = head;
+    if (head != null)
+    {
+      head.previous = entry;
+    }
+    head = entry;
+    if (tail == null)
+    {
+      tail = entry;
+    }
+  }
+
+  /** Removes an entry from the usage list. */
+  private void unlink(CacheEntry entry)
+  {
+    if (entry.previous != null)
+    {
+      entry.previous.next = entry.next;
+    } else if (head == entry)
+    {
+      head = entry.next;
+    }
+    if (entry.next != null)
+    {
+      entry.next.previous = entry.previous;
+    } else if (tail == entry)
+    {
+      tail = entry.previous;
+    }
+    entry.previous = null;
+    entry.next = null;
+  }
+
+  /** This class holds one cached value. */
+  private static class CacheEntry
+  {
+
+    public Object     key;
+
+    public Object     value;
+
+    public long       size;
+
+    public long       creationTime;
+
+    public CacheEntry previous;
+
+    public CacheEntry next;
+
+    /**
+     * Creates a new instance of CacheEntry.
+     * 
+     * @param key
+     * @param value
+     * @param size
+     */
+    public CacheEntry(Object key, Object value, long size)
+    {
+      this.key = key;
+      this.value = value;
+      this.size = size;
+      this.creationTime = System.currentTimeMillis();
+    }
+  }
+
+}
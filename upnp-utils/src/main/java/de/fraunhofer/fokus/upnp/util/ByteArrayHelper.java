@@ -27,6 +27,8 @@
 */
 package de.fraunhofer.fokus.upnp.util;
 
+import java.io.ByteArrayOutputStream;
+
 /**
  * This class provides methods to convert numbers into byte arrays and vice versa.
  * 
@@ -208,4 +210,82 @@ public class ByteArrayHelper
     return result;
   }
 
+  /** Searches a byte sequence in a byte array. Returns the index of the first match or -1. */
+  public static int indexOf(byte[] data, byte[] pattern, int fromIndex)
+  {
+    if (data == null || pattern == null || pattern.length == 0)
+    {
+      return -1;
+    }
+    int lastIndex = data.length - pattern.length;
+    byte firstByte = pattern[0];
+    for (int i = Math.max(0, fromIndex); i <= lastIndex; i++)
+    {
+      if (data[i] == firstByte)
+      {
+        int j = 1;
+        while (j < pattern.length && data[i + j] == pattern[j])
+        {
+          j++;
+        }
+        if (j == pattern.length)
+        {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /** Checks if a byte array starts with a certain byte sequence. */
+  public static boolean startsWith(byte[] data, byte[] prefix)
+  {
+    if (data == null || prefix == null || data.length < prefix.length)
+    {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++)
+    {
+      if (data[i] != prefix[i])
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Replaces all occurrences of a byte sequence in one pass.
+   * 
+   * @param data
+   *          The original data
+   * @param pattern
+   *          The searched sequence
+   * @param replacement
+   *          The new sequence
+   * 
+   * @return The new data or the original array if the sequence was not found
+   */
+  public static byte[] replaceAll(byte[] data, byte[] pattern, byte[] replacement)
+  {
+    int foundIndex = indexOf(data, pattern, 0);
+    if (foundIndex == -1)
+    {
+      return data;
+    }
+    ByteArrayOutputStream outputStream =
+      new ByteArrayOutputStream(data.length + Math.max(0, replacement.length - pattern.length) * 4);
+    int startIndex = 0;
+    while (foundIndex != -1)
+    {
+      outputStream.write(data, startIndex, foundIndex - startIndex);
+      outputStream.write(replacement, 0, replacement.length);
+      startIndex = foundIndex + pattern.length;
+      foundIndex = indexOf(data, pattern, startIndex);
+    }
+    outputStream.write(data, startIndex, data.length - startIndex);
+
+    return outputStream.toByteArray();
+  }
+
 }
@@ -478,6 +478,40 @@ public class URLExtension
     return xmlDescription;
   }
 
+  /**
+   * Extends host and port of all urls in an encoded SOAP response message that are equal to a
+   * certain address. The message is scanned once without decoding it to a string. This works for
+   * UTF-8 because the searched ASCII address cannot be part of a multi-byte sequence.
+   * 
+   * @param body
+   *          The original UTF-8 encoded response body
+   * @param originalSocketAddress
+   *          The socket address that should be replaced
+   * @param outgoingInterfaceAddress
+   *          The interface that should forward the resource request
+   * @param incomingInterfaceAddress
+   *          The interface that should receive the resource request
+   * @param incomingInterfacePort
+   *          The port that should receive the resource request
+   * @return The new response body or the original body if no url was found
+   */
+  public static byte[] extendSoapResponseURLs(byte[] body,
+    String originalSocketAddress,
+    String outgoingInterfaceAddress,
+    String incomingInterfaceAddress,
+    int incomingInterfacePort)
+  {
+    String oldHost = originalSocketAddress.substring(0, originalSocketAddress.indexOf(":"));
+    String oldPort = originalSocketAddress.substring(originalSocketAddress.indexOf(":") + 1);
+    String newURL =
+      incomingInterfaceAddress + ":" + incomingInterfacePort + "/" + outgoingInterfaceAddress + "/" + oldHost + "/" +
+        oldPort;
+
+    return ByteArrayHelper.replaceAll(body,
+      StringHelper.utf8StringToByteArray(originalSocketAddress),
+      StringHelper.utf8StringToByteArray(newURL));
+  }
+
   /**
    * Extends all urls in a device description.
    * 
@@ -0,0 +1,522 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.util;
+
+import java.util.Vector;
+
+import org.xml.sax.SAXException;
+
+/**
+ * This class is a small pull parser for simple, well-formed XML documents like SOAP messages. It
+ * avoids the creation of a JAXP parser for each document. Document type declarations are not
+ * supported and result in an exception, so callers can fall back to a SAX parser for such
+ * documents.
+ * 
+ * Text is returned with resolved entities and normalized line breaks, comments and processing
+ * instructions are skipped.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class XMLPullParser
+{
+
+  /** Event for a start tag */
+  public static final int START_TAG         = 1;
+
+  /** Event for an end tag */
+  public static final int END_TAG           = 2;
+
+  /** Event for text between tags */
+  public static final int TEXT              = 3;
+
+  /** Event for the end of the document */
+  public static final int END_DOCUMENT      = 4;
+
+  /** Parsed document */
+  private String          document;
+
+  /** Current read position */
+  private int             position;
+
+  /** Names of all open tags */
+  private Vector          tags              = new Vector();
+
+  /** Type of the current event */
+  private int             eventType;
+
+  /** Name of the current tag */
+  private String          name;
+
+  /** Text of the current text event */
+  private String          text;
+
+  /** Attribute names of the current start tag */
+  private Vector          attributeNames    = new Vector();
+
+  /** Attribute values of the current start tag */
+  private Vector          attributeValues   = new Vector();
+
+  /** Flag that the current start tag is empty and must be followed by an end tag */
+  private boolean         pendingEndTag     = false;
+
+  /** Flag that the root element has been parsed */
+  private boolean         rootElementParsed = false;
+
+  /** Buffer for text and attribute values */
+  private StringBuffer    buffer            = new StringBuffer();
+
+  /**
+   * Creates a new instance of XMLPullParser.
+   * 
+   * @param document
+   *          The document that should be parsed
+   */
+  public XMLPullParser(String document)
+  {
+    if (document == null)
+    {
+      throw new IllegalArgumentException("Document is null");
+    }
+    int length = document.length();
+    // remove trailing \0
+    while (length > 0 && document.charAt(length - 1) == 0)
+    {
+      length--;
+    }
+    this.document = document.substring(0, length);
+    // skip byte order mark
+    if (this.document.length() > 0 && this.document.charAt(0) == '\uFEFF')
+    {
+      position = 1;
+    }
+  }
+
+  /**
+   * Reads the next event.
+   * 
+   * @return The type of the event
+   * @throws SAXException
+   *           if the document is not well-formed or uses unsupported features
+   */
+  public int next() throws SAXException
+  {
+    text = null;
+    attributeNames.clear();
+    attributeValues.clear();
+    // remove tag of last end event
+    if (eventType == END_TAG)
+    {
+      tags.remove(tags.size() - 1);
+    }
+    if (pendingEndTag)
+    {
+      pendingEndTag = false;
+      eventType = END_TAG;
+      return eventType;
+    }
+    while (true)
+    {
+      if (position >= document.length())
+      {
+        if (tags.size() > 0)
+        {
+          throw new SAXException("Unexpected end of document in " + tags.lastElement());
+        }
+        if (!rootElementParsed)
+        {
+          throw new SAXException("Missing root element");
+        }
+        eventType = END_DOCUMENT;
+        return eventType;
+      }
+      if (document.startsWith("<!--", position))
+      {
+        position = indexOf("-->", position + 4) + 3;
+      } else if (document.startsWith("<?", position))
+      {
+        position = indexOf("?>", position + 2) + 2;
+      } else if (document.startsWith("<![CDATA[", position) || document.charAt(position) != '<')
+      {
+        parseText();
+        if (text != null)
+        {
+          eventType = TEXT;
+          return eventType;
+        }
+      } else if (document.startsWith("</", position))
+      {
+        parseEndTag();
+        eventType = END_TAG;
+        return eventType;
+      } else if (document.startsWith("<!", position))
+      {
+        throw new SAXException("Unsupported declaration at position " + position);
+      } else
+      {
+        parseStartTag();
+        eventType = START_TAG;
+        return eventType;
+      }
+    }
+  }
+
+  /** Retrieves the type of the current event. */
+  public int getEventType()
+  {
+    return eventType;
+  }
+
+  /** Retrieves the qualified name of the current start or end tag. */
+  public String getName()
+  {
+    return name;
+  }
+
+  /** Retrieves the text of the current text event. */
+  public String getText()
+  {
+    return text;
+  }
+
+  /** Retrieves the depth of the current element. The root element has depth 1. */
+  public int getDepth()
+  {
+    return tags.size();
+  }
+
+  /** Retrieves the number of attributes of the current start tag. */
+  public int getAttributeCount()
+  {
+    return attributeNames.size();
+  }
+
+  /** Retrieves the qualified name of an attribute of the current start tag. */
+  public String getAttributeName(int index)
+  {
+    return (String)attributeNames.elementAt(index);
+  }
+
+  /** Retrieves the value of an attribute of the current start tag. */
+  public String getAttributeValue(int index)
+  {
+    return (String)attributeValues.elementAt(index);
+  }
+
+  /** Parses text and CDATA sections up to the next tag. */
+  private void parseText() throws SAXException
+  {
+    buffer.setLength(0);
+    boolean whitespace = true;
+    while (position < document.length())
+    {
+      char c = document.charAt(position);
+      if (document.startsWith("<![CDATA[", position))
+      {
+        int end = indexOf("]]>", position + 9);
+        appendNormalized(position + 9, end);
+        position = end + 3;
+        whitespace = false;
+      } else if (document.startsWith("<!--", position))
+      {
+        position = indexOf("-->", position + 4) + 3;
+      } else if (document.startsWith("<?", position))
+      {
+        position = indexOf("?>", position + 2) + 2;
+      } else if (c == '<')
+      {
+        break;
+      } else if (c == '&')
+      {
+        position = parseEntity(position);
+        whitespace = false;
+      } else
+      {
+        if (c == '\r')
+        {
+          // normalize line breaks
+          buffer.append('\n');
+          if (position + 1 < document.length() && document.charAt(position + 1) == '\n')
+          {
+            position++;
+          }
+        } else
+        {
+          buffer.append(c);
+        }
+        whitespace &= c == ' ' || c == '\t' || c == '\r' || c == '\n';
+        position++;
+      }
+    }
+    if (tags.size() == 0)
+    {
+      // only whitespace is allowed outside of the root element
+      if (!whitespace)
+      {
+        throw new SAXException("Text outside of root element");
+      }
+      return;
+    }
+    if (buffer.length() > 0)
+    {
+      text = buffer.toString();
+    }
+  }
+
+  /** Parses a start tag including its attributes. */
+  private void parseStartTag() throws SAXException
+  {
+    if (tags.size() == 0 && rootElementParsed)
+    {
+      throw new SAXException("Multiple root elements");
+    }
+    position++;
+    name = parseName();
+    while (true)
+    {
+      skipWhitespace();
+      if (position >= document.length())
+      {
+        throw new SAXException("Unexpected end of document in tag " + name);
+      }
+      char c = document.charAt(position);
+      if (c == '>')
+      {
+        position++;
+        break;
+      }
+      if (c == '/')
+      {
+        if (!document.startsWith("/>", position))
+        {
+          throw new SAXException("Invalid empty tag " + name);
+        }
+        position += 2;
+        pendingEndTag = true;
+        break;
+      }
+      String attributeName = parseName();
+      skipWhitespace();
+      if (position >= document.length() || document.charAt(position) != '=')
+      {
+        throw new SAXException("Missing value for attribute " + attributeName);
+      }
+      position++;
+      skipWhitespace();
+      attributeNames.add(attributeName);
+      attributeValues.add(parseAttributeValue());
+    }
+    tags.add(name);
+    rootElementParsed = true;
+  }
+
+  /** Parses an end tag. */
+  private void parseEndTag() throws SAXException
+  {
+    position += 2;
+    name = parseName();
+    skipWhitespace();
+    if (position >= document.length() || document.charAt(position) != '>')
+    {
+      throw new SAXException("Invalid end tag " + name);
+    }
+    position++;
+    if (tags.size() == 0 || !tags.lastElement().equals(name))
+    {
+      throw new SAXException("Unexpected end tag " + name);
+    }
+  }
+
+  /** Parses a quoted attribute value. */
+  private String parseAttributeValue() throws SAXException
+  {
+    char quote = position < document.length() ? document.charAt(position) : 0;
+    if (quote != '"' && quote != '\'')
+    {
+      throw new SAXException("Attribute value must be quoted");
+    }
+    position++;
+    buffer.setLength(0);
+    while (true)
+    {
+      if (position >= document.length())
+      {
+        throw new SAXException("Unexpected end of document in attribute value");
+      }
+      char c = document.charAt(position);
+      if (c == quote)
+      {
+        position++;
+        return buffer.toString();
+      }
+      if (c == '<')
+      {
+        throw new SAXException("Invalid character in attribute value");
+      }
+      if (c == '&')
+      {
+        position = parseEntity(position);
+      } else
+      {
+        // normalize whitespace
+        if (c == '\r' && position + 1 < document.length() && document.charAt(position + 1) == '\n')
+        {
+          position++;
+        }
+        buffer.append(c == '\t' || c == '\r' || c == '\n' ? ' ' : c);
+        position++;
+      }
+    }
+  }
+
+  /** Parses a tag or attribute name. */
+  private String parseName() throws SAXException
+  {
+    int start = position;
+    while (position < document.length())
+    {
+      char c = document.charAt(position);
+      if (c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '>' || c == '/' || c == '=' || c == '<' ||
+        c == '"' || c == '\'')
+      {
+        break;
+      }
+      position++;
+    }
+    if (position == start)
+    {
+      throw new SAXException("Missing name at position " + start);
+    }
+    return document.substring(start, position);
+  }
+
+  /**
+   * Resolves an entity reference and appends the result to the buffer.
+   * 
+   * @return The position after the reference
+   */
+  private int parseEntity(int start) throws SAXException
+  {
+    int end = document.indexOf(';', start);
+    if (end == -1 || end - start > 10)
+    {
+      throw new SAXException("Invalid entity reference at position " + start);
+    }
+    String entity = document.substring(start + 1, end);
+    if (entity.equals("lt"))
+    {
+      buffer.append('<');
+    } else if (entity.equals("gt"))
+    {
+      buffer.append('>');
+    } else if (entity.equals("amp"))
+    {
+      buffer.append('&');
+    } else if (entity.equals("quot"))
+    {
+      buffer.append('"');
+    } else if (entity.equals("apos"))
+    {
+      buffer.append('\'');
+    } else if (entity.startsWith("#"))
+    {
+      int codePoint;
+      try
+      {
+        codePoint =
+          entity.startsWith("#x") ? Integer.parseInt(entity.substring(2), 16) : Integer.parseInt(entity.substring(1));
+      } catch (NumberFormatException e)
+      {
+        throw new SAXException("Invalid character reference " + entity);
+      }
+      if (codePoint < 0 || codePoint > 0x10FFFF)
+      {
+        throw new SAXException("Invalid character reference " + entity);
+      }
+      if (codePoint >= 0x10000)
+      {
+        codePoint -= 0x10000;
+        buffer.append((char)(0xD800 + (codePoint >> 10)));
+        buffer.append((char)(0xDC00 + (codePoint & 0x3FF)));
+      } else
+      {
+        buffer.append((char)codePoint);
+      }
+    } else
+    {
+      throw new SAXException("Unknown entity " + entity);
+    }
+    return end + 1;
+  }
+
+  /** Appends a part of the document with normalized line breaks to the buffer. */
+  private void appendNormalized(int start, int end)
+  {
+    for (int i = start; i < end; i++)
+    {
+      char c = document.charAt(i);
+      if (c == '\r')
+      {
+        buffer.append('\n');
+        if (i + 1 < end && document.charAt(i + 1) == '\n')
+        {
+          i++;
+        }
+      } else
+      {
+        buffer.append(c);
+      }
+    }
+  }
+
+  /** Skips whitespace at the current position. */
+  private void skipWhitespace()
+  {
+    while (position < document.length())
+    {
+      char c = document.charAt(position);
+      if (c != ' ' && c != '\t' && c != '\r' && c != '\n')
+      {
+        return;
+      }
+      position++;
+    }
+  }
+
+  /** Searches a string and throws an exception if it is not found. */
+  private int indexOf(String value, int start) throws SAXException
+  {
+    int result = document.indexOf(value, start);
+    if (result == -1)
+    {
+      throw new SAXException("Unexpected end of document, missing " + value);
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,439 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.util.network;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Vector;
+
+import de.fraunhofer.fokus.upnp.util.network.listener.IDatagramReceiveListener;
+
+/**
+ * This class receives datagrams from multiple non-blocking datagram channels with one selector.
+ * Received packets are dispatched to the registered listener as soon as they arrive, so no
+ * thread has to poll sockets with a receive timeout. All channels share one direct receive
+ * buffer. Each packet is copied once into a byte array of the exact packet size.
+ * 
+ * Listeners are called by the receiver thread and should return quickly.
+ * 
+ * @author Alexander Koenig
+ * 
+ * 
+ */
+public class DatagramChannelReceiver implements Runnable
+{
+
+  /** Maximum number of packets read from one channel before other channels are served */
+  public static final int                MAX_PACKETS_PER_CHANNEL = 64;
+
+  /** Interval in which listeners should try to register sockets of new network interfaces */
+  public static final long               REGISTRATION_INTERVAL   = 1000;
+
+  /** Maximum time between checks for closed channels */
+  private static final long              SELECT_TIMEOUT          = 1000;
+
+  /** Receiver shared by all devices and control points */
+  private static DatagramChannelReceiver defaultReceiver;
+
+  /** Name used for the thread */
+  private String                         name;
+
+  /** Selector for all registered channels */
+  private Selector                       selector;
+
+  /** Buffer used to receive packets */
+  private ByteBuffer                     receiveBuffer;
+
+  /** Registrations hashed by socket */
+  private Hashtable                      registrationTable       = new Hashtable();
+
+  /** Registrations that must be added to the selector */
+  private Vector                         pendingRegistrations    = new Vector();
+
+  /** Thread that runs the selector */
+  private Thread                         receiverThread;
+
+  private Object                         lock                    = new Object();
+
+  private boolean                        terminateThread         = false;
+
+  /** Number of received packets */
+  private long                           receivedPacketCount     = 0;
+
+  /** Number of packets discarded by the packet managers */
+  private long                           duplicatePacketCount    = 0;
+
+  /**
+   * Creates a new instance of DatagramChannelReceiver.
+   * 
+   * @param name
+   *          Name for the receiver thread
+   */
+  public DatagramChannelReceiver(String name)
+  {
+    this.name = name;
+    receiveBuffer = ByteBuffer.allocateDirect(SocketHelper.BUFFER_SIZE);
+    try
+    {
+      selector = Selector.open();
+    } catch (IOException e)
+    {
+      System.out.println("Cannot open selector for " + name + ": " + e.getMessage());
+      selector = null;
+    }
+  }
+
+  /**
+   * Retrieves the receiver that is shared by all devices and control points. The receiver is
+   * started on first access.
+   * 
+   * @return The default receiver
+   */
+  public static synchronized DatagramChannelReceiver getDefaultReceiver()
+  {
+    if (defaultReceiver == null)
+    {
+      defaultReceiver = new DatagramChannelReceiver("DatagramChannelReceiver");
+      defaultReceiver.start();
+    }
+    return defaultReceiver;
+  }
+
+  /** Starts the receiver thread. */
+  public void start()
+  {
+    synchronized(lock)
+    {
+      if (receiverThread != null || selector == null)
+      {
+        return;
+      }
+      receiverThread = new Thread(this, name);
+      receiverThread.setDaemon(true);
+      receiverThread.start();
+    }
+  }
+
+  /**
+   * Registers a socket at the receiver. The socket must have been created from a non-blocking
+   * datagram channel. Registering an already registered socket has no effect.
+   * 
+   * @param socket
+   *          The socket
+   * @param listener
+   *          The listener for received packets
+   * @param packetManager
+   *          Optional manager to discard duplicate packets
+   * @param attachment
+   *          Object that is handed to the listener with each packet
+   * 
+   * @return True if the socket is served by this receiver, false if it must be polled
+   */
+  public boolean register(DatagramSocket socket,
+    IDatagramReceiveListener listener,
+    UDPPacketManager packetManager,
+    Object attachment)
+  {
+    DatagramChannel channel = socket != null ? socket.getChannel() : null;
+    if (selector == null || channel == null || !channel.isOpen() || channel.isBlocking())
+    {
+      return false;
+    }
+    synchronized(lock)
+    {
+      if (terminateThread)
+      {
+        return false;
+      }
+      if (registrationTable.containsKey(socket))
+      {
+        return true;
+      }
+      Registration registration = new Registration(channel, listener, packetManager, attachment);
+      registrationTable.put(socket, registration);
+      pendingRegistrations.add(registration);
+    }
+    selector.wakeup();
+    return true;
+  }
+
+  /**
+   * Checks if a socket is served by this receiver.
+   * 
+   * @param socket
+   *          The socket
+   * 
+   * @return True if the socket is registered and still open
+   */
+  public boolean isRegistered(DatagramSocket socket)
+  {
+    if (socket == null)
+    {
+      return false;
+    }
+    Registration registration = (Registration)registrationTable.get(socket);
+    return registration != null && registration.channel.isOpen();
+  }
+
+  /**
+   * Removes a socket from the receiver. Closed sockets are removed automatically.
+   * 
+   * @param socket
+   *          The socket
+   */
+  public void unregister(DatagramSocket socket)
+  {
+    if (socket == null)
+    {
+      return;
+    }
+    Registration registration = (Registration)registrationTable.remove(socket);
+    if (registration != null)
+    {
+      registration.cancel();
+      selector.wakeup();
+    }
+  }
+
+  /** Retrieves the number of registered sockets. */
+  public int getRegistrationCount()
+  {
+    return registrationTable.size();
+  }
+
+  /** Retrieves the number of received packets. */
+  public long getReceivedPacketCount()
+  {
+    return receivedPacketCount;
+  }
+
+  /** Retrieves the number of received packets that were discarded as duplicates. */
+  public long getDuplicatePacketCount()
+  {
+    return duplicatePacketCount;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see java.lang.Runnable#run()
+   */
+  public void run()
+  {
+    while (!terminateThread)
+    {
+      try
+      {
+        selector.select(SELECT_TIMEOUT);
+      } catch (Exception e)
+      {
+      }
+      addPendingRegistrations();
+
+      Iterator selectedKeys = selector.selectedKeys().iterator();
+      while (selectedKeys.hasNext())
+      {
+        SelectionKey key = (SelectionKey)selectedKeys.next();
+        selectedKeys.remove();
+        Registration registration = (Registration)key.attachment();
+        if (registration.cancelled)
+        {
+          key.cancel();
+        } else if (key.isValid() && key.isReadable())
+        {
+          readPackets(registration);
+        }
+      }
+      removeClosedRegistrations();
+    }
+    try
+    {
+      selector.close();
+    } catch (IOException e)
+    {
+    }
+  }
+
+  /** Adds new registrations to the selector. */
+  private void addPendingRegistrations()
+  {
+    while (pendingRegistrations.size() > 0)
+    {
+      Registration registration = (Registration)pendingRegistrations.remove(0);
+      if (!registration.cancelled)
+      {
+        try
+        {
+          registration.key = registration.channel.register(selector, SelectionKey.OP_READ, registration);
+        } catch (ClosedChannelException e)
+        {
+        }
+      }
+    }
+  }
+
+  /** Removes registrations for channels that have been closed by their owner. */
+  private void removeClosedRegistrations()
+  {
+    synchronized(lock)
+    {
+      Enumeration sockets = registrationTable.keys();
+      while (sockets.hasMoreElements())
+      {
+        Object socket = sockets.nextElement();
+        Registration registration = (Registration)registrationTable.get(socket);
+        if (!registration.channel.isOpen())
+        {
+          registrationTable.remove(socket);
+          registration.cancel();
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads all pending packets from one channel and forwards them to the listener.
+   * 
+   * @param registration
+   *          The registration of the readable channel
+   */
+  private void readPackets(Registration registration)
+  {
+    for (int i = 0; i < MAX_PACKETS_PER_CHANNEL && !registration.cancelled; i++)
+    {
+      SocketAddress sourceAddress = null;
+      receiveBuffer.clear();
+      try
+      {
+        sourceAddress = registration.channel.receive(receiveBuffer);
+      } catch (IOException e)
+      {
+      }
+      if (sourceAddress == null)
+      {
+        return;
+      }
+      receiveBuffer.flip();
+      byte[] data = new byte[receiveBuffer.remaining()];
+      receiveBuffer.get(data);
+      receivedPacketCount++;
+
+      InetSocketAddress source = (InetSocketAddress)sourceAddress;
+      UDPPacketManager packetManager = registration.packetManager;
+      try
+      {
+        if (packetManager != null && !packetManager.addUnknownPacket(data, source.getAddress(), source.getPort()))
+        {
+          duplicatePacketCount++;
+          continue;
+        }
+        registration.listener.datagramReceived(new BinaryMessageObject(data, source), registration.attachment);
+      } catch (Exception e)
+      {
+        System.out.println("Error while processing datagram from " + IPHelper.toString(source) + ": " +
+          e.getMessage());
+      }
+    }
+  }
+
+  /** Terminates the receiver. Registered channels are not closed. */
+  public void terminate()
+  {
+    synchronized(lock)
+    {
+      terminateThread = true;
+      Enumeration registrations = registrationTable.elements();
+      while (registrations.hasMoreElements())
+      {
+        ((Registration)registrations.nextElement()).cancel();
+      }
+      registrationTable.clear();
+    }
+    if (selector != null)
+    {
+      selector.wakeup();
+    }
+  }
+
+  /** This class holds the listener and options for one registered channel. */
+  private static class Registration
+  {
+
+    public DatagramChannel          channel;
+
+    public IDatagramReceiveListener listener;
+
+    public UDPPacketManager         packetManager;
+
+    public Object                   attachment;
+
+    public SelectionKey             key;
+
+    public boolean                  cancelled = false;
+
+    /**
+     * Creates a new instance of Registration.
+     * 
+     * @param channel
+     * @param listener
+     * @param packetManager
+     * @param attachment
+     */
+    public Registration(DatagramChannel channel,
+      IDatagramReceiveListener listener,
+      UDPPacketManager packetManager,
+      Object attachment)
+    {
+      this.channel = channel;
+      this.listener = listener;
+      this.packetManager = packetManager;
+      this.attachment = attachment;
+    }
+
+    /** Removes the channel from the selector. */
+    public void cancel()
+    {
+      cancelled = true;
+      if (key != null)
+      {
+        key.cancel();
+      }
+    }
+  }
+
+}
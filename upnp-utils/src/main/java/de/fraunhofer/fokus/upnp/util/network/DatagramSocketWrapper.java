@@ -61,7 +61,7 @@ public class DatagramSocketWrapper implements IDatagramSocket
    */
   public void send(DatagramPacket packet) throws IOException
   {
-    socket.send(packet);
+    SocketHelper.sendPacket(socket, packet);
   }
 
   /*
@@ -91,7 +91,7 @@ public class DatagramSocketWrapper implements IDatagramSocket
    */
   public void receive(DatagramPacket packet) throws IOException
   {
-    socket.receive(packet);
+    SocketHelper.receivePacket(socket, packet);
   }
 
   /*
@@ -694,6 +694,121 @@ public class HTTPMessageHelper
     return null;
   }
 
+  /**
+   * Parses a RANGE header that may contain multiple byte ranges, including suffix ranges.
+   * 
+   * @param rangeValue
+   *          Tag value (e.g., bytes=0-100,200-,-500)
+   * @param resourceSize
+   *          The size of the requested resource
+   * 
+   * @return An array with start ([i][0], inclusive) and end ([i][1], exclusive) indices for all
+   *         satisfiable ranges, an empty array if no range is satisfiable or null if the header
+   *         is invalid. A header is invalid if any range is malformed, e.g., bytes=500-100, and
+   *         must then be ignored.
+   */
+  public static long[][] getRanges(String rangeValue, long resourceSize)
+  {
+    if (rangeValue == null)
+    {
+      return null;
+    }
+    int equalSignIndex = rangeValue.indexOf("=");
+    if (equalSignIndex == -1 || !rangeValue.substring(0, equalSignIndex).trim().equalsIgnoreCase("bytes"))
+    {
+      return null;
+    }
+    Vector rangeList = new Vector();
+    boolean hasRange = false;
+    try
+    {
+      StringTokenizer tokenizer = new StringTokenizer(rangeValue.substring(equalSignIndex + 1), ",");
+      while (tokenizer.hasMoreTokens())
+      {
+        String value = tokenizer.nextToken().trim();
+        // empty list elements are allowed
+        if (value.length() == 0)
+        {
+          continue;
+        }
+        hasRange = true;
+        int minusIndex = value.indexOf("-");
+        if (minusIndex == -1)
+        {
+          return null;
+        }
+        String startString = value.substring(0, minusIndex).trim();
+        String endString = value.substring(minusIndex + 1).trim();
+        long start = 0;
+        long end = resourceSize;
+        if (startString.length() == 0)
+        {
+          // suffix range, e.g., -500 for the last 500 bytes
+          start = Math.max(0, resourceSize - parseBytePosition(endString));
+        } else
+        {
+          start = parseBytePosition(startString);
+          if (endString.length() > 0)
+          {
+            long last = parseBytePosition(endString);
+            // the last byte must not precede the first byte
+            if (last < start)
+            {
+              return null;
+            }
+            end = Math.min(resourceSize, last + 1);
+          }
+        }
+        // ignore unsatisfiable ranges
+        if (start < end)
+        {
+          rangeList.add(new long[] {
+              start, end
+          });
+        }
+      }
+    } catch (NumberFormatException e)
+    {
+      return null;
+    }
+    // at least one range is required
+    if (!hasRange)
+    {
+      return null;
+    }
+    long[][] result = new long[rangeList.size()][];
+    rangeList.copyInto(result);
+
+    return result;
+  }
+
+  /**
+   * Parses a byte position or suffix length of a byte range.
+   * 
+   * @param value
+   *          The value, which must only contain digits
+   * 
+   * @return The parsed value
+   * 
+   * @throws NumberFormatException
+   *           if the value is empty or contains other characters
+   */
+  private static long parseBytePosition(String value) throws NumberFormatException
+  {
+    if (value.length() == 0)
+    {
+      throw new NumberFormatException("Empty byte position");
+    }
+    for (int i = 0; i < value.length(); i++)
+    {
+      if (value.charAt(i) < '0' || value.charAt(i) > '9')
+      {
+        throw new NumberFormatException("Invalid byte position: " + value);
+      }
+    }
+    return Long.parseLong(value);
+  }
+
   /** Retrieves the body of a HTTP message byte array */
   public static byte[] getBody(byte[] data)
   {
@@ -43,6 +43,9 @@ public class HTTPMessageObject
   /** Body of HTTP message */
   private byte[]            body;
 
+  /** Optional body that is streamed from a file instead of being held in memory */
+  private HTTPStreamingBody streamingBody;
+
   /** Source address of HTTP message */
   private InetSocketAddress sourceAddress;
 
@@ -158,6 +161,10 @@ public class HTTPMessageObject
    */
   public byte[] toByteArray()
   {
+    if (streamingBody != null)
+    {
+      return HTTPMessageHelper.createHTTPMessage(header, streamingBody.toByteArray());
+    }
     if (body != null)
     {
       return HTTPMessageHelper.createHTTPMessage(header, body);
@@ -174,6 +181,10 @@ public class HTTPMessageObject
    */
   public BinaryMessageObject toBinaryMessage()
   {
+    if (streamingBody != null)
+    {
+      return new BinaryMessageObject(toByteArray(), sourceAddress, destinationAddress);
+    }
     if (body != null)
     {
       return new BinaryMessageObject(HTTPMessageHelper.createHTTPMessage(header, body),
@@ -188,7 +199,8 @@ public class HTTPMessageObject
   /** Returns a short description of the message */
   public String toString()
   {
-    return HTTPMessageHelper.getHeaderDescription(header) + (body != null ? ":" + body.length : "");
+    return HTTPMessageHelper.getHeaderDescription(header) +
+      (body != null ? ":" + body.length : streamingBody != null ? ":" + streamingBody.getLength() : "");
   }
 
   /**
@@ -210,6 +222,50 @@ public class HTTPMessageObject
     return body;
   }
 
+  /**
+   * Retrieves the streamingBody.
+   * 
+   * @return The streamingBody or null
+   */
+  public HTTPStreamingBody getStreamingBody()
+  {
+    return streamingBody;
+  }
+
+  /**
+   * Sets the streamingBody. A streaming body replaces the in-memory body when the message is sent.
+   * 
+   * @param streamingBody
+   *          The new value for streamingBody
+   */
+  public void setStreamingBody(HTTPStreamingBody streamingBody)
+  {
+    this.streamingBody = streamingBody;
+  }
+
+  /**
+   * Replaces a streaming body with its content. This is needed by components that must access
+   * the body directly (e.g., to sign or encrypt it).
+   */
+  public void loadStreamingBody()
+  {
+    if (streamingBody != null)
+    {
+      body = streamingBody.toByteArray();
+      streamingBody = null;
+    }
+  }
+
+  /**
+   * Checks if this message has a body that must be streamed from a file.
+   * 
+   * @return True if a streaming body is set
+   */
+  public boolean hasStreamingBody()
+  {
+    return streamingBody != null;
+  }
+
   /**
    * Retrieves the body as string.
    * 
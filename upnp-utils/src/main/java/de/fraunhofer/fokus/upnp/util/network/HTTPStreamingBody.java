@@ -0,0 +1,255 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.util.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Vector;
+
+/**
+ * This class represents a HTTP message body that is not held in memory. It consists of regions
+ * of a file and optional small byte arrays (e.g., boundaries of multipart/byteranges responses).
+ * File regions are written with FileChannel.transferTo, which allows the operating system to send
+ * the file content without copying it into the Java heap.
+ * 
+ * @author Alexander Koenig
+ * 
+ */
+public class HTTPStreamingBody
+{
+
+  /** File that contains the body data */
+  private File   file;
+
+  /** Body parts, either byte[] or long[] {offset, length} for file regions */
+  private Vector partList = new Vector();
+
+  /** Total length of the body */
+  private long   length   = 0;
+
+  /**
+   * Creates a new instance of HTTPStreamingBody without parts.
+   * 
+   * @param file
+   *          The file that contains the body data
+   */
+  public HTTPStreamingBody(File file)
+  {
+    this.file = file;
+  }
+
+  /**
+   * Creates a new instance of HTTPStreamingBody for a file region.
+   * 
+   * @param file
+   *          The file that contains the body data
+   * @param offset
+   *          The start of the region
+   * @param length
+   *          The length of the region
+   */
+  public HTTPStreamingBody(File file, long offset, long length)
+  {
+    this(file);
+    addFileRegion(offset, length);
+  }
+
+  /**
+   * Adds in-memory data to the body.
+   * 
+   * @param data
+   *          The data
+   */
+  public void addData(byte[] data)
+  {
+    partList.add(data);
+    length += data.length;
+  }
+
+  /**
+   * Adds a file region to the body.
+   * 
+   * @param offset
+   *          The start of the region
+   * @param regionLength
+   *          The length of the region
+   */
+  public void addFileRegion(long offset, long regionLength)
+  {
+    partList.add(new long[] {
+        offset, regionLength
+    });
+    length += regionLength;
+  }
+
+  /**
+   * Retrieves the file.
+   * 
+   * @return The file
+   */
+  public File getFile()
+  {
+    return file;
+  }
+
+  /**
+   * Retrieves the total length of the body.
+   * 
+   * @return The length
+   */
+  public long getLength()
+  {
+    return length;
+  }
+
+  /**
+   * Opens a channel to read the file.
+   * 
+   * @return A new file channel that must be closed by the caller
+   * 
+   * @throws IOException
+   *           if the file could not be opened
+   */
+  public FileChannel openFileChannel() throws IOException
+  {
+    return new FileInputStream(file).getChannel();
+  }
+
+  /**
+   * Writes as much of the body as the target accepts. For blocking targets, the whole remaining
+   * body is written. For non-blocking targets, the method returns as soon as the target does not
+   * accept more data.
+   * 
+   * @param target
+   *          The target channel
+   * @param fileChannel
+   *          An open channel for the file
+   * @param position
+   *          The position in the body where writing should start
+   * 
+   * @return The number of written bytes
+   * 
+   * @throws IOException
+   *           if an I/O error occurs
+   */
+  public long writeTo(WritableByteChannel target, FileChannel fileChannel, long position) throws IOException
+  {
+    long written = 0;
+    long partStart = 0;
+    for (int i = 0; i < partList.size(); i++)
+    {
+      Object part = partList.elementAt(i);
+      long partLength = part instanceof byte[] ? ((byte[])part).length : ((long[])part)[1];
+      // skip parts that were already written
+      while (position + written < partStart + partLength)
+      {
+        long partOffset = position + written - partStart;
+        long bytesWritten = 0;
+        if (part instanceof byte[])
+        {
+          bytesWritten = target.write(ByteBuffer.wrap((byte[])part, (int)partOffset, (int)(partLength - partOffset)));
+        } else
+        {
+          long[] region = (long[])part;
+          bytesWritten = fileChannel.transferTo(region[0] + partOffset, partLength - partOffset, target);
+          if (bytesWritten == 0 && region[0] + partOffset >= fileChannel.size())
+          {
+            throw new IOException("File " + file.getName() + " is shorter than expected");
+          }
+        }
+        // target does not accept more data
+        if (bytesWritten == 0)
+        {
+          return written;
+        }
+        written += bytesWritten;
+      }
+      partStart += partLength;
+    }
+    return written;
+  }
+
+  /**
+   * Writes the whole body to a blocking output stream.
+   * 
+   * @param outputStream
+   *          The output stream
+   * 
+   * @throws IOException
+   *           if an I/O error occurs
+   */
+  public void writeTo(OutputStream outputStream) throws IOException
+  {
+    FileChannel fileChannel = openFileChannel();
+    try
+    {
+      WritableByteChannel target = Channels.newChannel(outputStream);
+      long position = 0;
+      while (position < length)
+      {
+        long written = writeTo(target, fileChannel, position);
+        if (written == 0)
+        {
+          throw new IOException("Could not write streaming body");
+        }
+        position += written;
+      }
+      outputStream.flush();
+    } finally
+    {
+      fileChannel.close();
+    }
+  }
+
+  /**
+   * Reads the whole body into memory. This should only be used by components that cannot handle
+   * streamed bodies.
+   * 
+   * @return The body as byte array or null if the file could not be read
+   */
+  public byte[] toByteArray()
+  {
+    ByteArrayOutputStream result = new ByteArrayOutputStream((int)Math.min(length, Integer.MAX_VALUE));
+    try
+    {
+      writeTo(result);
+      return result.toByteArray();
+    } catch (IOException e)
+    {
+    }
+    return null;
+  }
+
+}
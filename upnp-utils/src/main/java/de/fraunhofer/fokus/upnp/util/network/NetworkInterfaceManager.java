@@ -31,14 +31,15 @@ import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.util.Vector;
 
-import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
+import de.fraunhofer.fokus.upnp.util.threads.IScheduledEventListener;
 
 /**
- * This class is responsible for managing available network interfaces.
+ * This class is responsible for managing available network interfaces. The interfaces are only
+ * checked when the check interval has elapsed.
  * 
  * @author Alexander Koenig
  */
-public class NetworkInterfaceManager implements IEventListener
+public class NetworkInterfaceManager implements IScheduledEventListener
 {
 
   /** List of registered listeners */
@@ -149,6 +150,16 @@ public class NetworkInterfaceManager implements IEventListener
     }
   }
 
+  /*
+   * (non-Javadoc)
+   * 
+   * @see de.fraunhofer.fokus.upnp.util.threads.IScheduledEventListener#getNextEventTime()
+   */
+  public long getNextEventTime()
+  {
+    return nextCheckTime + 1;
+  }
+
   public void triggerEvents()
   {
     if (System.currentTimeMillis() > nextCheckTime)
@@ -27,10 +27,18 @@
 */
 package de.fraunhofer.fokus.upnp.util.network;
 
+import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.Random;
 import java.util.Vector;
 
@@ -131,13 +139,8 @@ public class SocketHelper
       }
 
       // check if packet was not received before
-      if (packetManager == null || !packetManager.isKnownPacket(data, packet.getAddress(), packet.getPort()))
+      if (packetManager == null || packetManager.addUnknownPacket(data, packet.getAddress(), packet.getPort()))
       {
-        if (packetManager != null)
-        {
-          packetManager.addPacket(data, packet.getAddress(), packet.getPort());
-        }
-
         BinaryMessageObject message =
           new BinaryMessageObject(data, new InetSocketAddress(packet.getAddress(), packet.getPort()));
 
@@ -177,13 +180,125 @@ public class SocketHelper
 
     try
     {
-      socket.send(packet);
+      sendPacket(socket, packet);
     } catch (Exception ex)
     {
       System.out.println("Error while sending packet:" + ex.getMessage());
     }
   }
 
+  /**
+   * Sends a packet over a socket. Sockets of non-blocking channels send via their channel.
+   * 
+   * @param socket
+   *          Socket that should send the packet
+   * @param packet
+   *          The packet
+   * 
+   * @throws IOException
+   */
+  public static void sendPacket(DatagramSocket socket, DatagramPacket packet) throws IOException
+  {
+    DatagramChannel channel = socket.getChannel();
+    if (channel != null && !channel.isBlocking())
+    {
+      channel.send(ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()),
+        packet.getSocketAddress());
+    } else
+    {
+      socket.send(packet);
+    }
+  }
+
+  /**
+   * Receives a packet from a socket. Sockets of non-blocking channels do not wait for a packet.
+   * 
+   * @param socket
+   *          Socket that should receive the packet
+   * @param packet
+   *          The packet that is filled with the received data
+   * 
+   * @throws IOException
+   *           If no packet was received within the socket timeout
+   */
+  public static void receivePacket(DatagramSocket socket, DatagramPacket packet) throws IOException
+  {
+    DatagramChannel channel = socket.getChannel();
+    if (channel != null && !channel.isBlocking())
+    {
+      ByteBuffer buffer = ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength());
+      InetSocketAddress sourceAddress = (InetSocketAddress)channel.receive(buffer);
+      if (sourceAddress == null)
+      {
+        throw new SocketTimeoutException("No pending packet");
+      }
+      packet.setLength(buffer.position() - packet.getOffset());
+      packet.setSocketAddress(sourceAddress);
+    } else
+    {
+      socket.receive(packet);
+    }
+  }
+
+  /**
+   * Opens a non-blocking multicast capable socket that can be served by a DatagramChannelReceiver.
+   * 
+   * @param networkInterface
+   *          The network interface used for multicast or null
+   * @param interfaceAddress
+   *          The address of the network interface
+   * @param bindAddress
+   *          The address the socket should be bound to
+   * @param groupAddress
+   *          Multicast group that should be joined or null
+   * @param timeToLive
+   *          The TTL for multicast packets
+   * 
+   * @return The socket of the new channel
+   * 
+   * @throws IOException
+   *           If the channel could not be created
+   */
+  public static DatagramSocket createSelectableMulticastSocket(NetworkInterface networkInterface,
+    InetAddress interfaceAddress,
+    InetSocketAddress bindAddress,
+    InetAddress groupAddress,
+    int timeToLive) throws IOException
+  {
+    InetAddress familyAddress = groupAddress != null ? groupAddress : interfaceAddress;
+    DatagramChannel channel =
+      DatagramChannel.open(familyAddress instanceof Inet6Address ? StandardProtocolFamily.INET6
+        : StandardProtocolFamily.INET);
+    try
+    {
+      channel.setOption(StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE);
+      channel.bind(bindAddress);
+      if (networkInterface == null)
+      {
+        networkInterface = NetworkInterface.getByInetAddress(interfaceAddress);
+      }
+      if (networkInterface != null)
+      {
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+      }
+      channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, new Integer(timeToLive));
+      if (groupAddress != null)
+      {
+        if (networkInterface == null)
+        {
+          throw new IOException("No network interface for " + interfaceAddress.getHostAddress());
+        }
+        channel.join(groupAddress, networkInterface);
+      }
+      channel.configureBlocking(false);
+    } catch (IOException e)
+    {
+      channel.close();
+      throw e;
+    }
+    return channel.socket();
+  }
+
   /**
    * Sends a UDP message.
    * 
@@ -28,27 +28,50 @@
 package de.fraunhofer.fokus.upnp.util.network;
 
 import java.net.InetAddress;
-import java.util.Vector;
+import java.util.Hashtable;
 
 import de.fraunhofer.fokus.upnp.util.StringHelper;
-import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
+import de.fraunhofer.fokus.upnp.util.threads.IScheduledEventListener;
 
 /**
  * This class manages received UDP packets to prevent multiple forwarding.
  * 
+ * Packets are indexed by a 64 bit hash of their content and source, so lookups do not depend on
+ * the number of stored packets. Stored packets are also kept in a queue ordered by their
+ * expiration, so removing deprecated packets only touches expired packets. The manager is only
+ * triggered when the oldest packet expires.
+ * 
  * @author Alexander Koenig
  */
-public class UDPPacketManager implements IEventListener
+public class UDPPacketManager implements IScheduledEventListener
 {
 
-  private static final long PACKET_TIMEOUT    = 20000;
+  private static final long PACKET_TIMEOUT         = 20000;
+
+  /** Index of received packets */
+  private Hashtable         packetTable            = new Hashtable();
+
+  /** Oldest stored packet */
+  private PacketEntity      firstPacket            = null;
 
-  // list of received unicast packets
-  private Vector            unicastPacketList = new Vector();
+  /** Newest stored packet */
+  private PacketEntity      lastPacket             = null;
+
+  /** Number of stored packets that match any source address or port */
+  private int               wildcardPacketCount    = 0;
 
   /** Timeout for removal */
   private long              packetTimeout;
 
+  /** Number of lookups for known packets */
+  private long              hitCount               = 0;
+
+  /** Number of lookups for unknown packets */
+  private long              missCount              = 0;
+
+  /** Number of packets removed after the timeout */
+  private long              evictionCount          = 0;
+
   /**
    * Creates a new instance of UDPPacketManager with a timeout of 20 seconds.
    * 
@@ -85,11 +108,7 @@ public class UDPPacketManager implements IEventListener
    */
   public void addPacket(byte[] content, InetAddress sourceAddress, int sourcePort)
   {
-    if (!isKnownPacket(content, sourceAddress, sourcePort))
-    {
-      PacketEntity packetEntity = new PacketEntity(content, sourceAddress, sourcePort);
-      unicastPacketList.add(packetEntity);
-    }
+    addUnknownPacket(content, sourceAddress, sourcePort);
   }
 
   /**
@@ -100,38 +119,80 @@ public class UDPPacketManager implements IEventListener
    */
   public void addPacket(BinaryMessageObject packet)
   {
-    if (!isKnownPacket(packet.getBody(), packet.getSourceAddress().getAddress(), packet.getSourceAddress().getPort()))
-    {
-      PacketEntity packetEntity =
-        new PacketEntity(packet.getBody(), packet.getSourceAddress().getAddress(), packet.getSourceAddress().getPort());
-      unicastPacketList.add(packetEntity);
-    }
+    addUnknownPacket(packet.getBody(), packet.getSourceAddress().getAddress(), packet.getSourceAddress().getPort());
   }
 
   /**
-   * Adds a packet to this manager.
+   * Adds a packet to this manager. The packet matches packets with the same content from all
+   * sources.
    * 
    * @param content
    *          The packet content
    */
   public void addPacket(String content)
   {
-    byte[] contentData = StringHelper.stringToByteArray(content);
-    if (!isKnownPacket(contentData, null, -1))
+    addUnknownPacket(StringHelper.stringToByteArray(content), null, -1);
+  }
+
+  /**
+   * Adds a packet to this manager if it is not already known. This combines isKnownPacket() and
+   * addPacket() with one hash calculation.
+   * 
+   * @param content
+   *          The packet content
+   * @param sourceAddress
+   *          The source address or null to match all addresses
+   * @param sourcePort
+   *          The source port or -1 to match all ports
+   * 
+   * @return True if the packet was unknown and has been added, false otherwise
+   */
+  public synchronized boolean addUnknownPacket(byte[] content, InetAddress sourceAddress, int sourcePort)
+  {
+    if (content == null)
     {
-      PacketEntity packetEntity = new PacketEntity(contentData, null, -1);
-      unicastPacketList.add(packetEntity);
+      return false;
     }
+    long contentHash = getContentHash(content);
+    if (findPacket(contentHash, content, sourceAddress, sourcePort) != null)
+    {
+      hitCount++;
+      return false;
+    }
+    missCount++;
+    PacketEntity packetEntity = new PacketEntity(contentHash, content, sourceAddress, sourcePort);
+    packetTable.put(packetEntity, packetEntity);
+    if (packetEntity.isWildcard())
+    {
+      wildcardPacketCount++;
+    }
+    // append to expiration queue
+    if (lastPacket == null)
+    {
+      firstPacket = packetEntity;
+    } else
+    {
+      lastPacket.next = packetEntity;
+    }
+    lastPacket = packetEntity;
+
+    return true;
   }
 
   /** Checks if a packet with this data is already known */
-  public boolean isKnownPacket(byte[] content, InetAddress source, int port)
+  public synchronized boolean isKnownPacket(byte[] content, InetAddress source, int port)
   {
-    boolean result = false;
-    for (int i = 0; !result && i < unicastPacketList.size(); i++)
+    if (content == null)
+    {
+      return false;
+    }
+    boolean result = findPacket(getContentHash(content), content, source, port) != null;
+    if (result)
+    {
+      hitCount++;
+    } else
     {
-      PacketEntity entity = (PacketEntity)unicastPacketList.elementAt(i);
-      result = result || entity.equals(content, source, port);
+      missCount++;
     }
     return result;
   }
@@ -152,20 +213,97 @@ public class UDPPacketManager implements IEventListener
     packetTimeout = Math.max(1, timeout);
   }
 
+  /** Retrieves the number of stored packets. */
+  public int getPacketCount()
+  {
+    return packetTable.size();
+  }
+
+  /** Retrieves the number of lookups that found a known packet. */
+  public long getHitCount()
+  {
+    return hitCount;
+  }
+
+  /** Retrieves the number of lookups that did not find a known packet. */
+  public long getMissCount()
+  {
+    return missCount;
+  }
+
+  /** Retrieves the number of packets that were removed after the timeout. */
+  public long getEvictionCount()
+  {
+    return evictionCount;
+  }
+
+  /** Retrieves a short description of the packet counters. */
+  public String getStatistics()
+  {
+    return "Packets: " + getPacketCount() + ", hits: " + hitCount + ", misses: " + missCount + ", evictions: " +
+      evictionCount;
+  }
+
+  /**
+   * Searches a stored packet. Packets stored without source address or port match all sources.
+   * 
+   * @return The stored packet or null
+   */
+  private PacketEntity findPacket(long contentHash, byte[] content, InetAddress source, int port)
+  {
+    PacketEntity result = (PacketEntity)packetTable.get(new PacketEntity(contentHash, content, source, port));
+    if (result == null && wildcardPacketCount > 0)
+    {
+      if (port != -1)
+      {
+        result = (PacketEntity)packetTable.get(new PacketEntity(contentHash, content, source, -1));
+      }
+      if (result == null && source != null)
+      {
+        result = (PacketEntity)packetTable.get(new PacketEntity(contentHash, content, null, port));
+      }
+      if (result == null && source != null && port != -1)
+      {
+        result = (PacketEntity)packetTable.get(new PacketEntity(contentHash, content, null, -1));
+      }
+    }
+    return result;
+  }
+
   /** Remove packets after the defined timeout */
-  private void removeDeprecatedPackets()
+  private synchronized void removeDeprecatedPackets()
   {
-    int i = 0;
-    while (i < unicastPacketList.size())
+    long time = System.currentTimeMillis();
+    // packets are queued in the order of their arrival, so all expired packets are at the front
+    while (firstPacket != null && time - firstPacket.timestamp > packetTimeout)
     {
-      PacketEntity entity = (PacketEntity)unicastPacketList.elementAt(i);
-      if (System.currentTimeMillis() - entity.timestamp > packetTimeout)
+      PacketEntity packetEntity = firstPacket;
+      packetTable.remove(packetEntity);
+      if (packetEntity.isWildcard())
       {
-        unicastPacketList.remove(i);
-        i--;
+        wildcardPacketCount--;
       }
-      i++;
+      evictionCount++;
+
+      firstPacket = packetEntity.next;
+      packetEntity.next = null;
+    }
+    if (firstPacket == null)
+    {
+      lastPacket = null;
+    }
+  }
+
+  /** Calculates a 64 bit FNV-1a hash for the packet content. */
+  private static long getContentHash(byte[] content)
+  {
+    long result = 0xcbf29ce484222325L;
+    for (int i = 0; i < content.length; i++)
+    {
+      result ^= content[i] & 0xFF;
+      result *= 0x100000001b3L;
     }
+    return result;
   }
 
   /*
@@ -178,39 +316,86 @@ public class UDPPacketManager implements IEventListener
     removeDeprecatedPackets();
   }
 
+  /*
+   * (non-Javadoc)
+   * 
+   * @see de.fraunhofer.fokus.upnp.util.threads.IScheduledEventListener#getNextEventTime()
+   */
+  public synchronized long getNextEventTime()
+  {
+    // packets added later expire after the timeout, so there is no need to wake up earlier
+    if (firstPacket == null)
+    {
+      return System.currentTimeMillis() + packetTimeout;
+    }
+    return firstPacket.timestamp + packetTimeout + 1;
+  }
+
   /** Private class that holds one received UDP packet with a timestamp */
-  private class PacketEntity
+  private static class PacketEntity
   {
-    public byte[]      content;
+    public byte[]       content;
+
+    public long         timestamp;
+
+    public InetAddress  sourceAddress;
 
-    public long        timestamp;
+    public int          sourcePort;
 
-    public InetAddress sourceAddress;
+    /** Hash over content and source */
+    public long         hash;
 
-    public int         sourcePort;
+    /** Next packet in the expiration queue */
+    public PacketEntity next;
 
-    public PacketEntity(byte[] content, InetAddress source, int port)
+    public PacketEntity(long contentHash, byte[] content, InetAddress source, int port)
     {
       this.content = content;
       sourceAddress = source;
       sourcePort = port;
       timestamp = System.currentTimeMillis();
+      hash = contentHash;
+      hash = hash * 31 + (source != null ? source.hashCode() : 0);
+      hash = hash * 31 + port;
+    }
+
+    /** Checks if this packet matches all source addresses or ports */
+    public boolean isWildcard()
+    {
+      return sourceAddress == null || sourcePort == -1;
     }
 
-    public boolean equals(byte[] content, InetAddress source, int port)
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#hashCode()
+     */
+    public int hashCode()
     {
+      return (int)(hash ^ hash >>> 32);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    public boolean equals(Object obj)
+    {
+      if (!(obj instanceof PacketEntity))
+      {
+        return false;
+      }
+      PacketEntity entity = (PacketEntity)obj;
       // quick check
       boolean equal =
-        (sourceAddress == null || sourceAddress.equals(source)) && (sourcePort == -1 || sourcePort == port) &&
-          content != null && this.content != null && content.length == this.content.length;
+        hash == entity.hash && sourcePort == entity.sourcePort && content.length == entity.content.length &&
+          (sourceAddress == null ? entity.sourceAddress == null : sourceAddress.equals(entity.sourceAddress));
 
       // if everything is equal so far, check content bytewise
-      if (equal)
+      for (int i = 0; equal && i < content.length; i++)
       {
-        for (int i = 0; i < content.length; i++)
-        {
-          equal &= content[i] == this.content[i];
-        }
+        equal = content[i] == entity.content[i];
       }
 
       return equal;
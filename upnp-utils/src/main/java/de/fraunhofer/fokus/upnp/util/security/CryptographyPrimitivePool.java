@@ -0,0 +1,238 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.util.security;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+import de.fraunhofer.fokus.upnp.util.CommonConstants;
+
+/**
+ * This class keeps initialized cryptographic primitives for each thread. Provider lookup and key
+ * initialization are thus only done once per thread and key instead of once per message.
+ * 
+ * Primitives are not shared between threads, so they can be used without synchronization. After
+ * an error, the primitives of the current thread should be dropped with {@link #clear()}.
+ * 
+ * @author Alexander Koenig
+ */
+public class CryptographyPrimitivePool
+{
+
+  /** Size of the scratch buffer used to feed strings into primitives */
+  private static final int   SCRATCH_BUFFER_SIZE = 4096;
+
+  /** Primitives for each thread */
+  private static ThreadLocal primitives          = new ThreadLocal();
+
+  /**
+   * Retrieves a SHA-1 HMAC for the current thread that is initialized with the given key.
+   * 
+   * @param key
+   *          The HMAC key
+   * 
+   * @return A ready to use Mac
+   */
+  public static Mac getSHA1HMAC(Key key) throws GeneralSecurityException
+  {
+    Primitives threadPrimitives = getPrimitives();
+    if (threadPrimitives.hmac == null)
+    {
+      threadPrimitives.hmac = Mac.getInstance(CommonConstants.HMAC_SHA_1_JAVA);
+      threadPrimitives.hmacKey = null;
+    }
+    if (!isSameKey(threadPrimitives.hmacKey, key))
+    {
+      threadPrimitives.hmacKey = null;
+      threadPrimitives.hmac.init(key);
+      threadPrimitives.hmacKey = key;
+    }
+    return threadPrimitives.hmac;
+  }
+
+  /**
+   * Retrieves a SHA-1 RSA signature for the current thread that is initialized for signing.
+   * 
+   * @param key
+   *          The private key
+   * 
+   * @return A ready to use Signature
+   */
+  public static Signature getRSASigner(RSAPrivateKey key) throws GeneralSecurityException
+  {
+    Primitives threadPrimitives = getPrimitives();
+    if (threadPrimitives.signer == null)
+    {
+      threadPrimitives.signer = Signature.getInstance(CommonConstants.RSA_SHA_1_JAVA);
+      threadPrimitives.signerKey = null;
+    }
+    if (!isSameKey(threadPrimitives.signerKey, key))
+    {
+      threadPrimitives.signerKey = null;
+      threadPrimitives.signer.initSign(key);
+      threadPrimitives.signerKey = key;
+    }
+    return threadPrimitives.signer;
+  }
+
+  /**
+   * Retrieves a SHA-1 RSA signature for the current thread that is initialized for verification.
+   * 
+   * @param key
+   *          The public key
+   * 
+   * @return A ready to use Signature
+   */
+  public static Signature getRSAVerifier(RSAPublicKey key) throws GeneralSecurityException
+  {
+    Primitives threadPrimitives = getPrimitives();
+    if (threadPrimitives.verifier == null)
+    {
+      threadPrimitives.verifier = Signature.getInstance(CommonConstants.RSA_SHA_1_JAVA);
+      threadPrimitives.verifierKey = null;
+    }
+    if (!isSameKey(threadPrimitives.verifierKey, key))
+    {
+      threadPrimitives.verifierKey = null;
+      threadPrimitives.verifier.initVerify(key);
+      threadPrimitives.verifierKey = key;
+    }
+    return threadPrimitives.verifier;
+  }
+
+  /**
+   * Retrieves an AES-128/CBC cipher for the current thread. The cipher must be initialized by the
+   * caller because each message uses its own IV.
+   * 
+   * @return An uninitialized or previously used cipher
+   */
+  public static Cipher getAESCipher() throws GeneralSecurityException
+  {
+    Primitives threadPrimitives = getPrimitives();
+    if (threadPrimitives.aesCipher == null)
+    {
+      threadPrimitives.aesCipher = Cipher.getInstance(CommonConstants.AES_128_CBC_JAVA);
+    }
+    return threadPrimitives.aesCipher;
+  }
+
+  /**
+   * Feeds a string into a Mac. Each character is converted to one byte like in
+   * StringHelper.stringToByteArray(), but without creating a byte array for the whole string.
+   */
+  public static void update(Mac mac, String dataString)
+  {
+    byte[] scratchBuffer = getPrimitives().scratchBuffer;
+    int offset = 0;
+    while (offset < dataString.length())
+    {
+      int length = fillScratchBuffer(scratchBuffer, dataString, offset);
+      mac.update(scratchBuffer, 0, length);
+      offset += length;
+    }
+  }
+
+  /**
+   * Feeds a string into a Signature. Each character is converted to one byte like in
+   * StringHelper.stringToByteArray(), but without creating a byte array for the whole string.
+   */
+  public static void update(Signature signature, String dataString) throws SignatureException
+  {
+    byte[] scratchBuffer = getPrimitives().scratchBuffer;
+    int offset = 0;
+    while (offset < dataString.length())
+    {
+      int length = fillScratchBuffer(scratchBuffer, dataString, offset);
+      signature.update(scratchBuffer, 0, length);
+      offset += length;
+    }
+  }
+
+  /** Drops all primitives of the current thread, e.g., after an error left them in an unknown state. */
+  public static void clear()
+  {
+    primitives.set(null);
+  }
+
+  /** Retrieves the primitives of the current thread. */
+  private static Primitives getPrimitives()
+  {
+    Primitives result = (Primitives)primitives.get();
+    if (result == null)
+    {
+      result = new Primitives();
+      primitives.set(result);
+    }
+    return result;
+  }
+
+  /** Copies the next part of a string into the scratch buffer and returns the number of copied bytes. */
+  private static int fillScratchBuffer(byte[] scratchBuffer, String dataString, int offset)
+  {
+    int length = Math.min(scratchBuffer.length, dataString.length() - offset);
+    for (int i = 0; i < length; i++)
+    {
+      scratchBuffer[i] = (byte)dataString.charAt(offset + i);
+    }
+    return length;
+  }
+
+  /** Checks if a primitive was already initialized with a key. */
+  private static boolean isSameKey(Key initializedKey, Key key)
+  {
+    return initializedKey != null && (initializedKey == key || initializedKey.equals(key));
+  }
+
+  /** This class holds the primitives for one thread. */
+  private static class Primitives
+  {
+    public Mac       hmac;
+
+    public Key       hmacKey;
+
+    public Signature signer;
+
+    public Key       signerKey;
+
+    public Signature verifier;
+
+    public Key       verifierKey;
+
+    public Cipher    aesCipher;
+
+    public byte[]    scratchBuffer = new byte[SCRATCH_BUFFER_SIZE];
+  }
+
+}
@@ -27,6 +27,7 @@
 */
 package de.fraunhofer.fokus.upnp.util.security;
 
+import java.nio.ByteBuffer;
 import java.security.Key;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -82,15 +83,66 @@ public class DigestHelper
   /** Calculates a SHA1-HMAC (Message authentication code) */
   public static byte[] calculateSHA1HMACForString(Key key, String dataString)
   {
-    byte[] data = StringHelper.stringToByteArray(dataString);
+    return calculateSHA1HMACForStrings(key, new String[] {
+        dataString
+    });
+  }
+
+  /**
+   * Calculates a SHA1-HMAC over the concatenation of several strings without building the
+   * concatenated string.
+   */
+  public static byte[] calculateSHA1HMACForStrings(Key key, String[] dataStrings)
+  {
+    try
+    {
+      Mac hmac = CryptographyPrimitivePool.getSHA1HMAC(key);
+      for (int i = 0; i < dataStrings.length; i++)
+      {
+        CryptographyPrimitivePool.update(hmac, dataStrings[i]);
+      }
+      return hmac.doFinal();
+    } catch (Exception ex)
+    {
+      CryptographyPrimitivePool.clear();
+      System.out.println("Error:" + ex.getMessage());
+    }
+    return null;
+  }
 
+  /** Calculates a SHA1-HMAC for a part of a byte array */
+  public static byte[] calculateSHA1HMAC(Key key, byte[] data, int offset, int length)
+  {
+    try
+    {
+      Mac hmac = CryptographyPrimitivePool.getSHA1HMAC(key);
+      hmac.update(data, offset, length);
+      return hmac.doFinal();
+    } catch (Exception ex)
+    {
+      CryptographyPrimitivePool.clear();
+      System.out.println("Error:" + ex.getMessage());
+    }
+    return null;
+  }
+
+  /** Calculates a SHA1-HMAC for a byte array */
+  public static byte[] calculateSHA1HMAC(Key key, byte[] data)
+  {
+    return calculateSHA1HMAC(key, data, 0, data.length);
+  }
+
+  /** Calculates a SHA1-HMAC for the remaining bytes of a buffer. The buffer position is moved to its limit. */
+  public static byte[] calculateSHA1HMAC(Key key, ByteBuffer data)
+  {
     try
     {
-      Mac hmac = Mac.getInstance(CommonConstants.HMAC_SHA_1_JAVA);
-      hmac.init(key);
-      return hmac.doFinal(data);
+      Mac hmac = CryptographyPrimitivePool.getSHA1HMAC(key);
+      hmac.update(data);
+      return hmac.doFinal();
     } catch (Exception ex)
     {
+      CryptographyPrimitivePool.clear();
       System.out.println("Error:" + ex.getMessage());
     }
     return null;
@@ -28,19 +28,15 @@
 package de.fraunhofer.fokus.upnp.util.security;
 
 import java.math.BigInteger;
-import java.security.InvalidKeyException;
+import java.nio.ByteBuffer;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
-import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.Signature;
-import java.security.SignatureException;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
 
 import de.fraunhofer.fokus.upnp.util.Base64Helper;
-import de.fraunhofer.fokus.upnp.util.CommonConstants;
-import de.fraunhofer.fokus.upnp.util.StringHelper;
 
 /**
  * 
@@ -70,31 +66,46 @@ public class PublicKeyCryptographyHelper
    */
   public static byte[] calculateRSASignatureForString(RSAPrivateKey signatureKey, String dataString)
   {
-    byte[] data = StringHelper.stringToByteArray(dataString);
-
     // System.out.println("Calculate RSA signature for string with length "+data.length);
 
     try
     {
-      Signature signature = Signature.getInstance(CommonConstants.RSA_SHA_1_JAVA);
-      if (signature != null)
-      {
-        signature.initSign(signatureKey);
-        signature.update(data);
-        return signature.sign();
-      }
-    } catch (NoSuchAlgorithmException nsae)
+      Signature signature = CryptographyPrimitivePool.getRSASigner(signatureKey);
+      CryptographyPrimitivePool.update(signature, dataString);
+      return signature.sign();
+    } catch (Exception ex)
+    {
+      handleSignatureException(ex);
+    }
+    return null;
+  }
+
+  /** Calculates the RSA signature for a part of a byte array. */
+  public static byte[] calculateRSASignature(RSAPrivateKey signatureKey, byte[] data, int offset, int length)
+  {
+    try
     {
-      System.out.println("Error: " + nsae.getMessage());
-    } catch (InvalidKeyException ike)
+      Signature signature = CryptographyPrimitivePool.getRSASigner(signatureKey);
+      signature.update(data, offset, length);
+      return signature.sign();
+    } catch (Exception ex)
     {
-      System.out.println("Error: " + ike.getMessage());
-    } catch (SignatureException se)
+      handleSignatureException(ex);
+    }
+    return null;
+  }
+
+  /** Calculates the RSA signature for the remaining bytes of a buffer. The buffer position is moved to its limit. */
+  public static byte[] calculateRSASignature(RSAPrivateKey signatureKey, ByteBuffer data)
+  {
+    try
     {
-      System.out.println("Error: " + se.getMessage());
+      Signature signature = CryptographyPrimitivePool.getRSASigner(signatureKey);
+      signature.update(data);
+      return signature.sign();
     } catch (Exception ex)
     {
-      System.out.println("Error: " + ex.getMessage());
+      handleSignatureException(ex);
     }
     return null;
   }
@@ -122,34 +133,60 @@ public class PublicKeyCryptographyHelper
    */
   public static boolean verifyRSASignatureForString(RSAPublicKey publicKey, String dataString, byte[] signatureData)
   {
-    byte[] data = StringHelper.stringToByteArray(dataString);
-
     // System.out.println("Verify RSA signature for string with length "+data.length);
     try
     {
-      Signature signature = Signature.getInstance(CommonConstants.RSA_SHA_1_JAVA);
-      if (signature != null)
-      {
-        signature.initVerify(publicKey);
-        signature.update(data);
-        return signature.verify(signatureData);
-      }
-    } catch (NoSuchAlgorithmException nsae)
+      Signature signature = CryptographyPrimitivePool.getRSAVerifier(publicKey);
+      CryptographyPrimitivePool.update(signature, dataString);
+      return signature.verify(signatureData);
+    } catch (Exception ex)
     {
-      System.out.println("Error: " + nsae.getMessage());
-    } catch (InvalidKeyException ike)
+      handleSignatureException(ex);
+    }
+    return false;
+  }
+
+  /** Verifies the RSA signature for a part of a byte array. */
+  public static boolean verifyRSASignature(RSAPublicKey publicKey,
+    byte[] data,
+    int offset,
+    int length,
+    byte[] signatureData)
+  {
+    try
     {
-      System.out.println("Error: " + ike.getMessage());
-    } catch (SignatureException se)
+      Signature signature = CryptographyPrimitivePool.getRSAVerifier(publicKey);
+      signature.update(data, offset, length);
+      return signature.verify(signatureData);
+    } catch (Exception ex)
     {
-      System.out.println("Error: " + se.getMessage());
+      handleSignatureException(ex);
+    }
+    return false;
+  }
+
+  /** Verifies the RSA signature for the remaining bytes of a buffer. The buffer position is moved to its limit. */
+  public static boolean verifyRSASignature(RSAPublicKey publicKey, ByteBuffer data, byte[] signatureData)
+  {
+    try
+    {
+      Signature signature = CryptographyPrimitivePool.getRSAVerifier(publicKey);
+      signature.update(data);
+      return signature.verify(signatureData);
     } catch (Exception ex)
     {
-      System.out.println("Error: " + ex.getMessage());
+      handleSignatureException(ex);
     }
     return false;
   }
 
+  /** Prints a signature error and drops the pooled primitives, which may be in an undefined state. */
+  private static void handleSignatureException(Exception ex)
+  {
+    CryptographyPrimitivePool.clear();
+    System.out.println("Error: " + ex.getMessage());
+  }
+
   /** Encrypts a byte array with an asymmetric key */
   public static byte[] encryptWithRSA(RSAPublicKey key, byte[] data) throws Exception
   {
@@ -38,7 +38,6 @@ import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import de.fraunhofer.fokus.upnp.util.Base64Helper;
-import de.fraunhofer.fokus.upnp.util.CommonConstants;
 
 /**
  * 
@@ -96,23 +95,30 @@ public class SymmetricCryptographyHelper
   /** Encrypts a byte array with AES-128/CBC/ */
   public static byte[] encryptWithAES(SecretKey key, byte[] iv, byte[] data)
   {
-    // apply padding
-    int paddedBytes = 16 - data.length % 16;
-    byte[] paddedData = new byte[data.length + paddedBytes];
-    System.arraycopy(data, 0, paddedData, 0, data.length);
-    paddedData[paddedData.length - 1] = (byte)paddedBytes;
-
-    // init cipher
-    SecretKeySpec keySpec = new SecretKeySpec(key.getEncoded(), "AES");
-    IvParameterSpec ivSpec = new IvParameterSpec(iv);
+    return encryptWithAES(key, iv, data, 0, data.length);
+  }
+
+  /** Encrypts a part of a byte array with AES-128/CBC/ */
+  public static byte[] encryptWithAES(SecretKey key, byte[] iv, byte[] data, int offset, int length)
+  {
+    // padding is appended in the last block, the data itself is not copied
+    int paddedBytes = 16 - length % 16;
+    byte[] padding = new byte[paddedBytes];
+    padding[paddedBytes - 1] = (byte)paddedBytes;
+
     try
     {
-      Cipher cipher = Cipher.getInstance(CommonConstants.AES_128_CBC_JAVA);
-      cipher.init(Cipher.ENCRYPT_MODE, keySpec, ivSpec);
+      Cipher cipher = CryptographyPrimitivePool.getAESCipher();
+      cipher.init(Cipher.ENCRYPT_MODE, getAESKeySpec(key), new IvParameterSpec(iv));
 
-      return cipher.doFinal(paddedData);
+      byte[] result = new byte[length + paddedBytes];
+      int encryptedBytes = cipher.update(data, offset, length, result, 0);
+      cipher.doFinal(padding, 0, paddedBytes, result, encryptedBytes);
+
+      return result;
     } catch (Exception ex)
     {
+      CryptographyPrimitivePool.clear();
       System.out.println("Error:" + ex.getMessage());
     }
     return null;
@@ -121,15 +127,18 @@ public class SymmetricCryptographyHelper
   /** Decrypts a byte array with AES-128/CBC/ */
   public static byte[] decryptWithAES(SecretKey key, byte[] iv, byte[] data)
   {
-    // init cipher
-    SecretKeySpec keySpec = new SecretKeySpec(key.getEncoded(), "AES");
-    IvParameterSpec ivSpec = new IvParameterSpec(iv);
+    return decryptWithAES(key, iv, data, 0, data.length);
+  }
+
+  /** Decrypts a part of a byte array with AES-128/CBC/ */
+  public static byte[] decryptWithAES(SecretKey key, byte[] iv, byte[] data, int offset, int length)
+  {
     try
     {
-      Cipher cipher = Cipher.getInstance(CommonConstants.AES_128_CBC_JAVA);
-      cipher.init(Cipher.DECRYPT_MODE, keySpec, ivSpec);
+      Cipher cipher = CryptographyPrimitivePool.getAESCipher();
+      cipher.init(Cipher.DECRYPT_MODE, getAESKeySpec(key), new IvParameterSpec(iv));
 
-      byte[] decrypted = cipher.doFinal(data);
+      byte[] decrypted = cipher.doFinal(data, offset, length);
 
       // System.out.println("Decrypted AES result is " + StringHelper.byteArrayToString(decrypted));
 
@@ -147,11 +156,22 @@ public class SymmetricCryptographyHelper
       return result;
     } catch (Exception ex)
     {
+      CryptographyPrimitivePool.clear();
       System.out.println("Error:" + ex.getMessage());
     }
     return null;
   }
 
+  /** Retrieves a key that can be used with the AES cipher without copying keys that already are AES keys. */
+  private static SecretKey getAESKeySpec(SecretKey key)
+  {
+    if ("AES".equals(key.getAlgorithm()))
+    {
+      return key;
+    }
+    return new SecretKeySpec(key.getEncoded(), "AES");
+  }
+
   /** Decrypts an AES key, that was encrypted with a public RSA key. */
   public static SymmetricKeyInfo decryptRSAEncryptedAESKey(RSAPrivateKey privateKey, byte[] data)
   {
@@ -34,6 +34,12 @@ import de.fraunhofer.fokus.upnp.util.ThreadHelper;
 /**
  * This class bundles all activities that must be called regularly for devices to work properly.
  * 
+ * The listeners are not polled but timed by a TimerWheelScheduler. Event threads created with
+ * createSharedEventThread() run their listeners on the small worker pool of one scheduler that is
+ * shared by all of them. Other event threads have their own scheduler and execute their listeners
+ * one at a time in this thread. Normal listeners are called every EVENT_THREAD_SLEEP_TIME ms,
+ * IScheduledEventListeners only when their next event is due or after a call to trigger().
+ * 
  * @author Alexander Koenig
  * 
  * 
@@ -41,22 +47,34 @@ import de.fraunhofer.fokus.upnp.util.ThreadHelper;
 public class EventThread extends Thread
 {
 
-  public static int EVENT_THREAD_SLEEP_TIME = 50;
+  public static int                  EVENT_THREAD_SLEEP_TIME = 50;
+
+  /** Number of worker threads of the shared scheduler */
+  public static int                  SHARED_WORKER_COUNT     = 4;
+
+  /** Scheduler shared by all event threads created with createSharedEventThread() */
+  private static TimerWheelScheduler sharedScheduler         = null;
 
-  private Vector    listeners               = new Vector();
+  /** Registered listeners */
+  private Vector                     listeners               = new Vector();
 
-  private Vector    addListeners            = new Vector();
+  /** Scheduler that executes the listeners */
+  private TimerWheelScheduler        scheduler;
 
-  private Vector    removeListeners         = new Vector();
+  /** Flag that the scheduler was created by this thread */
+  private boolean                    ownScheduler            = false;
 
-  private Object    lock                    = new Object();
+  private Object                     lock                    = new Object();
 
-  private boolean   terminateThread         = false;
+  private boolean                    started                 = false;
 
-  private boolean   terminated              = false;
+  private boolean                    terminateThread         = false;
+
+  private boolean                    terminated              = false;
 
   /**
-   * Creates a new instance of EventThread. The thread is not started.
+   * Creates a new instance of EventThread that executes its listeners itself. The thread is not
+   * started.
    * 
    * @param name
    */
@@ -65,14 +83,65 @@ public class EventThread extends Thread
     super(name);
   }
 
+  /**
+   * Creates a new instance of EventThread. The thread is not started.
+   * 
+   * @param name
+   * @param scheduler
+   *          Started scheduler whose worker threads should execute the listeners
+   */
+  public EventThread(String name, TimerWheelScheduler scheduler)
+  {
+    super(name);
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Retrieves the scheduler that is shared by all event threads created with
+   * createSharedEventThread(). The scheduler is started on first use.
+   * 
+   * @return The shared scheduler
+   */
+  public static synchronized TimerWheelScheduler getSharedScheduler()
+  {
+    if (sharedScheduler == null)
+    {
+      sharedScheduler =
+        new TimerWheelScheduler("SharedEventThread",
+          Math.min(EVENT_THREAD_SLEEP_TIME, TimerWheelScheduler.DEFAULT_TICK_DURATION),
+          TimerWheelScheduler.DEFAULT_WHEEL_SIZE,
+          SHARED_WORKER_COUNT);
+      sharedScheduler.start();
+    }
+    return sharedScheduler;
+  }
+
+  /**
+   * Creates a new event thread whose listeners are executed by the worker pool of the shared
+   * scheduler. The thread is not started.
+   * 
+   * @param name
+   * 
+   * @return The new event thread
+   */
+  public static EventThread createSharedEventThread(String name)
+  {
+    return new EventThread(name, getSharedScheduler());
+  }
+
   /** Registers a new listener for events */
   public void register(IEventListener listener)
   {
     synchronized(lock)
     {
-      if (addListeners.indexOf(listener) == -1)
+      if (listeners.indexOf(listener) == -1)
       {
-        addListeners.add(listener);
+        listeners.add(listener);
+        // listeners are scheduled when the thread is started
+        if (started && !terminateThread)
+        {
+          scheduleListener(listener);
+        }
       }
     }
   }
@@ -82,49 +151,121 @@ public class EventThread extends Thread
   {
     synchronized(lock)
     {
-      if (removeListeners.indexOf(listener) == -1)
+      if (listeners.remove(listener) && started)
+      {
+        scheduler.cancel(listener);
+      }
+    }
+  }
+
+  /**
+   * Signals that a registered listener has pending events. The listener is called as soon as
+   * possible.
+   */
+  public void trigger(IEventListener listener)
+  {
+    synchronized(lock)
+    {
+      if (started)
+      {
+        scheduler.trigger(listener);
+      }
+    }
+  }
+
+  /**
+   * Retrieves the scheduler that executes the listeners.
+   * 
+   * @return The scheduler or null if the thread was not started yet
+   */
+  public TimerWheelScheduler getScheduler()
+  {
+    return scheduler;
+  }
+
+  /** Retrieves the execution statistics for all registered listeners. */
+  public String getStatistics()
+  {
+    StringBuffer result = new StringBuffer();
+    synchronized(lock)
+    {
+      for (int i = 0; started && i < listeners.size(); i++)
       {
-        removeListeners.add(listener);
+        TimerWheelEntry entry = scheduler.getEntry((IEventListener)listeners.elementAt(i));
+        if (entry != null)
+        {
+          result.append(entry.toString() + "\n");
+        }
       }
     }
+    return result.toString();
+  }
+
+  /** Adds a listener to the scheduler. Must be called while holding the lock. */
+  private void scheduleListener(IEventListener listener)
+  {
+    if (listener instanceof IScheduledEventListener)
+    {
+      scheduler.schedule((IScheduledEventListener)listener);
+    } else
+    {
+      scheduler.schedulePeriodic(listener, 0, EVENT_THREAD_SLEEP_TIME);
+    }
   }
 
   public void run()
   {
-    while (!terminateThread)
+    synchronized(lock)
+    {
+      if (scheduler == null)
+      {
+        // listeners are only timed by the scheduler and executed by this thread
+        scheduler =
+          new TimerWheelScheduler(getName(),
+            Math.min(EVENT_THREAD_SLEEP_TIME, TimerWheelScheduler.DEFAULT_TICK_DURATION),
+            TimerWheelScheduler.DEFAULT_WHEEL_SIZE,
+            0);
+        scheduler.start();
+        ownScheduler = true;
+      }
+      started = true;
+      if (terminateThread)
+      {
+        if (ownScheduler)
+        {
+          scheduler.terminate();
+        }
+      } else
+      {
+        for (int i = 0; i < listeners.size(); i++)
+        {
+          scheduleListener((IEventListener)listeners.elementAt(i));
+        }
+      }
+    }
+    if (ownScheduler)
+    {
+      // execute due listeners one at a time until the scheduler is terminated
+      scheduler.executeEntries();
+    } else
     {
       synchronized(lock)
       {
-        // handle add and remove lists
-        for (int i = 0; i < addListeners.size(); i++)
+        // keep thread alive without polling until termination
+        while (!terminateThread)
         {
-          IEventListener currentListener = (IEventListener)addListeners.elementAt(i);
-          if (listeners.indexOf(currentListener) == -1)
+          try
+          {
+            lock.wait();
+          } catch (InterruptedException e)
           {
-            listeners.add(currentListener);
           }
         }
-        addListeners.clear();
-        for (int i = 0; i < removeListeners.size(); i++)
+        for (int i = 0; i < listeners.size(); i++)
         {
-          IEventListener currentListener = (IEventListener)removeListeners.elementAt(i);
-          listeners.remove(currentListener);
+          scheduler.cancel((IEventListener)listeners.elementAt(i));
         }
-        removeListeners.clear();
-      }
-      // trigger events
-      for (int i = 0; i < listeners.size(); i++)
-      {
-        // long triggerStart = System.currentTimeMillis();
-        ((IEventListener)listeners.elementAt(i)).triggerEvents();
-        // if (System.currentTimeMillis() - triggerStart > 100)
-        // {
-        // System.out.println(Thread.currentThread().toString() + ": Event triggering " + i + ": " +
-        // (System.currentTimeMillis() - triggerStart));
-        // }
-
       }
-      ThreadHelper.sleep(EVENT_THREAD_SLEEP_TIME);
     }
     terminated = true;
   }
@@ -132,8 +273,16 @@ public class EventThread extends Thread
   /** Terminates the thread */
   public void terminate()
   {
-    terminateThread = true;
-    while (!terminated)
+    synchronized(lock)
+    {
+      terminateThread = true;
+      if (ownScheduler)
+      {
+        scheduler.terminate();
+      }
+      lock.notifyAll();
+    }
+    while (isAlive() && !terminated)
     {
       ThreadHelper.sleep(30);
     }
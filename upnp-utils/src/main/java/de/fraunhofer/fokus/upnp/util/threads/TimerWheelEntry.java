@@ -0,0 +1,251 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.util.threads;
+
+/**
+ * This class holds the scheduling state and the execution statistics for one listener that is
+ * registered with a TimerWheelScheduler.
+ * 
+ * @author Alexander Koenig
+ * 
+ * 
+ */
+public class TimerWheelEntry
+{
+
+  /** Entry is neither scheduled nor running */
+  static final int       STATE_IDLE          = 0;
+
+  /** Entry waits in the timer wheel */
+  static final int       STATE_SCHEDULED     = 1;
+
+  /** Entry waits for a free worker thread */
+  static final int       STATE_READY         = 2;
+
+  /** Listener is currently executed */
+  static final int       STATE_RUNNING       = 3;
+
+  /** Associated listener */
+  private IEventListener listener;
+
+  /** Interval for periodic execution, 0 for single execution */
+  private long           interval;
+
+  /** Current state */
+  int                    state               = STATE_IDLE;
+
+  /** Time at which the listener is due */
+  long                   deadline;
+
+  /** Absolute tick of the wheel that contains the entry */
+  long                   targetTick;
+
+  /** Flag that the listener was triggered while it was running */
+  boolean                triggerPending      = false;
+
+  /** Flag that the entry was removed from the scheduler */
+  boolean                cancelled           = false;
+
+  private long           invocationCount     = 0;
+
+  private long           failureCount        = 0;
+
+  private long           totalExecutionTime  = 0;
+
+  private long           maxExecutionTime    = 0;
+
+  private long           lastExecutionTime   = 0;
+
+  private long           totalDelay          = 0;
+
+  private long           maxDelay            = 0;
+
+  /**
+   * Creates a new instance of TimerWheelEntry.
+   * 
+   * @param listener
+   *          The associated listener
+   * @param interval
+   *          Interval in ms for periodic execution, 0 for single execution
+   */
+  TimerWheelEntry(IEventListener listener, long interval)
+  {
+    this.listener = listener;
+    this.interval = interval;
+  }
+
+  /**
+   * Updates the statistics after an execution of the listener.
+   * 
+   * @param delay
+   *          Time in ms between the deadline and the start of the execution
+   * @param executionTime
+   *          Execution time in microseconds
+   * @param failed
+   *          Flag that the listener threw an exception
+   */
+  void addExecution(long delay, long executionTime, boolean failed)
+  {
+    invocationCount++;
+    if (failed)
+    {
+      failureCount++;
+    }
+    totalExecutionTime += executionTime;
+    maxExecutionTime = Math.max(maxExecutionTime, executionTime);
+    lastExecutionTime = executionTime;
+    totalDelay += delay;
+    maxDelay = Math.max(maxDelay, delay);
+  }
+
+  /**
+   * Retrieves the listener.
+   * 
+   * @return The listener.
+   */
+  public IEventListener getListener()
+  {
+    return listener;
+  }
+
+  /**
+   * Retrieves the interval for periodic execution.
+   * 
+   * @return The interval in ms or 0 for single execution.
+   */
+  public long getInterval()
+  {
+    return interval;
+  }
+
+  /**
+   * Retrieves the number of executions.
+   * 
+   * @return The invocationCount.
+   */
+  public long getInvocationCount()
+  {
+    return invocationCount;
+  }
+
+  /**
+   * Retrieves the number of executions that threw an exception.
+   * 
+   * @return The failureCount.
+   */
+  public long getFailureCount()
+  {
+    return failureCount;
+  }
+
+  /**
+   * Retrieves the accumulated execution time.
+   * 
+   * @return The total execution time in microseconds.
+   */
+  public long getTotalExecutionTime()
+  {
+    return totalExecutionTime;
+  }
+
+  /**
+   * Retrieves the average execution time.
+   * 
+   * @return The average execution time in microseconds.
+   */
+  public long getAverageExecutionTime()
+  {
+    return invocationCount == 0 ? 0 : totalExecutionTime / invocationCount;
+  }
+
+  /**
+   * Retrieves the longest execution time.
+   * 
+   * @return The maximum execution time in microseconds.
+   */
+  public long getMaxExecutionTime()
+  {
+    return maxExecutionTime;
+  }
+
+  /**
+   * Retrieves the time of the last execution.
+   * 
+   * @return The last execution time in microseconds.
+   */
+  public long getLastExecutionTime()
+  {
+    return lastExecutionTime;
+  }
+
+  /**
+   * Retrieves the average time between deadline and execution start.
+   * 
+   * @return The average delay in ms.
+   */
+  public long getAverageDelay()
+  {
+    return invocationCount == 0 ? 0 : totalDelay / invocationCount;
+  }
+
+  /**
+   * Retrieves the longest time between deadline and execution start.
+   * 
+   * @return The maximum delay in ms.
+   */
+  public long getMaxDelay()
+  {
+    return maxDelay;
+  }
+
+  /**
+   * Checks if the entry was removed from the scheduler.
+   * 
+   * @return True if the listener is not called anymore
+   */
+  public boolean isCancelled()
+  {
+    return cancelled;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see java.lang.Object#toString()
+   */
+  public String toString()
+  {
+    String listenerName = listener.getClass().getName();
+    listenerName = listenerName.substring(listenerName.lastIndexOf('.') + 1);
+
+    return listenerName + ": " + invocationCount + " calls (" + failureCount + " failed), avg " +
+      getAverageExecutionTime() + " us, max " + maxExecutionTime + " us, avg delay " + getAverageDelay() +
+      " ms, max delay " + maxDelay + " ms";
+  }
+
+}
@@ -0,0 +1,611 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.util.threads;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * This class implements a hashed timer wheel that calls registered event listeners when they are
+ * due. Listeners can be called once after a delay, periodically, at deadlines provided by the
+ * listener (IScheduledEventListener) or immediately when they signal pending work via trigger().
+ * Due listeners are executed by a small pool of worker threads, so a slow listener does not delay
+ * all others. A scheduler without worker threads executes its listeners one at a time in the
+ * thread that calls executeEntries(). A listener is never executed by more than one thread at a
+ * time.
+ * 
+ * The timer thread only wakes up for ticks with scheduled listeners. Execution times and delays
+ * are recorded for each listener.
+ * 
+ * @author Alexander Koenig
+ * 
+ * 
+ */
+public class TimerWheelScheduler implements Runnable
+{
+
+  /** Default duration of one wheel tick in ms */
+  public static final long           DEFAULT_TICK_DURATION = 10;
+
+  /** Default number of buckets in the wheel */
+  public static final int            DEFAULT_WHEEL_SIZE    = 512;
+
+  /** Default number of worker threads */
+  public static final int            DEFAULT_WORKER_COUNT  = 2;
+
+  /** Name used for the threads */
+  private String                     name;
+
+  /** Duration of one tick in ms */
+  private long                       tickDuration;
+
+  /** Buckets with scheduled entries */
+  private Vector[]                   wheel;
+
+  /** Mask to map a tick to a bucket */
+  private int                        wheelMask;
+
+  /** Start time of tick 0 */
+  private long                       startTime;
+
+  /** Last processed tick */
+  private long                       currentTick           = 0;
+
+  /** Number of entries in the wheel */
+  private int                        scheduledEntryCount   = 0;
+
+  /** Tick at which the timer thread wakes up next */
+  private long                       nextWakeupTick        = Long.MAX_VALUE;
+
+  /** Entries that wait for a worker thread */
+  private Vector                     readyEntries          = new Vector();
+
+  /** Table with all entries, indexed by their listener */
+  private Hashtable                  entryTable            = new Hashtable();
+
+  /** Worker threads */
+  private WorkerThread[]             workerThreads;
+
+  /** Thread that advances the wheel */
+  private Thread                     timerThread;
+
+  /** Sync object */
+  private Object                     lock                  = new Object();
+
+  private boolean                    terminateThread       = false;
+
+  /**
+   * Creates a new instance of TimerWheelScheduler with default settings. The scheduler is not
+   * started.
+   * 
+   * @param name
+   *          Name for the scheduler threads
+   */
+  public TimerWheelScheduler(String name)
+  {
+    this(name, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE, DEFAULT_WORKER_COUNT);
+  }
+
+  /**
+   * Creates a new instance of TimerWheelScheduler. The scheduler is not started.
+   * 
+   * @param name
+   *          Name for the scheduler threads
+   * @param tickDuration
+   *          Duration of one tick in ms
+   * @param wheelSize
+   *          Number of buckets, rounded up to a power of two
+   * @param workerCount
+   *          Number of threads that execute listeners, 0 if listeners are executed by the
+   *          thread that calls executeEntries()
+   */
+  public TimerWheelScheduler(String name, long tickDuration, int wheelSize, int workerCount)
+  {
+    this.name = name;
+    this.tickDuration = Math.max(1, tickDuration);
+    int size = 1;
+    while (size < wheelSize)
+    {
+      size <<= 1;
+    }
+    wheel = new Vector[size];
+    for (int i = 0; i < size; i++)
+    {
+      wheel[i] = new Vector();
+    }
+    wheelMask = size - 1;
+    workerThreads = new WorkerThread[Math.max(0, workerCount)];
+    startTime = System.currentTimeMillis();
+  }
+
+  /** Starts the timer and worker threads. */
+  public void start()
+  {
+    synchronized(lock)
+    {
+      if (timerThread != null)
+      {
+        return;
+      }
+      timerThread = new Thread(this, name + ".Timer");
+      timerThread.setDaemon(true);
+      timerThread.start();
+      for (int i = 0; i < workerThreads.length; i++)
+      {
+        workerThreads[i] = new WorkerThread(name + ".Worker" + i);
+        workerThreads[i].start();
+      }
+    }
+  }
+
+  /**
+   * Calls a listener once after a delay.
+   * 
+   * @param listener
+   *          The listener
+   * @param delay
+   *          The delay in ms
+   * 
+   * @return The entry for the listener
+   */
+  public TimerWheelEntry schedule(IEventListener listener, long delay)
+  {
+    return addEntry(listener, 0, delay);
+  }
+
+  /**
+   * Calls a listener periodically. The interval is measured from the end of the previous
+   * execution. IScheduledEventListeners are called at their requested time instead, the interval
+   * is then only used while they have no pending events.
+   * 
+   * @param listener
+   *          The listener
+   * @param initialDelay
+   *          Delay in ms for the first execution
+   * @param interval
+   *          Interval in ms
+   * 
+   * @return The entry for the listener
+   */
+  public TimerWheelEntry schedulePeriodic(IEventListener listener, long initialDelay, long interval)
+  {
+    return addEntry(listener, Math.max(1, interval), initialDelay);
+  }
+
+  /**
+   * Registers a listener that is only called at the times it requests itself or when it is
+   * explicitly triggered.
+   * 
+   * @param listener
+   *          The listener
+   * 
+   * @return The entry for the listener
+   */
+  public TimerWheelEntry schedule(IScheduledEventListener listener)
+  {
+    long nextEventTime = listener.getNextEventTime();
+    TimerWheelEntry entry = addEntry(listener, 0, -1);
+    synchronized(lock)
+    {
+      if (nextEventTime >= 0 && entry.state == TimerWheelEntry.STATE_IDLE)
+      {
+        scheduleEntry(entry, nextEventTime);
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Signals that a listener has pending events. The listener is executed as soon as possible,
+   * regardless of its deadline. If the listener is currently running, it is executed again
+   * afterwards.
+   * 
+   * @param listener
+   *          A registered listener
+   */
+  public void trigger(IEventListener listener)
+  {
+    synchronized(lock)
+    {
+      TimerWheelEntry entry = (TimerWheelEntry)entryTable.get(listener);
+      if (entry == null || entry.cancelled)
+      {
+        return;
+      }
+      if (entry.state == TimerWheelEntry.STATE_RUNNING)
+      {
+        entry.triggerPending = true;
+        return;
+      }
+      if (entry.state == TimerWheelEntry.STATE_SCHEDULED)
+      {
+        removeFromWheel(entry);
+      }
+      if (entry.state != TimerWheelEntry.STATE_READY)
+      {
+        entry.deadline = System.currentTimeMillis();
+        enqueueEntry(entry);
+      }
+    }
+  }
+
+  /**
+   * Removes a listener from the scheduler. A running execution is not interrupted.
+   * 
+   * @param listener
+   *          The listener
+   */
+  public void cancel(IEventListener listener)
+  {
+    synchronized(lock)
+    {
+      TimerWheelEntry entry = (TimerWheelEntry)entryTable.remove(listener);
+      if (entry != null)
+      {
+        cancelEntry(entry);
+      }
+    }
+  }
+
+  /**
+   * Retrieves the entry for a listener.
+   * 
+   * @param listener
+   *          The listener
+   * 
+   * @return The entry with the execution statistics or null
+   */
+  public TimerWheelEntry getEntry(IEventListener listener)
+  {
+    return (TimerWheelEntry)entryTable.get(listener);
+  }
+
+  /**
+   * Retrieves all entries.
+   * 
+   * @return A vector with all registered TimerWheelEntries
+   */
+  public Vector getEntries()
+  {
+    synchronized(lock)
+    {
+      return new Vector(entryTable.values());
+    }
+  }
+
+  /**
+   * Retrieves the number of listeners that wait for a free worker thread.
+   * 
+   * @return The number of ready listeners
+   */
+  public int getReadyEntryCount()
+  {
+    return readyEntries.size();
+  }
+
+  /**
+   * Retrieves a description of the execution statistics for all listeners.
+   * 
+   * @return A string with one line per listener
+   */
+  public String getStatistics()
+  {
+    StringBuffer result = new StringBuffer();
+    Vector entries = getEntries();
+    for (int i = 0; i < entries.size(); i++)
+    {
+      result.append(entries.elementAt(i).toString() + "\n");
+    }
+    return result.toString();
+  }
+
+  /** Adds or replaces the entry for a listener */
+  private TimerWheelEntry addEntry(IEventListener listener, long interval, long delay)
+  {
+    TimerWheelEntry entry = new TimerWheelEntry(listener, interval);
+    synchronized(lock)
+    {
+      TimerWheelEntry oldEntry = (TimerWheelEntry)entryTable.put(listener, entry);
+      if (oldEntry != null)
+      {
+        cancelEntry(oldEntry);
+      }
+      if (delay >= 0)
+      {
+        scheduleEntry(entry, System.currentTimeMillis() + delay);
+      }
+    }
+    return entry;
+  }
+
+  /** Cancels an entry. Must be called while holding the lock. */
+  private void cancelEntry(TimerWheelEntry entry)
+  {
+    entry.cancelled = true;
+    if (entry.state == TimerWheelEntry.STATE_SCHEDULED)
+    {
+      removeFromWheel(entry);
+    } else if (entry.state == TimerWheelEntry.STATE_READY)
+    {
+      readyEntries.remove(entry);
+      entry.state = TimerWheelEntry.STATE_IDLE;
+    }
+  }
+
+  /** Adds an entry to the wheel. Must be called while holding the lock. */
+  private void scheduleEntry(TimerWheelEntry entry, long deadline)
+  {
+    entry.deadline = deadline;
+    long deadlineTick = (deadline - startTime + tickDuration - 1) / tickDuration;
+    long nowTick = (System.currentTimeMillis() - startTime) / tickDuration;
+    // entries that are already due are executed immediately
+    if (deadlineTick <= nowTick)
+    {
+      enqueueEntry(entry);
+      return;
+    }
+    // timer thread was idle, so no ticks are missed
+    if (scheduledEntryCount == 0)
+    {
+      currentTick = nowTick;
+    }
+    entry.targetTick = deadlineTick;
+    entry.state = TimerWheelEntry.STATE_SCHEDULED;
+    wheel[(int)(deadlineTick & wheelMask)].add(entry);
+    scheduledEntryCount++;
+    // wake up timer thread if the new entry is due earlier
+    if (deadlineTick < nextWakeupTick)
+    {
+      lock.notifyAll();
+    }
+  }
+
+  /** Removes an entry from the wheel. Must be called while holding the lock. */
+  private void removeFromWheel(TimerWheelEntry entry)
+  {
+    if (wheel[(int)(entry.targetTick & wheelMask)].remove(entry))
+    {
+      scheduledEntryCount--;
+    }
+    entry.state = TimerWheelEntry.STATE_IDLE;
+  }
+
+  /** Adds an entry to the queue for the worker threads. Must be called while holding the lock. */
+  private void enqueueEntry(TimerWheelEntry entry)
+  {
+    entry.state = TimerWheelEntry.STATE_READY;
+    readyEntries.add(entry);
+    lock.notifyAll();
+  }
+
+  /** Moves all due entries of a bucket to the ready queue. Must be called while holding the lock. */
+  private void processBucket(int bucketIndex, long tick)
+  {
+    Vector bucket = wheel[bucketIndex];
+    int i = 0;
+    while (i < bucket.size())
+    {
+      TimerWheelEntry entry = (TimerWheelEntry)bucket.elementAt(i);
+      if (entry.targetTick <= tick)
+      {
+        bucket.remove(i);
+        scheduledEntryCount--;
+        enqueueEntry(entry);
+      } else
+      {
+        i++;
+      }
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see java.lang.Runnable#run()
+   */
+  public void run()
+  {
+    synchronized(lock)
+    {
+      while (!terminateThread)
+      {
+        try
+        {
+          if (scheduledEntryCount == 0)
+          {
+            // nothing to do, wait for new entries
+            nextWakeupTick = Long.MAX_VALUE;
+            lock.wait();
+          } else
+          {
+            // skip empty buckets
+            nextWakeupTick = currentTick + wheel.length;
+            for (int i = 1; i < wheel.length; i++)
+            {
+              if (wheel[(int)((currentTick + i) & wheelMask)].size() > 0)
+              {
+                nextWakeupTick = currentTick + i;
+                break;
+              }
+            }
+            long waitTime = startTime + nextWakeupTick * tickDuration - System.currentTimeMillis();
+            if (waitTime > 0)
+            {
+              lock.wait(waitTime);
+            }
+          }
+        } catch (InterruptedException e)
+        {
+        }
+        long nowTick = (System.currentTimeMillis() - startTime) / tickDuration;
+        if (scheduledEntryCount > 0 && nowTick > currentTick)
+        {
+          // process each bucket at most once, even if many ticks were missed
+          long tickCount = Math.min(nowTick - currentTick, wheel.length);
+          for (long tick = nowTick - tickCount + 1; tick <= nowTick; tick++)
+          {
+            processBucket((int)(tick & wheelMask), nowTick);
+          }
+          currentTick = nowTick;
+        }
+      }
+    }
+  }
+
+  /** Executes one entry and reschedules it if needed. */
+  private void executeEntry(TimerWheelEntry entry)
+  {
+    IEventListener listener = entry.getListener();
+    long delay = Math.max(0, System.currentTimeMillis() - entry.deadline);
+    long executionStart = System.nanoTime();
+    boolean failed = false;
+    try
+    {
+      listener.triggerEvents();
+    } catch (Throwable t)
+    {
+      failed = true;
+      System.out.println(name + ": Error triggering events for " + listener + ": " + t);
+    }
+    long executionTime = (System.nanoTime() - executionStart) / 1000;
+
+    long nextEventTime = -1;
+    if (listener instanceof IScheduledEventListener)
+    {
+      try
+      {
+        nextEventTime = ((IScheduledEventListener)listener).getNextEventTime();
+      } catch (Throwable t)
+      {
+      }
+    }
+    synchronized(lock)
+    {
+      entry.addExecution(delay, executionTime, failed);
+      entry.state = TimerWheelEntry.STATE_IDLE;
+      if (entry.cancelled)
+      {
+        return;
+      }
+      if (entry.triggerPending)
+      {
+        entry.triggerPending = false;
+        entry.deadline = System.currentTimeMillis();
+        enqueueEntry(entry);
+      } else if (nextEventTime >= 0)
+      {
+        scheduleEntry(entry, nextEventTime);
+      } else if (entry.getInterval() > 0)
+      {
+        scheduleEntry(entry, System.currentTimeMillis() + entry.getInterval());
+      } else if (!(listener instanceof IScheduledEventListener))
+      {
+        // single execution finished
+        entryTable.remove(listener);
+      }
+    }
+  }
+
+  /**
+   * Executes due listeners in the calling thread until the scheduler is terminated. This is used
+   * by the worker threads and by owners of schedulers without worker threads.
+   */
+  public void executeEntries()
+  {
+    while (!terminateThread)
+    {
+      TimerWheelEntry entry = null;
+      synchronized(lock)
+      {
+        while (!terminateThread && readyEntries.size() == 0)
+        {
+          try
+          {
+            lock.wait();
+          } catch (InterruptedException e)
+          {
+          }
+        }
+        if (!terminateThread)
+        {
+          entry = (TimerWheelEntry)readyEntries.remove(0);
+          entry.state = TimerWheelEntry.STATE_RUNNING;
+        }
+      }
+      if (entry != null)
+      {
+        executeEntry(entry);
+      }
+    }
+  }
+
+  /** Terminates the scheduler. Running executions are not interrupted. */
+  public void terminate()
+  {
+    synchronized(lock)
+    {
+      terminateThread = true;
+      Enumeration entries = entryTable.elements();
+      while (entries.hasMoreElements())
+      {
+        cancelEntry((TimerWheelEntry)entries.nextElement());
+      }
+      entryTable.clear();
+      lock.notifyAll();
+    }
+  }
+
+  /** This thread executes listeners that are due. */
+  private class WorkerThread extends Thread
+  {
+
+    /**
+     * Creates a new instance of WorkerThread.
+     * 
+     * @param name
+     *          Name of the thread
+     */
+    public WorkerThread(String name)
+    {
+      super(name);
+      setDaemon(true);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Thread#run()
+     */
+    public void run()
+    {
+      executeEntries();
+    }
+  }
+
+}
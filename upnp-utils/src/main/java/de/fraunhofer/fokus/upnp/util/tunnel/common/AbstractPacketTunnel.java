@@ -27,7 +27,14 @@
 */
 package de.fraunhofer.fokus.upnp.util.tunnel.common;
 
+import java.io.ByteArrayOutputStream;
+import java.util.Vector;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
 import de.fraunhofer.fokus.upnp.util.ByteArrayHelper;
+import de.fraunhofer.fokus.upnp.util.StringHelper;
 import de.fraunhofer.fokus.upnp.util.logging.LogHelper;
 import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
 
@@ -41,6 +48,10 @@ import de.fraunhofer.fokus.upnp.util.threads.IEventListener;
  * Receiving data must be done in the subclass. Received data can then be forwarded to handleReceivedData() which
  * unpacks the tunneled packets and forwards them to the registered packet tunnel listener.
  * 
+ * Stream tunnels can optionally use batched framing. Packets sent within a short time window are then collected into
+ * one batch frame which is compressed with a preset dictionary for SSDP, GENA and SOAP messages. Receivers always
+ * understand batch frames, but senders must only use them after negotiation with the remote side.
+ * 
  * 
  * @author Alexander Koenig
  */
@@ -54,6 +65,35 @@ public abstract class AbstractPacketTunnel implements IEventListener, IPacketTun
   /** Size(4 bytes) + Packet type(1 byte) */
   protected static final int      STREAM_TUNNEL_HEADER_SIZE   = 5;
 
+  /** Reserved packet type for frames that contain several packets */
+  public static final byte        BATCH_PACKET_TYPE           = (byte)0x7F;
+
+  /** Flags(1 byte) + Uncompressed size(4 bytes), followed by packets with stream tunnel headers */
+  protected static final int      BATCH_HEADER_SIZE           = 5;
+
+  /** Batch flag for deflated content */
+  protected static final byte     BATCH_FLAG_COMPRESSED       = 1;
+
+  /** Batch size that triggers immediate sending */
+  protected static final int      MAX_BATCH_SIZE              = 32768;
+
+  /** Time to collect packets for one batch frame */
+  public static long              BATCH_WINDOW_TIME           = 5;
+
+  /** Preset dictionary for compression, frequent strings are placed at the end */
+  private static final byte[]     COMPRESSION_DICTIONARY      =
+    StringHelper.stringToByteArray("<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+      "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\" " +
+      "s:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\"><s:Body></s:Body></s:Envelope>" +
+      "<e:propertyset xmlns:e=\"urn:schemas-upnp-org:event-1-0\"><e:property></e:property></e:propertyset>" +
+      "SOAPACTION: \"POST /SUBSCRIBE /CALLBACK: <http://TIMEOUT: Second-" +
+      "NOTIFY /NT: upnp:event\r\nNTS: upnp:propchange\r\nSID: uuid:SEQ: " +
+      "CONTENT-TYPE: text/xml; charset=\"utf-8\"\r\nCONTENT-LENGTH: HTTP/1.1 200 OK\r\nEXT: \r\nDATE: " +
+      "M-SEARCH * HTTP/1.1\r\nMAN: \"ssdp:discover\"\r\nMX: ST: ssdp:allssdp:byebye" +
+      "\r\nSERVER: UPnP/1.0 \r\nCACHE-CONTROL: max-age=1800\r\nLOCATION: http://" +
+      "NOTIFY * HTTP/1.1\r\nHOST: 239.255.255.250:1900\r\nNT: upnp:rootdevice\r\nNTS: ssdp:alive" +
+      "\r\nUSN: uuid:::urn:schemas-upnp-org:service:::urn:schemas-upnp-org:device:");
+
   /** Listener for received packets */
   protected IPacketTunnelListener tunnelListener;
 
@@ -82,6 +122,54 @@ public abstract class AbstractPacketTunnel implements IEventListener, IPacketTun
   /** Flag that the outer tunnel connection handles lost or reordered packet */
   protected boolean               streamTunnel                = false;
 
+  /** Flag that sent packets are collected into compressed batch frames */
+  private boolean                 batchedFraming              = false;
+
+  /** Packets that wait for the next batch frame */
+  private ByteArrayOutputStream   batchBuffer                 = new ByteArrayOutputStream();
+
+  /** Time of the first packet in the current batch */
+  private long                    batchStartTime              = 0;
+
+  /** Thread that sends batches after the batch window */
+  private Thread                  batchThread                 = null;
+
+  /** Sync object for batching, never held while writing to the connection */
+  private Object                  batchLock                   = new Object();
+
+  /** Frames that were built but not yet written, in send order */
+  private Vector                  pendingFrames               = new Vector();
+
+  /** Sync object that keeps the send order while frames are written to the connection */
+  private Object                  sendLock                    = new Object();
+
+  /** Sync object for statistics */
+  private Object                  statisticsLock              = new Object();
+
+  /** Compressor for batch frames */
+  private Deflater                deflater                    = null;
+
+  /** Decompressor for batch frames */
+  private Inflater                inflater                    = null;
+
+  /** Number of packets passed to sendPacket() */
+  private long                    sentPacketCount             = 0;
+
+  /** Payload bytes of packets passed to sendPacket() */
+  private long                    sentPacketBytes             = 0;
+
+  /** Bytes written to the tunnel connection, including headers */
+  private long                    sentTunnelBytes             = 0;
+
+  /** Number of packets forwarded to the tunnel listener */
+  private long                    receivedPacketCount         = 0;
+
+  /** Payload bytes of packets forwarded to the tunnel listener */
+  private long                    receivedPacketBytes         = 0;
+
+  /** Bytes read from the tunnel connection, including headers */
+  private long                    receivedTunnelBytes         = 0;
+
   /**
    * Creates a new instance of PacketTunnel.
    * 
@@ -108,6 +196,12 @@ public abstract class AbstractPacketTunnel implements IEventListener, IPacketTun
     // payload.length);
     int payloadSize = payload.length;
 
+    if (batchedFraming)
+    {
+      addPacketToBatch(packetType, payload);
+      return;
+    }
+
     byte[] data = null;
     if (streamTunnel)
     {
@@ -133,13 +227,319 @@ public abstract class AbstractPacketTunnel implements IEventListener, IPacketTun
 
       System.arraycopy(payload, 0, data, INSECURE_TUNNEL_HEADER_SIZE, payloadSize);
     }
-    try
+    synchronized(statisticsLock)
     {
-      sendPacketInternal(data);
-    } catch (Exception e)
+      sentPacketCount++;
+      sentPacketBytes += payloadSize;
+    }
+    synchronized(batchLock)
     {
-      LogHelper.warn("Error sending packet to tunnel: " + e.getMessage());
-      closeConnection();
+      pendingFrames.add(data);
+    }
+    sendPendingFrames();
+  }
+
+  /**
+   * Writes all pending frames to the tunnel connection. Must be called without the batch lock, so that the
+   * receive path and packet producers are not blocked by a slow connection.
+   */
+  private void sendPendingFrames()
+  {
+    synchronized(sendLock)
+    {
+      while (true)
+      {
+        byte[] data;
+        synchronized(batchLock)
+        {
+          if (pendingFrames.size() == 0)
+          {
+            return;
+          }
+          data = (byte[])pendingFrames.remove(0);
+        }
+        try
+        {
+          synchronized(statisticsLock)
+          {
+            sentTunnelBytes += data.length;
+          }
+          sendPacketInternal(data);
+        } catch (Exception e)
+        {
+          LogHelper.warn("Error sending packet to tunnel: " + e.getMessage());
+          closeConnection();
+        }
+      }
+    }
+  }
+
+  /** Adds a packet to the current batch and sends the batch if it is large enough. */
+  private void addPacketToBatch(byte packetType, byte[] payload)
+  {
+    synchronized(statisticsLock)
+    {
+      sentPacketCount++;
+      sentPacketBytes += payload.length;
+    }
+    boolean batchCompleted = false;
+    synchronized(batchLock)
+    {
+      // start batch window
+      if (batchBuffer.size() == 0)
+      {
+        batchStartTime = System.currentTimeMillis();
+        batchLock.notifyAll();
+      }
+      batchBuffer.write(ByteArrayHelper.int32ToByteArray(payload.length), 0, 4);
+      batchBuffer.write(packetType);
+      batchBuffer.write(payload, 0, payload.length);
+
+      if (batchBuffer.size() >= MAX_BATCH_SIZE)
+      {
+        batchCompleted = buildBatch();
+      }
+    }
+    if (batchCompleted)
+    {
+      sendPendingFrames();
+    }
+  }
+
+  /**
+   * Builds one batch frame from all collected packets and appends it to the pending frames. Must be called with the
+   * batch lock.
+   * 
+   * @return True if a frame was built
+   */
+  private boolean buildBatch()
+  {
+    if (batchBuffer.size() == 0)
+    {
+      return false;
+    }
+    byte[] batchData = batchBuffer.toByteArray();
+    batchBuffer.reset();
+
+    byte flags = 0;
+    byte[] content = compressBatch(batchData);
+    if (content != null)
+    {
+      flags = BATCH_FLAG_COMPRESSED;
+    } else
+    {
+      content = batchData;
+    }
+    int payloadSize = BATCH_HEADER_SIZE + content.length;
+
+    byte[] data = new byte[STREAM_TUNNEL_HEADER_SIZE + payloadSize];
+    System.arraycopy(ByteArrayHelper.int32ToByteArray(payloadSize), 0, data, 0, 4);
+    data[4] = BATCH_PACKET_TYPE;
+    data[5] = flags;
+    System.arraycopy(ByteArrayHelper.int32ToByteArray(batchData.length), 0, data, 6, 4);
+    System.arraycopy(content, 0, data, STREAM_TUNNEL_HEADER_SIZE + BATCH_HEADER_SIZE, content.length);
+
+    // queue with the lock to preserve the packet order
+    pendingFrames.add(data);
+    return true;
+  }
+
+  /**
+   * Compresses a batch with the preset dictionary.
+   * 
+   * @param batchData
+   *          The collected packets
+   * 
+   * @return The compressed data or null if compression does not reduce the size
+   */
+  private byte[] compressBatch(byte[] batchData)
+  {
+    if (deflater == null)
+    {
+      deflater = new Deflater();
+    }
+    deflater.reset();
+    deflater.setDictionary(COMPRESSION_DICTIONARY);
+    deflater.setInput(batchData);
+    deflater.finish();
+
+    // the output buffer is only large enough for compressed data that is smaller than the input
+    byte[] buffer = new byte[batchData.length];
+    int length = deflater.deflate(buffer);
+    if (!deflater.finished() || length >= batchData.length)
+    {
+      return null;
+    }
+    byte[] result = new byte[length];
+    System.arraycopy(buffer, 0, result, 0, length);
+
+    return result;
+  }
+
+  /**
+   * Unpacks a received batch frame.
+   * 
+   * @param payload
+   *          The payload of the batch frame
+   * 
+   * @return The contained packets with stream tunnel headers
+   */
+  private byte[] decompressBatch(byte[] payload) throws DataFormatException
+  {
+    int batchSize = ByteArrayHelper.byteArrayToInt32(payload, 1);
+    int contentLength = payload.length - BATCH_HEADER_SIZE;
+    if ((payload[0] & BATCH_FLAG_COMPRESSED) == 0)
+    {
+      byte[] result = new byte[contentLength];
+      System.arraycopy(payload, BATCH_HEADER_SIZE, result, 0, contentLength);
+      return result;
+    }
+    if (inflater == null)
+    {
+      inflater = new Inflater();
+    }
+    inflater.reset();
+    inflater.setInput(payload, BATCH_HEADER_SIZE, contentLength);
+
+    byte[] result = new byte[batchSize];
+    int inflatedLength = 0;
+    while (inflatedLength < batchSize)
+    {
+      int length = inflater.inflate(result, inflatedLength, batchSize - inflatedLength);
+      if (length == 0)
+      {
+        if (!inflater.needsDictionary())
+        {
+          throw new DataFormatException("Incomplete batch frame");
+        }
+        inflater.setDictionary(COMPRESSION_DICTIONARY);
+      }
+      inflatedLength += length;
+    }
+    return result;
+  }
+
+  /** Forwards a received packet or all packets of a received batch frame to the tunnel listener. */
+  private void processReceivedPacket(byte packetType, byte[] payload) throws DataFormatException
+  {
+    if (packetType != BATCH_PACKET_TYPE)
+    {
+      synchronized(statisticsLock)
+      {
+        receivedPacketCount++;
+        receivedPacketBytes += payload.length;
+      }
+      if (tunnelListener != null)
+      {
+        tunnelListener.packetReceived(packetType, payload);
+      }
+      return;
+    }
+    byte[] batchData = decompressBatch(payload);
+    int offset = 0;
+    while (offset + STREAM_TUNNEL_HEADER_SIZE <= batchData.length)
+    {
+      int packetSize = ByteArrayHelper.byteArrayToInt32(batchData, offset);
+      if (packetSize < 0 || offset + STREAM_TUNNEL_HEADER_SIZE + packetSize > batchData.length)
+      {
+        throw new DataFormatException("Invalid packet size in batch frame");
+      }
+      byte[] packetPayload = new byte[packetSize];
+      System.arraycopy(batchData, offset + STREAM_TUNNEL_HEADER_SIZE, packetPayload, 0, packetSize);
+
+      processReceivedPacket(batchData[offset + 4], packetPayload);
+
+      offset += STREAM_TUNNEL_HEADER_SIZE + packetSize;
+    }
+  }
+
+  /**
+   * Enables or disables batched framing for sent packets. Batched framing is only used for stream tunnels and must
+   * only be enabled if the remote side understands batch frames. Disabling discards packets of the current batch.
+   * 
+   * @param batchedFraming
+   *          True to collect sent packets into compressed batch frames
+   */
+  public void setBatchedFraming(boolean batchedFraming)
+  {
+    synchronized(batchLock)
+    {
+      this.batchedFraming = batchedFraming && streamTunnel;
+      if (!this.batchedFraming)
+      {
+        batchBuffer.reset();
+      }
+      if (this.batchedFraming && batchThread == null)
+      {
+        batchThread = new Thread(new BatchSender(), "PacketTunnelBatchSender");
+        batchThread.setDaemon(true);
+        batchThread.start();
+      }
+      batchLock.notifyAll();
+    }
+  }
+
+  /**
+   * Checks if sent packets are collected into batch frames.
+   * 
+   * @return True if batched framing is used
+   */
+  public boolean isBatchedFraming()
+  {
+    return batchedFraming;
+  }
+
+  /** Retrieves the number of packets sent to the tunnel. */
+  public long getSentPacketCount()
+  {
+    synchronized(statisticsLock)
+    {
+      return sentPacketCount;
+    }
+  }
+
+  /** Retrieves the payload bytes of packets sent to the tunnel. */
+  public long getSentPacketBytes()
+  {
+    synchronized(statisticsLock)
+    {
+      return sentPacketBytes;
+    }
+  }
+
+  /** Retrieves the bytes written to the tunnel connection, including headers. */
+  public long getSentTunnelBytes()
+  {
+    synchronized(statisticsLock)
+    {
+      return sentTunnelBytes;
+    }
+  }
+
+  /** Retrieves the number of packets received from the tunnel. */
+  public long getReceivedPacketCount()
+  {
+    synchronized(statisticsLock)
+    {
+      return receivedPacketCount;
+    }
+  }
+
+  /** Retrieves the payload bytes of packets received from the tunnel. */
+  public long getReceivedPacketBytes()
+  {
+    synchronized(statisticsLock)
+    {
+      return receivedPacketBytes;
+    }
+  }
+
+  /** Retrieves the bytes read from the tunnel connection, including headers. */
+  public long getReceivedTunnelBytes()
+  {
+    synchronized(statisticsLock)
+    {
+      return receivedTunnelBytes;
     }
   }
 
@@ -189,6 +589,10 @@ public abstract class AbstractPacketTunnel implements IEventListener, IPacketTun
   public int handleReceivedData(byte[] newData, int newDataOffset, int newDataLength)
   {
     int handledLength = 0;
+    synchronized(statisticsLock)
+    {
+      receivedTunnelBytes += newDataLength;
+    }
     try
     {
       boolean hasPacketHeader;
@@ -335,11 +739,8 @@ public abstract class AbstractPacketTunnel implements IEventListener, IPacketTun
           // assume further packets
           hasPacketHeader = true;
 
-          // forward received packet
-          if (tunnelListener != null)
-          {
-            tunnelListener.packetReceived(packetPayloadType, packetPayload);
-          }
+          // forward received packet or unpack batch
+          processReceivedPacket(packetPayloadType, packetPayload);
         } else
         {
           if (tunnelHeaderProcessed)
@@ -399,4 +800,53 @@ public abstract class AbstractPacketTunnel implements IEventListener, IPacketTun
     this.streamTunnel = streamTunnel;
   }
 
+  /** Sends collected packets when the batch window expires. */
+  private class BatchSender implements Runnable
+  {
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Runnable#run()
+     */
+    public void run()
+    {
+      while (true)
+      {
+        boolean batchCompleted = false;
+        synchronized(batchLock)
+        {
+          if (!batchedFraming)
+          {
+            batchThread = null;
+            return;
+          }
+          long waitTime = 0;
+          if (batchBuffer.size() > 0)
+          {
+            waitTime = batchStartTime + BATCH_WINDOW_TIME - System.currentTimeMillis();
+            if (waitTime <= 0)
+            {
+              batchCompleted = buildBatch();
+            }
+          }
+          if (!batchCompleted)
+          {
+            try
+            {
+              batchLock.wait(waitTime);
+            } catch (InterruptedException e)
+            {
+            }
+          }
+        }
+        // write outside the batch lock
+        if (batchCompleted)
+        {
+          sendPendingFrames();
+        }
+      }
+    }
+  }
+
 }
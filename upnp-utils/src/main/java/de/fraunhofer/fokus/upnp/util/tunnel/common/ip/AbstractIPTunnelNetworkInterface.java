@@ -75,6 +75,9 @@ public abstract class AbstractIPTunnelNetworkInterface implements
   /** Time to wait between single packets */
   protected long                   packetGapTime                    = IPTunnelConstants.TUNNEL_PACKET_DELAY;
 
+  /** Flag to offer and accept batched, compressed framing for stream tunnels */
+  protected boolean                batchedFramingOffered            = false;
+
   protected long                   lastPingPacketTime               = System.currentTimeMillis();
 
   protected long                   lastReceivedPacketTime           = System.currentTimeMillis();
@@ -130,6 +133,14 @@ public abstract class AbstractIPTunnelNetworkInterface implements
       {
         return "Config - Ping";
       }
+      if (subType == IPTunnelConstants.CONFIG_TYPE_FRAMING_REQUEST)
+      {
+        return "Config - FramingRequest";
+      }
+      if (subType == IPTunnelConstants.CONFIG_TYPE_FRAMING_RESPONSE)
+      {
+        return "Config - FramingResponse";
+      }
     }
     if (packetType == IPTunnelConstants.PACKET_TYPE_TCP)
     {
@@ -160,7 +171,8 @@ public abstract class AbstractIPTunnelNetworkInterface implements
     if (packetTunnel != null && packetTunnel.isConnected())
     {
       packetTunnel.sendPacket(packetType, payload);
-      if (packetGapTime > 0)
+      // batched framing replaces the delay between single packets
+      if (packetGapTime > 0 && !packetTunnel.isBatchedFraming())
       {
         ThreadHelper.sleep((int)packetGapTime);
       }
@@ -180,6 +192,26 @@ public abstract class AbstractIPTunnelNetworkInterface implements
   {
   }
 
+  /**
+   * Starts the framing negotiation. Must be called after each (re)connection of the outer tunnel, because the remote
+   * side may not support batched framing. Until the remote side accepts, packets are sent with the default framing.
+   */
+  protected void negotiateFraming()
+  {
+    if (packetTunnel == null)
+    {
+      return;
+    }
+    packetTunnel.setBatchedFraming(false);
+    if (batchedFramingOffered && packetTunnel.isStreamTunnel())
+    {
+      byte[] payload = new byte[] {
+          IPTunnelConstants.CONFIG_TYPE_FRAMING_REQUEST, IPTunnelConstants.FRAMING_OPTION_BATCHED
+      };
+      sendPacket(IPTunnelConstants.PACKET_TYPE_CONFIG, payload);
+    }
+  }
+
   /**
    * Checks if this IP tunnel has a valid tunnel connection.
    * 
@@ -317,6 +349,30 @@ public abstract class AbstractIPTunnelNetworkInterface implements
         ipTunnelEventListener.initialConfigReceived(this, id);
       }
     }
+    // remote side offers framing options
+    if (packetData[0] == IPTunnelConstants.CONFIG_TYPE_FRAMING_REQUEST && packetData.length > 1)
+    {
+      boolean useBatchedFraming =
+        batchedFramingOffered && packetTunnel != null && packetTunnel.isStreamTunnel() &&
+          (packetData[1] & IPTunnelConstants.FRAMING_OPTION_BATCHED) != 0;
+
+      byte[] payload = new byte[] {
+          IPTunnelConstants.CONFIG_TYPE_FRAMING_RESPONSE,
+          useBatchedFraming ? IPTunnelConstants.FRAMING_OPTION_BATCHED : 0
+      };
+      // the response is still sent with the default framing
+      sendPacket(IPTunnelConstants.PACKET_TYPE_CONFIG, payload);
+      if (useBatchedFraming)
+      {
+        packetTunnel.setBatchedFraming(true);
+      }
+    }
+    // remote side answered our framing request
+    if (packetData[0] == IPTunnelConstants.CONFIG_TYPE_FRAMING_RESPONSE && packetData.length > 1 &&
+      batchedFramingOffered && packetTunnel != null)
+    {
+      packetTunnel.setBatchedFraming((packetData[1] & IPTunnelConstants.FRAMING_OPTION_BATCHED) != 0);
+    }
   }
 
   /** Closes the physical tunnel connection but does not terminate the virtual network interface. */
@@ -370,6 +426,29 @@ public abstract class AbstractIPTunnelNetworkInterface implements
     this.acceptOnlySinglePacketsPerSocket = acceptOnlySinglePacketsPerSocket;
   }
 
+  /**
+   * Enables offering and accepting batched, compressed framing. Must be set before the tunnel is connected.
+   * 
+   * @param batchedFramingOffered
+   *          True to offer batched framing
+   */
+  public void setBatchedFramingOffered(boolean batchedFramingOffered)
+  {
+    this.batchedFramingOffered = batchedFramingOffered;
+  }
+
+  /** Checks if batched framing is offered to the remote side. */
+  public boolean isBatchedFramingOffered()
+  {
+    return batchedFramingOffered;
+  }
+
+  /** Retrieves the packet tunnel, e.g., to read the tunnel statistics. */
+  public AbstractPacketTunnel getPacketTunnel()
+  {
+    return packetTunnel;
+  }
+
   /**
    * Sets the packetGapTime.
    * 
@@ -437,6 +516,11 @@ public abstract class AbstractIPTunnelNetworkInterface implements
   public void terminate()
   {
     closeOuterConnection();
+    // stop batch thread
+    if (packetTunnel != null)
+    {
+      packetTunnel.setBatchedFraming(false);
+    }
     packetTunnel = null;
 
     // terminate all virtual sockets
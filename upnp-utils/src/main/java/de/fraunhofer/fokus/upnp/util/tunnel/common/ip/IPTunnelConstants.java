@@ -52,6 +52,15 @@ public class IPTunnelConstants
 
   public static final byte CONFIG_TYPE_CLIENT_ID                 = 20;
 
+  /** Offers framing options to the remote side, followed by one byte with option flags */
+  public static final byte CONFIG_TYPE_FRAMING_REQUEST           = 21;
+
+  /** Answers a framing request, followed by one byte with the accepted option flags */
+  public static final byte CONFIG_TYPE_FRAMING_RESPONSE          = 22;
+
+  /** Framing option for batched, compressed tunnel frames */
+  public static final byte FRAMING_OPTION_BATCHED                = 1;
+
   public static final byte PACKET_TYPE_TCP                       = 1;
 
   public static final byte PACKET_TYPE_UDP                       = 2;
@@ -67,8 +76,11 @@ public class IPTunnelConstants
   /** Timeout for clients in the reconnection table */
   public static final long RECONNECTION_TIMEOUT                  = 300000;
 
-  /** Time to wait before sending acknowledgements */
-  public static final long TCP_ACKNOWLEDGEMENT_WAIT_TIME         = 500;
+  /** Time to wait before sending delayed acknowledgements */
+  public static final long TCP_ACKNOWLEDGEMENT_WAIT_TIME         = 200;
+
+  /** Number of duplicate acknowledgements that trigger a fast retransmit */
+  public static final int  TCP_DUPLICATE_ACKNOWLEDGEMENT_COUNT   = 3;
 
   /** Maximum default payload size for TCP packets (536 bytes) */
   public static final int  TCP_DEFAULT_PAYLOAD_SIZE              = 536;
@@ -76,6 +88,21 @@ public class IPTunnelConstants
   /** Maximum default segment size for TCP packets (556 bytes) */
   public static final int  TCP_DEFAULT_SEGMENT_SIZE              = 556;
 
+  /** Maximum default segment size for TCP packets sent over stream tunnels (8192 bytes) */
+  public static final int  TCP_STREAM_TUNNEL_SEGMENT_SIZE        = 8192;
+
+  /** Initial retransmission timeout (RFC 6298) */
+  public static final long TCP_INITIAL_RETRANSMISSION_TIMEOUT    = 1000;
+
+  /** Lower bound for the retransmission timeout, must exceed the delayed acknowledgement time */
+  public static final long TCP_MIN_RETRANSMISSION_TIMEOUT        = 400;
+
+  /** Upper bound for the retransmission timeout */
+  public static final long TCP_MAX_RETRANSMISSION_TIMEOUT        = 60000;
+
+  /** Maximum number of SACK blocks sent in one acknowledgement */
+  public static final int  TCP_MAX_SACK_BLOCKS                   = 3;
+
   /** Initial congestion window (4096 bytes) */
   public static final int  TCP_INITIAL_CONGESTION_WINDOW         = 4096;
 
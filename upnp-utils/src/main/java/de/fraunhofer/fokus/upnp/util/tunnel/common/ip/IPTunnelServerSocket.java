@@ -35,7 +35,6 @@ import java.util.Hashtable;
 import java.util.Vector;
 
 import de.fraunhofer.fokus.upnp.util.CollectionHelper;
-import de.fraunhofer.fokus.upnp.util.ThreadHelper;
 
 /**
  * This class represents a server socket that is waiting for connections from the IP tunnel.
@@ -80,11 +79,19 @@ public class IPTunnelServerSocket extends IPTunnelSocket
   public IPTunnelSocket accept() throws SocketException, SocketTimeoutException
   {
     long time = System.currentTimeMillis();
-    // wait for socket ready for accept()
-    while (!terminateThread && pendingSocketList.size() == 0 &&
-      (socketTimeout == 0 || System.currentTimeMillis() - time <= socketTimeout))
+    // wait for socket ready for accept(), each processed packet wakes up this thread
+    synchronized(receiveLock)
     {
-      ThreadHelper.sleep(50);
+      while (!terminateThread && pendingSocketList.size() == 0 &&
+        (socketTimeout == 0 || System.currentTimeMillis() - time <= socketTimeout))
+      {
+        try
+        {
+          receiveLock.wait(getRemainingTimeout(time));
+        } catch (InterruptedException e)
+        {
+        }
+      }
     }
     // catch timeout
     if (socketTimeout > 0 && System.currentTimeMillis() - time > socketTimeout)
@@ -104,7 +111,9 @@ public class IPTunnelServerSocket extends IPTunnelSocket
           result.getSendSequenceNumber(),
           result.getExpectedSequenceNumber(),
           result.getWindowSize(),
-          maximumPayloadSize);
+          result.getMaximumPayloadSize());
+      // confirm selective acknowledgements if requested by the client
+      synResponsePacket.setSackPermitted(result.isSackEnabled());
 
       // System.out.println("(2) SEND SYN RESPONSE...");
 
@@ -120,11 +129,19 @@ public class IPTunnelServerSocket extends IPTunnelSocket
       // send packet immediately
       result.sendTCPPacket(synResponsePacket, true);
 
-      // wait for established connection
-      while (!terminateThread && !result.isEstablished() &&
-        (socketTimeout == 0 || System.currentTimeMillis() - time <= socketTimeout))
+      // wait for established connection, each packet processed by the socket wakes up this thread
+      synchronized(result.receiveLock)
       {
-        ThreadHelper.sleep(50);
+        while (!terminateThread && !result.isEstablished() &&
+          (socketTimeout == 0 || System.currentTimeMillis() - time <= socketTimeout))
+        {
+          try
+          {
+            result.receiveLock.wait(getRemainingTimeout(time));
+          } catch (InterruptedException e)
+          {
+          }
+        }
       }
       if (socketTimeout > 0 && System.currentTimeMillis() - time > socketTimeout)
       {
@@ -155,14 +172,20 @@ public class IPTunnelServerSocket extends IPTunnelSocket
   {
     // System.out.println(" Terminate tunnel server socket");
     terminateThread = true;
-    while (!terminated)
+    // wake up threads blocked in accept() and the release thread
+    synchronized(receiveLock)
+    {
+      receiveLock.notifyAll();
+    }
+    synchronized(socketLock)
+    {
+      socketLock.notifyAll();
+    }
+    try
+    {
+      join();
+    } catch (InterruptedException e)
     {
-      try
-      {
-        Thread.sleep(50);
-      } catch (Exception ex)
-      {
-      }
     }
     System.out.println("    Shutdown " + pendingSocketList.size() + " pending remote sockets");
     // terminate all pending sockets
@@ -239,8 +262,8 @@ public class IPTunnelServerSocket extends IPTunnelSocket
           {
             remoteMaximumPayloadSize = tcpPacket.getMaximumPayloadSize();
           }
-          // build minimum of local and remote payload size
-          maximumPayloadSize = Math.min(maximumPayloadSize, remoteMaximumPayloadSize);
+          // build minimum of local and remote payload size for this connection
+          int socketMaximumPayloadSize = Math.min(maximumPayloadSize, remoteMaximumPayloadSize);
 
           // create socket endpoint
           IPTunnelSocket pendingSocket =
@@ -249,7 +272,9 @@ public class IPTunnelServerSocket extends IPTunnelSocket
               virtualPort,
               packetSourceAddress,
               tcpPacket.getSequenceNumber(),
-              maximumPayloadSize);
+              socketMaximumPayloadSize);
+
+          pendingSocket.setSackEnabled(tcpPacket.isSackPermitted());
 
           pendingSocket.setAcceptOnlySinglePackets(ipTunnelSocketFactory.getIPTunnelNetworkInterface()
             .acceptOnlySinglePacketsPerSocket());
@@ -333,6 +358,8 @@ public class IPTunnelServerSocket extends IPTunnelSocket
           sendTCPPacket(resetPacket, true);
         }
       }
+      // wake up threads waiting in accept()
+      receiveLock.notifyAll();
     }
   }
 
@@ -357,7 +384,18 @@ public class IPTunnelServerSocket extends IPTunnelSocket
           releaseSockets = releaseSocketTable.elements();
         }
       }
-      ThreadHelper.sleep(500);
+      synchronized(socketLock)
+      {
+        if (!terminateThread)
+        {
+          try
+          {
+            socketLock.wait(500);
+          } catch (InterruptedException e)
+          {
+          }
+        }
+      }
     }
     terminated = true;
     System.out.println("    Server socket thread was shut down");
@@ -27,7 +27,6 @@
 */
 package de.fraunhofer.fokus.upnp.util.tunnel.common.ip;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -38,7 +37,6 @@ import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.util.Vector;
 
-import de.fraunhofer.fokus.upnp.util.ThreadHelper;
 
 /**
  * This class represents a Socket that receives packets over an IP tunnel.
@@ -73,8 +71,17 @@ public class IPTunnelSocket extends Thread
 
   public static boolean           DEBUG_STATE_TRANSITIONS              = true;
 
-  /** Number of packets that can be buffered by the socket */
-  private int                     RECEIVE_BUFFER_SIZE                  = 100;
+  /** Offers selective acknowledgements in connection requests */
+  public static boolean           USE_SELECTIVE_ACKNOWLEDGEMENTS       = true;
+
+  /** Minimum number of bytes that can be buffered by the socket for reading */
+  private int                     RECEIVE_BUFFER_SIZE                  = 65536;
+
+  /** Largest window that can be announced in a TCP header */
+  private static int              MAXIMUM_WINDOW_SIZE                  = 65495;
+
+  /** Number of bytes that can be queued for sending before a write blocks */
+  private int                     SEND_BUFFER_SIZE                     = 65536;
 
   /** Enables Nagle's algorithm (default is true) */
   protected boolean               useNaglesAlgorithm                   = true;
@@ -100,33 +107,33 @@ public class IPTunnelSocket extends Thread
   /** Destination port used by this socket */
   protected int                   destinationPort;
 
-  /** List of packets that wait for acknowledgment */
+  /** List of packets that wait for acknowledgment, sorted by sequence number */
   private Vector                  unacknowledgedPacketList             = new Vector();
 
   /** List of packets that wait for sending (due to possible constrained send window) */
   private Vector                  sendPacketList                       = new Vector();
 
-  /** List of packets that must be read by the input stream */
-  private Vector                  receivedPacketList                   = new Vector();
-
-  /** List of packets that were received out of order */
+  /** List of packets that were received out of order, sorted by sequence number */
   private Vector                  outOfOrderPacketList                 = new Vector();
 
+  /** Ring buffer for received data that must be read by the input stream */
+  private byte[]                  receiveBuffer                        = null;
+
+  /** Offset of the next byte that is read from the receive buffer */
+  private int                     receiveBufferReadOffset              = 0;
+
   /** Number of bytes that can be read from the input stream without blocking */
   private int                     receivedAvailableBytes;
 
+  /** Number of payload bytes in packets that wait for sending */
+  private int                     queuedSendBytes                      = 0;
+
   /** Buffer for send data */
   private byte[]                  currentSegmentData                   = null;
 
   /** Offset in send data buffer */
   private int                     currentSegmentOffset;
 
-  /** Buffer for currently read received data */
-  private byte[]                  readSegmentData                      = null;
-
-  /** Offset in currently read received data buffer */
-  private int                     readSegmentOffset                    = 0;
-
   /** Next sequence number for sending */
   private long                    sendSequenceNumber;
 
@@ -172,11 +179,45 @@ public class IPTunnelSocket extends Thread
   /** Flag that this socket only accepts one packet a time */
   protected boolean               acceptOnlySinglePackets              = true;
 
-  /** Estimated round trip time */
-  protected long                  roundTripTime                        = 3000;
+  /** Smoothed round trip time (RFC 6298), -1 until the first measurement */
+  protected long                  roundTripTime                        = -1;
+
+  /** Round trip time variation (RFC 6298) */
+  protected long                  rttDeviation                         = 0;
+
+  /** Current retransmission timeout */
+  protected long                  retransmissionTimeout                =
+    IPTunnelConstants.TCP_INITIAL_RETRANSMISSION_TIMEOUT;
+
+  /** Number of data bytes that were sent but not yet acknowledged */
+  protected long                  bytesInFlight                        = 0;
+
+  /** Number of consecutive duplicate acknowledgements */
+  protected int                   duplicateAcknowledgementCount        = 0;
+
+  /** Flag that lost packets are currently recovered after duplicate acknowledgements */
+  protected boolean               fastRecovery                         = false;
 
-  /** Round trip time deviation */
-  protected long                  rttDeviation                         = 500;
+  /** Flag that lost packets are currently recovered after a retransmission timeout */
+  protected boolean               timeoutRecovery                      = false;
+
+  /** Send sequence number at the start of the current loss recovery */
+  protected long                  recoveryPoint                        = -1;
+
+  /** Time the current loss recovery was started */
+  protected long                  recoveryStartTime                    = 0;
+
+  /** Flag that both sides support selective acknowledgements */
+  protected boolean               sackEnabled                          = false;
+
+  /** Number of received in-order data packets that were not yet acknowledged */
+  protected int                   unacknowledgedReceivedPacketCount    = 0;
+
+  /** Number of retransmitted packets */
+  protected int                   retransmissionCount                  = 0;
+
+  /** Number of packets retransmitted after duplicate acknowledgements */
+  protected int                   fastRetransmissionCount              = 0;
 
   /** Time the socket was closed */
   protected long                  releaseTime                          = 0;
@@ -234,7 +275,6 @@ public class IPTunnelSocket extends Thread
     this.maximumPayloadSize = -1;
 
     currentSegmentOffset = 0;
-    readSegmentOffset = 0;
     receivedAvailableBytes = 0;
     lastReceivedWindowSize = -1;
     // congestion window can be greater than just one packet
@@ -293,10 +333,10 @@ public class IPTunnelSocket extends Thread
 
     currentSegmentData = new byte[maximumPayloadSize];
     currentSegmentOffset = 0;
-    readSegmentOffset = 0;
+    receiveBuffer = new byte[Math.max(RECEIVE_BUFFER_SIZE, 2 * maximumPayloadSize)];
     receivedAvailableBytes = 0;
     lastReceivedWindowSize = -1;
-    congestionWindowSize = IPTunnelConstants.TCP_INITIAL_CONGESTION_WINDOW;
+    congestionWindowSize = getInitialCongestionWindowSize();
     congestionThreshold = 65536;
 
     state = CLOSED;
@@ -341,7 +381,7 @@ public class IPTunnelSocket extends Thread
 
     currentSegmentData = new byte[maximumSegmentSize];
     currentSegmentOffset = 0;
-    readSegmentOffset = 0;
+    receiveBuffer = new byte[Math.max(RECEIVE_BUFFER_SIZE, 2 * maximumSegmentSize)];
     receivedAvailableBytes = 0;
     lastReceivedWindowSize = -1;
     congestionWindowSize = IPTunnelConstants.TCP_INITIAL_CONGESTION_WINDOW;
@@ -434,6 +474,8 @@ public class IPTunnelSocket extends Thread
         getSendSequenceNumber(),
         getWindowSize(),
         maximumPayloadSize);
+    // offer selective acknowledgements
+    synRequestPacket.setSackPermitted(USE_SELECTIVE_ACKNOWLEDGEMENTS);
 
     // increment by one for sent SYN flag
     incrementSendSequenceNumber(1);
@@ -446,11 +488,19 @@ public class IPTunnelSocket extends Thread
 
     // wait for connection establishment
     long time = System.currentTimeMillis();
-    // wait for socket ready for accept()
-    while (!terminateThread && state == SYN_SENT &&
-      (socketTimeout == 0 || System.currentTimeMillis() - time <= socketTimeout))
+    // wait for socket ready for accept(), each processed packet wakes up this thread
+    synchronized(receiveLock)
     {
-      ThreadHelper.sleep(50);
+      while (!terminateThread && state == SYN_SENT &&
+        (socketTimeout == 0 || System.currentTimeMillis() - time <= socketTimeout))
+      {
+        try
+        {
+          receiveLock.wait(getRemainingTimeout(time));
+        } catch (InterruptedException e)
+        {
+        }
+      }
     }
     // catch timeout
     if (socketTimeout > 0 && System.currentTimeMillis() - time > socketTimeout)
@@ -506,10 +556,18 @@ public class IPTunnelSocket extends Thread
         }
       }
       // printMessage("Wait for sending of outstanding packets");
-      // wait for all outstanding packets
-      while (!terminateThread && (sendPacketList.size() > 0 || unacknowledgedPacketList.size() > 0))
+      // wait for all outstanding packets, each processed acknowledgement wakes up this thread
+      synchronized(sendLock)
       {
-        ThreadHelper.sleep(50);
+        while (!terminateThread && (sendPacketList.size() > 0 || unacknowledgedPacketList.size() > 0))
+        {
+          try
+          {
+            sendLock.wait();
+          } catch (InterruptedException e)
+          {
+          }
+        }
       }
       // printMessage("All outstanding packets were sent and acked, return from close()");
     }
@@ -566,11 +624,28 @@ public class IPTunnelSocket extends Thread
     {
       synchronized(sendLock)
       {
-        for (int i = offset; i < offset + length; i++)
+        int endOffset = offset + length;
+        while (offset < endOffset)
         {
-          // add bytes sequentially
-          currentSegmentData[currentSegmentOffset] = data[offset + i];
-          currentSegmentOffset++;
+          // block while the send queue is full, the socket thread wakes us up after sending
+          while (!terminateThread && queuedSendBytes >= SEND_BUFFER_SIZE)
+          {
+            try
+            {
+              sendLock.wait();
+            } catch (InterruptedException e)
+            {
+            }
+          }
+          if (terminateThread)
+          {
+            throw new IOException("Socket closed");
+          }
+          // fill current segment
+          int copyLength = Math.min(endOffset - offset, maximumPayloadSize - currentSegmentOffset);
+          System.arraycopy(data, offset, currentSegmentData, currentSegmentOffset, copyLength);
+          currentSegmentOffset += copyLength;
+          offset += copyLength;
 
           // the send buffer is completely filled
           if (currentSegmentOffset == maximumPayloadSize)
@@ -578,21 +653,11 @@ public class IPTunnelSocket extends Thread
             sendCurrentSegment();
           }
         }
-      }
-      // Nagle's algorithm is disabled, so send data right away
-      if (!useNaglesAlgorithm)
-      {
-        sendCurrentSegment();
-      }
-
-      // wait until all complete packets were written to the socket (blocking write)
-      while (!terminateThread && sendPacketList.size() > 0)
-      {
-        ThreadHelper.sleep(1);
-      }
-      if (terminateThread)
-      {
-        throw new IOException("Socket closed");
+        // Nagle's algorithm is disabled, so send data right away
+        if (!useNaglesAlgorithm)
+        {
+          sendCurrentSegment();
+        }
       }
     }
   }
@@ -638,10 +703,11 @@ public class IPTunnelSocket extends Thread
     // synchronized(sendLock)
     {
       // get sequence number for this packet
-      long currentSequenceNumber = getSendSequenceNumber();
+      long currentSequenceNumber = getNextTransmittedSequenceNumber();
 
       // prevent multiple sending
       firstUnacknowledgeReceivedPacketTime = 0;
+      unacknowledgedReceivedPacketCount = 0;
 
       // always acknowledge last received packet
       TCPPacket tcpPacket =
@@ -652,6 +718,11 @@ public class IPTunnelSocket extends Thread
           getWindowSize(),
           null);
 
+      // announce packets received out of order
+      if (sackEnabled && outOfOrderPacketList.size() > 0)
+      {
+        tcpPacket.setSackBlocks(getSackBlocks());
+      }
       sendTCPPacket(tcpPacket, true);
     }
   }
@@ -749,6 +820,12 @@ public class IPTunnelSocket extends Thread
       {
         // add to list of pending packets
         sendPacketList.add(tcpPacket);
+        if (tcpPacket.getUpperLayerData() != null)
+        {
+          queuedSendBytes += tcpPacket.getUpperLayerData().length;
+        }
+        // wake up socket thread
+        sendLock.notifyAll();
       }
     }
   }
@@ -770,7 +847,12 @@ public class IPTunnelSocket extends Thread
     {
       synchronized(ackLock)
       {
+        // packets are sent in sequence number order, so the list stays sorted
         unacknowledgedPacketList.add(tcpPacket);
+        if (tcpPacket.getUpperLayerData() != null)
+        {
+          bytesInFlight += tcpPacket.getUpperLayerData().length;
+        }
       }
     }
 
@@ -780,6 +862,7 @@ public class IPTunnelSocket extends Thread
     {
       // prevent sending of empty ack packets
       firstUnacknowledgeReceivedPacketTime = 0;
+      unacknowledgedReceivedPacketCount = 0;
     }
 
     // printSendPacketToConsole(tcpPacket);
@@ -789,26 +872,52 @@ public class IPTunnelSocket extends Thread
       tcpPacket.getIPPacket());
   }
 
-  /** Adds a received byte array to the list of received packets */
-  protected void addReceivedBytes(byte[] data)
+  /**
+   * Sends an already sent TCP/IP packet again.
+   * 
+   * @param tcpPacket
+   *          The unacknowledged TCP packet
+   */
+  private void retransmitTCPPacket(TCPPacket tcpPacket)
+  {
+    tcpPacket.setLastSendTime();
+    tcpPacket.incrementSendCount();
+    lastSentPacketTime = System.currentTimeMillis();
+    retransmissionCount++;
+
+    ipTunnelSocketFactory.getIPTunnelNetworkInterface().sendIPPacketToTunnel(IPTunnelConstants.PACKET_TYPE_TCP,
+      tcpPacket.getIPPacket());
+  }
+
+  /**
+   * Adds a received byte array to the receive buffer. Must be called with the receive lock.
+   * 
+   * @param data
+   *          The received data
+   * 
+   * @return True if the data was stored, false if the receive buffer cannot hold the data
+   */
+  protected boolean addReceivedBytes(byte[] data)
   {
     // printMessage("Add [\n" + StringHelper.byteArrayToString(data) + "]");
 
-    // create a new buffer object and add it to the list of received packets
-    ByteArrayOutputStream packetBuffer = new ByteArrayOutputStream(data.length);
-    try
-    {
-      packetBuffer.write(data);
-      receivedPacketList.add(packetBuffer);
-      receivedAvailableBytes += data.length;
-    } catch (IOException e)
+    // the remote side ignored our window
+    if (data.length > receiveBuffer.length - receivedAvailableBytes)
     {
+      return false;
     }
-    // initialization if current buffer is null
-    if (readSegmentData == null)
-    {
-      pushReceivedPacket();
-    }
+    // copy data behind the unread bytes, possibly wrapping around the end of the buffer
+    int writeOffset = (receiveBufferReadOffset + receivedAvailableBytes) % receiveBuffer.length;
+    int firstLength = Math.min(data.length, receiveBuffer.length - writeOffset);
+    System.arraycopy(data, 0, receiveBuffer, writeOffset, firstLength);
+    System.arraycopy(data, firstLength, receiveBuffer, 0, data.length - firstLength);
+
+    receivedAvailableBytes += data.length;
+
+    // wake up blocked readers
+    receiveLock.notifyAll();
+
+    return true;
   }
 
   /** Retrieves the number of bytes that can be read without blocking */
@@ -820,52 +929,23 @@ public class IPTunnelSocket extends Thread
   /** Read one received byte */
   protected int readByteFromTunnel() throws SocketTimeoutException, IOException
   {
-    // cannot read data after closing
-    if (state == TIMED_WAIT || state == CLOSED)
-    {
-      throw new IOException("Cannot read data from closed socket");
-    }
-    // cannot read data during synchronization
-    if (state == SYN_SENT || state == SYN_RCVD)
-    {
-      throw new IOException("Cannot read data from unsynchronized socket");
-    }
-    // end of stream reached
-    if (state == CLOSE_WAIT && receivedAvailableBytes == 0)
-    {
-      return -1;
-    }
-
-    long time = System.currentTimeMillis();
-    // blocking read
-    while (!terminateThread && receivedAvailableBytes == 0)
+    // prevent reading while a further TCP packet is received
+    synchronized(receiveLock)
     {
-      ThreadHelper.sleep(1);
-      if (socketTimeout > 0 && System.currentTimeMillis() - time > socketTimeout)
+      if (!waitForReceivedBytes())
       {
-        throw new SocketTimeoutException("Read operation timed out");
+        return -1;
       }
-    }
-    if (receivedAvailableBytes != 0)
-    {
-      // prevent reading while a further TCP packet is received
-      synchronized(receiveLock)
-      {
-        int result = readSegmentData[readSegmentOffset] & 0xFF;
+      int previousWindowSize = getWindowSize();
 
-        readSegmentOffset++;
-        receivedAvailableBytes--;
+      int result = receiveBuffer[receiveBufferReadOffset] & 0xFF;
 
-        // current buffer was read completely
-        if (readSegmentOffset == readSegmentData.length)
-        {
-          pushReceivedPacket();
-        }
-        return result;
-      }
-    }
+      receiveBufferReadOffset = (receiveBufferReadOffset + 1) % receiveBuffer.length;
+      receivedAvailableBytes--;
 
-    return -1;
+      announceWindowUpdate(previousWindowSize);
+      return result;
+    }
   }
 
   /** Read some bytes from the tunnel */
@@ -875,7 +955,7 @@ public class IPTunnelSocket extends Thread
     {
       throw new NullPointerException();
     }
-    if (offset > 0 || length < 0 || offset + length > data.length)
+    if (offset < 0 || length < 0 || offset + length > data.length)
     {
       throw new IndexOutOfBoundsException();
     }
@@ -883,91 +963,109 @@ public class IPTunnelSocket extends Thread
     {
       return 0;
     }
+    // prevent reading during reception
+    synchronized(receiveLock)
+    {
+      if (!waitForReceivedBytes())
+      {
+        return -1;
+      }
+      int previousWindowSize = getWindowSize();
 
-    // check states
+      // determine, how many bytes can be read from the socket
+      int readBytes = Math.min(receivedAvailableBytes, length);
+      // read bytes, possibly wrapping around the end of the buffer
+      int firstLength = Math.min(readBytes, receiveBuffer.length - receiveBufferReadOffset);
+      System.arraycopy(receiveBuffer, receiveBufferReadOffset, data, offset, firstLength);
+      System.arraycopy(receiveBuffer, 0, data, offset + firstLength, readBytes - firstLength);
 
-    // cannot read data after closing
-    if (state == TIMED_WAIT || state == CLOSED)
-    {
-      throw new IOException("Cannot read data from closed socket");
-    }
-    // cannot read data during synchronization
-    if (state == SYN_SENT || state == SYN_RCVD)
-    {
-      throw new IOException("Cannot read data from unsynchronized socket");
+      receiveBufferReadOffset = (receiveBufferReadOffset + readBytes) % receiveBuffer.length;
+      receivedAvailableBytes -= readBytes;
+
+      announceWindowUpdate(previousWindowSize);
+      return readBytes;
     }
-    // end of stream reached
-    if (state == CLOSE_WAIT && receivedAvailableBytes == 0)
+  }
+
+  /**
+   * Sends a window update after reading if the window was reopened or has grown to at least half of the receive
+   * buffer. Otherwise, the remote side may wait for a delayed acknowledgement with a window that is too small.
+   * 
+   * @param previousWindowSize
+   *          The window size before reading
+   */
+  private void announceWindowUpdate(int previousWindowSize)
+  {
+    int windowSize = getWindowSize();
+    if (previousWindowSize == 0 && windowSize != 0 || previousWindowSize < receiveBuffer.length / 2 &&
+      windowSize >= receiveBuffer.length / 2)
     {
-      return -1;
+      sendAcknowledgment();
     }
+  }
 
+  /**
+   * Blocks until received data is available. Must be called with the receive lock. The thread is woken up for each
+   * processed packet and on termination.
+   * 
+   * @return True if data can be read, false if the end of the stream was reached
+   */
+  private boolean waitForReceivedBytes() throws IOException, SocketTimeoutException
+  {
     long time = System.currentTimeMillis();
-    // block until data is available
-    while (!terminateThread && receivedAvailableBytes == 0)
+    while (true)
     {
-      ThreadHelper.sleep(1);
+      // cannot read data after closing
+      if (state == TIMED_WAIT || state == CLOSED)
+      {
+        throw new IOException("Cannot read data from closed socket");
+      }
+      // cannot read data during synchronization
+      if (state == SYN_SENT || state == SYN_RCVD)
+      {
+        throw new IOException("Cannot read data from unsynchronized socket");
+      }
+      if (receivedAvailableBytes != 0)
+      {
+        return true;
+      }
+      // end of stream reached
+      if (state == CLOSE_WAIT || state == LAST_ACK || state == CLOSING)
+      {
+        return false;
+      }
+      if (terminateThread)
+      {
+        throw new IOException("Socket closed");
+      }
       if (socketTimeout > 0 && System.currentTimeMillis() - time > socketTimeout)
       {
         throw new SocketTimeoutException("Read operation timed out");
       }
-    }
-    if (terminated)
-    {
-      throw new IOException("Socket closed");
-    }
-    if (receivedAvailableBytes != 0)
-    {
-      // prevent reading during reception
-      synchronized(receiveLock)
+      try
+      {
+        receiveLock.wait(getRemainingTimeout(time));
+      } catch (InterruptedException e)
       {
-        // determine, how many bytes can be read from the socket
-        int readBytes = Math.min(receivedAvailableBytes, length);
-        // read bytes
-        for (int i = 0; i < readBytes; i++)
-        {
-          data[i + offset] = readSegmentData[readSegmentOffset];
-
-          readSegmentOffset++;
-          receivedAvailableBytes--;
-
-          // current buffer was read completely
-          if (readSegmentOffset == readSegmentData.length)
-          {
-            pushReceivedPacket();
-          }
-        }
-        printMessage("Read " + readBytes + " from the tunnel");
-
-        return readBytes;
       }
     }
-    return -1;
   }
 
-  /** Reads the oldest received packet into the current read buffer */
-  private void pushReceivedPacket()
+  /**
+   * Retrieves the time a blocking operation may still wait with respect to the socket timeout.
+   * 
+   * @param startTime
+   *          Start time of the blocking operation
+   * 
+   * @return The remaining time in milliseconds or 0 for an infinite wait
+   */
+  protected long getRemainingTimeout(long startTime)
   {
-    if (receivedPacketList.size() != 0)
+    if (socketTimeout == 0)
     {
-      boolean zeroWindow = getWindowSize() == 0;
-
-      ByteArrayOutputStream nextPacket = (ByteArrayOutputStream)receivedPacketList.remove(0);
-
-      readSegmentData = null;
-      readSegmentOffset = 0;
-      readSegmentData = nextPacket.toByteArray();
-
-      // announce new window if changed from zero
-      if (zeroWindow && getWindowSize() != 0)
-      {
-        sendAcknowledgment();
-      }
-    } else
-    {
-      readSegmentOffset = 0;
-      readSegmentData = null;
+      return 0;
     }
+    return Math.max(1, socketTimeout - (System.currentTimeMillis() - startTime) + 1);
   }
 
   /** Adds a received tunnel TCP packet to the input queue of this socket */
@@ -976,75 +1074,87 @@ public class IPTunnelSocket extends Thread
     // force complete processing
     synchronized(receiveLock)
     {
-      // printReceivedPacketToConsole(tcpPacket);
+      processTCPPacket(tcpPacket);
 
-      // do not further process wrong packets
-      if (checkForErrors(tcpPacket))
-      {
-        return;
-      }
-      processSYNPacket(tcpPacket);
-      processEndOfHandshakePacket(tcpPacket);
+      // wake up threads waiting for data or state changes
+      receiveLock.notifyAll();
+    }
+    // wake up socket thread and writers because acknowledgements may have opened the window
+    synchronized(sendLock)
+    {
+      sendLock.notifyAll();
+    }
+  }
+
+  /** Processes a received tunnel TCP packet. Must be called with the receive lock. */
+  private void processTCPPacket(TCPPacket tcpPacket)
+  {
+    // printReceivedPacketToConsole(tcpPacket);
+
+    // do not further process wrong packets
+    if (checkForErrors(tcpPacket))
+    {
+      return;
+    }
+    processSYNPacket(tcpPacket);
+    processEndOfHandshakePacket(tcpPacket);
 
-      // check if received packet has the expected sequence number
-      if (!tcpPacket.hasSYNFlag() && !tcpPacket.hasRSTFlag())
+    // check if received packet has the expected sequence number
+    if (!tcpPacket.hasSYNFlag() && !tcpPacket.hasRSTFlag())
+    {
+      // packet is in order
+      if (tcpPacket.getSequenceNumber() == expectedSequenceNumber)
       {
-        // packet is in order
-        if (tcpPacket.getSequenceNumber() == expectedSequenceNumber)
+        boolean closesGap = outOfOrderPacketList.size() > 0;
+
+        processInOrderPacket(tcpPacket);
+        // check if out of order packets can now be processed
+        processOutOfOrderPackets();
+
+        // acknowledge immediately if a gap was closed or for every second data packet
+        if (closesGap || unacknowledgedReceivedPacketCount >= 2)
         {
-          processInOrderPacket(tcpPacket);
-          // check if out of order packets can now be processed
-          processOutOfOrderPackets();
-        } else
+          sendAcknowledgment();
+        }
+      } else
+      {
+        // only collect later packets but also check for sequence number overflow
+        if (isSequenceNumberInWindow(tcpPacket.getSequenceNumber()))
         {
-          // only collect later packets but also check for sequence number overflow
-          if (isSequenceNumberInWindow(tcpPacket.getSequenceNumber()))
+          // packet is out of order, store for later processing
+          if (tcpPacket.getSequenceNumberSpace() > 0)
           {
-            // packet is out of order, but no duplicate
-            // printMessage("Received later packet. SEQ: " +
-            // (tcpPacket.getSequenceNumber() - initialAcknowledgementNumber) +
-            // ", check for store");
-            boolean knownPacket = false;
-            // check for duplicates
-            for (int i = 0; i < outOfOrderPacketList.size(); i++)
-            {
-              TCPPacket currentPacket = (TCPPacket)outOfOrderPacketList.elementAt(i);
-              knownPacket |= currentPacket.getSequenceNumber() == tcpPacket.getSequenceNumber();
-              printMessage("Later packet has been received before, discard");
-            }
-            // store for later processing
-            if (!knownPacket)
-            {
-              outOfOrderPacketList.add(tcpPacket);
-            }
-          } else
-          {
-            System.out.println("Send ACK for rereceived packet");
-            // This packet has probably been received before. We send an ACK because it is possible
-            // that the remote side did not receive our first ACK
+            addOutOfOrderPacket(tcpPacket);
+            // send duplicate acknowledgement immediately to trigger a fast retransmit
             sendAcknowledgment();
           }
+        } else
+        {
+          System.out.println("Send ACK for rereceived packet");
+          // This packet has probably been received before. We send an ACK because it is possible
+          // that the remote side did not receive our first ACK
+          sendAcknowledgment();
         }
       }
-      // store received window size before the congestion window is calculated
-      lastReceivedWindowSize = tcpPacket.getWindowSize();
-
-      processAcknowledgements(tcpPacket);
-      // process RST after acknowledgements
-      processRSTPacket(tcpPacket);
+    }
+    // store received window size before the congestion window is calculated
+    lastReceivedWindowSize = tcpPacket.getWindowSize();
 
-      // printReceivedPacketToConsole(tcpPacket);
+    processAcknowledgements(tcpPacket);
+    // process RST after acknowledgements
+    processRSTPacket(tcpPacket);
 
-      // reset timeout for window probe if received window size is not zero
-      if (lastReceivedWindowSize != 0)
-      {
-        lastWindowProbeTime = System.currentTimeMillis();
-      }
-      // update window size for sending
-      lastUsedWindowSize = Math.min(congestionWindowSize, lastReceivedWindowSize);
+    // printReceivedPacketToConsole(tcpPacket);
 
-      // printMessage("Window size set to " + lastUsedWindowSize);
+    // reset timeout for window probe if received window size is not zero
+    if (lastReceivedWindowSize != 0)
+    {
+      lastWindowProbeTime = System.currentTimeMillis();
     }
+    // update window size for sending
+    lastUsedWindowSize = Math.min(congestionWindowSize, lastReceivedWindowSize);
+
+    // printMessage("Window size set to " + lastUsedWindowSize);
   }
 
   /** Shows a received packet at the console */
@@ -1211,6 +1321,9 @@ public class IPTunnelSocket extends Thread
       }
       // build minimum of local and remote payload size
       maximumPayloadSize = Math.min(maximumPayloadSize, remoteMaximumPayloadSize);
+      congestionWindowSize = getInitialCongestionWindowSize();
+      // use selective acknowledgements if supported by both sides
+      sackEnabled = USE_SELECTIVE_ACKNOWLEDGEMENTS && tcpPacket.isSackPermitted();
 
       // printMessage("(3) SEND END OF HANDSHAKE...");
 
@@ -1291,76 +1404,123 @@ public class IPTunnelSocket extends Thread
     {
       long packetAcknowledgementNumber = tcpPacket.getAcknowledgementNumber();
 
-      // calculate longest round trip time
-      long ackTime = 0;
+      boolean newAcknowledgement =
+        lastReceivedAcknowledgementNumber == -1 || packetAcknowledgementNumber != lastReceivedAcknowledgementNumber &&
+          isSequenceNumberBeforeOrEqual(lastReceivedAcknowledgementNumber, packetAcknowledgementNumber);
+
+      // round trip time of the last acknowledged packet
+      long ackTime = -1;
 
-      // go through all unacknowledged packets and remove those with sequence numbers smaller than
-      // the received sequence number
-      int i = 0;
       int dataPacketAcknowledgeCount = 0;
+      long acknowledgedBytes = 0;
       synchronized(ackLock)
       {
-        while (i < unacknowledgedPacketList.size())
+        // the list is sorted, so remove packets from the start until a packet is not completely acknowledged
+        while (newAcknowledgement && unacknowledgedPacketList.size() > 0)
         {
-          TCPPacket currentPacket = (TCPPacket)unacknowledgedPacketList.elementAt(i);
-          // new number is greater than last received number
-          if (packetAcknowledgementNumber > lastReceivedAcknowledgementNumber &&
-            currentPacket.getSequenceNumber() < packetAcknowledgementNumber ||
-            packetAcknowledgementNumber < lastReceivedAcknowledgementNumber &&
-            (currentPacket.getSequenceNumber() > lastReceivedAcknowledgementNumber || currentPacket.getSequenceNumber() < packetAcknowledgementNumber))
+          TCPPacket currentPacket = (TCPPacket)unacknowledgedPacketList.elementAt(0);
+          long packetEnd = currentPacket.getSequenceNumber() + currentPacket.getSequenceNumberSpace() & INT_MASK;
+          if (!isSequenceNumberBeforeOrEqual(packetEnd, packetAcknowledgementNumber))
           {
-            // do not use retransmitted packets for the calculation of the round trip time (Karn's
-            // algorithm)
-            if (currentPacket.getSendCount() == 1)
-            {
-              // store latest acknowledgement
-              ackTime = Math.max(ackTime, System.currentTimeMillis() - currentPacket.getLastSendTime());
-            }
-            // only use data packets to update the congestion control
-            if (currentPacket.getUpperLayerData() != null)
-            {
-              dataPacketAcknowledgeCount++;
-            }
-
-            unacknowledgedPacketList.remove(i);
-          } else
+            break;
+          }
+          // do not use retransmitted packets for the calculation of the round trip time (Karn's
+          // algorithm)
+          if (currentPacket.getSendCount() == 1)
           {
-            i++;
+            ackTime = System.currentTimeMillis() - currentPacket.getLastSendTime();
           }
+          // only use data packets to update the congestion control
+          if (currentPacket.getUpperLayerData() != null)
+          {
+            dataPacketAcknowledgeCount++;
+            acknowledgedBytes += currentPacket.getUpperLayerData().length;
+          }
+          unacknowledgedPacketList.removeElementAt(0);
+        }
+        bytesInFlight = Math.max(0, bytesInFlight - acknowledgedBytes);
+
+        // mark packets that the receiver has already stored out of order
+        if (sackEnabled && tcpPacket.getSackBlocks() != null)
+        {
+          markSackedPackets(tcpPacket.getSackBlocks());
         }
       }
 
-      // update round trip time with the data of the slowest packet
-      if (ackTime != 0)
+      // update retransmission timeout
+      if (ackTime >= 0)
       {
-        // update round trip estimation
-        roundTripTime = Math.round(7.0 * roundTripTime / 8.0 + ackTime / 8.0);
-        // update deviation
-        rttDeviation = Math.round(7.0 * rttDeviation / 8.0 + Math.abs(roundTripTime - ackTime) / 8.0);
+        updateRetransmissionTimeout(ackTime);
       }
 
-      // update last received acknowledgement number
-      lastReceivedAcknowledgementNumber = packetAcknowledgementNumber;
-
-      // handle congestion control
-      for (int j = 0; j < dataPacketAcknowledgeCount; j++)
+      if (newAcknowledgement)
       {
-        // increment congestion window size if the number of acknowledged bytes*2
-        // is greater than the current congestion window
-        if (congestionWindowSize < congestionThreshold)
+        // update last received acknowledgement number
+        lastReceivedAcknowledgementNumber = packetAcknowledgementNumber;
+        duplicateAcknowledgementCount = 0;
+
+        if (fastRecovery || timeoutRecovery)
         {
-          // grow exponentially under threshold
-          congestionWindowSize = congestionWindowSize * 2;
-        } else
+          if (isSequenceNumberBeforeOrEqual(recoveryPoint, packetAcknowledgementNumber))
+          {
+            // all packets sent before the loss were acknowledged
+            if (fastRecovery)
+            {
+              congestionWindowSize = congestionThreshold;
+            }
+            fastRecovery = false;
+            timeoutRecovery = false;
+          } else
+          {
+            // partial acknowledgement, the next packet was lost as well
+            retransmitLostPacket(false);
+            if (fastRecovery)
+            {
+              congestionWindowSize =
+                Math.max(maximumPayloadSize, congestionWindowSize - acknowledgedBytes + maximumPayloadSize);
+            }
+          }
+        }
+        // handle congestion control
+        for (int j = 0; !fastRecovery && j < dataPacketAcknowledgeCount; j++)
+        {
+          if (congestionWindowSize < congestionThreshold)
+          {
+            // slow start, grow by one packet for each acknowledged packet
+            congestionWindowSize = congestionWindowSize + maximumPayloadSize;
+          } else
+          {
+            // congestion avoidance, grow by one packet per round trip time
+            congestionWindowSize =
+              congestionWindowSize + Math.max(1, maximumPayloadSize * maximumPayloadSize / congestionWindowSize);
+          }
+        }
+      } else if (packetAcknowledgementNumber == lastReceivedAcknowledgementNumber &&
+        tcpPacket.getSequenceNumberSpace() == 0 && bytesInFlight > 0)
+      {
+        // duplicate acknowledgement, the receiver got a later packet
+        duplicateAcknowledgementCount++;
+        if (fastRecovery)
         {
-          // grow linearly over threshold
+          // each duplicate acknowledgement signals a packet that has left the network
           congestionWindowSize = congestionWindowSize + maximumPayloadSize;
+          // retransmit further holes reported by the receiver
+          if (sackEnabled)
+          {
+            retransmitLostPacket(true);
+          }
+        } else if (!timeoutRecovery &&
+          duplicateAcknowledgementCount == IPTunnelConstants.TCP_DUPLICATE_ACKNOWLEDGEMENT_COUNT)
+        {
+          startLossRecovery(true);
         }
       }
-      // limit to receive window if valid
-      if (lastReceivedWindowSize > 0)
+      // the receive window is applied for each sent packet, so the congestion window is only limited to the
+      // largest window a receiver can announce (clamping to the current receive window would stall the connection
+      // on a single unacknowledged packet whenever the remote reader lags behind)
+      if (!fastRecovery)
       {
-        congestionWindowSize = Math.min(lastReceivedWindowSize, congestionWindowSize);
+        congestionWindowSize = Math.min(MAXIMUM_WINDOW_SIZE, congestionWindowSize);
       }
       // System.out.println("Congestion window size set to " + congestionWindowSize);
 
@@ -1392,18 +1552,168 @@ public class IPTunnelSocket extends Thread
     }
   }
 
+  /** Updates the round trip time estimation and the retransmission timeout (RFC 6298) */
+  private void updateRetransmissionTimeout(long measuredRoundTripTime)
+  {
+    if (roundTripTime < 0)
+    {
+      // first measurement
+      roundTripTime = measuredRoundTripTime;
+      rttDeviation = measuredRoundTripTime / 2;
+    } else
+    {
+      rttDeviation = (3 * rttDeviation + Math.abs(roundTripTime - measuredRoundTripTime)) / 4;
+      roundTripTime = (7 * roundTripTime + measuredRoundTripTime) / 8;
+    }
+    retransmissionTimeout =
+      Math.min(IPTunnelConstants.TCP_MAX_RETRANSMISSION_TIMEOUT,
+        Math.max(IPTunnelConstants.TCP_MIN_RETRANSMISSION_TIMEOUT, roundTripTime + Math.max(1, 4 * rttDeviation)));
+  }
+
+  /**
+   * Starts the recovery of lost packets and retransmits the oldest unacknowledged packet.
+   * 
+   * @param fastRetransmit
+   *          True if the loss was detected by duplicate acknowledgements, false for a retransmission timeout
+   */
+  private void startLossRecovery(boolean fastRetransmit)
+  {
+    synchronized(ackLock)
+    {
+      if (unacknowledgedPacketList.size() == 0)
+      {
+        return;
+      }
+      // only reduce the threshold once per loss event
+      if (!fastRecovery && !timeoutRecovery)
+      {
+        congestionThreshold = Math.max(bytesInFlight / 2, 2 * maximumPayloadSize);
+      }
+      TCPPacket lastPacket = (TCPPacket)unacknowledgedPacketList.lastElement();
+      recoveryPoint = lastPacket.getSequenceNumber() + lastPacket.getSequenceNumberSpace() & INT_MASK;
+      recoveryStartTime = System.currentTimeMillis();
+      duplicateAcknowledgementCount = 0;
+
+      if (fastRetransmit)
+      {
+        // fast recovery: the three packets that triggered the duplicate acknowledgements have left the network
+        congestionWindowSize = congestionThreshold + 3 * maximumPayloadSize;
+        fastRecovery = true;
+        timeoutRecovery = false;
+        fastRetransmissionCount++;
+      } else
+      {
+        // back off timer (Karn's algorithm) and restart with slow start
+        retransmissionTimeout = Math.min(IPTunnelConstants.TCP_MAX_RETRANSMISSION_TIMEOUT, retransmissionTimeout * 2);
+        congestionWindowSize = maximumPayloadSize;
+        fastRecovery = false;
+        timeoutRecovery = true;
+      }
+      TCPPacket tcpPacket = getFirstUnsackedPacket();
+
+      printMessage("Resend packet with sequence number " + (tcpPacket.getSequenceNumber() - initialSendSequenceNumber) +
+        (fastRetransmit ? " after duplicate acknowledgements" : " after timeout") + ", " +
+        (tcpPacket.getSendCount() + 1) + ". attempt. Congestion window size is " + congestionWindowSize);
+
+      retransmitTCPPacket(tcpPacket);
+    }
+  }
+
+  /**
+   * Retransmits the first packet that was not selectively acknowledged and not retransmitted during the current
+   * recovery.
+   * 
+   * @param requireLaterSackedPacket
+   *          True to only retransmit packets that are followed by a selectively acknowledged packet
+   */
+  private void retransmitLostPacket(boolean requireLaterSackedPacket)
+  {
+    synchronized(ackLock)
+    {
+      for (int i = 0; i < unacknowledgedPacketList.size(); i++)
+      {
+        TCPPacket currentPacket = (TCPPacket)unacknowledgedPacketList.elementAt(i);
+        if (!currentPacket.isSacked() && currentPacket.getLastSendTime() < recoveryStartTime)
+        {
+          if (!requireLaterSackedPacket || hasLaterSackedPacket(currentPacket))
+          {
+            retransmitTCPPacket(currentPacket);
+          }
+          return;
+        }
+      }
+    }
+  }
+
+  /** Checks if a packet is followed by a selectively acknowledged packet. Must be called with the ackLock. */
+  private boolean hasLaterSackedPacket(TCPPacket tcpPacket)
+  {
+    for (int i = unacknowledgedPacketList.size() - 1; i >= 0; i--)
+    {
+      TCPPacket currentPacket = (TCPPacket)unacknowledgedPacketList.elementAt(i);
+      if (currentPacket == tcpPacket)
+      {
+        return false;
+      }
+      if (currentPacket.isSacked())
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Retrieves the oldest packet that was not selectively acknowledged. Must be called with the ackLock. */
+  private TCPPacket getFirstUnsackedPacket()
+  {
+    for (int i = 0; i < unacknowledgedPacketList.size(); i++)
+    {
+      TCPPacket currentPacket = (TCPPacket)unacknowledgedPacketList.elementAt(i);
+      if (!currentPacket.isSacked())
+      {
+        return currentPacket;
+      }
+    }
+    return (TCPPacket)unacknowledgedPacketList.firstElement();
+  }
+
+  /** Marks all sent packets that are covered by received SACK blocks. Must be called with the ackLock. */
+  private void markSackedPackets(long[] sackBlocks)
+  {
+    for (int i = 0; i < unacknowledgedPacketList.size(); i++)
+    {
+      TCPPacket currentPacket = (TCPPacket)unacknowledgedPacketList.elementAt(i);
+      long packetStart = currentPacket.getSequenceNumber();
+      long packetEnd = packetStart + currentPacket.getSequenceNumberSpace() & INT_MASK;
+      for (int j = 0; !currentPacket.isSacked() && j + 1 < sackBlocks.length; j += 2)
+      {
+        if (isSequenceNumberBeforeOrEqual(sackBlocks[j], packetStart) &&
+          isSequenceNumberBeforeOrEqual(packetEnd, sackBlocks[j + 1]))
+        {
+          currentPacket.setSacked(true);
+        }
+      }
+    }
+  }
+
   /** Processes the next in-order packet */
   private void processInOrderPacket(TCPPacket tcpPacket)
   {
     // process data
     if (tcpPacket.getUpperLayerData() != null)
     {
-      // store TCP byte stream
-      addReceivedBytes(tcpPacket.getUpperLayerData());
+      // store TCP byte stream, the remote side must retransmit data that does not fit
+      if (!addReceivedBytes(tcpPacket.getUpperLayerData()))
+      {
+        printMessage("Receive buffer overflow, discard packet");
+        return;
+      }
 
       // increment expected sequence number by length of received data
       incrementExpectedSequenceNumber(tcpPacket.getUpperLayerData().length);
 
+      unacknowledgedReceivedPacketCount++;
+
       // check if this is the first packet that was not yet acknowledged
       if (firstUnacknowledgeReceivedPacketTime == 0)
       {
@@ -1415,31 +1725,99 @@ public class IPTunnelSocket extends Thread
     processFINPacket(tcpPacket);
   }
 
-  /** Processes the vector with out of order packets */
+  /** Processes the sorted list with out of order packets */
   private void processOutOfOrderPackets()
   {
-    boolean abort = false;
-    // search vector for packets with the next expected sequence number until no further
-    // packets are found
-    while (!abort)
+    while (outOfOrderPacketList.size() > 0)
     {
-      int i = 0;
-      abort = true;
-      while (i < outOfOrderPacketList.size())
+      TCPPacket tcpPacket = (TCPPacket)outOfOrderPacketList.elementAt(0);
+      if (tcpPacket.getSequenceNumber() == expectedSequenceNumber)
       {
-        TCPPacket tcpPacket = (TCPPacket)outOfOrderPacketList.elementAt(i);
-        if (tcpPacket.getSequenceNumber() == expectedSequenceNumber)
-        {
-          // printMessage(" Processed out of order packet.");
-          abort = false;
-          processInOrderPacket(tcpPacket);
-          outOfOrderPacketList.remove(i);
-        } else
+        // printMessage(" Processed out of order packet.");
+        outOfOrderPacketList.removeElementAt(0);
+        processInOrderPacket(tcpPacket);
+      } else if (!isSequenceNumberBeforeOrEqual(expectedSequenceNumber, tcpPacket.getSequenceNumber()))
+      {
+        // packet is already covered by processed data
+        outOfOrderPacketList.removeElementAt(0);
+      } else
+      {
+        // gap before next packet
+        return;
+      }
+    }
+  }
+
+  /** Inserts a packet into the sorted list of out of order packets */
+  private void addOutOfOrderPacket(TCPPacket tcpPacket)
+  {
+    long distance = getSequenceNumberDistance(expectedSequenceNumber, tcpPacket.getSequenceNumber());
+
+    // binary search for insert position
+    int low = 0;
+    int high = outOfOrderPacketList.size();
+    while (low < high)
+    {
+      int middle = (low + high) / 2;
+      long middleDistance =
+        getSequenceNumberDistance(expectedSequenceNumber,
+          ((TCPPacket)outOfOrderPacketList.elementAt(middle)).getSequenceNumber());
+      if (middleDistance < distance)
+      {
+        low = middle + 1;
+      } else if (middleDistance > distance)
+      {
+        high = middle;
+      } else
+      {
+        printMessage("Later packet has been received before, discard");
+        return;
+      }
+    }
+    outOfOrderPacketList.insertElementAt(tcpPacket, low);
+  }
+
+  /** Builds SACK blocks (pairs of left and right edges) from the list of out of order packets */
+  private long[] getSackBlocks()
+  {
+    long[] blocks = new long[IPTunnelConstants.TCP_MAX_SACK_BLOCKS * 2];
+    int blockCount = 0;
+    for (int i = 0; i < outOfOrderPacketList.size(); i++)
+    {
+      TCPPacket tcpPacket = (TCPPacket)outOfOrderPacketList.elementAt(i);
+      long leftEdge = tcpPacket.getSequenceNumber();
+      long rightEdge = leftEdge + tcpPacket.getSequenceNumberSpace() & INT_MASK;
+      // extend current block
+      if (blockCount > 0 && blocks[blockCount * 2 - 1] == leftEdge)
+      {
+        blocks[blockCount * 2 - 1] = rightEdge;
+      } else
+      {
+        if (blockCount == IPTunnelConstants.TCP_MAX_SACK_BLOCKS)
         {
-          i++;
+          break;
         }
+        blocks[blockCount * 2] = leftEdge;
+        blocks[blockCount * 2 + 1] = rightEdge;
+        blockCount++;
       }
     }
+    long[] result = new long[blockCount * 2];
+    System.arraycopy(blocks, 0, result, 0, result.length);
+
+    return result;
+  }
+
+  /** Retrieves the distance from one sequence number to another, considering overflows */
+  private static long getSequenceNumberDistance(long from, long to)
+  {
+    return to - from & INT_MASK;
+  }
+
+  /** Checks if a sequence number is equal to or before another one, considering overflows */
+  private static boolean isSequenceNumberBeforeOrEqual(long first, long second)
+  {
+    return getSequenceNumberDistance(first, second) < 0x80000000l;
   }
 
   /** Checks if a sequence number is acceptable */
@@ -1530,6 +1908,22 @@ public class IPTunnelSocket extends Thread
     return sendSequenceNumber;
   }
 
+  /**
+   * Retrieves the sequence number of the next byte that is actually sent to the tunnel. This differs from the send
+   * sequence number if packets are waiting in the send queue.
+   */
+  private long getNextTransmittedSequenceNumber()
+  {
+    synchronized(sendLock)
+    {
+      if (sendPacketList.size() > 0)
+      {
+        return ((TCPPacket)sendPacketList.elementAt(0)).getSequenceNumber();
+      }
+      return sendSequenceNumber;
+    }
+  }
+
   /** Updates the sequence number after creating a new packet */
   protected void incrementSendSequenceNumber(int increment)
   {
@@ -1540,13 +1934,18 @@ public class IPTunnelSocket extends Thread
   /** Retrieves the number of bytes this socket is willing to accept (the receive window) */
   protected int getWindowSize()
   {
+    int freeBytes = receiveBuffer == null ? 0 : receiveBuffer.length - receivedAvailableBytes;
+    // do not announce windows smaller than one packet to avoid the silly window syndrome
+    if (freeBytes < maximumPayloadSize)
+    {
+      return 0;
+    }
     if (acceptOnlySinglePackets)
     {
-      return Math.min(maximumPayloadSize, Math.max(0, (RECEIVE_BUFFER_SIZE - receivedPacketList.size()) *
-        maximumPayloadSize));
+      return maximumPayloadSize;
     } else
     {
-      return Math.min(65495, Math.max(0, (RECEIVE_BUFFER_SIZE - receivedPacketList.size()) * maximumPayloadSize));
+      return Math.min(MAXIMUM_WINDOW_SIZE, freeBytes);
     }
   }
 
@@ -1605,6 +2004,54 @@ public class IPTunnelSocket extends Thread
     return creationTime;
   }
 
+  /** Retrieves the initial congestion window, which must hold at least two packets (RFC 5681) */
+  private long getInitialCongestionWindowSize()
+  {
+    return Math.max(IPTunnelConstants.TCP_INITIAL_CONGESTION_WINDOW, 2 * maximumPayloadSize);
+  }
+
+  /** Checks if both sides of the connection use selective acknowledgements */
+  public boolean isSackEnabled()
+  {
+    return sackEnabled;
+  }
+
+  /** Enables selective acknowledgements after a received connection request */
+  protected void setSackEnabled(boolean sackEnabled)
+  {
+    this.sackEnabled = USE_SELECTIVE_ACKNOWLEDGEMENTS && sackEnabled;
+  }
+
+  /** Retrieves the maximum payload size negotiated for this socket */
+  public int getMaximumPayloadSize()
+  {
+    return maximumPayloadSize;
+  }
+
+  /** Retrieves the smoothed round trip time or -1 if no round trip time was measured yet */
+  public long getRoundTripTime()
+  {
+    return roundTripTime;
+  }
+
+  /** Retrieves the current retransmission timeout */
+  public long getRetransmissionTimeout()
+  {
+    return retransmissionTimeout;
+  }
+
+  /** Retrieves the number of retransmitted packets */
+  public int getRetransmissionCount()
+  {
+    return retransmissionCount;
+  }
+
+  /** Retrieves the number of loss recoveries started by duplicate acknowledgements */
+  public int getFastRetransmissionCount()
+  {
+    return fastRetransmissionCount;
+  }
+
   /** Shows some data about the connection */
   protected void showStats()
   {
@@ -1619,6 +2066,8 @@ public class IPTunnelSocket extends Thread
     // System.out.println("Congestion window size: " + congestionWindowSize);
     // System.out.println("Round trip time : " + roundTripTime);
     // System.out.println("Deviation : " + rttDeviation);
+    // System.out.println("Retransmission timeout: " + retransmissionTimeout);
+    // System.out.println("Retransmissions : " + retransmissionCount + " (" + fastRetransmissionCount + " fast)");
     // System.out.println();
   }
 
@@ -1646,48 +2095,38 @@ public class IPTunnelSocket extends Thread
         showStats = true;
       }
 
-      // check for acknowledge timeout
+      // check for retransmission timeout of the oldest unacknowledged packet
       boolean timeout = false;
       synchronized(ackLock)
       {
-        for (int i = 0; !timeout && i < unacknowledgedPacketList.size(); i++)
+        if (unacknowledgedPacketList.size() > 0)
         {
-          TCPPacket tcpPacket = (TCPPacket)unacknowledgedPacketList.elementAt(i);
-          if (System.currentTimeMillis() - tcpPacket.getLastSendTime() > roundTripTime + 4 * rttDeviation)
-          {
-            timeout = true;
-
-            // double round trip time (Karn's algorithm)
-            roundTripTime *= 2;
-
-            // handle congestion control
-            congestionThreshold = Math.max(maximumPayloadSize, congestionWindowSize / 2);
-            congestionWindowSize = maximumPayloadSize;
-
-            tcpPacket.setLastSendTime();
-            tcpPacket.incrementSendCount();
-
-            printMessage("Need to resend packet with sequence number " +
-              (tcpPacket.getSequenceNumber() - initialSendSequenceNumber) + " after timeout, " +
-              tcpPacket.getSendCount() + ". attempt. Reset congestion window size to " + congestionWindowSize);
-
-            // resend packet
-            ipTunnelSocketFactory.getIPTunnelNetworkInterface().sendIPPacketToTunnel(IPTunnelConstants.PACKET_TYPE_TCP,
-              tcpPacket.getIPPacket());
-          }
+          TCPPacket tcpPacket = getFirstUnsackedPacket();
+          timeout = System.currentTimeMillis() - tcpPacket.getLastSendTime() > retransmissionTimeout;
         }
+      }
+      if (timeout)
+      {
+        startLossRecovery(false);
+      }
+      boolean sendError = false;
+      synchronized(ackLock)
+      {
         // check for abort due to send error
-        for (int i = 0; i < unacknowledgedPacketList.size(); i++)
+        for (int i = 0; !sendError && i < unacknowledgedPacketList.size(); i++)
         {
           TCPPacket tcpPacket = (TCPPacket)unacknowledgedPacketList.elementAt(i);
-          if (System.currentTimeMillis() - tcpPacket.getCreationTime() > IPTunnelConstants.TCP_PACKET_ERROR_TIME)
-          {
-            printMessage("Close socket due to a send error");
-
-            terminateFromThread();
-          }
+          sendError =
+            System.currentTimeMillis() - tcpPacket.getCreationTime() > IPTunnelConstants.TCP_PACKET_ERROR_TIME;
         }
       }
+      // terminate without holding the acknowledgement lock
+      if (sendError)
+      {
+        printMessage("Close socket due to a send error");
+
+        terminateFromThread();
+      }
 
       // persistence timer to check window size
       if (lastReceivedWindowSize == 0 &&
@@ -1719,30 +2158,115 @@ public class IPTunnelSocket extends Thread
         synchronized(sendLock)
         {
           TCPPacket tcpPacket = (TCPPacket)sendPacketList.elementAt(0);
+          // usable window is limited by the congestion window and the window of the receiver
+          lastUsedWindowSize = Math.min(congestionWindowSize, lastReceivedWindowSize);
           // send packets without data immediately, but keep packet order
-          if (tcpPacket.getUpperLayerData() == null || tcpPacket.getUpperLayerData().length <= lastUsedWindowSize)
+          // a single packet can always be sent if the window is open
+          if (tcpPacket.getUpperLayerData() == null ||
+            bytesInFlight + tcpPacket.getUpperLayerData().length <= lastUsedWindowSize || bytesInFlight == 0 &&
+            lastUsedWindowSize > 0)
           {
             sendTCPPacketImmediately(tcpPacket);
 
             // remove from send list
             sendPacketList.remove(0);
-
-            // decrease window size
             if (tcpPacket.getUpperLayerData() != null)
             {
-              lastUsedWindowSize -= tcpPacket.getUpperLayerData().length;
+              queuedSendBytes -= tcpPacket.getUpperLayerData().length;
             }
+            // wake up blocked writers
+            sendLock.notifyAll();
           } else
           {
             abort = true;
           }
         }
       }
-      ThreadHelper.sleep(1);
+      // sleep until the next timer expires or new packets or acknowledgements must be handled
+      synchronized(sendLock)
+      {
+        if (!terminateThread && !canSendPacket())
+        {
+          try
+          {
+            sendLock.wait(getTimerWaitTime());
+          } catch (InterruptedException e)
+          {
+          }
+        }
+      }
     }
     terminated = true;
   }
 
+  /**
+   * Checks if the socket thread can send a pending packet right away. Must be called with the send lock.
+   * 
+   * @return True if the next packet fits into the current window or Nagle's algorithm allows sending
+   */
+  private boolean canSendPacket()
+  {
+    if (useNaglesAlgorithm && sendPacketList.size() == 0 && unacknowledgedPacketList.size() == 0 &&
+      currentSegmentOffset > 0)
+    {
+      return true;
+    }
+    if ((state != ESTABLISHED && state != FIN_WAIT_1) || sendPacketList.size() == 0)
+    {
+      return false;
+    }
+    TCPPacket tcpPacket = (TCPPacket)sendPacketList.elementAt(0);
+    long windowSize = Math.min(congestionWindowSize, lastReceivedWindowSize);
+
+    return tcpPacket.getUpperLayerData() == null ||
+      bytesInFlight + tcpPacket.getUpperLayerData().length <= windowSize || bytesInFlight == 0 && windowSize > 0;
+  }
+
+  /**
+   * Retrieves the time until the next retransmission, delayed acknowledgement or persistence timer expires.
+   * 
+   * @return The wait time in milliseconds
+   */
+  private long getTimerWaitTime()
+  {
+    long currentTime = System.currentTimeMillis();
+    // check periodically for send errors
+    long waitTime = 500;
+    synchronized(ackLock)
+    {
+      if (unacknowledgedPacketList.size() > 0)
+      {
+        waitTime =
+          Math.min(waitTime, getFirstUnsackedPacket().getLastSendTime() + retransmissionTimeout - currentTime + 1);
+      }
+    }
+    if (firstUnacknowledgeReceivedPacketTime != 0)
+    {
+      waitTime =
+        Math.min(waitTime, Math.max(firstUnacknowledgeReceivedPacketTime, lastSentPacketTime) +
+          IPTunnelConstants.TCP_ACKNOWLEDGEMENT_WAIT_TIME - currentTime + 1);
+    }
+    if (lastReceivedWindowSize == 0)
+    {
+      waitTime =
+        Math.min(waitTime, lastWindowProbeTime + IPTunnelConstants.TCP_PERSISTENCE_WAIT_TIME - currentTime + 1);
+    }
+    return Math.max(1, waitTime);
+  }
+
+  /** Wakes up all threads that wait for this socket */
+  private void notifyWaitingThreads()
+  {
+    synchronized(receiveLock)
+    {
+      receiveLock.notifyAll();
+    }
+    synchronized(sendLock)
+    {
+      sendLock.notifyAll();
+    }
+  }
+
   /** Terminates and removes a socket */
   private void terminateFromThread()
   {
@@ -1753,6 +2277,7 @@ public class IPTunnelSocket extends Thread
     state = TIMED_WAIT;
 
     terminateThread = true;
+    notifyWaitingThreads();
 
     // store time for closing
     releaseTime = System.currentTimeMillis();
@@ -1793,10 +2318,16 @@ public class IPTunnelSocket extends Thread
       state = TIMED_WAIT;
     }
     terminateThread = true;
+    notifyWaitingThreads();
     // wait for end of thread
-    while (!terminated)
+    if (Thread.currentThread() != this)
     {
-      ThreadHelper.sleep(50);
+      try
+      {
+        join();
+      } catch (InterruptedException e)
+      {
+      }
     }
     // store time for closing
     releaseTime = System.currentTimeMillis();
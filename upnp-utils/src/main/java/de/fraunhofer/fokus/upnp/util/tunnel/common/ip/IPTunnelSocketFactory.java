@@ -494,16 +494,21 @@ public class IPTunnelSocketFactory
         TCPPacket tcpPacket = new TCPPacket(ipPacket, ipPacket.getUpperLayerData());
 
         boolean isKnownPacket = false;
-        synchronized(cacheLock)
+        // only filter duplicated connection packets which would reset established connections;
+        // retransmissions and duplicate acknowledgements must reach the socket
+        if (tcpPacket.hasSYNFlag())
         {
-          isKnownPacket = receivedTCPPacketTable.containsKey(tcpPacket.getHashIdentifier());
-
-          if (!isKnownPacket)
+          synchronized(cacheLock)
           {
-            TCPPacketIdentifier packetIdentifier = new TCPPacketIdentifier(tcpPacket);
+            isKnownPacket = receivedTCPPacketTable.containsKey(tcpPacket.getHashIdentifier());
+
+            if (!isKnownPacket)
+            {
+              TCPPacketIdentifier packetIdentifier = new TCPPacketIdentifier(tcpPacket);
 
-            receivedTCPPacketTable.put(packetIdentifier.identifier, packetIdentifier);
-            receivedTCPPacketList.add(packetIdentifier);
+              receivedTCPPacketTable.put(packetIdentifier.identifier, packetIdentifier);
+              receivedTCPPacketList.add(packetIdentifier);
+            }
           }
         }
         if (!isKnownPacket)
@@ -83,6 +83,15 @@ public class TCPPacket
 
   private boolean  checksumValid         = false;
 
+  /** Flag that the sender of this SYN packet supports selective acknowledgements */
+  private boolean  sackPermitted         = false;
+
+  /** Left and right edges of received non-contiguous blocks (SACK option) */
+  private long[]   sackBlocks            = null;
+
+  /** Flag that this sent packet has been selectively acknowledged by the receiver */
+  private boolean  sacked                = false;
+
   /**
    * Creates a new instance of TCPPacket
    * 
@@ -275,42 +284,56 @@ public class TCPPacket
     // parse options
     if (headerLength > 5)
     {
-      // create options byte array
-      byte[] options = new byte[(headerLength - 5) * 4];
-      System.arraycopy(packetData, 20, options, 0, options.length);
-
-      // extract options
-      int offset = 0;
-      while (offset < options.length)
+      int optionsEnd = Math.min(headerLength * 4, packetData.length);
+      int offset = 20;
+      while (offset < optionsEnd)
       {
-        int optionType = options[offset] & 0xFF;
+        int optionType = packetData[offset] & 0xFF;
         // end of options
         if (optionType == 0)
         {
+          break;
+        }
+        // nop
+        if (optionType == 1)
+        {
+          offset++;
           continue;
         }
-        // nop is handled automatically
-
+        if (offset + 1 >= optionsEnd)
+        {
+          break;
+        }
+        int optionSize = packetData[offset + 1] & 0xFF;
+        // malformed option
+        if (optionSize < 2 || offset + optionSize > optionsEnd)
+        {
+          break;
+        }
         // maximum payload size
-        if (optionType == 2)
+        if (optionType == 2 && optionSize == 4)
         {
-          maximumPayloadSize = ((options[offset + 2] & 0xFF) << 8) + (options[offset + 3] & 0xFF);
-          offset += 3;
+          maximumPayloadSize = ((packetData[offset + 2] & 0xFF) << 8) + (packetData[offset + 3] & 0xFF);
         }
-
-        // other options, unrecognized
-        if (optionType > 2)
+        // selective acknowledgements permitted
+        if (optionType == 4)
+        {
+          sackPermitted = true;
+        }
+        // selective acknowledgement blocks
+        if (optionType == 5 && (optionSize - 2) % 8 == 0)
         {
-          // try to find size of option
-          if (offset + 1 < options.length)
+          sackBlocks = new long[(optionSize - 2) / 4];
+          for (int i = 0; i < sackBlocks.length; i++)
           {
-            int optionSize = options[offset + 1] & 0xFF;
-            // discard option
-            offset += optionSize - 1;
+            int blockOffset = offset + 2 + i * 4;
+            sackBlocks[i] =
+              (((long)packetData[blockOffset] & 0xFF) << 24) + (((long)packetData[blockOffset + 1] & 0xFF) << 16) +
+                (((long)packetData[blockOffset + 2] & 0xFF) << 8) + ((long)packetData[blockOffset + 3] & 0xFF);
           }
         }
-
-        offset++;
+        // other options are discarded
+        offset += optionSize;
       }
     }
 
@@ -365,12 +388,10 @@ public class TCPPacket
     result[19] = (byte)(urgentPointer & 0xFF);
 
     // add options
-    if (maximumPayloadSize != 0)
+    byte[] options = getOptions();
+    if (options != null)
     {
-      result[20] = (byte)0x2;
-      result[21] = (byte)0x4;
-      result[22] = (byte)((maximumPayloadSize & 0xFF00) >> 8);
-      result[23] = (byte)(maximumPayloadSize & 0xFF);
+      System.arraycopy(options, 0, result, 20, options.length);
     }
 
     if (upperLayerData != null)
@@ -471,11 +492,14 @@ public class TCPPacket
 
     result += urgentPointer;
 
-    // add option
-    if (maximumPayloadSize != 0)
+    // add options
+    byte[] options = getOptions();
+    if (options != null)
     {
-      result += 0x0204;
-      result += maximumPayloadSize;
+      for (int i = 0; i < options.length / 2; i++)
+      {
+        result += ((options[i * 2] & 0xFF) << 8) + (options[i * 2 + 1] & 0xFF);
+      }
     }
 
     // add data
@@ -646,7 +670,73 @@ public class TCPPacket
   /** Retrieves the packet size as byte array */
   public int getSize()
   {
-    return 20 + (maximumPayloadSize != 0 ? 4 : 0) + (upperLayerData != null ? upperLayerData.length : 0);
+    return 20 + getOptionsLength() + (upperLayerData != null ? upperLayerData.length : 0);
+  }
+
+  /** Retrieves the size of all options, which is always a multiple of 4 */
+  private int getOptionsLength()
+  {
+    int result = maximumPayloadSize != 0 ? 4 : 0;
+    if (sackPermitted)
+    {
+      result += 4;
+    }
+    if (sackBlocks != null && sackBlocks.length > 0)
+    {
+      result += 4 + sackBlocks.length * 4;
+    }
+    return result;
+  }
+
+  /** Builds the option bytes for this packet (options are padded with NOPs to 32 bit words) */
+  private byte[] getOptions()
+  {
+    int length = getOptionsLength();
+    if (length == 0)
+    {
+      return null;
+    }
+    byte[] result = new byte[length];
+    int offset = 0;
+    if (maximumPayloadSize != 0)
+    {
+      result[0] = (byte)0x2;
+      result[1] = (byte)0x4;
+      result[2] = (byte)((maximumPayloadSize & 0xFF00) >> 8);
+      result[3] = (byte)(maximumPayloadSize & 0xFF);
+      offset += 4;
+    }
+    if (sackPermitted)
+    {
+      result[offset] = (byte)0x1;
+      result[offset + 1] = (byte)0x1;
+      result[offset + 2] = (byte)0x4;
+      result[offset + 3] = (byte)0x2;
+      offset += 4;
+    }
+    if (sackBlocks != null && sackBlocks.length > 0)
+    {
+      result[offset] = (byte)0x1;
+      result[offset + 1] = (byte)0x1;
+      result[offset + 2] = (byte)0x5;
+      result[offset + 3] = (byte)(2 + sackBlocks.length * 4);
+      offset += 4;
+      for (int i = 0; i < sackBlocks.length; i++)
+      {
+        result[offset] = (byte)((sackBlocks[i] & 0xFF000000) >> 24);
+        result[offset + 1] = (byte)((sackBlocks[i] & 0xFF0000) >> 16);
+        result[offset + 2] = (byte)((sackBlocks[i] & 0xFF00) >> 8);
+        result[offset + 3] = (byte)(sackBlocks[i] & 0xFF);
+        offset += 4;
+      }
+    }
+    return result;
+  }
+
+  /** Updates the header length after a change of the options */
+  private void updateHeaderLength()
+  {
+    headerLength = 5 + getOptionsLength() / 4;
   }
 
   /** Retrieves the sequence number increment for this packet */
@@ -710,6 +800,47 @@ public class TCPPacket
     acknowledgeFlag = true;
   }
 
+  /** Checks if the sender of this packet supports selective acknowledgements */
+  public boolean isSackPermitted()
+  {
+    return sackPermitted;
+  }
+
+  /** Sets the SACK permitted option. This must be called before the checksum is calculated. */
+  public void setSackPermitted(boolean sackPermitted)
+  {
+    this.sackPermitted = sackPermitted;
+    updateHeaderLength();
+  }
+
+  /** Retrieves the received SACK blocks as pairs of left and right edges or null */
+  public long[] getSackBlocks()
+  {
+    return sackBlocks;
+  }
+
+  /**
+   * Sets the SACK blocks as pairs of left and right edges (at most 4 blocks). This must be called before the checksum
+   * is calculated.
+   */
+  public void setSackBlocks(long[] sackBlocks)
+  {
+    this.sackBlocks = sackBlocks;
+    updateHeaderLength();
+  }
+
+  /** Checks if this sent packet has been selectively acknowledged */
+  public boolean isSacked()
+  {
+    return sacked;
+  }
+
+  /** Marks this sent packet as selectively acknowledged */
+  public void setSacked(boolean sacked)
+  {
+    this.sacked = sacked;
+  }
+
   /** Retrieves if the checksum is valid for this packet */
   public boolean isValidChecksum()
   {
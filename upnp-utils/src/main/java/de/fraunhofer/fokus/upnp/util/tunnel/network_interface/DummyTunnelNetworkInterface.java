@@ -0,0 +1,219 @@
+/**
+* 
+* Copyright (C) 2004-2008 FhG Fokus
+*
+* This file is part of the FhG Fokus UPnP stack - an open source UPnP implementation
+* with some additional features
+*
+* You can redistribute the FhG Fokus UPnP stack and/or modify it
+* under the terms of the GNU General Public License Version 3 as published by
+* the Free Software Foundation.
+*
+* For a license to use the FhG Fokus UPnP stack software under conditions
+* other than those described here, or to purchase support for this
+* software, please contact Fraunhofer FOKUS by e-mail at the following
+* addresses:
+*   upnpstack@fokus.fraunhofer.de
+*
+* The FhG Fokus UPnP stack is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, see <http://www.gnu.org/licenses/>
+* or write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package de.fraunhofer.fokus.upnp.util.tunnel.network_interface;
+
+import java.io.IOException;
+import java.util.Vector;
+
+import de.fraunhofer.fokus.upnp.util.tunnel.common.AbstractPacketTunnel;
+import de.fraunhofer.fokus.upnp.util.tunnel.common.ISendPacketTunnelListener;
+import de.fraunhofer.fokus.upnp.util.tunnel.common.ListenerPacketTunnel;
+import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.AbstractIPTunnelNetworkInterface;
+
+/**
+ * This class is an in-process implementation of the virtual IP tunnel. Two instances are connected with connect() and
+ * exchange tunnel packets over a queue that is emptied by a separate thread. Every n-th packet can be dropped to
+ * simulate a lossy link. Useful for debugging and benchmarks.
+ * 
+ * @author Alexander Koenig
+ */
+public class DummyTunnelNetworkInterface extends AbstractIPTunnelNetworkInterface implements
+  ISendPacketTunnelListener,
+  Runnable
+{
+
+  /** Connected network interface */
+  private DummyTunnelNetworkInterface peer               = null;
+
+  /** Tunnel packets that wait for processing */
+  private Vector                      receivedPacketList = new Vector();
+
+  /** Drops every n-th sent packet, 0 disables packet loss */
+  private int                         packetLossInterval = 0;
+
+  /** Number of sent packets */
+  private int                         sentPacketCount    = 0;
+
+  /** Number of dropped packets */
+  private int                         lostPacketCount    = 0;
+
+  private Object                      lock               = new Object();
+
+  private boolean                     terminateThread    = false;
+
+  /**
+   * Creates a new instance of DummyTunnelNetworkInterface.
+   * 
+   */
+  public DummyTunnelNetworkInterface()
+  {
+    packetTunnel = new ListenerPacketTunnel(this, this);
+    // the queue neither looses nor reorders tunnel frames
+    packetTunnel.setStreamTunnel(true);
+    packetGapTime = 0;
+    connectionTime = System.currentTimeMillis();
+
+    Thread thread = new Thread(this, "DummyTunnelNetworkInterface");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Connects two network interfaces. */
+  public static void connect(DummyTunnelNetworkInterface first, DummyTunnelNetworkInterface second)
+  {
+    first.peer = second;
+    second.peer = first;
+
+    first.negotiateFraming();
+    second.negotiateFraming();
+  }
+
+  /** Adds a tunnel packet sent by the peer */
+  private void addReceivedPacket(byte[] data)
+  {
+    synchronized(lock)
+    {
+      receivedPacketList.add(data);
+      lock.notify();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see de.fraunhofer.fokus.upnp.util.tunnel.common.ISendPacketTunnelListener#sendPacket(byte[])
+   */
+  public void sendPacket(byte[] data) throws IOException
+  {
+    DummyTunnelNetworkInterface currentPeer = peer;
+    if (currentPeer == null)
+    {
+      return;
+    }
+    sentPacketCount++;
+    if (packetLossInterval > 0 && sentPacketCount % packetLossInterval == 0)
+    {
+      lostPacketCount++;
+      return;
+    }
+    currentPeer.addReceivedPacket(data);
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see de.fraunhofer.fokus.upnp.util.tunnel.common.ISendPacketTunnelListener#closeConnection()
+   */
+  public void closeConnection()
+  {
+    peer = null;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see de.fraunhofer.fokus.upnp.util.tunnel.common.ISendPacketTunnelListener#isValidConnection()
+   */
+  public boolean isValidConnection()
+  {
+    return peer != null;
+  }
+
+  /**
+   * Sets the packet loss interval.
+   * 
+   * @param packetLossInterval
+   *          Drops every n-th sent packet, 0 disables packet loss
+   */
+  public void setPacketLossInterval(int packetLossInterval)
+  {
+    this.packetLossInterval = packetLossInterval;
+  }
+
+  /** Retrieves the number of sent packets, including lost packets. */
+  public int getSentPacketCount()
+  {
+    return sentPacketCount;
+  }
+
+  /** Retrieves the number of dropped packets. */
+  public int getLostPacketCount()
+  {
+    return lostPacketCount;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see java.lang.Runnable#run()
+   */
+  public void run()
+  {
+    while (!terminateThread)
+    {
+      byte[] data = null;
+      synchronized(lock)
+      {
+        if (receivedPacketList.size() == 0)
+        {
+          try
+          {
+            lock.wait(50);
+          } catch (InterruptedException e)
+          {
+          }
+        }
+        if (receivedPacketList.size() > 0)
+        {
+          data = (byte[])receivedPacketList.remove(0);
+        }
+      }
+      AbstractPacketTunnel currentPacketTunnel = packetTunnel;
+      if (data != null && currentPacketTunnel != null)
+      {
+        currentPacketTunnel.handleReceivedData(data, 0, data.length);
+      }
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see de.fraunhofer.fokus.upnp.util.tunnel.common.ip.AbstractIPTunnelNetworkInterface#terminate()
+   */
+  public void terminate()
+  {
+    super.terminate();
+    synchronized(lock)
+    {
+      terminateThread = true;
+      lock.notify();
+    }
+  }
+
+}
@@ -32,6 +32,7 @@ import java.net.Socket;
 
 import de.fraunhofer.fokus.upnp.util.tunnel.common.StreamPacketTunnel;
 import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.AbstractIPTunnelNetworkInterface;
+import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.IPTunnelConstants;
 
 /**
  * This class is an implementation of the virtual IP tunnel that uses a TCP connection as tunnel.
@@ -41,10 +42,13 @@ import de.fraunhofer.fokus.upnp.util.tunnel.common.ip.AbstractIPTunnelNetworkInt
 public class TCPTunnelNetworkInterface extends AbstractIPTunnelNetworkInterface
 {
 
-  public static final int DEFAULT_RECEIVE_WINDOW_SIZE = 1048576;
+  public static final int     DEFAULT_RECEIVE_WINDOW_SIZE = 1048576;
+
+  /** Offers batched, compressed framing for new tunnel connections */
+  public static boolean       USE_BATCHED_FRAMING         = true;
 
   /** Socket used to transmit tunneled packets */
-  private Socket          socket;
+  private Socket              socket;
 
   /**
    * Creates a new instance of TCPTunnelNetworkInterface.java
@@ -56,6 +60,9 @@ public class TCPTunnelNetworkInterface extends AbstractIPTunnelNetworkInterface
   {
     // TCP can be modelled using in- and output streams
     packetTunnel = new StreamPacketTunnel(this);
+    // the outer TCP connection does not limit the size of tunneled packets
+    setMaximumSegmentSize(IPTunnelConstants.TCP_STREAM_TUNNEL_SEGMENT_SIZE);
+    setBatchedFramingOffered(USE_BATCHED_FRAMING);
 
     // initialize socket streams etc.
     initializeSocket(socket, false);
@@ -100,6 +107,9 @@ public class TCPTunnelNetworkInterface extends AbstractIPTunnelNetworkInterface
       ((StreamPacketTunnel)packetTunnel).setInputStream(socket.getInputStream());
       ((StreamPacketTunnel)packetTunnel).setOutputStream(socket.getOutputStream());
 
+      // the remote side decides whether batched framing is used for this connection
+      negotiateFraming();
+
       // convenience method for derived classes
       if (reconnect)
       {